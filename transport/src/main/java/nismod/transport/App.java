@@ -134,6 +134,36 @@ public class App {
 				.build();
 		options.addOption(freightRoutes);
 		
+		Option passengerRoutesParallel = Option.builder("pp")
+				.longOpt("passengerRoutesParallel")
+				.argName("THREADS> <TOP_NODES")
+				.hasArg()
+				.numberOfArgs(2)
+				.desc("Generate routes for passenger demand using multiple threads (0 threads = all processors).")
+				.valueSeparator(' ')
+				.build();
+		options.addOption(passengerRoutesParallel);
+		
+		Option temproRoutesParallel = Option.builder("tp")
+				.longOpt("temproRoutesParallel")
+				.argName("THREADS")
+				.hasArg()
+				.numberOfArgs(1)
+				.desc("Generate routes for tempro passenger demand using multiple threads (0 threads = all processors).")
+				.valueSeparator(' ')
+				.build();
+		options.addOption(temproRoutesParallel);
+		
+		Option freightRoutesParallel = Option.builder("fp")
+				.longOpt("freightRoutesParallel")
+				.argName("THREADS> <TOP_NODES")
+				.hasArg()
+				.numberOfArgs(2)
+				.desc("Generate routes for freight demand using multiple threads (0 threads = all processors).")
+				.valueSeparator(' ')
+				.build();
+		options.addOption(freightRoutesParallel);
+		
 		Option estimateMatrix = Option.builder("e")
 				.longOpt("estimateMatrix")
 				.argName("ITERATIONS")
@@ -173,6 +203,16 @@ public class App {
 				.valueSeparator(' ')
 				.build();
 		options.addOption(mergeRoutes);
+		
+		Option compressRoutes = Option.builder("cr")
+				.longOpt("compressRoutes")
+				.argName("ROUTES_INPUT_FILE> <ROUTES_OUTPUT_FILE")
+				.hasArg()
+				.numberOfArgs(2)
+				.desc("Convert a route file into a compressed indexed route file.")
+				.valueSeparator(' ')
+				.build();
+		options.addOption(compressRoutes);
 
 		// create the parser
 		CommandLineParser parser = new DefaultParser();
@@ -209,7 +249,8 @@ public class App {
 			}
 			
 			//create road network for options that use it
-			if (line.hasOption("p") || line.hasOption("t") || line.hasOption("f") || line.hasOption("m") || 
+			if (line.hasOption("p") || line.hasOption("t") || line.hasOption("f") || line.hasOption("m") || line.hasOption("cr") || 
+				line.hasOption("pp") || line.hasOption("tp") || line.hasOption("fp") || 
 				line.hasOption("e") || line.hasOption("ef") || line.hasOption("o") || line.hasOption("b") || line.hasOption("road")) {
 
 				final String areaCodeFileName = props.getProperty("areaCodeFileName");
@@ -317,6 +358,62 @@ public class App {
 					routes.saveRoutesBinary(file.getPath() + "freightRoutes" + sliceIndex + "of" + sliceNumber + ".dat", false);
 				}
 			
+			} else if (line.hasOption("pp")) {
+				
+				LOGGER.info("Generating routes for passenger OD matrix in parallel.");
+
+				String[] values = line.getOptionValues("passengerRoutesParallel");
+				
+				final int threads = Integer.parseInt(values[0]);
+				final int topNodes = Integer.parseInt(values[1]);
+
+				roadNetwork.sortGravityNodes();
+				RouteSetGenerator routes = new RouteSetGenerator(roadNetwork, props);
+				final String baseYearODMatrixFile = props.getProperty("baseYearODMatrixFile");
+				ODMatrixMultiKey passengerODM = new ODMatrixMultiKey(baseYearODMatrixFile);
+
+				routes.generateRouteSetForODMatrixParallel(passengerODM, topNodes, threads);
+				if (topNodes > 0) routes.saveRoutesBinary(file.getPath() + "routesTop" + topNodes + ".dat", false);
+				else routes.saveRoutesBinary(file.getPath() + "routes.dat", false);
+			
+			} else if (line.hasOption("tp")) {
+				
+				LOGGER.info("Generating routes for passenger tempro OD matrix in parallel.");
+
+				String[] values = line.getOptionValues("temproRoutesParallel");
+				
+				final int threads = Integer.parseInt(values[0]);
+				RouteSetGenerator routes = new RouteSetGenerator(roadNetwork, props);
+				
+				final URL temproZonesUrl = new URL(props.getProperty("temproZonesUrl"));
+				final URL nodesUrl = new URL(props.getProperty("nodesUrl"));
+				Zoning zoning = new Zoning(temproZonesUrl, nodesUrl, roadNetwork, props);
+				
+				final String temproODMatrixFile = props.getProperty("temproODMatrixFile");
+				RealODMatrixTempro temproODM = new RealODMatrixTempro(temproODMatrixFile, zoning);
+
+				routes.generateRouteSetForODMatrixTemproDistanceBasedParallel(temproODM, zoning, threads);
+				LOGGER.debug(routes.getStatistics());
+				routes.saveRoutesBinary(file.getPath() + "TemproRoutes.dat", false);
+			
+			} else if (line.hasOption("fp")) {
+				
+				LOGGER.info("Generating routes for freight OD matrix in parallel.");
+
+				String[] values = line.getOptionValues("freightRoutesParallel");
+				
+				final int threads = Integer.parseInt(values[0]);
+				final int topNodes = Integer.parseInt(values[1]);
+
+				roadNetwork.sortGravityNodesFreight();
+				RouteSetGenerator routes = new RouteSetGenerator(roadNetwork, props);
+				final String baseYearFreightMatrixFile = props.getProperty("baseYearFreightMatrixFile");
+				FreightMatrix freightMatrix = new FreightMatrix(baseYearFreightMatrixFile);
+
+				routes.generateRouteSetForFreightMatrixParallel(freightMatrix, topNodes, threads);
+				if (topNodes > 0) routes.saveRoutesBinary(file.getPath() + "freightRoutesTop" + topNodes + ".dat", false);
+				else routes.saveRoutesBinary(file.getPath() + "freightRoutes.dat", false);
+			
 			} else if (line.hasOption("m")) {
 				
 				LOGGER.info("Merging two route files into one (and removing duplicates).");
@@ -336,6 +433,20 @@ public class App {
 				routes.saveRoutesBinary(routeOutputFile, false);
 				//routes.saveRoutesBinary(file.getPath() + "mergedRoutes.dat", false);
 			
+			} else if (line.hasOption("cr")) {
+				
+				LOGGER.info("Converting a route file into a compressed indexed route file.");
+
+				String[] values = line.getOptionValues("compressRoutes");
+				
+				final String routesInputFile = values[0];
+				final String routeOutputFile = values[1];
+				RouteSetGenerator routes = new RouteSetGenerator(roadNetwork, props);
+				
+				if (routesInputFile.endsWith(".gz")) routes.readRoutesBinaryGZIPpedWithoutValidityCheck(routesInputFile);
+				else routes.readRoutesBinaryOrIndexed(routesInputFile);
+				routes.saveRoutesIndexedCompressed(routeOutputFile);
+			
 			} else if (line.hasOption("d")) {
 				
 				LandingGUI.main(null); 
@@ -361,7 +472,7 @@ public class App {
 				
 				//read tempro routes
 				final String temproRoutesFile = props.getProperty("temproRoutesFile");
-				rsg.readRoutesBinaryWithoutValidityCheck(temproRoutesFile);
+				rsg.readRoutesBinaryOrIndexed(temproRoutesFile);
 				LOGGER.debug(rsg.getStatistics());
 				//rsg.calculateAllPathsizes();
 				
@@ -514,7 +625,7 @@ public class App {
 				
 				//read tempro routes
 				final String temproRoutesFile = props.getProperty("temproRoutesFile");
-				rsg.readRoutesBinaryWithoutValidityCheck(temproRoutesFile);
+				rsg.readRoutesBinaryOrIndexed(temproRoutesFile);
 				LOGGER.debug(rsg.getStatistics());
 				//rsg.calculateAllPathsizes();
 				
@@ -656,9 +767,9 @@ public class App {
 					}
 				} else if (assignmentType.equals("lad")) {
 					if (flagUseRouteChoiceModel) { //if route choice version used, load pre-generated routes
-						rsg.readRoutesBinaryWithoutValidityCheck(passengerRoutesFile);
+						rsg.readRoutesBinaryOrIndexed(passengerRoutesFile);
 						LOGGER.debug(rsg.getStatistics());
-						rsg.readRoutesBinaryWithoutValidityCheck(freightRoutesFile);
+						rsg.readRoutesBinaryOrIndexed(freightRoutesFile);
 						LOGGER.debug(rsg.getStatistics());
 					}
 				} else {
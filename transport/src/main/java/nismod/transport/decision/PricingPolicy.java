@@ -25,6 +25,7 @@ public class PricingPolicy {
 	private EnumMap<VehicleType, EnumMap<TimeOfDay, double[]>> policy;
 	private String policyName;
 	private List<Integer> policyEdges;
+	private boolean[] isPolicyEdge; //indexed by edge ID
 	
 	/**
 	 * Reads congestion charge file which contains charges that depend on vehicle type and time of day (hour).
@@ -41,6 +42,8 @@ public class PricingPolicy {
 		this.policyName = policyName;
 		this.policy = new EnumMap<>(VehicleType.class);
 		this.policyEdges = new ArrayList<Integer>();
+		this.isPolicyEdge = new boolean[maxEdgeID];
+		for (int ID: edgeIDs) this.isPolicyEdge[ID] = true;
 		
 		CSVParser parser = new CSVParser(new FileReader(fileName), CSVFormat.DEFAULT.withHeader());
 		//System.out.println(parser.getHeaderMap().toString());
@@ -115,4 +118,14 @@ public class PricingPolicy {
 		
 		return this.policyEdges;
 	}
+	
+	/**
+	 * Checks whether the edge is affected by the policy.
+	 * @param edgeID Edge ID.
+	 * @return True if the edge is a policy edge.
+	 */
+	public boolean isPolicyEdge(int edgeID) {
+		
+		return edgeID < this.isPolicyEdge.length && this.isPolicyEdge[edgeID];
+	}
 }
@@ -15,7 +15,6 @@ import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 
-import org.apache.commons.collections4.keyvalue.MultiKey;
 import org.apache.commons.collections4.map.MultiKeyMap;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -33,6 +32,7 @@ import nismod.transport.network.road.RoadNetworkAssignment.VehicleType;
 import nismod.transport.network.road.Route;
 import nismod.transport.network.road.Route.WebTAG;
 import nismod.transport.network.road.RouteSetGenerator;
+import nismod.transport.utility.AllocationMeter;
 import nismod.transport.utility.InputFileReader;
 import nismod.transport.zone.Zoning;
 
@@ -50,6 +50,8 @@ public class DemandModel {
 	public final double linkTravelTimeAveragingWeight;
 	public final int assignmentIterations;
 	public final int predictionIterations;
+	public final int predictionThreads; //number of threads used for the cell-wise elasticity prediction
+	public final boolean flagWarmStartReassignment; //reuse the same assignment in all prediction iterations
 	
 	public static enum ElasticityTypes {
 		POPULATION, GVA, TIME, COST
@@ -140,6 +142,9 @@ public class DemandModel {
 		this.linkTravelTimeAveragingWeight = Double.parseDouble(props.getProperty("LINK_TRAVEL_TIME_AVERAGING_WEIGHT")); 
 		this.assignmentIterations = Integer.parseInt(props.getProperty("ASSIGNMENT_ITERATIONS"));
 		this.predictionIterations = Integer.parseInt(props.getProperty("PREDICTION_ITERATIONS"));
+		int threads = Integer.parseInt(props.getProperty("ASSIGNMENT_THREADS", "1")); //0 means use all available processors
+		this.predictionThreads = (threads > 0) ? threads : Runtime.getRuntime().availableProcessors();
+		this.flagWarmStartReassignment = Boolean.parseBoolean(props.getProperty("FLAG_WARM_START_REASSIGNMENT", "false"));
 				
 		//read base-year passenger matrix
 		ODMatrixMultiKey passengerODMatrix = new ODMatrixMultiKey(baseYearODMatrixFile);
@@ -366,92 +371,22 @@ public class DemandModel {
 			
 			//FIRST STAGE PREDICTION (FROM POPULATION AND GVA)
 			
+			//non-zero cells of the fromYear matrices (predicted flows are calculated for the same cells)
+			ElasticityKernel kernel = new ElasticityKernel(this.predictionThreads);
+			PassengerCells passengerCells = new PassengerCells(this.yearToPassengerODMatrix.get(fromYear));
+			FreightCells freightCells = new FreightCells(this.yearToFreightODMatrix.get(fromYear));
+			
 			//for each OD pair first predict the change in passenger vehicle flows from the changes in population and GVA
-			for (MultiKey mk: this.yearToPassengerODMatrix.get(fromYear).getKeySet()) {
-				String originZone = (String) mk.getKey(0);
-				String destinationZone = (String) mk.getKey(1);
-
-				double oldFlow = this.yearToPassengerODMatrix.get(fromYear).getFlow(originZone, destinationZone);
-				
-				double oldPopulationOriginZone = this.yearToZoneToPopulation.get(fromYear).get(originZone);
-				double oldPopulationDestinationZone = this.yearToZoneToPopulation.get(fromYear).get(destinationZone);
-				double newPopulationOriginZone = this.yearToZoneToPopulation.get(predictedYear).get(originZone);
-				double newPopulationDestinationZone = this.yearToZoneToPopulation.get(predictedYear).get(destinationZone);
-				double oldGVAOriginZone = this.yearToZoneToGVA.get(fromYear).get(originZone);
-				double oldGVADestinationZone = this.yearToZoneToGVA.get(fromYear).get(destinationZone);
-				double newGVAOriginZone = this.yearToZoneToGVA.get(predictedYear).get(originZone);
-				double newGVADestinationZone = this.yearToZoneToGVA.get(predictedYear).get(destinationZone);
-
-				double predictedFlow = oldFlow * tripRateFactor * Math.pow((newPopulationOriginZone + newPopulationDestinationZone) / (oldPopulationOriginZone + oldPopulationDestinationZone), elasticities.get(ElasticityTypes.POPULATION)) *
-						Math.pow((newGVAOriginZone + newGVADestinationZone) / (oldGVAOriginZone + oldGVADestinationZone), elasticities.get(ElasticityTypes.GVA));
-				//System.out.printf("%d = %d * (%.0f / %.0f) ^ %.2f * (%.1f / %.1f) ^ %.2f * (%.0f / %.0f) ^ %.2f * (%.1f / %.1f) ^ %.2f\n", (int) Math.round(predictedFlow), (int) Math.round(oldFlow),
-				//newPopulationOriginZone, oldPopulationOriginZone, elasticities.get(ElasticityTypes.POPULATION),
-				//newGVAOriginZone, oldGVAOriginZone, elasticities.get(ElasticityTypes.GVA),
-				//newPopulationDestinationZone, oldPopulationDestinationZone, elasticities.get(ElasticityTypes.POPULATION),
-				//newGVADestinationZone, oldGVADestinationZone, elasticities.get(ElasticityTypes.GVA));
-				
-				predictedPassengerODMatrix.setFlow(originZone, destinationZone, (int) Math.round(predictedFlow));
-			} 
+			this.predictPassengerFlowsFromPopulationAndGVA(kernel, passengerCells, fromYear, predictedYear, tripRateFactor);
+			passengerCells.setFlows(predictedPassengerODMatrix);
 			
 			LOGGER.debug("First stage prediction passenger matrix (from population and GVA):");
 			//if (LOGGER.getLevel().isLessSpecificThan(Level.DEBUG)) predictedPassengerODMatrix.printMatrixFormatted();
 			//if (LogManager.getRootLogger().getLevel().isLessSpecificThan(Level.DEBUG)) predictedPassengerODMatrix.printMatrixFormatted();
 					
 			//for each OD pair first predict the change in freight vehicle flows from the changes in population and GVA
-			for (MultiKey mk: this.yearToFreightODMatrix.get(fromYear).getKeySet()) {
-				int origin = (int) mk.getKey(0);
-				int destination = (int) mk.getKey(1);
-				int vehicleType = (int) mk.getKey(2);
-
-				double oldFlow = this.yearToFreightODMatrix.get(fromYear).getFlow(origin, destination, vehicleType);
-				double predictedFlow = oldFlow;
-				double tripRateFreightFactor = freightTripRateFactors.get(vehicleType);
-
-				//if origin is a LAD (<= 1032, according to the DfT BYFM model)
-				if (origin <= 1032 && destination > 1032) {
-
-					String originZone = roadNetwork.getFreightZoneToLAD().get(origin); 
-					double oldPopulationOriginZone = this.yearToZoneToPopulation.get(fromYear).get(originZone);
-					double newPopulationOriginZone = this.yearToZoneToPopulation.get(predictedYear).get(originZone);
-					double oldGVAOriginZone = this.yearToZoneToGVA.get(fromYear).get(originZone);
-					double newGVAOriginZone = this.yearToZoneToGVA.get(predictedYear).get(originZone);
-
-					predictedFlow = predictedFlow * tripRateFreightFactor * Math.pow(newPopulationOriginZone / oldPopulationOriginZone, elasticitiesFreight.get(ElasticityTypes.POPULATION)) *
-							Math.pow(newGVAOriginZone / oldGVAOriginZone, elasticitiesFreight.get(ElasticityTypes.GVA));
-				}
-				//if destination is a LAD (<= 1032, according to the DfT BYFM model)
-				else if (destination <= 1032 && origin > 1032) {
-
-					String destinationZone = roadNetwork.getFreightZoneToLAD().get(destination); 
-					double oldPopulationDestinationZone = this.yearToZoneToPopulation.get(fromYear).get(destinationZone);
-					double newPopulationDestinationZone = this.yearToZoneToPopulation.get(predictedYear).get(destinationZone);
-					double oldGVADestinationZone = this.yearToZoneToGVA.get(fromYear).get(destinationZone);
-					double newGVADestinationZone = this.yearToZoneToGVA.get(predictedYear).get(destinationZone);
-
-					predictedFlow = predictedFlow *	tripRateFreightFactor * Math.pow(newPopulationDestinationZone / oldPopulationDestinationZone, elasticitiesFreight.get(ElasticityTypes.POPULATION)) *
-							Math.pow(newGVADestinationZone / oldGVADestinationZone, elasticitiesFreight.get(ElasticityTypes.GVA));
-				}
-				//if both origin and destination zone are LADs
-				else if (origin <= 1032 && destination <= 1032) {
-					
-					String originZone = roadNetwork.getFreightZoneToLAD().get(origin); 
-					double oldPopulationOriginZone = this.yearToZoneToPopulation.get(fromYear).get(originZone);
-					double newPopulationOriginZone = this.yearToZoneToPopulation.get(predictedYear).get(originZone);
-					double oldGVAOriginZone = this.yearToZoneToGVA.get(fromYear).get(originZone);
-					double newGVAOriginZone = this.yearToZoneToGVA.get(predictedYear).get(originZone);
-					String destinationZone = roadNetwork.getFreightZoneToLAD().get(destination); 
-					double oldPopulationDestinationZone = this.yearToZoneToPopulation.get(fromYear).get(destinationZone);
-					double newPopulationDestinationZone = this.yearToZoneToPopulation.get(predictedYear).get(destinationZone);
-					double oldGVADestinationZone = this.yearToZoneToGVA.get(fromYear).get(destinationZone);
-					double newGVADestinationZone = this.yearToZoneToGVA.get(predictedYear).get(destinationZone);
-					
-					predictedFlow = predictedFlow *	tripRateFreightFactor * Math.pow((newPopulationOriginZone + newPopulationDestinationZone) / (oldPopulationOriginZone + oldPopulationDestinationZone), elasticitiesFreight.get(ElasticityTypes.POPULATION)) *
-							Math.pow((newGVAOriginZone + newGVADestinationZone) / (oldGVAOriginZone + oldGVADestinationZone), elasticitiesFreight.get(ElasticityTypes.GVA));
-					
-				}
-					
-				predictedFreightODMatrix.setFlow(origin, destination, vehicleType, (int) Math.round(predictedFlow));
-			}
+			this.predictFreightFlowsFromPopulationAndGVA(kernel, freightCells, fromYear, predictedYear, freightTripRateFactors);
+			freightCells.setFlows(predictedFreightODMatrix);
 
 			LOGGER.debug("First stage prediction freight matrix (from population and GVA):");
 			//if (LOGGER.getLevel().isLessSpecificThan(Level.DEBUG)) predictedFreightODMatrix.printMatrixFormatted();
@@ -463,6 +398,8 @@ public class DemandModel {
 			SkimMatrixFreight tsmf = null, csmf = null;
 			RoadNetworkAssignment predictedRna = null;
 			for (int i=0; i<this.predictionIterations; i++) {
+				final long startTime = System.nanoTime();
+				final long startBytes = AllocationMeter.getAllocatedBytes();
 
 				if (predictedRna == null)
 					//assign predicted year - using link travel times from fromYear
@@ -482,8 +419,8 @@ public class DemandModel {
 															 rna.getWorkplaceZoneProbabilities(),
 															 this.yearToCongestionCharges.get(predictedYear),
 															 this.props);
-				else
-					//using latest link travel times
+				else if (!this.flagWarmStartReassignment)
+					//using latest link travel times (in a new assignment, otherwise the assignment is reused)
 					predictedRna = new RoadNetworkAssignment(this.roadNetwork,
 															 this.zoning,
 															 this.yearToEnergyUnitCosts.get(predictedYear),
@@ -510,7 +447,7 @@ public class DemandModel {
 					predictedPassengerODMatrixToAssign = predictedPassengerODMatrix;
 				
 				int expectedTripListSize = predictedPassengerODMatrixToAssign.getTotalIntFlow() + predictedFreightODMatrix.getTotalIntFlow();
-				predictedRna.initialiseTripList(expectedTripListSize);
+				predictedRna.prepareReassignment(expectedTripListSize);
 							
 				predictedRna.assignFlowsAndUpdateLinkTravelTimesIterated(predictedPassengerODMatrixToAssign, predictedFreightODMatrix, this.rsg, this.zoning, this.props, this.linkTravelTimeAveragingWeight, this.assignmentIterations);
 				
@@ -521,96 +458,39 @@ public class DemandModel {
 				csmf = predictedRna.calculateCostSkimMatrixFreight();
 
 				//for each OD pair predict the change in passenger vehicle flow from the change in skim matrices
-				for (MultiKey mk: this.yearToPassengerODMatrix.get(fromYear).getKeySet()) {
-					String originZone = (String) mk.getKey(0);
-					String destinationZone = (String) mk.getKey(1);
-
-					double oldFlow = predictedPassengerODMatrix.getFlow(originZone, destinationZone);
-					
-					if (this.yearToTimeSkimMatrix.get(predictedYear) == null) LOGGER.error("No time skim matrix in the demand model.");
-					if (this.yearToCostSkimMatrix.get(predictedYear) == null) LOGGER.error("No cost skim matrix in the demand model.");
-										
-					double oldODTravelTime = this.yearToTimeSkimMatrix.get(predictedYear).getCost(originZone, destinationZone);
-					double newODTravelTime = tsm.getCost(originZone, destinationZone);
-					double oldODTravelCost = this.yearToCostSkimMatrix.get(predictedYear).getCost(originZone, destinationZone);
-					double newODTravelCost = csm.getCost(originZone, destinationZone);
-					
-					if (oldODTravelTime == 0.0) LOGGER.warn("Unknown old travel time between zone {} and zone {}.", originZone, destinationZone);
-					if (newODTravelTime == 0.0) LOGGER.warn("Unknown new travel time between zone {} and zone {}.", originZone, destinationZone);
-					if (oldODTravelCost == 0.0) LOGGER.warn("Unknown old travel cost between zone {} and zone {}.", originZone, destinationZone);
-					if (newODTravelCost == 0.0) LOGGER.warn("Unknown new travel cost between zone {} and zone {}.", originZone, destinationZone);
-					if (oldODTravelTime == 0.0 || newODTravelTime == 0.0)	{ //if either is undefined assume the ratio is 1, i.e. not affecting the prediction
-						oldODTravelTime = 1.0;
-						newODTravelTime = 1.0;
-					}
-					if (oldODTravelCost == 0.0 || newODTravelCost == 0.0) { 
-						oldODTravelCost = 1.0;
-						newODTravelCost = 1.0;
-					}
-					
-					double predictedflow = oldFlow * Math.pow(newODTravelTime / oldODTravelTime, elasticities.get(ElasticityTypes.TIME)) *
-							Math.pow(newODTravelCost / oldODTravelCost, elasticities.get(ElasticityTypes.COST));
-
-					predictedPassengerODMatrix.setFlow(originZone, destinationZone, (int) Math.round(predictedflow));
-				}
+				this.predictPassengerFlowsFromSkims(kernel, passengerCells, this.yearToTimeSkimMatrix.get(predictedYear), tsm, this.yearToCostSkimMatrix.get(predictedYear), csm);
+				passengerCells.setFlows(predictedPassengerODMatrix);
 
 				LOGGER.debug("Second stage prediction passenger matrix (from changes in skim matrices):");
 				//if (LOGGER.getLevel().isLessSpecificThan(Level.DEBUG)) predictedPassengerODMatrix.printMatrixFormatted();
 				//if (LogManager.getRootLogger().getLevel().isLessSpecificThan(Level.DEBUG)) predictedPassengerODMatrix.printMatrixFormatted();
 								
 				//for each OD pair predict the change in freight vehicle flow from the change in skim matrices
-				for (MultiKey mk: this.yearToFreightODMatrix.get(fromYear).getKeySet()) {
-					int origin = (int) mk.getKey(0);
-					int destination = (int) mk.getKey(1);
-					int vehicleType = (int) mk.getKey(2);
-
-					double oldFlow = predictedFreightODMatrix.getFlow(origin, destination, vehicleType);
-
-					double oldODTravelTime = this.yearToTimeSkimMatrixFreight.get(predictedYear).getCost(origin, destination, vehicleType);
-					double newODTravelTime = tsmf.getCost(origin, destination, vehicleType);
-					double oldODTravelCost = this.yearToCostSkimMatrixFreight.get(predictedYear).getCost(origin, destination, vehicleType);
-					double newODTravelCost = csmf.getCost(origin, destination, vehicleType);
-					
-					if (oldODTravelTime == 0.0) LOGGER.warn("Unknown old travel time between freight zone {} and freight zone {} for vehicle {}.", origin, destination, vehicleType);
-					if (newODTravelTime == 0.0) LOGGER.warn("Unknown new travel time between freight zone {} and freight zone {} for vehicle {}.", origin, destination, vehicleType);
-					if (oldODTravelCost == 0.0) LOGGER.warn("Unknown old travel cost between freight zone {} and freight zone {} for vehicle {}.", origin, destination, vehicleType);
-					if (newODTravelCost == 0.0) LOGGER.warn("Unknown new travel cost between freight zone {} and freight zone {} for vehicle {}.", origin, destination, vehicleType);
-					if (oldODTravelTime == 0.0 || newODTravelTime == 0.0) { //if either is undefined assume the ratio is 1, i.e. not affecting the prediction
-						oldODTravelTime = 1.0;
-						newODTravelTime = 1.0;
-					}
-					if (oldODTravelCost == 0.0 || newODTravelCost == 0.0) { 
-						oldODTravelCost = 1.0;
-						newODTravelCost = 1.0;
-					}
-
-					double predictedflow = oldFlow * Math.pow(newODTravelTime / oldODTravelTime, elasticitiesFreight.get(ElasticityTypes.TIME)) *
-							Math.pow(newODTravelCost / oldODTravelCost, elasticitiesFreight.get(ElasticityTypes.COST));
-
-					predictedFreightODMatrix.setFlow(origin, destination, vehicleType, (int) Math.round(predictedflow));
-				}
+				this.predictFreightFlowsFromSkims(kernel, freightCells, this.yearToTimeSkimMatrixFreight.get(predictedYear), tsmf, this.yearToCostSkimMatrixFreight.get(predictedYear), csmf);
+				freightCells.setFlows(predictedFreightODMatrix);
 
 				LOGGER.debug("Second stage prediction freight matrix (from changes in skim matrices):");
 				//if (LOGGER.getLevel().isLessSpecificThan(Level.DEBUG)) predictedFreightODMatrix.printMatrixFormatted();
 				//if (LogManager.getRootLogger().getLevel().isLessSpecificThan(Level.DEBUG)) predictedFreightODMatrix.printMatrixFormatted();
 				
-				//assign predicted year again using latest link travel times
-				predictedRna = new RoadNetworkAssignment(this.roadNetwork,
-														 this.zoning,
-														 this.yearToEnergyUnitCosts.get(predictedYear),
-														 this.yearToUnitCO2Emissions.get(predictedYear),
-														 this.yearToEngineTypeFractions.get(predictedYear), 
-														 this.yearToAVFractions.get(predictedYear),
-														 this.vehicleTypeToPCU,
-														 this.baseFuelConsumptionRates,
-														 this.yearToRelativeFuelEfficiencies.get(predictedYear),
-														 this.yearToTimeOfDayDistribution.get(predictedYear),
-														 this.yearToTimeOfDayDistributionFreight.get(predictedYear),
-														 predictedRna.getCopyOfLinkTravelTimesAsMap(), 
-														 predictedRna.getAreaCodeProbabilities(), 
-														 predictedRna.getWorkplaceZoneProbabilities(),
-														 this.yearToCongestionCharges.get(predictedYear),
-														 this.props);
+				//assign predicted year again using latest link travel times (in a new assignment, otherwise the assignment is reused)
+				if (!this.flagWarmStartReassignment)
+					predictedRna = new RoadNetworkAssignment(this.roadNetwork,
+															 this.zoning,
+															 this.yearToEnergyUnitCosts.get(predictedYear),
+															 this.yearToUnitCO2Emissions.get(predictedYear),
+															 this.yearToEngineTypeFractions.get(predictedYear), 
+															 this.yearToAVFractions.get(predictedYear),
+															 this.vehicleTypeToPCU,
+															 this.baseFuelConsumptionRates,
+															 this.yearToRelativeFuelEfficiencies.get(predictedYear),
+															 this.yearToTimeOfDayDistribution.get(predictedYear),
+															 this.yearToTimeOfDayDistributionFreight.get(predictedYear),
+															 predictedRna.getCopyOfLinkTravelTimesAsMap(), 
+															 predictedRna.getAreaCodeProbabilities(), 
+															 predictedRna.getWorkplaceZoneProbabilities(),
+															 this.yearToCongestionCharges.get(predictedYear),
+															 this.props);
 				//predictedRna.resetLinkVolumes();
 				//predictedRna.assignPassengerFlows(predictedPassengerODMatrix);
 				//predictedRna.updateLinkTravelTimes(ALPHA_LINK_TRAVEL_TIME_AVERAGING);
@@ -622,7 +502,7 @@ public class DemandModel {
 					predictedPassengerODMatrixToAssign = predictedPassengerODMatrix;
 				
 				expectedTripListSize = predictedPassengerODMatrixToAssign.getTotalIntFlow() + predictedFreightODMatrix.getTotalIntFlow();
-				predictedRna.initialiseTripList(expectedTripListSize);
+				predictedRna.prepareReassignment(expectedTripListSize);
 				
 				predictedRna.assignFlowsAndUpdateLinkTravelTimesIterated(predictedPassengerODMatrixToAssign, predictedFreightODMatrix, this.rsg, this.zoning, this.props, this.linkTravelTimeAveragingWeight, this.assignmentIterations);				
 				
@@ -651,6 +531,12 @@ public class DemandModel {
 				//store predicted OD matrix in the map
 				this.yearToPassengerODMatrix.put(predictedYear, predictedPassengerODMatrix);
 				this.yearToFreightODMatrix.put(predictedYear, predictedFreightODMatrix);
+
+				double seconds = (System.nanoTime() - startTime) / 1e9;
+				if (startBytes >= 0)
+					LOGGER.info("Prediction iteration {} took {} seconds and allocated {} MB (on the prediction thread).", i + 1, seconds, (AllocationMeter.getAllocatedBytes() - startBytes) / (1024 * 1024));
+				else
+					LOGGER.info("Prediction iteration {} took {} seconds.", i + 1, seconds);
 			}//for loop
 			
 			//store latest skim matrices
@@ -918,92 +804,22 @@ public class DemandModel {
 	
 		//FIRST STAGE PREDICTION (FROM POPULATION AND GVA)
 
+		//non-zero cells of the fromYear matrices (predicted flows are calculated for the same cells)
+		ElasticityKernel kernel = new ElasticityKernel(this.predictionThreads);
+		PassengerCells passengerCells = new PassengerCells(this.yearToPassengerODMatrix.get(fromYear));
+		FreightCells freightCells = new FreightCells(this.yearToFreightODMatrix.get(fromYear));
+		
 		//for each OD pair first predict the change in passenger vehicle flows from the changes in population and GVA
-		for (MultiKey mk: this.yearToPassengerODMatrix.get(fromYear).getKeySet()) {
-			String originZone = (String) mk.getKey(0);
-			String destinationZone = (String) mk.getKey(1);
-
-			double oldFlow = this.yearToPassengerODMatrix.get(fromYear).getFlow(originZone, destinationZone);
-
-			double oldPopulationOriginZone = this.yearToZoneToPopulation.get(fromYear).get(originZone);
-			double oldPopulationDestinationZone = this.yearToZoneToPopulation.get(fromYear).get(destinationZone);
-			double newPopulationOriginZone = this.yearToZoneToPopulation.get(predictedYear).get(originZone);
-			double newPopulationDestinationZone = this.yearToZoneToPopulation.get(predictedYear).get(destinationZone);
-			double oldGVAOriginZone = this.yearToZoneToGVA.get(fromYear).get(originZone);
-			double oldGVADestinationZone = this.yearToZoneToGVA.get(fromYear).get(destinationZone);
-			double newGVAOriginZone = this.yearToZoneToGVA.get(predictedYear).get(originZone);
-			double newGVADestinationZone = this.yearToZoneToGVA.get(predictedYear).get(destinationZone);
-
-			double predictedFlow = oldFlow * tripRateFactor * Math.pow((newPopulationOriginZone + newPopulationDestinationZone) / (oldPopulationOriginZone + oldPopulationDestinationZone), elasticities.get(ElasticityTypes.POPULATION)) *
-					Math.pow((newGVAOriginZone + newGVADestinationZone) / (oldGVAOriginZone + oldGVADestinationZone), elasticities.get(ElasticityTypes.GVA));
-			//System.out.printf("%d = %d * (%.0f / %.0f) ^ %.2f * (%.1f / %.1f) ^ %.2f * (%.0f / %.0f) ^ %.2f * (%.1f / %.1f) ^ %.2f\n", (int) Math.round(predictedFlow), (int) Math.round(oldFlow),
-			//newPopulationOriginZone, oldPopulationOriginZone, elasticities.get(ElasticityTypes.POPULATION),
-			//newGVAOriginZone, oldGVAOriginZone, elasticities.get(ElasticityTypes.GVA),
-			//newPopulationDestinationZone, oldPopulationDestinationZone, elasticities.get(ElasticityTypes.POPULATION),
-			//newGVADestinationZone, oldGVADestinationZone, elasticities.get(ElasticityTypes.GVA));
-
-			predictedPassengerODMatrix.setFlow(originZone, destinationZone, (int) Math.round(predictedFlow));
-		} 
-
+		this.predictPassengerFlowsFromPopulationAndGVA(kernel, passengerCells, fromYear, predictedYear, tripRateFactor);
+		passengerCells.setFlows(predictedPassengerODMatrix);
+		
 		LOGGER.debug("First stage prediction passenger matrix (from population and GVA):");
 		//if (LOGGER.getLevel().isLessSpecificThan(Level.DEBUG)) predictedPassengerODMatrix.printMatrixFormatted();
 		//if (LogManager.getRootLogger().getLevel().isLessSpecificThan(Level.DEBUG)) predictedPassengerODMatrix.printMatrixFormatted();
-
+				
 		//for each OD pair first predict the change in freight vehicle flows from the changes in population and GVA
-		for (MultiKey mk: this.yearToFreightODMatrix.get(fromYear).getKeySet()) {
-			int origin = (int) mk.getKey(0);
-			int destination = (int) mk.getKey(1);
-			int vehicleType = (int) mk.getKey(2);
-
-			double oldFlow = this.yearToFreightODMatrix.get(fromYear).getFlow(origin, destination, vehicleType);
-			double predictedFlow = oldFlow;
-			double tripRateFreightFactor = freightTripRateFactors.get(vehicleType);
-
-			//if origin is a LAD (<= 1032, according to the DfT BYFM model)
-			if (origin <= 1032 && destination > 1032) {
-
-				String originZone = roadNetwork.getFreightZoneToLAD().get(origin); 
-				double oldPopulationOriginZone = this.yearToZoneToPopulation.get(fromYear).get(originZone);
-				double newPopulationOriginZone = this.yearToZoneToPopulation.get(predictedYear).get(originZone);
-				double oldGVAOriginZone = this.yearToZoneToGVA.get(fromYear).get(originZone);
-				double newGVAOriginZone = this.yearToZoneToGVA.get(predictedYear).get(originZone);
-
-				predictedFlow = predictedFlow * tripRateFreightFactor * Math.pow(newPopulationOriginZone / oldPopulationOriginZone, elasticitiesFreight.get(ElasticityTypes.POPULATION)) *
-						Math.pow(newGVAOriginZone / oldGVAOriginZone, elasticitiesFreight.get(ElasticityTypes.GVA));
-			}
-			//if destination is a LAD (<= 1032, according to the DfT BYFM model)
-			else if (destination <= 1032 && origin > 1032) {
-
-				String destinationZone = roadNetwork.getFreightZoneToLAD().get(destination); 
-				double oldPopulationDestinationZone = this.yearToZoneToPopulation.get(fromYear).get(destinationZone);
-				double newPopulationDestinationZone = this.yearToZoneToPopulation.get(predictedYear).get(destinationZone);
-				double oldGVADestinationZone = this.yearToZoneToGVA.get(fromYear).get(destinationZone);
-				double newGVADestinationZone = this.yearToZoneToGVA.get(predictedYear).get(destinationZone);
-
-				predictedFlow = predictedFlow * tripRateFreightFactor * Math.pow(newPopulationDestinationZone / oldPopulationDestinationZone, elasticitiesFreight.get(ElasticityTypes.POPULATION)) *
-						Math.pow(newGVADestinationZone / oldGVADestinationZone, elasticitiesFreight.get(ElasticityTypes.GVA));
-			}
-			//if both origin and destination zone are LADs
-			else if (origin <= 1032 && destination <= 1032) {
-
-				String originZone = roadNetwork.getFreightZoneToLAD().get(origin); 
-				double oldPopulationOriginZone = this.yearToZoneToPopulation.get(fromYear).get(originZone);
-				double newPopulationOriginZone = this.yearToZoneToPopulation.get(predictedYear).get(originZone);
-				double oldGVAOriginZone = this.yearToZoneToGVA.get(fromYear).get(originZone);
-				double newGVAOriginZone = this.yearToZoneToGVA.get(predictedYear).get(originZone);
-				String destinationZone = roadNetwork.getFreightZoneToLAD().get(destination); 
-				double oldPopulationDestinationZone = this.yearToZoneToPopulation.get(fromYear).get(destinationZone);
-				double newPopulationDestinationZone = this.yearToZoneToPopulation.get(predictedYear).get(destinationZone);
-				double oldGVADestinationZone = this.yearToZoneToGVA.get(fromYear).get(destinationZone);
-				double newGVADestinationZone = this.yearToZoneToGVA.get(predictedYear).get(destinationZone);
-
-				predictedFlow = predictedFlow * tripRateFreightFactor *	Math.pow((newPopulationOriginZone + newPopulationDestinationZone) / (oldPopulationOriginZone + oldPopulationDestinationZone), elasticitiesFreight.get(ElasticityTypes.POPULATION)) *
-						Math.pow((newGVAOriginZone + newGVADestinationZone) / (oldGVAOriginZone + oldGVADestinationZone), elasticitiesFreight.get(ElasticityTypes.GVA));
-
-			}
-
-			predictedFreightODMatrix.setFlow(origin, destination, vehicleType, (int) Math.round(predictedFlow));
-		}
+		this.predictFreightFlowsFromPopulationAndGVA(kernel, freightCells, fromYear, predictedYear, freightTripRateFactors);
+		freightCells.setFlows(predictedFreightODMatrix);
 
 		LOGGER.debug("First stage prediction freight matrix (from population and GVA):");
 		//if (LOGGER.getLevel().isLessSpecificThan(Level.DEBUG)) predictedFreightODMatrix.printMatrixFormatted();
@@ -1015,6 +831,8 @@ public class DemandModel {
 		SkimMatrixFreight tsmf = null, csmf = null;
 		RoadNetworkAssignment predictedRna = null;
 		for (int i=0; i<this.predictionIterations; i++) {
+			final long startTime = System.nanoTime();
+			final long startBytes = AllocationMeter.getAllocatedBytes();
 
 			if (predictedRna == null)
 				//assign predicted year - using link travel times from fromYear
@@ -1034,8 +852,8 @@ public class DemandModel {
 						null,
 						this.yearToCongestionCharges.get(predictedYear),
 						this.props);
-			else
-				//using latest link travel times
+			else if (!this.flagWarmStartReassignment)
+				//using latest link travel times (in a new assignment, otherwise the assignment is reused)
 				predictedRna = new RoadNetworkAssignment(this.roadNetwork,
 						this.zoning,
 						this.yearToEnergyUnitCosts.get(predictedYear),
@@ -1062,7 +880,7 @@ public class DemandModel {
 				predictedPassengerODMatrixToAssign = predictedPassengerODMatrix;
 
 			int expectedTripListSize = predictedPassengerODMatrixToAssign.getTotalIntFlow() + predictedFreightODMatrix.getTotalIntFlow();
-			predictedRna.initialiseTripList(expectedTripListSize);
+			predictedRna.prepareReassignment(expectedTripListSize);
 
 			predictedRna.assignFlowsAndUpdateLinkTravelTimesIterated(predictedPassengerODMatrixToAssign, predictedFreightODMatrix, this.rsg, this.zoning, this.props, this.linkTravelTimeAveragingWeight, this.assignmentIterations);
 
@@ -1073,96 +891,39 @@ public class DemandModel {
 			csmf = predictedRna.calculateCostSkimMatrixFreight();
 
 			//for each OD pair predict the change in passenger vehicle flow from the change in skim matrices
-			for (MultiKey mk: this.yearToPassengerODMatrix.get(fromYear).getKeySet()) {
-				String originZone = (String) mk.getKey(0);
-				String destinationZone = (String) mk.getKey(1);
-
-				double oldFlow = predictedPassengerODMatrix.getFlow(originZone, destinationZone);
-
-				if (this.yearToTimeSkimMatrix.get(predictedYear) == null) LOGGER.error("No time skim matrix in the demand model.");
-				if (this.yearToCostSkimMatrix.get(predictedYear) == null) LOGGER.error("No cost skim matrix in the demand model.");
-
-				double oldODTravelTime = this.yearToTimeSkimMatrix.get(predictedYear).getCost(originZone, destinationZone);
-				double newODTravelTime = tsm.getCost(originZone, destinationZone);
-				double oldODTravelCost = this.yearToCostSkimMatrix.get(predictedYear).getCost(originZone, destinationZone);
-				double newODTravelCost = csm.getCost(originZone, destinationZone);
-
-				if (oldODTravelTime == 0.0) LOGGER.warn("Unknown old travel time between zone {} and zone {}.", originZone, destinationZone);
-				if (newODTravelTime == 0.0) LOGGER.warn("Unknown new travel time between zone {} and zone {}.", originZone, destinationZone);
-				if (oldODTravelCost == 0.0) LOGGER.warn("Unknown old travel cost between zone {} and zone {}.", originZone, destinationZone);
-				if (newODTravelCost == 0.0) LOGGER.warn("Unknown new travel cost between zone {} and zone {}.", originZone, destinationZone);
-				if (oldODTravelTime == 0.0 || newODTravelTime == 0.0)	{ //if either is undefined assume the ratio is 1, i.e. not affecting the prediction
-					oldODTravelTime = 1.0;
-					newODTravelTime = 1.0;
-				}
-				if (oldODTravelCost == 0.0 || newODTravelCost == 0.0) { 
-					oldODTravelCost = 1.0;
-					newODTravelCost = 1.0;
-				}
-
-				double predictedflow = oldFlow * Math.pow(newODTravelTime / oldODTravelTime, elasticities.get(ElasticityTypes.TIME)) *
-						Math.pow(newODTravelCost / oldODTravelCost, elasticities.get(ElasticityTypes.COST));
-
-				predictedPassengerODMatrix.setFlow(originZone, destinationZone, (int) Math.round(predictedflow));
-			}
+			this.predictPassengerFlowsFromSkims(kernel, passengerCells, this.yearToTimeSkimMatrix.get(predictedYear), tsm, this.yearToCostSkimMatrix.get(predictedYear), csm);
+			passengerCells.setFlows(predictedPassengerODMatrix);
 
 			LOGGER.debug("Second stage prediction passenger matrix (from changes in skim matrices):");
 			//if (LOGGER.getLevel().isLessSpecificThan(Level.DEBUG)) predictedPassengerODMatrix.printMatrixFormatted();
 			//if (LogManager.getRootLogger().getLevel().isLessSpecificThan(Level.DEBUG)) predictedPassengerODMatrix.printMatrixFormatted();
-
+							
 			//for each OD pair predict the change in freight vehicle flow from the change in skim matrices
-			for (MultiKey mk: this.yearToFreightODMatrix.get(fromYear).getKeySet()) {
-				int origin = (int) mk.getKey(0);
-				int destination = (int) mk.getKey(1);
-				int vehicleType = (int) mk.getKey(2);
-
-				double oldFlow = predictedFreightODMatrix.getFlow(origin, destination, vehicleType);
-
-				double oldODTravelTime = this.yearToTimeSkimMatrixFreight.get(predictedYear).getCost(origin, destination, vehicleType);
-				double newODTravelTime = tsmf.getCost(origin, destination, vehicleType);
-				double oldODTravelCost = this.yearToCostSkimMatrixFreight.get(predictedYear).getCost(origin, destination, vehicleType);
-				double newODTravelCost = csmf.getCost(origin, destination, vehicleType);
-
-				if (oldODTravelTime == 0.0) LOGGER.warn("Unknown old travel time between freight zone {} and freight zone {} for vehicle {}.", origin, destination, vehicleType);
-				if (newODTravelTime == 0.0) LOGGER.warn("Unknown new travel time between freight zone {} and freight zone {} for vehicle {}.", origin, destination, vehicleType);
-				if (oldODTravelCost == 0.0) LOGGER.warn("Unknown old travel cost between freight zone {} and freight zone {} for vehicle {}.", origin, destination, vehicleType);
-				if (newODTravelCost == 0.0) LOGGER.warn("Unknown new travel cost between freight zone {} and freight zone {} for vehicle {}.", origin, destination, vehicleType);
-				if (oldODTravelTime == 0.0 || newODTravelTime == 0.0)	{ //if either is undefined assume the ratio is 1, i.e. not affecting the prediction
-					oldODTravelTime = 1.0;
-					newODTravelTime = 1.0;
-				}
-				if (oldODTravelCost == 0.0 || newODTravelCost == 0.0) { 
-					oldODTravelCost = 1.0;
-					newODTravelCost = 1.0;
-				}
-
-				double predictedflow = oldFlow * Math.pow(newODTravelTime / oldODTravelTime, elasticitiesFreight.get(ElasticityTypes.TIME)) *
-						Math.pow(newODTravelCost / oldODTravelCost, elasticitiesFreight.get(ElasticityTypes.COST));
-
-				predictedFreightODMatrix.setFlow(origin, destination, vehicleType, (int) Math.round(predictedflow));
-			}
+			this.predictFreightFlowsFromSkims(kernel, freightCells, this.yearToTimeSkimMatrixFreight.get(predictedYear), tsmf, this.yearToCostSkimMatrixFreight.get(predictedYear), csmf);
+			freightCells.setFlows(predictedFreightODMatrix);
 
 			LOGGER.debug("Second stage prediction freight matrix (from changes in skim matrices):");
 			//if (LOGGER.getLevel().isLessSpecificThan(Level.DEBUG)) predictedFreightODMatrix.printMatrixFormatted();
 			//if (LogManager.getRootLogger().getLevel().isLessSpecificThan(Level.DEBUG)) predictedFreightODMatrix.printMatrixFormatted();
 
-			//assign predicted year again using latest link travel times
-			predictedRna = new RoadNetworkAssignment(this.roadNetwork,
-					this.zoning,
-					this.yearToEnergyUnitCosts.get(predictedYear),
-					this.yearToUnitCO2Emissions.get(predictedYear),
-					this.yearToEngineTypeFractions.get(predictedYear), 
-					this.yearToAVFractions.get(predictedYear),
-					this.vehicleTypeToPCU,
-					this.baseFuelConsumptionRates,
-					this.yearToRelativeFuelEfficiencies.get(predictedYear),
-					this.yearToTimeOfDayDistribution.get(predictedYear),
-					this.yearToTimeOfDayDistributionFreight.get(predictedYear),
-					predictedRna.getCopyOfLinkTravelTimesAsMap(), 
-					predictedRna.getAreaCodeProbabilities(), 
-					predictedRna.getWorkplaceZoneProbabilities(),
-					this.yearToCongestionCharges.get(predictedYear),
-					this.props);
+			//assign predicted year again using latest link travel times (in a new assignment, otherwise the assignment is reused)
+			if (!this.flagWarmStartReassignment)
+				predictedRna = new RoadNetworkAssignment(this.roadNetwork,
+						this.zoning,
+						this.yearToEnergyUnitCosts.get(predictedYear),
+						this.yearToUnitCO2Emissions.get(predictedYear),
+						this.yearToEngineTypeFractions.get(predictedYear), 
+						this.yearToAVFractions.get(predictedYear),
+						this.vehicleTypeToPCU,
+						this.baseFuelConsumptionRates,
+						this.yearToRelativeFuelEfficiencies.get(predictedYear),
+						this.yearToTimeOfDayDistribution.get(predictedYear),
+						this.yearToTimeOfDayDistributionFreight.get(predictedYear),
+						predictedRna.getCopyOfLinkTravelTimesAsMap(), 
+						predictedRna.getAreaCodeProbabilities(), 
+						predictedRna.getWorkplaceZoneProbabilities(),
+						this.yearToCongestionCharges.get(predictedYear),
+						this.props);
 			//predictedRna.resetLinkVolumes();
 			//predictedRna.assignPassengerFlows(predictedPassengerODMatrix);
 			//predictedRna.updateLinkTravelTimes(ALPHA_LINK_TRAVEL_TIME_AVERAGING);
@@ -1174,7 +935,7 @@ public class DemandModel {
 				predictedPassengerODMatrixToAssign = predictedPassengerODMatrix;
 
 			expectedTripListSize = predictedPassengerODMatrixToAssign.getTotalIntFlow() + predictedFreightODMatrix.getTotalIntFlow();
-			predictedRna.initialiseTripList(expectedTripListSize);
+			predictedRna.prepareReassignment(expectedTripListSize);
 
 			predictedRna.assignFlowsAndUpdateLinkTravelTimesIterated(predictedPassengerODMatrixToAssign, predictedFreightODMatrix, this.rsg, this.zoning, this.props, this.linkTravelTimeAveragingWeight, this.assignmentIterations);				
 
@@ -1203,6 +964,12 @@ public class DemandModel {
 			//store predicted OD matrix in the map
 			this.yearToPassengerODMatrix.put(predictedYear, predictedPassengerODMatrix);
 			this.yearToFreightODMatrix.put(predictedYear, predictedFreightODMatrix);
+
+			double seconds = (System.nanoTime() - startTime) / 1e9;
+			if (startBytes >= 0)
+				LOGGER.info("Prediction iteration {} took {} seconds and allocated {} MB (on the prediction thread).", i + 1, seconds, (AllocationMeter.getAllocatedBytes() - startBytes) / (1024 * 1024));
+			else
+				LOGGER.info("Prediction iteration {} took {} seconds.", i + 1, seconds);
 		}//for loop
 
 		//store latest skim matrices
@@ -1585,4 +1352,223 @@ public class DemandModel {
 		
 		return this.yearToListsOfLADsForNewRouteGeneration;
 	}
-}
\ No newline at end of file
+	
+	/**
+	 * Predicts passenger flows from the changes in population and GVA (first stage prediction).
+	 * @param kernel Elasticity kernel.
+	 * @param cells Passenger matrix cells (flows are replaced with the predicted flows).
+	 * @param fromYear The year from which demand the prediction is made.
+	 * @param predictedYear The year for which the demand is predicted.
+	 * @param tripRateFactor Trip rate factor.
+	 */
+	private void predictPassengerFlowsFromPopulationAndGVA(ElasticityKernel kernel, PassengerCells cells, int fromYear, int predictedYear, double tripRateFactor) {
+		
+		int zones = cells.zones.length;
+		double[] oldPopulation = new double[zones];
+		double[] newPopulation = new double[zones];
+		double[] oldGVA = new double[zones];
+		double[] newGVA = new double[zones];
+		for (int zone = 0; zone < zones; zone++) {
+			String zoneCode = cells.zones[zone];
+			oldPopulation[zone] = this.yearToZoneToPopulation.get(fromYear).get(zoneCode);
+			newPopulation[zone] = this.yearToZoneToPopulation.get(predictedYear).get(zoneCode);
+			oldGVA[zone] = this.yearToZoneToGVA.get(fromYear).get(zoneCode);
+			newGVA[zone] = this.yearToZoneToGVA.get(predictedYear).get(zoneCode);
+		}
+		
+		cells.flows = kernel.predictPassengerFlows(cells.flows, cells.origins, cells.destinations, oldPopulation, newPopulation, oldGVA, newGVA,
+				tripRateFactor, elasticities.get(ElasticityTypes.POPULATION), elasticities.get(ElasticityTypes.GVA));
+	}
+	
+	/**
+	 * Predicts freight flows from the changes in population and GVA (first stage prediction).
+	 * @param kernel Elasticity kernel.
+	 * @param cells Freight matrix cells (flows are replaced with the predicted flows).
+	 * @param fromYear The year from which demand the prediction is made.
+	 * @param predictedYear The year for which the demand is predicted.
+	 * @param freightTripRateFactors Trip rate factors per vehicle type.
+	 */
+	private void predictFreightFlowsFromPopulationAndGVA(ElasticityKernel kernel, FreightCells cells, int fromYear, int predictedYear, Map<Integer, Double> freightTripRateFactors) {
+		
+		//LADs are freight zones <= 1032 (according to the DfT BYFM model)
+		final int maxLADZone = 1032;
+		double[] oldPopulation = new double[maxLADZone + 1];
+		double[] newPopulation = new double[maxLADZone + 1];
+		double[] oldGVA = new double[maxLADZone + 1];
+		double[] newGVA = new double[maxLADZone + 1];
+		boolean[] assigned = new boolean[maxLADZone + 1];
+		for (int cell = 0; cell < cells.flows.length; cell++)
+			for (int zone: new int[] {cells.origins[cell], cells.destinations[cell]}) {
+				if (zone > maxLADZone || assigned[zone]) continue;
+				String zoneCode = roadNetwork.getFreightZoneToLAD().get(zone);
+				oldPopulation[zone] = this.yearToZoneToPopulation.get(fromYear).get(zoneCode);
+				newPopulation[zone] = this.yearToZoneToPopulation.get(predictedYear).get(zoneCode);
+				oldGVA[zone] = this.yearToZoneToGVA.get(fromYear).get(zoneCode);
+				newGVA[zone] = this.yearToZoneToGVA.get(predictedYear).get(zoneCode);
+				assigned[zone] = true;
+			}
+		
+		double[] tripRateFactors = new double[FreightMatrix.MAX_VEHICLE_ID + 1];
+		for (Map.Entry<Integer, Double> entry: freightTripRateFactors.entrySet())
+			tripRateFactors[entry.getKey()] = entry.getValue();
+		
+		cells.flows = kernel.predictFreightFlows(cells.flows, cells.origins, cells.destinations, cells.vehicleTypes, maxLADZone, oldPopulation, newPopulation, oldGVA, newGVA,
+				tripRateFactors, elasticitiesFreight.get(ElasticityTypes.POPULATION), elasticitiesFreight.get(ElasticityTypes.GVA));
+	}
+	
+	/**
+	 * Predicts passenger flows from the changes in skim matrices (second stage prediction).
+	 * @param kernel Elasticity kernel.
+	 * @param cells Passenger matrix cells (flows are replaced with the predicted flows).
+	 * @param oldTimeSkimMatrix Old time skim matrix.
+	 * @param newTimeSkimMatrix New time skim matrix.
+	 * @param oldCostSkimMatrix Old cost skim matrix.
+	 * @param newCostSkimMatrix New cost skim matrix.
+	 */
+	private void predictPassengerFlowsFromSkims(ElasticityKernel kernel, PassengerCells cells, SkimMatrix oldTimeSkimMatrix, SkimMatrix newTimeSkimMatrix, SkimMatrix oldCostSkimMatrix, SkimMatrix newCostSkimMatrix) {
+		
+		if (oldTimeSkimMatrix == null) LOGGER.error("No time skim matrix in the demand model.");
+		if (oldCostSkimMatrix == null) LOGGER.error("No cost skim matrix in the demand model.");
+		
+		final int size = cells.flows.length;
+		final double[] oldTimes = new double[size];
+		final double[] newTimes = new double[size];
+		final double[] oldCosts = new double[size];
+		final double[] newCosts = new double[size];
+		kernel.forEachCell(size, (fromCell, toCell) -> {
+			for (int cell = fromCell; cell < toCell; cell++) {
+				String originZone = cells.zones[cells.origins[cell]];
+				String destinationZone = cells.zones[cells.destinations[cell]];
+				oldTimes[cell] = oldTimeSkimMatrix.getCost(originZone, destinationZone);
+				newTimes[cell] = newTimeSkimMatrix.getCost(originZone, destinationZone);
+				oldCosts[cell] = oldCostSkimMatrix.getCost(originZone, destinationZone);
+				newCosts[cell] = newCostSkimMatrix.getCost(originZone, destinationZone);
+				if (oldTimes[cell] == 0.0) LOGGER.warn("Unknown old travel time between zone {} and zone {}.", originZone, destinationZone);
+				if (newTimes[cell] == 0.0) LOGGER.warn("Unknown new travel time between zone {} and zone {}.", originZone, destinationZone);
+				if (oldCosts[cell] == 0.0) LOGGER.warn("Unknown old travel cost between zone {} and zone {}.", originZone, destinationZone);
+				if (newCosts[cell] == 0.0) LOGGER.warn("Unknown new travel cost between zone {} and zone {}.", originZone, destinationZone);
+			}
+		});
+		
+		kernel.predictFromSkims(cells.flows, oldTimes, newTimes, oldCosts, newCosts, elasticities.get(ElasticityTypes.TIME), elasticities.get(ElasticityTypes.COST));
+	}
+	
+	/**
+	 * Predicts freight flows from the changes in skim matrices (second stage prediction).
+	 * @param kernel Elasticity kernel.
+	 * @param cells Freight matrix cells (flows are replaced with the predicted flows).
+	 * @param oldTimeSkimMatrix Old time skim matrix for freight.
+	 * @param newTimeSkimMatrix New time skim matrix for freight.
+	 * @param oldCostSkimMatrix Old cost skim matrix for freight.
+	 * @param newCostSkimMatrix New cost skim matrix for freight.
+	 */
+	private void predictFreightFlowsFromSkims(ElasticityKernel kernel, FreightCells cells, SkimMatrixFreight oldTimeSkimMatrix, SkimMatrixFreight newTimeSkimMatrix, SkimMatrixFreight oldCostSkimMatrix, SkimMatrixFreight newCostSkimMatrix) {
+		
+		final int size = cells.flows.length;
+		final double[] oldTimes = new double[size];
+		final double[] newTimes = new double[size];
+		final double[] oldCosts = new double[size];
+		final double[] newCosts = new double[size];
+		kernel.forEachCell(size, (fromCell, toCell) -> {
+			for (int cell = fromCell; cell < toCell; cell++) {
+				int origin = cells.origins[cell];
+				int destination = cells.destinations[cell];
+				int vehicleType = cells.vehicleTypes[cell];
+				oldTimes[cell] = oldTimeSkimMatrix.getCost(origin, destination, vehicleType);
+				newTimes[cell] = newTimeSkimMatrix.getCost(origin, destination, vehicleType);
+				oldCosts[cell] = oldCostSkimMatrix.getCost(origin, destination, vehicleType);
+				newCosts[cell] = newCostSkimMatrix.getCost(origin, destination, vehicleType);
+				if (oldTimes[cell] == 0.0) LOGGER.warn("Unknown old travel time between freight zone {} and freight zone {} for vehicle {}.", origin, destination, vehicleType);
+				if (newTimes[cell] == 0.0) LOGGER.warn("Unknown new travel time between freight zone {} and freight zone {} for vehicle {}.", origin, destination, vehicleType);
+				if (oldCosts[cell] == 0.0) LOGGER.warn("Unknown old travel cost between freight zone {} and freight zone {} for vehicle {}.", origin, destination, vehicleType);
+				if (newCosts[cell] == 0.0) LOGGER.warn("Unknown new travel cost between freight zone {} and freight zone {} for vehicle {}.", origin, destination, vehicleType);
+			}
+		});
+		
+		kernel.predictFromSkims(cells.flows, oldTimes, newTimes, oldCosts, newCosts, elasticitiesFreight.get(ElasticityTypes.TIME), elasticitiesFreight.get(ElasticityTypes.COST));
+	}
+	
+	/**
+	 * Non-zero cells of a passenger matrix (in the order of its cursor), with zone indices and flows in primitive arrays.
+	 */
+	private static class PassengerCells {
+		
+		private final String[] zones; //zone index -> zone code
+		private final int[] origins; //origin zone index of each cell
+		private final int[] destinations; //destination zone index of each cell
+		private int[] flows;
+		
+		private PassengerCells(ODMatrixMultiKey matrix) {
+			
+			int size = 0;
+			for (ODMatrixMultiKey.Cursor mc = matrix.cursor(); mc.next(); ) size++;
+			Map<String, Integer> zoneToIndex = new HashMap<String, Integer>();
+			List<String> zoneList = new ArrayList<String>();
+			this.origins = new int[size];
+			this.destinations = new int[size];
+			this.flows = new int[size];
+			int cell = 0;
+			for (ODMatrixMultiKey.Cursor mc = matrix.cursor(); mc.next(); cell++) {
+				String originZone = mc.getOrigin();
+				String destinationZone = mc.getDestination();
+				for (String zone: new String[] {originZone, destinationZone})
+					if (!zoneToIndex.containsKey(zone)) {
+						zoneToIndex.put(zone, zoneList.size());
+						zoneList.add(zone);
+					}
+				this.origins[cell] = zoneToIndex.get(originZone);
+				this.destinations[cell] = zoneToIndex.get(destinationZone);
+				this.flows[cell] = mc.getFlow();
+			}
+			this.zones = zoneList.toArray(new String[0]);
+		}
+		
+		/**
+		 * Sets the flows of the cells into a matrix (in the order of the cells).
+		 * @param matrix Passenger matrix.
+		 */
+		private void setFlows(ODMatrixMultiKey matrix) {
+			
+			for (int cell = 0; cell < this.flows.length; cell++)
+				matrix.setFlow(this.zones[this.origins[cell]], this.zones[this.destinations[cell]], this.flows[cell]);
+		}
+	}
+	
+	/**
+	 * Non-zero cells of a freight matrix (in the order of its cursor), with freight zones, vehicle types and flows in primitive arrays.
+	 */
+	private static class FreightCells {
+		
+		private final int[] origins;
+		private final int[] destinations;
+		private final int[] vehicleTypes;
+		private int[] flows;
+		
+		private FreightCells(FreightMatrix matrix) {
+			
+			int size = 0;
+			for (FreightMatrix.Cursor mc = matrix.cursor(); mc.next(); ) size++;
+			this.origins = new int[size];
+			this.destinations = new int[size];
+			this.vehicleTypes = new int[size];
+			this.flows = new int[size];
+			int cell = 0;
+			for (FreightMatrix.Cursor mc = matrix.cursor(); mc.next(); cell++) {
+				this.origins[cell] = mc.getOrigin();
+				this.destinations[cell] = mc.getDestination();
+				this.vehicleTypes[cell] = mc.getVehicleType();
+				this.flows[cell] = mc.getFlow();
+			}
+		}
+		
+		/**
+		 * Sets the flows of the cells into a matrix (in the order of the cells).
+		 * @param matrix Freight matrix.
+		 */
+		private void setFlows(FreightMatrix matrix) {
+			
+			for (int cell = 0; cell < this.flows.length; cell++)
+				matrix.setFlow(this.origins[cell], this.destinations[cell], this.vehicleTypes[cell], this.flows[cell]);
+		}
+	}
+}
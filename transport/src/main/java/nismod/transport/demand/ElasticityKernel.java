@@ -0,0 +1,172 @@
+package nismod.transport.demand;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import nismod.transport.utility.ParallelTasks;
+
+/**
+ * Cell-wise kernels of the elasticity-based demand prediction (the first stage from changes in population and GVA,
+ * the second stage from changes in travel time and cost). Matrix cells (non-zero origin-destination pairs) are given as
+ * primitive arrays with zone indices, zone values are stored in arrays indexed by zone, and the cells are processed in parallel ranges.
+ * Each cell is calculated independently and written to its own position, so the result does not depend on the number of threads.
+ * @author Milan Lovric
+ *
+ */
+public class ElasticityKernel {
+
+	private final static Logger LOGGER = LogManager.getLogger(ElasticityKernel.class);
+
+	public static final int MIN_CELLS_PER_THREAD = 10000; //smaller matrices are processed in a single thread
+
+	/**
+	 * Calculation over a range of matrix cells.
+	 */
+	public interface CellRange {
+
+		/**
+		 * @param fromCell First cell (inclusive).
+		 * @param toCell Last cell (exclusive).
+		 */
+		void apply(int fromCell, int toCell);
+	}
+
+	private final int threads;
+
+	/**
+	 * Constructor.
+	 * @param threads Number of threads.
+	 */
+	public ElasticityKernel(int threads) {
+
+		this.threads = Math.max(1, threads);
+	}
+
+	/**
+	 * Applies a calculation over all cells, split into ranges that are processed in parallel.
+	 * @param cells Number of cells.
+	 * @param range Calculation over a range of cells.
+	 */
+	public void forEachCell(int cells, CellRange range) {
+
+		int threads = Math.max(1, Math.min(this.threads, cells / MIN_CELLS_PER_THREAD));
+		ParallelTasks.forEachRange(cells, threads, range::apply, "elasticity calculation");
+	}
+
+	/**
+	 * Predicts passenger flows from the changes in population and GVA of the origin and destination zones.
+	 * @param flows Old flows.
+	 * @param origins Origin zone index of each cell.
+	 * @param destinations Destination zone index of each cell.
+	 * @param oldPopulation Old population per zone.
+	 * @param newPopulation New population per zone.
+	 * @param oldGVA Old GVA per zone.
+	 * @param newGVA New GVA per zone.
+	 * @param tripRateFactor Trip rate factor.
+	 * @param populationElasticity Elasticity of demand to population.
+	 * @param gvaElasticity Elasticity of demand to GVA.
+	 * @return Predicted (rounded) flows.
+	 */
+	public int[] predictPassengerFlows(final int[] flows, final int[] origins, final int[] destinations, final double[] oldPopulation, final double[] newPopulation,
+			final double[] oldGVA, final double[] newGVA, final double tripRateFactor, final double populationElasticity, final double gvaElasticity) {
+
+		final int[] predictedFlows = new int[flows.length];
+		this.forEachCell(flows.length, (fromCell, toCell) -> {
+			for (int cell = fromCell; cell < toCell; cell++) {
+				int o = origins[cell], d = destinations[cell];
+				double predictedFlow = flows[cell] * tripRateFactor * Math.pow((newPopulation[o] + newPopulation[d]) / (oldPopulation[o] + oldPopulation[d]), populationElasticity) *
+						Math.pow((newGVA[o] + newGVA[d]) / (oldGVA[o] + oldGVA[d]), gvaElasticity);
+				predictedFlows[cell] = (int) Math.round(predictedFlow);
+			}
+		});
+		return predictedFlows;
+	}
+
+	/**
+	 * Predicts freight flows from the changes in population and GVA of the LAD zones (the flow between two non-LAD zones does not change).
+	 * For the flows with only one LAD zone, the population and GVA ratios are raised to the elasticities once per zone.
+	 * @param flows Old flows.
+	 * @param origins Origin freight zone of each cell.
+	 * @param destinations Destination freight zone of each cell.
+	 * @param vehicleTypes Vehicle type of each cell.
+	 * @param maxLADZone Freight zones up to this ID are LADs (zone arrays need to be defined for them).
+	 * @param oldPopulation Old population per freight zone.
+	 * @param newPopulation New population per freight zone.
+	 * @param oldGVA Old GVA per freight zone.
+	 * @param newGVA New GVA per freight zone.
+	 * @param tripRateFactors Trip rate factor per vehicle type.
+	 * @param populationElasticity Elasticity of demand to population.
+	 * @param gvaElasticity Elasticity of demand to GVA.
+	 * @return Predicted (rounded) flows.
+	 */
+	public int[] predictFreightFlows(final int[] flows, final int[] origins, final int[] destinations, final int[] vehicleTypes, final int maxLADZone, final double[] oldPopulation, final double[] newPopulation,
+			final double[] oldGVA, final double[] newGVA, final double[] tripRateFactors, final double populationElasticity, final double gvaElasticity) {
+
+		//zone factors for the flows with one LAD zone
+		final int zones = Math.min(maxLADZone + 1, oldPopulation.length);
+		final double[] populationFactors = new double[zones];
+		final double[] gvaFactors = new double[zones];
+		for (int zone = 0; zone < zones; zone++) {
+			populationFactors[zone] = Math.pow(newPopulation[zone] / oldPopulation[zone], populationElasticity);
+			gvaFactors[zone] = Math.pow(newGVA[zone] / oldGVA[zone], gvaElasticity);
+		}
+
+		final int[] predictedFlows = new int[flows.length];
+		this.forEachCell(flows.length, (fromCell, toCell) -> {
+			for (int cell = fromCell; cell < toCell; cell++) {
+				int o = origins[cell], d = destinations[cell];
+				double predictedFlow = flows[cell];
+				double tripRateFreightFactor = tripRateFactors[vehicleTypes[cell]];
+				if (o <= maxLADZone && d > maxLADZone) //origin is a LAD
+					predictedFlow = predictedFlow * tripRateFreightFactor * populationFactors[o] * gvaFactors[o];
+				else if (d <= maxLADZone && o > maxLADZone) //destination is a LAD
+					predictedFlow = predictedFlow * tripRateFreightFactor * populationFactors[d] * gvaFactors[d];
+				else if (o <= maxLADZone && d <= maxLADZone) //both origin and destination are LADs
+					predictedFlow = predictedFlow * tripRateFreightFactor * Math.pow((newPopulation[o] + newPopulation[d]) / (oldPopulation[o] + oldPopulation[d]), populationElasticity) *
+							Math.pow((newGVA[o] + newGVA[d]) / (oldGVA[o] + oldGVA[d]), gvaElasticity);
+				predictedFlows[cell] = (int) Math.round(predictedFlow);
+			}
+		});
+		return predictedFlows;
+	}
+
+	/**
+	 * Predicts flows from the changes in travel time and cost (in place).
+	 * If either the old or the new value of a cell is undefined (0.0), the ratio is assumed to be 1 (not affecting the prediction).
+	 * @param flows Flows (replaced with the predicted rounded flows).
+	 * @param oldTimes Old travel time of each cell.
+	 * @param newTimes New travel time of each cell.
+	 * @param oldCosts Old travel cost of each cell.
+	 * @param newCosts New travel cost of each cell.
+	 * @param timeElasticity Elasticity of demand to travel time.
+	 * @param costElasticity Elasticity of demand to travel cost.
+	 */
+	public void predictFromSkims(final int[] flows, final double[] oldTimes, final double[] newTimes, final double[] oldCosts, final double[] newCosts,
+			final double timeElasticity, final double costElasticity) {
+
+		this.forEachCell(flows.length, (fromCell, toCell) -> {
+			for (int cell = fromCell; cell < toCell; cell++) {
+				double oldTime = oldTimes[cell], newTime = newTimes[cell];
+				double oldCost = oldCosts[cell], newCost = newCosts[cell];
+				if (oldTime == 0.0 || newTime == 0.0) {
+					oldTime = 1.0;
+					newTime = 1.0;
+				}
+				if (oldCost == 0.0 || newCost == 0.0) {
+					oldCost = 1.0;
+					newCost = 1.0;
+				}
+				double predictedFlow = flows[cell] * Math.pow(newTime / oldTime, timeElasticity) * Math.pow(newCost / oldCost, costElasticity);
+				flows[cell] = (int) Math.round(predictedFlow);
+			}
+		});
+	}
+
+	/**
+	 * @return Number of threads.
+	 */
+	public int getThreads() {
+
+		return this.threads;
+	}
+}
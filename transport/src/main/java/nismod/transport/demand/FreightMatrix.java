@@ -8,13 +8,14 @@ import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashSet;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.apache.commons.collections4.keyvalue.MultiKey;
-import org.apache.commons.collections4.map.MultiKeyMap;
 import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVParser;
 import org.apache.commons.csv.CSVPrinter;
@@ -24,6 +25,8 @@ import org.apache.logging.log4j.Logger;
 
 /**
  * Origin-destination matrix for freight vehicles (following the format of DfT's BYFM 2006 study).
+ * Flows are stored in dense rows (one per origin zone) with a cell for each destination zone and vehicle type,
+ * and only non-zero flows are considered to be in the matrix (as zero flows are not stored).
  * @author Milan Lovric
  *
  */
@@ -34,11 +37,19 @@ public class FreightMatrix {
 	public final static int MAX_FREIGHT_ZONE_ID = 1388;
 	public final static int MAX_VEHICLE_ID = 3;
 	
-	private MultiKeyMap matrix;
+	private static final int VEHICLES = MAX_VEHICLE_ID + 1; //cells per destination (vehicle type values start from 1)
+	
+	private ZoneAxis origins; //rows
+	private ZoneAxis destinations; //columns
+	private int[][] flows; //flow = [origin][destination * VEHICLES + vehicleType]
+	private int[] vehicleCells; //number of non-zero cells per vehicle type
 	
 	public FreightMatrix() {
 		
-		matrix = new MultiKeyMap();
+		this.origins = new ZoneAxis();
+		this.destinations = new ZoneAxis();
+		this.flows = new int[16][];
+		this.vehicleCells = new int[VEHICLES];
 	}
 	
 	/**
@@ -49,7 +60,7 @@ public class FreightMatrix {
 	 */
 	public FreightMatrix(String fileName) throws FileNotFoundException, IOException {
 		
-		matrix = new MultiKeyMap();
+		this();
 		CSVParser parser = new CSVParser(new FileReader(fileName), CSVFormat.DEFAULT.withHeader());
 		//System.out.println(parser.getHeaderMap().toString());
 		Set<String> keySet = parser.getHeaderMap().keySet();
@@ -75,9 +86,12 @@ public class FreightMatrix {
 	 */
 	public int getFlow(int origin, int destination, int vehicleType) {
 		
-		Object flow = matrix.get(origin, destination, vehicleType);
-		if (flow == null) flow = 0;
-		return (int) flow;
+		int row = this.origins.indexOf(origin);
+		if (row < 0) return 0;
+		int column = this.destinations.indexOf(destination);
+		if (column < 0) return 0;
+		
+		return this.getCell(row, column * VEHICLES + vehicleType);
 	}
 	
 	/**
@@ -89,11 +103,15 @@ public class FreightMatrix {
 	 */
 	public void setFlow(int origin, int destination, int vehicleType, int flow) {
 		
-		if (flow != 0)		matrix.put(origin, destination, vehicleType, flow);
-		//do not store zero flows into the matrix (skip zero flow or remove if already exists)
-		else // flow == 0 
-			if (matrix.get(origin, destination, vehicleType) != null) 
-				matrix.removeMultiKey(origin, destination, vehicleType);
+		if (vehicleType < 0 || vehicleType > MAX_VEHICLE_ID) throw new IllegalArgumentException("Unknown vehicle type " + vehicleType);
+		
+		if (flow != 0)
+			this.setCell(this.addOrigin(origin), this.destinations.add(destination), vehicleType, flow);
+		else { //do not store zero flows into the matrix (skip zero flow or remove if already exists)
+			int row = this.origins.indexOf(origin);
+			int column = this.destinations.indexOf(destination);
+			if (row >= 0 && column >= 0) this.setCell(row, column, vehicleType, 0);
+		}
 	}
 		
 	/**
@@ -101,7 +119,9 @@ public class FreightMatrix {
 	 */
 	public void printMatrix() {
 		
-		System.out.println(matrix.toString());
+		Map<MultiKey, Integer> map = new LinkedHashMap<MultiKey, Integer>();
+		for (Cursor cell = this.cursor(); cell.next(); ) map.put(new MultiKey<Integer>(cell.getOrigin(), cell.getDestination(), cell.getVehicleType()), cell.getFlow());
+		System.out.println(map.toString());
 	}
 	
 	/**
@@ -109,26 +129,8 @@ public class FreightMatrix {
 	 */
 	public void printMatrixFormatted() {
 		
-		//System.out.println(matrix.toString());
-		
-		Set<Integer> firstKey = new HashSet<Integer>();
-		Set<Integer> secondKey = new HashSet<Integer>();
-		
-		//extract origin and destination keysets
-		for (Object mk: matrix.keySet()) {
-			int origin = (int) ((MultiKey)mk).getKey(0);
-			int destination = (int) ((MultiKey)mk).getKey(1);
-			firstKey.add(origin);
-			secondKey.add(destination);
-		}
-	
-		//put them to a list and sort them
-		List<Integer> firstKeyList = new ArrayList(firstKey);
-		List<Integer> secondKeyList = new ArrayList(secondKey);
-		Collections.sort(firstKeyList);
-		Collections.sort(secondKeyList);
-		//System.out.println(firstKeyList);
-		//System.out.println(secondKeyList);
+		List<Integer> firstKeyList = this.getSortedOrigins();
+		List<Integer> secondKeyList = this.getSortedDestinations();
 	
 		//formatted print
 		System.out.printf("%6s%12s%12s%7s\n", "origin", "destination", "vehicleType", "flow");
@@ -155,21 +157,7 @@ public class FreightMatrix {
 	 */
 	public List<Integer> getSortedOrigins() {
 		
-		LOGGER.debug("Getting the sorted origins.");
-		
-		Set<Integer> firstKey = new HashSet<Integer>();
-		
-		//extract row keysets
-		for (Object mk: matrix.keySet()) {
-			int origin = (int) ((MultiKey)mk).getKey(0);
-			firstKey.add(origin);
-		}
-		//put them into a list and sort them
-		List<Integer> firstKeyList = new ArrayList(firstKey);
-		Collections.sort(firstKeyList);
-	
-		LOGGER.trace("Origins sorted and returned.");
-		return firstKeyList;
+		return this.origins.getSortedKeys();
 	}
 	
 	/**
@@ -178,21 +166,7 @@ public class FreightMatrix {
 	 */
 	public List<Integer> getSortedDestinations() {
 		
-		LOGGER.debug("Getting the sorted destinations.");
-		
-		Set<Integer> secondKey = new HashSet<Integer>();
-		
-		//extract column keysets
-		for (Object mk: matrix.keySet()) {
-			int destination = (int) ((MultiKey)mk).getKey(1);
-			secondKey.add(destination);
-		}
-		//put them into a list and sort them
-		List<Integer> secondKeyList = new ArrayList(secondKey);
-		Collections.sort(secondKeyList);
-		
-		LOGGER.trace("Origins sorted and returned.");
-		return secondKeyList;
+		return this.destinations.getSortedKeys();
 	}
 	
 	/**
@@ -201,19 +175,7 @@ public class FreightMatrix {
 	 */
 	public List<Integer> getUnsortedOrigins() {
 		
-		LOGGER.debug("Getting the unsorted origins.");
-		
-		Set<Integer> firstKey = new HashSet<Integer>();
-		
-		//extract row keysets
-		for (Object mk: matrix.keySet()) {
-			int origin = (int) ((MultiKey)mk).getKey(0);
-			firstKey.add(origin);
-		}
-		//put them into a list
-		List<Integer> firstKeyList = new ArrayList(firstKey);
-
-		return firstKeyList;
+		return this.origins.getKeys();
 	}
 	
 	/**
@@ -222,19 +184,7 @@ public class FreightMatrix {
 	 */
 	public List<Integer> getUnsortedDestinations() {
 		
-		LOGGER.debug("Getting the unsorted destinations.");
-		
-		Set<Integer> secondKey = new HashSet<Integer>();
-		
-		//extract column keysets
-		for (Object mk: matrix.keySet()) {
-			int destination = (int) ((MultiKey)mk).getKey(1);
-			secondKey.add(destination);
-		}
-		//put them into a list
-		List<Integer> secondKeyList = new ArrayList(secondKey);
-		
-		return secondKeyList;
+		return this.destinations.getKeys();
 	}
 	
 	/**
@@ -243,16 +193,9 @@ public class FreightMatrix {
 	 */
 	public List<Integer> getVehicleTypes() {
 		
-		Set<Integer> thirdKey = new HashSet<Integer>();
-		
-		//extract column keysets
-		for (Object mk: matrix.keySet()) {
-			int vehicle = (int) ((MultiKey)mk).getKey(2);
-			thirdKey.add(vehicle);
-		}
-		//put them into a list and sort them
-		List<Integer> thirdKeyList = new ArrayList(thirdKey);
-		Collections.sort(thirdKeyList);
+		List<Integer> thirdKeyList = new ArrayList<Integer>();
+		for (int vehicleType = 0; vehicleType < VEHICLES; vehicleType++)
+			if (this.vehicleCells[vehicleType] > 0) thirdKeyList.add(vehicleType);
 		
 		return thirdKeyList;
 	}
@@ -312,25 +255,105 @@ public class FreightMatrix {
 		
 		LOGGER.debug("Deleting inter-zonal flows from/to zone {}...", zone);
 		
-		List<Integer> origins = this.getUnsortedOrigins();
-		List<Integer> destinations = this.getUnsortedDestinations();
-			
-		for (Integer origin: origins)
-			for (Integer destination: destinations)
-				for (int vehicleType = 1; vehicleType <= 3; vehicleType++)
-					if (origin.equals(zone) && !destination.equals(zone) || !origin.equals(zone) && destination.equals(zone)) //this will leave only intra-zonal flow
-						this.setFlow(origin, destination, vehicleType, 0);
+		int zoneRow = this.origins.indexOf(zone);
+		int zoneColumn = this.destinations.indexOf(zone);
+		
+		//this will leave only intra-zonal flow
+		if (zoneRow >= 0)
+			for (int column = 0; column < this.destinations.size(); column++)
+				if (column != zoneColumn)
+					for (int vehicleType = 1; vehicleType <= 3; vehicleType++)
+						this.setCell(zoneRow, column, vehicleType, 0);
+		if (zoneColumn >= 0)
+			for (int row = 0; row < this.origins.size(); row++)
+				if (row != zoneRow)
+					for (int vehicleType = 1; vehicleType <= 3; vehicleType++)
+						this.setCell(row, zoneColumn, vehicleType, 0);
 			
 		LOGGER.debug("Done deleting inter-zonal flows.");
 	}
 	
 	/**
-	 * Gets the keyset of the multimap.
+	 * Gets the keyset of the matrix (origin, destination and vehicle type of the non-zero flows).
+	 * The set is created on each call (use {@link #cursor()} to iterate over the flows without creating the keys).
 	 * @return Key set.
 	 */
 	public Set<MultiKey> getKeySet() {
 		
-		return matrix.keySet();
+		Set<MultiKey> keySet = new LinkedHashSet<MultiKey>();
+		for (Cursor cell = this.cursor(); cell.next(); )
+			keySet.add(new MultiKey<Integer>(cell.getOrigin(), cell.getDestination(), cell.getVehicleType()));
+		
+		return keySet;
+	}
+	
+	/**
+	 * Gets a cursor over the non-zero flows of the matrix.
+	 * @return Cursor positioned before the first flow.
+	 */
+	public Cursor cursor() {
+		
+		return new Cursor();
+	}
+	
+	/**
+	 * Cursor over the non-zero flows of the matrix (in the order of origins and destinations in which they were added, then by vehicle type).
+	 * Flows can be changed during the iteration (flows added before the current cell are not visited).
+	 */
+	public final class Cursor {
+		
+		private int row = 0;
+		private int cell = -1; //destination index * VEHICLES + vehicle type
+		
+		private Cursor() {
+		}
+		
+		/**
+		 * Moves to the next non-zero flow.
+		 * @return False if there are no more flows.
+		 */
+		public boolean next() {
+			
+			for (; this.row < origins.size(); this.row++, this.cell = -1) {
+				int[] flowsRow = flows[this.row];
+				if (flowsRow == null) continue;
+				while (++this.cell < flowsRow.length)
+					if (flowsRow[this.cell] != 0) return true;
+			}
+			return false;
+		}
+		
+		/**
+		 * @return Origin of the current flow.
+		 */
+		public int getOrigin() {
+			
+			return origins.getKey(this.row);
+		}
+		
+		/**
+		 * @return Destination of the current flow.
+		 */
+		public int getDestination() {
+			
+			return destinations.getKey(this.cell / VEHICLES);
+		}
+		
+		/**
+		 * @return Vehicle type of the current flow.
+		 */
+		public int getVehicleType() {
+			
+			return this.cell % VEHICLES;
+		}
+		
+		/**
+		 * @return Current flow.
+		 */
+		public int getFlow() {
+			
+			return getCell(this.row, this.cell);
+		}
 	}
 	
 	/**
@@ -340,11 +363,10 @@ public class FreightMatrix {
 	public int getTotalIntFlow() {
 		
 		int totalFlow = 0;
-		for (MultiKey mk: this.getKeySet()) {
-			int origin = (int) mk.getKey(0);
-			int destination = (int) mk.getKey(1);
-			int vehicleType = (int) mk.getKey(2);
-			totalFlow += this.getFlow(origin, destination, vehicleType);
+		for (int row = 0; row < this.origins.size(); row++) {
+			int[] flowsRow = this.flows[row];
+			if (flowsRow == null) continue;
+			for (int flow: flowsRow) totalFlow += flow;
 		}
 	
 		return totalFlow;
@@ -358,11 +380,19 @@ public class FreightMatrix {
 	public double getAbsoluteDifference(FreightMatrix other) {
 		
 		double difference = 0.0;
-		for (MultiKey mk: other.getKeySet()) {
-			int origin = (int) mk.getKey(0);
-			int destination = (int) mk.getKey(1);
-			int vehicleType = (int) mk.getKey(2);
-			difference += Math.abs(this.getFlow(origin, destination, vehicleType) - other.getFlow(origin, destination, vehicleType));
+		for (int row = 0; row < other.origins.size(); row++) {
+			int[] flowsRow = other.flows[row];
+			if (flowsRow == null) continue;
+			int thisRow = this.origins.indexOf(other.origins.getKey(row));
+			for (int cell = 0; cell < flowsRow.length; cell++) {
+				if (flowsRow[cell] == 0) continue;
+				int thisFlow = 0;
+				if (thisRow >= 0) {
+					int thisColumn = this.destinations.indexOf(other.destinations.getKey(cell / VEHICLES));
+					if (thisColumn >= 0) thisFlow = this.getCell(thisRow, thisColumn * VEHICLES + cell % VEHICLES);
+				}
+				difference += Math.abs(thisFlow - flowsRow[cell]);
+			}
 		}
 	
 		return difference;
@@ -376,12 +406,15 @@ public class FreightMatrix {
 	public FreightMatrix getScaledMatrix(double scale) {
 		
 		FreightMatrix scaled = new FreightMatrix();
-		for (MultiKey mk: this.getKeySet()) {
-			int origin = (int) mk.getKey(0);
-			int destination = (int) mk.getKey(1);
-			int vehicleType = (int) mk.getKey(2);
-			int flow = (int) Math.round(this.getFlow(origin, destination, vehicleType) * scale);
-			scaled.setFlow(origin, destination, vehicleType, flow);
+		for (int row = 0; row < this.origins.size(); row++) {
+			int[] flowsRow = this.flows[row];
+			if (flowsRow == null) continue;
+			int origin = this.origins.getKey(row);
+			for (int cell = 0; cell < flowsRow.length; cell++)
+				if (flowsRow[cell] != 0) {
+					int flow = (int) Math.round(flowsRow[cell] * scale);
+					scaled.setFlow(origin, this.destinations.getKey(cell / VEHICLES), cell % VEHICLES, flow);
+				}
 		}
 		return scaled;
 	}
@@ -394,15 +427,23 @@ public class FreightMatrix {
 		
 		FreightMatrix scaled = new FreightMatrix();
 		
-		for (MultiKey mk: this.getKeySet()) {
-			int origin = (int) mk.getKey(0);
-			int destination = (int) mk.getKey(1);
-			int vehicleType = (int) mk.getKey(2);
-			int flow = (int) Math.round(this.getFlow(origin, destination, vehicleType) * scale.getCost(origin,  destination,  vehicleType));
-			scaled.setFlow(origin, destination, vehicleType, flow);
+		for (int row = 0; row < this.origins.size(); row++) {
+			int[] flowsRow = this.flows[row];
+			if (flowsRow == null) continue;
+			int origin = this.origins.getKey(row);
+			for (int cell = 0; cell < flowsRow.length; cell++)
+				if (flowsRow[cell] != 0) {
+					int destination = this.destinations.getKey(cell / VEHICLES);
+					int vehicleType = cell % VEHICLES;
+					int flow = (int) Math.round(flowsRow[cell] * scale.getCost(origin,  destination,  vehicleType));
+					scaled.setFlow(origin, destination, vehicleType, flow);
+				}
 		}
 		
-		this.matrix = scaled.matrix;
+		this.origins = scaled.origins;
+		this.destinations = scaled.destinations;
+		this.flows = scaled.flows;
+		this.vehicleCells = scaled.vehicleCells;
 	}
 	
 	/**
@@ -453,4 +494,60 @@ public class FreightMatrix {
 			}
 		}
 	}
+	
+	/**
+	 * Adds an origin zone to the matrix rows (if not already added).
+	 * @param origin Freight origin.
+	 * @return Origin index.
+	 */
+	private int addOrigin(int origin) {
+		
+		int row = this.origins.add(origin);
+		if (row >= this.flows.length) this.flows = Arrays.copyOf(this.flows, 2 * this.flows.length);
+		return row;
+	}
+	
+	/**
+	 * Gets the flow of a matrix cell.
+	 * @param row Origin index.
+	 * @param cell Cell index (destination index * VEHICLES + vehicle type).
+	 * @return Flow.
+	 */
+	private int getCell(int row, int cell) {
+		
+		int[] flowsRow = this.flows[row];
+		if (flowsRow == null || cell >= flowsRow.length) return 0;
+		return flowsRow[cell];
+	}
+	
+	/**
+	 * Sets the flow of a matrix cell (and updates the number of non-zero cells of its origin, destination and vehicle type).
+	 * @param row Origin index.
+	 * @param column Destination index.
+	 * @param vehicleType Vehicle type.
+	 * @param flow Flow.
+	 */
+	private void setCell(int row, int column, int vehicleType, int flow) {
+		
+		int cell = column * VEHICLES + vehicleType;
+		int[] flowsRow = this.flows[row];
+		if (flowsRow == null || cell >= flowsRow.length) {
+			if (flow == 0) return;
+			int length = Math.max(column + 1, this.destinations.size()) * VEHICLES;
+			flowsRow = (flowsRow == null) ? new int[length] : Arrays.copyOf(flowsRow, length);
+			this.flows[row] = flowsRow;
+		}
+		
+		int oldFlow = flowsRow[cell];
+		if (oldFlow == 0 && flow != 0) {
+			this.origins.increment(row);
+			this.destinations.increment(column);
+			this.vehicleCells[vehicleType]++;
+		} else if (oldFlow != 0 && flow == 0) {
+			this.origins.decrement(row);
+			this.destinations.decrement(column);
+			this.vehicleCells[vehicleType]--;
+		}
+		flowsRow[cell] = flow;
+	}
 }
@@ -13,7 +13,6 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Set;
 
-import org.apache.commons.collections4.keyvalue.MultiKey;
 import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVParser;
 import org.apache.commons.csv.CSVPrinter;
@@ -488,11 +487,11 @@ public class ODMatrixArrayTempro implements AssignableODMatrix {
 		
 		ODMatrixArrayTempro temproMatrix = new ODMatrixArrayTempro(zoning);
 		
-		for (MultiKey mk: ladODMatrix.getKeySet()) {
-			String originLAD = (String) mk.getKey(0);
-			String destinationLAD = (String) mk.getKey(1);
+		for (ODMatrixMultiKey.Cursor cell = ladODMatrix.cursor(); cell.next(); ) {
+			String originLAD = cell.getOrigin();
+			String destinationLAD = cell.getDestination();
 			
-			int ladFlow = ladODMatrix.getFlow(originLAD, destinationLAD);
+			int ladFlow = cell.getFlow();
 					
 			//get tempro zones contained within originLAD and destinationLAD
 			List<String> temproOrigins = zoning.getLADToListOfContainedZones().get(originLAD);
@@ -8,14 +8,15 @@ import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.apache.commons.collections4.keyvalue.MultiKey;
-import org.apache.commons.collections4.map.MultiKeyMap;
 import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVParser;
 import org.apache.commons.csv.CSVPrinter;
@@ -25,10 +26,14 @@ import org.apache.logging.log4j.Logger;
 
 import org.locationtech.jts.geom.Point;
 
+import nismod.transport.zone.ZoneCodeRegistry;
 import nismod.transport.zone.Zoning;
 
 /**
  * Origin-destination matrix for passenger vehicles.
+ * Zone codes are interned in the {@link ZoneCodeRegistry} and flows are stored in sparse rows (one per origin zone),
+ * so only non-zero flows are considered to be in the matrix (as zero flows are not stored).
+ * The non-zero flows can be iterated with a {@link Cursor}, which does not create any keys.
  * @author Milan Lovric
  *
  */
@@ -36,11 +41,15 @@ public class ODMatrixMultiKey implements AssignableODMatrix {
 	
 	private final static Logger LOGGER = LogManager.getLogger(ODMatrixMultiKey.class);
 	
-	private MultiKeyMap matrix;
+	private ZoneAxis origins; //rows
+	private ZoneAxis destinations; //columns
+	private SparseRow[] flows; //flow = [origin][destination] (rows are created when the first flow is set)
 	
 	public ODMatrixMultiKey() {
 		
-		matrix = new MultiKeyMap();
+		this.origins = new ZoneAxis();
+		this.destinations = new ZoneAxis();
+		this.flows = new SparseRow[16];
 	}
 	
 	/**
@@ -51,9 +60,9 @@ public class ODMatrixMultiKey implements AssignableODMatrix {
 	 */
 	public ODMatrixMultiKey(String fileName) throws FileNotFoundException, IOException {
 		
+		this();
 		LOGGER.info("Reading OD matrix from file: {}", fileName);
 
-		matrix = new MultiKeyMap();
 		CSVParser parser = new CSVParser(new FileReader(fileName), CSVFormat.DEFAULT.withHeader());
 		//System.out.println(parser.getHeaderMap().toString());
 		Set<String> keySet = parser.getHeaderMap().keySet();
@@ -90,7 +99,7 @@ public class ODMatrixMultiKey implements AssignableODMatrix {
 	 */
 	public ODMatrixMultiKey(RealODMatrix realMatrix) {
 		
-		matrix = new MultiKeyMap();
+		this();
 		for (String o: realMatrix.getUnsortedOrigins())
 			for (String d: realMatrix.getUnsortedDestinations()) {
 				int flow = (int) Math.round(realMatrix.getFlow(o, d));
@@ -106,9 +115,12 @@ public class ODMatrixMultiKey implements AssignableODMatrix {
 	 */
 	public int getFlow(String originZone, String destinationZone) {
 		
-		Integer flow = (Integer) matrix.get(originZone, destinationZone);
-		if (flow == null) return 0;
-		else return flow;
+		int row = this.origins.indexOf(ZoneCodeRegistry.lookupID(originZone));
+		if (row < 0) return 0;
+		int column = this.destinations.indexOf(ZoneCodeRegistry.lookupID(destinationZone));
+		if (column < 0) return 0;
+		
+		return this.getCell(row, column);
 	}
 	
 	/**
@@ -130,11 +142,13 @@ public class ODMatrixMultiKey implements AssignableODMatrix {
 	 */
 	public void setFlow(String originZone, String destinationZone, int flow) {
 	
-		if (flow != 0)		matrix.put(originZone, destinationZone, flow);
-		//do not store zero flows into the matrix (skip zero flow or remove if already exists)
-		else // flow == 0 
-			if (this.getFlow(originZone, destinationZone) != 0)
-							matrix.removeMultiKey(originZone, destinationZone);
+		if (flow != 0)
+			this.setCell(this.addOrigin(ZoneCodeRegistry.getID(originZone)), this.destinations.add(ZoneCodeRegistry.getID(destinationZone)), flow);
+		else { //do not store zero flows into the matrix (skip zero flow or remove if already exists)
+			int row = this.origins.indexOf(ZoneCodeRegistry.lookupID(originZone));
+			int column = this.destinations.indexOf(ZoneCodeRegistry.lookupID(destinationZone));
+			if (row >= 0 && column >= 0) this.setCell(row, column, 0);
+		}
 	}
 	
 	/**
@@ -145,14 +159,12 @@ public class ODMatrixMultiKey implements AssignableODMatrix {
 		
 		HashMap<String, Integer> tripStarts = new HashMap<String, Integer>();
 		
-		for (Object mk: matrix.keySet()) {
-			String origin = (String) ((MultiKey)mk).getKey(0);
-			String destination = (String) ((MultiKey)mk).getKey(1);
-	
-			Integer number = tripStarts.get(origin);
-			if (number == null) number = 0;
-			number += this.getFlow(origin, destination);
-			tripStarts.put(origin, number);
+		for (int row = 0; row < this.origins.size(); row++) {
+			if (!this.origins.isUsed(row)) continue;
+			SparseRow flowsRow = this.flows[row];
+			int number = 0;
+			for (int position = 0; position < flowsRow.size(); position++) number += (int) flowsRow.getValue(position);
+			tripStarts.put(ZoneCodeRegistry.getCode(this.origins.getKey(row)), number);
 		}
 		
 		return tripStarts;
@@ -166,15 +178,15 @@ public class ODMatrixMultiKey implements AssignableODMatrix {
 		
 		HashMap<String, Integer> tripEnds = new HashMap<String, Integer>();
 		
-		for (Object mk: matrix.keySet()) {
-			String origin = (String) ((MultiKey)mk).getKey(0);
-			String destination = (String) ((MultiKey)mk).getKey(1);
-	
-			Integer number = tripEnds.get(destination);
-			if (number == null) number = 0;
-			number += this.getFlow(origin, destination);
-			tripEnds.put(destination, number);
+		int[] numbers = new int[this.destinations.size()];
+		for (int row = 0; row < this.origins.size(); row++) {
+			SparseRow flowsRow = this.flows[row];
+			if (flowsRow == null) continue;
+			for (int position = 0; position < flowsRow.size(); position++) numbers[flowsRow.getColumn(position)] += (int) flowsRow.getValue(position);
 		}
+		for (int column = 0; column < numbers.length; column++)
+			if (this.destinations.isUsed(column))
+				tripEnds.put(ZoneCodeRegistry.getCode(this.destinations.getKey(column)), numbers[column]);
 		
 		return tripEnds;
 	}
@@ -184,7 +196,9 @@ public class ODMatrixMultiKey implements AssignableODMatrix {
 	 */
 	public void printMatrix() {
 		
-		System.out.println(matrix.toString());
+		Map<MultiKey, Integer> map = new LinkedHashMap<MultiKey, Integer>();
+		for (Cursor cell = this.cursor(); cell.next(); ) map.put(new MultiKey<String>(cell.getOrigin(), cell.getDestination()), cell.getFlow());
+		System.out.println(map.toString());
 	}
 	
 	/**
@@ -220,37 +234,99 @@ public class ODMatrixMultiKey implements AssignableODMatrix {
 	
 	
 	/**
-	 * Gets the keyset of the multimap.
+	 * Gets the keyset of the matrix (origin-destination pairs with non-zero flows).
+	 * The set is created on each call (use {@link #cursor()} to iterate over the flows without creating the keys).
 	 * @return Key set.
 	 */
 	public Set<MultiKey> getKeySet() {
 		
-		return matrix.keySet();
+		Set<MultiKey> keySet = new LinkedHashSet<MultiKey>();
+		for (Cursor cell = this.cursor(); cell.next(); )
+			keySet.add(new MultiKey<String>(cell.getOrigin(), cell.getDestination()));
+		
+		return keySet;
 	}
 	
 	/**
-	 * Gets the sorted list of origins.
-	 * @return List of origins.
+	 * Gets a cursor over the non-zero flows of the matrix.
+	 * @return Cursor positioned before the first flow.
 	 */
-	public List<String> getSortedOrigins() {
+	public Cursor cursor() {
+		
+		return new Cursor();
+	}
+	
+	/**
+	 * Cursor over the non-zero flows of the matrix (in the order of origins and destinations in which they were added).
+	 * Flows can be changed during the iteration (flows added before the current cell are not visited).
+	 */
+	public final class Cursor {
+		
+		private int row = 0;
+		private int column = -1;
+		
+		private Cursor() {
+		}
+		
+		/**
+		 * Moves to the next non-zero flow.
+		 * @return False if there are no more flows.
+		 */
+		public boolean next() {
+			
+			for (; this.row < origins.size(); this.row++, this.column = -1) {
+				SparseRow flowsRow = flows[this.row];
+				if (flowsRow == null) continue;
+				int position = flowsRow.indexAfter(this.column);
+				if (position < flowsRow.size()) {
+					this.column = flowsRow.getColumn(position);
+					return true;
+				}
+			}
+			return false;
+		}
+		
+		/**
+		 * @return Origin zone of the current flow.
+		 */
+		public String getOrigin() {
+			
+			return ZoneCodeRegistry.getCode(origins.getKey(this.row));
+		}
 		
-		LOGGER.debug("Getting the sorted origins.");
+		/**
+		 * @return Destination zone of the current flow.
+		 */
+		public String getDestination() {
 			
-		Set<String> firstKey = new HashSet<String>();
+			return ZoneCodeRegistry.getCode(destinations.getKey(this.column));
+		}
 		
-		LOGGER.trace("Extracting row keysets.");
-		//extract row keysets
-		for (Object mk: matrix.keySet()) {
-			String origin = (String) ((MultiKey)mk).getKey(0);
-			firstKey.add(origin);
+		/**
+		 * @return Current flow.
+		 */
+		public int getFlow() {
+			
+			return getCell(this.row, this.column);
 		}
-		//put them into a list and sort them
-		List<String> firstKeyList = new ArrayList(firstKey);
-		LOGGER.trace("Sorting the origins.");
-		Collections.sort(firstKeyList);
 		
-		LOGGER.trace("Origins sorted and returned.");
-		return firstKeyList;
+		/**
+		 * Sets the current flow (setting it to zero removes it from the matrix).
+		 * @param flow Origin-destination flow.
+		 */
+		public void setFlow(int flow) {
+			
+			setCell(this.row, this.column, flow);
+		}
+	}
+	
+	/**
+	 * Gets the sorted list of origins.
+	 * @return List of origins.
+	 */
+	public List<String> getSortedOrigins() {
+		
+		return this.origins.getSortedCodes();
 	}
 	
 	/**
@@ -259,23 +335,7 @@ public class ODMatrixMultiKey implements AssignableODMatrix {
 	 */
 	public List<String> getSortedDestinations() {
 		
-		LOGGER.debug("Getting the sorted destinations.");
-		
-		Set<String> secondKey = new HashSet<String>();
-		
-		LOGGER.debug("Extracting column keysets.");
-		//extract column keysets
-		for (Object mk: matrix.keySet()) {
-			String destination = (String) ((MultiKey)mk).getKey(1);
-			secondKey.add(destination);
-		}
-		//put them into a list and sort them
-		List<String> secondKeyList = new ArrayList(secondKey);
-		LOGGER.debug("Sorting the destinations.");
-		Collections.sort(secondKeyList);
-		
-		LOGGER.debug("Destinations sorted and returned.");
-		return secondKeyList;
+		return this.destinations.getSortedCodes();
 	}
 	
 	/**
@@ -284,19 +344,7 @@ public class ODMatrixMultiKey implements AssignableODMatrix {
 	 */
 	public List<String> getUnsortedOrigins() {
 		
-		LOGGER.trace("Getting the unsorted origins.");
-			
-		Set<String> firstKey = new HashSet<String>();
-				
-		//extract row keysets
-		for (Object mk: matrix.keySet()) {
-			String origin = (String) ((MultiKey)mk).getKey(0);
-			firstKey.add(origin);
-		}
-		//put them into a list
-		List<String> firstKeyList = new ArrayList(firstKey);
-				
-		return firstKeyList;
+		return this.origins.getCodes();
 	}
 	
 	/**
@@ -305,19 +353,7 @@ public class ODMatrixMultiKey implements AssignableODMatrix {
 	 */
 	public List<String> getUnsortedDestinations() {
 		
-		LOGGER.trace("Getting the unsorted destinations.");
-		
-		Set<String> secondKey = new HashSet<String>();
-		
-		//extract column keysets
-		for (Object mk: matrix.keySet()) {
-			String destination = (String) ((MultiKey)mk).getKey(1);
-			secondKey.add(destination);
-		}
-		//put them into a list
-		List<String> secondKeyList = new ArrayList(secondKey);
-		
-		return secondKeyList;
+		return this.destinations.getCodes();
 	}
 	
 	/**
@@ -327,10 +363,10 @@ public class ODMatrixMultiKey implements AssignableODMatrix {
 	public int getTotalFlow() {
 		
 		int totalFlow = 0;
-		for (MultiKey mk: this.getKeySet()) {
-			String origin = (String) mk.getKey(0);
-			String destination = (String) mk.getKey(1);
-			totalFlow += this.getFlow(origin, destination);
+		for (int row = 0; row < this.origins.size(); row++) {
+			SparseRow flowsRow = this.flows[row];
+			if (flowsRow == null) continue;
+			for (int position = 0; position < flowsRow.size(); position++) totalFlow += (int) flowsRow.getValue(position);
 		}
 	
 		return totalFlow;
@@ -353,10 +389,15 @@ public class ODMatrixMultiKey implements AssignableODMatrix {
 	public double getAbsoluteDifference(ODMatrixMultiKey other) {
 		
 		double difference = 0.0;
-		for (MultiKey mk: other.getKeySet()) {
-			String origin = (String) mk.getKey(0);
-			String destination = (String) mk.getKey(1);
-			difference += Math.abs(this.getFlow(origin, destination) - other.getFlow(origin, destination));
+		for (int row = 0; row < other.origins.size(); row++) {
+			SparseRow flowsRow = other.flows[row];
+			if (flowsRow == null) continue;
+			int thisRow = this.origins.indexOf(other.origins.getKey(row));
+			for (int position = 0; position < flowsRow.size(); position++) {
+				int flow = (int) flowsRow.getValue(position);
+				int thisFlow = thisRow < 0 ? 0 : this.getCell(thisRow, this.destinations.indexOf(other.destinations.getKey(flowsRow.getColumn(position))));
+				difference += Math.abs(thisFlow - flow);
+			}
 		}
 	
 		return difference;
@@ -369,13 +410,13 @@ public class ODMatrixMultiKey implements AssignableODMatrix {
 	 */
 	public void scaleMatrixValue(double factor) {
 		
-		for (MultiKey mk: this.getKeySet()) {
-			String origin = (String) mk.getKey(0);
-			String destination = (String) mk.getKey(1);
-			double flow = this.getFlow(origin, destination);
-			flow = flow * factor;
-			this.setFlow(origin, destination, (int) Math.round(flow));
-		}		
+		for (int row = 0; row < this.origins.size(); row++) {
+			SparseRow flowsRow = this.flows[row];
+			if (flowsRow == null) continue;
+			//backwards, as flows rounded to zero are removed from the row
+			for (int position = flowsRow.size() - 1; position >= 0; position--)
+				this.setCell(row, flowsRow.getColumn(position), (int) Math.round(flowsRow.getValue(position) * factor));
+		}
 	}
 	
 	/**
@@ -384,10 +425,7 @@ public class ODMatrixMultiKey implements AssignableODMatrix {
 	 */
 	public int getSumOfFlows() {
 		
-		int sumOfFlows = 0;
-		for (Object flow: matrix.values()) sumOfFlows += (int) flow;
-		
-		return sumOfFlows;
+		return this.getTotalFlow();
 	}
 	
 	/**
@@ -519,11 +557,11 @@ public class ODMatrixMultiKey implements AssignableODMatrix {
 		
 		ODMatrixMultiKey temproMatrix = new ODMatrixMultiKey();
 		
-		for (MultiKey mk: ladODMatrix.getKeySet()) {
-			String originLAD = (String) mk.getKey(0);
-			String destinationLAD = (String) mk.getKey(1);
+		for (Cursor cell = ladODMatrix.cursor(); cell.next(); ) {
+			String originLAD = cell.getOrigin();
+			String destinationLAD = cell.getDestination();
 			
-			int ladFlow = ladODMatrix.getFlow(originLAD, destinationLAD);
+			int ladFlow = cell.getFlow();
 					
 			//get tempro zones contained within originLAD and destinationLAD
 			List<String> temproOrigins = zoning.getLADToListOfContainedZones().get(originLAD);
@@ -555,17 +593,24 @@ public class ODMatrixMultiKey implements AssignableODMatrix {
 		
 		ODMatrixMultiKey ladMatrix = new ODMatrixMultiKey();
 		
-		for (MultiKey mk: temproMatrix.getKeySet()) {
-			String origin = (String) mk.getKey(0);
-			String destination = (String) mk.getKey(1);
-			int flow = temproMatrix.getFlow(origin, destination);
-			
-			String originLAD = zoning.getZoneToLADMap().get(origin);
-			String destinationLAD = zoning.getZoneToLADMap().get(destination);
-			
-			int flowLAD = ladMatrix.getFlow(originLAD, destinationLAD);
-			flowLAD += flow;
-			ladMatrix.setFlow(originLAD, destinationLAD, flowLAD);
+		//map each destination column to a LAD column only once
+		int[] destinationLADs = new int[temproMatrix.destinations.size()];
+		Arrays.fill(destinationLADs, -1);
+		
+		for (int row = 0; row < temproMatrix.origins.size(); row++) {
+			if (!temproMatrix.origins.isUsed(row)) continue;
+			SparseRow flowsRow = temproMatrix.flows[row];
+			String origin = ZoneCodeRegistry.getCode(temproMatrix.origins.getKey(row));
+			int originLAD = ladMatrix.addOrigin(ZoneCodeRegistry.getID(zoning.getZoneToLADMap().get(origin)));
+			for (int position = 0; position < flowsRow.size(); position++) {
+				int column = flowsRow.getColumn(position);
+				if (destinationLADs[column] < 0) {
+					String destination = ZoneCodeRegistry.getCode(temproMatrix.destinations.getKey(column));
+					destinationLADs[column] = ladMatrix.destinations.add(ZoneCodeRegistry.getID(zoning.getZoneToLADMap().get(destination)));
+				}
+				int destinationLAD = destinationLADs[column];
+				ladMatrix.setCell(originLAD, destinationLAD, ladMatrix.getCell(originLAD, destinationLAD) + (int) flowsRow.getValue(position));
+			}
 		}
 		
 		return ladMatrix;
@@ -579,14 +624,19 @@ public class ODMatrixMultiKey implements AssignableODMatrix {
 		
 		LOGGER.debug("Deleting inter-zonal flows from/to zone {}...", zone);
 		
-		List<String> origins = this.getUnsortedOrigins();
-		List<String> destinations = this.getUnsortedDestinations();
-			
-		for (String origin: origins)
-			for (String destination: destinations)
-				if (origin.equals(zone) && !destination.equals(zone) || !origin.equals(zone) && destination.equals(zone)) { //this will leave intra-zonal flow
-				this.setFlow(origin, destination, 0);
-		}
+		int zoneID = ZoneCodeRegistry.lookupID(zone);
+		int zoneRow = this.origins.indexOf(zoneID);
+		int zoneColumn = this.destinations.indexOf(zoneID);
+		
+		//this will leave intra-zonal flow (backwards, as the flows are removed from the row)
+		if (zoneRow >= 0 && this.flows[zoneRow] != null)
+			for (int position = this.flows[zoneRow].size() - 1; position >= 0; position--) {
+				int column = this.flows[zoneRow].getColumn(position);
+				if (column != zoneColumn) this.setCell(zoneRow, column, 0);
+			}
+		if (zoneColumn >= 0)
+			for (int row = 0; row < this.origins.size(); row++)
+				if (row != zoneRow) this.setCell(row, zoneColumn, 0);
 		
 		LOGGER.debug("Done deleting inter-zonal flows.");
 		
@@ -597,10 +647,12 @@ public class ODMatrixMultiKey implements AssignableODMatrix {
 
 		ODMatrixMultiKey odm = new ODMatrixMultiKey();
 		
-		for (MultiKey mk: this.getKeySet()) {
-			String origin = (String) mk.getKey(0);
-			String destination = (String) mk.getKey(1);
-			odm.setFlow(origin, destination, this.getFlow(origin, destination));
+		for (int row = 0; row < this.origins.size(); row++) {
+			SparseRow flowsRow = this.flows[row];
+			if (flowsRow == null) continue;
+			int odmRow = odm.addOrigin(this.origins.getKey(row));
+			for (int position = 0; position < flowsRow.size(); position++)
+				odm.setCell(odmRow, odm.destinations.add(this.destinations.getKey(flowsRow.getColumn(position))), (int) flowsRow.getValue(position));
 		}
 
 		return odm;
@@ -616,24 +668,8 @@ public class ODMatrixMultiKey implements AssignableODMatrix {
 		
 		LOGGER.info("Saving passenger OD matrix to a csv file.");
 		
-		Set<String> firstKey = new HashSet<String>();
-		Set<String> secondKey = new HashSet<String>();
-		
-		//extract row and column keysets
-		for (Object mk: matrix.keySet()) {
-			String origin = (String) ((MultiKey)mk).getKey(0);
-			String destination = (String) ((MultiKey)mk).getKey(1);
-			firstKey.add(origin);
-			secondKey.add(destination);
-		}
-	
-		//put them to a list and sort them
-		List<String> firstKeyList = new ArrayList<String>(firstKey);
-		List<String> secondKeyList = new ArrayList<String>(secondKey);
-		Collections.sort(firstKeyList);
-		Collections.sort(secondKeyList);
-		//System.out.println(firstKeyList);
-		//System.out.println(secondKeyList);
+		List<String> firstKeyList = this.getSortedOrigins();
+		List<String> secondKeyList = this.getSortedDestinations();
 	
 		String NEW_LINE_SEPARATOR = "\n";
 		ArrayList<String> header = new ArrayList<String>();
@@ -718,4 +754,54 @@ public class ODMatrixMultiKey implements AssignableODMatrix {
 		
 		LOGGER.debug("OD matrix saved to a csv file.");
 	}
+	
+	/**
+	 * Adds an origin zone to the matrix rows (if not already added).
+	 * @param zoneID Zone ID from the zone code registry.
+	 * @return Origin index.
+	 */
+	private int addOrigin(int zoneID) {
+		
+		int row = this.origins.add(zoneID);
+		if (row >= this.flows.length) this.flows = Arrays.copyOf(this.flows, 2 * this.flows.length);
+		return row;
+	}
+	
+	/**
+	 * Gets the flow of a matrix cell.
+	 * @param row Origin index.
+	 * @param column Destination index (can be -1).
+	 * @return Flow.
+	 */
+	private int getCell(int row, int column) {
+		
+		SparseRow flowsRow = this.flows[row];
+		if (flowsRow == null || column < 0) return 0;
+		return (int) flowsRow.get(column);
+	}
+	
+	/**
+	 * Sets the flow of a matrix cell (and updates the number of non-zero cells of its origin and destination).
+	 * @param row Origin index.
+	 * @param column Destination index.
+	 * @param flow Flow.
+	 */
+	private void setCell(int row, int column, int flow) {
+		
+		SparseRow flowsRow = this.flows[row];
+		if (flowsRow == null) {
+			if (flow == 0) return;
+			this.flows[row] = flowsRow = new SparseRow();
+		}
+		
+		if (flow == 0) {
+			if (flowsRow.remove(column)) {
+				this.origins.decrement(row);
+				this.destinations.decrement(column);
+			}
+		} else if (flowsRow.put(column, flow)) {
+			this.origins.increment(row);
+			this.destinations.increment(column);
+		}
+	}
 }
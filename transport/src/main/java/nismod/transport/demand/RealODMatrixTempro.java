@@ -519,11 +519,11 @@ public class RealODMatrixTempro implements AssignableODMatrix {
 		
 		RealODMatrixTempro temproMatrix = new RealODMatrixTempro(zoning);
 		
-		for (MultiKey mk: ladODMatrix.getKeySet()) {
-			String originLAD = (String) mk.getKey(0);
-			String destinationLAD = (String) mk.getKey(1);
+		for (ODMatrixMultiKey.Cursor cell = ladODMatrix.cursor(); cell.next(); ) {
+			String originLAD = cell.getOrigin();
+			String destinationLAD = cell.getDestination();
 			
-			int ladFlow = ladODMatrix.getFlow(originLAD, destinationLAD);
+			int ladFlow = cell.getFlow();
 					
 			//get tempro zones contained within originLAD and destinationLAD
 			List<String> temproOrigins = zoning.getLADToListOfContainedZones().get(originLAD);
@@ -15,9 +15,8 @@ import org.apache.logging.log4j.Logger;
 
 import nismod.transport.network.road.RoadNetworkAssignment;
 import nismod.transport.network.road.RoadNetworkAssignment.VehicleType;
-import nismod.transport.network.road.Route;
 import nismod.transport.network.road.RouteSetGenerator;
-import nismod.transport.network.road.Trip;
+import nismod.transport.network.road.TripTable;
 
 /**
  * Freight matrix created by directly scaling flows using traffic counts.
@@ -113,11 +112,15 @@ public class RebalancedFreightMatrix extends FreightMatrix {
 	            }
 	        }
 
+		//if false, only the matrix after the last iteration is saved
+		final boolean flagSaveIterations = Boolean.parseBoolean(params.getProperty("FLAG_SAVE_ESTIMATION_ITERATIONS", "true"));
+
 		for (int i=0; i<number; i++) {
 			LOGGER.info("Iteration of freight OD matrix estimation: {}", i);
 			this.assignAndCalculateRMSN();
 			this.scaleToTrafficCounts();
-			this.saveMatrixFormatted(file + "/freightMatrixAfterIteration" + i + ".csv");
+			if (flagSaveIterations || i == number - 1)
+				this.saveMatrixFormatted(file + "/freightMatrixAfterIteration" + i + ".csv");
 			//this.rna.saveLinkTravelTimes(2015, file + "/linkTravelTimesWithFreightAfterIteration" + i + ".csv");
 		}
 		
@@ -159,9 +162,7 @@ public class RebalancedFreightMatrix extends FreightMatrix {
 		} else {
 			rna.assignFreightFlowsRouting(this, rsg, params);
 		}
-		rna.updateLinkVolumeInPCU();
-		rna.updateLinkVolumeInPCUPerTimeOfDay();
-		rna.updateLinkVolumePerVehicleType();
+		rna.updateLinkVolumes();
 		//rna.updateLinkTravelTimes(0.9);
 		
 		Map<VehicleType, Double> RMSN = this.rna.calculateRMSNforFreightCounts();
@@ -196,8 +197,8 @@ public class RebalancedFreightMatrix extends FreightMatrix {
 	 */
 	public SkimMatrixFreightArray getScalingFactors() {
 		
-		List<Trip> tripList = this.rna.getTripList();
-		LOGGER.debug("Trip list size: {}", tripList.size());
+		TripTable trips = this.rna.getTripTable();
+		LOGGER.debug("Trip list size: {}", trips.size());
 		
 		int[] vanVolumes = this.rna.getLinkVolumePerVehicleType().get(VehicleType.VAN);
 		int[] rigidVolumes = this.rna.getLinkVolumePerVehicleType().get(VehicleType.RIGID);
@@ -207,10 +208,6 @@ public class RebalancedFreightMatrix extends FreightMatrix {
 		Integer[] rigidCounts = this.counts.get(VehicleType.RIGID);
 		Integer[] articCounts = this.counts.get(VehicleType.ARTIC);
 		
-		Double[] vanLinkFactors = new Double[vanVolumes.length];
-		Double[] rigidLinkFactors = new Double[rigidVolumes.length];
-		Double[] articLinkFactors = new Double[articVolumes.length];
-		
 		LOGGER.trace("van volumes = {}", vanVolumes);
 		LOGGER.trace("van counts = {}", Arrays.toString(vanCounts));
 		LOGGER.trace("rigid volumes = {}", rigidVolumes);
@@ -219,84 +216,42 @@ public class RebalancedFreightMatrix extends FreightMatrix {
 		LOGGER.trace("artic counts = {}", Arrays.toString(articCounts));
 				
 		//scaling link factors can only be calculated for links that have counts and flow > 0
-		for (int edgeID = 1; edgeID < vanVolumes.length; edgeID++) {
-			Integer vanCount = vanCounts[edgeID];
-			Integer rigidCount = rigidCounts[edgeID];
-			Integer articCount = articCounts[edgeID];
-			
-			Integer vanVolume = vanVolumes[edgeID];
-			Integer rigidVolume = rigidVolumes[edgeID];
-			Integer articVolume = articVolumes[edgeID];
-			//skip link with no count (e.g. ferry lines)
-			//also skip as it would create infinite factor
-			if (vanCount != null && vanVolume > 0)
-				vanLinkFactors[edgeID] = 1.0 * vanCount / vanVolume;
-			if (rigidCount != null && rigidVolume > 0)
-				rigidLinkFactors[edgeID] = 1.0 * rigidCount / rigidVolume;
-			if (articCount != null && articVolume > 0)
-				articLinkFactors[edgeID] = 1.0 * articCount / articVolume;
-		}
-		LOGGER.trace("van link factors = {}", Arrays.toString(vanLinkFactors));
-		LOGGER.trace("rigid link factors = {}", Arrays.toString(rigidLinkFactors));
-		LOGGER.trace("artic link factors = {}", Arrays.toString(articLinkFactors));
+		double[][] linkFactors = new double[VehicleType.values().length][];
+		linkFactors[VehicleType.VAN.ordinal()] = ScalingFactorAccumulator.calculateLinkFactors(vanVolumes, vanCounts);
+		linkFactors[VehicleType.RIGID.ordinal()] = ScalingFactorAccumulator.calculateLinkFactors(rigidVolumes, rigidCounts);
+		linkFactors[VehicleType.ARTIC.ordinal()] = ScalingFactorAccumulator.calculateLinkFactors(articVolumes, articCounts);
+		LOGGER.trace("van link factors = {}", Arrays.toString(linkFactors[VehicleType.VAN.ordinal()]));
+		LOGGER.trace("rigid link factors = {}", Arrays.toString(linkFactors[VehicleType.RIGID.ordinal()]));
+		LOGGER.trace("artic link factors = {}", Arrays.toString(linkFactors[VehicleType.ARTIC.ordinal()]));
 		
-		SkimMatrixFreightArray factors = new SkimMatrixFreightArray();
-		SkimMatrixFreightArray counter = new SkimMatrixFreightArray();
-		SkimMatrixFreightArray scalingFactors = new SkimMatrixFreightArray();
-		
-		for (Trip t: tripList) {
-
-			int multiplier = t.getMultiplier(); 
-			int origin = t.getOrigin();
-			int destination = t.getDestination();
-			int vehicleType = t.getVehicle().getValue();
-			Route route = t.getRoute();
-				
-			//get current factor and count
-			double factor = factors.getCost(origin, destination, vehicleType); 
-			double count = counter.getCost(origin, destination, vehicleType);
-			
-			if (t.getVehicle() == VehicleType.VAN) {
-				for (int edgeID: route.getEdges().toArray())
-					if (vanLinkFactors[edgeID] != null) {
-						factor += vanLinkFactors[edgeID] * multiplier;
-						count += multiplier;
-					}
-			} else if (t.getVehicle() == VehicleType.RIGID) {
-				for (int edgeID: route.getEdges().toArray())
-					if (rigidLinkFactors[edgeID] != null) {
-						factor += rigidLinkFactors[edgeID] * multiplier;
-						count += multiplier;
-					}
-			} else if (t.getVehicle() == VehicleType.ARTIC) {
-				for (int edgeID: route.getEdges().toArray())
-					if (articLinkFactors[edgeID] != null) {
-						factor += articLinkFactors[edgeID] * multiplier;
-						count += multiplier;
-					}
-			}
-			//update factor sum and count
-			factors.setCost(origin, destination, vehicleType, factor);
-			counter.setCost(origin, destination, vehicleType, count);
-		}
+		ScalingFactorAccumulator accumulator = new ScalingFactorAccumulator();
+		accumulator.accumulate(trips, linkFactors, row -> index(trips.getOrigin(row), trips.getDestination(row), trips.getVehicle(row).getValue()), this.rna.assignmentThreads);
 		
 		//calculate scaling factors by dividing factor sum and counter
+		SkimMatrixFreightArray scalingFactors = new SkimMatrixFreightArray();
 		for (int origin = 1; origin <= MAX_FREIGHT_ZONE_ID; origin++)
 			for (int destination = 1; destination <= MAX_FREIGHT_ZONE_ID; destination++)
 				for (int vehicleType = 1; vehicleType <= MAX_VEHICLE_ID; vehicleType++) {
-	
-					double scalingFactor;
-					if (counter.getCost(origin, destination, vehicleType) == 0) 
-						scalingFactor = 1.0; //there were no (non-empty) routes between these two zones
-					else 
-						scalingFactor = 1.0 * factors.getCost(origin, destination, vehicleType) / counter.getCost(origin, destination, vehicleType);
-					
+					//1.0 if there were no (non-empty) routes between these two zones
+					double scalingFactor = accumulator.getScalingFactor(index(origin, destination, vehicleType));
 					scalingFactors.setCost(origin, destination, vehicleType, scalingFactor);
 				}
 		
 		return scalingFactors;
 	}
 	
+	/**
+	 * Index of the origin-destination pair and vehicle type used for accumulating scaling factors.
+	 * @param origin Origin freight zone ID.
+	 * @param destination Destination freight zone ID.
+	 * @param vehicleType Vehicle type value.
+	 * @return Index.
+	 */
+	private static int index(int origin, int destination, int vehicleType) {
+		
+		return (origin * (MAX_FREIGHT_ZONE_ID + 1) + destination) * (MAX_VEHICLE_ID + 1) + vehicleType;
+	}
+	
 //	/**
 //	 * Gets the list of origins.
 //	 * @return List of origins.
@@ -2,12 +2,12 @@ package nismod.transport.demand;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 
-import org.apache.commons.collections4.keyvalue.MultiKey;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
@@ -15,7 +15,7 @@ import nismod.transport.network.road.RoadNetworkAssignment;
 import nismod.transport.network.road.RoadNetworkAssignment.VehicleType;
 import nismod.transport.network.road.Route;
 import nismod.transport.network.road.RouteSetGenerator;
-import nismod.transport.network.road.Trip;
+import nismod.transport.network.road.TripTable;
 
 /**
  * Origin-destination matrix (LAD based) created by directly scaling flows using traffic counts.
@@ -75,10 +75,14 @@ public class RebalancedODMatrix extends RealODMatrix {
 	            }
 	        }
 
+		//if false, only the matrix after the last iteration is saved
+		final boolean flagSaveIterations = Boolean.parseBoolean(params.getProperty("FLAG_SAVE_ESTIMATION_ITERATIONS", "true"));
+
 		for (int i=0; i<number; i++) {
 			this.assignAndCalculateRMSN();
 			this.scaleToTrafficCounts();
-			this.saveMatrixFormatted(file + "/ODMafterIteration" + i + ".csv");
+			if (flagSaveIterations || i == number - 1)
+				this.saveMatrixFormatted(file + "/ODMafterIteration" + i + ".csv");
 		}
 		
 		//assign ones more to get the latest RMSN
@@ -114,9 +118,7 @@ public class RebalancedODMatrix extends RealODMatrix {
 		} else {
 			rna.assignPassengerFlowsRouting(odm, rsg, params);
 		}
-		rna.updateLinkVolumeInPCU();
-		rna.updateLinkVolumeInPCUPerTimeOfDay();
-		rna.updateLinkVolumePerVehicleType();
+		rna.updateLinkVolumes();
 		rna.updateLinkTravelTimes(0.9);
 		
 		double RMSN = this.rna.calculateRMSNforSimulatedVolumes();
@@ -145,66 +147,52 @@ public class RebalancedODMatrix extends RealODMatrix {
 	 */
 	public RealODMatrix getScalingFactors() {
 		
-		List<Trip> tripList = this.rna.getTripList();
-		LOGGER.trace("Trip list size: {}", tripList.size());
+		TripTable trips = this.rna.getTripTable();
+		LOGGER.trace("Trip list size: {}", trips.size());
 		
 		int[] volumes = this.rna.getLinkVolumePerVehicleType().get(VehicleType.CAR);
 		Integer[] counts = this.rna.getAADFCarTrafficCounts();
-		Double[] linkFactors = new Double[volumes.length];
 		
 		LOGGER.trace("volumes = {}", volumes);
 		LOGGER.trace("counts = {}", counts);
 				
 		//scaling link factors can only be calculated for links that have counts and flow > 0
-		for (int edgeID = 1; edgeID < volumes.length; edgeID++) {
-			Integer count = counts[edgeID];
-			Integer volume = volumes[edgeID];
-			if (count == null) continue; //skip link with no count (e.g. ferry lines)
-			if (volume == 0.0) continue; //also skip as it would create infinite factor
-			linkFactors[edgeID] = 1.0 * count / volume;
+		double[][] linkFactors = new double[VehicleType.values().length][];
+		linkFactors[VehicleType.CAR.ordinal()] = ScalingFactorAccumulator.calculateLinkFactors(volumes, counts);
+		LOGGER.trace("link factors = {}", linkFactors[VehicleType.CAR.ordinal()]);
+		
+		//map nodes to zone indices (trip zones are given by the first and the last node of the route)
+		Map<Integer, String> nodeToZone = this.rna.getRoadNetwork().getNodeToZone();
+		List<String> zones = new ArrayList<String>();
+		Map<String, Integer> zoneToIndex = new HashMap<String, Integer>();
+		final int[] nodeToZoneIndex = new int[this.rna.getRoadNetwork().getMaximumNodeID() + 1];
+		Arrays.fill(nodeToZoneIndex, -1);
+		for (Map.Entry<Integer, String> entry: nodeToZone.entrySet()) {
+			Integer index = zoneToIndex.get(entry.getValue());
+			if (index == null) {
+				index = zones.size();
+				zones.add(entry.getValue());
+				zoneToIndex.put(entry.getValue(), index);
+			}
+			nodeToZoneIndex[entry.getKey()] = index;
 		}
-		LOGGER.trace("link factors = {}", linkFactors);
+		final int numberOfZones = zones.size();
 		
-		RealODMatrix factors = new RealODMatrix();
-		ODMatrixMultiKey counter = new ODMatrixMultiKey();
-		RealODMatrix scalingFactors = new RealODMatrix();
-		
-		for (Trip t: tripList) 
-			if (t.getVehicle().equals(VehicleType.CAR))	{
-				
-				int multiplier = t.getMultiplier();  
-			
-				String originZone = t.getOriginLAD(rna.getRoadNetwork().getNodeToZone());
-				String destinationZone = t.getDestinationLAD(rna.getRoadNetwork().getNodeToZone());
-				Route route = t.getRoute();
-				
-				//get current factor and count
-				double factor = factors.getFlow(originZone, destinationZone); 
-				int count = counter.getFlow(originZone, destinationZone);
-				
-				for (int edgeID: route.getEdges().toArray())
-					if (linkFactors[edgeID] != null){
-					factor += linkFactors[edgeID] * multiplier;
-					count += multiplier;
-					}
-				
-				//update factor sum and count
-				factors.setFlow(originZone, destinationZone, factor);
-				counter.setFlow(originZone, destinationZone, count);
-			}
+		ScalingFactorAccumulator accumulator = new ScalingFactorAccumulator();
+		accumulator.accumulate(trips, linkFactors, row -> {
+			Route route = trips.getRoute(row);
+			int origin = nodeToZoneIndex[route.getOriginNode().getID()];
+			int destination = nodeToZoneIndex[route.getDestinationNode().getID()];
+			if (origin < 0 || destination < 0) return -1;
+			return origin * numberOfZones + destination;
+		}, this.rna.assignmentThreads);
 		
 		//calculate scaling factors by dividing factor sum and counter
-		for (Object mk: factors.getKeySet()) {
-			String originZone = (String) ((MultiKey)mk).getKey(0);
-			String destinationZone = (String) ((MultiKey)mk).getKey(1);
-	
-			double scalingFactor;
-			if (counter.getFlow(originZone, destinationZone) == 0) 
-				scalingFactor = 1.0; //there were no (non-empty) routes between these two zones
-			else 
-				scalingFactor = 1.0 * factors.getFlow(originZone, destinationZone) / counter.getFlow(originZone, destinationZone);
-		
-			scalingFactors.setFlow(originZone, destinationZone, scalingFactor);
+		RealODMatrix scalingFactors = new RealODMatrix();
+		for (int index: accumulator.getODIndices()) {
+			String originZone = zones.get(index / numberOfZones);
+			String destinationZone = zones.get(index % numberOfZones);
+			scalingFactors.setFlow(originZone, destinationZone, accumulator.getScalingFactor(index));
 		}
 		
 		return scalingFactors;
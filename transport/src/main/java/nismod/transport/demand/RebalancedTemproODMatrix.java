@@ -14,10 +14,8 @@ import org.apache.logging.log4j.Logger;
 
 import nismod.transport.network.road.RoadNetworkAssignment;
 import nismod.transport.network.road.RoadNetworkAssignment.VehicleType;
-import nismod.transport.network.road.Route;
 import nismod.transport.network.road.RouteSetGenerator;
-import nismod.transport.network.road.Trip;
-import nismod.transport.network.road.TripTempro;
+import nismod.transport.network.road.TripTable;
 import nismod.transport.zone.Zoning;
 
 /**
@@ -102,11 +100,16 @@ public class RebalancedTemproODMatrix extends RealODMatrixTempro {
 	            }
 	        }
 
+		//if false, only the matrix after the last iteration is saved
+		final boolean flagSaveIterations = Boolean.parseBoolean(params.getProperty("FLAG_SAVE_ESTIMATION_ITERATIONS", "true"));
+
 		for (int i=0; i<number; i++) {
 			this.assignAndCalculateRMSN();
 			this.scaleToTrafficCounts();
-			this.saveMatrixFormatted2(file + "/temproODMafterIteration" + i + ".csv");
-			this.rna.saveLinkTravelTimes(2015, file + "/linkTravelTimesAfterIteration" + i + ".csv");
+			if (flagSaveIterations || i == number - 1) {
+				this.saveMatrixFormatted2(file + "/temproODMafterIteration" + i + ".csv");
+				this.rna.saveLinkTravelTimes(2015, file + "/linkTravelTimesAfterIteration" + i + ".csv");
+			}
 		}
 		
 		//assign ones more to get the latest RMSN
@@ -147,9 +150,7 @@ public class RebalancedTemproODMatrix extends RealODMatrixTempro {
 		//use combined Tempro/LAD model
 		this.rna.assignPassengerFlowsRouteChoiceTemproDistanceBased(this, zoning, rsg, params);
 		
-		rna.updateLinkVolumeInPCU();
-		rna.updateLinkVolumeInPCUPerTimeOfDay();
-		rna.updateLinkVolumePerVehicleType();
+		rna.updateLinkVolumes();
 		rna.updateLinkTravelTimes(0.9);
 		
 		double RMSN = this.rna.calculateRMSNforSimulatedVolumes();
@@ -201,66 +202,38 @@ public class RebalancedTemproODMatrix extends RealODMatrixTempro {
 	 */
 	public RealODMatrixTempro getScalingFactors() {
 		
-		List<Trip> tripList = this.rna.getTripList();
-		LOGGER.trace("Trip list size: {}", tripList.size());
+		TripTable trips = this.rna.getTripTable();
+		LOGGER.trace("Trip list size: {}", trips.size());
 		
 		int[] volumes = this.rna.getLinkVolumePerVehicleType().get(VehicleType.CAR);
 		Integer[] counts = this.rna.getAADFCarTrafficCounts();
-		Double[] linkFactors = new Double[volumes.length];
 		
 		LOGGER.trace("volumes = {}", volumes);
 		LOGGER.trace("counts = {}", counts);
 				
 		//scaling link factors can only be calculated for links that have counts and flow > 0
-		for (int edgeID = 1; edgeID < volumes.length; edgeID++) {
-			Integer count = counts[edgeID];
-			Integer volume = volumes[edgeID];
-			if (count == null) continue; //skip link with no count (e.g. ferry lines)
-			if (volume == 0.0) continue; //also skip as it would create infinite factor
-			linkFactors[edgeID] = 1.0 * count / volume;
-		}
-		LOGGER.trace("link factors = {}", linkFactors);
-		
-		RealODMatrixTempro factors = new RealODMatrixTempro(zoning);
-		RealODMatrixTempro counter = new RealODMatrixTempro(zoning);
-		RealODMatrixTempro scalingFactors = new RealODMatrixTempro(zoning);
-		
-		for (Trip t: tripList) 
-			if (t instanceof TripTempro && t.getVehicle().equals(VehicleType.CAR))	{
-				
-				TripTempro temproTrip = (TripTempro) t;
-				int multiplier = temproTrip.getMultiplier();
-			
-				String originZone = temproTrip.getOriginTemproZone();
-				String destinationZone = temproTrip.getDestinationTemproZone();
-				Route route = t.getRoute();
-				
-				//get current factor and count
-				double factor = factors.getFlow(originZone, destinationZone); 
-				double count = counter.getFlow(originZone, destinationZone);
-				
-				for (int edgeID: route.getEdges().toArray())
-					if (linkFactors[edgeID] != null){
-					factor += linkFactors[edgeID] * multiplier;
-					count += multiplier;
-					}
-				
-				//update factor sum and count
-				factors.setFlow(originZone, destinationZone, factor);
-				counter.setFlow(originZone, destinationZone, count);
-			}
+		double[][] linkFactors = new double[VehicleType.values().length][];
+		linkFactors[VehicleType.CAR.ordinal()] = ScalingFactorAccumulator.calculateLinkFactors(volumes, counts);
+		LOGGER.trace("link factors = {}", linkFactors[VehicleType.CAR.ordinal()]);
+		
+		//OD pairs are indexed by tempro zone IDs
+		final int maxZones = this.zoning.getTemproIDToCodeMap().length;
+		ScalingFactorAccumulator accumulator = new ScalingFactorAccumulator();
+		accumulator.accumulate(trips, linkFactors, row -> {
+			if (trips.getType(row) != TripTable.TRIP_TEMPRO) return -1;
+			return trips.getOrigin(row) * maxZones + trips.getDestination(row);
+		}, this.rna.assignmentThreads);
 		
 		//calculate scaling factors by dividing factor sum and counter
-		for (String originZone: origins)
+		RealODMatrixTempro scalingFactors = new RealODMatrixTempro(zoning);
+		Map<String, Integer> codeToID = this.zoning.getTemproCodeToIDMap();
+		for (String originZone: origins) {
+			int originIndex = codeToID.get(originZone) * maxZones;
 			for (String destinationZone: destinations) {
-
-				double scalingFactor;
-				if (Double.compare(counter.getIntFlow(originZone, destinationZone), 0.0d) == 0) 
-					scalingFactor = 1.0; //there were no (non-empty) routes between these two zones
-				else 
-					scalingFactor = 1.0 * factors.getFlow(originZone, destinationZone) / counter.getFlow(originZone, destinationZone);
-		
-			scalingFactors.setFlow(originZone, destinationZone, scalingFactor);
+				//1.0 if there were no (non-empty) routes between these two zones
+				double scalingFactor = accumulator.getScalingFactor(originIndex + codeToID.get(destinationZone));
+				scalingFactors.setFlow(originZone, destinationZone, scalingFactor);
+			}
 		}
 		
 		return scalingFactors;
@@ -0,0 +1,157 @@
+package nismod.transport.demand;
+
+import java.util.function.IntUnaryOperator;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.hash.TIntDoubleHashMap;
+import nismod.transport.network.road.Route;
+import nismod.transport.network.road.TripTable;
+import nismod.transport.utility.ParallelTasks;
+
+/**
+ * Accumulates link scaling factors (traffic count / simulated volume) over the routes of the assigned trips,
+ * per origin-destination pair, which is used for rebalancing matrices to traffic counts.
+ * Origin-destination pairs are identified by an integer index (defined by the matrix), and the factor sums and counts
+ * are stored in primitive maps. The routes of the trips are processed in parallel, and then added to the OD pairs in the order
+ * of the trips (so the result does not depend on the number of threads).
+ * @author Milan Lovric
+ *
+ */
+public class ScalingFactorAccumulator {
+
+	private final static Logger LOGGER = LogManager.getLogger(ScalingFactorAccumulator.class);
+
+	public static final int MIN_TRIPS_PER_THREAD = 10000; //fewer trips are processed in a single thread
+
+	private final TIntDoubleHashMap factorSums = new TIntDoubleHashMap();
+	private final TIntDoubleHashMap counts = new TIntDoubleHashMap();
+
+	/**
+	 * Calculates link scaling factors. They can only be calculated for links that have counts and volume > 0.
+	 * @param volumes Simulated link volumes.
+	 * @param counts Traffic counts (null for links with no count, e.g. ferry lines).
+	 * @return Link scaling factors (NaN for links without a factor).
+	 */
+	public static double[] calculateLinkFactors(int[] volumes, Integer[] counts) {
+
+		double[] linkFactors = new double[volumes.length];
+		linkFactors[0] = Double.NaN;
+		for (int edgeID = 1; edgeID < volumes.length; edgeID++) {
+			Integer count = counts[edgeID];
+			int volume = volumes[edgeID];
+			//skip link with no count and link with no volume (as it would create infinite factor)
+			if (count == null || volume == 0) linkFactors[edgeID] = Double.NaN;
+			else linkFactors[edgeID] = 1.0 * count / volume;
+		}
+		return linkFactors;
+	}
+
+	/**
+	 * Adds the link scaling factors on the routes of the trips to the origin-destination pairs of the trips.
+	 * @param trips Trip table.
+	 * @param linkFactors Link scaling factors per vehicle type ordinal (null for vehicle types that are not rebalanced).
+	 * @param odIndex Maps a row of the trip table to the index of its origin-destination pair (negative to skip the trip).
+	 * @param threads Number of threads.
+	 */
+	public void accumulate(TripTable trips, double[][] linkFactors, IntUnaryOperator odIndex, int threads) {
+
+		this.accumulate(trips, linkFactors, odIndex, threads, MIN_TRIPS_PER_THREAD);
+	}
+
+	/**
+	 * Adds the link scaling factors on the routes of the trips to the origin-destination pairs of the trips.
+	 * @param trips Trip table.
+	 * @param linkFactors Link scaling factors per vehicle type ordinal (null for vehicle types that are not rebalanced).
+	 * @param odIndex Maps a row of the trip table to the index of its origin-destination pair (negative to skip the trip).
+	 * @param threads Number of threads.
+	 * @param minTripsPerThread Minimum number of trips per thread.
+	 */
+	void accumulate(TripTable trips, double[][] linkFactors, IntUnaryOperator odIndex, int threads, int minTripsPerThread) {
+
+		final int size = trips.size();
+		final int[] index = new int[size];
+		final double[] tripFactors = new double[size];
+		final double[] tripCounts = new double[size];
+
+		threads = Math.max(1, Math.min(threads, size / Math.max(1, minTripsPerThread)));
+		ParallelTasks.forEachRange(size, threads, (fromRow, toRow) -> sumOverRoutes(trips, linkFactors, odIndex, fromRow, toRow, index, tripFactors, tripCounts), "scaling factor accumulation");
+
+		//add to origin-destination pairs in the order of the trips
+		for (int row = 0; row < size; row++) {
+			if (index[row] < 0) continue;
+			this.factorSums.adjustOrPutValue(index[row], tripFactors[row], tripFactors[row]);
+			this.counts.adjustOrPutValue(index[row], tripCounts[row], tripCounts[row]);
+		}
+	}
+
+	/**
+	 * @param odIndex Index of the origin-destination pair.
+	 * @return True if there was at least one trip (with a route) for the origin-destination pair.
+	 */
+	public boolean contains(int odIndex) {
+
+		return this.counts.containsKey(odIndex);
+	}
+
+	/**
+	 * Gets the scaling factor of the origin-destination pair (the average link scaling factor over the routes of its trips).
+	 * @param odIndex Index of the origin-destination pair.
+	 * @return Scaling factor (1.0 if there were no (non-empty) routes between the two zones).
+	 */
+	public double getScalingFactor(int odIndex) {
+
+		double count = this.counts.get(odIndex); //0 if there is no entry
+		if (count == 0.0) return 1.0;
+		return this.factorSums.get(odIndex) / count;
+	}
+
+	/**
+	 * @return Indices of the origin-destination pairs with at least one trip.
+	 */
+	public int[] getODIndices() {
+
+		return this.counts.keys();
+	}
+
+	/**
+	 * Sums link scaling factors over the routes of a range of trips.
+	 * @param trips Trip table.
+	 * @param linkFactors Link scaling factors per vehicle type ordinal.
+	 * @param odIndex Maps a row of the trip table to the index of its origin-destination pair.
+	 * @param fromRow First row (inclusive).
+	 * @param toRow Last row (exclusive).
+	 * @param index Origin-destination pair index of each row.
+	 * @param tripFactors Sum of link scaling factors (times multiplier) of each row.
+	 * @param tripCounts Number of links with a scaling factor (times multiplier) of each row.
+	 */
+	private static void sumOverRoutes(TripTable trips, double[][] linkFactors, IntUnaryOperator odIndex, int fromRow, int toRow, int[] index, double[] tripFactors, double[] tripCounts) {
+
+		for (int row = fromRow; row < toRow; row++) {
+			index[row] = -1;
+			double[] factors = linkFactors[trips.getVehicleOrdinal(row)];
+			if (factors == null) continue;
+			Route route = trips.getRoute(row);
+			if (route == null) continue; //minor road trip
+			int od = odIndex.applyAsInt(row);
+			if (od < 0) continue;
+
+			int multiplier = trips.getMultiplier(row);
+			double factor = 0.0;
+			double count = 0.0;
+			TIntArrayList edges = route.getEdges();
+			for (int i = 0; i < edges.size(); i++) {
+				double linkFactor = factors[edges.getQuick(i)];
+				if (linkFactor == linkFactor) { //not NaN
+					factor += linkFactor * multiplier;
+					count += multiplier;
+				}
+			}
+			index[row] = od;
+			tripFactors[row] = factor;
+			tripCounts[row] = count;
+		}
+	}
+}
@@ -13,7 +13,6 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
-import org.apache.commons.collections4.keyvalue.MultiKey;
 import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVParser;
 import org.apache.commons.csv.CSVPrinter;
@@ -383,13 +382,11 @@ public class SkimMatrixArrayTempro implements SkimMatrix{
 		
 		double averageCost = 0.0;
 		long totalFlows = 0;
-		for (MultiKey mk: flows.getKeySet()) {
-			String origin = (String) mk.getKey(0);
-			String destination = (String) mk.getKey(1);
-			double cost = this.getCost(origin, destination);
+		for (ODMatrixMultiKey.Cursor cell = flows.cursor(); cell.next(); ) {
+			double cost = this.getCost(cell.getOrigin(), cell.getDestination());
 			if (cost > 0.0) {
-				averageCost += flows.getFlow(origin, destination) * cost;
-				totalFlows += flows.getFlow(origin, destination);
+				averageCost += cell.getFlow() * cost;
+				totalFlows += cell.getFlow();
 			}
 		}
 		averageCost /= totalFlows;
@@ -405,13 +402,10 @@ public class SkimMatrixArrayTempro implements SkimMatrix{
 	public double getSumOfCosts(ODMatrixMultiKey flows) {
 		
 		double sumOfCosts = 0.0;
-		for (MultiKey mk: flows.getKeySet()) {
-			String origin = (String) mk.getKey(0);
-			String destination = (String) mk.getKey(1);
-			double cost = this.getCost(origin, destination);
-			int flow = flows.getFlow(origin, destination);
+		for (ODMatrixMultiKey.Cursor cell = flows.cursor(); cell.next(); ) {
+			double cost = this.getCost(cell.getOrigin(), cell.getDestination());
 			if (cost > 0.0)
-				sumOfCosts += cost * flow;
+				sumOfCosts += cost * cell.getFlow();
 		}
 		return sumOfCosts;
 	}
@@ -8,13 +8,14 @@ import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashSet;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.apache.commons.collections4.keyvalue.MultiKey;
-import org.apache.commons.collections4.map.MultiKeyMap;
 import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVParser;
 import org.apache.commons.csv.CSVPrinter;
@@ -24,15 +25,27 @@ import org.apache.logging.log4j.Logger;
 
 /**
  * Skim matrix for storing inter-zonal travel times or costs (for freight vehicles).
+ * Costs are stored in dense rows (one per origin zone) with a cell for each destination zone and vehicle type.
  * @author Milan Lovric
  *
  */
 public class SkimMatrixFreightMultiKey implements SkimMatrixFreight {
 	
 	private final static Logger LOGGER = LogManager.getLogger(SkimMatrixFreightMultiKey.class);
-	private MultiKeyMap matrix;
+	private static final int VEHICLES = FreightMatrix.MAX_VEHICLE_ID + 1; //cells per destination (vehicle type values start from 1)
+	
+	private ZoneAxis origins; //rows
+	private ZoneAxis destinations; //columns
+	private double[][] costs; //cost = [origin][destination * VEHICLES + vehicleType]
+	private boolean[][] stored; //true if the cost has been set
+	private int size; //number of stored costs
+	
 	public SkimMatrixFreightMultiKey() {
-		matrix = new MultiKeyMap();
+		
+		this.origins = new ZoneAxis();
+		this.destinations = new ZoneAxis();
+		this.costs = new double[16][];
+		this.stored = new boolean[16][];
 	}
 	
 	/**
@@ -43,7 +56,7 @@ public class SkimMatrixFreightMultiKey implements SkimMatrixFreight {
 	 */
 	public SkimMatrixFreightMultiKey(String fileName) throws FileNotFoundException, IOException {
 		
-		matrix = new MultiKeyMap();
+		this();
 		CSVParser parser = new CSVParser(new FileReader(fileName), CSVFormat.DEFAULT.withHeader());
 		//System.out.println(parser.getHeaderMap().toString());
 		Set<String> keySet = parser.getHeaderMap().keySet();
@@ -70,10 +83,12 @@ public class SkimMatrixFreightMultiKey implements SkimMatrixFreight {
 	 */
 	public double getCost(int originZone, int destinationZone, int vehicleType) {
 		
-		Double cost = (Double) matrix.get(originZone, destinationZone, vehicleType);
-		if (cost == null) cost = 0.0;
+		int row = this.origins.indexOf(originZone);
+		if (row < 0) return 0.0;
+		int column = this.destinations.indexOf(destinationZone);
+		if (column < 0) return 0.0;
 		
-		return cost;
+		return this.getCell(row, column * VEHICLES + vehicleType);
 	}
 	
 	/**
@@ -85,7 +100,29 @@ public class SkimMatrixFreightMultiKey implements SkimMatrixFreight {
 	 */
 	public void setCost(int originZone, int destinationZone, int vehicleType, double cost) {
 		
-		matrix.put(originZone, destinationZone, vehicleType, cost);
+		if (vehicleType < 0 || vehicleType > FreightMatrix.MAX_VEHICLE_ID) throw new IllegalArgumentException("Unknown vehicle type " + vehicleType);
+		
+		int row = this.origins.add(originZone);
+		if (row >= this.costs.length) {
+			this.costs = Arrays.copyOf(this.costs, 2 * this.costs.length);
+			this.stored = Arrays.copyOf(this.stored, 2 * this.stored.length);
+		}
+		int column = this.destinations.add(destinationZone);
+		int cell = column * VEHICLES + vehicleType;
+		
+		double[] costsRow = this.costs[row];
+		if (costsRow == null || cell >= costsRow.length) {
+			int length = Math.max(column + 1, this.destinations.size()) * VEHICLES;
+			this.costs[row] = costsRow = (costsRow == null) ? new double[length] : Arrays.copyOf(costsRow, length);
+			this.stored[row] = (this.stored[row] == null) ? new boolean[length] : Arrays.copyOf(this.stored[row], length);
+		}
+		if (!this.stored[row][cell]) {
+			this.stored[row][cell] = true;
+			this.origins.increment(row);
+			this.destinations.increment(column);
+			this.size++;
+		}
+		costsRow[cell] = cost;
 	}
 	
 	/**
@@ -93,7 +130,9 @@ public class SkimMatrixFreightMultiKey implements SkimMatrixFreight {
 	 */
 	public void printMatrix() {
 		
-		System.out.println(matrix.toString());
+		Map<MultiKey, Double> map = new LinkedHashMap<MultiKey, Double>();
+		for (Cursor cell = this.cursor(); cell.next(); ) map.put(new MultiKey<Integer>(cell.getOrigin(), cell.getDestination(), cell.getVehicleType()), cell.getCost());
+		System.out.println(map.toString());
 	}
 	
 	/**
@@ -101,24 +140,8 @@ public class SkimMatrixFreightMultiKey implements SkimMatrixFreight {
 	 */
 	public void printMatrixFormatted() {
 		
-		Set<Integer> firstKey = new HashSet<Integer>();
-		Set<Integer> secondKey = new HashSet<Integer>();
-		
-		//extract row and column keysets
-		for (Object mk: matrix.keySet()) {
-			int origin = (int) ((MultiKey)mk).getKey(0);
-			int destination = (int) ((MultiKey)mk).getKey(1);
-			firstKey.add(origin);
-			secondKey.add(destination);
-		}
-	
-		//put them to a list and sort them
-		List<Integer> firstKeyList = new ArrayList<Integer>(firstKey);
-		List<Integer> secondKeyList = new ArrayList<Integer>(secondKey);
-		Collections.sort(firstKeyList);
-		Collections.sort(secondKeyList);
-		//System.out.println(firstKeyList);
-		//System.out.println(secondKeyList);
+		List<Integer> firstKeyList = this.origins.getSortedKeys();
+		List<Integer> secondKeyList = this.destinations.getSortedKeys();
 	
 		//formatted print
 		System.out.printf("%6s%12s%12s%7s\n", "origin", "destination", "vehicleType", "cost");
@@ -147,22 +170,8 @@ public class SkimMatrixFreightMultiKey implements SkimMatrixFreight {
 		
 		LOGGER.debug("Saving freight skim matrix.");
 		
-		Set<Integer> firstKey = new HashSet<Integer>();
-		Set<Integer> secondKey = new HashSet<Integer>();
-		
-		//extract row and column keysets
-		for (Object mk: matrix.keySet()) {
-			int origin = (int) ((MultiKey)mk).getKey(0);
-			int destination = (int) ((MultiKey)mk).getKey(1);
-			firstKey.add(destination);
-			secondKey.add(origin);
-		}
-	
-		//put them to a list and sort them
-		List<Integer> firstKeyList = new ArrayList<Integer>(firstKey);
-		List<Integer> secondKeyList = new ArrayList<Integer>(secondKey);
-		Collections.sort(firstKeyList);
-		Collections.sort(secondKeyList);
+		List<Integer> firstKeyList = this.destinations.getSortedKeys();
+		List<Integer> secondKeyList = this.origins.getSortedKeys();
 	
 		String NEW_LINE_SEPARATOR = "\n";
 		ArrayList<String> header = new ArrayList<String>();
@@ -205,12 +214,86 @@ public class SkimMatrixFreightMultiKey implements SkimMatrixFreight {
 	}
 				
 	/**
-	 * Gets the keyset of the multimap.
+	 * Gets the keyset of the matrix (origin, destination and vehicle type of the stored costs).
+	 * The set is created on each call (use {@link #cursor()} to iterate over the costs without creating the keys).
 	 * @return Keyset.
 	 */
 	public Set<MultiKey> getKeySet() {
 		
-		return matrix.keySet();
+		Set<MultiKey> keySet = new LinkedHashSet<MultiKey>(2 * this.size);
+		for (Cursor cell = this.cursor(); cell.next(); )
+			keySet.add(new MultiKey<Integer>(cell.getOrigin(), cell.getDestination(), cell.getVehicleType()));
+		
+		return keySet;
+	}
+	
+	/**
+	 * Gets a cursor over the stored costs of the matrix.
+	 * @return Cursor positioned before the first cost.
+	 */
+	public Cursor cursor() {
+		
+		return new Cursor();
+	}
+	
+	/**
+	 * Cursor over the stored costs of the matrix (in the order of origins and destinations in which they were added, then by vehicle type).
+	 * Costs can be changed during the iteration (costs added before the current cell are not visited).
+	 */
+	public final class Cursor {
+		
+		private int row = 0;
+		private int cell = -1; //destination index * VEHICLES + vehicle type
+		
+		private Cursor() {
+		}
+		
+		/**
+		 * Moves to the next stored cost.
+		 * @return False if there are no more costs.
+		 */
+		public boolean next() {
+			
+			for (; this.row < origins.size(); this.row++, this.cell = -1) {
+				boolean[] storedRow = stored[this.row];
+				if (storedRow == null) continue;
+				while (++this.cell < storedRow.length)
+					if (storedRow[this.cell]) return true;
+			}
+			return false;
+		}
+		
+		/**
+		 * @return Origin of the current cost.
+		 */
+		public int getOrigin() {
+			
+			return origins.getKey(this.row);
+		}
+		
+		/**
+		 * @return Destination of the current cost.
+		 */
+		public int getDestination() {
+			
+			return destinations.getKey(this.cell / VEHICLES);
+		}
+		
+		/**
+		 * @return Vehicle type of the current cost.
+		 */
+		public int getVehicleType() {
+			
+			return this.cell % VEHICLES;
+		}
+		
+		/**
+		 * @return Current cost.
+		 */
+		public double getCost() {
+			
+			return getCell(this.row, this.cell);
+		}
 	}
 	
 	/**
@@ -220,8 +303,14 @@ public class SkimMatrixFreightMultiKey implements SkimMatrixFreight {
 	public double getAverageCost() {
 		
 		double averageCost = 0.0;
-		for (Object cost: matrix.values()) averageCost += (double) cost;
-		averageCost /= matrix.size();
+		for (int row = 0; row < this.origins.size(); row++) {
+			boolean[] storedRow = this.stored[row];
+			if (storedRow == null) continue;
+			double[] costsRow = this.costs[row];
+			for (int cell = 0; cell < storedRow.length; cell++)
+				if (storedRow[cell]) averageCost += costsRow[cell];
+		}
+		averageCost /= this.size;
 		
 		return averageCost;
 	}
@@ -235,12 +324,9 @@ public class SkimMatrixFreightMultiKey implements SkimMatrixFreight {
 		
 		double averageCost = 0.0;
 		long totalFlows = 0;
-		for (MultiKey mk: flows.getKeySet()) {
-			int origin = (int) mk.getKey(0);
-			int destination = (int) mk.getKey(1);
-			int vehicleType = (int) mk.getKey(2);
-			averageCost += flows.getFlow(origin, destination, vehicleType) * (double) matrix.get(origin, destination, vehicleType);
-			totalFlows += flows.getFlow(origin, destination, vehicleType);
+		for (FreightMatrix.Cursor cell = flows.cursor(); cell.next(); ) {
+			averageCost += cell.getFlow() * this.getCost(cell.getOrigin(), cell.getDestination(), cell.getVehicleType());
+			totalFlows += cell.getFlow();
 		}
 		averageCost /= totalFlows;
 		
@@ -255,13 +341,22 @@ public class SkimMatrixFreightMultiKey implements SkimMatrixFreight {
 	public double getAbsoluteDifference(SkimMatrixFreight other) {
 		
 		double difference = 0.0;
-		for (MultiKey mk: this.getKeySet()) {
-			int origin = (int) mk.getKey(0);
-			int destination = (int) mk.getKey(1);
-			int vehicleType = (int) mk.getKey(2);
-			difference += Math.abs(this.getCost(origin, destination, vehicleType) - other.getCost(origin, destination, vehicleType));
-		}
+		for (Cursor cell = this.cursor(); cell.next(); )
+			difference += Math.abs(cell.getCost() - other.getCost(cell.getOrigin(), cell.getDestination(), cell.getVehicleType()));
 	
 		return difference;
 	}
+	
+	/**
+	 * Gets the cost of a matrix cell.
+	 * @param row Origin index.
+	 * @param cell Cell index (destination index * VEHICLES + vehicle type).
+	 * @return Cost.
+	 */
+	private double getCell(int row, int cell) {
+		
+		double[] costsRow = this.costs[row];
+		if (costsRow == null || cell >= costsRow.length) return 0.0;
+		return costsRow[cell];
+	}
 }
@@ -8,14 +8,15 @@ import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.apache.commons.collections4.keyvalue.MultiKey;
-import org.apache.commons.collections4.map.MultiKeyMap;
 import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVParser;
 import org.apache.commons.csv.CSVPrinter;
@@ -23,10 +24,14 @@ import org.apache.commons.csv.CSVRecord;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import nismod.transport.zone.ZoneCodeRegistry;
 import nismod.transport.zone.Zoning;
 
 /**
  * Skim matrix for storing inter-zonal travel times or costs (for passenger vehicles).
+ * Zone codes are interned in the {@link ZoneCodeRegistry} and costs are stored in sparse rows (one per origin zone),
+ * which contain the cells which have been set (as any cost, including zero, can be stored).
+ * The stored costs can be iterated with a {@link Cursor}, which does not create any keys.
  * @author Milan Lovric
  *
  */
@@ -34,9 +39,13 @@ public class SkimMatrixMultiKey implements SkimMatrix {
 	
 	private final static Logger LOGGER = LogManager.getLogger(SkimMatrixMultiKey.class);
 	
-	private MultiKeyMap matrix;
+	private ZoneAxis origins; //rows
+	private ZoneAxis destinations; //columns
+	private SparseRow[] costs; //cost = [origin][destination] (only the cells which have been set)
+	private int size; //number of stored cells
 	
 	private Zoning zoning;
+	private volatile int[] ladIDToZoneID; //maps LAD IDs from the zoning system to the IDs of the zone code registry
 		
 	/**
 	 * Skim matrix constructors.
@@ -44,7 +53,9 @@ public class SkimMatrixMultiKey implements SkimMatrix {
 	 */
 	public SkimMatrixMultiKey(Zoning zoning) {
 		
-		this.matrix = new MultiKeyMap();
+		this.origins = new ZoneAxis();
+		this.destinations = new ZoneAxis();
+		this.costs = new SparseRow[16];
 		this.zoning = zoning;
 	}
 	
@@ -57,8 +68,7 @@ public class SkimMatrixMultiKey implements SkimMatrix {
 	 */
 	public SkimMatrixMultiKey(String fileName, Zoning zoning) throws FileNotFoundException, IOException {
 		
-		this.matrix = new MultiKeyMap();
-		this.zoning = zoning;
+		this(zoning);
 		
 		CSVParser parser = new CSVParser(new FileReader(fileName), CSVFormat.DEFAULT.withHeader());
 		Set<String> keySet = parser.getHeaderMap().keySet();
@@ -102,10 +112,10 @@ public class SkimMatrixMultiKey implements SkimMatrix {
 	 */
 	public double getCost(String originZone, String destinationZone) {
 		
-		Double cost = (Double) matrix.get(originZone, destinationZone);
-		if (cost == null) cost = 0.0;
+		int row = this.origins.indexOf(ZoneCodeRegistry.lookupID(originZone));
+		if (row < 0) return 0.0;
 		
-		return cost;
+		return this.getCell(row, this.destinations.indexOf(ZoneCodeRegistry.lookupID(destinationZone)));
 	}
 	
 	/**
@@ -116,7 +126,7 @@ public class SkimMatrixMultiKey implements SkimMatrix {
 	 */
 	public void setCost(String originZone, String destinationZone, double cost) {
 		
-		matrix.put(originZone, destinationZone, cost);
+		this.setCell(this.addOrigin(ZoneCodeRegistry.getID(originZone)), this.destinations.add(ZoneCodeRegistry.getID(destinationZone)), cost);
 	}
 	
 	/**
@@ -127,13 +137,11 @@ public class SkimMatrixMultiKey implements SkimMatrix {
 	 */
 	public double getCost(int originZoneID, int destinationZoneID) {
 		
-		String originZone = this.zoning.getLadIDToCodeMap()[originZoneID];
-		String destinationZone = this.zoning.getLadIDToCodeMap()[destinationZoneID];
-
-		Double cost = (Double) this.matrix.get(originZone, destinationZone);
-		if (cost == null) cost = 0.0;
+		int[] zoneIDs = this.getLadIDToZoneID();
+		int row = this.origins.indexOf(zoneIDs[originZoneID]);
+		if (row < 0) return 0.0;
 		
-		return cost;
+		return this.getCell(row, this.destinations.indexOf(zoneIDs[destinationZoneID]));
 	}
 	
 	/**
@@ -144,10 +152,8 @@ public class SkimMatrixMultiKey implements SkimMatrix {
 	 */
 	public void setCost(int originZoneID, int destinationZoneID, double cost) {
 		
-		String originZone = this.zoning.getLadIDToCodeMap()[originZoneID];
-		String destinationZone = this.zoning.getLadIDToCodeMap()[destinationZoneID];
-		
-		this.matrix.put(originZone, destinationZone, cost);
+		int[] zoneIDs = this.getLadIDToZoneID();
+		this.setCell(this.addOrigin(zoneIDs[originZoneID]), this.destinations.add(zoneIDs[destinationZoneID]), cost);
 	}
 	
 	/**
@@ -155,7 +161,9 @@ public class SkimMatrixMultiKey implements SkimMatrix {
 	 */
 	public void printMatrix() {
 		
-		System.out.println(matrix.toString());
+		Map<MultiKey, Double> map = new LinkedHashMap<MultiKey, Double>();
+		for (Cursor cell = this.cursor(); cell.next(); ) map.put(new MultiKey<String>(cell.getOrigin(), cell.getDestination()), cell.getCost());
+		System.out.println(map.toString());
 	}
 	
 	/**
@@ -164,18 +172,7 @@ public class SkimMatrixMultiKey implements SkimMatrix {
 	 */
 	public List<String> getSortedOrigins() {
 		
-		Set<String> firstKey = new HashSet<String>();
-		
-		//extract row keysets
-		for (Object mk: matrix.keySet()) {
-			String origin = (String) ((MultiKey)mk).getKey(0);
-			firstKey.add(origin);
-		}
-		//put them into a list and sort them
-		List<String> firstKeyList = new ArrayList(firstKey);
-		Collections.sort(firstKeyList);
-		
-		return firstKeyList;
+		return this.origins.getSortedCodes();
 	}
 	
 	/**
@@ -184,17 +181,7 @@ public class SkimMatrixMultiKey implements SkimMatrix {
 	 */
 	public List<String> getUnsortedOrigins() {
 		
-		Set<String> firstKey = new HashSet<String>();
-		
-		//extract row keysets
-		for (Object mk: matrix.keySet()) {
-			String origin = (String) ((MultiKey)mk).getKey(0);
-			firstKey.add(origin);
-		}
-		//put them into a list
-		List<String> firstKeyList = new ArrayList(firstKey);
-		
-		return firstKeyList;
+		return this.origins.getCodes();
 	}
 	
 	/**
@@ -203,18 +190,7 @@ public class SkimMatrixMultiKey implements SkimMatrix {
 	 */
 	public List<String> getSortedDestinations() {
 		
-		Set<String> secondKey = new HashSet<String>();
-		
-		//extract column keysets
-		for (Object mk: matrix.keySet()) {
-			String destination = (String) ((MultiKey)mk).getKey(1);
-			secondKey.add(destination);
-		}
-		//put them into a list and sort them
-		List<String> secondKeyList = new ArrayList(secondKey);
-		Collections.sort(secondKeyList);
-		
-		return secondKeyList;
+		return this.destinations.getSortedCodes();
 	}
 	
 	/**
@@ -223,17 +199,7 @@ public class SkimMatrixMultiKey implements SkimMatrix {
 	 */
 	public List<String> getUnsortedDestinations() {
 		
-		Set<String> secondKey = new HashSet<String>();
-		
-		//extract column keysets
-		for (Object mk: matrix.keySet()) {
-			String destination = (String) ((MultiKey)mk).getKey(1);
-			secondKey.add(destination);
-		}
-		//put them into a list
-		List<String> secondKeyList = new ArrayList(secondKey);
-		
-		return secondKeyList;
+		return this.destinations.getCodes();
 	}
 	
 	/**
@@ -365,12 +331,90 @@ public class SkimMatrixMultiKey implements SkimMatrix {
 	}
 		
 	/**
-	 * Gets the keyset of the multimap.
+	 * Gets the keyset of the matrix (origin-destination pairs with a stored cost).
+	 * The set is created on each call (use {@link #cursor()} to iterate over the costs without creating the keys).
 	 * @return Keyset.
 	 */
 	public Set<MultiKey> getKeySet() {
 		
-		return matrix.keySet();
+		Set<MultiKey> keySet = new LinkedHashSet<MultiKey>(2 * this.size);
+		for (Cursor cell = this.cursor(); cell.next(); )
+			keySet.add(new MultiKey<String>(cell.getOrigin(), cell.getDestination()));
+		
+		return keySet;
+	}
+	
+	/**
+	 * Gets a cursor over the stored costs of the matrix.
+	 * @return Cursor positioned before the first cost.
+	 */
+	public Cursor cursor() {
+		
+		return new Cursor();
+	}
+	
+	/**
+	 * Cursor over the stored costs of the matrix (in the order of origins and destinations in which they were added).
+	 * Costs can be changed during the iteration (costs added before the current cell are not visited).
+	 */
+	public final class Cursor {
+		
+		private int row = 0;
+		private int column = -1;
+		
+		private Cursor() {
+		}
+		
+		/**
+		 * Moves to the next stored cost.
+		 * @return False if there are no more costs.
+		 */
+		public boolean next() {
+			
+			for (; this.row < origins.size(); this.row++, this.column = -1) {
+				SparseRow costsRow = costs[this.row];
+				if (costsRow == null) continue;
+				int position = costsRow.indexAfter(this.column);
+				if (position < costsRow.size()) {
+					this.column = costsRow.getColumn(position);
+					return true;
+				}
+			}
+			return false;
+		}
+		
+		/**
+		 * @return Origin zone of the current cost.
+		 */
+		public String getOrigin() {
+			
+			return ZoneCodeRegistry.getCode(origins.getKey(this.row));
+		}
+		
+		/**
+		 * @return Destination zone of the current cost.
+		 */
+		public String getDestination() {
+			
+			return ZoneCodeRegistry.getCode(destinations.getKey(this.column));
+		}
+		
+		/**
+		 * @return Current cost.
+		 */
+		public double getCost() {
+			
+			return getCell(this.row, this.column);
+		}
+		
+		/**
+		 * Sets the current cost.
+		 * @param cost Origin-destination cost.
+		 */
+		public void setCost(double cost) {
+			
+			setCell(this.row, this.column, cost);
+		}
 	}
 	
 	/**
@@ -381,11 +425,15 @@ public class SkimMatrixMultiKey implements SkimMatrix {
 		
 		double averageCost = 0.0;
 		int number = 0;
-		for (Object value: matrix.values()) {
-			Double cost = (double) value;
-			if (cost.isNaN()) continue; //ignore NaN values
-			averageCost += cost;
-			number++;
+		for (int row = 0; row < this.origins.size(); row++) {
+			SparseRow costsRow = this.costs[row];
+			if (costsRow == null) continue;
+			for (int position = 0; position < costsRow.size(); position++) {
+				double cost = costsRow.getValue(position);
+				if (Double.isNaN(cost)) continue; //ignore NaN values
+				averageCost += cost;
+				number++;
+			}
 		}
 		averageCost /= number;
 		
@@ -399,10 +447,14 @@ public class SkimMatrixMultiKey implements SkimMatrix {
 	public double getSumOfCosts() {
 		
 		double sumOfCosts = 0.0;
-		for (Object value: matrix.values()) {
-			Double cost = (double) value;
-			if (cost.isNaN()) continue; //ignore NaN values
-			sumOfCosts += cost;
+		for (int row = 0; row < this.origins.size(); row++) {
+			SparseRow costsRow = this.costs[row];
+			if (costsRow == null) continue;
+			for (int position = 0; position < costsRow.size(); position++) {
+				double cost = costsRow.getValue(position);
+				if (Double.isNaN(cost)) continue; //ignore NaN values
+				sumOfCosts += cost;
+			}
 		}
 		
 		return sumOfCosts;
@@ -417,13 +469,11 @@ public class SkimMatrixMultiKey implements SkimMatrix {
 		
 		double averageCost = 0.0;
 		long totalFlows = 0;
-		for (MultiKey mk: flows.getKeySet()) {
-			String origin = (String) mk.getKey(0);
-			String destination = (String) mk.getKey(1);
-			Double cost = (double) matrix.get(origin, destination);
-			if (cost.isNaN()) continue; //ignore NaN values
-			averageCost += flows.getFlow(origin, destination) * (double) matrix.get(origin, destination);
-			totalFlows += flows.getFlow(origin, destination);
+		for (ODMatrixMultiKey.Cursor cell = flows.cursor(); cell.next(); ) {
+			double cost = this.getCost(cell.getOrigin(), cell.getDestination());
+			if (Double.isNaN(cost)) continue; //ignore NaN values
+			averageCost += cell.getFlow() * cost;
+			totalFlows += cell.getFlow();
 		}
 		averageCost /= totalFlows;
 		
@@ -442,24 +492,34 @@ public class SkimMatrixMultiKey implements SkimMatrix {
 		for (String zone: zones) {
 			double averageCost = 0.0;
 			long totalFlows = 0;
-			for (Object mk: matrix.keySet()) {
-				String origin = (String) ((MultiKey)mk).getKey(0);
-				String destination = (String) ((MultiKey)mk).getKey(1);
-				
-				//if either origin or destination (but not both!) equals zone
-				if (origin.equals(zone) && !destination.equals(zone) || !origin.equals(zone) && destination.equals(zone)) {
-					Double cost = (Double) matrix.get(origin, destination);
-					if (cost == null) continue; //ignore null values
-					if (cost.isNaN()) continue; //ignore NaN values
+			int zoneID = ZoneCodeRegistry.lookupID(zone);
+			int zoneRow = this.origins.indexOf(zoneID);
+			int zoneColumn = this.destinations.indexOf(zoneID);
+			
+			//if either origin or destination (but not both!) equals zone
+			if (zoneRow >= 0 && this.costs[zoneRow] != null)
+				for (int position = 0; position < this.costs[zoneRow].size(); position++) {
+					if (this.costs[zoneRow].getColumn(position) == zoneColumn) continue;
+					double cost = this.costs[zoneRow].getValue(position);
+					if (Double.isNaN(cost)) continue; //ignore NaN values
+					averageCost += cost;
+					totalFlows ++;
+				}
+			if (zoneColumn >= 0)
+				for (int row = 0; row < this.origins.size(); row++) {
+					if (row == zoneRow || !this.isStored(row, zoneColumn)) continue; //ignore null values
+					double cost = this.getCell(row, zoneColumn);
+					if (Double.isNaN(cost)) continue; //ignore NaN values
 					averageCost += cost;
 					totalFlows ++;
 				}
-			}
 			//add intra-zonal flow
-			Double cost = (Double) matrix.get(zone, zone);
-			if (cost != null && !cost.isNaN()) { //ignore null and NaN values
-				averageCost += cost;
-				totalFlows++;
+			if (zoneRow >= 0 && this.isStored(zoneRow, zoneColumn)) {
+				double cost = this.getCell(zoneRow, zoneColumn);
+				if (!Double.isNaN(cost)) { //ignore NaN values
+					averageCost += cost;
+					totalFlows++;
+				}
 			}
 			
 			averageCost /= totalFlows;
@@ -479,28 +539,40 @@ public class SkimMatrixMultiKey implements SkimMatrix {
 		
 		HashMap<String, Double> map = new HashMap<String, Double>();
 		
+		List<String> flowOrigins = flows.getUnsortedOrigins();
+		List<String> flowDestinations = flows.getUnsortedDestinations();
+		
 		for (String zone: zones) {
 			
 			double averageCost = 0.0;
 			long totalFlows = 0;
-			for (MultiKey mk: flows.getKeySet()) {
-				String origin = (String) mk.getKey(0);
-				String destination = (String) mk.getKey(1);
-				
-				//if either origin or destination (but not both!) equals zone
-				if (origin.equals(zone) && !destination.equals(zone) || !origin.equals(zone) && destination.equals(zone)) {
-					Double cost = (Double) matrix.get(origin, destination);
-					if (cost.isNaN()) continue; //ignore NaN values
-					if (cost == null) continue; //ignore null values
-					averageCost += flows.getFlow(origin, destination) * cost;
-					totalFlows += flows.getFlow(origin, destination);
-				}
+			
+			//if either origin or destination (but not both!) equals zone
+			for (String destination: flowDestinations) {
+				if (destination.equals(zone)) continue;
+				int flow = flows.getFlow(zone, destination);
+				if (flow == 0 || !this.isStored(zone, destination)) continue; //ignore null values
+				double cost = this.getCost(zone, destination);
+				if (Double.isNaN(cost)) continue; //ignore NaN values
+				averageCost += flow * cost;
+				totalFlows += flow;
+			}
+			for (String origin: flowOrigins) {
+				if (origin.equals(zone)) continue;
+				int flow = flows.getFlow(origin, zone);
+				if (flow == 0 || !this.isStored(origin, zone)) continue; //ignore null values
+				double cost = this.getCost(origin, zone);
+				if (Double.isNaN(cost)) continue; //ignore NaN values
+				averageCost += flow * cost;
+				totalFlows += flow;
 			}
 			//add intra-zonal flow
-			Double cost = (Double) matrix.get(zone, zone);
-			if (cost != null && !cost.isNaN()) { //ignore null and NaN values
-				averageCost += flows.getFlow(zone, zone) * cost;
-				totalFlows += flows.getFlow(zone, zone);
+			if (this.isStored(zone, zone)) {
+				double cost = this.getCost(zone, zone);
+				if (!Double.isNaN(cost)) { //ignore NaN values
+					averageCost += flows.getFlow(zone, zone) * cost;
+					totalFlows += flows.getFlow(zone, zone);
+				}
 			}
 				
 			averageCost /= totalFlows;
@@ -518,13 +590,10 @@ public class SkimMatrixMultiKey implements SkimMatrix {
 	public double getSumOfCosts(ODMatrixMultiKey flows) {
 		
 		double sumOfCosts = 0.0;
-		for (MultiKey mk: flows.getKeySet()) {
-			String origin = (String) mk.getKey(0);
-			String destination = (String) mk.getKey(1);
-			Double cost = this.getCost(origin, destination);
-			int flow = flows.getFlow(origin, destination);
+		for (ODMatrixMultiKey.Cursor cell = flows.cursor(); cell.next(); ) {
+			double cost = this.getCost(cell.getOrigin(), cell.getDestination());
 			if (cost > 0.0)
-				sumOfCosts += cost * flow;
+				sumOfCosts += cost * cell.getFlow();
 		}
 		return sumOfCosts;
 	}
@@ -550,4 +619,90 @@ public class SkimMatrixMultiKey implements SkimMatrix {
 	
 		return difference;
 	}
+	
+	/**
+	 * Checks if the cost for a given origin-destination pair has been set.
+	 * @param originZone Origin zone.
+	 * @param destinationZone Destination zone.
+	 * @return True if the cost is stored.
+	 */
+	private boolean isStored(String originZone, String destinationZone) {
+		
+		int row = this.origins.indexOf(ZoneCodeRegistry.lookupID(originZone));
+		if (row < 0) return false;
+		
+		return this.isStored(row, this.destinations.indexOf(ZoneCodeRegistry.lookupID(destinationZone)));
+	}
+	
+	/**
+	 * Gets the mapping from the LAD IDs of the zoning system to the IDs of the zone code registry.
+	 * @return Zone IDs (indexed by LAD ID).
+	 */
+	private int[] getLadIDToZoneID() {
+		
+		int[] zoneIDs = this.ladIDToZoneID;
+		if (zoneIDs == null) {
+			//the mapping is published (volatile) only when complete, so it can be created by concurrent readers
+			String[] ladIDToCode = this.zoning.getLadIDToCodeMap();
+			zoneIDs = new int[ladIDToCode.length];
+			for (int i = 0; i < ladIDToCode.length; i++)
+				zoneIDs[i] = (ladIDToCode[i] == null) ? -1 : ZoneCodeRegistry.getID(ladIDToCode[i]);
+			this.ladIDToZoneID = zoneIDs;
+		}
+		return zoneIDs;
+	}
+	
+	/**
+	 * Adds an origin zone to the matrix rows (if not already added).
+	 * @param zoneID Zone ID from the zone code registry.
+	 * @return Origin index.
+	 */
+	private int addOrigin(int zoneID) {
+		
+		int row = this.origins.add(zoneID);
+		if (row >= this.costs.length) this.costs = Arrays.copyOf(this.costs, 2 * this.costs.length);
+		return row;
+	}
+	
+	/**
+	 * @param row Origin index.
+	 * @param column Destination index (can be -1).
+	 * @return True if the cost of the cell is stored.
+	 */
+	private boolean isStored(int row, int column) {
+		
+		SparseRow costsRow = this.costs[row];
+		return costsRow != null && column >= 0 && costsRow.contains(column);
+	}
+	
+	/**
+	 * Gets the cost of a matrix cell.
+	 * @param row Origin index.
+	 * @param column Destination index (can be -1).
+	 * @return Cost (0.0 if not stored).
+	 */
+	private double getCell(int row, int column) {
+		
+		SparseRow costsRow = this.costs[row];
+		if (costsRow == null || column < 0) return 0.0;
+		return costsRow.get(column);
+	}
+	
+	/**
+	 * Sets the cost of a matrix cell.
+	 * @param row Origin index.
+	 * @param column Destination index.
+	 * @param cost Cost.
+	 */
+	private void setCell(int row, int column, double cost) {
+		
+		SparseRow costsRow = this.costs[row];
+		if (costsRow == null) this.costs[row] = costsRow = new SparseRow();
+		
+		if (costsRow.put(column, cost)) {
+			this.origins.increment(row);
+			this.destinations.increment(column);
+			this.size++;
+		}
+	}
 }
@@ -0,0 +1,127 @@
+package nismod.transport.demand;
+
+import java.util.Arrays;
+
+/**
+ * Row of a sparse zone-indexed matrix. Stores the values of the cells that are in the matrix, sorted by the column index,
+ * so the memory depends on the number of stored cells rather than on the number of columns (e.g. TEMPro matrices
+ * with thousands of zones and mostly empty rows). Cells are found with a binary search and added in the column order,
+ * so appending columns in the increasing order (as when reading a matrix file) does not move any other cells.
+ * Integer values (flows) are represented exactly.
+ * @author Milan Lovric
+ *
+ */
+final class SparseRow {
+
+	private int[] columns = new int[4];
+	private double[] values = new double[4];
+	private int size;
+
+	/**
+	 * @return Number of stored cells.
+	 */
+	int size() {
+
+		return this.size;
+	}
+
+	/**
+	 * @param position Position of the cell in the row (from 0 to size - 1).
+	 * @return Column index of the cell.
+	 */
+	int getColumn(int position) {
+
+		return this.columns[position];
+	}
+
+	/**
+	 * @param position Position of the cell in the row (from 0 to size - 1).
+	 * @return Value of the cell.
+	 */
+	double getValue(int position) {
+
+		return this.values[position];
+	}
+
+	/**
+	 * @param column Column index.
+	 * @return Position of the cell (or a negative number if the cell is not stored).
+	 */
+	int indexOf(int column) {
+
+		return Arrays.binarySearch(this.columns, 0, this.size, column);
+	}
+
+	/**
+	 * Finds the first stored cell after a column (which does not need to be stored), so the row can be iterated while it is changed.
+	 * @param column Column index (-1 to get the first cell).
+	 * @return Position of the cell (size if there is no such cell).
+	 */
+	int indexAfter(int column) {
+
+		int position = Arrays.binarySearch(this.columns, 0, this.size, column);
+		return (position >= 0) ? position + 1 : -position - 1;
+	}
+
+	/**
+	 * @param column Column index.
+	 * @return True if the cell is stored.
+	 */
+	boolean contains(int column) {
+
+		return this.indexOf(column) >= 0;
+	}
+
+	/**
+	 * @param column Column index.
+	 * @return Value of the cell (0.0 if not stored).
+	 */
+	double get(int column) {
+
+		int position = this.indexOf(column);
+		return (position < 0) ? 0.0 : this.values[position];
+	}
+
+	/**
+	 * Stores the value of a cell.
+	 * @param column Column index.
+	 * @param value Value.
+	 * @return True if the cell was not stored before.
+	 */
+	boolean put(int column, double value) {
+
+		int position = this.indexOf(column);
+		if (position >= 0) {
+			this.values[position] = value;
+			return false;
+		}
+
+		position = -position - 1;
+		if (this.size == this.columns.length) {
+			this.columns = Arrays.copyOf(this.columns, 2 * this.size);
+			this.values = Arrays.copyOf(this.values, 2 * this.size);
+		}
+		System.arraycopy(this.columns, position, this.columns, position + 1, this.size - position);
+		System.arraycopy(this.values, position, this.values, position + 1, this.size - position);
+		this.columns[position] = column;
+		this.values[position] = value;
+		this.size++;
+		return true;
+	}
+
+	/**
+	 * Removes a cell.
+	 * @param column Column index.
+	 * @return True if the cell was stored.
+	 */
+	boolean remove(int column) {
+
+		int position = this.indexOf(column);
+		if (position < 0) return false;
+
+		System.arraycopy(this.columns, position + 1, this.columns, position, this.size - position - 1);
+		System.arraycopy(this.values, position + 1, this.values, position, this.size - position - 1);
+		this.size--;
+		return true;
+	}
+}
@@ -0,0 +1,176 @@
+package nismod.transport.demand;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import nismod.transport.zone.ZoneCodeRegistry;
+
+/**
+ * Axis (rows or columns) of a zone-indexed matrix. Maps zone keys (registry IDs of zone codes, or freight zone IDs)
+ * to local indices in the order in which they were added, and keeps the number of non-empty cells for each index,
+ * so that the zones of the matrix (with at least one non-empty cell) do not need to be extracted from the matrix cells.
+ * The sorted zones are cached in immutable snapshots, so concurrent readers of an unchanged matrix (e.g. parallel loss evaluations)
+ * never see a partially built list.
+ * @author Milan Lovric
+ *
+ */
+final class ZoneAxis {
+
+	private int[] keyToIndex = new int[0]; //local index + 1 (0 means that the key is not on the axis)
+	private int[] keys = new int[16]; //local index -> key
+	private int[] cells = new int[16]; //local index -> number of non-empty cells
+	private int size;
+
+	private int modifications; //number of changes in the set of non-empty zones
+	private volatile Sorted<String> sortedCodes;
+	private volatile Sorted<Integer> sortedKeys;
+
+	/**
+	 * Immutable snapshot of the sorted zones (safely published through a volatile field).
+	 */
+	private static final class Sorted<T> {
+
+		private final int modifications; //number of modifications of the axis when the snapshot was taken
+		private final List<T> zones;
+
+		private Sorted(int modifications, List<T> zones) {
+
+			this.modifications = modifications;
+			this.zones = Collections.unmodifiableList(zones);
+		}
+	}
+
+	/**
+	 * @param key Zone key.
+	 * @return Local index (or -1 if the key is not on the axis).
+	 */
+	int indexOf(int key) {
+
+		if (key < 0 || key >= this.keyToIndex.length) return -1;
+		return this.keyToIndex[key] - 1;
+	}
+
+	/**
+	 * Adds a key to the axis (if not already on it).
+	 * @param key Zone key.
+	 * @return Local index.
+	 */
+	int add(int key) {
+
+		int index = this.indexOf(key);
+		if (index >= 0) return index;
+
+		if (key >= this.keyToIndex.length)
+			this.keyToIndex = Arrays.copyOf(this.keyToIndex, Math.max(key + 1, 2 * this.keyToIndex.length));
+		if (this.size == this.keys.length) {
+			this.keys = Arrays.copyOf(this.keys, 2 * this.size);
+			this.cells = Arrays.copyOf(this.cells, 2 * this.size);
+		}
+		index = this.size++;
+		this.keys[index] = key;
+		this.keyToIndex[key] = index + 1;
+		return index;
+	}
+
+	/**
+	 * @return Number of local indices (including zones with no non-empty cells).
+	 */
+	int size() {
+
+		return this.size;
+	}
+
+	/**
+	 * @param index Local index.
+	 * @return Zone key.
+	 */
+	int getKey(int index) {
+
+		return this.keys[index];
+	}
+
+	/**
+	 * @param index Local index.
+	 * @return True if the zone has at least one non-empty cell.
+	 */
+	boolean isUsed(int index) {
+
+		return this.cells[index] > 0;
+	}
+
+	/**
+	 * Registers a new non-empty cell of a zone.
+	 * @param index Local index.
+	 */
+	void increment(int index) {
+
+		if (this.cells[index]++ == 0) this.modifications++;
+	}
+
+	/**
+	 * Unregisters a non-empty cell of a zone.
+	 * @param index Local index.
+	 */
+	void decrement(int index) {
+
+		if (--this.cells[index] == 0) this.modifications++;
+	}
+
+	/**
+	 * Gets the zone codes (with at least one non-empty cell) in the order in which they were added.
+	 * @return List of zone codes.
+	 */
+	List<String> getCodes() {
+
+		List<String> codes = new ArrayList<String>(this.size);
+		for (int i = 0; i < this.size; i++)
+			if (this.cells[i] > 0) codes.add(ZoneCodeRegistry.getCode(this.keys[i]));
+		return codes;
+	}
+
+	/**
+	 * Gets the sorted zone codes (with at least one non-empty cell).
+	 * @return List of zone codes (a new list that can be modified by the caller).
+	 */
+	List<String> getSortedCodes() {
+
+		Sorted<String> sorted = this.sortedCodes;
+		if (sorted == null || sorted.modifications != this.modifications) {
+			List<String> codes = this.getCodes();
+			Collections.sort(codes);
+			sorted = new Sorted<String>(this.modifications, codes);
+			this.sortedCodes = sorted;
+		}
+		return new ArrayList<String>(sorted.zones);
+	}
+
+	/**
+	 * Gets the zone keys (with at least one non-empty cell) in the order in which they were added.
+	 * @return List of zone keys.
+	 */
+	List<Integer> getKeys() {
+
+		List<Integer> keys = new ArrayList<Integer>(this.size);
+		for (int i = 0; i < this.size; i++)
+			if (this.cells[i] > 0) keys.add(this.keys[i]);
+		return keys;
+	}
+
+	/**
+	 * Gets the sorted zone keys (with at least one non-empty cell).
+	 * @return List of zone keys (a new list that can be modified by the caller).
+	 */
+	List<Integer> getSortedKeys() {
+
+		Sorted<Integer> sorted = this.sortedKeys;
+		if (sorted == null || sorted.modifications != this.modifications) {
+			List<Integer> keys = this.getKeys();
+			Collections.sort(keys);
+			sorted = new Sorted<Integer>(this.modifications, keys);
+			this.sortedKeys = sorted;
+		}
+		return new ArrayList<Integer>(sorted.zones);
+	}
+}
@@ -0,0 +1,165 @@
+package nismod.transport.network.road;
+
+import java.util.Arrays;
+
+import org.geotools.graph.structure.DirectedEdge;
+import org.geotools.graph.structure.DirectedGraph;
+import org.geotools.graph.structure.DirectedNode;
+import org.geotools.graph.structure.Node;
+import org.locationtech.jts.geom.Point;
+import org.opengis.feature.simple.SimpleFeature;
+
+/**
+ * Immutable copy of the directed road network graph in the compressed sparse row (CSR) format.
+ * Out-edges of the node with ID n are stored at positions firstOutEdge[n] to firstOutEdge[n+1]-1 of the edge arrays.
+ * Out-edges keep the order of the node out-edge lists: if there are parallel edges between two nodes, only the first one
+ * (the one that DirectedNode.getOutEdge() and RoadPath use) is routable, unless it is blocked.
+ * @author Milan Lovric
+ *
+ */
+public class CompactRoadGraph {
+
+	private final int[] firstOutEdge; //position of the first out-edge for each node ID (one more element than node IDs)
+	private final int[] edgeTarget; //target node ID of each out-edge
+	private final int[] edgeID; //edge ID of each out-edge
+	private final int[] previousParallelEdge; //position of the previous out-edge between the same two nodes (-1 if none)
+	private final double[] nodeX; //x coordinate of each node [m]
+	private final double[] nodeY; //y coordinate of each node [m]
+	private final int numberOfGraphEdges; //number of edges in the source graph
+
+	/**
+	 * Constructor.
+	 * @param network Directed graph of the road network.
+	 * @param nodeIDtoNode Direct access array from node ID to node.
+	 */
+	public CompactRoadGraph(DirectedGraph network, Node[] nodeIDtoNode) {
+
+		final int numberOfNodeIDs = nodeIDtoNode.length;
+		this.firstOutEdge = new int[numberOfNodeIDs + 1];
+		this.nodeX = new double[numberOfNodeIDs];
+		this.nodeY = new double[numberOfNodeIDs];
+		this.numberOfGraphEdges = network.getEdges().size();
+
+		//count out-edges per node
+		int count = 0;
+		for (int nodeID = 0; nodeID < numberOfNodeIDs; nodeID++) {
+			this.firstOutEdge[nodeID] = count;
+			DirectedNode node = (DirectedNode) nodeIDtoNode[nodeID];
+			if (node == null) continue;
+			Point point = (Point) ((SimpleFeature) node.getObject()).getDefaultGeometry();
+			this.nodeX[nodeID] = point.getX();
+			this.nodeY[nodeID] = point.getY();
+			count += node.getOutEdges().size();
+		}
+		this.firstOutEdge[numberOfNodeIDs] = count;
+
+		//fill edge arrays in the order of the node out-edge lists
+		this.edgeTarget = new int[count];
+		this.edgeID = new int[count];
+		this.previousParallelEdge = new int[count];
+		int[] lastPositionToTarget = new int[numberOfNodeIDs]; //last out-edge position of the current node to each target
+		Arrays.fill(lastPositionToTarget, -1);
+		int position = 0;
+		for (int nodeID = 0; nodeID < numberOfNodeIDs; nodeID++) {
+			DirectedNode node = (DirectedNode) nodeIDtoNode[nodeID];
+			if (node == null) continue;
+			for (Object o: node.getOutEdges()) {
+				DirectedEdge edge = (DirectedEdge) o;
+				int target = edge.getOutNode().getID();
+				this.edgeTarget[position] = target;
+				this.edgeID[position] = edge.getID();
+				int previous = lastPositionToTarget[target];
+				this.previousParallelEdge[position] = (previous >= this.firstOutEdge[nodeID]) ? previous : -1;
+				lastPositionToTarget[target] = position;
+				position++;
+			}
+		}
+	}
+
+	/**
+	 * @return Number of node IDs (the largest node ID + 1).
+	 */
+	public int getNumberOfNodeIDs() {
+
+		return this.nodeX.length;
+	}
+
+	/**
+	 * @return Number of out-edges.
+	 */
+	public int getNumberOfEdges() {
+
+		return this.edgeTarget.length;
+	}
+
+	/**
+	 * @return Number of edges of the graph from which this copy was made.
+	 */
+	public int getNumberOfGraphEdges() {
+
+		return this.numberOfGraphEdges;
+	}
+
+	/**
+	 * @param nodeID Node ID.
+	 * @return Position of the first out-edge of the node.
+	 */
+	public int getFirstOutEdge(int nodeID) {
+
+		return this.firstOutEdge[nodeID];
+	}
+
+	/**
+	 * @param nodeID Node ID.
+	 * @return Position after the last out-edge of the node.
+	 */
+	public int getEndOutEdge(int nodeID) {
+
+		return this.firstOutEdge[nodeID + 1];
+	}
+
+	/**
+	 * @param position Position of the out-edge.
+	 * @return Target node ID.
+	 */
+	public int getEdgeTarget(int position) {
+
+		return this.edgeTarget[position];
+	}
+
+	/**
+	 * @param position Position of the out-edge.
+	 * @return Edge ID.
+	 */
+	public int getEdgeID(int position) {
+
+		return this.edgeID[position];
+	}
+
+	/**
+	 * @param position Position of the out-edge.
+	 * @return Position of the previous out-edge between the same two nodes, or -1 if this is the first one.
+	 */
+	public int getPreviousParallelEdge(int position) {
+
+		return this.previousParallelEdge[position];
+	}
+
+	/**
+	 * @param nodeID Node ID.
+	 * @return Node x coordinate.
+	 */
+	public double getNodeX(int nodeID) {
+
+		return this.nodeX[nodeID];
+	}
+
+	/**
+	 * @param nodeID Node ID.
+	 * @return Node y coordinate.
+	 */
+	public double getNodeY(int nodeID) {
+
+		return this.nodeY[nodeID];
+	}
+}
@@ -0,0 +1,265 @@
+package nismod.transport.network.road;
+
+import java.util.Arrays;
+
+/**
+ * Fastest path search (A* or Dijkstra's algorithm) on the compact road graph.
+ * All working arrays are allocated once and reused between searches, so a router must not be shared between threads.
+ * @author Milan Lovric
+ *
+ */
+public class FastestPathRouter {
+
+	private final CompactRoadGraph graph;
+
+	private final double[] cost; //cost from the origin node
+	private final int[] parentNode; //node from which the node was reached
+	private final int[] parentEdge; //position of the out-edge through which the node was reached
+	private final int[] reachedStamp; //search in which the node was reached
+	private final int[] closedStamp; //search in which the node was closed
+	private int stamp; //current search
+
+	//binary min-heap of open nodes
+	private final int[] heapNode;
+	private final double[] heapKey;
+	private final int[] heapPosition;
+	private int heapSize;
+
+	private int[] pathBuffer; //node or edge IDs traced back from the destination
+
+	/**
+	 * Constructor.
+	 * @param graph Compact road graph.
+	 */
+	public FastestPathRouter(CompactRoadGraph graph) {
+
+		this.graph = graph;
+		final int numberOfNodeIDs = graph.getNumberOfNodeIDs();
+		this.cost = new double[numberOfNodeIDs];
+		this.parentNode = new int[numberOfNodeIDs];
+		this.parentEdge = new int[numberOfNodeIDs];
+		this.reachedStamp = new int[numberOfNodeIDs];
+		this.closedStamp = new int[numberOfNodeIDs];
+		this.heapNode = new int[numberOfNodeIDs];
+		this.heapKey = new double[numberOfNodeIDs];
+		this.heapPosition = new int[numberOfNodeIDs];
+		this.pathBuffer = new int[64];
+	}
+
+	/**
+	 * @return Compact road graph on which this router searches.
+	 */
+	public CompactRoadGraph getGraph() {
+
+		return this.graph;
+	}
+
+	/**
+	 * Finds the fastest path between two nodes.
+	 * The cost of an edge is its link travel time or, if that is 0, its free-flow travel time.
+	 * @param origin Origin node ID.
+	 * @param destination Destination node ID.
+	 * @param linkTravelTime Link travel times [min].
+	 * @param freeFlowTravelTime Free-flow link travel times [min].
+	 * @param heuristicSpeed Speed [kph] used to estimate the remaining travel time from the straight line distance (A*), or 0 for Dijkstra's algorithm.
+	 * @return Node IDs of the path from the origin to the destination, or null if the destination cannot be reached.
+	 */
+	public int[] findPath(int origin, int destination, double[] linkTravelTime, double[] freeFlowTravelTime, double heuristicSpeed) {
+
+		if (!this.search(origin, destination, linkTravelTime, freeFlowTravelTime, heuristicSpeed, -1)) return null;
+
+		//trace back from the destination
+		int size = 0;
+		for (int node = destination; node != -1; node = this.parentNode[node]) {
+			if (size == this.pathBuffer.length) this.pathBuffer = Arrays.copyOf(this.pathBuffer, size * 2);
+			this.pathBuffer[size++] = node;
+		}
+		int[] path = new int[size];
+		for (int i = 0; i < size; i++) path[i] = this.pathBuffer[size - 1 - i];
+		return path;
+	}
+
+	/**
+	 * Finds the fastest path between two nodes while treating one edge as removed from the graph.
+	 * @param origin Origin node ID.
+	 * @param destination Destination node ID.
+	 * @param linkTravelTime Link travel times [min].
+	 * @param freeFlowTravelTime Free-flow link travel times [min].
+	 * @param heuristicSpeed Speed [kph] for the A* heuristic, or 0 for Dijkstra's algorithm.
+	 * @param blockedEdgeID ID of the edge that cannot be used (-1 if none).
+	 * @return Edge IDs of the path from the origin to the destination, or null if the destination cannot be reached.
+	 */
+	public int[] findPathEdges(int origin, int destination, double[] linkTravelTime, double[] freeFlowTravelTime, double heuristicSpeed, int blockedEdgeID) {
+
+		if (!this.search(origin, destination, linkTravelTime, freeFlowTravelTime, heuristicSpeed, blockedEdgeID)) return null;
+
+		//trace back from the destination
+		int size = 0;
+		for (int node = destination; node != origin; node = this.parentNode[node]) {
+			if (size == this.pathBuffer.length) this.pathBuffer = Arrays.copyOf(this.pathBuffer, size * 2);
+			this.pathBuffer[size++] = this.graph.getEdgeID(this.parentEdge[node]);
+		}
+		int[] edges = new int[size];
+		for (int i = 0; i < size; i++) edges[i] = this.pathBuffer[size - 1 - i];
+		return edges;
+	}
+
+	/**
+	 * Runs the search from the origin until the destination is closed.
+	 * @param origin Origin node ID.
+	 * @param destination Destination node ID.
+	 * @param linkTravelTime Link travel times [min].
+	 * @param freeFlowTravelTime Free-flow link travel times [min].
+	 * @param heuristicSpeed Speed [kph] for the A* heuristic, or 0 for Dijkstra's algorithm.
+	 * @param blockedEdgeID ID of the edge that cannot be used (-1 if none).
+	 * @return True if the destination has been reached.
+	 */
+	private boolean search(int origin, int destination, double[] linkTravelTime, double[] freeFlowTravelTime, double heuristicSpeed, int blockedEdgeID) {
+
+		this.nextStamp();
+		final boolean useHeuristic = heuristicSpeed > 0.0;
+		final double destinationX = this.graph.getNodeX(destination);
+		final double destinationY = this.graph.getNodeY(destination);
+
+		this.heapSize = 0;
+		this.cost[origin] = 0.0;
+		this.parentNode[origin] = -1;
+		this.parentEdge[origin] = -1;
+		this.reachedStamp[origin] = this.stamp;
+		this.push(origin, useHeuristic ? this.heuristic(origin, destinationX, destinationY, heuristicSpeed) : 0.0);
+
+		while (this.heapSize > 0) {
+			final int node = this.pop();
+			if (node == destination) return true;
+			this.closedStamp[node] = this.stamp;
+			final double nodeCost = this.cost[node];
+			final int end = this.graph.getEndOutEdge(node);
+			for (int position = this.graph.getFirstOutEdge(node); position < end; position++) {
+				final int target = this.graph.getEdgeTarget(position);
+				if (this.closedStamp[target] == this.stamp) continue;
+				final int edgeID = this.graph.getEdgeID(position);
+				if (edgeID == blockedEdgeID || !this.isFirstUnblocked(position, blockedEdgeID)) continue;
+				double edgeCost = linkTravelTime[edgeID];
+				if (edgeCost == 0.0) edgeCost = freeFlowTravelTime[edgeID];
+				final double newCost = nodeCost + edgeCost;
+				if (this.reachedStamp[target] != this.stamp) {
+					this.reachedStamp[target] = this.stamp;
+					this.cost[target] = newCost;
+					this.parentNode[target] = node;
+					this.parentEdge[target] = position;
+					this.push(target, useHeuristic ? newCost + this.heuristic(target, destinationX, destinationY, heuristicSpeed) : newCost);
+				} else if (newCost < this.cost[target]) {
+					this.cost[target] = newCost;
+					this.parentNode[target] = node;
+					this.parentEdge[target] = position;
+					this.decreaseKey(target, useHeuristic ? newCost + this.heuristic(target, destinationX, destinationY, heuristicSpeed) : newCost);
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Checks if all previous parallel edges are blocked, so this out-edge is the one that connects the two nodes.
+	 * @param position Position of the out-edge.
+	 * @param blockedEdgeID ID of the blocked edge.
+	 * @return True if the out-edge is the first unblocked edge between the two nodes.
+	 */
+	private boolean isFirstUnblocked(int position, int blockedEdgeID) {
+
+		for (int previous = this.graph.getPreviousParallelEdge(position); previous != -1; previous = this.graph.getPreviousParallelEdge(previous))
+			if (this.graph.getEdgeID(previous) != blockedEdgeID) return false;
+		return true;
+	}
+
+	/**
+	 * Estimates the travel time from a node to the destination.
+	 * @param node Node ID.
+	 * @param destinationX Destination x coordinate.
+	 * @param destinationY Destination y coordinate.
+	 * @param heuristicSpeed Speed [kph].
+	 * @return Travel time [min].
+	 */
+	private double heuristic(int node, double destinationX, double destinationY, double heuristicSpeed) {
+
+		final double dx = this.graph.getNodeX(node) - destinationX;
+		final double dy = this.graph.getNodeY(node) - destinationY;
+		final double distance = Math.sqrt(dx * dx + dy * dy) / 1000.0; //from metres to kilometres
+		return distance / heuristicSpeed * 60;
+	}
+
+	private void nextStamp() {
+
+		if (this.stamp == Integer.MAX_VALUE) {
+			Arrays.fill(this.reachedStamp, 0);
+			Arrays.fill(this.closedStamp, 0);
+			this.stamp = 0;
+		}
+		this.stamp++;
+	}
+
+	private void push(int node, double key) {
+
+		int i = this.heapSize++;
+		this.heapNode[i] = node;
+		this.heapKey[i] = key;
+		this.heapPosition[node] = i;
+		this.siftUp(i);
+	}
+
+	private void decreaseKey(int node, double key) {
+
+		final int i = this.heapPosition[node];
+		this.heapKey[i] = key;
+		this.siftUp(i);
+	}
+
+	private int pop() {
+
+		final int top = this.heapNode[0];
+		this.heapSize--;
+		if (this.heapSize > 0) {
+			this.heapNode[0] = this.heapNode[this.heapSize];
+			this.heapKey[0] = this.heapKey[this.heapSize];
+			this.heapPosition[this.heapNode[0]] = 0;
+			this.siftDown(0);
+		}
+		return top;
+	}
+
+	private void siftUp(int i) {
+
+		final int node = this.heapNode[i];
+		final double key = this.heapKey[i];
+		while (i > 0) {
+			final int parent = (i - 1) >>> 1;
+			if (this.heapKey[parent] <= key) break;
+			this.heapNode[i] = this.heapNode[parent];
+			this.heapKey[i] = this.heapKey[parent];
+			this.heapPosition[this.heapNode[i]] = i;
+			i = parent;
+		}
+		this.heapNode[i] = node;
+		this.heapKey[i] = key;
+		this.heapPosition[node] = i;
+	}
+
+	private void siftDown(int i) {
+
+		final int node = this.heapNode[i];
+		final double key = this.heapKey[i];
+		while (true) {
+			int child = 2 * i + 1;
+			if (child >= this.heapSize) break;
+			if (child + 1 < this.heapSize && this.heapKey[child + 1] < this.heapKey[child]) child++;
+			if (this.heapKey[child] >= key) break;
+			this.heapNode[i] = this.heapNode[child];
+			this.heapKey[i] = this.heapKey[child];
+			this.heapPosition[this.heapNode[i]] = i;
+			i = child;
+		}
+		this.heapNode[i] = node;
+		this.heapKey[i] = key;
+		this.heapPosition[node] = i;
+	}
+}
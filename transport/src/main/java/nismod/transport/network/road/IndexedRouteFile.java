@@ -0,0 +1,267 @@
+package nismod.transport.network.road;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Route file with an index of node pairs, which allows route sets to be decoded only when they are needed.
+ * The header contains the index of (origin, destination) node pairs (sorted), with the offset and the number
+ * of routes of each route set. The data is memory-mapped, so only the parts of the file that are actually
+ * decoded are loaded into memory.
+ *
+ * Layout (big-endian): magic, version, number of node pairs, maximum block size in bytes,
+ * (version 2 only) segment length, number of segments and the segments of the {@link RouteCodec} dictionary,
+ * index entries (node pair key, block offset, number of routes), and the blocks of route sets.
+ * In version 1, each route is stored as the number of edges followed by the edge IDs,
+ * in version 2, each route is encoded with the {@link RouteCodec}.
+ * @author Milan Lovric
+ *
+ */
+public class IndexedRouteFile {
+
+	public static final int MAGIC = 0x52534958; //identifies indexed route files
+	public static final int FORMAT_VERSION = 1; //plain edge IDs
+	public static final int FORMAT_VERSION_COMPRESSED = 2; //routes encoded with the route codec
+
+	private static final int HEADER_BYTES = 16;
+	private static final int INDEX_ENTRY_BYTES = 20;
+	private static final long SEGMENT_BYTES = 1L << 30; //memory-mapped segments overlap by the maximum block size, so no block crosses them
+
+	private final String fileName;
+	private final long[] keys; //node pair keys (sorted)
+	private final long[] offsets; //offsets of the route set blocks
+	private final int[] routeCounts; //number of routes in each route set
+	private final MappedByteBuffer[] segments;
+	private final RouteCodec codec; //null for plain edge IDs
+
+	/**
+	 * Opens the indexed route file (reads the index and maps the data into memory).
+	 * @param fileName File name.
+	 * @throws IOException if the file cannot be read or is not an indexed route file.
+	 */
+	public IndexedRouteFile(String fileName) throws IOException {
+
+		this.fileName = fileName;
+		int maxBlockBytes;
+
+		try (DataInputStream data = new DataInputStream(new BufferedInputStream(new FileInputStream(fileName), 1 << 16))) {
+			if (data.readInt() != MAGIC) throw new IOException("File " + fileName + " is not an indexed route file.");
+			int version = data.readInt();
+			if (version != FORMAT_VERSION && version != FORMAT_VERSION_COMPRESSED) throw new IOException("Indexed route file " + fileName + " has unsupported format version " + version + ".");
+			int pairs = data.readInt();
+			maxBlockBytes = data.readInt();
+			
+			if (version == FORMAT_VERSION_COMPRESSED) {
+				int segmentLength = data.readInt();
+				int[][] dictionary = new int[data.readInt()][segmentLength];
+				for (int[] segment: dictionary)
+					for (int j = 0; j < segmentLength; j++) segment[j] = data.readInt();
+				this.codec = new RouteCodec(segmentLength, dictionary);
+			} else
+				this.codec = null;
+
+			this.keys = new long[pairs];
+			this.offsets = new long[pairs];
+			this.routeCounts = new int[pairs];
+			for (int i = 0; i < pairs; i++) {
+				this.keys[i] = data.readLong();
+				this.offsets[i] = data.readLong();
+				this.routeCounts[i] = data.readInt();
+			}
+		}
+
+		try (RandomAccessFile raf = new RandomAccessFile(fileName, "r"); FileChannel channel = raf.getChannel()) {
+			long length = channel.size();
+			int segmentCount = (int) ((length + SEGMENT_BYTES - 1) / SEGMENT_BYTES);
+			this.segments = new MappedByteBuffer[segmentCount];
+			for (int i = 0; i < segmentCount; i++) {
+				long start = i * SEGMENT_BYTES;
+				this.segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT_BYTES + maxBlockBytes, length - start));
+			}
+		}
+	}
+
+	/**
+	 * Checks whether the file is an indexed route file (by its magic number).
+	 * @param fileName File name.
+	 * @return True if the file is an indexed route file.
+	 */
+	public static boolean isIndexedRouteFile(String fileName) {
+
+		File file = new File(fileName);
+		if (!file.isFile() || file.length() < HEADER_BYTES) return false;
+		try (DataInputStream data = new DataInputStream(new FileInputStream(file))) {
+			return data.readInt() == MAGIC;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Writes route sets into an indexed route file (with plain edge IDs).
+	 * @param fileName File name.
+	 * @param keys Node pair keys of the route sets (sorted, see {@link RouteSetGenerator#getNodePairKey(int, int)}).
+	 * @param routeSets Route sets (in the same order as the keys).
+	 * @throws IOException if any.
+	 */
+	public static void write(String fileName, long[] keys, List<RouteSet> routeSets) throws IOException {
+
+		write(fileName, keys, routeSets, null);
+	}
+
+	/**
+	 * Writes route sets into an indexed route file.
+	 * @param fileName File name.
+	 * @param keys Node pair keys of the route sets (sorted, see {@link RouteSetGenerator#getNodePairKey(int, int)}).
+	 * @param routeSets Route sets (in the same order as the keys).
+	 * @param codec Route codec used for encoding the routes (null for plain edge IDs).
+	 * @throws IOException if any.
+	 */
+	public static void write(String fileName, long[] keys, List<RouteSet> routeSets, RouteCodec codec) throws IOException {
+
+		int headerBytes = HEADER_BYTES;
+		if (codec != null) headerBytes += 8 + 4 * codec.getSegmentLength() * codec.getSegments().length;
+
+		//block sizes are needed in advance for the index
+		long[] offsets = new long[keys.length];
+		long offset = headerBytes + (long) INDEX_ENTRY_BYTES * keys.length;
+		int maxBlockBytes = 0;
+		int maxRouteBytes = 0;
+		for (int i = 0; i < keys.length; i++) {
+			if (i > 0 && keys[i] <= keys[i-1]) throw new IllegalArgumentException("Node pair keys must be sorted and unique.");
+			offsets[i] = offset;
+			long blockBytes = 0;
+			for (Route route: routeSets.get(i).getChoiceSet()) {
+				int routeBytes = (codec == null) ? 4 * (1 + route.getEdges().size()) : codec.encodedBytes(route.getEdges().toArray());
+				maxRouteBytes = Math.max(maxRouteBytes, routeBytes);
+				blockBytes += routeBytes;
+			}
+			if (blockBytes > Integer.MAX_VALUE - SEGMENT_BYTES) throw new IllegalArgumentException("Route set is too large for the indexed route file.");
+			maxBlockBytes = Math.max(maxBlockBytes, (int) blockBytes);
+			offset += blockBytes;
+		}
+
+		try (DataOutputStream data = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fileName), 1 << 16))) {
+			data.writeInt(MAGIC);
+			data.writeInt((codec == null) ? FORMAT_VERSION : FORMAT_VERSION_COMPRESSED);
+			data.writeInt(keys.length);
+			data.writeInt(maxBlockBytes);
+			if (codec != null) {
+				data.writeInt(codec.getSegmentLength());
+				data.writeInt(codec.getSegments().length);
+				for (int[] segment: codec.getSegments())
+					for (int edgeID: segment) data.writeInt(edgeID);
+			}
+			for (int i = 0; i < keys.length; i++) {
+				data.writeLong(keys[i]);
+				data.writeLong(offsets[i]);
+				data.writeInt(routeSets.get(i).getSize());
+			}
+
+			ByteBuffer buffer = ByteBuffer.allocate(maxRouteBytes);
+			for (RouteSet rs: routeSets)
+				for (Route route: rs.getChoiceSet()) {
+					if (codec == null) {
+						data.writeInt(route.getEdges().size());
+						for (int j = 0; j < route.getEdges().size(); j++)
+							data.writeInt(route.getEdges().getQuick(j));
+					} else {
+						buffer.clear();
+						codec.encode(route.getEdges().toArray(), buffer);
+						data.write(buffer.array(), 0, buffer.position());
+					}
+				}
+		}
+	}
+
+	/**
+	 * Finds the position of the route set in the index.
+	 * @param key Node pair key.
+	 * @return Position in the index, or a negative number if the file does not contain the route set.
+	 */
+	public int indexOf(long key) {
+
+		return Arrays.binarySearch(this.keys, key);
+	}
+
+	/**
+	 * Decodes the edges of all the routes of a route set (safe to call from multiple threads).
+	 * @param index Position in the index.
+	 * @return Edge IDs of each route.
+	 */
+	public int[][] getRoutes(int index) {
+
+		long offset = this.offsets[index];
+		int segment = (int) (offset / SEGMENT_BYTES);
+		ByteBuffer buffer = this.segments[segment].duplicate(); //independent position for each call
+		buffer.position((int) (offset - segment * SEGMENT_BYTES));
+
+		int[][] routes = new int[this.routeCounts[index]][];
+		for (int i = 0; i < routes.length; i++) {
+			if (this.codec != null) {
+				routes[i] = this.codec.decode(buffer);
+				continue;
+			}
+			int[] edges = new int[buffer.getInt()];
+			buffer.asIntBuffer().get(edges);
+			buffer.position(buffer.position() + 4 * edges.length);
+			routes[i] = edges;
+		}
+
+		return routes;
+	}
+
+	/**
+	 * @param index Position in the index.
+	 * @return Node pair key.
+	 */
+	public long getKey(int index) {
+
+		return this.keys[index];
+	}
+
+	/**
+	 * @param index Position in the index.
+	 * @return Number of routes in the route set.
+	 */
+	public int getRouteCount(int index) {
+
+		return this.routeCounts[index];
+	}
+
+	/**
+	 * @return Route codec (null if the file contains plain edge IDs).
+	 */
+	public RouteCodec getCodec() {
+
+		return this.codec;
+	}
+
+	/**
+	 * @return Number of route sets (node pairs) in the file.
+	 */
+	public int size() {
+
+		return this.keys.length;
+	}
+
+	/**
+	 * @return File name.
+	 */
+	public String getFileName() {
+
+		return this.fileName;
+	}
+}
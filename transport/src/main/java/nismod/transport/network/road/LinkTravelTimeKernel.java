@@ -0,0 +1,187 @@
+package nismod.transport.network.road;
+
+import java.util.Arrays;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import nismod.transport.utility.ParallelTasks;
+
+/**
+ * Calculates congested link travel times from link volumes using the speed-flow curves from FORGE (Department for Transport, 2005),
+ * with the over-capacity formula from WebTAG. Edges are grouped by type into contiguous ranges (motorways, A-roads, other edges),
+ * so each range is processed with a branch-free loop over primitive arrays (instead of looking up the edge type of each edge for each hour).
+ * Link volumes and travel times are stored as [hour][edge] matrices and the hours can be processed in parallel.
+ * @author Milan Lovric
+ *
+ */
+public class LinkTravelTimeKernel {
+
+	private final static Logger LOGGER = LogManager.getLogger(LinkTravelTimeKernel.class);
+
+	public static final int MIN_EDGES_PER_PARALLEL_UPDATE = 10000; //smaller networks are updated in a single thread
+
+	private final int[] edges; //edge IDs grouped by type (sorted within each group)
+	private final int motorwayEnd; //end (exclusive) of the motorway range
+	private final int aRoadEnd; //end (exclusive) of the A-road range, other edges (ferries) follow
+
+	/**
+	 * Constructor.
+	 * @param motorwayEdges IDs of motorway edges.
+	 * @param aRoadEdges IDs of A-road edges.
+	 * @param otherEdges IDs of other edges (ferries), whose travel time is fixed to the free-flow travel time.
+	 */
+	public LinkTravelTimeKernel(int[] motorwayEdges, int[] aRoadEdges, int[] otherEdges) {
+
+		this.edges = new int[motorwayEdges.length + aRoadEdges.length + otherEdges.length];
+		this.motorwayEnd = motorwayEdges.length;
+		this.aRoadEnd = this.motorwayEnd + aRoadEdges.length;
+		System.arraycopy(motorwayEdges, 0, this.edges, 0, motorwayEdges.length);
+		System.arraycopy(aRoadEdges, 0, this.edges, this.motorwayEnd, aRoadEdges.length);
+		System.arraycopy(otherEdges, 0, this.edges, this.aRoadEnd, otherEdges.length);
+
+		//sorted edge IDs give sequential access to the edge arrays
+		Arrays.sort(this.edges, 0, this.motorwayEnd);
+		Arrays.sort(this.edges, this.motorwayEnd, this.aRoadEnd);
+		Arrays.sort(this.edges, this.aRoadEnd, this.edges.length);
+	}
+
+	/**
+	 * Updates link travel times using weighted averaging between new values (calculated from link volumes)
+	 * and old values (which are overwritten).
+	 * @param volumes Link volumes in PCU [hour][edge].
+	 * @param times Link travel times [hour][edge] in minutes (old values are replaced with the averaged values).
+	 * @param numberOfLanes Number of lanes per edge.
+	 * @param edgeLengths Edge lengths [km].
+	 * @param freeFlowTravelTime Free-flow travel times [min] (used for ferries and for edges without an old travel time).
+	 * @param weight Parameter for weighted averaging.
+	 * @param threads Number of threads (hours are processed in parallel if more than one).
+	 */
+	public void update(final double[][] volumes, final double[][] times, final int[] numberOfLanes, final double[] edgeLengths, final double[] freeFlowTravelTime, final double weight, int threads) {
+
+		final int hours = times.length;
+		threads = Math.max(1, Math.min(threads, hours));
+		if (this.edges.length < MIN_EDGES_PER_PARALLEL_UPDATE) threads = 1; //not worth starting the threads
+
+		//travel times are updated in place, so a failed update cannot be simply repeated
+		ParallelTasks.forEachRange(hours, threads, (fromHour, toHour) -> {
+			for (int hour = fromHour; hour < toHour; hour++)
+				this.updateHour(volumes[hour], times[hour], numberOfLanes, edgeLengths, freeFlowTravelTime, weight);
+		}, "link travel time update");
+	}
+
+	/**
+	 * Updates link travel times for one hour.
+	 * @param volumes Link volumes in PCU.
+	 * @param times Link travel times [min].
+	 * @param numberOfLanes Number of lanes per edge.
+	 * @param edgeLengths Edge lengths [km].
+	 * @param freeFlowTravelTime Free-flow travel times [min].
+	 * @param weight Parameter for weighted averaging.
+	 */
+	public void updateHour(double[] volumes, double[] times, int[] numberOfLanes, double[] edgeLengths, double[] freeFlowTravelTime, double weight) {
+
+		if (times == null) {
+			LOGGER.error("No hourly travel times.");
+			return;
+		}
+
+		/*
+		//Bureau of Public Roads (1964) formulation
+		if (roadNumber.charAt(0) == 'M') //motorway
+			congestedTravelTime = linkFreeFlowTravelTime.get(edge.getID())*(1 + ALPHA * Math.pow(PEAK_HOUR_PERCENTAGE * linkVolumeInPCU / numberOfLanes.get(edge.getID()) / MAXIMUM_CAPACITY_M_ROAD, BETA_M_ROAD));
+		else if (roadNumber.charAt(0) == 'A') //A-road
+			congestedTravelTime = linkFreeFlowTravelTime.get(edge.getID())*(1 + ALPHA * Math.pow(PEAK_HOUR_PERCENTAGE * linkVolumeInPCU / numberOfLanes.get(edge.getID()) / MAXIMUM_CAPACITY_A_ROAD, BETA_A_ROAD));
+		else //ferry
+			congestedTravelTime = linkFreeFlowTravelTime.get(edge.getID());
+		 */
+
+		//motorways
+		for (int i = 0; i < this.motorwayEnd; i++) {
+			int edgeID = this.edges[i];
+			double roadLength = edgeLengths[edgeID]; //[km]
+			double flow = volumes[edgeID] / numberOfLanes[edgeID];
+			double speed;
+			if (flow < 1398) speed = ((69.96 - 71.95) / 1398 * flow + 71.95) * 1.609344; //[kph]
+			else if (flow < 2330) speed = ((34.55 - 69.96) / (2330 - 1398) * (flow - 1398) + 69.96) * 1.609344; //[kph]
+			else {
+				//flow higher than maximum (user over-capacity formula from WebTAG)
+				double E = flow / 2330;
+				double B = 0.5;
+				double speedC = 34.55;
+				double tc = roadLength / speedC; //h
+				speed = roadLength / (tc + B * (E - 1.0));
+			}
+			times[edgeID] = average(times[edgeID], roadLength / speed * 60, edgeID, freeFlowTravelTime, weight);
+		}
+
+		//A-roads
+		for (int i = this.motorwayEnd; i < this.aRoadEnd; i++) {
+			int edgeID = this.edges[i];
+			double roadLength = edgeLengths[edgeID]; //[km]
+			double flow = volumes[edgeID] / numberOfLanes[edgeID];
+			double speed;
+			if (flow < 1251) speed = ((50.14 - 56.05) / 1251 * flow + 56.05) * 1.609344; //[kph]
+			else if (flow < 1740) speed = ((27.22 - 50.14) / (1740 - 1251) * (flow - 1251) + 50.14) * 1.609344; //[kph]
+			else {
+				//flow higher than maximum (user over-capacity formula from WebTAG)
+				double E = flow / 1740;
+				double B = 0.15;
+				double speedC = 27.22;
+				double tc = roadLength / speedC; //h
+				speed = roadLength / (tc + B * (E - 1.0));
+			}
+			times[edgeID] = average(times[edgeID], roadLength / speed * 60, edgeID, freeFlowTravelTime, weight);
+		}
+
+		//ferries (travel time is fixed)
+		for (int i = this.aRoadEnd; i < this.edges.length; i++) {
+			int edgeID = this.edges[i];
+			times[edgeID] = average(times[edgeID], freeFlowTravelTime[edgeID], edgeID, freeFlowTravelTime, weight);
+		}
+	}
+
+	/**
+	 * @return Number of motorway edges.
+	 */
+	public int getMotorwayCount() {
+
+		return this.motorwayEnd;
+	}
+
+	/**
+	 * @return Number of A-road edges.
+	 */
+	public int getARoadCount() {
+
+		return this.aRoadEnd - this.motorwayEnd;
+	}
+
+	/**
+	 * @return Number of other edges (ferries).
+	 */
+	public int getOtherCount() {
+
+		return this.edges.length - this.aRoadEnd;
+	}
+
+	/**
+	 * Averages the congested travel time with the old travel time.
+	 * @param oldLinkTravelTime Old link travel time (zero if not available).
+	 * @param congestedTravelTime Congested link travel time.
+	 * @param edgeID Edge ID.
+	 * @param freeFlowTravelTime Free-flow travel times.
+	 * @param weight Parameter for weighted averaging.
+	 * @return Averaged link travel time.
+	 */
+	private static double average(double oldLinkTravelTime, double congestedTravelTime, int edgeID, double[] freeFlowTravelTime, double weight) {
+
+		if (oldLinkTravelTime == 0.0) {
+			//fetch from the road network, which was likely modified by a road development intervention
+			oldLinkTravelTime = freeFlowTravelTime[edgeID];
+			if (oldLinkTravelTime == 0.0) LOGGER.error("No link travel time for edge {}", edgeID);
+		}
+
+		return weight * congestedTravelTime + (1 - weight) * oldLinkTravelTime; //averaging
+	}
+}
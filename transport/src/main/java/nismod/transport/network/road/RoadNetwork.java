@@ -27,6 +27,7 @@ import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.geotools.data.CachingFeatureSource;
+import org.geotools.data.DataUtilities;
 import org.geotools.data.DefaultTransaction;
 import org.geotools.data.Transaction;
 import org.geotools.data.collection.ListFeatureCollection;
@@ -62,7 +63,11 @@ import org.opengis.referencing.FactoryException;
 import org.opengis.referencing.NoSuchAuthorityCodeException;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
 
+import gnu.trove.list.array.TIntArrayList;
 import nismod.transport.network.road.RoadNetworkAssignment.VehicleType;
+import nismod.transport.utility.PolygonIndex;
+import nismod.transport.utility.SnapshotReader;
+import nismod.transport.utility.SnapshotWriter;
 
 import org.locationtech.jts.geom.Coordinate;
 import org.locationtech.jts.geom.GeometryFactory;
@@ -91,7 +96,8 @@ public class RoadNetwork {
 	private DijkstraIterator.EdgeWeighter dijkstraTimeWeighter;
 	private HashMap<Integer, String> nodeToZone;
 	private HashMap<Integer, String> edgeToZone;
-	private HashMap<String, List<Integer>> zoneToNodes;
+	private volatile HashMap<String, List<Integer>> zoneToNodes; //replaced (not modified) when the zone nodes are sorted again
+	private int[] zoneNodesSortedBy; //population by which the zone nodes are currently sorted
 	private HashMap<String, List<String>> zoneToAreaCodes;
 	private HashMap<String, Integer> areaCodeToNearestNodeID;
 	private HashMap<String, Double> areaCodeToNearestNodeDistance; //[m]
@@ -139,6 +145,14 @@ public class RoadNetwork {
 	public int maximumNodeID; //for the entire network
 	private double accessEgressFactor;
 	
+	private boolean flagUseCompactRouter; //use compact graph router instead of GeoTools path finders
+	private volatile CompactRoadGraph compactGraph; //built lazily, discarded whenever the graph changes
+	private LinkTravelTimeKernel travelTimeKernel; //built lazily, discarded whenever the graph or edge types change
+	private final ThreadLocal<FastestPathRouter> routers = new ThreadLocal<FastestPathRouter>();
+	
+	private File snapshotFile; //snapshot of the node and edge arrays derived from the inputs (null if not used)
+	private long inputsFingerprint; //fingerprint of the inputs from which the network was built
+	
 	public static enum EdgeType {
 		AROAD, MOTORWAY, FERRY
 	}
@@ -155,6 +169,10 @@ public class RoadNetwork {
 	 * @param freightZoneToLADfile Path to the file with freight zone to LAD mapping.
 	 * @param freightZoneNearestNodeFile Path to the file with nearest nodes to freight zones that are points.
 	 * @param params Properties with parameters from the config file.
+	 * If they contain roadNetworkSnapshotFile, the node and edge arrays derived from the inputs (zone mappings, blacklists,
+	 * edge types, lanes, lengths, free-flow travel times and gravitating populations) are loaded from that snapshot
+	 * (when it was created from the same inputs), otherwise they are calculated and the snapshot is written.
+	 * The graph itself is always built from the shapefiles.
 	 * @throws IOException if any.
 	 */
 	public RoadNetwork(URL zonesUrl, URL networkUrl, URL nodesUrl, URL AADFurl, String areaCodeFileName, String areaCodeNearestNodeFile, String workplaceZoneFileName, String workplaceZoneNearestNodeFile, String freightZoneToLADfile, String freightZoneNearestNodeFile, Properties params) throws IOException {
@@ -190,9 +208,29 @@ public class RoadNetwork {
 		this.maximumEdgeID = Integer.parseInt(params.getProperty("MAXIMUM_EDGE_ID"));
 		this.maximumNodeID = Integer.parseInt(params.getProperty("MAXIMUM_NODE_ID"));
 		this.accessEgressFactor = Double.parseDouble(params.getProperty("ACCESS_EGRESS_LAD_DISTANCE_SCALING_FACTOR"));
+		this.flagUseCompactRouter = Boolean.parseBoolean(params.getProperty("FLAG_USE_COMPACT_ROUTER", "false"));
 		
 		//build the graph
 		this.build();
+		
+		String snapshotFileName = params.getProperty("roadNetworkSnapshotFile");
+		this.snapshotFile = (snapshotFileName == null || snapshotFileName.trim().isEmpty()) ? null : new File(snapshotFileName.trim());
+		this.inputsFingerprint = SnapshotWriter.fingerprint(describeShapefile(zonesUrl), describeShapefile(networkUrl), describeShapefile(nodesUrl), describeShapefile(AADFurl),
+				SnapshotWriter.describeFile(new File(areaCodeFileName)), SnapshotWriter.describeFile(new File(areaCodeNearestNodeFile)),
+				SnapshotWriter.describeFile(new File(workplaceZoneFileName)), SnapshotWriter.describeFile(new File(workplaceZoneNearestNodeFile)),
+				this.freeFlowSpeedMRoad, this.freeFlowSpeedARoad, this.averageSpeedFerry,
+				this.numberOfLanesARoadSingleCarriageway, this.numberOfLanesARoadDualCarriageway, this.numberOfLanesARoadCollapsedDualCarriageway,
+				this.numberOfLanesARoadSlipRoad, this.numberOfLanesARoadRoundabout, this.numberOfLanesMRoadDualCarriageway,
+				this.numberOfLanesMRoadCollapsedDualCarriageway, this.numberOfLanesMRoadSlipRoad,
+				this.maximumEdgeID, this.maximumNodeID, this.accessEgressFactor);
+		File snapshot = this.getSnapshotFile("network");
+		long fingerprint = (snapshot == null) ? 0L : SnapshotWriter.fingerprint(this.inputsFingerprint, this.getGraphHash());
+		
+		boolean loadedFromSnapshot = (snapshot != null && this.loadSnapshot(snapshot, fingerprint, true));
+		if (loadedFromSnapshot)
+			LOGGER.debug("Loaded node and edge arrays from snapshot {}.", snapshot);
+		else
+			this.calculateNodeAndEdgeArrays();
 
 		//weight the edges of the graph using the physical distance of each road segment		
 		this.dijkstraWeighter = new EdgeWeighter() {
@@ -227,19 +265,26 @@ public class RoadNetwork {
 		};
 		
 
-		this.calculateFreeFlowTravelTime(); //requries edge lenghts and edge types
+		if (!loadedFromSnapshot) this.calculateFreeFlowTravelTime(); //requries edge lenghts and edge types
 		
 		this.loadAreaCodePopulationData(areaCodeFileName);
 		this.loadAreaCodeNearestNodeAndDistance(areaCodeNearestNodeFile);
 		this.loadWorkplaceZonePopulationData(workplaceZoneFileName);
 		this.loadWorkplaceZoneNearestNodeAndDistance(workplaceZoneNearestNodeFile);
 		
-		this.calculateNodeGravitatingPopulation();
-		this.calculateNodeAccessEgressDistance();
-		this.sortGravityNodes();
+		if (!loadedFromSnapshot) {
+			this.calculateNodeGravitatingPopulation();
+			this.calculateNodeAccessEgressDistance();
+			this.calculateNodeGravitatingWorkplacePopulation();
+			this.calculateNodeAccessEgressDistanceFreight();
+			
+			if (snapshot != null) {
+				LOGGER.debug("Writing node and edge arrays into snapshot {}...", snapshot);
+				this.saveSnapshot(snapshot, fingerprint, true);
+			}
+		}
 		
-		this.calculateNodeGravitatingWorkplacePopulation();
-		this.calculateNodeAccessEgressDistanceFreight();
+		this.sortGravityNodes();
 		//this.sortGravityNodesFreight(); //call this before freight assignment
 		
 		this.loadFreightZoneNearestNodeAndDistance(freightZoneNearestNodeFile);
@@ -279,6 +324,8 @@ public class RoadNetwork {
 	public void replaceNetworkEdgeIDs(URL networkShapeFile) throws IOException {
 		
 		LOGGER.info("Replacing network edges IDs with persistent ones...");
+		this.compactGraph = null;
+		this.travelTimeKernel = null;
 		
 		ShapefileDataStore networkShapefile = new ShapefileDataStore(networkShapeFile);
 		CachingFeatureSource cache2 = new CachingFeatureSource(networkShapefile.getFeatureSource());
@@ -311,29 +358,43 @@ public class RoadNetwork {
 			//force recreation of direct access edge maps
 			this.createDirectAccessEdgeMap();
 			this.createEdgeToOtherDirectionEdgeMap();
-			//update information on edge type
-			this.determineEdgesType();
-			//updates number of lanes with new edge ids
-			this.addNumberOfLanes();
-			//store edge lengths to the instance map
-			this.storeEdgesLengths();
-			//re-calculate free flow travel time (requires edge lengths and edge types!)
-			this.calculateFreeFlowTravelTime();
-			//update information on urban/rural
-			this.determineEdgesUrbanRural();
 		} finally {
 			//feature iterator is a live connection that must be closed
 			iter.close();
 		}
 		
+		File snapshot = this.getSnapshotFile("edgeIDs");
+		long fingerprint = (snapshot == null) ? 0L : SnapshotWriter.fingerprint(this.inputsFingerprint, describeShapefile(networkShapeFile), this.getGraphHash());
+		if (snapshot != null && this.loadSnapshot(snapshot, fingerprint, false)) {
+			LOGGER.debug("Loaded edge arrays from snapshot {}.", snapshot);
+			return;
+		}
+		
+		//update information on edge type
+		this.determineEdgesType();
+		//updates number of lanes with new edge ids
+		this.addNumberOfLanes();
+		//store edge lengths to the instance map
+		this.storeEdgesLengths();
+		//re-calculate free flow travel time (requires edge lengths and edge types!)
+		this.calculateFreeFlowTravelTime();
+		//update information on urban/rural
+		this.determineEdgesUrbanRural();
+		
 		//edges must be remapped
 		CachingFeatureSource cache = new CachingFeatureSource(zonesShapefile.getFeatureSource());
 		SimpleFeatureCollection zonesFeatureCollection = cache.getFeatures();
 		this.mapEdgesToZones(zonesFeatureCollection);
+		
+		if (snapshot != null) {
+			LOGGER.debug("Writing edge arrays into snapshot {}...", snapshot);
+			this.saveSnapshot(snapshot, fingerprint, false);
+		}
 	}
 	
 	/**
 	 * Overrides actual edge lengths with straight line distances, when they are smaller than straight line distances.
+	 * The edge features are modified too, so this is always calculated (also when the edge lengths were loaded from a snapshot).
 	 */
 	public void makeEdgesAdmissible() {
 	
@@ -863,6 +924,8 @@ public class RoadNetwork {
 		graphBuilder.addEdge(directedEdge);
 		
 		this.network = (DirectedGraph) graphBuilder.getGraph();
+		this.compactGraph = null;
+		this.travelTimeKernel = null;
 		
 		//add edge to list
 		this.edgeIDtoEdge[directedEdge.getID()] = directedEdge;
@@ -881,6 +944,7 @@ public class RoadNetwork {
 		//this.edgeLengths.put(directedEdge.getID(), length);
 		this.edgeLengths[directedEdge.getID()] = length;
 		
+		this.travelTimeKernel = null; //edge type is set after the graph has changed
 		if (roadCategory == 'A')
 			this.edgesType[directedEdge.getID()] = EdgeType.AROAD;
 		else if (roadCategory == 'M')
@@ -959,6 +1023,8 @@ public class RoadNetwork {
 		edge.setID(edgeID); //override with exact ID
 		
 		this.network = (DirectedGraph) graphBuilder.getGraph();
+		this.compactGraph = null;
+		this.travelTimeKernel = null;
 		
 		//update
 		this.edgeIDtoEdge[edgeID] = edge;
@@ -1012,6 +1078,8 @@ public class RoadNetwork {
 		graphBuilder.removeEdge(edge);
 		
 		this.network = (DirectedGraph) graphBuilder.getGraph();
+		this.compactGraph = null;
+		this.travelTimeKernel = null;
 		
 		//update
 		this.edgeIDtoEdge[edge.getID()] = null;
@@ -1181,6 +1249,24 @@ public class RoadNetwork {
 	 */
 	public RoadPath getFastestPath(DirectedNode from, DirectedNode to, double[] linkTravelTime) {
 
+		return this.getFastestPath(from, to, linkTravelTime, this.flagUseCompactRouter);
+	}
+	
+	/**
+	 * Gets the fastest path between two nodes using astar algorithm and provided link travel times.
+	 * Links which have no travel time provided will use free flow travel times.
+	 * The compact graph router can be requested for this query only (e.g. by concurrent callers, as GeoTools path finders are not thread-safe).
+	 * @param from Origin node.
+	 * @param to Destination node.
+	 * @param linkTravelTime The map with link travel times.
+	 * @param useCompactRouter True to use the compact graph router (if its graph matches the network), false to use GeoTools path finders.
+	 * @return Fastest path.
+	 */
+	public RoadPath getFastestPath(DirectedNode from, DirectedNode to, double[] linkTravelTime, boolean useCompactRouter) {
+
+		if (from.getID() != to.getID() && this.canUseCompactRouter(useCompactRouter))
+			return this.getFastestPathCompact(from, to, linkTravelTime == null ? this.freeFlowTravelTime : linkTravelTime, this.freeFlowSpeedMRoad);
+		
 		if (linkTravelTime == null) linkTravelTime = new double[this.maximumEdgeID];
 		//if (linkTravelTime == null) linkTravelTime = this.freeFlowTravelTime;
 		RoadPath path;
@@ -1229,6 +1315,137 @@ public class RoadNetwork {
 		return path;
 	}
 	
+	/**
+	 * Gets the fastest path between two different nodes using the compact graph router.
+	 * Gives the same paths as GeoTools path finders (up to ties between equally fast paths), but reuses search structures between queries.
+	 * @param from Origin node.
+	 * @param to Destination node.
+	 * @param linkTravelTime Link travel times.
+	 * @param heuristicSpeed Speed [kph] for the A* heuristic, or 0 for Dijkstra's algorithm.
+	 * @return Fastest path.
+	 */
+	private RoadPath getFastestPathCompact(DirectedNode from, DirectedNode to, double[] linkTravelTime, double heuristicSpeed) {
+		
+		int[] nodeIDs = this.getRouter().findPath(from.getID(), to.getID(), linkTravelTime, this.freeFlowTravelTime, heuristicSpeed);
+		if (nodeIDs == null) {
+			LOGGER.trace("Could not find the fastest path from {} to {}.", from.getID(), to.getID());
+			return null;
+		}
+		
+		RoadPath path = new RoadPath();
+		for (int nodeID: nodeIDs) path.add(this.nodeIDtoNode[nodeID]);
+		
+		if (!path.isValid()) {
+			LOGGER.debug("Fastest path from {} to {} exists, but is not valid!", from.getID(), to.getID());
+			return null;
+		}
+		return path;
+	}
+	
+	/**
+	 * Gets the fastest path (astar) between two different nodes as if one edge was removed from the network.
+	 * The edge is blocked only for this query, so the network graph is not modified and the method can be used concurrently.
+	 * @param from Origin node.
+	 * @param to Destination node.
+	 * @param linkTravelTime Link travel times (null for free-flow travel times).
+	 * @param blockedEdgeID ID of the edge that cannot be used (-1 if none).
+	 * @return Edge IDs of the fastest path, or null if there is no path.
+	 */
+	public int[] getFastestPathEdges(DirectedNode from, DirectedNode to, double[] linkTravelTime, int blockedEdgeID) {
+		
+		if (linkTravelTime == null) linkTravelTime = this.freeFlowTravelTime;
+		int[] edgeIDs = this.getRouter().findPathEdges(from.getID(), to.getID(), linkTravelTime, this.freeFlowTravelTime, this.freeFlowSpeedMRoad, blockedEdgeID);
+		if (edgeIDs == null) LOGGER.trace("Could not find the fastest path from {} to {} without edge {}.", from.getID(), to.getID(), blockedEdgeID);
+		return edgeIDs;
+	}
+	
+	/**
+	 * Checks if the compact graph router is enabled and its graph matches the network.
+	 * The network graph can be modified directly (e.g. by random link elimination), in which case GeoTools path finders are used.
+	 * @param useCompactRouter True if the compact graph router is requested.
+	 * @return True if the compact graph router can be used.
+	 */
+	private boolean canUseCompactRouter(boolean useCompactRouter) {
+		
+		if (!useCompactRouter) return false;
+		return this.getCompactGraph().getNumberOfGraphEdges() == this.network.getEdges().size();
+	}
+	
+	/**
+	 * Gets the router of the current thread, creating a new one if the compact graph has been rebuilt.
+	 * @return Fastest path router.
+	 */
+	private FastestPathRouter getRouter() {
+		
+		CompactRoadGraph graph = this.getCompactGraph();
+		FastestPathRouter router = this.routers.get();
+		if (router == null || router.getGraph() != graph) {
+			router = new FastestPathRouter(graph);
+			this.routers.set(router);
+		}
+		return router;
+	}
+	
+	/**
+	 * Gets the compact (CSR) copy of the network graph, building it if the graph has changed.
+	 * The built graph is published through a volatile field, so only the lazy build is locked.
+	 * @return Compact road graph.
+	 */
+	public CompactRoadGraph getCompactGraph() {
+		
+		CompactRoadGraph graph = this.compactGraph;
+		if (graph != null) return graph;
+		
+		synchronized (this) {
+			graph = this.compactGraph;
+			if (graph == null) {
+				LOGGER.debug("Building compact road graph...");
+				graph = new CompactRoadGraph(this.network, this.nodeIDtoNode);
+				this.compactGraph = graph;
+			}
+			return graph;
+		}
+	}
+	
+	/**
+	 * Gets the link travel time kernel (with edges grouped by type), building it if the graph has changed.
+	 * @return Link travel time kernel.
+	 */
+	public synchronized LinkTravelTimeKernel getTravelTimeKernel() {
+		
+		if (this.travelTimeKernel == null) {
+			TIntArrayList motorwayEdges = new TIntArrayList();
+			TIntArrayList aRoadEdges = new TIntArrayList();
+			TIntArrayList otherEdges = new TIntArrayList();
+			Iterator iter = this.network.getEdges().iterator();
+			while (iter.hasNext()) {
+				int edgeID = ((Edge) iter.next()).getID();
+				if (this.edgesType[edgeID] == EdgeType.MOTORWAY) motorwayEdges.add(edgeID);
+				else if (this.edgesType[edgeID] == EdgeType.AROAD) aRoadEdges.add(edgeID);
+				else otherEdges.add(edgeID); //ferry
+			}
+			this.travelTimeKernel = new LinkTravelTimeKernel(motorwayEdges.toArray(), aRoadEdges.toArray(), otherEdges.toArray());
+		}
+		return this.travelTimeKernel;
+	}
+	
+	/**
+	 * Enables or disables the compact graph router for the fastest path queries.
+	 * @param flagUseCompactRouter True to use the compact graph router, false to use GeoTools path finders.
+	 */
+	public void setUseCompactRouter(boolean flagUseCompactRouter) {
+		
+		this.flagUseCompactRouter = flagUseCompactRouter;
+	}
+	
+	/**
+	 * @return True if the compact graph router is used for the fastest path queries.
+	 */
+	public boolean isUsingCompactRouter() {
+		
+		return this.flagUseCompactRouter;
+	}
+	
 	/**
 	 * Gets the fastest path between two nodes using Dijkstra's algorithm and provided link travel times.
 	 * Links which have no travel time provided will use free flow travel times.
@@ -1239,6 +1456,9 @@ public class RoadNetwork {
 	 */
 	public RoadPath getFastestPathDijkstra(DirectedNode from, DirectedNode to, double[] linkTravelTime) {
 
+		if (from.getID() != to.getID() && this.canUseCompactRouter(this.flagUseCompactRouter))
+			return this.getFastestPathCompact(from, to, linkTravelTime == null ? this.freeFlowTravelTime : linkTravelTime, 0.0);
+		
 		if (linkTravelTime == null) linkTravelTime = new double[this.maximumEdgeID];
 		//if (linkTravelTime == null) linkTravelTime = this.freeFlowTravelTime;
 		RoadPath path;
@@ -1406,6 +1626,8 @@ public class RoadNetwork {
 	
 	/**
 	 * Getter method for the zone to nodes mapping.
+	 * The mapping is replaced when the nodes are sorted by a different population (see {@link #sortGravityNodes()}),
+	 * so it should be fetched again after sorting.
 	 * @return Zone to nodes mapping.
 	 */
 	public HashMap<String, List<Integer>> getZoneToNodes() {
@@ -1503,7 +1725,16 @@ public class RoadNetwork {
 		
 		return this.nodeToGravitatingPopulation[node];
 	}
-	
+
+	/**
+	 * Getter method for the node to gravitating workplace population mapping.
+	 * @return Node to gravitating workplace population mapping.
+	 */
+	public int[] getNodeToGravitatingWorkplacePopulation() {
+
+		return this.nodeToGravitatingWorkplacePopulation;
+	}
+
 	/**
 	 * Workplace population gravitating to a node.
 	 * @param node Node to which the workplace population gravitates.
@@ -1649,6 +1880,29 @@ public class RoadNetwork {
 		return this.edgeLengths[edgeID];
 	}
 	
+	/**
+	 * Getter method for edge lengths.
+	 * @return Edge lengths [km].
+	 */
+	public double[] getEdgeLengths() {
+		
+		return this.edgeLengths;
+	}
+	
+	/**
+	 * Calculates link speeds from link travel times (so that they are calculated once for each time of day,
+	 * instead of for each edge of each route when calculating energy consumption).
+	 * @param linkTravelTime Link travel times [min].
+	 * @return Link speeds [kph].
+	 */
+	public double[] calculateLinkSpeeds(double[] linkTravelTime) {
+		
+		double[] linkSpeed = new double[linkTravelTime.length];
+		for (int edgeID = 0; edgeID < linkTravelTime.length && edgeID < this.edgeLengths.length; edgeID++)
+			linkSpeed[edgeID] = this.edgeLengths[edgeID] / (linkTravelTime[edgeID] / 60);
+		return linkSpeed;
+	}
+	
 	public ShapefileDataStore getZonesShapefile () {
 		
 		return this.zonesShapefile;
@@ -1762,8 +2016,6 @@ public class RoadNetwork {
 		SimpleFeatureCollection networkFeatureCollection = cache2.getFeatures();
 		CachingFeatureSource cache3 = new CachingFeatureSource(nodesShapefile.getFeatureSource());
 		SimpleFeatureCollection nodesFeatureCollection = cache3.getFeatures();
-		CachingFeatureSource cache4 = new CachingFeatureSource(zonesShapefile.getFeatureSource());
-		SimpleFeatureCollection zonesFeatureCollection = cache4.getFeatures();
 
 		LOGGER.info("Creating undirected graph...");
 		
@@ -1786,6 +2038,8 @@ public class RoadNetwork {
 		
 		//set the instance field with the generated directed graph
 		this.network = (DirectedGraph) graphBuilder.getGraph();
+		this.compactGraph = null;
+		this.travelTimeKernel = null;
 
 		LOGGER.info("Creating direct access maps for nodes and edges...");
 		
@@ -1793,6 +2047,21 @@ public class RoadNetwork {
 		createDirectAccessEdgeMap();
 		createEdgeToOtherDirectionEdgeMap();
 		
+		LOGGER.trace("Undirected graph representation of the road network:");
+		LOGGER.trace(undirectedGraph);
+		LOGGER.trace("Directed graph representation of the road network:");
+		LOGGER.trace(network);
+	}
+	
+	/**
+	 * Calculates the node and edge arrays from the graph: zone mappings, blacklists, edge types, number of lanes, edge lengths and urban/rural edges.
+	 * @throws IOException if any.
+	 */
+	private void calculateNodeAndEdgeArrays() throws IOException {
+		
+		CachingFeatureSource cache = new CachingFeatureSource(zonesShapefile.getFeatureSource());
+		SimpleFeatureCollection zonesFeatureCollection = cache.getFeatures();
+		
 		LOGGER.info("Mapping nodes to LAD zones...");
 		
 		//map the nodes to zones
@@ -1825,11 +2094,208 @@ public class RoadNetwork {
 		LOGGER.info("Determining whether edges are urban or rural...");
 		
 		determineEdgesUrbanRural();
+	}
+	
+	/**
+	 * Describes the shapefile by its main (.shp) and attribute (.dbf) files (for the fingerprint of the inputs).
+	 * @param url Url of the shapefile.
+	 * @return Description of the shapefile.
+	 */
+	private static String describeShapefile(URL url) {
 		
-		LOGGER.trace("Undirected graph representation of the road network:");
-		LOGGER.trace(undirectedGraph);
-		LOGGER.trace("Directed graph representation of the road network:");
-		LOGGER.trace(network);
+		File file = DataUtilities.urlToFile(url);
+		File attributesFile = (file == null) ? null : new File(file.getPath().replaceFirst("\\.shp$", ".dbf"));
+		return url + ":" + SnapshotWriter.describeFile(file) + ":" + SnapshotWriter.describeFile(attributesFile);
+	}
+	
+	/**
+	 * Calculates the hash of the graph structure (IDs of edges and their nodes), which changes when the edge IDs are replaced.
+	 * @return Hash of the graph.
+	 */
+	private long getGraphHash() {
+		
+		long hash = 17L;
+		for (Object o: this.network.getEdges()) {
+			Edge edge = (Edge) o;
+			hash = 31L * hash + edge.getID();
+			hash = 31L * hash + edge.getNodeA().getID();
+			hash = 31L * hash + edge.getNodeB().getID();
+		}
+		return hash;
+	}
+	
+	/**
+	 * Gets the snapshot file of a stage of the network building (stages have separate files, as the edge IDs differ between them).
+	 * @param stage Stage name.
+	 * @return Snapshot file, or null if snapshots are not used.
+	 */
+	private File getSnapshotFile(String stage) {
+		
+		if (this.snapshotFile == null) return null;
+		String name = this.snapshotFile.getName();
+		int dot = name.lastIndexOf('.');
+		String stageName = (dot > 0) ? name.substring(0, dot) + "-" + stage + name.substring(dot) : name + "-" + stage;
+		return new File(this.snapshotFile.getAbsoluteFile().getParentFile(), stageName);
+	}
+	
+	/**
+	 * Writes the node and edge arrays into the snapshot (failure to write is only logged).
+	 * @param file Snapshot file.
+	 * @param fingerprint Fingerprint of the inputs.
+	 * @param nodeArrays Whether to write the node arrays (zone mappings, blacklists and gravitating populations) besides the edge arrays.
+	 */
+	private void saveSnapshot(File file, long fingerprint, boolean nodeArrays) {
+		
+		try (SnapshotWriter writer = new SnapshotWriter(file, fingerprint)) {
+			
+			if (nodeArrays) {
+				String[] nodeIDToZone = new String[this.maximumNodeID + 1];
+				for (Integer nodeID: this.nodeToZone.keySet()) nodeIDToZone[nodeID] = this.nodeToZone.get(nodeID);
+				writer.writeStringArray(nodeIDToZone);
+				
+				//node lists are written in their order, which is the starting point of the gravity node sorting
+				writer.writeInt(this.zoneToNodes.size());
+				for (String zone: this.zoneToNodes.keySet()) {
+					writer.writeString(zone);
+					List<Integer> nodes = this.zoneToNodes.get(zone);
+					int[] nodeIDs = new int[nodes.size()];
+					for (int i = 0; i < nodeIDs.length; i++) nodeIDs[i] = nodes.get(i);
+					writer.writeIntArray(nodeIDs);
+				}
+				
+				writer.writeIntArray(toIntArray(this.startNodeBlacklist));
+				writer.writeIntArray(toIntArray(this.endNodeBlacklist));
+				writer.writeIntArray(this.nodeToGravitatingPopulation);
+				writer.writeIntArray(this.nodeToGravitatingWorkplacePopulation);
+				writer.writeDoubleArray(this.nodeToAverageAccessEgressDistance);
+				writer.writeDoubleArray(this.nodeToAverageAccessEgressDistanceFreight);
+			}
+			
+			String[] edgeIDToZone = new String[this.maximumEdgeID];
+			for (Integer edgeID: this.edgeToZone.keySet()) edgeIDToZone[edgeID] = this.edgeToZone.get(edgeID);
+			writer.writeStringArray(edgeIDToZone);
+			
+			int[] edgeTypes = new int[this.maximumEdgeID];
+			int[] edgeUrban = new int[this.maximumEdgeID];
+			for (int edgeID = 0; edgeID < this.maximumEdgeID; edgeID++) {
+				edgeTypes[edgeID] = (this.edgesType[edgeID] == null) ? -1 : this.edgesType[edgeID].ordinal();
+				edgeUrban[edgeID] = (this.isEdgeUrban[edgeID] == null) ? -1 : (this.isEdgeUrban[edgeID] ? 1 : 0);
+			}
+			writer.writeIntArray(edgeTypes);
+			writer.writeIntArray(edgeUrban);
+			writer.writeIntArray(this.numberOfLanes);
+			writer.writeDoubleArray(this.edgeLengths);
+			writer.writeDoubleArray(this.freeFlowTravelTime);
+			writer.commit();
+			
+		} catch (IOException e) {
+			LOGGER.warn("Could not write the road network snapshot {}: {}", file, e.getMessage());
+		}
+	}
+	
+	/**
+	 * Loads the node and edge arrays from the snapshot.
+	 * @param file Snapshot file.
+	 * @param fingerprint Fingerprint of the current inputs.
+	 * @param nodeArrays Whether the snapshot contains the node arrays besides the edge arrays.
+	 * @return True if the snapshot was valid and has been loaded.
+	 */
+	private boolean loadSnapshot(File file, long fingerprint, boolean nodeArrays) {
+		
+		try (SnapshotReader reader = SnapshotReader.open(file, fingerprint)) {
+			
+			if (reader == null) return false;
+			
+			HashMap<Integer, String> nodeToZone = null;
+			HashMap<String, List<Integer>> zoneToNodes = null;
+			boolean[] startNodeBlacklist = null, endNodeBlacklist = null;
+			int[] nodeToGravitatingPopulation = null, nodeToGravitatingWorkplacePopulation = null;
+			double[] nodeToAverageAccessEgressDistance = null, nodeToAverageAccessEgressDistanceFreight = null;
+			if (nodeArrays) {
+				String[] nodeIDToZone = reader.readStringArray();
+				nodeToZone = new HashMap<Integer, String>();
+				for (int nodeID = 0; nodeID < nodeIDToZone.length; nodeID++)
+					if (nodeIDToZone[nodeID] != null) nodeToZone.put(nodeID, nodeIDToZone[nodeID]);
+				
+				int zones = reader.readInt();
+				zoneToNodes = new HashMap<String, List<Integer>>();
+				for (int i = 0; i < zones; i++) {
+					String zone = reader.readString();
+					int[] nodeIDs = reader.readIntArray();
+					List<Integer> nodes = new ArrayList<Integer>(nodeIDs.length);
+					for (int nodeID: nodeIDs) nodes.add(nodeID);
+					zoneToNodes.put(zone, nodes);
+				}
+				
+				startNodeBlacklist = toBooleanArray(reader.readIntArray());
+				endNodeBlacklist = toBooleanArray(reader.readIntArray());
+				nodeToGravitatingPopulation = reader.readIntArray();
+				nodeToGravitatingWorkplacePopulation = reader.readIntArray();
+				nodeToAverageAccessEgressDistance = reader.readDoubleArray();
+				nodeToAverageAccessEgressDistanceFreight = reader.readDoubleArray();
+			}
+			
+			String[] edgeIDToZone = reader.readStringArray();
+			HashMap<Integer, String> edgeToZone = new HashMap<Integer, String>();
+			for (int edgeID = 0; edgeID < edgeIDToZone.length; edgeID++)
+				if (edgeIDToZone[edgeID] != null) edgeToZone.put(edgeID, edgeIDToZone[edgeID]);
+			
+			int[] edgeTypes = reader.readIntArray();
+			int[] edgeUrban = reader.readIntArray();
+			EdgeType[] edgesType = new EdgeType[edgeTypes.length];
+			Boolean[] isEdgeUrban = new Boolean[edgeUrban.length];
+			for (int edgeID = 0; edgeID < edgeTypes.length; edgeID++) {
+				edgesType[edgeID] = (edgeTypes[edgeID] < 0) ? null : EdgeType.values()[edgeTypes[edgeID]];
+				isEdgeUrban[edgeID] = (edgeUrban[edgeID] < 0) ? null : (edgeUrban[edgeID] == 1);
+			}
+			int[] numberOfLanes = reader.readIntArray();
+			double[] edgeLengths = reader.readDoubleArray();
+			double[] freeFlowTravelTime = reader.readDoubleArray();
+			
+			if (!reader.isFullyRead()) {
+				LOGGER.warn("Road network snapshot {} has unexpected content and will be ignored.", file);
+				return false;
+			}
+			
+			//the arrays are set only when the whole snapshot has been read
+			if (nodeArrays) {
+				this.nodeToZone = nodeToZone;
+				this.zoneToNodes = zoneToNodes;
+				this.zoneNodesSortedBy = null;
+				this.startNodeBlacklist = startNodeBlacklist;
+				this.endNodeBlacklist = endNodeBlacklist;
+				this.nodeToGravitatingPopulation = nodeToGravitatingPopulation;
+				this.nodeToGravitatingWorkplacePopulation = nodeToGravitatingWorkplacePopulation;
+				this.nodeToAverageAccessEgressDistance = nodeToAverageAccessEgressDistance;
+				this.nodeToAverageAccessEgressDistanceFreight = nodeToAverageAccessEgressDistanceFreight;
+			}
+			this.edgeToZone = edgeToZone;
+			this.edgesType = edgesType;
+			this.isEdgeUrban = isEdgeUrban;
+			this.numberOfLanes = numberOfLanes;
+			this.edgeLengths = edgeLengths;
+			this.freeFlowTravelTime = freeFlowTravelTime;
+			this.travelTimeKernel = null;
+			return true;
+			
+		} catch (IOException e) {
+			LOGGER.warn("Could not read the road network snapshot {}: {}", file, e.getMessage());
+			return false;
+		}
+	}
+	
+	private static int[] toIntArray(boolean[] values) {
+		
+		int[] result = new int[values.length];
+		for (int i = 0; i < values.length; i++) result[i] = values[i] ? 1 : 0;
+		return result;
+	}
+	
+	private static boolean[] toBooleanArray(int[] values) {
+		
+		boolean[] result = new boolean[values.length];
+		for (int i = 0; i < values.length; i++) result[i] = (values[i] == 1);
+		return result;
 	}
 
 	/**
@@ -2014,92 +2480,51 @@ public class RoadNetwork {
 
 		this.nodeToZone = new HashMap<Integer, String>();
 		this.zoneToNodes = new HashMap<String, List<Integer>>();
+		this.zoneNodesSortedBy = null;
 		
-		//iterate through the zones and through the nodes
-		SimpleFeatureIterator iter = zonesFeatureCollection.features();
-		try {
-			while (iter.hasNext()) {
-				SimpleFeature sf = iter.next();
-				MultiPolygon polygon = (MultiPolygon) sf.getDefaultGeometry();
-				
-				Iterator nodeIter = (Iterator) network.getNodes().iterator();
-				while (nodeIter.hasNext()) {
-				
-						Node node = (Node) nodeIter.next();
-						//if the nodes has already been mapped to its zone, skip it
-						if (this.nodeToZone.containsKey(node.getID())) continue;
-												
-						SimpleFeature sfn = (SimpleFeature) node.getObject();
-						Point point = (Point) sfn.getDefaultGeometry();
-						//if the polygon contains the node, put that relationship into the maps
-						if (polygon.contains(point)) {
-
-							nodeToZone.put(node.getID(), (String) sf.getAttribute("CODE"));
-							
-							List<Integer> listOfNodes = zoneToNodes.get((String) sf.getAttribute("CODE"));
-							if (listOfNodes == null) {
-								listOfNodes = new ArrayList<Integer>();
-								zoneToNodes.put((String) sf.getAttribute("CODE"), listOfNodes);
-							}
-							listOfNodes.add(node.getID());
-						}
-				}
-			}
-				
-		} finally {
-			//feature iterator is a live connection that must be closed
-			iter.close();
-		}
-			
-		//check that all nodes have been mapped to a zone
-		ArrayList<Integer> unmappedNodes = new ArrayList<Integer>();
+		PolygonIndex<String> zoneIndex = this.buildZoneIndex(zonesFeatureCollection);
 		
+		//iterate through the nodes and find the zone that contains each node (if more zones contain the node, the first one is used)
+		ArrayList<Integer> unmappedNodes = new ArrayList<Integer>();
 		Iterator nodeIter = (Iterator) network.getNodes().iterator();
 		while (nodeIter.hasNext()) {
+			
 				Node node = (Node) nodeIter.next();
-				if (!this.nodeToZone.containsKey(node.getID()))
+				SimpleFeature sfn = (SimpleFeature) node.getObject();
+				Point point = (Point) sfn.getDefaultGeometry();
+				
+				String zone = zoneIndex.locate(point);
+				if (zone == null) {
 					unmappedNodes.add(node.getID());
+					continue;
+				}
+				
+				//if the polygon contains the node, put that relationship into the maps
+				nodeToZone.put(node.getID(), zone);
+				List<Integer> listOfNodes = zoneToNodes.get(zone);
+				if (listOfNodes == null) {
+					listOfNodes = new ArrayList<Integer>();
+					zoneToNodes.put(zone, listOfNodes);
+				}
+				listOfNodes.add(node.getID());
 		}
 		
 		if (unmappedNodes.size() > 0) {
 			LOGGER.debug("{} nodes initially mapped to LAD zones.", nodeToZone.size());
 			LOGGER.debug("{} nodes not contained within any LAD zone, so mapping to nearest zones...", unmappedNodes.size());
 					
-			//create node ID to minimum distance map
-			HashMap<Integer, Double> minDistanceMap = new HashMap<Integer, Double>();
 			for (int nodeID: unmappedNodes) {
-				minDistanceMap.put(nodeID, Double.MAX_VALUE);
 				
 				//get point geometry of the node
 				Node node = this.nodeIDtoNode[nodeID];
 				SimpleFeature sfn = (SimpleFeature) node.getObject();
 				Point point = (Point) sfn.getDefaultGeometry();
 
-				//iterate through the zones
-				iter = zonesFeatureCollection.features();
-				try {
-					while (iter.hasNext()) {
-						//get polygon geometry of the zone
-						SimpleFeature sf = iter.next();
-						MultiPolygon polygon = (MultiPolygon) sf.getDefaultGeometry();
-						
-						double distance = polygon.distance(point);
-						if (distance < minDistanceMap.get(nodeID)) {
-						
-							minDistanceMap.put(nodeID, distance);
-							nodeToZone.put(nodeID, (String) sf.getAttribute("CODE"));
-						}
-						
-						
-					}
-
-				} finally {
-					//feature iterator is a live connection that must be closed
-					iter.close();
-				}
+				//find the nearest zone
+				String lad = zoneIndex.nearest(point);
+				nodeToZone.put(nodeID, lad);
 				
 				//also update zone to node lists
-				String lad = nodeToZone.get(nodeID);
 				List<Integer> listOfNodes = zoneToNodes.get(lad);
 				if (listOfNodes == null) {
 					listOfNodes = new ArrayList<Integer>();
@@ -2107,8 +2532,7 @@ public class RoadNetwork {
 				}
 				listOfNodes.add(node.getID());
 				
-				LOGGER.debug("Node {} mapped to zone {} with distance {}.", nodeID, lad, minDistanceMap.get(nodeID));
-				
+				LOGGER.debug("Node {} mapped to the nearest zone {}.", nodeID, lad);
 			}
 		}
 		
@@ -2116,65 +2540,69 @@ public class RoadNetwork {
 	}
 	
 	/**
-	 * Maps the edges of the graph to the zone codes.
+	 * Builds the spatial index of the zone polygons.
 	 * @param zonesFeatureCollection Feature collection with the zones.
+	 * @return Zone polygon index (in the order of zone features).
 	 */
-	private void mapEdgesToZones(SimpleFeatureCollection zonesFeatureCollection) {
-
-		this.edgeToZone = new HashMap<Integer, String>();
+	private PolygonIndex<String> buildZoneIndex(SimpleFeatureCollection zonesFeatureCollection) {
 
+		PolygonIndex<String> zoneIndex = new PolygonIndex<String>();
 		SimpleFeatureIterator iter = zonesFeatureCollection.features();
 		try {
-			//iterate over zones
 			while (iter.hasNext()) {
-				SimpleFeature featureZone = iter.next();
-				MultiPolygon polygon = (MultiPolygon) featureZone.getDefaultGeometry();	
-
-				//iterate over edges	
-				for (Object o: this.network.getEdges()) {
-					Edge edge = (Edge) o;
-					
-					//if edge already mapped to zone, skip that edge
-					if (this.edgeToZone.containsKey(edge.getID())) continue;
-					
-					//check if one of the nodes of the edge are not mapped to any zone as this indicates potential problems
-					//(e.g. when a node is on the bridge, so it is not contained within any zonal polygon).
-					String zone1 = this.nodeToZone.get(edge.getNodeA().getID());
-					String zone2 = this.nodeToZone.get(edge.getNodeB().getID());
-					
-					//if one node falls outside any zonal polygon, then assign edge to the zone of the other node
-					if (zone1 == null && zone2 != null) {
-						this.edgeToZone.put(edge.getID(), zone2);
-						continue;
-					}
-					if (zone2 == null && zone1 != null) {
-						this.edgeToZone.put(edge.getID(), zone1);
-						continue;
-					}
-					//if both nodes fall to the same zone, assign to that zone
-					if (zone1 != null && zone2 != null && zone1.equals(zone2)) {
-						this.edgeToZone.put(edge.getID(), zone1);
-						continue;
-					}
-					
-					//decide zone from the location of the count point object
-					String countPointZone = null;
-					SimpleFeature sf = (SimpleFeature)edge.getObject();
-					if (sf.getDefaultGeometry() instanceof Point) { //TODO this will ignore ferries, but also new road links!
-						Point countPoint = (Point) sf.getDefaultGeometry();
-
-						if (polygon.contains(countPoint)) {
-							countPointZone = (String) featureZone.getAttribute("CODE");
-							this.edgeToZone.put(edge.getID(), countPointZone);
-							continue;
-						}
-					}
-				} 
+				SimpleFeature sf = iter.next();
+				zoneIndex.add((MultiPolygon) sf.getDefaultGeometry(), (String) sf.getAttribute("CODE"));
 			}
 		} finally {
 			//feature iterator is a live connection that must be closed
 			iter.close();
 		}
+
+		return zoneIndex;
+	}
+
+	/**
+	 * Maps the edges of the graph to the zone codes.
+	 * @param zonesFeatureCollection Feature collection with the zones.
+	 */
+	private void mapEdgesToZones(SimpleFeatureCollection zonesFeatureCollection) {
+
+		this.edgeToZone = new HashMap<Integer, String>();
+
+		PolygonIndex<String> zoneIndex = this.buildZoneIndex(zonesFeatureCollection);
+
+		//iterate over edges	
+		for (Object o: this.network.getEdges()) {
+			Edge edge = (Edge) o;
+
+			//check if one of the nodes of the edge are not mapped to any zone as this indicates potential problems
+			//(e.g. when a node is on the bridge, so it is not contained within any zonal polygon).
+			String zone1 = this.nodeToZone.get(edge.getNodeA().getID());
+			String zone2 = this.nodeToZone.get(edge.getNodeB().getID());
+
+			//if one node falls outside any zonal polygon, then assign edge to the zone of the other node
+			if (zone1 == null && zone2 != null) {
+				this.edgeToZone.put(edge.getID(), zone2);
+				continue;
+			}
+			if (zone2 == null && zone1 != null) {
+				this.edgeToZone.put(edge.getID(), zone1);
+				continue;
+			}
+			//if both nodes fall to the same zone, assign to that zone
+			if (zone1 != null && zone2 != null && zone1.equals(zone2)) {
+				this.edgeToZone.put(edge.getID(), zone1);
+				continue;
+			}
+
+			//decide zone from the location of the count point object
+			SimpleFeature sf = (SimpleFeature)edge.getObject();
+			if (sf.getDefaultGeometry() instanceof Point) { //TODO this will ignore ferries, but also new road links!
+				Point countPoint = (Point) sf.getDefaultGeometry();
+				String countPointZone = zoneIndex.locate(countPoint);
+				if (countPointZone != null) this.edgeToZone.put(edge.getID(), countPointZone);
+			}
+		}
 		
 		//Some edges may still remain unmapped to a zone, e.g. edges for which count point falls outside any polygon (such as river).
 		//Iterate again over edges to find unmapped ones and map them using heuristic rules.
@@ -2394,6 +2822,7 @@ public class RoadNetwork {
 	private void determineEdgesType() {
 		
 		this.edgesType = new EdgeType[this.maximumEdgeID];
+		this.travelTimeKernel = null;
 		
 		//iterate through all the edges in the graph
 		Iterator iter = this.network.getEdges().iterator();
@@ -2674,46 +3103,49 @@ public class RoadNetwork {
 	
 	/**
 	 * For each zone (LAD) sorts the list of contained nodes based on the gravitating population.
+	 * Lists already sorted by the same population are not sorted again (so concurrent assignments can call this method safely).
 	 */
-	public void sortGravityNodes() {
-		
-		int[] nodeToPop = this.nodeToGravitatingPopulation;
+	public synchronized void sortGravityNodes() {
 		
-		Comparator<Integer> c = new Comparator<Integer>() {
-		    public int compare(Integer s, Integer s2) {
-		    	Integer population = nodeToPop[s];
-		    	Integer population2 = nodeToPop[s2];
-	    	
-		    	return population2.compareTo(population);
-		    	}
-		};
-		
-		for (String LAD: this.zoneToNodes.keySet()) {
-			List list = this.zoneToNodes.get(LAD);
-			Collections.sort(list, c);
-		}
+		this.sortZoneNodes(this.nodeToGravitatingPopulation);
 	}
 	
 	/**
 	 * For each zone (LAD) sorts the list of contained nodes based on the gravitating workplace population.
+	 * Lists already sorted by the same population are not sorted again.
+	 */
+	public synchronized void sortGravityNodesFreight() {
+		
+		this.sortZoneNodes(this.nodeToGravitatingWorkplacePopulation);
+	}
+	
+	/**
+	 * Sorts the zone nodes into new lists (descending by the node population) and publishes them.
+	 * The previous lists are not modified, as assignments may still be going through them.
+	 * @param nodeToPop Population of each node.
 	 */
-	public void sortGravityNodesFreight() {
+	private void sortZoneNodes(int[] nodeToPop) {
 		
-		int[] nodeToPop = this.nodeToGravitatingWorkplacePopulation;
+		if (nodeToPop == this.zoneNodesSortedBy) return;
 		
 		Comparator<Integer> c = new Comparator<Integer>() {
 		    public int compare(Integer s, Integer s2) {
 		    	Integer population = nodeToPop[s];
 		    	Integer population2 = nodeToPop[s2];
-		    			    	
+	    	
 		    	return population2.compareTo(population);
 		    	}
 		};
 		
+		HashMap<String, List<Integer>> sortedZoneToNodes = new HashMap<String, List<Integer>>();
 		for (String LAD: this.zoneToNodes.keySet()) {
-			List list = this.zoneToNodes.get(LAD);
+			List<Integer> list = new ArrayList<Integer>(this.zoneToNodes.get(LAD));
 			Collections.sort(list, c);
+			sortedZoneToNodes.put(LAD, list);
 		}
+		
+		this.zoneToNodes = sortedZoneToNodes;
+		this.zoneNodesSortedBy = nodeToPop;
 	}
 	
 	/**
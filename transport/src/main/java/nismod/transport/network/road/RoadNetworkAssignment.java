@@ -15,6 +15,12 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.function.DoubleConsumer;
+import java.util.function.DoubleSupplier;
+
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.hash.TLongDoubleHashMap;
 
 import org.apache.commons.collections4.keyvalue.MultiKey;
 import org.apache.commons.collections4.map.MultiKeyMap;
@@ -47,8 +53,12 @@ import nismod.transport.network.road.RoadNetworkAssignment.EngineType;
 import nismod.transport.network.road.RoadNetworkAssignment.VehicleType;
 import nismod.transport.network.road.Route.WebTAG;
 import nismod.transport.network.road.RouteSet.RouteChoiceParams;
+import nismod.transport.utility.AliasSampler;
 import nismod.transport.utility.InputFileReader;
+import nismod.transport.utility.MultinomialSampler;
+import nismod.transport.utility.ParallelTasks;
 import nismod.transport.utility.RandomSingleton;
+import nismod.transport.utility.RandomStreams;
 import nismod.transport.zone.Zoning;
 
 /**
@@ -82,8 +92,13 @@ public class RoadNetworkAssignment {
 	public final boolean flagIncludeAccessEgress; //use access/egress in the calculation of outputs.
 	public final int topTemproNodes = 1;
 	public final int baseYear;
+	public final int assignmentThreads; //number of threads used for the passenger assignment with route choice (1 means single-threaded assignment)
+	public final boolean flagAggregateAssignment; //draw trip counts multinomially and store one weighted trip per combination (instead of one trip per sampled trip)
 
 	private static RandomSingleton rng = RandomSingleton.getInstance();
+	private static final TimeOfDay[] TIMES_OF_DAY = TimeOfDay.values();
+	private static final EngineType[] ENGINE_TYPES = EngineType.values();
+	private static final int MIN_TRIPS_PER_LINK_VOLUME_THREAD = 10000; //smaller trip tables are not worth splitting between threads
 
 	public static enum EngineType {
 		ICE_PETROL, //internal combustion engine - petrol
@@ -138,9 +153,27 @@ public class RoadNetworkAssignment {
 	private Map<VehicleType, int[]> linkVolumesPerVehicleType;
 	private Map<TimeOfDay, double[]> linkVolumesInPCUPerTimeOfDay;
 	private Map<TimeOfDay, double[]> linkTravelTimePerTimeOfDay;
+	private Map<TimeOfDay, double[]> linkSpeedPerTimeOfDay; //calculated from link travel times (used for energy consumption in route choice)
 
 	//storage of performed trips
-	private ArrayList<Trip> tripList;
+	private TripTable tripTable;
+	
+	//buffers for utilities and probabilities of the (single-threaded) route choice
+	private final RouteChoiceScratch routeChoiceScratch = new RouteChoiceScratch();
+	//route choice probabilities of the current assignment pass (invalidated when link travel times change)
+	private final RouteChoiceCache routeChoiceCache = new RouteChoiceCache();
+
+	//trip table (and its modification count) from which all the link volumes were last calculated
+	private TripTable linkVolumesTripTable;
+	private int linkVolumesTripTableModifications;
+	
+	//relative gap and relative link travel time change after each iteration of the last iterated assignment
+	private List<Double> relativeGaps = new ArrayList<Double>();
+	private List<Double> linkTimeChanges = new ArrayList<Double>();
+
+	//routes found with aStar by the route choice assignment while the route set generator is shared by concurrent assignments
+	//(null if the routes are added to the route set generator straight away)
+	private Map<Long, Route> collectedRoutes;
 
 	//the probability of trip starting/ending in the census output area
 	private HashMap<String, Double> areaCodeProbabilities;
@@ -154,6 +187,22 @@ public class RoadNetworkAssignment {
 	private HashMap<Integer, Double> startNodeProbabilitiesFreight;
 	//the probability of freight trip ending at a node
 	private HashMap<Integer, Double> endNodeProbabilitiesFreight;
+	//alias samplers of start/end nodes for each zone (all nodes and only the top nodes)
+	private HashMap<String, AliasSampler> startNodeSamplers;
+	private HashMap<String, AliasSampler> endNodeSamplers;
+	private HashMap<String, AliasSampler> startTopNodeSamplers;
+	private HashMap<String, AliasSampler> endTopNodeSamplers;
+	//alias samplers of freight start/end nodes for each zone
+	private HashMap<String, AliasSampler> startNodeSamplersFreight;
+	private HashMap<String, AliasSampler> endNodeSamplersFreight;
+	private HashMap<String, AliasSampler> startTopNodeSamplersFreight;
+	private HashMap<String, AliasSampler> endTopNodeSamplersFreight;
+	private HashMap<String, AliasSampler> startTopNodeUniformSamplersFreight; //equal probability of the top nodes
+	private HashMap<String, AliasSampler> endTopNodeUniformSamplersFreight; //equal probability of the top nodes
+	//alias samplers of time of day and engine type (outcomes are enum ordinals)
+	private AliasSampler timeOfDaySampler;
+	private EnumMap<VehicleType, AliasSampler> timeOfDaySamplersFreight;
+	private EnumMap<VehicleType, AliasSampler> engineTypeSamplers;
 	//list of pricing policies
 	private List<PricingPolicy> congestionCharges;
 
@@ -209,7 +258,7 @@ public class RoadNetworkAssignment {
 			linkTravelTimePerTimeOfDay.put(hour, hourlyTimes);
 		}
 
-		this.tripList = new ArrayList<Trip>();
+		this.tripTable = new TripTable();
 
 		if (defaultLinkTravelTime == null) { //use free flow
 			LOGGER.debug("No link travel time provided, using free-flow link travel time.");
@@ -225,6 +274,7 @@ public class RoadNetworkAssignment {
 				for (Integer edgeID: defaultLinkTravelTime.get(hour).keySet())
 					hourlyTimes[edgeID] = defaultLinkTravelTime.get(hour).get(edgeID);
 			}
+		this.updateLinkSpeeds();
 
 		if (vehicleTypeToPCU != null) 	this.vehicleTypeToPCU = vehicleTypeToPCU;
 		else 							LOGGER.error("Missing vehicle type to PCU conversion.");
@@ -277,6 +327,9 @@ public class RoadNetworkAssignment {
 		this.volumeToFlowFactor = Double.parseDouble(params.getProperty("VOLUME_TO_FLOW_FACTOR"));
 		this.flagUseRouteChoiceModel = Boolean.parseBoolean(params.getProperty("USE_ROUTE_CHOICE_MODEL")); //use route-choice model (true) or routing with A-Star (false)
 		this.flagIncludeAccessEgress = Boolean.parseBoolean(params.getProperty("FLAG_INCLUDE_ACCESS_EGRESS")); //include access/egress into the calculations of outputs
+		int threads = Integer.parseInt(params.getProperty("ASSIGNMENT_THREADS", "1")); //0 means use all available processors
+		this.assignmentThreads = (threads > 0) ? threads : Runtime.getRuntime().availableProcessors();
+		this.flagAggregateAssignment = Boolean.parseBoolean(params.getProperty("FLAG_AGGREGATE_ASSIGNMENT", "false"));
 
 		//calculate area code choice probability
 		if (areaCodeProbabilities != null)	this.areaCodeProbabilities = areaCodeProbabilities;
@@ -351,6 +404,100 @@ public class RoadNetworkAssignment {
 		//System.out.println("Node probabilities for freight:");
 		//System.out.println(this.startNodeProbabilitiesFreight);
 		//System.out.println(this.endNodeProbabilitiesFreight);
+
+		//build the samplers used in the assignment
+		this.startNodeSamplers = this.buildNodeSamplers(this.startNodeProbabilities, true, roadNetwork.getNodeToGravitatingPopulation(), false, false);
+		this.endNodeSamplers = this.buildNodeSamplers(this.endNodeProbabilities, false, roadNetwork.getNodeToGravitatingPopulation(), false, false);
+		this.startTopNodeSamplers = this.buildNodeSamplers(this.startNodeProbabilities, true, roadNetwork.getNodeToGravitatingPopulation(), true, false);
+		this.endTopNodeSamplers = this.buildNodeSamplers(this.endNodeProbabilities, false, roadNetwork.getNodeToGravitatingPopulation(), true, false);
+		this.startNodeSamplersFreight = this.buildNodeSamplers(this.startNodeProbabilitiesFreight, true, roadNetwork.getNodeToGravitatingWorkplacePopulation(), false, false);
+		this.endNodeSamplersFreight = this.buildNodeSamplers(this.endNodeProbabilitiesFreight, false, roadNetwork.getNodeToGravitatingWorkplacePopulation(), false, false);
+		this.startTopNodeSamplersFreight = this.buildNodeSamplers(this.startNodeProbabilitiesFreight, true, roadNetwork.getNodeToGravitatingWorkplacePopulation(), true, false);
+		this.endTopNodeSamplersFreight = this.buildNodeSamplers(this.endNodeProbabilitiesFreight, false, roadNetwork.getNodeToGravitatingWorkplacePopulation(), true, false);
+		this.startTopNodeUniformSamplersFreight = this.buildNodeSamplers(this.startNodeProbabilitiesFreight, true, roadNetwork.getNodeToGravitatingWorkplacePopulation(), true, true);
+		this.endTopNodeUniformSamplersFreight = this.buildNodeSamplers(this.endNodeProbabilitiesFreight, false, roadNetwork.getNodeToGravitatingWorkplacePopulation(), true, true);
+
+		if (this.timeOfDayDistribution != null) this.timeOfDaySampler = buildEnumSampler(this.timeOfDayDistribution, TIMES_OF_DAY.length);
+		this.timeOfDaySamplersFreight = new EnumMap<VehicleType, AliasSampler>(VehicleType.class);
+		if (this.timeOfDayDistributionFreight != null)
+			for (VehicleType vht: this.timeOfDayDistributionFreight.keySet())
+				this.timeOfDaySamplersFreight.put(vht, buildEnumSampler(this.timeOfDayDistributionFreight.get(vht), TIMES_OF_DAY.length));
+		this.engineTypeSamplers = new EnumMap<VehicleType, AliasSampler>(VehicleType.class);
+		if (this.engineTypeFractions != null)
+			for (VehicleType vht: this.engineTypeFractions.keySet())
+				this.engineTypeSamplers.put(vht, buildEnumSampler(this.engineTypeFractions.get(vht), ENGINE_TYPES.length));
+	}
+
+	/**
+	 * Creates an independent road network assignment with the same inputs, current link travel times and node probabilities,
+	 * but with no link volumes and no trips. The road network, zoning and input maps are shared (and must not be modified),
+	 * so the copies can be used for assignments running in parallel (e.g. loss function evaluations in the optimisation).
+	 * @return Copy of the road network assignment.
+	 */
+	public RoadNetworkAssignment copy() {
+
+		RoadNetworkAssignment copy = new RoadNetworkAssignment(this.roadNetwork, this.zoning, this.energyUnitCosts, this.unitCO2Emissions,
+				this.engineTypeFractions, this.AVFractions, this.vehicleTypeToPCU, this.energyConsumptions, this.relativeFuelEfficiencies,
+				this.timeOfDayDistribution, this.timeOfDayDistributionFreight, null, this.areaCodeProbabilities, this.workplaceZoneProbabilities,
+				this.congestionCharges, this.params);
+
+		copy.setLinkTravelTimes(this.linkTravelTimePerTimeOfDay);
+		copy.setStartNodeProbabilities(this.startNodeProbabilities);
+		copy.setEndNodeProbabilities(this.endNodeProbabilities);
+
+		return copy;
+	}
+
+	/**
+	 * Builds alias samplers of nodes for each zone.
+	 * Blacklisted nodes and nodes without probability cannot be sampled, and neither can the nodes with zero probability (unless uniform).
+	 * These nodes are removed before the top nodes are selected, so they do not take any of the top node places.
+	 * @param nodeProbabilities Node probabilities.
+	 * @param startNodes If true, the samplers are for start nodes (otherwise for end nodes).
+	 * @param nodeToGravitatingPopulation Gravitating population of each node (used to find the top nodes).
+	 * @param onlyTopNodes If true, only the top nodes (INTERZONAL_TOP_NODES with the largest gravitating population) can be sampled.
+	 * @param uniform If true, all the nodes that can be sampled have the same probability.
+	 * @return Zone to node sampler map.
+	 */
+	private HashMap<String, AliasSampler> buildNodeSamplers(Map<Integer, Double> nodeProbabilities, boolean startNodes, int[] nodeToGravitatingPopulation, boolean onlyTopNodes, boolean uniform) {
+
+		HashMap<String, AliasSampler> samplers = new HashMap<String, AliasSampler>();
+		for (String zone: roadNetwork.getZoneToNodes().keySet()) {
+
+			//nodes that can be sampled, sorted by the gravitating population (the sort is stable, as in RoadNetwork.sortGravityNodes)
+			List<Integer> nodes = new ArrayList<Integer>(roadNetwork.getZoneToNodes().get(zone).size());
+			for (Integer node: roadNetwork.getZoneToNodes().get(zone)) {
+				if (startNodes ? roadNetwork.isBlacklistedAsStartNode(node) : roadNetwork.isBlacklistedAsEndNode(node)) continue;
+				Double probability = nodeProbabilities.get(node);
+				if (probability == null || (!uniform && probability <= 0.0)) continue;
+				nodes.add(node);
+			}
+			nodes.sort((n1, n2) -> Integer.compare(nodeToGravitatingPopulation[n2], nodeToGravitatingPopulation[n1]));
+
+			int size = (onlyTopNodes && interzonalTopNodes < nodes.size()) ? interzonalTopNodes : nodes.size();
+			int[] outcomes = new int[size];
+			double[] weights = new double[size];
+			for (int i = 0; i < size; i++) {
+				outcomes[i] = nodes.get(i);
+				weights[i] = uniform ? 1.0 : nodeProbabilities.get(nodes.get(i));
+			}
+			samplers.put(zone, new AliasSampler(outcomes, weights));
+		}
+		return samplers;
+	}
+
+	/**
+	 * Builds an alias sampler for a probability distribution over enum values.
+	 * @param distribution Probability distribution.
+	 * @param numberOfValues Number of enum values.
+	 * @return Sampler whose outcomes are enum ordinals.
+	 */
+	private static <E extends Enum<E>> AliasSampler buildEnumSampler(Map<E, Double> distribution, int numberOfValues) {
+
+		double[] weights = new double[numberOfValues];
+		for (Map.Entry<E, Double> entry: distribution.entrySet())
+			if (entry.getValue() != null) weights[entry.getKey().ordinal()] = entry.getValue();
+		return new AliasSampler(weights);
 	}
 
 	/** 
@@ -385,20 +532,9 @@ public class RoadNetworkAssignment {
 
 				if (passengerODM.getIntFlow(originZone, destinationZone) == 0) continue;
 
-				List<Integer> listOfOriginNodes = new ArrayList<Integer>(roadNetwork.getZoneToNodes().get(originZone)); //the list is already sorted
-				List<Integer> listOfDestinationNodes = new ArrayList<Integer>(roadNetwork.getZoneToNodes().get(destinationZone)); //the list is already sorted
-
-				//removing blacklisted nodes
-				for (Integer originNode: roadNetwork.getZoneToNodes().get(originZone))
-					//check if any of the nodes is blacklisted
-					if (this.roadNetwork.isBlacklistedAsStartNode(originNode)) 
-						listOfOriginNodes.remove(originNode);
-
-				//removing blacklisted nodes
-				for (Integer destinationNode: roadNetwork.getZoneToNodes().get(destinationZone))
-					//check if any of the nodes is blacklisted
-					if (this.roadNetwork.isBlacklistedAsEndNode(destinationNode)) 
-						listOfDestinationNodes.remove(destinationNode);
+				//node samplers of the zones (blacklisted nodes cannot be chosen)
+				AliasSampler originNodeSampler = this.startNodeSamplers.get(originZone);
+				AliasSampler destinationNodeSampler = this.endNodeSamplers.get(destinationZone);
 
 				//calculate number of trip assignments
 				int flow = (int) Math.floor(passengerODM.getIntFlow(originZone, destinationZone) * this.assignmentFraction); //assigned fractionally and later augmented
@@ -409,7 +545,7 @@ public class RoadNetworkAssignment {
 				for (int i=0; i < (flow + remainder); i++) {
 
 					//choose time of day
-					TimeOfDay hour = this.chooseTimeOfDay(timeOfDayDistribution);
+					TimeOfDay hour = this.chooseTimeOfDay(this.timeOfDaySampler);
 					if (hour == null) LOGGER.warn("Time of day not chosen!");
 
 					//choose vehicle
@@ -417,7 +553,7 @@ public class RoadNetworkAssignment {
 					if (vht == null) LOGGER.warn("Vehicle type not chosen!");
 
 					//choose engine
-					EngineType engine = this.chooseEngineType(engineTypeFractions.get(vht));
+					EngineType engine = this.chooseEngineType(this.engineTypeSamplers.get(vht));
 					if (engine == null) LOGGER.warn("Engine type not chosen!");
 
 					//choose origin/destination nodes based on the gravitating population
@@ -425,43 +561,17 @@ public class RoadNetworkAssignment {
 					//the choice without replacement means that destination node has to be different from origin node
 
 					//choose origin node
-					double cumulativeProbability = 0.0;
-					Integer originNode = null;
-					double random = rng.nextDouble();
-					for (Integer node: listOfOriginNodes) {
-						cumulativeProbability += startNodeProbabilities.get(node);
-						if (Double.compare(cumulativeProbability, random) > 0) {
-							originNode = node;
-							break;
-						}
-					}
+					Integer originNode = chooseNode(originNodeSampler, rng.nextDouble());
 
 					if (originNode == null) LOGGER.warn("Origin node was not chosen!");
 
 					//choose destination node
-					cumulativeProbability = 0.0;
 					Integer destinationNode = null;
-					random = rng.nextDouble();
-					//if intrazonal trip and replacement is not allowed, the probability of the originNode should be 0 so it cannot be chosen again
-					//also, in that case it is important to rescale other node probabilities (now that the originNode is removed) by dividing with (1.0 - p(originNode))!
-					if (!flagIntrazonalAssignmentReplacement && originZone.equals(destinationZone) && listOfDestinationNodes.contains(originNode)) { //no replacement and intra-zonal trip
-						for (Integer node: listOfDestinationNodes) {
-							if (node.intValue() == originNode.intValue()) continue; //skip if the node is the same as origin
-							cumulativeProbability += endNodeProbabilities.get(node) / (1.0 - endNodeProbabilities.get(originNode));
-							if (Double.compare(cumulativeProbability, random) > 0) {
-								destinationNode = node;
-								break;
-							}
-						}
-					} else	{ //inter-zonal trip (or intra-zonal with replacement)
-						for (Integer node: listOfDestinationNodes) {
-							cumulativeProbability += endNodeProbabilities.get(node);
-							if (Double.compare(cumulativeProbability, random) > 0) {
-								destinationNode = node;
-								break;
-							}
-						}
-					}	
+					//if intrazonal trip and replacement is not allowed, the originNode cannot be chosen again (other node probabilities are implicitly rescaled)
+					if (!flagIntrazonalAssignmentReplacement && originZone.equals(destinationZone) && originNode != null) //no replacement and intra-zonal trip
+						destinationNode = chooseNodeExcluding(destinationNodeSampler, originNode, rng::nextDouble);
+					else //inter-zonal trip (or intra-zonal with replacement)
+						destinationNode = chooseNode(destinationNodeSampler, rng.nextDouble());
 
 					if (destinationNode == null) LOGGER.warn("Destination node was not chosen!");
 
@@ -485,7 +595,7 @@ public class RoadNetworkAssignment {
 							DirectedNode directedDestinationNode = (DirectedNode) this.roadNetwork.getNodeIDtoNode()[destinationNode];
 
 							//RoadPath fastestPath = this.roadNetwork.getFastestPath(directedOriginNode, directedDestinationNode, this.linkTravelTime);
-							RoadPath fastestPath = this.roadNetwork.getFastestPath(directedOriginNode, directedDestinationNode, this.linkTravelTimePerTimeOfDay.get(hour));
+							RoadPath fastestPath = this.findFastestPath(directedOriginNode, directedDestinationNode, this.linkTravelTimePerTimeOfDay.get(hour));
 							if (fastestPath == null) {
 								LOGGER.warn("Not even aStar could find a route between node {} and node {}!", originNode, destinationNode);
 								continue;
@@ -504,8 +614,7 @@ public class RoadNetworkAssignment {
 						int destinationZoneID = this.zoning.getLadCodeToIDMap().get(destinationZone);
 
 						//store trip in trip list
-						Trip trip = new Trip(vht, engine, foundRoute, hour, originZoneID, destinationZoneID, multiplier);
-						this.tripList.add(trip);
+						this.tripTable.add(TripTable.TRIP, vht, engine, foundRoute, hour, originZoneID, destinationZoneID, multiplier, 0.0);
 
 					} catch (Exception e) {
 						LOGGER.error(e);
@@ -556,20 +665,9 @@ public class RoadNetworkAssignment {
 
 				if (passengerODM.getIntFlow(originZone, destinationZone) == 0) continue;	
 
-				List<Integer> listOfOriginNodes = new ArrayList<Integer>(roadNetwork.getZoneToNodes().get(originZone)); //the list is already sorted
-				List<Integer> listOfDestinationNodes = new ArrayList<Integer>(roadNetwork.getZoneToNodes().get(destinationZone)); //the list is already sorted
-
-				//removing blacklisted nodes
-				for (Integer originNode: roadNetwork.getZoneToNodes().get(originZone))
-					//check if any of the nodes is blacklisted
-					if (this.roadNetwork.isBlacklistedAsStartNode(originNode)) 
-						listOfOriginNodes.remove(originNode);
-
-				//removing blacklisted nodes
-				for (Integer destinationNode: roadNetwork.getZoneToNodes().get(destinationZone))
-					//check if any of the nodes is blacklisted
-					if (this.roadNetwork.isBlacklistedAsEndNode(destinationNode)) 
-						listOfDestinationNodes.remove(destinationNode);
+				//node samplers of the zones (blacklisted nodes cannot be chosen)
+				AliasSampler originNodeSampler = this.startNodeSamplers.get(originZone);
+				AliasSampler destinationNodeSampler = this.endNodeSamplers.get(destinationZone);
 
 				//calculate number of trip assignments
 				int flow = (int) Math.floor(passengerODM.getIntFlow(originZone, destinationZone) * this.assignmentFraction); //assigned fractionally and later augmented
@@ -580,7 +678,7 @@ public class RoadNetworkAssignment {
 				for (int i=0; i < (flow + remainder); i++) {
 
 					//choose time of day
-					TimeOfDay hour = this.chooseTimeOfDay(timeOfDayDistribution);
+					TimeOfDay hour = this.chooseTimeOfDay(this.timeOfDaySampler);
 					if (hour == null) LOGGER.warn("Time of day not chosen!");
 
 					//choose vehicle
@@ -588,7 +686,7 @@ public class RoadNetworkAssignment {
 					if (vht == null) LOGGER.warn("Vehicle type not chosen!");
 
 					//choose engine
-					EngineType engine = this.chooseEngineType(engineTypeFractions.get(vht));
+					EngineType engine = this.chooseEngineType(this.engineTypeSamplers.get(vht));
 					if (engine == null) LOGGER.warn("Engine type not chosen!");
 
 					//choose origin/destination nodes based on the gravitating population
@@ -596,43 +694,17 @@ public class RoadNetworkAssignment {
 					//the choice without replacement means that destination node has to be different from origin node
 
 					//choose origin node
-					double cumulativeProbability = 0.0;
-					Integer originNode = null;
-					double random = rng.nextDouble();
-					for (Integer node: listOfOriginNodes) {
-						cumulativeProbability += startNodeProbabilities.get(node);
-						if (Double.compare(cumulativeProbability, random) > 0) {
-							originNode = node;
-							break;
-						}
-					}
+					Integer originNode = chooseNode(originNodeSampler, rng.nextDouble());
 
 					if (originNode == null) LOGGER.warn("Origin node was not chosen!");
 
 					//choose destination node
-					cumulativeProbability = 0.0;
 					Integer destinationNode = null;
-					random = rng.nextDouble();
-					//if intrazonal trip and replacement is not allowed, the probability of the originNode should be 0 so it cannot be chosen again
-					//also, in that case it is important to rescale other node probabilities (now that the originNode is removed) by dividing with (1.0 - p(originNode))!
-					if (!flagIntrazonalAssignmentReplacement && originZone.equals(destinationZone) && listOfDestinationNodes.contains(originNode)) { //no replacement and intra-zonal trip
-						for (Integer node: listOfDestinationNodes) {
-							if (node.intValue() == originNode.intValue()) continue; //skip if the node is the same as origin
-							cumulativeProbability += endNodeProbabilities.get(node) / (1.0 - endNodeProbabilities.get(originNode));
-							if (Double.compare(cumulativeProbability, random) > 0) {
-								destinationNode = node;
-								break;
-							}
-						}
-					} else	{ //inter-zonal trip (or intra-zonal with replacement)
-						for (Integer node: listOfDestinationNodes) {
-							cumulativeProbability += endNodeProbabilities.get(node);
-							if (Double.compare(cumulativeProbability, random) > 0) {
-								destinationNode = node;
-								break;
-							}
-						}
-					}	
+					//if intrazonal trip and replacement is not allowed, the originNode cannot be chosen again (other node probabilities are implicitly rescaled)
+					if (!flagIntrazonalAssignmentReplacement && originZone.equals(destinationZone) && originNode != null) //no replacement and intra-zonal trip
+						destinationNode = chooseNodeExcluding(destinationNodeSampler, originNode, rng::nextDouble);
+					else //inter-zonal trip (or intra-zonal with replacement)
+						destinationNode = chooseNode(destinationNodeSampler, rng.nextDouble());
 
 					if (destinationNode == null) LOGGER.warn("Destination node was not chosen!");
 
@@ -657,7 +729,7 @@ public class RoadNetworkAssignment {
 							DirectedNode directedDestinationNode = (DirectedNode) this.roadNetwork.getNodeIDtoNode()[destinationNode];
 
 							//RoadPath fastestPath = this.roadNetwork.getFastestPath(directedOriginNode, directedDestinationNode, this.linkTravelTime);
-							RoadPath fastestPath = this.roadNetwork.getFastestPath(directedOriginNode, directedDestinationNode, this.linkTravelTimePerTimeOfDay.get(hour));
+							RoadPath fastestPath = this.findFastestPath(directedOriginNode, directedDestinationNode, this.linkTravelTimePerTimeOfDay.get(hour));
 							if (fastestPath == null) {
 								LOGGER.warn("Not even aStar could find a route between node {} and node {}!", originNode, destinationNode);
 								continue;
@@ -676,8 +748,7 @@ public class RoadNetworkAssignment {
 						int destinationZoneID = this.zoning.getLadCodeToIDMap().get(destinationZone);
 
 						//store trip in trip list
-						Trip trip = new Trip(vht, engine, foundRoute, hour, originZoneID, destinationZoneID, multiplier);
-						this.tripList.add(trip);
+						this.tripTable.add(TripTable.TRIP, vht, engine, foundRoute, hour, originZoneID, destinationZoneID, multiplier, 0.0);
 
 					} catch (Exception e) {
 						LOGGER.error(e);
@@ -722,234 +793,54 @@ public class RoadNetworkAssignment {
 		params.put(RouteChoiceParams.INTERSEC, paramIntersections);
 		params.put(RouteChoiceParams.DELAY, avgIntersectionDelay);
 
-		final int totalExpectedFlow = passengerODM.getTotalIntFlow();
-		this.tripList = new ArrayList<Trip>((int)Math.ceil(totalExpectedFlow / 0.75)); //use expected flow divided by load factor as array list initial capacity
+		if (this.flagAggregateAssignment) {
+			this.assignPassengerFlowsRouteChoiceAggregate(passengerODM, rsg, params);
+			return;
+		}
 
-		//counters to calculate percentage of assignment success
-		long counterAssignedTrips = 0;
-		long counterTotalFlow = 0;
+		if (this.assignmentThreads > 1) {
+			this.assignPassengerFlowsRouteChoiceParallel(passengerODM, this.zoning, rsg, params, routeChoiceParameters, PassengerAssignmentType.LAD);
+			return;
+		}
+
+		final int totalExpectedFlow = passengerODM.getTotalIntFlow();
+		this.tripTable = new TripTable(totalExpectedFlow); //use expected flow as the initial capacity of the trip table
 
 		//sort nodes based on the gravitating population
 		this.roadNetwork.sortGravityNodes();
 
-		List<String> origins = passengerODM.getUnsortedOrigins();
-		List<String> destinations = passengerODM.getUnsortedDestinations();
-
-		//for each OD pair from the passengerODM
-		for (String originZone: origins)
-			for (String destinationZone: destinations) {
-
-				if (passengerODM.getIntFlow(originZone, destinationZone) == 0) continue;	
-
-				List<Integer> listOfOriginNodes = new ArrayList<Integer>(roadNetwork.getZoneToNodes().get(originZone)); //the list is already sorted
-				List<Integer> listOfDestinationNodes = new ArrayList<Integer>(roadNetwork.getZoneToNodes().get(destinationZone)); //the list is already sorted
-
-				//removing blacklisted nodes
-				for (Integer originNode: roadNetwork.getZoneToNodes().get(originZone))
-					//check if any of the nodes is blacklisted
-					if (this.roadNetwork.getStartNodeBlacklist()[originNode]) 
-						listOfOriginNodes.remove(originNode);
-
-				//removing blacklisted nodes
-				for (Integer destinationNode: roadNetwork.getZoneToNodes().get(destinationZone))
-					//check if any of the nodes is blacklisted
-					if (this.roadNetwork.getEndNodeBlacklist()[destinationNode]) 
-						listOfDestinationNodes.remove(destinationNode);
-
-				//calculate number of trip assignments
-				int flow = (int) Math.floor(passengerODM.getIntFlow(originZone, destinationZone) * this.assignmentFraction); //assigned fractionally and later augmented
-				int remainder = passengerODM.getIntFlow(originZone, destinationZone) - (int) Math.round(flow / this.assignmentFraction); //remainder of trips will be assigned individually (each trip)
-				counterTotalFlow += passengerODM.getIntFlow(originZone, destinationZone);
-
-				//for each trip
-				for (int i=0; i < (flow + remainder); i++) {
-
-					//choose time of day
-					TimeOfDay hour = this.chooseTimeOfDay(timeOfDayDistribution);
-					if (hour == null) LOGGER.warn("Time of day not chosen!");
-
-					//choose vehicle
-					VehicleType vht = this.chooseCarVehicleType(AVFractions);
-					if (vht == null) LOGGER.warn("Vehicle type not chosen!");
-
-					//choose engine
-					EngineType engine = this.chooseEngineType(engineTypeFractions.get(vht));
-					if (engine == null) LOGGER.warn("Engine type not chosen!");
-
-					//choose origin/destination nodes based on the gravitating population
-					//the choice with replacement means that possibly: destination node = origin node
-					//the choice without replacement means that destination node has to be different from origin node
-
-					Integer originNode = null;
-					Integer destinationNode = null;
-
-					if (originZone.equals(destinationZone)) { //if intra-zonal
-
-						//choose origin node
-						double cumulativeProbability = 0.0;
-						double random = rng.nextDouble();
-						for (Integer node: listOfOriginNodes) {
-							cumulativeProbability += startNodeProbabilities.get(node);
-							if (Double.compare(cumulativeProbability, random) > 0) {
-								originNode = node;
-								break;
-							}
-						}
-
-						if (originNode == null) LOGGER.warn("Origin node for intra-zonal trip was not chosen!");
-
-						//choose destination node
-						cumulativeProbability = 0.0;
-						random = rng.nextDouble();
-						//if intrazonal trip and replacement is not allowed, the probability of the originNode should be 0 so it cannot be chosen again
-						//also, in that case it is important to rescale other node probabilities (now that the originNode is removed) by dividing with (1.0 - p(originNode))!
-						if (!flagIntrazonalAssignmentReplacement && listOfDestinationNodes.contains(originNode)) { //no replacement
-							for (Integer node: listOfDestinationNodes) {
-								if (node.intValue() == originNode.intValue()) continue; //skip if the node is the same as origin
-								cumulativeProbability += endNodeProbabilities.get(node) / (1.0 - endNodeProbabilities.get(originNode));
-								if (Double.compare(cumulativeProbability, random) > 0) {
-									destinationNode = node;
-									break;
-								}
-							}
-						} else	{ //with replacement
-							for (Integer node: listOfDestinationNodes) {
-								cumulativeProbability += endNodeProbabilities.get(node);
-								if (Double.compare(cumulativeProbability, random) > 0) {
-									destinationNode = node;
-									break;
-								}
-							}
-						}	
-
-						if (destinationNode == null) LOGGER.warn("Destination for intra-zonal trip node was not chosen!");
-
-					} else { //inter-zonal
-
-						/*
-					//for (int nodeIndex=0; nodeIndex < INTERZONAL_TOP_NODES && listOfOriginNodes.size(); nodeIndex++)
-					//choose random from top_nodes regardless of population size
-					int indexOrigin = rng.nextInt(INTERZONAL_TOP_NODES<listOfOriginNodes.size()?INTERZONAL_TOP_NODES:listOfOriginNodes.size());
-					int indexDestination = rng.nextInt(INTERZONAL_TOP_NODES<listOfDestinationNodes.size()?INTERZONAL_TOP_NODES:listOfDestinationNodes.size());
-					//System.out.println("Index of origin node: " + indexOrigin);
-					//System.out.println("Index of destination node: " + indexDestination);
-					originNode = listOfOriginNodes.get(indexOrigin);					
-					destinationNode = listOfDestinationNodes.get(indexDestination);
-						 */
-
-						//make a choice based on the gravitating population size
-						int originNodesToConsider = interzonalTopNodes<listOfOriginNodes.size()?interzonalTopNodes:listOfOriginNodes.size();
-						int destinationNodesToConsider = interzonalTopNodes<listOfDestinationNodes.size()?interzonalTopNodes:listOfDestinationNodes.size();
-						//sums of gravitating population
-
-						double sum = 0.0;
-						for (int j=0; j<originNodesToConsider; j++) sum += startNodeProbabilities.get(listOfOriginNodes.get(j)); 
-						//choose origin node
-						double cumulativeProbability = 0.0;
-						double random = rng.nextDouble();
-						for (Integer node: listOfOriginNodes) {
-							cumulativeProbability += startNodeProbabilities.get(node) / sum; //scale with sum
-							if (Double.compare(cumulativeProbability, random) > 0) {
-								originNode = node;
-								break;
-							}
-						}
-
-						sum = 0.0;
-						for (int j=0; j<destinationNodesToConsider; j++) sum += endNodeProbabilities.get(listOfDestinationNodes.get(j)); 
-						//choose destination node
-						cumulativeProbability = 0.0;
-						random = rng.nextDouble();
-						for (Integer node: listOfDestinationNodes) {
-							cumulativeProbability += endNodeProbabilities.get(node) / sum; //scale with sum
-							if (Double.compare(cumulativeProbability, random) > 0) {
-								destinationNode = node;
-								break;
-							}
-						}
-
-						if (originNode == null) LOGGER.warn("Origin node for inter-zonal trip was not chosen!");
-						if (destinationNode == null) LOGGER.warn("Destination node for inter-zonal trip was not chosen!");
-					}
-
-					Route chosenRoute = null;
-					RouteSet fetchedRouteSet = rsg.getRouteSet(originNode.intValue(), destinationNode.intValue());
-					if (fetchedRouteSet == null) {
-						//					LOGGER.warn("Can't fetch the route set between nodes {} and {}!", originNode, destinationNode);
-
-						if (!flagAStarIfEmptyRouteSet)	continue;
-						else { //try finding a path with aStar
-							//						LOGGER.debug("Trying the astar!");
-
-							DirectedNode directedOriginNode = (DirectedNode) this.roadNetwork.getNodeIDtoNode()[originNode];
-							DirectedNode directedDestinationNode = (DirectedNode) this.roadNetwork.getNodeIDtoNode()[destinationNode];
-
-							//RoadPath fastestPath = this.roadNetwork.getFastestPath(directedOriginNode, directedDestinationNode, this.linkTravelTime);
-							RoadPath fastestPath = this.roadNetwork.getFastestPath(directedOriginNode, directedDestinationNode, this.linkTravelTimePerTimeOfDay.get(hour));
-							if (fastestPath == null) {
-								LOGGER.warn("Not even aStar could find a route between node {} and node {}!", originNode, destinationNode);
-								continue;
-							}
-							chosenRoute = new Route(fastestPath, roadNetwork);
-							if (chosenRoute.isEmpty()) {
-								LOGGER.warn("Empty route between nodes {} and {}!", originNode, destinationNode);
-								continue;
-							}
-							//store generated route into the rsg!
-							rsg.addRoute(chosenRoute);
-						}
-					} else { //there is a route set
-
-						//if only one route in the route set, do not calculate utilities and probabilities, but choose that route
-						if (fetchedRouteSet.getSize() == 1) {
-
-							LOGGER.trace("There is just one route in the route set, so choosing that route.");
-							//choose that route
-							chosenRoute = fetchedRouteSet.getChoiceSet().get(0);
-
-						} else { //choose a route using a discrete-choice model
-
-							LOGGER.trace("There are multiple route in the route set, so choosing with a route-choice model.");
-							//if (fetchedRouteSet.getProbabilities() == null) {
-							//probabilities need to be calculated for this route set before a choice can be made
-
-							fetchedRouteSet.calculateUtilities(vht, engine, hour, this.linkTravelTimePerTimeOfDay.get(hour), this.energyConsumptions, this.relativeFuelEfficiencies, this.energyUnitCosts, this.congestionCharges, params);
-							fetchedRouteSet.calculateProbabilities();
-							//}
-
-							//choose the route
-							chosenRoute = fetchedRouteSet.choose();
-						}
-
-						if (chosenRoute == null) {
-							LOGGER.warn("No chosen route between nodes {} and {}!", originNode, destinationNode);
-							continue;
-						}
-					}
+		this.assignPassengerFlowsRouteChoiceSequential(passengerODM, this.zoning, rsg, params, routeChoiceParameters, PassengerAssignmentType.LAD);
+	}
 
-					if (chosenRoute.isEmpty()) {
-						LOGGER.warn("The chosen route is empty, skipping this trip!");
-						continue;
-					}
+	/**
+	 * Assigns passenger origin-destination matrix to the road network using the route choice model, but instead of sampling each trip,
+	 * the flow of each OD pair is distributed multinomially among node pairs, times of day, vehicle types, engine types and routes.
+	 * One trip is stored for each distinct combination, with the number of trips as its multiplier.
+	 * Each OD pair always uses its own random number stream, so the result does not depend on the number of threads (ASSIGNMENT_THREADS).
+	 * @param passengerODM Passenger origin-destination matrix with flows to be assigned.
+	 * @param rsg Route set generator containing the routes.
+	 * @param params Route choice parameters.
+	 */
+	private void assignPassengerFlowsRouteChoiceAggregate(AssignableODMatrix passengerODM, RouteSetGenerator rsg, Map<RouteChoiceParams, Double> params) {
 
-					int multiplier = 1;
-					if (i < flow) multiplier = (int) Math.round(1 / this.assignmentFraction);
-					counterAssignedTrips += multiplier;
+		LOGGER.info("Assigning the passenger flows with the aggregate assignment...");
 
-					//get zone IDs for storing into trips
-					int originZoneID = this.zoning.getLadCodeToIDMap().get(originZone);
-					int destinationZoneID = this.zoning.getLadCodeToIDMap().get(destinationZone);
+		this.assignPassengerFlowsRouteChoiceParallel(passengerODM, this.zoning, rsg, params, null, PassengerAssignmentType.AGGREGATE);
 
-					//store trip in trip list
-					Trip trip = new Trip(vht, engine, chosenRoute, hour, originZoneID, destinationZoneID, multiplier);
-					this.tripList.add(trip);
+		LOGGER.debug("Number of trip records: {}", this.tripTable.size());
+	}
 
-				}//for each trip
-			}//for each OD pair
+	/**
+	 * Gets the probabilities of the enum values of a sampler whose outcomes are enum ordinals.
+	 * @param sampler Sampler.
+	 * @param numberOfValues Number of enum values.
+	 * @return Probabilities indexed by the enum ordinal.
+	 */
+	private static double[] getOrdinalProbabilities(AliasSampler sampler, int numberOfValues) {
 
-		LOGGER.debug("Total flow: " + counterTotalFlow);
-		LOGGER.debug("Total assigned trips: " + counterAssignedTrips);
-		LOGGER.debug("Succesfully assigned trips percentage: " + 100.0* counterAssignedTrips / counterTotalFlow);
+		double[] probabilities = new double[numberOfValues];
+		for (int i = 0; i < sampler.size(); i++) probabilities[sampler.getOutcome(i)] = sampler.getProbability(i);
+		return probabilities;
 	}
 
 	/** 
@@ -965,6 +856,9 @@ public class RoadNetworkAssignment {
 
 		LOGGER.info("Assigning the passenger flows from the tempro passenger matrix...");
 
+		//trips are stored without trip objects, so the zoning used for their LAD mapping is set here
+		TripTempro.zoning = zoning;
+
 		//to store routes generated during the assignment
 		//RouteSetGenerator rsg = new RouteSetGenerator(this.roadNetwork);
 		if (rsg == null) rsg = new RouteSetGenerator(this.roadNetwork, props);
@@ -1009,7 +903,7 @@ public class RoadNetworkAssignment {
 				//for each trip
 				for (int i=0; i < (flow + remainder); i++) {
 
-					TimeOfDay hour = this.chooseTimeOfDay(timeOfDayDistribution);
+					TimeOfDay hour = this.chooseTimeOfDay(this.timeOfDaySampler);
 					if (hour == null) LOGGER.warn("Time of day not chosen!");
 
 					//choose vehicle
@@ -1017,7 +911,7 @@ public class RoadNetworkAssignment {
 					if (vht == null) LOGGER.warn("Vehicle type not chosen!");
 
 					//choose engine
-					EngineType engine = this.chooseEngineType(engineTypeFractions.get(vht));
+					EngineType engine = this.chooseEngineType(this.engineTypeSamplers.get(vht));
 					if (engine == null) LOGGER.warn("Engine type not chosen!");
 
 					//choose origin/destination nodes based on the gravitating population
@@ -1171,7 +1065,7 @@ public class RoadNetworkAssignment {
 							DirectedNode directedDestinationNode = (DirectedNode) this.roadNetwork.getNodeIDtoNode()[destinationNode];
 
 							//RoadPath fastestPath = this.roadNetwork.getFastestPath(directedOriginNode, directedDestinationNode, this.linkTravelTime);
-							RoadPath fastestPath = this.roadNetwork.getFastestPath(directedOriginNode, directedDestinationNode, this.linkTravelTimePerTimeOfDay.get(hour));
+							RoadPath fastestPath = this.findFastestPath(directedOriginNode, directedDestinationNode, this.linkTravelTimePerTimeOfDay.get(hour));
 							if (fastestPath == null) {
 								//							LOGGER.warn("Not even aStar could find a route between node {} and node {}!", originNode, destinationNode);
 								continue;
@@ -1188,8 +1082,7 @@ public class RoadNetworkAssignment {
 						//store trip in trip list
 						Integer originZoneID = zoning.getTemproCodeToIDMap().get(originZone);
 						Integer destinationZoneID = zoning.getTemproCodeToIDMap().get(destinationZone);
-						Trip trip = new TripTempro(vht, engine, foundRoute, hour, originZoneID, destinationZoneID, zoning, multiplier);
-						this.tripList.add(trip);
+						this.tripTable.add(TripTable.TRIP_TEMPRO, vht, engine, foundRoute, hour, originZoneID, destinationZoneID, multiplier, 0.0);
 
 					} catch (Exception e) {
 						LOGGER.error(e);
@@ -1235,81 +1128,12 @@ public class RoadNetworkAssignment {
 		params.put(RouteChoiceParams.INTERSEC, paramIntersections);
 		params.put(RouteChoiceParams.DELAY, avgIntersectionDelay);
 
-		//counters to calculate percentage of assignment success
-		long counterAssignedTrips = 0;
-		long counterTotalFlow = 0;
-
-		List<String> origins = passengerODM.getUnsortedOrigins();
-		List<String> destinations = passengerODM.getUnsortedDestinations();
-
-		//for each OD pair from the passengerODM
-		for (String originZone: origins)
-			for (String destinationZone: destinations) {
-
-				if (passengerODM.getIntFlow(originZone, destinationZone) == 0) continue;	
-
-				//calculate number of trip assignments
-				int flow = (int) Math.floor(passengerODM.getIntFlow(originZone, destinationZone) * this.assignmentFraction); //assigned fractionally and later augmented
-				int remainder = passengerODM.getIntFlow(originZone, destinationZone) - (int) Math.round(flow / this.assignmentFraction); //remainder of trips will be assigned individually (each trip)
-				counterTotalFlow += passengerODM.getIntFlow(originZone, destinationZone);
-
-				//get zone IDs
-				Integer originZoneID = zoning.getTemproCodeToIDMap().get(originZone);
-				Integer destinationZoneID = zoning.getTemproCodeToIDMap().get(destinationZone);
-
-				//for each trip
-				for (int i=0; i < (flow + remainder); i++) {
-
-					//choose time of day
-					TimeOfDay hour = this.chooseTimeOfDay(timeOfDayDistribution);
-					if (hour == null) LOGGER.warn("Time of day not chosen!");
-
-					//choose vehicle
-					VehicleType vht = this.chooseCarVehicleType(AVFractions);
-					if (vht == null) LOGGER.warn("Vehicle type not chosen!");
-
-					//choose engine
-					EngineType engine = this.chooseEngineType(engineTypeFractions.get(vht));
-					if (engine == null) LOGGER.warn("Engine type not chosen!");
-
-					//choose origin node
-					int originNode = zoning.getZoneIDToNearestNodeIDMap()[originZoneID];
-					if (originNode == 0) LOGGER.warn("Origin node was not chosen for zone {}", originZone);
-
-					if (this.roadNetwork.isBlacklistedAsStartNode(originNode)) 
-						LOGGER.warn("Origin node is blacklisted! node: {}", originNode);
-
-					//choose destination node
-					int destinationNode = zoning.getZoneIDToNearestNodeIDMap()[destinationZoneID];
-					if (destinationNode == 0) LOGGER.warn("Destination node was not chosen for zone {}", destinationZone);
-
-					if (this.roadNetwork.isBlacklistedAsEndNode(destinationNode)) 
-						LOGGER.warn("Destination node is blacklisted! node: {}", destinationNode);
-
-					//choose the route
-					Route chosenRoute = this.chooseRoute(originNode, destinationNode, vht, engine, hour, rsg, params);
-					if (chosenRoute == null) {
-						LOGGER.warn("No chosen route between nodes {} and {}", originNode, destinationNode);
-						continue;
-					}
-					if (chosenRoute.isEmpty()) {
-						LOGGER.warn("The chosen route is empty, skipping this trip!");
-						continue;
-					}
-
-					int multiplier = 1;
-					if (i < flow) multiplier = (int) Math.round(1 / this.assignmentFraction);
-					counterAssignedTrips += multiplier;
-
-					Trip trip = new TripTempro(vht, engine, chosenRoute, hour, originZoneID, destinationZoneID, zoning, multiplier);
-					this.tripList.add(trip);
-
-				}//for each trip
-			}//for each OD pair
+		if (this.assignmentThreads > 1) {
+			this.assignPassengerFlowsRouteChoiceParallel(passengerODM, zoning, rsg, params, routeChoiceParameters, PassengerAssignmentType.TEMPRO);
+			return;
+		}
 
-		LOGGER.debug("Total flow: {}", counterTotalFlow);
-		LOGGER.debug("Total assigned trips: {}", counterAssignedTrips);
-		LOGGER.debug("Succesfully assigned trips: {}", 100.0* counterAssignedTrips / counterTotalFlow);
+		this.assignPassengerFlowsRouteChoiceSequential(passengerODM, zoning, rsg, params, routeChoiceParameters, PassengerAssignmentType.TEMPRO);
 	}
 
 	/** 
@@ -1348,116 +1172,702 @@ public class RoadNetworkAssignment {
 		//RouteSetGenerator rsg = new RouteSetGenerator(this.roadNetwork);
 		if (rsg == null) rsg = new RouteSetGenerator(this.roadNetwork, routeChoiceParameters);
 
-		//counters to calculate percentage of assignment success
-		long counterAssignedTrips = 0;
-		long counterTotalFlow = 0;
+		if (this.assignmentThreads > 1) {
+			this.assignPassengerFlowsRouteChoiceParallel(passengerODM, zoning, rsg, params, routeChoiceParameters, PassengerAssignmentType.TEMPRO_DISTANCE_BASED);
+			return;
+		}
 
-		List<String> origins = passengerODM.getUnsortedOrigins();
-		List<String> destinations = passengerODM.getUnsortedDestinations();
+		this.assignPassengerFlowsRouteChoiceSequential(passengerODM, zoning, rsg, params, routeChoiceParameters, PassengerAssignmentType.TEMPRO_DISTANCE_BASED);
+	}
 
-		//for each OD pair from the passengerODM
-		for (String originZone: origins)
-			for (String destinationZone: destinations) {
+	/**
+	 * Passenger assignment types (the same per-OD-pair assignment is used by the single-threaded and multi-threaded assignment).
+	 */
+	private static enum PassengerAssignmentType {
+		LAD, TEMPRO, TEMPRO_DISTANCE_BASED, AGGREGATE
+	}
 
-				if (passengerODM.getIntFlow(originZone, destinationZone) == 0) continue;
+	/** 
+	 * Assigns passenger origin-destination matrix to the road network in the current thread.
+	 * OD pairs are assigned in the matrix order using the global random number generator, and trips are appended to the trip list.
+	 * @param passengerODM Passenger origin-destination matrix.
+	 * @param zoning Zoning system.
+	 * @param rsg Route set generator containing the routes.
+	 * @param params Route choice parameters.
+	 * @param routeChoiceParameters Properties with route choice parameters.
+	 * @param assignmentType Passenger assignment type.
+	 */
+	private void assignPassengerFlowsRouteChoiceSequential(AssignableODMatrix passengerODM, Zoning zoning, RouteSetGenerator rsg, Map<RouteChoiceParams, Double> params, Properties routeChoiceParameters, PassengerAssignmentType assignmentType) {
+
+		PassengerAssignmentWorker worker = new PassengerAssignmentWorker(zoning, rsg, params, routeChoiceParameters, assignmentType, this.tripTable);
+		for (String originZone: passengerODM.getUnsortedOrigins())
+			for (String destinationZone: passengerODM.getUnsortedDestinations()) {
+				int intFlow = passengerODM.getIntFlow(originZone, destinationZone);
+				if (intFlow == 0) continue;
+				worker.addODPair(originZone, destinationZone, intFlow);
+			}
+		worker.call();
+		if (this.collectedRoutes != null) this.collectedRoutes.putAll(worker.generatedRoutes);
 
-				//get distance between Tempro zone centroids
-				int originZoneID = zoning.getTemproCodeToIDMap().get(originZone);
-				int destinationZoneID = zoning.getTemproCodeToIDMap().get(destinationZone);
-				final double centroidDistance = zoning.getZoneToZoneDistanceMatrix()[originZoneID][destinationZoneID];
+		LOGGER.debug("Total flow: {}", worker.counterTotalFlow);
+		LOGGER.debug("Total assigned trips: {}", worker.counterAssignedTrips);
+		LOGGER.debug("Succesfully assigned trips: {}", 100.0* worker.counterAssignedTrips / worker.counterTotalFlow);
+	}
 
-				//calculate number of trip assignments
-				int flow = (int) Math.floor(passengerODM.getIntFlow(originZone, destinationZone) * this.assignmentFraction); //assigned fractionally and later augmented
-				int remainder = passengerODM.getIntFlow(originZone, destinationZone) - (int) Math.round(flow / this.assignmentFraction); //remainder of trips will be assigned individually (each trip)
-				counterTotalFlow += passengerODM.getIntFlow(originZone, destinationZone);
+	/** 
+	 * Assigns passenger origin-destination matrix to the road network using multiple threads (a single worker runs in the current thread).
+	 * OD pairs with non-zero flows are distributed between the workers in a round-robin fashion.
+	 * Each OD pair uses its own random number stream and each worker stores trips into its own list.
+	 * Trips are then merged in the OD pair order, so the results are reproducible for a fixed seed regardless of the number of threads.
+	 * @param passengerODM Passenger origin-destination matrix.
+	 * @param zoning Zoning system.
+	 * @param rsg Route set generator containing the routes.
+	 * @param params Route choice parameters.
+	 * @param routeChoiceParameters Properties with route choice parameters.
+	 * @param assignmentType Passenger assignment type.
+	 */
+	private void assignPassengerFlowsRouteChoiceParallel(AssignableODMatrix passengerODM, Zoning zoning, RouteSetGenerator rsg, Map<RouteChoiceParams, Double> params, Properties routeChoiceParameters, PassengerAssignmentType assignmentType) {
 
-				//for each trip
-				for (int i=0; i < (flow + remainder); i++) {
+		LOGGER.info("Assigning the passenger flows using {} threads...", this.assignmentThreads);
 
-					//choose time of day
-					TimeOfDay hour = this.chooseTimeOfDay(timeOfDayDistribution);
-					if (hour == null) LOGGER.warn("Time of day not chosen!");
+		//sort nodes based on the gravitating population
+		final boolean ladAssignment = (assignmentType == PassengerAssignmentType.LAD || assignmentType == PassengerAssignmentType.AGGREGATE);
+		if (ladAssignment) this.roadNetwork.sortGravityNodes();
+
+		//the seed of the OD pair streams is drawn from the global generator
+		RandomStreams streams = RandomStreams.fromGlobalGenerator();
+
+		List<PassengerAssignmentWorker> workers = new ArrayList<PassengerAssignmentWorker>(this.assignmentThreads);
+		for (int w = 0; w < this.assignmentThreads; w++)
+			workers.add(new PassengerAssignmentWorker(zoning, rsg, params, routeChoiceParameters, assignmentType, streams));
+
+		//distribute OD pairs between the workers
+		int pairIndex = 0;
+		for (String originZone: passengerODM.getUnsortedOrigins())
+			for (String destinationZone: passengerODM.getUnsortedDestinations()) {
+				int intFlow = passengerODM.getIntFlow(originZone, destinationZone);
+				if (intFlow == 0) continue;
+				workers.get(pairIndex % this.assignmentThreads).addODPair(originZone, destinationZone, intFlow);
+				pairIndex++;
+			}
 
-					//choose vehicle
-					VehicleType vht = this.chooseCarVehicleType(AVFractions);
-					if (vht == null) LOGGER.warn("Vehicle type not chosen!");
+		//a failed worker leaves the trip list unchanged
+		ParallelTasks.invokeAll(workers, "passenger assignment");
 
-					//choose engine
-					EngineType engine = this.chooseEngineType(engineTypeFractions.get(vht));
-					if (engine == null) LOGGER.warn("Engine type not chosen!");
+		//the assignment on LAD level replaces the trip list (as in the single-threaded assignment)
+		if (ladAssignment) this.tripTable = new TripTable();
 
-					//choose origin and destination node
-					Integer originNode = null, destinationNode = null;
+		int workerTrips = 0;
+		for (PassengerAssignmentWorker worker: workers) workerTrips += worker.trips.size();
+		this.tripTable.ensureCapacity(this.tripTable.size() + workerTrips);
 
-					if (originZoneID != destinationZoneID) { //if not tempro intra-zonal (minor road) trip
+		//merge worker trips in the OD pair order (pair i was assigned as the (i / threads)-th pair of worker i % threads)
+		for (int pair = 0; pair < pairIndex; pair++) {
+			PassengerAssignmentWorker worker = workers.get(pair % this.assignmentThreads);
+			int localPair = pair / this.assignmentThreads;
+			int fromTrip = (localPair == 0) ? 0 : worker.pairTripEnd[localPair - 1];
+			this.tripTable.addAll(worker.trips, fromTrip, worker.pairTripEnd[localPair]);
+		}
 
-						if (centroidDistance <= distanceThreshold) { //use nodes nearest to the tempro zone centroid
+		long counterAssignedTrips = 0;
+		long counterTotalFlow = 0;
+		for (PassengerAssignmentWorker worker: workers) {
+			//store routes found with aStar into the rsg (or collect them if the rsg is shared)
+			for (Entry<Long, Route> entry: worker.generatedRoutes.entrySet())
+				if (this.collectedRoutes != null) this.collectedRoutes.putIfAbsent(entry.getKey(), entry.getValue());
+				else rsg.addRoute(entry.getValue());
+
+			counterAssignedTrips += worker.counterAssignedTrips;
+			counterTotalFlow += worker.counterTotalFlow;
+		}
 
-							originNode = zoning.getZoneIDToNearestNodeIDMap()[originZoneID];
-							if (originNode == 0) LOGGER.warn("Origin node was not chosen for zone {}", originZone);
+		LOGGER.debug("Total flow: {}", counterTotalFlow);
+		LOGGER.debug("Total assigned trips: {}", counterAssignedTrips);
+		LOGGER.debug("Succesfully assigned trips: {}", 100.0* counterAssignedTrips / counterTotalFlow);
+	}
 
-							//if (this.roadNetwork.isBlacklistedAsStartNode(originNode)) 
-							//	LOGGER.warn("Origin node is blacklisted! node: {}", originNode);
+	/**
+	 * Finds the fastest path using aStar. GeoTools path finders traverse the shared graph and are not thread-safe,
+	 * so the searches are not run concurrently (by the workers or by other assignments on the same road network).
+	 * @param from Origin node.
+	 * @param to Destination node.
+	 * @param linkTravelTime Link travel times.
+	 * @return Fastest path (null if not found).
+	 */
+	private RoadPath findFastestPath(DirectedNode from, DirectedNode to, double[] linkTravelTime) {
 
-							destinationNode = zoning.getZoneIDToNearestNodeIDMap()[destinationZoneID];
-							if (destinationNode == 0) LOGGER.warn("Destination node was not chosen for zone {}", destinationZone);
+		synchronized (this.roadNetwork) {
+			return this.roadNetwork.getFastestPath(from, to, linkTravelTime);
+		}
+	}
 
-							//if (this.roadNetwork.isBlacklistedAsEndNode(destinationNode)) 
-							//	LOGGER.warn("Destination node is blacklisted! node: {}", destinationNode);
+	/**
+	 * Chooses a node using the node sampler of a zone.
+	 * @param nodeSampler Node sampler.
+	 * @param random Random number between 0 and 1.
+	 * @return Chosen node (null if there is no node to choose from).
+	 */
+	private static Integer chooseNode(AliasSampler nodeSampler, double random) {
 
-						} else { //otherwise use one of the nodes from the LAD zone
+		if (nodeSampler == null) return null;
+		int node = nodeSampler.sample(random);
+		return (node < 0) ? null : node;
+	}
 
-							String originLAD = zoning.getZoneToLADMap().get(originZone);
-							String destinationLAD = zoning.getZoneToLADMap().get(destinationZone);
+	/**
+	 * Chooses a node using the node sampler of a zone, but the excluded node cannot be chosen (the probabilities of other nodes are rescaled).
+	 * @param nodeSampler Node sampler.
+	 * @param excludedNode Node that cannot be chosen.
+	 * @param random Generator of random numbers between 0 and 1.
+	 * @return Chosen node (null if there is no other node to choose from).
+	 */
+	private static Integer chooseNodeExcluding(AliasSampler nodeSampler, int excludedNode, DoubleSupplier random) {
 
-							//use precomputed nearest nodes from the zoning
-							originNode = zoning.getZoneIDToNearestNodeIDFromLADTopNodesMap()[originZoneID];
-							destinationNode = zoning.getZoneIDToNearestNodeIDFromLADTopNodesMap()[destinationZoneID];
+		if (nodeSampler == null) return null;
+		int node = nodeSampler.sampleExcluding(random, excludedNode);
+		return (node < 0) ? null : node;
+	}
 
-							if (originNode == 0) LOGGER.warn("Origin node was not chosen for zone {}", originZone);
-							if (destinationNode == 0) LOGGER.warn("Destination node was not chosen for zone {}", destinationZone);
-						}
+	/**
+	 * Assigns a list of passenger OD pairs into a trip list.
+	 * A worker of the multi-threaded assignment uses its own trip list and a separate random number stream for each OD pair,
+	 * while the single-threaded assignment runs one worker over all OD pairs with the global generator and the assignment's trip list.
+	 */
+	private class PassengerAssignmentWorker implements Callable<Void> {
+
+		private final Zoning zoning;
+		private final RouteSetGenerator rsg;
+		private final Map<RouteChoiceParams, Double> params;
+		private final PassengerAssignmentType assignmentType;
+		private final RandomStreams streams; //null if the global generator is used
+		private DoubleSupplier random; //random numbers for the OD pair that is being assigned
+
+		//parameters of the combined tempro/LAD assignment
+		private double distanceThreshold;
+		private double minLength;
+		private double maxLengthFactor;
+
+		//OD pairs assigned by this worker
+		private final List<String> originZones = new ArrayList<String>();
+		private final List<String> destinationZones = new ArrayList<String>();
+		private final List<Integer> flows = new ArrayList<Integer>();
+
+		private final TripTable trips;
+		private final RouteChoiceScratch scratch = new RouteChoiceScratch(); //route choice buffers of this worker
+		private double[] nodeProbabilities; //node probabilities without the excluded node (buffer of this worker)
+		private int[] pairTripEnd; //end index (exclusive) of the trips of each OD pair
+		//routes found with aStar (stored into the rsg after the workers finish, or straight away by the single-threaded assignment)
+		private final Map<Long, Route> generatedRoutes = new LinkedHashMap<Long, Route>();
+
+		private long counterAssignedTrips = 0;
+		private long counterTotalFlow = 0;
+
+		/**
+		 * Constructor for a worker of the multi-threaded assignment.
+		 * @param zoning Zoning system.
+		 * @param rsg Route set generator containing the routes.
+		 * @param params Route choice parameters.
+		 * @param routeChoiceParameters Properties with route choice parameters.
+		 * @param assignmentType Passenger assignment type.
+		 * @param streams Random number streams of the OD pairs.
+		 */
+		private PassengerAssignmentWorker(Zoning zoning, RouteSetGenerator rsg, Map<RouteChoiceParams, Double> params, Properties routeChoiceParameters, PassengerAssignmentType assignmentType, RandomStreams streams) {
+
+			this(zoning, rsg, params, routeChoiceParameters, assignmentType, streams, new TripTable());
+		}
 
-						//choose the route
-						Route chosenRoute = this.chooseRoute(originNode.intValue(), destinationNode.intValue(), vht, engine, hour, rsg, params);
-						if (chosenRoute == null) {
-							LOGGER.warn("No chosen route between nodes {} and {}", originNode, destinationNode);
-							continue;
-						}
-						if (chosenRoute.isEmpty()) {
-							LOGGER.warn("The chosen route is empty, skipping this trip!");
+		/**
+		 * Constructor for the single-threaded assignment (uses the global random number generator).
+		 * @param zoning Zoning system.
+		 * @param rsg Route set generator containing the routes.
+		 * @param params Route choice parameters.
+		 * @param routeChoiceParameters Properties with route choice parameters.
+		 * @param assignmentType Passenger assignment type.
+		 * @param trips Trip list to which the trips are appended.
+		 */
+		private PassengerAssignmentWorker(Zoning zoning, RouteSetGenerator rsg, Map<RouteChoiceParams, Double> params, Properties routeChoiceParameters, PassengerAssignmentType assignmentType, TripTable trips) {
+
+			this(zoning, rsg, params, routeChoiceParameters, assignmentType, null, trips);
+			this.random = rng::nextDouble;
+		}
+
+		/**
+		 * Constructor for the worker.
+		 * @param zoning Zoning system.
+		 * @param rsg Route set generator containing the routes.
+		 * @param params Route choice parameters.
+		 * @param routeChoiceParameters Properties with route choice parameters.
+		 * @param assignmentType Passenger assignment type.
+		 * @param streams Random number streams of the OD pairs (null if the global generator is used).
+		 * @param trips Trip list to which the trips are appended.
+		 */
+		private PassengerAssignmentWorker(Zoning zoning, RouteSetGenerator rsg, Map<RouteChoiceParams, Double> params, Properties routeChoiceParameters, PassengerAssignmentType assignmentType, RandomStreams streams, TripTable trips) {
+
+			this.zoning = zoning;
+			this.rsg = rsg;
+			this.params = params;
+			this.assignmentType = assignmentType;
+			this.streams = streams;
+			this.trips = trips;
+
+			//trips are stored without trip objects, so the zoning used for their LAD mapping is set here
+			if (assignmentType == PassengerAssignmentType.TEMPRO || assignmentType == PassengerAssignmentType.TEMPRO_DISTANCE_BASED) {
+				TripTempro.zoning = zoning;
+				TripMinor.zoning = zoning;
+			}
+
+			if (assignmentType == PassengerAssignmentType.TEMPRO_DISTANCE_BASED) {
+				this.distanceThreshold = Double.parseDouble(routeChoiceParameters.getProperty("DISTANCE_THRESHOLD"));
+				this.minLength = Double.parseDouble(routeChoiceParameters.getProperty("MINIMUM_MINOR_TRIP_LENGTH"));
+				this.maxLengthFactor = Double.parseDouble(routeChoiceParameters.getProperty("MAXIMUM_MINOR_TRIP_FACTOR"));
+			}
+		}
+
+		/**
+		 * Adds an OD pair to the list of OD pairs assigned by this worker.
+		 * @param originZone Origin zone.
+		 * @param destinationZone Destination zone.
+		 * @param flow Flow between the zones.
+		 */
+		private void addODPair(String originZone, String destinationZone, int flow) {
+
+			this.originZones.add(originZone);
+			this.destinationZones.add(destinationZone);
+			this.flows.add(flow);
+		}
+
+		@Override
+		public Void call() {
+
+			this.pairTripEnd = new int[this.originZones.size()];
+			for (int pair = 0; pair < this.originZones.size(); pair++) {
+
+				String originZone = this.originZones.get(pair);
+				String destinationZone = this.destinationZones.get(pair);
+				int intFlow = this.flows.get(pair);
+				//the stream is keyed by the (unique) zone IDs of the OD pair
+				if (this.streams != null) this.random = this.streams.getStream(this.getZoneID(originZone), this.getZoneID(destinationZone), 0)::nextDouble;
+
+				this.counterTotalFlow += intFlow;
+
+				if (this.assignmentType == PassengerAssignmentType.AGGREGATE)
+					this.assignODPairAggregate(originZone, destinationZone, intFlow);
+				else {
+					//calculate number of trip assignments
+					int flow = (int) Math.floor(intFlow * assignmentFraction); //assigned fractionally and later augmented
+					int remainder = intFlow - (int) Math.round(flow / assignmentFraction); //remainder of trips will be assigned individually (each trip)
+
+					if (this.assignmentType == PassengerAssignmentType.LAD)
+						this.assignODPair(originZone, destinationZone, flow, remainder);
+					else if (this.assignmentType == PassengerAssignmentType.TEMPRO)
+						this.assignODPairTempro(originZone, destinationZone, flow, remainder);
+					else
+						this.assignODPairTemproDistanceBased(originZone, destinationZone, flow, remainder);
+				}
+				this.pairTripEnd[pair] = this.trips.size();
+			}
+
+			return null;
+		}
+
+		/**
+		 * Gets the ID of a zone in the zoning system of the assignment type.
+		 * @param zone Zone code.
+		 * @return Zone ID.
+		 */
+		private int getZoneID(String zone) {
+
+			if (this.assignmentType == PassengerAssignmentType.LAD || this.assignmentType == PassengerAssignmentType.AGGREGATE) return this.zoning.getLadCodeToIDMap().get(zone);
+			else return this.zoning.getTemproCodeToIDMap().get(zone);
+		}
+
+		/**
+		 * Assigns trips between two LAD zones.
+		 * @param originZone Origin zone.
+		 * @param destinationZone Destination zone.
+		 * @param flow Number of trips assigned fractionally.
+		 * @param remainder Number of trips assigned individually.
+		 */
+		private void assignODPair(String originZone, String destinationZone, int flow, int remainder) {
+
+			//node samplers of the zones (blacklisted nodes cannot be chosen)
+			AliasSampler originNodeSampler, destinationNodeSampler;
+			if (originZone.equals(destinationZone)) { //all nodes for intra-zonal trips
+				originNodeSampler = startNodeSamplers.get(originZone);
+				destinationNodeSampler = endNodeSamplers.get(destinationZone);
+			} else { //top nodes for inter-zonal trips
+				originNodeSampler = startTopNodeSamplers.get(originZone);
+				destinationNodeSampler = endTopNodeSamplers.get(destinationZone);
+			}
+
+			//get zone IDs for storing into trips
+			int originZoneID = this.zoning.getLadCodeToIDMap().get(originZone);
+			int destinationZoneID = this.zoning.getLadCodeToIDMap().get(destinationZone);
+
+			//for each trip
+			for (int i=0; i < (flow + remainder); i++) {
+
+				TimeOfDay hour = chooseTimeOfDay(timeOfDaySampler, this.random.getAsDouble());
+				if (hour == null) LOGGER.warn("Time of day not chosen!");
+				VehicleType vht = chooseCarVehicleType(AVFractions, this.random.getAsDouble());
+				if (vht == null) LOGGER.warn("Vehicle type not chosen!");
+				EngineType engine = chooseEngineType(engineTypeSamplers.get(vht), this.random.getAsDouble());
+				if (engine == null) LOGGER.warn("Engine type not chosen!");
+
+				Integer originNode = chooseNode(originNodeSampler, this.random.getAsDouble());
+				Integer destinationNode = null;
+				//if intra-zonal and replacement is not allowed, the origin node cannot be chosen again and other node probabilities are rescaled
+				if (!flagIntrazonalAssignmentReplacement && originZone.equals(destinationZone) && originNode != null)
+					destinationNode = chooseNodeExcluding(destinationNodeSampler, originNode, this.random);
+				else
+					destinationNode = chooseNode(destinationNodeSampler, this.random.getAsDouble());
+
+				if (originNode == null || destinationNode == null) {
+					LOGGER.warn("Origin or destination node was not chosen for the trip from {} to {}!", originZone, destinationZone);
+					continue;
+				}
+
+				Route chosenRoute = this.chooseRoute(originNode, destinationNode, vht, engine, hour);
+				if (chosenRoute == null) continue;
+				if (chosenRoute.isEmpty()) {
+					LOGGER.warn("The chosen route is empty, skipping this trip!");
+					continue;
+				}
+
+				int multiplier = 1;
+				if (i < flow) multiplier = (int) Math.round(1 / assignmentFraction);
+				this.counterAssignedTrips += multiplier;
+
+				this.trips.add(TripTable.TRIP, vht, engine, chosenRoute, hour, originZoneID, destinationZoneID, multiplier, 0.0);
+			}
+		}
+
+		/**
+		 * Assigns trips between two Tempro zones.
+		 * @param originZone Origin zone.
+		 * @param destinationZone Destination zone.
+		 * @param flow Number of trips assigned fractionally.
+		 * @param remainder Number of trips assigned individually.
+		 */
+		private void assignODPairTempro(String originZone, String destinationZone, int flow, int remainder) {
+
+			int originZoneID = this.zoning.getTemproCodeToIDMap().get(originZone);
+			int destinationZoneID = this.zoning.getTemproCodeToIDMap().get(destinationZone);
+
+			int originNode = this.zoning.getZoneIDToNearestNodeIDMap()[originZoneID];
+			if (originNode == 0) LOGGER.warn("Origin node was not chosen for zone {}", originZone);
+			if (roadNetwork.isBlacklistedAsStartNode(originNode)) LOGGER.warn("Origin node is blacklisted! node: {}", originNode);
+
+			int destinationNode = this.zoning.getZoneIDToNearestNodeIDMap()[destinationZoneID];
+			if (destinationNode == 0) LOGGER.warn("Destination node was not chosen for zone {}", destinationZone);
+			if (roadNetwork.isBlacklistedAsEndNode(destinationNode)) LOGGER.warn("Destination node is blacklisted! node: {}", destinationNode);
+
+			//for each trip
+			for (int i=0; i < (flow + remainder); i++) {
+
+				TimeOfDay hour = chooseTimeOfDay(timeOfDaySampler, this.random.getAsDouble());
+				if (hour == null) LOGGER.warn("Time of day not chosen!");
+				VehicleType vht = chooseCarVehicleType(AVFractions, this.random.getAsDouble());
+				if (vht == null) LOGGER.warn("Vehicle type not chosen!");
+				EngineType engine = chooseEngineType(engineTypeSamplers.get(vht), this.random.getAsDouble());
+				if (engine == null) LOGGER.warn("Engine type not chosen!");
+
+				Route chosenRoute = this.chooseRoute(originNode, destinationNode, vht, engine, hour);
+				if (chosenRoute == null) {
+					LOGGER.warn("No chosen route between nodes {} and {}", originNode, destinationNode);
+					continue;
+				}
+				if (chosenRoute.isEmpty()) {
+					LOGGER.warn("The chosen route is empty, skipping this trip!");
+					continue;
+				}
+
+				int multiplier = 1;
+				if (i < flow) multiplier = (int) Math.round(1 / assignmentFraction);
+				this.counterAssignedTrips += multiplier;
+
+				this.trips.add(TripTable.TRIP_TEMPRO, vht, engine, chosenRoute, hour, originZoneID, destinationZoneID, multiplier, 0.0);
+			}
+		}
+
+		/**
+		 * Assigns trips between two Tempro zones using the combined Tempro/LAD route set.
+		 * @param originZone Origin zone.
+		 * @param destinationZone Destination zone.
+		 * @param flow Number of trips assigned fractionally.
+		 * @param remainder Number of trips assigned individually.
+		 */
+		private void assignODPairTemproDistanceBased(String originZone, String destinationZone, int flow, int remainder) {
+
+			int originZoneID = this.zoning.getTemproCodeToIDMap().get(originZone);
+			int destinationZoneID = this.zoning.getTemproCodeToIDMap().get(destinationZone);
+			final double centroidDistance = this.zoning.getZoneToZoneDistanceMatrix()[originZoneID][destinationZoneID];
+
+			//choose origin and destination node
+			int originNode = 0, destinationNode = 0;
+			if (originZoneID != destinationZoneID) {
+				if (centroidDistance <= this.distanceThreshold) { //use nodes nearest to the tempro zone centroid
+					originNode = this.zoning.getZoneIDToNearestNodeIDMap()[originZoneID];
+					destinationNode = this.zoning.getZoneIDToNearestNodeIDMap()[destinationZoneID];
+				} else { //otherwise use precomputed nearest nodes from the LAD top nodes
+					originNode = this.zoning.getZoneIDToNearestNodeIDFromLADTopNodesMap()[originZoneID];
+					destinationNode = this.zoning.getZoneIDToNearestNodeIDFromLADTopNodesMap()[destinationZoneID];
+				}
+				if (originNode == 0) LOGGER.warn("Origin node was not chosen for zone {}", originZone);
+				if (destinationNode == 0) LOGGER.warn("Destination node was not chosen for zone {}", destinationZone);
+			}
+
+			//for each trip
+			for (int i=0; i < (flow + remainder); i++) {
+
+				TimeOfDay hour = chooseTimeOfDay(timeOfDaySampler, this.random.getAsDouble());
+				if (hour == null) LOGGER.warn("Time of day not chosen!");
+				VehicleType vht = chooseCarVehicleType(AVFractions, this.random.getAsDouble());
+				if (vht == null) LOGGER.warn("Vehicle type not chosen!");
+				EngineType engine = chooseEngineType(engineTypeSamplers.get(vht), this.random.getAsDouble());
+				if (engine == null) LOGGER.warn("Engine type not chosen!");
+
+				if (originZoneID != destinationZoneID) { //if not tempro intra-zonal (minor road) trip
+
+					Route chosenRoute = this.chooseRoute(originNode, destinationNode, vht, engine, hour);
+					if (chosenRoute == null) {
+						LOGGER.warn("No chosen route between nodes {} and {}", originNode, destinationNode);
+						continue;
+					}
+					if (chosenRoute.isEmpty()) {
+						LOGGER.warn("The chosen route is empty, skipping this trip!");
+						continue;
+					}
+
+					int multiplier = 1;
+					if (i < flow) multiplier = (int) Math.round(1 / assignmentFraction);
+					this.counterAssignedTrips += multiplier;
+
+					this.trips.add(TripTable.TRIP_TEMPRO, vht, engine, chosenRoute, hour, originZoneID, destinationZoneID, multiplier, 0.0);
+
+				} else { //tempro intra-zonal (minor road) trip
+
+					int multiplier = 1;
+					if (i < flow) multiplier = (int) Math.round(1 / assignmentFraction);
+					this.counterAssignedTrips += multiplier;
+
+					//generate minor trip length
+					double maxLength = this.zoning.getZoneToMinMaxDimension()[originZoneID][1] * this.maxLengthFactor;
+					double length = this.minLength + this.random.getAsDouble() * (maxLength - this.minLength);
+
+					this.trips.add(TripTable.TRIP_MINOR, vht, engine, null, hour, originZoneID, destinationZoneID, multiplier, length);
+				}
+			}
+		}
+
+		/**
+		 * Distributes the flow between two LAD zones multinomially among node pairs, times of day, vehicle types, engine types and routes.
+		 * @param originZone Origin zone.
+		 * @param destinationZone Destination zone.
+		 * @param flow Number of trips.
+		 */
+		private void assignODPairAggregate(String originZone, String destinationZone, int flow) {
+
+			//all nodes for intra-zonal trips, top nodes for inter-zonal trips
+			boolean intrazonal = originZone.equals(destinationZone);
+			AliasSampler originNodeSampler = intrazonal ? startNodeSamplers.get(originZone) : startTopNodeSamplers.get(originZone);
+			AliasSampler destinationNodeSampler = intrazonal ? endNodeSamplers.get(destinationZone) : endTopNodeSamplers.get(destinationZone);
+			if (originNodeSampler == null || destinationNodeSampler == null) {
+				LOGGER.warn("No nodes to choose from for the trips from {} to {}!", originZone, destinationZone);
+				return;
+			}
+
+			//get zone IDs for storing into trips
+			int originZoneID = this.zoning.getLadCodeToIDMap().get(originZone);
+			int destinationZoneID = this.zoning.getLadCodeToIDMap().get(destinationZone);
+
+			//distribute the flow among the origin nodes
+			int[] originNodeCounts = MultinomialSampler.multinomial(flow, originNodeSampler.getProbabilities(), this.random);
+			for (int i = 0; i < originNodeCounts.length; i++) {
+				if (originNodeCounts[i] == 0) continue;
+				int originNode = originNodeSampler.getOutcome(i);
+
+				//distribute the trips among the destination nodes
+				double[] destinationNodeProbabilities = destinationNodeSampler.getProbabilities(); //shared by the workers
+				//if intrazonal trip and replacement is not allowed, the originNode cannot be a destination
+				if (intrazonal && !flagIntrazonalAssignmentReplacement) {
+					int excluded = destinationNodeSampler.indexOf(originNode);
+					if (excluded >= 0) {
+						if (destinationNodeProbabilities.length == 1) {
+							LOGGER.warn("No destination node other than the origin node {} in zone {}, {} intra-zonal trips are not assigned!", originNode, originZone, originNodeCounts[i]);
 							continue;
 						}
+						//copy into the buffer of this worker (reused while the number of nodes does not change)
+						if (this.nodeProbabilities == null || this.nodeProbabilities.length != destinationNodeProbabilities.length)
+							this.nodeProbabilities = new double[destinationNodeProbabilities.length];
+						System.arraycopy(destinationNodeProbabilities, 0, this.nodeProbabilities, 0, destinationNodeProbabilities.length);
+						this.nodeProbabilities[excluded] = 0.0;
+						destinationNodeProbabilities = this.nodeProbabilities;
+					}
+				}
+				int[] destinationNodeCounts = MultinomialSampler.multinomial(originNodeCounts[i], destinationNodeProbabilities, this.random);
 
-						int multiplier = 1;
-						if (i < flow) multiplier = (int) Math.round(1 / this.assignmentFraction);
-						counterAssignedTrips += multiplier;
+				for (int j = 0; j < destinationNodeCounts.length; j++) {
+					if (destinationNodeCounts[j] == 0) continue;
+					int destinationNode = destinationNodeSampler.getOutcome(j);
+					this.counterAssignedTrips += this.assignNodePairAggregate(originNode, destinationNode, destinationNodeCounts[j], originZoneID, destinationZoneID);
+				}
+			}
+		}
 
-						//store trip in trip list
-						Trip trip = new TripTempro(vht, engine, chosenRoute, hour, originZoneID, destinationZoneID, zoning, multiplier);
-						this.tripList.add(trip);
+		/**
+		 * Distributes the trips between two nodes multinomially among times of day, vehicle types, engine types and routes,
+		 * and stores one trip for each distinct combination.
+		 * @param originNode Origin node ID.
+		 * @param destinationNode Destination node ID.
+		 * @param trips Number of trips.
+		 * @param originZoneID Origin zone ID.
+		 * @param destinationZoneID Destination zone ID.
+		 * @return Number of assigned trips.
+		 */
+		private int assignNodePairAggregate(int originNode, int destinationNode, int trips, int originZoneID, int destinationZoneID) {
+
+			int assignedTrips = 0;
+
+			final VehicleType[] carTypes = {VehicleType.CAR, VehicleType.CAR_AV};
+			final double fractionAV = AVFractions.get(VehicleType.CAR_AV);
+			final double[] carProbabilities = {1.0 - fractionAV, fractionAV};
+
+			int[] hourCounts = MultinomialSampler.multinomial(trips, getOrdinalProbabilities(timeOfDaySampler, TIMES_OF_DAY.length), this.random);
+			for (int h = 0; h < hourCounts.length; h++) {
+				if (hourCounts[h] == 0) continue;
+				TimeOfDay hour = TIMES_OF_DAY[h];
+
+				int[] carCounts = MultinomialSampler.multinomial(hourCounts[h], carProbabilities, this.random);
+				for (int v = 0; v < carCounts.length; v++) {
+					if (carCounts[v] == 0) continue;
+					VehicleType vht = carTypes[v];
+
+					AliasSampler engineTypeSampler = engineTypeSamplers.get(vht);
+					if (engineTypeSampler == null) {
+						LOGGER.warn("Engine type not chosen!");
+						continue;
+					}
+					int[] engineCounts = MultinomialSampler.multinomial(carCounts[v], getOrdinalProbabilities(engineTypeSampler, ENGINE_TYPES.length), this.random);
+					for (int e = 0; e < engineCounts.length; e++) {
+						if (engineCounts[e] == 0) continue;
+						EngineType engine = ENGINE_TYPES[e];
 
-					} else { //tempro inter-zonal (minor road) trip
+						assignedTrips += this.assignRoutesAggregate(originNode, destinationNode, vht, engine, hour, engineCounts[e], originZoneID, destinationZoneID);
+					}
+				}
+			}
 
-						int multiplier = 1;
-						if (i < flow) multiplier = (int) Math.round(1 / this.assignmentFraction);
-						counterAssignedTrips += multiplier;
+			return assignedTrips;
+		}
 
-						//generate minor trip length
-						//double minLength = zoning.getZoneToMinMaxDimension()[originZoneID][0];
-						double maxLength = zoning.getZoneToMinMaxDimension()[originZoneID][1] * maxLengthFactor;
-						double length = minLength + rng.nextDouble() * (maxLength - minLength);
+		/**
+		 * Distributes the trips between two nodes multinomially among the routes, using the route choice probabilities
+		 * (calculated into the worker's own buffers and shared through the route choice cache), and stores one trip for each route.
+		 * @param originNode Origin node ID.
+		 * @param destinationNode Destination node ID.
+		 * @param vht Vehicle type.
+		 * @param engine Engine type.
+		 * @param hour Time of day.
+		 * @param trips Number of trips.
+		 * @param originZoneID Origin zone ID.
+		 * @param destinationZoneID Destination zone ID.
+		 * @return Number of assigned trips.
+		 */
+		private int assignRoutesAggregate(int originNode, int destinationNode, VehicleType vht, EngineType engine, TimeOfDay hour, int trips, int originZoneID, int destinationZoneID) {
+
+			RouteSet fetchedRouteSet = this.rsg.getRouteSet(originNode, destinationNode);
+			if (fetchedRouteSet == null) {
+				Route route = this.findFastestRoute(originNode, destinationNode, hour);
+				if (route == null) return 0;
+				this.trips.add(TripTable.TRIP, vht, engine, route, hour, originZoneID, destinationZoneID, trips, 0.0);
+				return trips;
+			}
 
-						//store trip in trip list
-						Trip trip = new TripMinor(vht, engine, hour, originZoneID, destinationZoneID, length, zoning, multiplier);
-						this.tripList.add(trip);
-					}
-				}//for each trip
-			}//for each OD pair
+			//if only one route in the route set, do not calculate utilities and probabilities
+			int[] routeCounts;
+			if (fetchedRouteSet.getSize() == 1) {
+				routeCounts = new int[] {trips};
+			} else {
+				double[] cdf = routeChoiceCache.getCumulativeProbabilities(fetchedRouteSet, vht, engine, hour, linkTravelTimePerTimeOfDay.get(hour), linkSpeedPerTimeOfDay.get(hour), energyConsumptions, relativeFuelEfficiencies, energyUnitCosts, congestionCharges, this.params, this.scratch);
+				double[] probabilities = new double[cdf.length];
+				for (int r = 0; r < cdf.length; r++) probabilities[r] = (r == 0) ? cdf[0] : cdf[r] - cdf[r - 1];
+				routeCounts = MultinomialSampler.multinomial(trips, probabilities, this.random);
+			}
 
-		LOGGER.debug("Total flow: {}", counterTotalFlow);
-		LOGGER.debug("Total assigned trips: {}", counterAssignedTrips);
-		LOGGER.debug("Succesfully assigned trips: {}", 100.0* counterAssignedTrips / counterTotalFlow);
+			int assignedTrips = 0;
+			for (int r = 0; r < routeCounts.length; r++) {
+				if (routeCounts[r] == 0) continue;
+				Route route = fetchedRouteSet.getChoiceSet().get(r);
+				if (route.isEmpty()) {
+					LOGGER.warn("The chosen route is empty, skipping {} trips!", routeCounts[r]);
+					continue;
+				}
+				this.trips.add(TripTable.TRIP, vht, engine, route, hour, originZoneID, destinationZoneID, routeCounts[r], 0.0);
+				assignedTrips += routeCounts[r];
+			}
+
+			return assignedTrips;
+		}
+
+		/**
+		 * Chooses the route using route choice model and the worker's random number generator.
+		 * @param originNode Origin node.
+		 * @param destinationNode Destination node.
+		 * @param vht Vehicle type.
+		 * @param engine Engine type.
+		 * @param hour Time of day.
+		 * @return Chosen route.
+		 */
+		private Route chooseRoute(int originNode, int destinationNode, VehicleType vht, EngineType engine, TimeOfDay hour) {
+
+			RouteSet fetchedRouteSet = this.rsg.getRouteSet(originNode, destinationNode);
+			if (fetchedRouteSet == null) return this.findFastestRoute(originNode, destinationNode, hour);
+
+			//if only one route in the route set, do not calculate utilities and probabilities, but choose that route
+			if (fetchedRouteSet.getSize() == 1) return fetchedRouteSet.getChoiceSet().get(0);
+
+			//the same route set can be used by different workers (e.g. zones with the same nearest node),
+			//so probabilities are calculated into the worker's own buffers (and shared through the route choice cache)
+			return routeChoiceCache.choose(fetchedRouteSet, vht, engine, hour, linkTravelTimePerTimeOfDay.get(hour), linkSpeedPerTimeOfDay.get(hour), energyConsumptions, relativeFuelEfficiencies, energyUnitCosts, congestionCharges, this.params, this.scratch, this.random.getAsDouble());
+		}
+
+		/**
+		 * Finds the fastest route with aStar for a node pair without a route set (if enabled with FLAG_ASTAR_IF_EMPTY_ROUTE_SET).
+		 * Routes found with aStar are kept by the worker, as the shared route set generator cannot be modified during the multi-threaded assignment
+		 * (the single-threaded assignment stores them into the route set generator straight away).
+		 * @param originNode Origin node.
+		 * @param destinationNode Destination node.
+		 * @param hour Time of day.
+		 * @return Fastest route (null if not found).
+		 */
+		private Route findFastestRoute(int originNode, int destinationNode, TimeOfDay hour) {
+
+			//check if this worker has already found the route
+			Long key = ((long) originNode << 32) | destinationNode;
+			Route route = this.generatedRoutes.get(key);
+			if (route == null && collectedRoutes != null) route = collectedRoutes.get(key); //only modified after the workers finish
+			if (route != null) return route;
+
+			if (!flagAStarIfEmptyRouteSet) return null;
+
+			DirectedNode directedOriginNode = (DirectedNode) roadNetwork.getNodeIDtoNode()[originNode];
+			DirectedNode directedDestinationNode = (DirectedNode) roadNetwork.getNodeIDtoNode()[destinationNode];
+
+			RoadPath fastestPath = findFastestPath(directedOriginNode, directedDestinationNode, linkTravelTimePerTimeOfDay.get(hour));
+			if (fastestPath == null) {
+				LOGGER.warn("Not even aStar could find a route between node {} and node {}!", originNode, destinationNode);
+				return null;
+			}
+			route = new Route(fastestPath, roadNetwork);
+			if (route.isEmpty()) {
+				LOGGER.warn("Empty route between nodes {} and {}!", originNode, destinationNode);
+				return null;
+			}
+			if (this.streams == null && collectedRoutes == null) this.rsg.addRoute(route);
+			else this.generatedRoutes.put(key, route);
+			return route;
+		}
 	}
 
 	/**
@@ -1492,10 +1902,10 @@ public class RoadNetworkAssignment {
 		this.roadNetwork.sortGravityNodesFreight();
 
 		//for each OD pair from the passengerODM		
-		for (MultiKey mk: freightMatrix.getKeySet()) {
-			int origin = (int) mk.getKey(0);
-			int destination = (int) mk.getKey(1);
-			int vehicleType = (int) mk.getKey(2);
+		for (FreightMatrix.Cursor cell = freightMatrix.cursor(); cell.next(); ) {
+			int origin = cell.getOrigin();
+			int destination = cell.getDestination();
+			int vehicleType = cell.getVehicleType();
 
 			//calculate number of trip assignments
 			int flow = (int) Math.floor(freightMatrix.getFlow(origin, destination, vehicleType) * this.assignmentFraction); //assigned fractionally and later augmented
@@ -1512,11 +1922,11 @@ public class RoadNetworkAssignment {
 				if (vht == null) LOGGER.warn("Vehicle type not chosen!");
 
 				//choose time of day
-				TimeOfDay hour = this.chooseTimeOfDay(timeOfDayDistributionFreight.get(fvht));
+				TimeOfDay hour = this.chooseTimeOfDay(this.timeOfDaySamplersFreight.get(fvht));
 				if (hour == null) LOGGER.warn("Time of day not chosen!");
 
 				//choose engine
-				EngineType engine = this.chooseEngineType(engineTypeFractions.get(vht));
+				EngineType engine = this.chooseEngineType(this.engineTypeSamplers.get(vht));
 				if (engine == null) LOGGER.warn("Engine type not chosen!");
 
 				Integer originNode = null, destinationNode = null;
@@ -1530,25 +1940,9 @@ public class RoadNetworkAssignment {
 
 					//map freight zone number to LAD code
 					String originLAD = roadNetwork.getFreightZoneToLAD().get(origin);
-					//List<Integer> listOfOriginNodes = roadNetwork.getZoneToNodes().get(originLAD); //the list is already sorted
-					List<Integer> listOfOriginNodes = new ArrayList<Integer>(roadNetwork.getZoneToNodes().get(originLAD)); //the list is already sorted
 
-					//removing blacklisted nodes
-					for (Integer node: roadNetwork.getZoneToNodes().get(originLAD))
-						//check if any of the nodes is blacklisted
-						if (this.roadNetwork.isBlacklistedAsStartNode(node)) 
-							listOfOriginNodes.remove(node);
-
-					//choose origin node
-					double cumulativeProbability = 0.0;
-					double random = rng.nextDouble();
-					for (int node: listOfOriginNodes) {
-						cumulativeProbability += startNodeProbabilitiesFreight.get(node);
-						if (Double.compare(cumulativeProbability, random) > 0) {
-							originNode = node;
-							break;
-						}
-					}
+					//choose origin node (blacklisted nodes cannot be chosen)
+					originNode = chooseNode(this.startNodeSamplersFreight.get(originLAD), rng.nextDouble());
 
 				} else {// freight zone is a point (port, airport or distribution centre)
 					originNode = roadNetwork.getFreightZoneToNearestNode().get(origin);
@@ -1563,38 +1957,14 @@ public class RoadNetworkAssignment {
 
 					//map freight zone number to LAD code
 					String destinationLAD = roadNetwork.getFreightZoneToLAD().get(destination);
-					//List<Integer> listOfDestinationNodes = roadNetwork.getZoneToNodes().get(destinationLAD); //the list is already sorted
-					List<Integer> listOfDestinationNodes = new ArrayList<Integer>(roadNetwork.getZoneToNodes().get(destinationLAD)); //the list is already sorted
 
-					//removing blacklisted nodes
-					for (Integer node: roadNetwork.getZoneToNodes().get(destinationLAD))
-						//check if any of the nodes is blacklisted
-						if (this.roadNetwork.isBlacklistedAsEndNode(node)) 
-							listOfDestinationNodes.remove(node);
-
-					//choose origin node
-					double cumulativeProbability = 0.0;
-					double random = rng.nextDouble();
-					//if intrazonal trip and replacement is not allowed, the probability of the originNode should be 0 so it cannot be chosen again
-					//also, in that case it is important to rescale other node probabilities (now that the originNode is removed) by dividing with (1.0 - p(originNode))!
-					if (!flagIntrazonalAssignmentReplacement && origin == destination && listOfDestinationNodes.contains(originNode)) { //no replacement and intra-zonal trip
-						for (int node: listOfDestinationNodes) {
-							if (node == originNode.intValue()) continue; //skip if the node is the same as origin
-							cumulativeProbability += endNodeProbabilitiesFreight.get(node) / (1.0 - endNodeProbabilitiesFreight.get(originNode));
-							if (Double.compare(cumulativeProbability, random) > 0) {
-								destinationNode = node;
-								break;
-							}
-						}
-					} else	{ //inter-zonal trip (or intra-zonal with replacement)
-						for (int node: listOfDestinationNodes) {
-							cumulativeProbability += endNodeProbabilitiesFreight.get(node);
-							if (Double.compare(cumulativeProbability, random) > 0) {
-								destinationNode = node;
-								break;
-							}
-						}
-					}
+					//choose destination node (blacklisted nodes cannot be chosen)
+					AliasSampler destinationNodeSampler = this.endNodeSamplersFreight.get(destinationLAD);
+					//if intrazonal trip and replacement is not allowed, the originNode cannot be chosen again (other node probabilities are implicitly rescaled)
+					if (!flagIntrazonalAssignmentReplacement && origin == destination && originNode != null) //no replacement and intra-zonal trip
+						destinationNode = chooseNodeExcluding(destinationNodeSampler, originNode, rng::nextDouble);
+					else //inter-zonal trip (or intra-zonal with replacement)
+						destinationNode = chooseNode(destinationNodeSampler, rng.nextDouble());
 
 				} else {// freight zone is a point (port, airport or distribution centre)
 					destinationNode = roadNetwork.getFreightZoneToNearestNode().get(destination);
@@ -1622,7 +1992,7 @@ public class RoadNetworkAssignment {
 						DirectedNode directedOriginNode = (DirectedNode) this.roadNetwork.getNodeIDtoNode()[originNode];
 						DirectedNode directedDestinationNode = (DirectedNode) this.roadNetwork.getNodeIDtoNode()[destinationNode];
 
-						RoadPath fastestPath = this.roadNetwork.getFastestPath(directedOriginNode, directedDestinationNode, this.linkTravelTimePerTimeOfDay.get(hour));
+						RoadPath fastestPath = this.findFastestPath(directedOriginNode, directedDestinationNode, this.linkTravelTimePerTimeOfDay.get(hour));
 						if (fastestPath == null) {
 							LOGGER.warn("Not even aStar could find a route between node {} and node {}!", originNode, destinationNode);
 							continue;
@@ -1638,7 +2008,7 @@ public class RoadNetworkAssignment {
 						DirectedNode directedOriginNode = (DirectedNode) this.roadNetwork.getNodeIDtoNode()[originNode];
 						DirectedNode directedDestinationNode = (DirectedNode) this.roadNetwork.getNodeIDtoNode()[destinationNode];
 
-						RoadPath fastestPath = this.roadNetwork.getFastestPath(directedOriginNode, directedDestinationNode, this.linkTravelTimePerTimeOfDay.get(hour));
+						RoadPath fastestPath = this.findFastestPath(directedOriginNode, directedDestinationNode, this.linkTravelTimePerTimeOfDay.get(hour));
 						if (fastestPath == null) {
 							LOGGER.warn("Not even aStar could find a route!");
 							continue;
@@ -1652,8 +2022,7 @@ public class RoadNetworkAssignment {
 					counterAssignedTrips += multiplier;
 
 					//store trip in trip list
-					Trip trip = new Trip(vht, engine, foundRoute, hour, origin, destination, multiplier);
-					this.tripList.add(trip);
+					this.tripTable.add(TripTable.TRIP, vht, engine, foundRoute, hour, origin, destination, multiplier, 0.0);
 
 				} catch (Exception e) {
 					LOGGER.error(e);
@@ -1703,14 +2072,10 @@ public class RoadNetworkAssignment {
 		this.roadNetwork.sortGravityNodesFreight();
 
 		//for each OD pair from the passengerODM		
-		for (MultiKey mk: freightMatrix.getKeySet()) {
-			//System.out.println(mk);
-			//System.out.println("origin = " + mk.getKey(0));
-			//System.out.println("destination = " + mk.getKey(1));
-			//System.out.println("vehicle type = " + mk.getKey(2));
-			int origin = (int) mk.getKey(0);
-			int destination = (int) mk.getKey(1);
-			int vehicleType = (int) mk.getKey(2);
+		for (FreightMatrix.Cursor cell = freightMatrix.cursor(); cell.next(); ) {
+			int origin = cell.getOrigin();
+			int destination = cell.getDestination();
+			int vehicleType = cell.getVehicleType();
 
 			//calculate number of trip assignments
 			int flow = (int) Math.floor(freightMatrix.getFlow(origin, destination, vehicleType) * this.assignmentFraction); //assigned fractionally and later augmented
@@ -1727,11 +2092,11 @@ public class RoadNetworkAssignment {
 				if (vht == null) LOGGER.warn("Vehicle type not chosen!");
 
 				//choose time of day
-				TimeOfDay hour = this.chooseTimeOfDay(timeOfDayDistributionFreight.get(fvht));
+				TimeOfDay hour = this.chooseTimeOfDay(this.timeOfDaySamplersFreight.get(fvht));
 				if (hour == null) LOGGER.warn("Time of day not chosen!");
 
 				//choose engine
-				EngineType engine = this.chooseEngineType(engineTypeFractions.get(vht));
+				EngineType engine = this.chooseEngineType(this.engineTypeSamplers.get(vht));
 				if (engine == null) LOGGER.warn("Engine type not chosen!");
 
 				Integer originNode = null, destinationNode = null;
@@ -1745,25 +2110,9 @@ public class RoadNetworkAssignment {
 
 					//map freight zone number to LAD code
 					String originLAD = roadNetwork.getFreightZoneToLAD().get(origin);
-					//List<Integer> listOfOriginNodes = roadNetwork.getZoneToNodes().get(originLAD); //the list is already sorted
-					List<Integer> listOfOriginNodes = new ArrayList<Integer>(roadNetwork.getZoneToNodes().get(originLAD)); //the list is already sorted
 
-					//removing blacklisted nodes
-					for (Integer node: roadNetwork.getZoneToNodes().get(originLAD))
-						//check if any of the nodes is blacklisted
-						if (this.roadNetwork.isBlacklistedAsStartNode(node)) 
-							listOfOriginNodes.remove(node);
-
-					//choose origin node
-					double cumulativeProbability = 0.0;
-					double random = rng.nextDouble();
-					for (int node: listOfOriginNodes) {
-						cumulativeProbability += startNodeProbabilitiesFreight.get(node);
-						if (Double.compare(cumulativeProbability, random) > 0) {
-							originNode = node;
-							break;
-						}
-					}
+					//choose origin node (blacklisted nodes cannot be chosen)
+					originNode = chooseNode(this.startNodeSamplersFreight.get(originLAD), rng.nextDouble());
 
 				} else {// freight zone is a point (port, airport or distribution centre)
 					originNode = roadNetwork.getFreightZoneToNearestNode().get(origin);
@@ -1778,38 +2127,14 @@ public class RoadNetworkAssignment {
 
 					//map freight zone number to LAD code
 					String destinationLAD = roadNetwork.getFreightZoneToLAD().get(destination);
-					//List<Integer> listOfDestinationNodes = roadNetwork.getZoneToNodes().get(destinationLAD); //the list is already sorted
-					List<Integer> listOfDestinationNodes = new ArrayList<Integer>(roadNetwork.getZoneToNodes().get(destinationLAD)); //the list is already sorted
 
-					//removing blacklisted nodes
-					for (Integer node: roadNetwork.getZoneToNodes().get(destinationLAD))
-						//check if any of the nodes is blacklisted
-						if (this.roadNetwork.isBlacklistedAsEndNode(node)) 
-							listOfDestinationNodes.remove(node);
-
-					//choose origin node
-					double cumulativeProbability = 0.0;
-					double random = rng.nextDouble();
-					//if intrazonal trip and replacement is not allowed, the probability of the originNode should be 0 so it cannot be chosen again
-					//also, in that case it is important to rescale other node probabilities (now that the originNode is removed) by dividing with (1.0 - p(originNode))!
-					if (!flagIntrazonalAssignmentReplacement && origin == destination && listOfDestinationNodes.contains(originNode)) { //no replacement and intra-zonal trip
-						for (int node: listOfDestinationNodes) {
-							if (node == originNode.intValue()) continue; //skip if the node is the same as origin
-							cumulativeProbability += endNodeProbabilitiesFreight.get(node) / (1.0 - endNodeProbabilitiesFreight.get(originNode));
-							if (Double.compare(cumulativeProbability, random) > 0) {
-								destinationNode = node;
-								break;
-							}
-						}
-					} else	{ //inter-zonal trip (or intra-zonal with replacement)
-						for (int node: listOfDestinationNodes) {
-							cumulativeProbability += endNodeProbabilitiesFreight.get(node);
-							if (Double.compare(cumulativeProbability, random) > 0) {
-								destinationNode = node;
-								break;
-							}
-						}
-					}
+					//choose destination node (blacklisted nodes cannot be chosen)
+					AliasSampler destinationNodeSampler = this.endNodeSamplersFreight.get(destinationLAD);
+					//if intrazonal trip and replacement is not allowed, the originNode cannot be chosen again (other node probabilities are implicitly rescaled)
+					if (!flagIntrazonalAssignmentReplacement && origin == destination && originNode != null) //no replacement and intra-zonal trip
+						destinationNode = chooseNodeExcluding(destinationNodeSampler, originNode, rng::nextDouble);
+					else //inter-zonal trip (or intra-zonal with replacement)
+						destinationNode = chooseNode(destinationNodeSampler, rng.nextDouble());
 
 				} else {// freight zone is a point (port, airport or distribution centre)
 					destinationNode = roadNetwork.getFreightZoneToNearestNode().get(destination);
@@ -1838,7 +2163,7 @@ public class RoadNetworkAssignment {
 						DirectedNode directedOriginNode = (DirectedNode) this.roadNetwork.getNodeIDtoNode()[originNode];
 						DirectedNode directedDestinationNode = (DirectedNode) this.roadNetwork.getNodeIDtoNode()[destinationNode];
 
-						RoadPath fastestPath = this.roadNetwork.getFastestPath(directedOriginNode, directedDestinationNode, this.linkTravelTimePerTimeOfDay.get(hour));
+						RoadPath fastestPath = this.findFastestPath(directedOriginNode, directedDestinationNode, this.linkTravelTimePerTimeOfDay.get(hour));
 						if (fastestPath == null) {
 							LOGGER.warn("Not even aStar could find a route between node {} and node {}!", originNode, destinationNode);
 							continue;
@@ -1854,7 +2179,7 @@ public class RoadNetworkAssignment {
 						DirectedNode directedOriginNode = (DirectedNode) this.roadNetwork.getNodeIDtoNode()[originNode];
 						DirectedNode directedDestinationNode = (DirectedNode) this.roadNetwork.getNodeIDtoNode()[destinationNode];
 
-						RoadPath fastestPath = this.roadNetwork.getFastestPath(directedOriginNode, directedDestinationNode, this.linkTravelTimePerTimeOfDay.get(hour));
+						RoadPath fastestPath = this.findFastestPath(directedOriginNode, directedDestinationNode, this.linkTravelTimePerTimeOfDay.get(hour));
 						if (fastestPath == null) {
 							LOGGER.warn("Not even aStar could find a route!");
 							continue;
@@ -1868,8 +2193,7 @@ public class RoadNetworkAssignment {
 					counterAssignedTrips += multiplier;
 
 					//store trip in trip list
-					Trip trip = new Trip(vht, engine, foundRoute, hour, origin, destination, multiplier);
-					this.tripList.add(trip);
+					this.tripTable.add(TripTable.TRIP, vht, engine, foundRoute, hour, origin, destination, multiplier, 0.0);
 
 				} catch (Exception e) {
 					LOGGER.error(e);
@@ -1925,14 +2249,10 @@ public class RoadNetworkAssignment {
 		this.roadNetwork.sortGravityNodesFreight();
 
 		//for each OD pair from the passengerODM		
-		for (MultiKey mk: freightMatrix.getKeySet()) {
-			//System.out.println(mk);
-			//System.out.println("origin = " + mk.getKey(0));
-			//System.out.println("destination = " + mk.getKey(1));
-			//System.out.println("vehicle type = " + mk.getKey(2));
-			int origin = (int) mk.getKey(0);
-			int destination = (int) mk.getKey(1);
-			int vehicleType = (int) mk.getKey(2);
+		for (FreightMatrix.Cursor cell = freightMatrix.cursor(); cell.next(); ) {
+			int origin = cell.getOrigin();
+			int destination = cell.getDestination();
+			int vehicleType = cell.getVehicleType();
 
 			//calculate number of trip assignments
 			int flow = (int) Math.floor(freightMatrix.getFlow(origin, destination, vehicleType) * this.assignmentFraction); //assigned fractionally and later augmented
@@ -1949,11 +2269,11 @@ public class RoadNetworkAssignment {
 				if (vht == null) LOGGER.warn("Vehicle type not chosen!");
 
 				//choose time of day
-				TimeOfDay hour = this.chooseTimeOfDay(timeOfDayDistributionFreight.get(fvht));
+				TimeOfDay hour = this.chooseTimeOfDay(this.timeOfDaySamplersFreight.get(fvht));
 				if (hour == null) LOGGER.warn("Time of day not chosen!");
 
 				//choose engine
-				EngineType engine = this.chooseEngineType(engineTypeFractions.get(vht));
+				EngineType engine = this.chooseEngineType(this.engineTypeSamplers.get(vht));
 				if (engine == null) LOGGER.warn("Engine type not chosen!");
 
 				Integer originNode = null, destinationNode = null;
@@ -1981,91 +2301,25 @@ public class RoadNetworkAssignment {
 
 				if (originLAD != null && destinationLAD != null) { //LAD to LAD
 
-					List<Integer> listOfOriginNodes = new ArrayList<Integer>(roadNetwork.getZoneToNodes().get(originLAD)); //the list is already sorted
-					//removing blacklisted nodes
-					for (Integer node: roadNetwork.getZoneToNodes().get(originLAD))
-						//check if any of the nodes is blacklisted
-						if (this.roadNetwork.isBlacklistedAsStartNode(node)) 
-							listOfOriginNodes.remove(node);
-
-					List<Integer> listOfDestinationNodes = new ArrayList<Integer>(roadNetwork.getZoneToNodes().get(destinationLAD)); //the list is already sorted
-					//removing blacklisted nodes
-					for (Integer node: roadNetwork.getZoneToNodes().get(destinationLAD))
-						//check if any of the nodes is blacklisted
-						if (this.roadNetwork.isBlacklistedAsEndNode(node))
-							listOfDestinationNodes.remove(node);
-
+					//blacklisted nodes cannot be chosen by the node samplers
 					if (originLAD == destinationLAD) { //intra-zonal trip!
 
 						//choose any origin node
-						double cumulativeProbability = 0.0;
-						double random = rng.nextDouble();
-						for (int node: listOfOriginNodes) {
-							cumulativeProbability += startNodeProbabilitiesFreight.get(node);
-							if (Double.compare(cumulativeProbability, random) > 0) {
-								originNode = node;
-								break;
-							}
-						}
+						originNode = chooseNode(this.startNodeSamplersFreight.get(originLAD), rng.nextDouble());
 
 						//choose destination node
-						cumulativeProbability = 0.0;
-						random = rng.nextDouble();
-						//if intrazonal trip and replacement is not allowed, the probability of the originNode should be 0 so it cannot be chosen again
-						//also, in that case it is important to rescale other node probabilities (now that the originNode is removed) by dividing with (1.0 - p(originNode))!
-						if (!flagIntrazonalAssignmentReplacement && listOfDestinationNodes.contains(originNode)) { //no replacement and intra-zonal trip
-							for (int node: listOfDestinationNodes) {
-								if (node == originNode.intValue()) continue; //skip if the node is the same as origin
-								cumulativeProbability += endNodeProbabilitiesFreight.get(node) / (1.0 - endNodeProbabilitiesFreight.get(originNode));
-								if (Double.compare(cumulativeProbability, random) > 0) {
-									destinationNode = node;
-									break;
-								}
-							}
-						} else	{ //intra-zonal with replacement)
-							for (int node: listOfDestinationNodes) {
-								cumulativeProbability += endNodeProbabilitiesFreight.get(node);
-								if (Double.compare(cumulativeProbability, random) > 0) {
-									destinationNode = node;
-									break;
-								}
-							}
-						}
+						AliasSampler destinationNodeSampler = this.endNodeSamplersFreight.get(destinationLAD);
+						//if intrazonal trip and replacement is not allowed, the originNode cannot be chosen again (other node probabilities are implicitly rescaled)
+						if (!flagIntrazonalAssignmentReplacement && originNode != null) //no replacement and intra-zonal trip
+							destinationNode = chooseNodeExcluding(destinationNodeSampler, originNode, rng::nextDouble);
+						else //intra-zonal with replacement
+							destinationNode = chooseNode(destinationNodeSampler, rng.nextDouble());
 
 					} else { //inter-zonal trip!
 
-						//make a choice based on the gravitating workzone population size
-						int originNodesToConsider = interzonalTopNodes<listOfOriginNodes.size()?interzonalTopNodes:listOfOriginNodes.size();
-						int destinationNodesToConsider = interzonalTopNodes<listOfDestinationNodes.size()?interzonalTopNodes:listOfDestinationNodes.size();
-
-						originNode = null;
-						//sums of gravitating population
-						double sum = 0.0;
-						for (int j=0; j<originNodesToConsider; j++) sum += startNodeProbabilitiesFreight.get(listOfOriginNodes.get(j));
-						//choose origin node
-						double cumulativeProbability = 0.0;
-						double random = rng.nextDouble();
-						for (Integer node: listOfOriginNodes.subList(0, originNodesToConsider)) {
-							cumulativeProbability += startNodeProbabilitiesFreight.get(node) / sum; //scale with sum
-							if (Double.compare(cumulativeProbability, random) > 0) {
-								originNode = node;
-								break;
-							}
-						}
-
-						destinationNode = null;
-						sum = 0.0;
-						for (int j=0; j<destinationNodesToConsider; j++) sum += endNodeProbabilitiesFreight.get(listOfDestinationNodes.get(j)); 
-						//choose destination node
-						cumulativeProbability = 0.0;
-						random = rng.nextDouble();
-						for (Integer node: listOfDestinationNodes) {
-							cumulativeProbability += endNodeProbabilitiesFreight.get(node) / sum; //scale with sum
-							if (Double.compare(cumulativeProbability, random) > 0) {
-								destinationNode = node;
-								break;
-							}
-						}
+						//make a choice among the top nodes based on the gravitating workzone population size
+						originNode = chooseNode(this.startTopNodeSamplersFreight.get(originLAD), rng.nextDouble());
+						destinationNode = chooseNode(this.endTopNodeSamplersFreight.get(destinationLAD), rng.nextDouble());
 
 						if (originNode == null) LOGGER.warn("Origin node for inter-zonal freight trip was not chosen!");
 						if (destinationNode == null) LOGGER.warn("Destination node for inter-zonal freight trip was not chosen!");
@@ -2074,84 +2328,38 @@ public class RoadNetworkAssignment {
 
 				} else if (originNode != null && destinationLAD != null) { //point to LAD
 
-					List<Integer> listOfDestinationNodes = new ArrayList<Integer>(roadNetwork.getZoneToNodes().get(destinationLAD)); //the list is already sorted
-					//removing blacklisted nodes
-					for (Integer node: roadNetwork.getZoneToNodes().get(destinationLAD))
-						//check if any of the nodes is blacklisted
-						if (this.roadNetwork.isBlacklistedAsEndNode(node)) 
-							listOfDestinationNodes.remove(node);
-
 					//if originNode is from the same destinationLAD (i.e. intra-zonal) consider all nodes based on population size
 					//however, check if replacement has to be done
 					if (roadNetwork.getZoneToNodes().get(destinationLAD).contains(originNode)) { 
 
 						//choose destination node
-						double cumulativeProbability = 0.0;
-						double random = rng.nextDouble();
-						if (!flagIntrazonalAssignmentReplacement && listOfDestinationNodes.contains(originNode)) { //no replacement and intra-zonal trip
-							for (int node: listOfDestinationNodes) {
-								if (node == originNode.intValue()) continue; //skip if the node is the same as origin
-								cumulativeProbability += endNodeProbabilitiesFreight.get(node) / (1.0 - endNodeProbabilitiesFreight.get(originNode));
-								if (Double.compare(cumulativeProbability, random) > 0) {
-									destinationNode = node;
-									break;
-								}
-							}
-						} else	{ //intra-zonal with replacement)
-							for (int node: listOfDestinationNodes) {
-								cumulativeProbability += endNodeProbabilitiesFreight.get(node);
-								if (Double.compare(cumulativeProbability, random) > 0) {
-									destinationNode = node;
-									break;
-								}
-							}
-						}
+						AliasSampler destinationNodeSampler = this.endNodeSamplersFreight.get(destinationLAD);
+						if (!flagIntrazonalAssignmentReplacement) //no replacement and intra-zonal trip
+							destinationNode = chooseNodeExcluding(destinationNodeSampler, originNode, rng::nextDouble);
+						else //intra-zonal with replacement
+							destinationNode = chooseNode(destinationNodeSampler, rng.nextDouble());
 
 						//if they are from different LADs, consider only top nodes from destination LAD		
 					} else {
-						int indexDestination = rng.nextInt(interzonalTopNodes<listOfDestinationNodes.size()?interzonalTopNodes:listOfDestinationNodes.size());
-						destinationNode = listOfDestinationNodes.get(indexDestination);
+						destinationNode = chooseNode(this.endTopNodeUniformSamplersFreight.get(destinationLAD), rng.nextDouble());
 					}
 
 				} else if (originLAD != null && destinationNode != null) { //LAD to point
 
-					List<Integer> listOfOriginNodes = new ArrayList<Integer>(roadNetwork.getZoneToNodes().get(originLAD)); //the list is already sorted
-					//removing blacklisted nodes
-					for (Integer node: roadNetwork.getZoneToNodes().get(originLAD))
-						//check if any of the nodes is blacklisted
-						if (this.roadNetwork.isBlacklistedAsStartNode(node)) 
-							listOfOriginNodes.remove(node);
-
 					//if destinationNode is from the same originLAD (i.e. intra-zonal) consider all nodes based on population size
 					//however, check if replacement has to be done
 					if (roadNetwork.getZoneToNodes().get(originLAD).contains(destinationNode)) { 
 
-						//choose destination node
-						double cumulativeProbability = 0.0;
-						double random = rng.nextDouble();
-						if (!flagIntrazonalAssignmentReplacement && listOfOriginNodes.contains(destinationNode)) { //no replacement and intra-zonal trip
-							for (int node: listOfOriginNodes) {
-								if (node == destinationNode.intValue()) continue; //skip if the node is the same as destination
-								cumulativeProbability += startNodeProbabilitiesFreight.get(node) / (1.0 - startNodeProbabilitiesFreight.get(destinationNode));
-								if (Double.compare(cumulativeProbability, random) > 0) {
-									originNode = node;
-									break;
-								}
-							}
-						} else	{ //intra-zonal with replacement)
-							for (int node: listOfOriginNodes) {
-								cumulativeProbability += startNodeProbabilitiesFreight.get(node);
-								if (Double.compare(cumulativeProbability, random) > 0) {
-									originNode = node;
-									break;
-								}
-							}
-						}
+						//choose origin node
+						AliasSampler originNodeSampler = this.startNodeSamplersFreight.get(originLAD);
+						if (!flagIntrazonalAssignmentReplacement) //no replacement and intra-zonal trip
+							originNode = chooseNodeExcluding(originNodeSampler, destinationNode, rng::nextDouble);
+						else //intra-zonal with replacement
+							originNode = chooseNode(originNodeSampler, rng.nextDouble());
 
-						//if they are from different LADs, consider only top nodes from destination LAD		
+						//if they are from different LADs, consider only top nodes from origin LAD		
 					} else {
-						int indexOrigin = rng.nextInt(interzonalTopNodes<listOfOriginNodes.size()?interzonalTopNodes:listOfOriginNodes.size());
-						originNode = listOfOriginNodes.get(indexOrigin);
+						originNode = chooseNode(this.startTopNodeUniformSamplersFreight.get(originLAD), rng.nextDouble());
 					}
 
 
@@ -2180,7 +2388,7 @@ public class RoadNetworkAssignment {
 						DirectedNode directedOriginNode = (DirectedNode) this.roadNetwork.getNodeIDtoNode()[originNode];
 						DirectedNode directedDestinationNode = (DirectedNode) this.roadNetwork.getNodeIDtoNode()[destinationNode];
 
-						RoadPath fastestPath = this.roadNetwork.getFastestPath(directedOriginNode, directedDestinationNode, this.linkTravelTimePerTimeOfDay.get(hour));
+						RoadPath fastestPath = this.findFastestPath(directedOriginNode, directedDestinationNode, this.linkTravelTimePerTimeOfDay.get(hour));
 						if (fastestPath == null) {
 							LOGGER.warn("Not even aStar could find a route between node {} and node {}!", originNode, destinationNode);
 							continue;
@@ -2209,11 +2417,8 @@ public class RoadNetworkAssignment {
 						//if (fetchedRouteSet.getProbabilities() == null) {
 						//probabilities need to be calculated for this route set before a choice can be made
 
-						fetchedRouteSet.calculateUtilities(vht, engine, hour, this.linkTravelTimePerTimeOfDay.get(hour), this.energyConsumptions, this.relativeFuelEfficiencies, this.energyUnitCosts, this.congestionCharges, params);
-						fetchedRouteSet.calculateProbabilities();
-
-						//choose the route
-						chosenRoute = fetchedRouteSet.choose();
+						//choose the route (probabilities are calculated once per assignment pass)
+						chosenRoute = this.routeChoiceCache.choose(fetchedRouteSet, vht, engine, hour, this.linkTravelTimePerTimeOfDay.get(hour), this.linkSpeedPerTimeOfDay.get(hour), this.energyConsumptions, this.relativeFuelEfficiencies, this.energyUnitCosts, this.congestionCharges, params, this.routeChoiceScratch, rng.nextDouble());
 					}
 
 					if (chosenRoute == null) {
@@ -2232,8 +2437,7 @@ public class RoadNetworkAssignment {
 				counterAssignedTrips += multiplier;
 
 				//store trip in trip list
-				Trip trip = new Trip(vht, engine, chosenRoute, hour, origin , destination, multiplier);
-				this.tripList.add(trip);
+				this.tripTable.add(TripTable.TRIP, vht, engine, chosenRoute, hour, origin, destination, multiplier, 0.0);
 
 			}//for each trip
 		}//for each OD pair
@@ -2258,89 +2462,36 @@ public class RoadNetworkAssignment {
 	 */
 	public void updateLinkTravelTimes(double weight) {
 
-		double congestedTravelTime;
-
-		this.linkVolumesInPCUPerTimeOfDay = this.calculateLinkVolumeInPCUPerTimeOfDay(this.tripList); //calculate link volumes per time of day
-
-		//iterate through all the edges in the graph
-		Iterator iter = roadNetwork.getNetwork().getEdges().iterator();
-		int[] numberOfLanes = roadNetwork.getNumberOfLanes();
-		while(iter.hasNext()) {
-
-			Edge edge = (Edge) iter.next();
-			int edgeID = edge.getID();
-			EdgeType edgeType = this.roadNetwork.getEdgesType()[edgeID];
-			double roadLength = this.roadNetwork.getEdgeLength(edgeID); //[km]
-
-			//iterate through all times of day
-			for (TimeOfDay hour: TimeOfDay.values()) {
-
-				double[] hourlyVolumes = this.linkVolumesInPCUPerTimeOfDay.get(hour);
-				double linkVolumeInPCU = hourlyVolumes[edgeID];
-
-				/*
-				//Bureau of Public Roads (1964) formulation
-				if (roadNumber.charAt(0) == 'M') //motorway
-					congestedTravelTime = linkFreeFlowTravelTime.get(edge.getID())*(1 + ALPHA * Math.pow(PEAK_HOUR_PERCENTAGE * linkVolumeInPCU / numberOfLanes.get(edge.getID()) / MAXIMUM_CAPACITY_M_ROAD, BETA_M_ROAD));
-				else if (roadNumber.charAt(0) == 'A') //A-road
-					congestedTravelTime = linkFreeFlowTravelTime.get(edge.getID())*(1 + ALPHA * Math.pow(PEAK_HOUR_PERCENTAGE * linkVolumeInPCU / numberOfLanes.get(edge.getID()) / MAXIMUM_CAPACITY_A_ROAD, BETA_A_ROAD));
-				else //ferry
-					congestedTravelTime = linkFreeFlowTravelTime.get(edge.getID());
-				 */
-
-				//Speed-flow curves from FORGE (Department for Transport, 2005)
-				if (edgeType == EdgeType.MOTORWAY) {//motorway
-
-					double flow = linkVolumeInPCU / numberOfLanes[edgeID];
-					double speed = 0.0;
-					if (flow < 1398) speed = ((69.96 - 71.95) / 1398 * flow + 71.95) * 1.609344; //[kph]
-					else if (flow < 2330) speed = ((34.55 - 69.96) / (2330 - 1398) * (flow - 1398) + 69.96) * 1.609344; //[kph]
-					else {
-						//flow higher than maximum (user over-capacity formula from WebTAG)
-						double E = flow / 2330;
-						double B = 0.5;
-						double speedC = 34.55;
-						double tc = roadLength / speedC; //h
-						speed = roadLength / (tc + B * (E - 1.0));
-						//System.out.println("Overcapacity speed:  " + speed);
-					}
-					congestedTravelTime = roadLength / speed * 60; //[min]
-
-				} else if (edgeType == EdgeType.AROAD) {//A-road
-
-					double flow = linkVolumeInPCU / numberOfLanes[edgeID];
-					double speed = 0.0;
-					if (flow < 1251) speed = ((50.14 - 56.05) / 1251 * flow + 56.05) * 1.609344; //[kph]
-					else if (flow < 1740) speed = ((27.22 - 50.14) / (1740 - 1251) * (flow - 1251) + 50.14) * 1.609344; //[kph]
-					else {
-						//flow higher than maximum (user over-capacity formula from WebTAG)
-						double E = flow / 1740;
-						double B = 0.15;
-						double speedC = 27.22;
-						double tc = roadLength / speedC; //h
-						speed = roadLength / (tc + B * (E - 1.0));
-						//System.out.println("Overcapacity speed:  " + speed);
-					}
-					congestedTravelTime = roadLength / speed * 60;
-
-				} else //ferry
-					congestedTravelTime = this.roadNetwork.getFreeFlowTravelTime()[edgeID]; //ferry travel time is fixed
-
-				double[] hourlyTimes = this.linkTravelTimePerTimeOfDay.get(hour);
-				if (hourlyTimes == null) LOGGER.error("No hourly travel times for hour {}", hour);
+		//cached route choice probabilities are based on the old link travel times
+		this.routeChoiceCache.invalidate();
 
-				double oldLinkTravelTime = hourlyTimes[edgeID];
-				if (oldLinkTravelTime == 0.0) {
-					//fetch from the road network, which was likely modified by a road development intervention
-					oldLinkTravelTime = this.roadNetwork.getFreeFlowTravelTime()[edgeID];
-					if (oldLinkTravelTime == 0.0) LOGGER.error("No link travel time for edge {}", edgeID);
-				}
+		//calculate link volumes per time of day (unless already calculated from the current trip table)
+		if (this.linkVolumesTripTable != this.tripTable || this.linkVolumesTripTableModifications != this.tripTable.getModificationCount())
+			this.linkVolumesInPCUPerTimeOfDay = this.calculateLinkVolumeInPCUPerTimeOfDay(this.tripTable);
 
-				double averagedCongestedTravelTime = weight * congestedTravelTime + (1 - weight) * oldLinkTravelTime; //averaging
-				hourlyTimes[edgeID] = averagedCongestedTravelTime;
+		//[hour][edge] views of the hourly arrays (travel times are updated in place)
+		double[][] volumes = new double[TIMES_OF_DAY.length][];
+		double[][] times = new double[TIMES_OF_DAY.length][];
+		for (TimeOfDay hour: TIMES_OF_DAY) {
+			volumes[hour.ordinal()] = this.linkVolumesInPCUPerTimeOfDay.get(hour);
+			times[hour.ordinal()] = this.linkTravelTimePerTimeOfDay.get(hour);
+			if (times[hour.ordinal()] == null) LOGGER.error("No hourly travel times for hour {}", hour);
+		}
 
-			}//for time of day
-		}//while edges
+		//speed-flow curves from FORGE (Department for Transport, 2005) for motorway and A-road edge ranges
+		this.roadNetwork.getTravelTimeKernel().update(volumes, times, this.roadNetwork.getNumberOfLanes(), this.roadNetwork.getEdgeLengths(), this.roadNetwork.getFreeFlowTravelTime(), weight, this.assignmentThreads);
+		
+		this.updateLinkSpeeds();
+	}
+	
+	/**
+	 * Updates link speeds per time of day from the current link travel times.
+	 */
+	private void updateLinkSpeeds() {
+		
+		this.linkSpeedPerTimeOfDay = new EnumMap<TimeOfDay, double[]>(TimeOfDay.class);
+		for (TimeOfDay hour: TimeOfDay.values())
+			this.linkSpeedPerTimeOfDay.put(hour, this.roadNetwork.calculateLinkSpeeds(this.linkTravelTimePerTimeOfDay.get(hour)));
 	}
 
 	/** 
@@ -2357,9 +2508,7 @@ public class RoadNetworkAssignment {
 
 		this.assignPassengerFlowsRouting(passengerODM, rsg, props);
 		this.assignFreightFlowsRouting(freightODM, rsg, props);
-		this.updateLinkVolumeInPCU();
-		this.updateLinkVolumeInPCUPerTimeOfDay();
-		this.updateLinkVolumePerVehicleType();
+		this.updateLinkVolumes();
 		this.updateLinkTravelTimes(weight);
 	}
 
@@ -2410,47 +2559,201 @@ public class RoadNetworkAssignment {
 			this.assignFreightFlowsRouting(freightODM, rsg, params);
 		}
 
-		this.updateLinkVolumeInPCU();
-		this.updateLinkVolumeInPCUPerTimeOfDay();
-		this.updateLinkVolumePerVehicleType();
+		this.updateLinkVolumes();
 		this.updateLinkTravelTimes(weight);
 	}
 
 	/** 
-	 * Iterates assignment and travel time update a fixed number of times.
+	 * Iterates assignment and travel time update until the relative gap reaches the convergence tolerance
+	 * (ASSIGNMENT_CONVERGENCE_TOLERANCE, 0 means no early stop) or the maximum number of iterations.
+	 * If FLAG_ASSIGNMENT_MSA is true, the method of successive averages is used instead of the constant weight.
 	 * @param passengerODM Passenger origin-destination matrix.
 	 * @param freightODM Freight origin-destination matrix.
 	 * @param rsg Route set generator object with routes to be used for the assignment (if route choice used) or an object in which to store routes (if routing used).
 	 * @param props Properties.
 	 * @param weight Weighting parameter.
-	 * @param iterations Number of iterations.
+	 * @param iterations Maximum number of iterations.
 	 */
 	public void assignFlowsAndUpdateLinkTravelTimesIterated(AssignableODMatrix passengerODM, FreightMatrix freightODM, RouteSetGenerator rsg, Properties props, double weight, int iterations) {
 
-		for (int i=0; i<iterations; i++) {
-			this.resetLinkVolumes(); //link volumes must be reset or they would compound across all iterations
-			this.resetTripList(); //clear route storages
-			this.assignFlowsAndUpdateLinkTravelTimes(passengerODM, freightODM, rsg, props, weight);
-		}
+		this.iterateAssignment(props, weight, iterations, (iterationWeight) -> this.assignFlowsAndUpdateLinkTravelTimes(passengerODM, freightODM, rsg, props, iterationWeight));
 	}
 
 	/** 
-	 * Iterates assignment and travel time update a fixed number of times.
+	 * Iterates assignment and travel time update until the relative gap reaches the convergence tolerance
+	 * (ASSIGNMENT_CONVERGENCE_TOLERANCE, 0 means no early stop) or the maximum number of iterations.
+	 * If FLAG_ASSIGNMENT_MSA is true, the method of successive averages is used instead of the constant weight.
 	 * @param passengerODM Passenger origin-destination matrix.
 	 * @param freightODM Freight origin-destination matrix.
 	 * @param rsg Route set generator object with routes to be used for the assignment (if route choice used) or an object in which to store routes (if routing used).
 	 * @param zoning Zoning system (necessary for 'tempro' and 'combined' assignment types).
 	 * @param params Parameters from the config file.
 	 * @param weight Weighting parameter.
-	 * @param iterations Number of iterations.
+	 * @param iterations Maximum number of iterations.
 	 */
 	public void assignFlowsAndUpdateLinkTravelTimesIterated(AssignableODMatrix passengerODM, FreightMatrix freightODM, RouteSetGenerator rsg, Zoning zoning, Properties params, double weight, int iterations) {
 
+		this.iterateAssignment(params, weight, iterations, (iterationWeight) -> this.assignFlowsAndUpdateLinkTravelTimes(passengerODM, freightODM, rsg, zoning, params, iterationWeight));
+	}
+
+	/**
+	 * Iterates assignment and travel time update, logging the relative gap (see {@link #calculateRelativeGap()}), the relative link travel time change
+	 * (see {@link #getLinkTimeChanges()}), the maximum link travel time change, the time and the number of trips of each iteration.
+	 * @param params Parameters from the config file.
+	 * @param weight Weighting parameter (if the method of successive averages is not used).
+	 * @param iterations Maximum number of iterations.
+	 * @param assignment Assignment and travel time update with the given weight.
+	 */
+	private void iterateAssignment(Properties params, double weight, int iterations, DoubleConsumer assignment) {
+
+		final double tolerance = Double.parseDouble(params.getProperty("ASSIGNMENT_CONVERGENCE_TOLERANCE", "0.0"));
+		final boolean flagUseMSA = Boolean.parseBoolean(params.getProperty("FLAG_ASSIGNMENT_MSA", "false"));
+
+		this.relativeGaps = new ArrayList<Double>();
+		this.linkTimeChanges = new ArrayList<Double>();
 		for (int i=0; i<iterations; i++) {
+			final long startTime = System.nanoTime();
+			final double iterationWeight = flagUseMSA ? 1.0 / (i + 1) : weight;
+
+			//link travel times used for this assignment
+			double[][] oldTimes = new double[TIMES_OF_DAY.length][];
+			for (TimeOfDay hour: TIMES_OF_DAY) oldTimes[hour.ordinal()] = this.linkTravelTimePerTimeOfDay.get(hour).clone();
+
 			this.resetLinkVolumes(); //link volumes must be reset or they would compound across all iterations
 			this.resetTripList(); //clear route storages
-			this.assignFlowsAndUpdateLinkTravelTimes(passengerODM, freightODM, rsg, zoning, params, weight);
+			assignment.accept(iterationWeight);
+
+			//the updated times are averaged, so the times implied by the new link volumes are obtained by dividing the change with the weight
+			double weightedChange = 0.0, total = 0.0, maxChange = 0.0;
+			for (TimeOfDay hour: TIMES_OF_DAY) {
+				double[] volumes = this.linkVolumesInPCUPerTimeOfDay.get(hour);
+				double[] times = this.linkTravelTimePerTimeOfDay.get(hour);
+				double[] previous = oldTimes[hour.ordinal()];
+				for (int edgeID = 0; edgeID < times.length; edgeID++) {
+					double change = Math.abs(times[edgeID] - previous[edgeID]);
+					if (change > maxChange) maxChange = change;
+					//edges without the previous time (e.g. not yet known) have no relative change
+					if (volumes[edgeID] == 0.0 || previous[edgeID] == 0.0) continue;
+					weightedChange += volumes[edgeID] * change / iterationWeight;
+					total += volumes[edgeID] * previous[edgeID];
+				}
+			}
+			final double linkTimeChange = (total > 0.0) ? weightedChange / total : Double.NaN;
+			this.linkTimeChanges.add(linkTimeChange);
+
+			//routes of this assignment compared with the fastest paths for the updated link travel times
+			final double relativeGap = this.calculateRelativeGap();
+			this.relativeGaps.add(relativeGap);
+
+			double seconds = (System.nanoTime() - startTime) / 1e9;
+			LOGGER.info("Assignment iteration {} (weight {}): relative gap = {}, relative link travel time change = {}, maximum link travel time change = {} min, {} trips, {} seconds.",
+					i + 1, iterationWeight, relativeGap, linkTimeChange, maxChange, this.tripTable.size(), seconds);
+
+			if (tolerance > 0.0 && relativeGap <= tolerance) {
+				LOGGER.info("Assignment converged after {} iterations (relative gap {} <= tolerance {}).", i + 1, relativeGap, tolerance);
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Getter method for the relative link travel time changes of the last iterated assignment (one for each iteration).
+	 * The change is the volume-weighted absolute difference between the link travel times implied by the assigned link volumes
+	 * and the link travel times used for the assignment, divided by the volume-weighted travel time used for the assignment
+	 * (edges with no volume or with zero previous travel time are skipped). It measures how much the link travel times
+	 * still move between iterations, while the convergence is measured by the relative gap (see {@link #getRelativeGaps()}).
+	 * @return Relative link travel time changes (NaN if nothing was assigned).
+	 */
+	public List<Double> getLinkTimeChanges() {
+
+		return this.linkTimeChanges;
+	}
+
+	/**
+	 * Makes the route choice assignment collect the routes found with aStar instead of adding them to the route set generator,
+	 * so the route set generator is only read and can be shared by assignments running concurrently (e.g. loss function evaluations).
+	 * Collected routes are reused by the following assignments until the collection is stopped.
+	 * @param collect True to start collecting the routes (previously collected routes are dropped), false to stop.
+	 */
+	public void setCollectRoutes(boolean collect) {
+
+		this.collectedRoutes = collect ? new LinkedHashMap<Long, Route>() : null;
+	}
+
+	/**
+	 * Getter method for the routes collected by the route choice assignment (in the order in which they were found).
+	 * @return Collected routes (empty if the routes are not collected).
+	 */
+	public List<Route> getCollectedRoutes() {
+
+		if (this.collectedRoutes == null) return new ArrayList<Route>();
+		return new ArrayList<Route>(this.collectedRoutes.values());
+	}
+
+	/**
+	 * Getter method for the relative gaps of the last iterated assignment (one for each iteration, see {@link #calculateRelativeGap()}).
+	 * @return Relative gaps (NaN if nothing was assigned).
+	 */
+	public List<Double> getRelativeGaps() {
+
+		return this.relativeGaps;
+	}
+
+	/**
+	 * Calculates the relative gap of the assigned trips for the current link travel times:
+	 * (total travel time on the chosen routes - total travel time on the fastest paths) / total travel time on the fastest paths,
+	 * where the totals are weighted by the trip multipliers and the fastest path between the end nodes of each route
+	 * is found with the compact graph router for the time of day of the trip. The gap is 0 if all the trips use the fastest paths.
+	 * Route travel times do not include intersection delays and trips without a route (minor road trips) are skipped.
+	 * Times of day are processed in parallel (using the number of assignment threads).
+	 * @return Relative gap (NaN if there are no trips with a route).
+	 */
+	public double calculateRelativeGap() {
+
+		final TripTable trips = this.tripTable;
+		final double[] routeTimes = new double[TIMES_OF_DAY.length];
+		final double[] fastestTimes = new double[TIMES_OF_DAY.length];
+
+		ParallelTasks.forEachRange(TIMES_OF_DAY.length, this.assignmentThreads, (fromHour, toHour) -> {
+			for (int hour = fromHour; hour < toHour; hour++) {
+				final double[] times = this.linkTravelTimePerTimeOfDay.get(TIMES_OF_DAY[hour]);
+				//fastest path travel time per node pair (NaN if there is no path)
+				TLongDoubleHashMap fastestPathTimes = new TLongDoubleHashMap();
+				for (int row = 0; row < trips.size(); row++) {
+					if (trips.getTimeOfDayOrdinal(row) != hour) continue;
+					Route route = trips.getRoute(row);
+					if (route == null || route.isEmpty()) continue;
+
+					DirectedNode originNode = route.getOriginNode();
+					DirectedNode destinationNode = route.getDestinationNode();
+					long key = RouteSetGenerator.getNodePairKey(originNode.getID(), destinationNode.getID());
+					double fastestPathTime;
+					if (fastestPathTimes.containsKey(key)) fastestPathTime = fastestPathTimes.get(key);
+					else {
+						int[] edgeIDs = this.roadNetwork.getFastestPathEdges(originNode, destinationNode, times, -1);
+						fastestPathTime = Double.NaN;
+						if (edgeIDs != null) {
+							fastestPathTime = 0.0;
+							for (int edgeID: edgeIDs) fastestPathTime += times[edgeID];
+						}
+						fastestPathTimes.put(key, fastestPathTime);
+					}
+					if (Double.isNaN(fastestPathTime)) continue;
+
+					int multiplier = trips.getMultiplier(row);
+					routeTimes[hour] += multiplier * route.getTravelTime(times, 0.0);
+					fastestTimes[hour] += multiplier * fastestPathTime;
+				}
+			}
+		}, "relative gap calculation");
+
+		//sum in the order of the times of day, so the gap does not depend on the number of threads
+		double routeTotal = 0.0, fastestTotal = 0.0;
+		for (int hour = 0; hour < TIMES_OF_DAY.length; hour++) {
+			routeTotal += routeTimes[hour];
+			fastestTotal += fastestTimes[hour];
 		}
+		return (fastestTotal > 0.0) ? (routeTotal - fastestTotal) / fastestTotal : Double.NaN;
 	}
 
 	/**
@@ -2461,13 +2764,13 @@ public class RoadNetworkAssignment {
 
 		ODMatrixMultiKey counter = new ODMatrixMultiKey();
 
-		for (Trip trip: this.tripList) {
+		for (int row = 0; row < this.tripTable.size(); row++) {
 
-			if (trip.getVehicle() != VehicleType.CAR && trip.getVehicle() != VehicleType.CAR_AV) continue; //skip freight vehicles
+			if (!this.tripTable.isPassengerTrip(row)) continue; //skip freight vehicles
 
-			int originLadID = trip.getOriginLadID();
-			int destinationLadID = trip.getDestinationLadID();
-			int multiplier = trip.getMultiplier();
+			int originLadID = this.tripTable.getOriginLadID(row);
+			int destinationLadID = this.tripTable.getDestinationLadID(row);
+			int multiplier = this.tripTable.getMultiplier(row);
 
 			String originLAD = this.zoning.getLadIDToCodeMap()[originLadID];
 			String destinationLAD = this.zoning.getLadIDToCodeMap()[destinationLadID];
@@ -2487,14 +2790,14 @@ public class RoadNetworkAssignment {
 
 		FreightMatrix counter = new FreightMatrix();
 
-		for (Trip trip: this.tripList) {
+		for (int row = 0; row < this.tripTable.size(); row++) {
 
-			if (trip.getVehicle() == VehicleType.CAR || trip.getVehicle() == VehicleType.CAR_AV) continue; //skip passenger vehicles
+			if (this.tripTable.isPassengerTrip(row)) continue; //skip passenger vehicles
 
-			int origin = trip.getOrigin();
-			int destination = trip.getDestination();
-			int vehicleType = trip.getVehicle().value;
-			int multiplier = trip.getMultiplier();
+			int origin = this.tripTable.getOrigin(row);
+			int destination = this.tripTable.getDestination(row);
+			int vehicleType = this.tripTable.getVehicle(row).value;
+			int multiplier = this.tripTable.getMultiplier(row);
 
 			int count = counter.getFlow(origin, destination, vehicleType);
 			counter.setFlow(origin, destination, vehicleType, count + multiplier);
@@ -2513,7 +2816,7 @@ public class RoadNetworkAssignment {
 
 		SkimMatrix counter = new SkimMatrixArray(zoning);
 
-		for (Trip trip: this.tripList) {
+		for (Trip trip: this.tripTable.scan()) {
 
 			if (trip.getVehicle() != VehicleType.CAR && trip.getVehicle() != VehicleType.CAR_AV) continue; //skip freight vehicles
 
@@ -2560,7 +2863,7 @@ public class RoadNetworkAssignment {
 
 		SkimMatrixFreight counter = new SkimMatrixFreightArray();
 
-		for (Trip trip: this.tripList) {
+		for (Trip trip: this.tripTable.scan()) {
 
 			VehicleType vht = trip.getVehicle();
 			if ( ! (vht == VehicleType.ARTIC || vht == VehicleType.RIGID || vht == VehicleType.VAN ||
@@ -2612,7 +2915,7 @@ public class RoadNetworkAssignment {
 
 		SkimMatrix counter = new SkimMatrixArray(zoning);
 
-		for (Trip trip: this.tripList) {
+		for (Trip trip: this.tripTable.scan()) {
 
 			if (trip.getVehicle() != VehicleType.CAR && trip.getVehicle() != VehicleType.CAR_AV) continue; //skip freight vehicles
 
@@ -2659,7 +2962,7 @@ public class RoadNetworkAssignment {
 		SkimMatrix distanceSkimMatrix = new SkimMatrixArray(zoning);
 		SkimMatrix counter = new SkimMatrixArray(zoning);
 
-		for (Trip trip: this.tripList) {
+		for (Trip trip: this.tripTable.scan()) {
 
 			if (trip.getVehicle() != VehicleType.CAR && trip.getVehicle() != VehicleType.CAR_AV) continue; //skip freight vehicles
 
@@ -2697,7 +3000,7 @@ public class RoadNetworkAssignment {
 		SkimMatrix distanceSkimMatrix = new SkimMatrixArrayTempro(zoning);
 		SkimMatrix counter = new SkimMatrixArrayTempro(zoning);
 
-		for (Trip trip: this.tripList) {
+		for (Trip trip: this.tripTable.scan()) {
 
 			if (trip instanceof TripTempro && (trip.getVehicle() == VehicleType.CAR || trip.getVehicle() == VehicleType.CAR_AV)) {
 
@@ -2736,7 +3039,7 @@ public class RoadNetworkAssignment {
 		SkimMatrixFreight distanceSkimMatrixFreight = new SkimMatrixFreightArray();
 		SkimMatrixFreight counter = new SkimMatrixFreightArray();
 
-		for (Trip trip: this.tripList) {
+		for (Trip trip: this.tripTable.scan()) {
 
 			VehicleType vht = trip.getVehicle();
 			if ( ! (vht == VehicleType.ARTIC || vht == VehicleType.RIGID || vht == VehicleType.VAN ||
@@ -2780,7 +3083,7 @@ public class RoadNetworkAssignment {
 
 		double[] frequences = new double[binLimitsInKm.length];
 
-		for (Trip trip: this.tripList) {
+		for (Trip trip: this.tripTable.scan()) {
 
 			if (!(trip.getVehicle() == VehicleType.CAR || trip.getVehicle() == VehicleType.CAR_AV)) continue; //skip freight
 
@@ -2847,12 +3150,12 @@ public class RoadNetworkAssignment {
 		//this.updateLinkTravelTimes();
 		SkimMatrixFreight counter = new SkimMatrixFreightArray();
 
-		if (this.tripList == null || this.tripList.size() == 0) {
+		if (this.tripTable == null || this.tripTable.size() == 0) {
 			LOGGER.warn("TripList is empty! Cannot update cost skim matrix for freight.");
 			return;
 		}
 
-		for (Trip trip: this.tripList) {
+		for (Trip trip: this.tripTable.scan()) {
 
 			VehicleType vht = trip.getVehicle();
 			if ( ! (vht == VehicleType.ARTIC || vht == VehicleType.RIGID || vht == VehicleType.VAN ||
@@ -2905,7 +3208,7 @@ public class RoadNetworkAssignment {
 		Map<EnergyType, Double> consumptions = new EnumMap<>(EnergyType.class);
 		for (EnergyType energy: EnergyType.values()) consumptions.put(energy, 0.0);
 
-		for (Trip trip: this.tripList) {
+		for (Trip trip: this.tripTable.scan()) {
 			if (trip.getVehicle() != VehicleType.CAR && trip.getVehicle() != VehicleType.CAR_AV) continue; //skip freight vehicles
 			Map<EnergyType, Double> consumption = trip.getConsumption(this.linkTravelTimePerTimeOfDay.get(trip.getTimeOfDay()), this.roadNetwork.getNodeToAverageAccessEgressDistance(), averageAccessEgressSpeedCar, this.energyConsumptions, this.relativeFuelEfficiencies, this.flagIncludeAccessEgress);
 			int multiplier = trip.getMultiplier();
@@ -2934,7 +3237,7 @@ public class RoadNetworkAssignment {
 			zonalConsumptions.put(energy, consumption);
 		}
 
-		for (Trip trip: this.tripList) {
+		for (Trip trip: this.tripTable.scan()) {
 			
 			if (trip.getVehicle() != VehicleType.CAR && trip.getVehicle() != VehicleType.CAR_AV) continue; //skip freight vehicles
 			
@@ -2986,7 +3289,7 @@ public class RoadNetworkAssignment {
 			zonalCO2Emissions.put(vht, emissions);
 		}
 
-		for (Trip trip: this.tripList) {
+		for (Trip trip: this.tripTable.scan()) {
 
 			VehicleType vht = trip.getVehicle();
 			Double tripCO2Emission = 0.0;
@@ -3050,7 +3353,7 @@ public class RoadNetworkAssignment {
 		else if (vht == VehicleType.RIGID) avht = VehicleType.RIGID_AV; 
 		else if (vht == VehicleType.ARTIC) avht = VehicleType.ARTIC_AV; 
 
-		for (Trip trip: this.tripList)
+		for (Trip trip: this.tripTable.scan())
 			if ((trip.getVehicle() == vht || trip.getVehicle() == avht) &&
 				(trip.getEngine() == EngineType.BEV || trip.getEngine() == EngineType.PHEV_PETROL || trip.getEngine() == EngineType.PHEV_DIESEL)) {
 
@@ -3121,7 +3424,7 @@ public class RoadNetworkAssignment {
 		else if (vht == VehicleType.RIGID) avht = VehicleType.RIGID_AV; 
 		else if (vht == VehicleType.ARTIC) avht = VehicleType.ARTIC_AV; 
 
-		for (Trip trip: this.tripList)
+		for (Trip trip: this.tripTable.scan())
 			if ((trip.getVehicle() == vht || trip.getVehicle() == avht) &&
 				(trip.getEngine() == EngineType.ICE_H2 || trip.getEngine() == EngineType.FCEV_H2)) {
 
@@ -3191,7 +3494,7 @@ public class RoadNetworkAssignment {
 		else if (vht == VehicleType.RIGID) avht = VehicleType.RIGID_AV; 
 		else if (vht == VehicleType.ARTIC) avht = VehicleType.ARTIC_AV; 
 
-		for (Trip trip: this.tripList)
+		for (Trip trip: this.tripTable.scan())
 			if ((trip.getVehicle() == vht || trip.getVehicle() == avht) &&
 					(trip.getEngine() == EngineType.BEV || trip.getEngine() == EngineType.PHEV_PETROL || trip.getEngine() == EngineType.PHEV_DIESEL)) {
 				String originLAD = trip.getOriginLAD(this.roadNetwork.getNodeToZone());
@@ -3228,7 +3531,7 @@ public class RoadNetworkAssignment {
 		else if (vht == VehicleType.RIGID) avht = VehicleType.RIGID_AV; 
 		else if (vht == VehicleType.ARTIC) avht = VehicleType.ARTIC_AV; 
 
-		for (Trip trip: this.tripList)
+		for (Trip trip: this.tripTable.scan())
 			if ((trip.getVehicle() == vht || trip.getVehicle() == avht) &&
 					(trip.getEngine() == EngineType.ICE_H2 || trip.getEngine() == EngineType.FCEV_H2)) {
 				String originLAD = trip.getOriginLAD(this.roadNetwork.getNodeToZone());
@@ -3261,7 +3564,7 @@ public class RoadNetworkAssignment {
 			zonalConsumptions.put(energy, consumption);
 		}
 
-		for (Trip trip: this.tripList) {
+		for (Trip trip: this.tripTable.scan()) {
 			if (trip.getVehicle() != VehicleType.CAR && trip.getVehicle() != VehicleType.CAR_AV) continue; //skip freight vehicles
 
 			Map<EnergyType, Double> tripConsumption = trip.getConsumption(this.linkTravelTimePerTimeOfDay.get(trip.getTimeOfDay()), this.roadNetwork.getNodeToAverageAccessEgressDistance(), averageAccessEgressSpeedCar, this.energyConsumptions, this.relativeFuelEfficiencies, this.flagIncludeAccessEgress);
@@ -3291,7 +3594,7 @@ public class RoadNetworkAssignment {
 			consumptions.put(energy, 0.0);
 		}
 
-		for (Trip trip: this.tripList) {
+		for (Trip trip: this.tripTable.scan()) {
 			VehicleType vht = trip.getVehicle();
 			if ( ! (vht == VehicleType.ARTIC || vht == VehicleType.RIGID || vht == VehicleType.VAN ||
 					vht == VehicleType.ARTIC_AV || vht == VehicleType.RIGID_AV || vht == VehicleType.VAN_AV)) continue; //skip non-freight vehicles
@@ -3324,7 +3627,7 @@ public class RoadNetworkAssignment {
 			map.put(vht, consumptions);
 		}
 
-		for (Trip trip: this.tripList) {
+		for (Trip trip: this.tripTable.scan()) {
 			VehicleType vht = trip.getVehicle();
 			Map<EnergyType, Double> consumption;
 			
@@ -3396,7 +3699,7 @@ public class RoadNetworkAssignment {
 	 */
 	public double[] calculatePeakLinkPointCapacities() {
 
-		double[] peakLinkVolumes = this.calculateLinkVolumeInPCUPerTimeOfDay(this.tripList).get(TimeOfDay.EIGHTAM);
+		double[] peakLinkVolumes = this.calculateLinkVolumeInPCUPerTimeOfDay(this.tripTable).get(TimeOfDay.EIGHTAM);
 		int[] numberOfLanes = roadNetwork.getNumberOfLanes();
 		double[] peakLinkCapacities = new double[this.roadNetwork.getMaximumEdgeID()];
 
@@ -3478,7 +3781,7 @@ public class RoadNetworkAssignment {
 	 */
 	public double[] calculatePeakLinkDensities() {
 
-		double[] peakLinkVolumes = this.calculateLinkVolumeInPCUPerTimeOfDay(this.tripList).get(TimeOfDay.EIGHTAM);
+		double[] peakLinkVolumes = this.calculateLinkVolumeInPCUPerTimeOfDay(this.tripTable).get(TimeOfDay.EIGHTAM);
 		int[] numberOfLanes = this.roadNetwork.getNumberOfLanes();
 		double[] peakLinkDensities = new double[this.roadNetwork.getMaximumEdgeID()];
 
@@ -4565,6 +4868,9 @@ public class RoadNetworkAssignment {
 
 		Map<TimeOfDay, Map<Integer, Double>> linkTravelTime = InputFileReader.readLinkTravelTimeFile(year, fileName);
 
+		//cached route choice probabilities are based on the old link travel times
+		this.routeChoiceCache.invalidate();
+
 		//store/overwrite into the defaultLinkTravelTime
 		for (TimeOfDay hour: TimeOfDay.values()) {
 			double[] hourlyTimes = this.linkTravelTimePerTimeOfDay.get(hour);
@@ -4619,12 +4925,47 @@ public class RoadNetworkAssignment {
 	}
 
 	/**
-	 * Getter method for the trip list.
+	 * Setter method for the link travel times per time of day (the values are copied).
+	 * @param linkTravelTimes Link travel times per time of day.
+	 */
+	public void setLinkTravelTimes(Map<TimeOfDay, double[]> linkTravelTimes) {
+
+		//cached route choice probabilities are based on the old link travel times
+		this.routeChoiceCache.invalidate();
+
+		for (TimeOfDay hour: TimeOfDay.values()) {
+			double[] hourlyTimes = linkTravelTimes.get(hour);
+			System.arraycopy(hourlyTimes, 0, this.linkTravelTimePerTimeOfDay.get(hour), 0, hourlyTimes.length);
+		}
+		this.updateLinkSpeeds();
+	}
+
+	/**
+	 * Getter method for the trip list (an unmodifiable list view of the trip table, which is recreated only when the trip table changes).
+	 * Use {@link #getTripTable()} to go through the trips without creating the list.
 	 * @return Trip list.
 	 */
-	public ArrayList<Trip> getTripList() {
+	public List<Trip> getTripList() {
+
+		return this.tripTable.asList();
+	}
+
+	/**
+	 * Getter method for the trip table.
+	 * @return Trip table.
+	 */
+	public TripTable getTripTable() {
 
-		return this.tripList;
+		return this.tripTable;
+	}
+
+	/**
+	 * Getter method for the route choice cache (cumulative route choice probabilities of the current assignment pass).
+	 * @return Route choice cache.
+	 */
+	public RouteChoiceCache getRouteChoiceCache() {
+
+		return this.routeChoiceCache;
 	}
 
 	/**
@@ -4661,6 +5002,17 @@ public class RoadNetworkAssignment {
 	public void setStartNodeProbabilities(HashMap<Integer, Double> startNodeProbabilities) {
 
 		this.startNodeProbabilities = startNodeProbabilities;
+		this.startNodeSamplers = this.buildNodeSamplers(startNodeProbabilities, true, roadNetwork.getNodeToGravitatingPopulation(), false, false);
+		this.startTopNodeSamplers = this.buildNodeSamplers(startNodeProbabilities, true, roadNetwork.getNodeToGravitatingPopulation(), true, false);
+	}
+
+	/**
+	 * Getter method for the samplers of the start nodes among the top nodes of each zone.
+	 * @return Zone to start node sampler map.
+	 */
+	public HashMap<String, AliasSampler> getStartTopNodeSamplers() {
+
+		return this.startTopNodeSamplers;
 	}
 
 	/**
@@ -4670,6 +5022,8 @@ public class RoadNetworkAssignment {
 	public void setEndNodeProbabilities(HashMap<Integer, Double> endNodeProbabilities) {
 
 		this.endNodeProbabilities = endNodeProbabilities;
+		this.endNodeSamplers = this.buildNodeSamplers(endNodeProbabilities, false, roadNetwork.getNodeToGravitatingPopulation(), false, false);
+		this.endTopNodeSamplers = this.buildNodeSamplers(endNodeProbabilities, false, roadNetwork.getNodeToGravitatingPopulation(), true, false);
 	}
 
 	/**
@@ -4698,7 +5052,7 @@ public class RoadNetworkAssignment {
 
 		HashMap<String, Integer> totalLADnoTripStarts = new HashMap<String, Integer>();
 
-		for (Trip trip: this.tripList)
+		for (Trip trip: this.tripTable.scan())
 			if (trip.getVehicle() == VehicleType.CAR || trip.getVehicle() == VehicleType.CAR_AV) {
 				String originZone = trip.getOriginLAD(this.roadNetwork.getNodeToZone());
 				Integer tripStarts = totalLADnoTripStarts.get(originZone);
@@ -4718,7 +5072,7 @@ public class RoadNetworkAssignment {
 
 		HashMap<String, Integer> totalLADnoTripEnds = new HashMap<String, Integer>();
 
-		for (Trip trip: this.tripList) 
+		for (Trip trip: this.tripTable.scan()) 
 			if (trip.getVehicle() == VehicleType.CAR || trip.getVehicle() == VehicleType.CAR_AV) {
 				String destinationZone = trip.getDestinationLAD(this.roadNetwork.getNodeToZone());
 				Integer tripEnds = totalLADnoTripEnds.get(destinationZone);
@@ -4738,7 +5092,7 @@ public class RoadNetworkAssignment {
 
 		HashMap<String, Integer> totalLADnoTripStarts = new HashMap<String, Integer>();
 
-		for (Trip trip: this.tripList)
+		for (Trip trip: this.tripTable.scan())
 			if (trip.getVehicle() == VehicleType.VAN || trip.getVehicle() == VehicleType.RIGID || trip.getVehicle() == VehicleType.ARTIC ||
 			trip.getVehicle() == VehicleType.ARTIC_AV || trip.getVehicle() == VehicleType.RIGID_AV || trip.getVehicle() == VehicleType.VAN_AV) {
 				String originZone = trip.getOriginLAD(this.roadNetwork.getNodeToZone());
@@ -4759,7 +5113,7 @@ public class RoadNetworkAssignment {
 
 		HashMap<String, Integer> totalLADnoTripEnds = new HashMap<String, Integer>();
 
-		for (Trip trip: this.tripList) 
+		for (Trip trip: this.tripTable.scan()) 
 			if (trip.getVehicle() == VehicleType.VAN || trip.getVehicle() == VehicleType.RIGID || trip.getVehicle() == VehicleType.ARTIC ||
 			trip.getVehicle() == VehicleType.ARTIC_AV || trip.getVehicle() == VehicleType.RIGID_AV || trip.getVehicle() == VehicleType.VAN_AV) {
 				String destinationZone = trip.getDestinationLAD(this.roadNetwork.getNodeToZone());
@@ -4783,7 +5137,7 @@ public class RoadNetworkAssignment {
 		//zone to vehicle type to vehicle kilometres
 		Map<String, Map<VehicleType, Double>> vehicleKilometres = new HashMap<String, Map<VehicleType, Double>>();
 
-		for (Trip trip: tripList) {
+		for (Trip trip: this.tripTable.scan()) {
 			int multiplier = trip.getMultiplier();
 			VehicleType vht = trip.getVehicle();
 			Route route = trip.getRoute();
@@ -5033,7 +5387,7 @@ public class RoadNetworkAssignment {
 		//zone to vehicle type to vehicle kilometres
 		Map<String, Map<VehicleType, Double>> vehicleKilometres = new HashMap<String, Map<VehicleType, Double>>();
 
-		for (Trip trip: tripList) {
+		for (Trip trip: this.tripTable.scan()) {
 
 			int multiplier = trip.getMultiplier();
 			VehicleType vht = trip.getVehicle();
@@ -5205,6 +5559,7 @@ public class RoadNetworkAssignment {
 	public void setElectricityUnitCost (double electricityUnitCost) {
 
 		energyUnitCosts.put(EnergyType.ELECTRICITY, electricityUnitCost);
+		this.routeChoiceCache.invalidate();
 	}
 
 	/**
@@ -5215,6 +5570,7 @@ public class RoadNetworkAssignment {
 	public void setEnergyUnitCost (EnergyType energyType, double energyUnitCost) {
 
 		this.energyUnitCosts.put(energyType, energyUnitCost);
+		this.routeChoiceCache.invalidate();
 	}
 
 	/**
@@ -5226,6 +5582,7 @@ public class RoadNetworkAssignment {
 	public void setEnergyConsumptionParameters (VehicleType vehicleType, EngineType engineType, Map<WebTAG, Double> parameters) {
 
 		this.energyConsumptions.get(vehicleType).put(engineType, parameters);
+		this.routeChoiceCache.invalidate();
 	}
 
 	/**
@@ -5236,6 +5593,7 @@ public class RoadNetworkAssignment {
 	public void setEngineTypeFractions (VehicleType vht, Map<EngineType, Double> engineTypeFractions) {
 
 		this.engineTypeFractions.put(vht, engineTypeFractions);
+		this.engineTypeSamplers.put(vht, buildEnumSampler(engineTypeFractions, ENGINE_TYPES.length));
 	}
 
 	//	/**
@@ -5252,6 +5610,8 @@ public class RoadNetworkAssignment {
 	 */
 	public void resetLinkVolumes () {
 
+		this.linkVolumesTripTable = null; //volumes no longer correspond to the trip table
+
 		//reset link volumes in PCU
 		if (this.linkVolumesInPCU == null)
 			this.linkVolumesInPCU = new double[this.roadNetwork.maximumEdgeID];
@@ -5290,8 +5650,7 @@ public class RoadNetworkAssignment {
 	 */
 	public void resetTripList () {
 
-		this.tripList.clear();
-		//this.tripList = new ArrayList<Trip>();
+		this.tripTable.clear();
 	}
 
 	/**
@@ -5300,7 +5659,22 @@ public class RoadNetworkAssignment {
 	 */
 	public void initialiseTripList (int initialCapacity) {
 
-		this.tripList = new ArrayList<Trip>(initialCapacity);
+		this.tripTable = new TripTable(initialCapacity);
+	}
+
+	/**
+	 * Prepares the assignment for the reassignment of new demand, keeping the link travel times and node probabilities
+	 * of the last assignment (warm start). Link volumes are reset and the trip table is cleared, reusing their allocated arrays.
+	 * @param expectedTripListSize Expected number of trips (used as the minimum capacity of the trip table).
+	 */
+	public void prepareReassignment (int expectedTripListSize) {
+
+		this.resetLinkVolumes();
+		if (this.tripTable == null) this.tripTable = new TripTable(expectedTripListSize);
+		else {
+			this.tripTable.clear();
+			this.tripTable.ensureCapacity(expectedTripListSize);
+		}
 	}
 
 	/**
@@ -5333,12 +5707,40 @@ public class RoadNetworkAssignment {
 		return map;
 	}
 
+	/**
+	 * Calculates link volumes in PCU per time of day by scanning the columns of the trip table.
+	 * @param tripTable Trip table.
+	 * @return Link volumes in PCU per time of day
+	 */
+	public Map<TimeOfDay, double[]> calculateLinkVolumeInPCUPerTimeOfDay(TripTable tripTable) {
+
+		double[][] hourlyVolumes = new double[TimeOfDay.values().length][];
+		Map<TimeOfDay, double[]> map = new EnumMap<TimeOfDay, double[]>(TimeOfDay.class);
+		for (TimeOfDay hour: TimeOfDay.values()) {
+			hourlyVolumes[hour.ordinal()] = new double[this.roadNetwork.getMaximumEdgeID()];
+			map.put(hour, hourlyVolumes[hour.ordinal()]);
+		}
+
+		final double[] pcu = this.getVehicleTypeToPCUArray();
+		for (int row = 0; row < tripTable.size(); row++) {
+			Route route = tripTable.getRoute(row);
+			if (route == null) continue;
+			double tripPCU = pcu[tripTable.getVehicleOrdinal(row)] * tripTable.getMultiplier(row);
+			double[] volumes = hourlyVolumes[tripTable.getTimeOfDayOrdinal(row)];
+			TIntArrayList edges = route.getEdges();
+			for (int i = 0, n = edges.size(); i < n; i++)
+				volumes[edges.getQuick(i)] += tripPCU; //add PCU of the vehicle
+		}
+
+		return map;
+	}
+
 	/**
 	 * Updates link volumes in PCU per time of day from object's trip list and stores into instance variable.
 	 */
 	public void updateLinkVolumeInPCUPerTimeOfDay() {
 
-		this.linkVolumesInPCUPerTimeOfDay = this.calculateLinkVolumeInPCUPerTimeOfDay(this.tripList);
+		this.linkVolumesInPCUPerTimeOfDay = this.calculateLinkVolumeInPCUPerTimeOfDay(this.tripTable);
 	}
 
 	/**
@@ -5371,12 +5773,34 @@ public class RoadNetworkAssignment {
 		return volumes;
 	}
 
+	/**
+	 * Calculates daily link volumes in PCU by scanning the columns of the trip table.
+	 * @param tripTable Trip table.
+	 * @return Link volumes in PCU.
+	 */
+	public double[] calculateLinkVolumeInPCU(TripTable tripTable) {
+
+		double[] volumes = new double[this.roadNetwork.getMaximumEdgeID()];
+
+		final double[] pcu = this.getVehicleTypeToPCUArray();
+		for (int row = 0; row < tripTable.size(); row++) {
+			Route route = tripTable.getRoute(row);
+			if (route == null) continue;
+			double tripPCU = pcu[tripTable.getVehicleOrdinal(row)] * tripTable.getMultiplier(row);
+			TIntArrayList edges = route.getEdges();
+			for (int i = 0, n = edges.size(); i < n; i++)
+				volumes[edges.getQuick(i)] += tripPCU; //add PCU of the vehicle
+		}
+
+		return volumes;
+	}
+
 	/**
 	 * Updates daily link volumes in PCU from the trip list and stores it into instance variable.
 	 */
 	public void updateLinkVolumeInPCU() {
 
-		this.linkVolumesInPCU = this.calculateLinkVolumeInPCU(this.tripList);
+		this.linkVolumesInPCU = this.calculateLinkVolumeInPCU(this.tripTable);
 	}
 
 	/**
@@ -5414,12 +5838,161 @@ public class RoadNetworkAssignment {
 		return map;
 	}
 
+	/**
+	 * Calculates daily link volumes per vehicle type by scanning the columns of the trip table.
+	 * @param tripTable Trip table.
+	 * @return Map of link volumes per vehicle type.
+	 */
+	public Map<VehicleType, int[]> calculateLinkVolumePerVehicleType(TripTable tripTable) {
+
+		int[][] vehicleVolumes = new int[VehicleType.values().length][];
+		Map<VehicleType, int[]> map = new EnumMap<VehicleType, int[]>(VehicleType.class);
+		for (VehicleType vht: VehicleType.values()) {
+			vehicleVolumes[vht.ordinal()] = new int[this.roadNetwork.getMaximumEdgeID()];
+			map.put(vht, vehicleVolumes[vht.ordinal()]);
+		}
+
+		for (int row = 0; row < tripTable.size(); row++) {
+			Route route = tripTable.getRoute(row);
+			if (route == null) continue;
+			int multiplier = tripTable.getMultiplier(row);
+			int[] volumes = vehicleVolumes[tripTable.getVehicleOrdinal(row)];
+			TIntArrayList edges = route.getEdges();
+			for (int i = 0, n = edges.size(); i < n; i++)
+				volumes[edges.getQuick(i)] += multiplier;
+		}
+
+		return map;
+	}
+
+	/**
+	 * Gets passenger car units indexed by vehicle type ordinal.
+	 * @return PCU per vehicle type.
+	 */
+	private double[] getVehicleTypeToPCUArray() {
+
+		double[] pcu = new double[VehicleType.values().length];
+		for (VehicleType vht: VehicleType.values()) {
+			Double value = this.vehicleTypeToPCU.get(vht);
+			if (value != null) pcu[vht.ordinal()] = value;
+		}
+
+		return pcu;
+	}
+
 	/**
 	 * Updates daily link volumes per vehicle type from trip list and stores into instance variable.
 	 */
 	public void updateLinkVolumePerVehicleType() {
 
-		this.linkVolumesPerVehicleType = this.calculateLinkVolumePerVehicleType(this.tripList);
+		this.linkVolumesPerVehicleType = this.calculateLinkVolumePerVehicleType(this.tripTable);
+	}
+
+	/**
+	 * Updates daily link volumes in PCU, link volumes in PCU per time of day and daily link volumes per vehicle type
+	 * in a single pass through the trip table and stores them into instance variables.
+	 * Uses the same number of threads as the passenger assignment.
+	 */
+	public void updateLinkVolumes() {
+
+		this.updateLinkVolumes(this.assignmentThreads);
+	}
+
+	/**
+	 * Updates daily link volumes in PCU, link volumes in PCU per time of day and daily link volumes per vehicle type
+	 * in a single pass through the trip table and stores them into instance variables.
+	 * With more than one thread, each thread accumulates a block of trips into its own arrays, which are then merged
+	 * (so PCU volumes can differ from the single-threaded ones due to floating-point rounding).
+	 * @param threads Number of threads.
+	 */
+	public void updateLinkVolumes(int threads) {
+
+		final int trips = this.tripTable.size();
+		final int blocks = Math.max(1, Math.min(threads, trips / MIN_TRIPS_PER_LINK_VOLUME_THREAD));
+		final double[] pcu = this.getVehicleTypeToPCUArray();
+		final int maximumEdgeID = this.roadNetwork.getMaximumEdgeID();
+
+		List<LinkVolumeAccumulator> accumulators = new ArrayList<LinkVolumeAccumulator>(blocks);
+		for (int b = 0; b < blocks; b++)
+			accumulators.add(new LinkVolumeAccumulator(this.tripTable, (int)((long)trips * b / blocks), (int)((long)trips * (b + 1) / blocks), pcu, maximumEdgeID));
+
+		ParallelTasks.invokeAll(accumulators, "link volume accumulation");
+		LinkVolumeAccumulator result = accumulators.get(0);
+		for (int b = 1; b < blocks; b++) result.merge(accumulators.get(b));
+
+		this.linkVolumesInPCU = result.volumesInPCU;
+		this.linkVolumesInPCUPerTimeOfDay = new EnumMap<TimeOfDay, double[]>(TimeOfDay.class);
+		for (TimeOfDay hour: TimeOfDay.values()) this.linkVolumesInPCUPerTimeOfDay.put(hour, result.volumesInPCUPerTimeOfDay[hour.ordinal()]);
+		this.linkVolumesPerVehicleType = new EnumMap<VehicleType, int[]>(VehicleType.class);
+		for (VehicleType vht: VehicleType.values()) this.linkVolumesPerVehicleType.put(vht, result.volumesPerVehicleType[vht.ordinal()]);
+
+		this.linkVolumesTripTable = this.tripTable;
+		this.linkVolumesTripTableModifications = this.tripTable.getModificationCount();
+	}
+
+	/**
+	 * Accumulates all the link volumes for a block of rows of the trip table.
+	 */
+	private static class LinkVolumeAccumulator implements Callable<Void> {
+
+		private final TripTable tripTable;
+		private final int fromRow;
+		private final int toRow;
+		private final double[] pcu; //PCU per vehicle type ordinal
+		private final double[] volumesInPCU;
+		private final double[][] volumesInPCUPerTimeOfDay;
+		private final int[][] volumesPerVehicleType;
+
+		private LinkVolumeAccumulator(TripTable tripTable, int fromRow, int toRow, double[] pcu, int maximumEdgeID) {
+
+			this.tripTable = tripTable;
+			this.fromRow = fromRow;
+			this.toRow = toRow;
+			this.pcu = pcu;
+			this.volumesInPCU = new double[maximumEdgeID];
+			this.volumesInPCUPerTimeOfDay = new double[TIMES_OF_DAY.length][maximumEdgeID];
+			this.volumesPerVehicleType = new int[VehicleType.values().length][maximumEdgeID];
+		}
+
+		@Override
+		public Void call() {
+
+			for (int row = this.fromRow; row < this.toRow; row++) {
+				Route route = this.tripTable.getRoute(row);
+				if (route == null) continue; //minor road trips
+				int vehicle = this.tripTable.getVehicleOrdinal(row);
+				int multiplier = this.tripTable.getMultiplier(row);
+				double tripPCU = this.pcu[vehicle] * multiplier;
+				double[] hourlyVolumes = this.volumesInPCUPerTimeOfDay[this.tripTable.getTimeOfDayOrdinal(row)];
+				int[] vehicleVolumes = this.volumesPerVehicleType[vehicle];
+
+				TIntArrayList edges = route.getEdges();
+				for (int i = 0, n = edges.size(); i < n; i++) {
+					int edgeID = edges.getQuick(i);
+					this.volumesInPCU[edgeID] += tripPCU;
+					hourlyVolumes[edgeID] += tripPCU;
+					vehicleVolumes[edgeID] += multiplier;
+				}
+			}
+
+			return null;
+		}
+
+		/**
+		 * Adds volumes accumulated by another accumulator.
+		 * @param other Other accumulator.
+		 */
+		private void merge(LinkVolumeAccumulator other) {
+
+			for (int edgeID = 0; edgeID < this.volumesInPCU.length; edgeID++)
+				this.volumesInPCU[edgeID] += other.volumesInPCU[edgeID];
+			for (int hour = 0; hour < this.volumesInPCUPerTimeOfDay.length; hour++)
+				for (int edgeID = 0; edgeID < this.volumesInPCU.length; edgeID++)
+					this.volumesInPCUPerTimeOfDay[hour][edgeID] += other.volumesInPCUPerTimeOfDay[hour][edgeID];
+			for (int vehicle = 0; vehicle < this.volumesPerVehicleType.length; vehicle++)
+				for (int edgeID = 0; edgeID < this.volumesInPCU.length; edgeID++)
+					this.volumesPerVehicleType[vehicle][edgeID] += other.volumesPerVehicleType[vehicle][edgeID];
+		}
 	}
 
 	/**
@@ -6283,26 +6856,25 @@ public class RoadNetworkAssignment {
 
 	/**
 	 * Choose time of day.
-	 * @param timOfDayDistribution Time of day distribution.
+	 * @param timeOfDaySampler Time of day sampler.
 	 * @return Chosen time of day (hour).
 	 */
-	private TimeOfDay chooseTimeOfDay(Map<TimeOfDay, Double> timOfDayDistribution) {
-
-		//choose time of day
-		double cumulativeProbability = 0.0;
-		double random = rng.nextDouble();
-		TimeOfDay hour = null;
-		for (Map.Entry<TimeOfDay, Double> entry : timOfDayDistribution.entrySet()) {
-			TimeOfDay key = entry.getKey();
-			Double value = entry.getValue();	
-			cumulativeProbability += value;
-			if (Double.compare(cumulativeProbability, random) > 0) {
-				hour = key;
-				break;
-			}
-		}
+	private TimeOfDay chooseTimeOfDay(AliasSampler timeOfDaySampler) {
+
+		return this.chooseTimeOfDay(timeOfDaySampler, rng.nextDouble());
+	}
+
+	/**
+	 * Choose time of day using a provided random number.
+	 * @param timeOfDaySampler Time of day sampler.
+	 * @param random Random number between 0 and 1.
+	 * @return Chosen time of day (hour).
+	 */
+	private TimeOfDay chooseTimeOfDay(AliasSampler timeOfDaySampler, double random) {
 
-		return hour;
+		if (timeOfDaySampler == null) return null;
+		int ordinal = timeOfDaySampler.sample(random);
+		return (ordinal < 0) ? null : TIMES_OF_DAY[ordinal];
 	}
 
 	/**
@@ -6312,8 +6884,18 @@ public class RoadNetworkAssignment {
 	 */
 	private VehicleType chooseCarVehicleType(Map<VehicleType, Double> AVFractions) {
 
+		return this.chooseCarVehicleType(AVFractions, rng.nextDouble());
+	}
+
+	/**
+	 * Choose car vehicle type (autonomous or non-autonomous) using a provided random number.
+	 * @param AVFractions Fraction of autonomous cars.
+	 * @param random Random number between 0 and 1.
+	 * @return Chosen car vehicle type.
+	 */
+	private VehicleType chooseCarVehicleType(Map<VehicleType, Double> AVFractions, double random) {
+
 		//choose vehicle type (autonomous or non-autonomous)
-		double random  = rng.nextDouble();
 		VehicleType vht = null;
 		if (Double.compare(1.0 - AVFractions.get(VehicleType.CAR_AV), random) > 0)
 			vht = VehicleType.CAR;
@@ -6350,91 +6932,24 @@ public class RoadNetworkAssignment {
 
 	/**
 	 * Choose engine type.
-	 * @param engineTypeDistribution Engine type distribution (for a given vehicle type).
+	 * @param engineTypeSampler Engine type sampler (for a given vehicle type).
 	 * @return Chosen engine type.
 	 */
-	private EngineType chooseEngineType(Map<EngineType, Double> engineTypeDistribution) {
-
-		//choose engine type
-		double cumulativeProbability = 0.0;
-		double random = rng.nextDouble();
-		EngineType engine = null;
-		for (Map.Entry<EngineType, Double> entry : engineTypeDistribution.entrySet()) {
-			EngineType key = entry.getKey();
-			Double value = entry.getValue();	
-			cumulativeProbability += value;
-			if (Double.compare(cumulativeProbability, random) > 0) {
-				engine = key;
-				break;
-			}
-		}
-		return engine;
+	private EngineType chooseEngineType(AliasSampler engineTypeSampler) {
+
+		return this.chooseEngineType(engineTypeSampler, rng.nextDouble());
 	}
 
 	/**
-	 * Chooses the route using route choice model.
-	 * @param originNode
-	 * @param destinationNode
-	 * @param vht
-	 * @param engine
-	 * @param hour
-	 * @param rsg
-	 * @param routeChoiceParameters
-	 * @return
+	 * Choose engine type using a provided random number.
+	 * @param engineTypeSampler Engine type sampler (for a given vehicle type).
+	 * @param random Random number between 0 and 1.
+	 * @return Chosen engine type.
 	 */
-	private Route chooseRoute(int originNode, int destinationNode, VehicleType vht, EngineType engine, TimeOfDay hour, RouteSetGenerator rsg, Map<RouteChoiceParams, Double> routeChoiceParameters) {
-
-
-		Route chosenRoute = null;
-		RouteSet fetchedRouteSet = rsg.getRouteSet(originNode, destinationNode);
-		if (fetchedRouteSet == null) {
-			LOGGER.warn("Can't fetch the route set between nodes {} and {}!", originNode, destinationNode);
-
-			if (!flagAStarIfEmptyRouteSet)	return null;
-			else { //try finding a path with aStar
-				LOGGER.debug("Trying the astar!");
-
-				DirectedNode directedOriginNode = (DirectedNode) this.roadNetwork.getNodeIDtoNode()[originNode];
-				DirectedNode directedDestinationNode = (DirectedNode) this.roadNetwork.getNodeIDtoNode()[destinationNode];
-
-				//RoadPath fastestPath = this.roadNetwork.getFastestPath(directedOriginNode, directedDestinationNode, this.linkTravelTime);
-				RoadPath fastestPath = this.roadNetwork.getFastestPath(directedOriginNode, directedDestinationNode, this.linkTravelTimePerTimeOfDay.get(hour));
-				if (fastestPath == null) {
-					LOGGER.warn("Not even aStar could find a route between node {} and node {}!", originNode, destinationNode);
-					return null;
-				}
-				chosenRoute = new Route(fastestPath, roadNetwork);
-				if (chosenRoute.isEmpty()) {
-					LOGGER.warn("Empty route between nodes {} and {}!", originNode, destinationNode);
-					return null;
-				}
-				//store generated route into the rsg!
-				rsg.addRoute(chosenRoute);
-			}
-		} else { //there is a route set
-
-			//if only one route in the route set, do not calculate utilities and probabilities, but choose that route
-			if (fetchedRouteSet.getSize() == 1) {
-
-				LOGGER.trace("There is just one route in the route set, so choosing that route.");
-				//choose that route
-				chosenRoute = fetchedRouteSet.getChoiceSet().get(0);
-
-			} else { //choose a route using a discrete-choice model
-
-				LOGGER.trace("There are multiple route in the route set, so choosing with a route-choice model.");
-				//if (fetchedRouteSet.getProbabilities() == null) {
-				//probabilities need to be calculated for this route set before a choice can be made
-
-				fetchedRouteSet.calculateUtilities(vht, engine, hour, this.linkTravelTimePerTimeOfDay.get(hour), this.energyConsumptions, this.relativeFuelEfficiencies, this.energyUnitCosts, this.congestionCharges, routeChoiceParameters);
-				fetchedRouteSet.calculateProbabilities();
-				//}
-
-				//choose the route
-				chosenRoute = fetchedRouteSet.choose();
-			}
-		}
+	private EngineType chooseEngineType(AliasSampler engineTypeSampler, double random) {
 
-		return chosenRoute;
+		if (engineTypeSampler == null) return null;
+		int ordinal = engineTypeSampler.sample(random);
+		return (ordinal < 0) ? null : ENGINE_TYPES[ordinal];
 	}
 }
\ No newline at end of file
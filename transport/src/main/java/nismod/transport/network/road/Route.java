@@ -1,5 +1,6 @@
 package nismod.transport.network.road;
 
+import java.util.Arrays;
 import java.util.EnumMap;
 import java.util.List;
 import java.util.Map;
@@ -47,15 +48,23 @@ public class Route {
 		A, B, C, D
 	}
 	
-	private TIntArrayList edges; //optimised list of edge IDs
-	private double length;
+	private TIntArrayList edges; //optimised list of edge IDs (shared with the route pool if the route is interned)
+	private int poolID = -1; //ID of the edge sequence in the route pool (-1 if not interned)
+	private volatile double length; //route length (0 if not calculated yet)
+	private int intersections; //number of intersections (updated when edges are added)
 	private double time;
 	private double cost;
 	private double utility;
 	private Node singleNode;
+	private volatile PolicyCrossings policyCrossings; //pricing policies checked and crossed by the route (null if none checked)
 	
 	private static RoadNetwork roadNetwork;
 	
+	//edges used for calculating the consumption
+	private static final int ALL_EDGES = 0; //all but ferry edges
+	private static final int URBAN_EDGES = 1; //urban edges (electricity of plug-in hybrids)
+	private static final int RURAL_EDGES = 2; //rural edges (fuel of plug-in hybrids)
+	
 	public Route(RoadNetwork roadNetwork) {
 	
 		Route.roadNetwork = roadNetwork;
@@ -98,6 +107,7 @@ public class Route {
 		
 		this.edges = new TIntArrayList(RouteSetGenerator.INITIAL_ROUTE_CAPACITY);
 		for (DirectedEdge edge: builtEdges) this.edges.add(edge.getID()); 
+		this.intersections = Math.max(this.edges.size() - 1, 0);
 			
 //		this.id = ++Route.counter;
 		//System.out.println("Constructing a route from path (nodes): " + path.toString());
@@ -112,6 +122,8 @@ public class Route {
 	
 	/**
 	 * Getter method for the list of edges.
+	 * The list must not be modified directly, as it can be shared with other routes if the route is interned
+	 * (the shared edge lists of the route pool are unmodifiable).
 	 * @return List of edge IDs.
 	 */
 	public TIntArrayList getEdges() {
@@ -125,7 +137,47 @@ public class Route {
 	 */
 	public void trimToSize() {
 		
-		this.edges.trimToSize();
+		if (this.poolID < 0) this.edges.trimToSize(); //pooled edges are already trimmed
+	}
+	
+	/**
+	 * Interns the edge sequence of the route into the route pool, so that the route shares
+	 * the edge list with all the other routes that have the same edges.
+	 * @param pool Route pool.
+	 */
+	public void intern(RoutePool pool) {
+		
+		if (this.edges == null || pool.isInterned(this.poolID, this.edges)) return;
+		this.poolID = pool.intern(this.edges);
+		this.edges = pool.getEdges(this.poolID);
+	}
+	
+	/**
+	 * Getter method for the ID of the edge sequence in the route pool into which the route was last interned.
+	 * @return Pool ID (-1 if the route is not interned).
+	 */
+	public int getPoolID() {
+		
+		return this.poolID;
+	}
+	
+	/**
+	 * Makes a private copy of the shared edge list before the route is modified.
+	 */
+	private void detachFromPool() {
+		
+		if (this.poolID < 0) return;
+		this.edges = new TIntArrayList(this.edges);
+		this.poolID = -1;
+	}
+	
+	/**
+	 * Resets the values calculated from the route edges (before an edge is added).
+	 */
+	private void edgesChanged() {
+		
+		this.length = 0.0;
+		this.policyCrossings = null;
 	}
 	
 	/**
@@ -135,6 +187,8 @@ public class Route {
 	 */
 	public boolean addEdge(DirectedEdge edge) {
 
+		this.detachFromPool();
+		this.edgesChanged();
 		if (this.edges.isEmpty()) this.edges.add(edge.getID());
 		else {
 			int lastEdgeID = this.edges.get(this.edges.size()-1);
@@ -147,6 +201,7 @@ public class Route {
 			} else
 				this.edges.add(edge.getID());
 		}
+		this.intersections = this.edges.size() - 1;
 		return true;
 	}
 	
@@ -156,7 +211,10 @@ public class Route {
 	 */
 	public void addEdgeWithoutValidityCheck(DirectedEdge edge) {
 
+		this.detachFromPool();
+		this.edgesChanged();
 		this.edges.add(edge.getID());
+		this.intersections = this.edges.size() - 1;
 	}
 	
 	/**
@@ -165,7 +223,10 @@ public class Route {
 	 */
 	public void addEdgeWithoutValidityCheck(int edgeID) {
 
+		this.detachFromPool();
+		this.edgesChanged();
 		this.edges.add(edgeID);
+		this.intersections = this.edges.size() - 1;
 	}
 	
 	/**
@@ -175,13 +236,22 @@ public class Route {
 	 */
 	public void calculateTravelTime(double[] linkTravelTime, double avgIntersectionDelay) {
 		
+		this.time = this.getTravelTime(linkTravelTime, avgIntersectionDelay);
+	}
+	
+	/**
+	 * Gets the route travel time based on link travel times (without storing it in the route).
+	 * @param linkTravelTime Link travel times.
+	 * @param avgIntersectionDelay Average intersection delay (in minutes).
+	 * @return Route travel time.
+	 */
+	public double getTravelTime(double[] linkTravelTime, double avgIntersectionDelay) {
+		
 		double travelTime = 0.0;
-		for (int edgeID: edges.toArray()) {
-			double time = linkTravelTime[edgeID];
-			travelTime += time;
-		}
+		for (int i = 0; i < this.edges.size(); i++)
+			travelTime += linkTravelTime[this.edges.getQuick(i)];
 		travelTime += this.getNumberOfIntersections() * avgIntersectionDelay;
-		this.time = travelTime;
+		return travelTime;
 	}
 	
 	/**
@@ -189,11 +259,7 @@ public class Route {
 	 */
 	public void calculateLength(){
 	
-		double length = 0.0;
-		for (int edgeID: edges.toArray()) {
-			length += roadNetwork.getEdgeLength(edgeID);
-		}
-		this.length = length;
+		this.length = this.sumLength();
 	}
 	
 	/**
@@ -209,24 +275,71 @@ public class Route {
 	 */
 	public void calculateCost(VehicleType vht, EngineType et, TimeOfDay tod, double[] linkTravelTime, Map<VehicleType, Map<EngineType, Map<WebTAG, Double>>> energyConsumptionParameters, Map<VehicleType, Map<EngineType, Double>> relativeFuelEfficiency, Map<EnergyType, Double> energyUnitCosts, List<PricingPolicy> congestionCharges) {
 
+		this.cost = this.getCost(vht, et, tod, linkTravelTime, energyConsumptionParameters, relativeFuelEfficiency, energyUnitCosts, congestionCharges);
+	}
+	
+	/**
+	 * Gets the cost of the route (fuel cost and congestion charges), without storing it in the route.
+	 * @param vht Vehicle type.
+	 * @param et Engine type.
+	 * @param tod Time of day.
+	 * @param linkTravelTime Link travel times.
+	 * @param energyConsumptionParameters Base year energy consumption parameters.
+	 * @param relativeFuelEfficiency Relative fuel efficiency (compared to base year).
+	 * @param energyUnitCosts Energy unit costs.
+	 * @param congestionCharges Congestion charges.
+	 * @return Route cost.
+	 */
+	public double getCost(VehicleType vht, EngineType et, TimeOfDay tod, double[] linkTravelTime, Map<VehicleType, Map<EngineType, Map<WebTAG, Double>>> energyConsumptionParameters, Map<VehicleType, Map<EngineType, Double>> relativeFuelEfficiency, Map<EnergyType, Double> energyUnitCosts, List<PricingPolicy> congestionCharges) {
+
+		return this.getCost(vht, et, tod, linkTravelTime, null, energyConsumptionParameters, relativeFuelEfficiency, energyUnitCosts, congestionCharges);
+	}
+	
+	/**
+	 * Gets the cost of the route (fuel cost and congestion charges), without storing it in the route.
+	 * @param vht Vehicle type.
+	 * @param et Engine type.
+	 * @param tod Time of day.
+	 * @param linkTravelTime Link travel times.
+	 * @param linkSpeed Link speeds for the same link travel times (see {@link RoadNetwork#calculateLinkSpeeds(double[])}), or null.
+	 * @param energyConsumptionParameters Base year energy consumption parameters.
+	 * @param relativeFuelEfficiency Relative fuel efficiency (compared to base year).
+	 * @param energyUnitCosts Energy unit costs.
+	 * @param congestionCharges Congestion charges.
+	 * @return Route cost.
+	 */
+	public double getCost(VehicleType vht, EngineType et, TimeOfDay tod, double[] linkTravelTime, double[] linkSpeed, Map<VehicleType, Map<EngineType, Map<WebTAG, Double>>> energyConsumptionParameters, Map<VehicleType, Map<EngineType, Double>> relativeFuelEfficiency, Map<EnergyType, Double> energyUnitCosts, List<PricingPolicy> congestionCharges) {
+
 		double fuelCost = 0.0;
-		Map<EnergyType, Double> routeConsumptions = this.calculateConsumption(vht, et, linkTravelTime, energyConsumptionParameters, relativeFuelEfficiency);
-		
-		for (EnergyType energy: EnergyType.values()) fuelCost +=  routeConsumptions.get(energy) * energyUnitCosts.get(energy);
+		if (et == EngineType.PHEV_PETROL || et == EngineType.PHEV_DIESEL) {
+			EngineType fuelEngine = (et == EngineType.PHEV_PETROL) ? EngineType.ICE_PETROL : EngineType.ICE_DIESEL;
+			fuelCost += this.getConsumption(vht, EngineType.BEV, linkTravelTime, linkSpeed, energyConsumptionParameters, relativeFuelEfficiency, URBAN_EDGES) * energyUnitCosts.get(EnergyType.ELECTRICITY);
+			fuelCost += this.getConsumption(vht, fuelEngine, linkTravelTime, linkSpeed, energyConsumptionParameters, relativeFuelEfficiency, RURAL_EDGES) * energyUnitCosts.get(getEnergyType(fuelEngine));
+		} else {
+			EnergyType energy = getEnergyType(et);
+			if (energy == null)
+				LOGGER.warn("Unknown engine type {} detected during calculation of route fuel consumption.", et);
+			else
+				fuelCost += this.getConsumption(vht, et, linkTravelTime, linkSpeed, energyConsumptionParameters, relativeFuelEfficiency, ALL_EDGES) * energyUnitCosts.get(energy);
+		}
 		
 		double tollCost = 0.0;
 
 		//if there is a congestion charging policy
 		if (congestionCharges != null)
-			for (PricingPolicy policy: congestionCharges) {
+			for (int index = 0; index < congestionCharges.size(); index++) {
+				PricingPolicy policy = congestionCharges.get(index);
 				//fetch link charges for the policy
 				double[] charges = policy.getLinkCharges(vht, tod);
 				if (charges == null) {
 					LOGGER.warn("No link charges for policy {}." , policy.getPolicyName());
 					continue; //skip this policy then
 				}
+				//skip scanning the edges if the route does not cross the policy area
+				if (!this.crossesPolicy(policy, index)) continue;
 				//if any edge has charges, add policy charge and skip checking other edges in the route
-				for (int edgeID: edges.toArray()) {
+				for (int i = 0; i < this.edges.size(); i++) {
+					int edgeID = this.edges.getQuick(i);
 					if (charges[edgeID] > 0.0) {
 						tollCost += charges[edgeID];
 						break;
@@ -234,7 +347,38 @@ public class Route {
 				}
 			}
 				
-		this.cost = fuelCost + tollCost;
+		return fuelCost + tollCost;
+	}
+	
+	/**
+	 * Checks whether any edge of the route belongs to the pricing policy (the result is cached).
+	 * The cache is indexed by the position of the policy in the list of congestion charges, and the policy itself
+	 * is stored with the result, so a different list of policies (e.g. of another assignment) only means the policy is checked again.
+	 * @param policy Pricing policy.
+	 * @param index Position of the policy in the list of congestion charges.
+	 * @return True if the route crosses the policy edges.
+	 */
+	private boolean crossesPolicy(PricingPolicy policy, int index) {
+		
+		PolicyCrossings crossings = this.policyCrossings;
+		if (crossings != null && index < crossings.policies.length && crossings.policies[index] == policy) return crossings.crosses[index];
+		
+		boolean crosses = this.scanPolicy(policy);
+		//a concurrently lost update only means the policy is checked again
+		this.policyCrossings = new PolicyCrossings(crossings, index, policy, crosses);
+		return crosses;
+	}
+	
+	/**
+	 * Scans the route edges for policy edges.
+	 * @param policy Pricing policy.
+	 * @return True if the route crosses the policy edges.
+	 */
+	private boolean scanPolicy(PricingPolicy policy) {
+		
+		for (int i = 0; i < this.edges.size(); i++)
+			if (policy.isPolicyEdge(this.edges.getQuick(i))) return true;
+		return false;
 	}
 	
 	/**
@@ -249,81 +393,16 @@ public class Route {
 	public Map<EnergyType, Double> calculateConsumption(VehicleType vht, EngineType et, double[] linkTravelTime, Map<VehicleType, Map<EngineType, Map<WebTAG, Double>>> energyConsumptionParameters, Map<VehicleType, Map<EngineType, Double>> relativeFuelEfficiency) {
 
 		Map<EnergyType, Double> routeConsumptions = new EnumMap<>(EnergyType.class);
-		Map<WebTAG, Double> parameters, parametersFuel, parametersElectricity;
-
 		for (EnergyType energy: EnergyType.values()) routeConsumptions.put(energy, 0.0);
 
-		if (et == EngineType.PHEV_PETROL) {
-
-			parametersFuel = energyConsumptionParameters.get(vht).get(EngineType.ICE_PETROL);
-			parametersElectricity = energyConsumptionParameters.get(vht).get(EngineType.BEV);
-			double relativeEfficiencyFuel = relativeFuelEfficiency.get(vht).get(EngineType.ICE_PETROL);
-			double relativeEfficiencyElectricity = relativeFuelEfficiency.get(vht).get(EngineType.BEV);
-
-			double fuelConsumption = 0.0;
-			double electricityConsumption = 0.0;
-			for (int edgeID: edges.toArray()) {
-				double len = roadNetwork.getEdgeLength(edgeID); //in [km]
-				double time = linkTravelTime[edgeID]; //in [min]
-				//String cat = (String) sf.getAttribute("RCat"); //road category (PM, PR, Pu, PU, TM, TR, Tu, TU), use Pu, PU, Tu, TU as urban, otherwise rural
-				Boolean isUrban = roadNetwork.getIsEdgeUrban()[edgeID];
-				double speed = len / (time / 60);
-
-				//if no roadCategory information, assume it is ferry and skip
-				if (isUrban == null) {
-					LOGGER.trace("No road category information. Assuming it is ferry and skipping for consumption calculation.");
-					continue;
-				}
-
-				//if edge is urban use electricity, if rural use fuel
-				if (isUrban)
-					electricityConsumption += len * (parametersElectricity.get(WebTAG.A) / speed + parametersElectricity.get(WebTAG.B) + parametersElectricity.get(WebTAG.C) * speed + parametersElectricity.get(WebTAG.D) * speed  * speed);
-				else 
-					fuelConsumption += len * (parametersFuel.get(WebTAG.A) / speed + parametersFuel.get(WebTAG.B) + parametersFuel.get(WebTAG.C) * speed + parametersFuel.get(WebTAG.D) * speed  * speed);
-			}
-			//apply relative fuel efficiency
-			electricityConsumption *= relativeEfficiencyElectricity;
-			fuelConsumption *= relativeEfficiencyFuel;
-			//store
-			routeConsumptions.put(EnergyType.ELECTRICITY, electricityConsumption);
-			routeConsumptions.put(EnergyType.PETROL, fuelConsumption);
-
-		} else if (et == EngineType.PHEV_DIESEL) {
-			parametersFuel = energyConsumptionParameters.get(vht).get(EngineType.ICE_DIESEL);
-			parametersElectricity = energyConsumptionParameters.get(vht).get(EngineType.BEV);
-			double relativeEfficiencyFuel = relativeFuelEfficiency.get(vht).get(EngineType.ICE_DIESEL);
-			double relativeEfficiencyElectricity = relativeFuelEfficiency.get(vht).get(EngineType.BEV);
-
-			double fuelConsumption = 0.0;
-			double electricityConsumption = 0.0;
-			for (int edgeID: edges.toArray()) {
-				double len = roadNetwork.getEdgeLength(edgeID); //in [km]
-				double time = linkTravelTime[edgeID]; //in [min]
-				Boolean isUrban = roadNetwork.getIsEdgeUrban()[edgeID];
-				double speed = len / (time / 60);
-
-				//if no roadCategory information, assume it is ferry and skip
-				if (isUrban == null) {
-					LOGGER.trace("No road category information. Assuming it is ferry and skipping for consumption calculation.");
-					continue;
-				}
-
-				//if edge is urban use electricity, if rural use fuel
-				if (isUrban)
-					electricityConsumption += len * (parametersElectricity.get(WebTAG.A) / speed + parametersElectricity.get(WebTAG.B) + parametersElectricity.get(WebTAG.C) * speed + parametersElectricity.get(WebTAG.D) * speed  * speed);
-				else 
-					fuelConsumption += len * (parametersFuel.get(WebTAG.A) / speed + parametersFuel.get(WebTAG.B) + parametersFuel.get(WebTAG.C) * speed + parametersFuel.get(WebTAG.D) * speed  * speed);
-			}
-			//apply relative fuel efficiency
-			electricityConsumption *= relativeEfficiencyElectricity;
-			fuelConsumption *= relativeEfficiencyFuel;
-			//store
-			routeConsumptions.put(EnergyType.ELECTRICITY, electricityConsumption);
-			routeConsumptions.put(EnergyType.DIESEL, fuelConsumption);
+		if (et == EngineType.PHEV_PETROL || et == EngineType.PHEV_DIESEL) {
+			
+			//if edge is urban use electricity, if rural use fuel
+			EngineType fuelEngine = (et == EngineType.PHEV_PETROL) ? EngineType.ICE_PETROL : EngineType.ICE_DIESEL;
+			routeConsumptions.put(EnergyType.ELECTRICITY, this.getConsumption(vht, EngineType.BEV, linkTravelTime, null, energyConsumptionParameters, relativeFuelEfficiency, URBAN_EDGES));
+			routeConsumptions.put(getEnergyType(fuelEngine), this.getConsumption(vht, fuelEngine, linkTravelTime, null, energyConsumptionParameters, relativeFuelEfficiency, RURAL_EDGES));
 
 		} else {
-
-			parameters = energyConsumptionParameters.get(vht).get(et);
       
       /*
       if (relativeFuelEfficiency.get(vht) == null) 
@@ -332,44 +411,83 @@ public class Route {
         LOGGER.error("Cannot fetch relative fuel efficiency for vehicle {} and engine type {}", vht, et);
       */  
         
-			double relativeEfficiency = relativeFuelEfficiency.get(vht).get(et);
+			double consumption = this.getConsumption(vht, et, linkTravelTime, null, energyConsumptionParameters, relativeFuelEfficiency, ALL_EDGES);
+			EnergyType energy = getEnergyType(et);
+			if (energy != null)
+				routeConsumptions.put(energy, consumption);
+			else
+				LOGGER.warn("Unknown engine type {} detected during calculation of route fuel consumption.", et);
+		}
 
-			double consumption = 0.0;
-			for (int edgeID: edges.toArray()) {
-				
+		return routeConsumptions;
+	}
+	
+	/**
+	 * Calculates energy consumption of one engine type on the selected edges of the route (without any allocation).
+	 * @param vht Vehicle type.
+	 * @param et Engine type (not a plug-in hybrid).
+	 * @param linkTravelTime Link travel time.
+	 * @param linkSpeed Link speeds for the same link travel times, or null (then they are calculated from link travel times).
+	 * @param energyConsumptionParameters Base year energy consumption parameters.
+	 * @param relativeFuelEfficiency Relative fuel efficiency compared to base year.
+	 * @param edgeSelection All non-ferry edges, or only urban/rural edges (plug-in hybrids).
+	 * @return Consumption.
+	 */
+	private double getConsumption(VehicleType vht, EngineType et, double[] linkTravelTime, double[] linkSpeed, Map<VehicleType, Map<EngineType, Map<WebTAG, Double>>> energyConsumptionParameters, Map<VehicleType, Map<EngineType, Double>> relativeFuelEfficiency, int edgeSelection) {
+		
+		Map<WebTAG, Double> parameters = energyConsumptionParameters.get(vht).get(et);
+		double relativeEfficiency = relativeFuelEfficiency.get(vht).get(et);
+		final double a = parameters.get(WebTAG.A);
+		final double b = parameters.get(WebTAG.B);
+		final double c = parameters.get(WebTAG.C);
+		final double d = parameters.get(WebTAG.D);
+		
+		double consumption = 0.0;
+		for (int i = 0; i < this.edges.size(); i++) {
+			int edgeID = this.edges.getQuick(i);
+			
+			if (edgeSelection == ALL_EDGES) {
 				//skip ferry
 				if (roadNetwork.getEdgesType()[edgeID] == EdgeType.FERRY) {
 					LOGGER.trace("Skipping ferry edge in consumption calculation.");
 					continue;
 				}
-				
-				double len = roadNetwork.getEdgeLength(edgeID); //in [km]
-				double time = linkTravelTime[edgeID]; //in [min]
-				double speed = len / (time / 60);
-				consumption += len * (parameters.get(WebTAG.A) / speed + parameters.get(WebTAG.B) + parameters.get(WebTAG.C) * speed + parameters.get(WebTAG.D) * speed  * speed);
+			} else {
+				//road category (PM, PR, Pu, PU, TM, TR, Tu, TU), use Pu, PU, Tu, TU as urban, otherwise rural
+				Boolean isUrban = roadNetwork.getIsEdgeUrban()[edgeID];
+				//if no roadCategory information, assume it is ferry and skip
+				if (isUrban == null) {
+					LOGGER.trace("No road category information. Assuming it is ferry and skipping for consumption calculation.");
+					continue;
+				}
+				if (isUrban != (edgeSelection == URBAN_EDGES)) continue;
 			}
-			//apply relative fuel efficiency
-			consumption *= relativeEfficiency;
-			//store
-			if (et == EngineType.ICE_PETROL || et == EngineType.HEV_PETROL)
-				routeConsumptions.put(EnergyType.PETROL, consumption);
-			else if (et == EngineType.ICE_DIESEL || et == EngineType.HEV_DIESEL)
-				routeConsumptions.put(EnergyType.DIESEL, consumption);
-			else if (et == EngineType.ICE_CNG)
-				routeConsumptions.put(EnergyType.CNG, consumption);
-			else if (et == EngineType.ICE_LPG)
-				routeConsumptions.put(EnergyType.LPG, consumption);
-			else if (et == EngineType.ICE_H2 || et == EngineType.FCEV_H2)
-				routeConsumptions.put(EnergyType.HYDROGEN, consumption);
-			else if (et == EngineType.BEV)
-				routeConsumptions.put(EnergyType.ELECTRICITY, consumption);
-			else
-				LOGGER.warn("Unknown engine type {} detected during calculation of route fuel consumption.", et);
+			
+			double len = roadNetwork.getEdgeLength(edgeID); //in [km]
+			double speed = (linkSpeed != null) ? linkSpeed[edgeID] : len / (linkTravelTime[edgeID] / 60); //in [kph]
+			consumption += len * (a / speed + b + c * speed + d * speed  * speed);
 		}
-
-		return routeConsumptions;
+		//apply relative fuel efficiency
+		consumption *= relativeEfficiency;
+		
+		return consumption;
+	}
+	
+	/**
+	 * Maps the engine type (other than plug-in hybrid) to its energy type.
+	 * @param et Engine type.
+	 * @return Energy type (null if unknown).
+	 */
+	private static EnergyType getEnergyType(EngineType et) {
+		
+		if (et == EngineType.ICE_PETROL || et == EngineType.HEV_PETROL) return EnergyType.PETROL;
+		else if (et == EngineType.ICE_DIESEL || et == EngineType.HEV_DIESEL) return EnergyType.DIESEL;
+		else if (et == EngineType.ICE_CNG) return EnergyType.CNG;
+		else if (et == EngineType.ICE_LPG) return EnergyType.LPG;
+		else if (et == EngineType.ICE_H2 || et == EngineType.FCEV_H2) return EnergyType.HYDROGEN;
+		else if (et == EngineType.BEV) return EnergyType.ELECTRICITY;
+		else return null;
 	}
-
 	
 	/**
 	 * Calculates the utility of the route.
@@ -400,18 +518,89 @@ public class Route {
 		this.calculateTravelTime(linkTravelTime, avgIntersectionDelay); //always (re)calculate
 		this.calculateCost(vht, et, tod, linkTravelTime, energyConsumptionParameters, relativeFuelEfficiency, energyUnitCosts, congestionCharges); //always (re)calculate
 		
-		double length = this.getLength();
-		double time = this.getTime();
-		double cost = this.getCost();
-		int intersec = this.getNumberOfIntersections();
+		this.utility = this.getUtility(this.length, this.time, this.cost, params);
+	}
+	
+	/**
+	 * Gets the utility of the route without storing it (or travel time and cost) in the route,
+	 * so it can be used by multiple threads choosing among the same routes.
+	 * @param vht Vehicle type.
+	 * @param et Engine type.
+	 * @param tod Time of day.
+	 * @param linkTravelTime Link travel times.
+	 * @param energyConsumptionParameters Energy consumption parameters (A, B, C, D) for a combination of vehicle type and engine type.
+	 * @param relativeFuelEfficiency Relative fuel efficiency compared to the base year.
+	 * @param energyUnitCosts Energy unit costs.
+	 * @param congestionCharges Congestion charges.
+	 * @param params Route choice parameters.
+	 * @return Route utility.
+	 */
+	public double getUtility(VehicleType vht, EngineType et, TimeOfDay tod, double[] linkTravelTime, Map<VehicleType, Map<EngineType, Map<WebTAG, Double>>> energyConsumptionParameters, Map<VehicleType, Map<EngineType, Double>> relativeFuelEfficiency, Map<EnergyType, Double> energyUnitCosts, List<PricingPolicy> congestionCharges, Map<RouteChoiceParams, Double> params) {
+		
+		return this.getUtility(vht, et, tod, linkTravelTime, null, energyConsumptionParameters, relativeFuelEfficiency, energyUnitCosts, congestionCharges, params);
+	}
+	
+	/**
+	 * Gets the utility of the route without storing it (or travel time and cost) in the route.
+	 * @param vht Vehicle type.
+	 * @param et Engine type.
+	 * @param tod Time of day.
+	 * @param linkTravelTime Link travel times.
+	 * @param linkSpeed Link speeds for the same link travel times (see {@link RoadNetwork#calculateLinkSpeeds(double[])}), or null.
+	 * @param energyConsumptionParameters Energy consumption parameters (A, B, C, D) for a combination of vehicle type and engine type.
+	 * @param relativeFuelEfficiency Relative fuel efficiency compared to the base year.
+	 * @param energyUnitCosts Energy unit costs.
+	 * @param congestionCharges Congestion charges.
+	 * @param params Route choice parameters.
+	 * @return Route utility.
+	 */
+	public double getUtility(VehicleType vht, EngineType et, TimeOfDay tod, double[] linkTravelTime, double[] linkSpeed, Map<VehicleType, Map<EngineType, Map<WebTAG, Double>>> energyConsumptionParameters, Map<VehicleType, Map<EngineType, Double>> relativeFuelEfficiency, Map<EnergyType, Double> energyUnitCosts, List<PricingPolicy> congestionCharges, Map<RouteChoiceParams, Double> params) {
+		
+		//if a single node route, utility is zero
+		if (this.edges.isEmpty() && this.singleNode != null) return 0.0;
+		
+		double length = this.length;
+		if (Double.compare(length, 0.0d) == 0) {
+			length = this.sumLength();
+			this.length = length; //calculate only once (length does not change until an edge is added)
+		}
+		
+		double time = this.getTravelTime(linkTravelTime, params.get(RouteChoiceParams.DELAY));
+		double cost = this.getCost(vht, et, tod, linkTravelTime, linkSpeed, energyConsumptionParameters, relativeFuelEfficiency, energyUnitCosts, congestionCharges);
+		
+		return this.getUtility(length, time, cost, params);
+	}
+	
+	/**
+	 * Calculates the utility from route attributes.
+	 * @param length Route length.
+	 * @param time Route travel time.
+	 * @param cost Route cost.
+	 * @param params Route choice parameters.
+	 * @return Route utility.
+	 */
+	private double getUtility(double length, double time, double cost, Map<RouteChoiceParams, Double> params) {
+		
+		int intersec = this.intersections;
 		
 		double paramTime = params.get(RouteChoiceParams.TIME);
 		double paramLength = params.get(RouteChoiceParams.LENGTH);
 		double paramCost = params.get(RouteChoiceParams.COST);
 		double paramIntersections = params.get(RouteChoiceParams.INTERSEC);
 		
-		double utility = paramTime * time + paramLength * length + paramCost * cost + paramIntersections * intersec;  
-		this.utility = utility;
+		return paramTime * time + paramLength * length + paramCost * cost + paramIntersections * intersec;
+	}
+	
+	/**
+	 * Sums the lengths of the route edges.
+	 * @return Route length.
+	 */
+	private double sumLength() {
+		
+		double length = 0.0;
+		for (int i = 0; i < this.edges.size(); i++)
+			length += roadNetwork.getEdgeLength(this.edges.getQuick(i));
+		return length;
 	}
 	
 	/**
@@ -476,10 +665,7 @@ public class Route {
 	 */
 	public int getNumberOfIntersections() {
 		
-		if (this.edges.isEmpty())
-			return 0;
-		else 
-			return (this.edges.size() - 1);
+		return this.intersections;
 	}
 	
 	/**
@@ -582,6 +768,9 @@ public class Route {
 	        return false;
 	    }
 	    final Route other = (Route) obj;
+	    if (this.edges == other.edges) { //interned routes share the edge list
+	    	return true;
+	    }
 	    if ((this.edges == null) ? (other.edges != null) : !this.edges.equals(other.edges)) {
 	        return false;
 	    }
@@ -672,4 +861,30 @@ public class Route {
 		
 		return sb.toString();
 	}
+	
+	/**
+	 * Pricing policies checked by the route (indexed by their position in the list of congestion charges) and whether the route crosses them.
+	 * The arrays are copied when a policy is added, so the crossings can be read by multiple threads without locking.
+	 */
+	private static final class PolicyCrossings {
+		
+		private final PricingPolicy[] policies;
+		private final boolean[] crosses;
+		
+		/**
+		 * Constructor.
+		 * @param previous Previously checked policies (can be null).
+		 * @param index Position of the checked policy.
+		 * @param policy Checked policy.
+		 * @param crosses Whether the route crosses the policy.
+		 */
+		private PolicyCrossings(PolicyCrossings previous, int index, PricingPolicy policy, boolean crosses) {
+			
+			int size = (previous == null) ? index + 1 : Math.max(previous.policies.length, index + 1);
+			this.policies = (previous == null) ? new PricingPolicy[size] : Arrays.copyOf(previous.policies, size);
+			this.crosses = (previous == null) ? new boolean[size] : Arrays.copyOf(previous.crosses, size);
+			this.policies[index] = policy;
+			this.crosses[index] = crosses;
+		}
+	}
 }
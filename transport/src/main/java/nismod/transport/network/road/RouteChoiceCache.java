@@ -0,0 +1,193 @@
+package nismod.transport.network.road;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import nismod.transport.decision.PricingPolicy;
+import nismod.transport.network.road.RoadNetworkAssignment.EnergyType;
+import nismod.transport.network.road.RoadNetworkAssignment.EngineType;
+import nismod.transport.network.road.RoadNetworkAssignment.TimeOfDay;
+import nismod.transport.network.road.RoadNetworkAssignment.VehicleType;
+import nismod.transport.network.road.Route.WebTAG;
+import nismod.transport.network.road.RouteSet.RouteChoiceParams;
+
+/**
+ * Cache of route choice probabilities (as cumulative distributions) for each route set, time of day, vehicle type and engine type.
+ * Within one assignment pass link travel times do not change, so the probabilities are the same for all the trips with the same
+ * combination and only need to be calculated once. The cache must be invalidated when link travel times (or costs) change, and it is
+ * cleared automatically when it is used with different route choice parameters (i.e. by another assignment pass).
+ * It can be used by multiple threads at the same time.
+ * @author Milan Lovric
+ *
+ */
+public class RouteChoiceCache {
+
+	private final static Logger LOGGER = LogManager.getLogger(RouteChoiceCache.class);
+
+	private static final int VEHICLE_TYPES = VehicleType.values().length;
+	private static final int ENGINE_TYPES = EngineType.values().length;
+
+	private final ConcurrentHashMap<RouteSet, Entry> cumulativeProbabilities = new ConcurrentHashMap<RouteSet, Entry>();
+	private volatile Map<RouteChoiceParams, Double> params; //route choice parameters of the cached probabilities
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+
+	/**
+	 * Immutable list of the cumulative probabilities of one route set.
+	 */
+	private static final class Entry {
+
+		private final int combination;
+		private final double[] cdf;
+		private final Entry next;
+
+		private Entry(int combination, double[] cdf, Entry next) {
+
+			this.combination = combination;
+			this.cdf = cdf;
+			this.next = next;
+		}
+	}
+
+	/**
+	 * Chooses a route from the route set using the cached cumulative probabilities (calculated and cached if not available).
+	 * @param rs Route set (with more than one route).
+	 * @param vht Vehicle type.
+	 * @param et Engine type.
+	 * @param tod Time of day.
+	 * @param linkTravelTime Link travel times.
+	 * @param linkSpeed Link speeds for the same link travel times (see {@link RoadNetwork#calculateLinkSpeeds(double[])}), or null.
+	 * @param energyConsumptionParameters Base year energy consumption parameters.
+	 * @param relativeFuelEfficiency Relative fuel efficiency compared to the base year.
+	 * @param energyUnitCosts Energy unit costs.
+	 * @param congestionCharges Congestion charges.
+	 * @param params Route choice parameters.
+	 * @param scratch Buffers used for calculating the probabilities.
+	 * @param random Random number between 0 and 1.
+	 * @return Chosen route (null if no route is chosen).
+	 */
+	public Route choose(RouteSet rs, VehicleType vht, EngineType et, TimeOfDay tod, double[] linkTravelTime, double[] linkSpeed, Map<VehicleType, Map<EngineType, Map<WebTAG, Double>>> energyConsumptionParameters, Map<VehicleType, Map<EngineType, Double>> relativeFuelEfficiency, Map<EnergyType, Double> energyUnitCosts, List<PricingPolicy> congestionCharges, Map<RouteChoiceParams, Double> params, RouteChoiceScratch scratch, double random) {
+
+		double[] cdf = this.getCumulativeProbabilities(rs, vht, et, tod, linkTravelTime, linkSpeed, energyConsumptionParameters, relativeFuelEfficiency, energyUnitCosts, congestionCharges, params, scratch);
+		int index = search(cdf, random);
+		return (index < 0) ? null : rs.getChoiceSet().get(index);
+	}
+
+	/**
+	 * Gets the cumulative choice probabilities of the routes (calculates and caches them if not available).
+	 * @param rs Route set.
+	 * @param vht Vehicle type.
+	 * @param et Engine type.
+	 * @param tod Time of day.
+	 * @param linkTravelTime Link travel times.
+	 * @param linkSpeed Link speeds for the same link travel times (see {@link RoadNetwork#calculateLinkSpeeds(double[])}), or null.
+	 * @param energyConsumptionParameters Base year energy consumption parameters.
+	 * @param relativeFuelEfficiency Relative fuel efficiency compared to the base year.
+	 * @param energyUnitCosts Energy unit costs.
+	 * @param congestionCharges Congestion charges.
+	 * @param params Route choice parameters.
+	 * @param scratch Buffers used for calculating the probabilities.
+	 * @return Cumulative probabilities (must not be modified).
+	 */
+	public double[] getCumulativeProbabilities(RouteSet rs, VehicleType vht, EngineType et, TimeOfDay tod, double[] linkTravelTime, double[] linkSpeed, Map<VehicleType, Map<EngineType, Map<WebTAG, Double>>> energyConsumptionParameters, Map<VehicleType, Map<EngineType, Double>> relativeFuelEfficiency, Map<EnergyType, Double> energyUnitCosts, List<PricingPolicy> congestionCharges, Map<RouteChoiceParams, Double> params, RouteChoiceScratch scratch) {
+
+		if (params != this.params) this.switchParams(params);
+
+		int combination = (tod.ordinal() * VEHICLE_TYPES + vht.ordinal()) * ENGINE_TYPES + et.ordinal();
+		for (Entry entry = this.cumulativeProbabilities.get(rs); entry != null; entry = entry.next)
+			if (entry.combination == combination) {
+				this.hits.increment();
+				return entry.cdf;
+			}
+		this.misses.increment();
+
+		final int size = rs.getSize();
+		scratch.ensureCapacity(size);
+		rs.calculateUtilities(vht, et, tod, linkTravelTime, linkSpeed, energyConsumptionParameters, relativeFuelEfficiency, energyUnitCosts, congestionCharges, params, scratch.getUtilities());
+		rs.calculateProbabilities(scratch.getUtilities(), scratch.getProbabilities());
+
+		//cumulated in the same order as when choosing the route from the probabilities
+		final double[] cdf = new double[size];
+		double[] probabilities = scratch.getProbabilities();
+		double cumulativeProbability = 0.0;
+		for (int index = 0; index < size; index++) {
+			cumulativeProbability += probabilities[index];
+			cdf[index] = cumulativeProbability;
+		}
+
+		//if another thread has cached the same combination in the meantime, the entry is just duplicated
+		this.cumulativeProbabilities.compute(rs, (key, head) -> new Entry(combination, cdf, head));
+
+		return cdf;
+	}
+
+	/**
+	 * Finds the index of the first cumulative probability that is larger than the random number.
+	 * @param cdf Cumulative probabilities.
+	 * @param random Random number between 0 and 1.
+	 * @return Index, or -1 if there is no such index.
+	 */
+	public static int search(double[] cdf, double random) {
+
+		int low = 0;
+		int high = cdf.length; //exclusive
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (Double.compare(cdf[middle], random) > 0) high = middle;
+			else low = middle + 1;
+		}
+		return (low == cdf.length) ? -1 : low;
+	}
+
+	/**
+	 * Invalidates all the cached probabilities (e.g. when link travel times change).
+	 */
+	public void invalidate() {
+
+		if (!this.cumulativeProbabilities.isEmpty())
+			LOGGER.debug("Invalidating route choice cache with {} route sets ({} hits, {} misses).", this.cumulativeProbabilities.size(), this.hits.sum(), this.misses.sum());
+		this.cumulativeProbabilities.clear();
+		this.hits.reset();
+		this.misses.reset();
+	}
+
+	/**
+	 * @return Number of route sets with cached probabilities.
+	 */
+	public int size() {
+
+		return this.cumulativeProbabilities.size();
+	}
+
+	/**
+	 * @return Number of times cached probabilities were used since the last invalidation.
+	 */
+	public long getHits() {
+
+		return this.hits.sum();
+	}
+
+	/**
+	 * @return Number of times probabilities were calculated since the last invalidation.
+	 */
+	public long getMisses() {
+
+		return this.misses.sum();
+	}
+
+	/**
+	 * Clears the cache if it is used with different route choice parameters.
+	 * @param params Route choice parameters.
+	 */
+	private synchronized void switchParams(Map<RouteChoiceParams, Double> params) {
+
+		if (params == this.params) return; //already switched by another thread
+		this.invalidate();
+		this.params = params;
+	}
+}
@@ -0,0 +1,61 @@
+package nismod.transport.network.road;
+
+/**
+ * Buffers for route utilities and choice probabilities owned by the caller of the route choice
+ * (e.g. one per assignment thread), so that route sets and routes are not modified when choosing a route.
+ * The buffers grow to the size of the largest route set and are then reused.
+ * @author Milan Lovric
+ *
+ */
+public class RouteChoiceScratch {
+
+	private double[] utilities;
+	private double[] probabilities;
+
+	/**
+	 * Constructor.
+	 */
+	public RouteChoiceScratch() {
+
+		this(RouteSetGenerator.INITIAL_ROUTE_SET_CAPACITY);
+	}
+
+	/**
+	 * Constructor.
+	 * @param capacity Initial capacity (number of routes).
+	 */
+	public RouteChoiceScratch(int capacity) {
+
+		this.utilities = new double[capacity];
+		this.probabilities = new double[capacity];
+	}
+
+	/**
+	 * Makes sure that the buffers can hold the given number of routes.
+	 * @param size Number of routes.
+	 */
+	public void ensureCapacity(int size) {
+
+		if (size > this.utilities.length) {
+			int capacity = Math.max(size, 2 * this.utilities.length);
+			this.utilities = new double[capacity];
+			this.probabilities = new double[capacity];
+		}
+	}
+
+	/**
+	 * @return Utilities buffer (only the first elements, up to the size of the route set, are valid).
+	 */
+	public double[] getUtilities() {
+
+		return this.utilities;
+	}
+
+	/**
+	 * @return Probabilities buffer (only the first elements, up to the size of the route set, are valid).
+	 */
+	public double[] getProbabilities() {
+
+		return this.probabilities;
+	}
+}
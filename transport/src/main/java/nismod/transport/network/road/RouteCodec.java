@@ -0,0 +1,267 @@
+package nismod.transport.network.road;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.hash.TLongIntHashMap;
+
+/**
+ * Compact encoding of routes (sequences of edge IDs), which can be decoded route by route.
+ * Each route is stored as the number of edges followed by tokens (variable-length integers): a token is either
+ * the zig-zag encoded difference from the previous edge ID, or a reference to a segment of edges from a dictionary
+ * of frequent sub-paths (routes between nearby OD pairs share long common sub-paths).
+ * @author Milan Lovric
+ *
+ */
+public class RouteCodec {
+
+	public static final int DEFAULT_SEGMENT_LENGTH = 8; //number of edges in a dictionary segment
+	public static final int DEFAULT_MAX_SEGMENTS = 1 << 16; //maximum number of dictionary segments
+	public static final int DEFAULT_MIN_OCCURRENCES = 4; //minimum number of occurrences of a segment to be included in the dictionary
+	public static final int DEFAULT_SAMPLE_ROUTES = 200000; //maximum number of routes used for building the dictionary
+
+	private static final int NO_SEGMENT = -1;
+
+	private final int segmentLength;
+	private final int[][] segments;
+	private final TLongIntHashMap segmentHashToIndex; //hash of the segment edges to the index of the first segment with that hash
+
+	/**
+	 * Constructor.
+	 * @param segmentLength Number of edges in each segment.
+	 * @param segments Dictionary segments (can be empty).
+	 */
+	public RouteCodec(int segmentLength, int[][] segments) {
+
+		if (segmentLength < 2) throw new IllegalArgumentException("Segment length must be at least 2.");
+		for (int[] segment: segments)
+			if (segment.length != segmentLength) throw new IllegalArgumentException("All segments must have the same length.");
+
+		this.segmentLength = segmentLength;
+		this.segments = segments;
+		this.segmentHashToIndex = new TLongIntHashMap(Math.max(16, segments.length * 2), 0.5f, 0L, NO_SEGMENT);
+		for (int i = segments.length - 1; i >= 0; i--)
+			this.segmentHashToIndex.put(hash(segments[i], 0, segmentLength), i);
+	}
+
+	/**
+	 * Builds the codec with a dictionary of the most frequent segments in the routes (using the default settings).
+	 * @param routes Edge IDs of the routes.
+	 * @return Route codec.
+	 */
+	public static RouteCodec buildDictionary(List<int[]> routes) {
+
+		return buildDictionary(routes, DEFAULT_SEGMENT_LENGTH, DEFAULT_MAX_SEGMENTS, DEFAULT_MIN_OCCURRENCES, DEFAULT_SAMPLE_ROUTES);
+	}
+
+	/**
+	 * Builds the codec with a dictionary of the most frequent segments in the routes.
+	 * @param routes Edge IDs of the routes.
+	 * @param segmentLength Number of edges in each segment.
+	 * @param maxSegments Maximum number of segments.
+	 * @param minOccurrences Minimum number of occurrences of a segment.
+	 * @param sampleRoutes Maximum number of routes (evenly spread) used for counting the segments.
+	 * @return Route codec.
+	 */
+	public static RouteCodec buildDictionary(List<int[]> routes, int segmentLength, int maxSegments, int minOccurrences, int sampleRoutes) {
+
+		int step = Math.max(1, routes.size() / Math.max(1, sampleRoutes));
+
+		//count occurrences of all the segments (the position of the first occurrence is used for ties)
+		final Map<TIntArrayList, int[]> counts = new HashMap<TIntArrayList, int[]>();
+		int position = 0;
+		for (int r = 0; r < routes.size(); r += step) {
+			int[] edges = routes.get(r);
+			for (int i = 0; i + segmentLength <= edges.length; i++) {
+				TIntArrayList segment = TIntArrayList.wrap(Arrays.copyOfRange(edges, i, i + segmentLength));
+				int[] count = counts.get(segment);
+				if (count == null) counts.put(segment, new int[] {1, position++});
+				else count[0]++;
+			}
+		}
+
+		List<TIntArrayList> candidates = new ArrayList<TIntArrayList>();
+		for (Map.Entry<TIntArrayList, int[]> entry: counts.entrySet())
+			if (entry.getValue()[0] >= minOccurrences) candidates.add(entry.getKey());
+		Collections.sort(candidates, new Comparator<TIntArrayList>() {
+			@Override
+			public int compare(TIntArrayList s1, TIntArrayList s2) {
+				int result = Integer.compare(counts.get(s2)[0], counts.get(s1)[0]);
+				return (result != 0) ? result : Integer.compare(counts.get(s1)[1], counts.get(s2)[1]);
+			}
+		});
+
+		int[][] segments = new int[Math.min(maxSegments, candidates.size())][];
+		for (int i = 0; i < segments.length; i++) segments[i] = candidates.get(i).toArray();
+
+		return new RouteCodec(segmentLength, segments);
+	}
+
+	/**
+	 * Encodes the route.
+	 * @param edges Edge IDs of the route.
+	 * @param out Buffer into which the route is encoded (it must have enough space, see {@link #maxEncodedBytes(int)}).
+	 */
+	public void encode(int[] edges, ByteBuffer out) {
+
+		putVarint(out, edges.length);
+		int previous = 0;
+		int i = 0;
+		while (i < edges.length) {
+			int segment = (i + this.segmentLength <= edges.length) ? this.findSegment(edges, i) : NO_SEGMENT;
+			if (segment != NO_SEGMENT) {
+				putVarint(out, ((long) segment << 1) | 1L);
+				i += this.segmentLength;
+			} else {
+				long delta = (long) edges[i] - previous;
+				putVarint(out, ((delta << 1) ^ (delta >> 63)) << 1); //zig-zag
+				i++;
+			}
+			previous = edges[i - 1];
+		}
+	}
+
+	/**
+	 * Decodes the route.
+	 * @param in Buffer positioned at the start of the encoded route (it is positioned after the route when done).
+	 * @return Edge IDs of the route.
+	 */
+	public int[] decode(ByteBuffer in) {
+
+		int[] edges = new int[(int) getVarint(in)];
+		int previous = 0;
+		int i = 0;
+		while (i < edges.length) {
+			long token = getVarint(in);
+			if ((token & 1L) != 0) {
+				System.arraycopy(this.segments[(int) (token >>> 1)], 0, edges, i, this.segmentLength);
+				i += this.segmentLength;
+			} else {
+				long zigzag = token >>> 1;
+				edges[i++] = (int) (previous + ((zigzag >>> 1) ^ -(zigzag & 1L)));
+			}
+			previous = edges[i - 1];
+		}
+
+		return edges;
+	}
+
+	/**
+	 * Calculates the number of bytes of the encoded route.
+	 * @param edges Edge IDs of the route.
+	 * @return Number of bytes.
+	 */
+	public int encodedBytes(int[] edges) {
+
+		int bytes = varintBytes(edges.length);
+		int previous = 0;
+		int i = 0;
+		while (i < edges.length) {
+			int segment = (i + this.segmentLength <= edges.length) ? this.findSegment(edges, i) : NO_SEGMENT;
+			if (segment != NO_SEGMENT) {
+				bytes += varintBytes(((long) segment << 1) | 1L);
+				i += this.segmentLength;
+			} else {
+				long delta = (long) edges[i] - previous;
+				bytes += varintBytes(((delta << 1) ^ (delta >> 63)) << 1);
+				i++;
+			}
+			previous = edges[i - 1];
+		}
+
+		return bytes;
+	}
+
+	/**
+	 * @param edges Number of edges of the route.
+	 * @return Maximum number of bytes of the encoded route.
+	 */
+	public static int maxEncodedBytes(int edges) {
+
+		return 5 + 10 * edges;
+	}
+
+	/**
+	 * @return Number of edges in each dictionary segment.
+	 */
+	public int getSegmentLength() {
+
+		return this.segmentLength;
+	}
+
+	/**
+	 * @return Dictionary segments.
+	 */
+	public int[][] getSegments() {
+
+		return this.segments;
+	}
+
+	/**
+	 * Finds the dictionary segment that matches the edges at the given position.
+	 * @param edges Edge IDs of the route.
+	 * @param from Position in the route.
+	 * @return Index of the segment, or NO_SEGMENT.
+	 */
+	private int findSegment(int[] edges, int from) {
+
+		if (this.segments.length == 0) return NO_SEGMENT;
+		int index = this.segmentHashToIndex.get(hash(edges, from, this.segmentLength));
+		if (index == NO_SEGMENT) return NO_SEGMENT;
+
+		//hash collisions are not encoded as segments
+		int[] segment = this.segments[index];
+		for (int j = 0; j < this.segmentLength; j++)
+			if (segment[j] != edges[from + j]) return NO_SEGMENT;
+
+		return index;
+	}
+
+	private static long hash(int[] edges, int from, int length) {
+
+		long hash = 1125899906842597L;
+		for (int j = from; j < from + length; j++)
+			hash = 31L * hash + edges[j];
+		return hash;
+	}
+
+	private static void putVarint(ByteBuffer out, long value) {
+
+		while ((value & ~0x7FL) != 0) {
+			out.put((byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		out.put((byte) value);
+	}
+
+	private static long getVarint(ByteBuffer in) {
+
+		long value = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = in.get();
+			value |= (long) (b & 0x7F) << shift;
+			shift += 7;
+		} while (b < 0);
+
+		return value;
+	}
+
+	private static int varintBytes(long value) {
+
+		int bytes = 1;
+		while ((value & ~0x7FL) != 0) {
+			bytes++;
+			value >>>= 7;
+		}
+		return bytes;
+	}
+}
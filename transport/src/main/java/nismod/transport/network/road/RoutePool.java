@@ -0,0 +1,213 @@
+package nismod.transport.network.road;
+
+import java.io.ObjectInput;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Random;
+
+import gnu.trove.TIntCollection;
+import gnu.trove.function.TIntFunction;
+import gnu.trove.list.array.TIntArrayList;
+
+/**
+ * Pool of interned edge sequences of routes. Identical edge sequences (e.g. from merged route files,
+ * or routes found again by A* when choosing a route) are stored only once, in trimmed arrays,
+ * and each unique sequence gets a dense integer ID.
+ * The shared edge lists returned by the pool are unmodifiable. The pool does not know which routes still use
+ * its sequences, so the unused ones are dropped by interning the remaining routes into a new pool (see {@link #compact(Collection)}).
+ * @author Milan Lovric
+ *
+ */
+public class RoutePool {
+
+	private static final int NO_ID = -1;
+	private static final int INITIAL_CAPACITY = 1024;
+
+	private TIntArrayList[] sequences; //shared (trimmed and unmodifiable) edge lists, indexed by ID
+	private int[] hashes; //hash code of each sequence, indexed by ID
+	private int[] table; //open addressing hash table of IDs (linear probing)
+	private int size;
+	private long internedCount; //number of intern requests
+
+	/**
+	 * Constructor.
+	 */
+	public RoutePool() {
+
+		this.sequences = new TIntArrayList[INITIAL_CAPACITY];
+		this.hashes = new int[INITIAL_CAPACITY];
+		this.table = new int[INITIAL_CAPACITY * 2];
+		Arrays.fill(this.table, NO_ID);
+	}
+
+	/**
+	 * Interns the edge sequence.
+	 * @param edges Edge IDs (the list is not modified and is only stored if it is a shared edge list of a pool).
+	 * @return ID of the pooled sequence.
+	 */
+	public synchronized int intern(TIntArrayList edges) {
+
+		this.internedCount++;
+
+		int hash = edges.hashCode(); //the same hash as the route hash code
+		int mask = this.table.length - 1;
+		int slot = mix(hash) & mask;
+		while (this.table[slot] != NO_ID) {
+			int id = this.table[slot];
+			if (this.hashes[id] == hash && this.sequences[id].equals(edges)) return id;
+			slot = (slot + 1) & mask;
+		}
+
+		if (this.size == this.sequences.length) {
+			this.sequences = Arrays.copyOf(this.sequences, this.size * 2);
+			this.hashes = Arrays.copyOf(this.hashes, this.size * 2);
+		}
+		int id = this.size++;
+		//shared edge lists (e.g. from the pool that is being compacted) are already trimmed and unmodifiable
+		this.sequences[id] = (edges instanceof UnmodifiableEdgeList) ? edges : new UnmodifiableEdgeList(edges.toArray());
+		this.hashes[id] = hash;
+		this.table[slot] = id;
+
+		if (this.size * 2 > this.table.length) this.rehash(); //keep the load factor at most 0.5
+
+		return id;
+	}
+
+	/**
+	 * Gets the shared edge list of the pooled sequence (it cannot be modified).
+	 * @param id Sequence ID.
+	 * @return Edge IDs.
+	 */
+	public synchronized TIntArrayList getEdges(int id) {
+
+		return this.sequences[id];
+	}
+
+	/**
+	 * Checks whether the edge list is the shared edge list of the pooled sequence.
+	 * @param id Sequence ID (can be -1 or the ID from another pool).
+	 * @param edges Edge list.
+	 * @return True if the edge list is interned in this pool under the given ID.
+	 */
+	public synchronized boolean isInterned(int id, TIntArrayList edges) {
+
+		return id >= 0 && id < this.size && this.sequences[id] == edges;
+	}
+
+	/**
+	 * @return Number of unique edge sequences.
+	 */
+	public synchronized int size() {
+
+		return this.size;
+	}
+
+	/**
+	 * @return Number of interned sequences (including duplicates).
+	 */
+	public synchronized long getInternedCount() {
+
+		return this.internedCount;
+	}
+
+	/**
+	 * Estimates the memory footprint of the pool (edge lists and hash table) in bytes.
+	 * @return Estimated memory footprint in bytes.
+	 */
+	public synchronized long getEstimatedMemoryFootprint() {
+
+		long bytes = 16 + 4L * this.sequences.length + 16 + 4L * this.hashes.length + 16 + 4L * this.table.length;
+		for (int id = 0; id < this.size; id++)
+			bytes += 24 + ((16 + 4L * this.sequences[id].size() + 7) & ~7L); //list object and trimmed array
+		return bytes;
+	}
+
+	/**
+	 * Creates a new pool with only the edge sequences of the given route sets (the sequences no longer used by any route are dropped).
+	 * The routes are interned into the new pool, which reuses the shared edge lists of this pool.
+	 * @param routeSets Route sets whose routes remain stored.
+	 * @return Compacted pool.
+	 */
+	public static RoutePool compact(Collection<RouteSet> routeSets) {
+
+		RoutePool pool = new RoutePool();
+		for (RouteSet rs: routeSets)
+			for (Route route: rs.getChoiceSet())
+				route.intern(pool);
+		return pool;
+	}
+
+	/**
+	 * Doubles the hash table.
+	 */
+	private void rehash() {
+
+		this.table = new int[this.table.length * 2];
+		Arrays.fill(this.table, NO_ID);
+		int mask = this.table.length - 1;
+		for (int id = 0; id < this.size; id++) {
+			int slot = mix(this.hashes[id]) & mask;
+			while (this.table[slot] != NO_ID) slot = (slot + 1) & mask;
+			this.table[slot] = id;
+		}
+	}
+
+	/**
+	 * Spreads the bits of the hash code (so that similar edge sequences do not cluster in the table).
+	 * @param hash Hash code.
+	 * @return Mixed hash code.
+	 */
+	private static int mix(int hash) {
+
+		int h = hash * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	/**
+	 * Edge list of a pooled sequence, which cannot be modified as it is shared by all the routes with the same edges.
+	 */
+	private static final class UnmodifiableEdgeList extends TIntArrayList {
+
+		private UnmodifiableEdgeList(int[] edges) {
+
+			super(edges, 0, true); //wraps the trimmed array
+		}
+
+		@Override public boolean add(int val) { throw new UnsupportedOperationException(); }
+		@Override public void add(int[] vals) { throw new UnsupportedOperationException(); }
+		@Override public void add(int[] vals, int offset, int length) { throw new UnsupportedOperationException(); }
+		@Override public void insert(int offset, int value) { throw new UnsupportedOperationException(); }
+		@Override public void insert(int offset, int[] values) { throw new UnsupportedOperationException(); }
+		@Override public void insert(int offset, int[] values, int valOffset, int len) { throw new UnsupportedOperationException(); }
+		@Override public int set(int offset, int val) { throw new UnsupportedOperationException(); }
+		@Override public int replace(int offset, int val) { throw new UnsupportedOperationException(); }
+		@Override public void set(int offset, int[] values) { throw new UnsupportedOperationException(); }
+		@Override public void set(int offset, int[] values, int valOffset, int length) { throw new UnsupportedOperationException(); }
+		@Override public void setQuick(int offset, int val) { throw new UnsupportedOperationException(); }
+		@Override public void clear() { throw new UnsupportedOperationException(); }
+		@Override public void clear(int capacity) { throw new UnsupportedOperationException(); }
+		@Override public void reset() { throw new UnsupportedOperationException(); }
+		@Override public void resetQuick() { throw new UnsupportedOperationException(); }
+		@Override public boolean remove(int value) { throw new UnsupportedOperationException(); }
+		@Override public int removeAt(int offset) { throw new UnsupportedOperationException(); }
+		@Override public void remove(int offset, int length) { throw new UnsupportedOperationException(); }
+		@Override public boolean addAll(Collection<? extends Integer> collection) { throw new UnsupportedOperationException(); }
+		@Override public boolean addAll(TIntCollection collection) { throw new UnsupportedOperationException(); }
+		@Override public boolean addAll(int[] array) { throw new UnsupportedOperationException(); }
+		@Override public boolean retainAll(Collection<?> collection) { throw new UnsupportedOperationException(); }
+		@Override public boolean retainAll(TIntCollection collection) { throw new UnsupportedOperationException(); }
+		@Override public boolean retainAll(int[] array) { throw new UnsupportedOperationException(); }
+		@Override public boolean removeAll(Collection<?> collection) { throw new UnsupportedOperationException(); }
+		@Override public boolean removeAll(TIntCollection collection) { throw new UnsupportedOperationException(); }
+		@Override public boolean removeAll(int[] array) { throw new UnsupportedOperationException(); }
+		@Override public void transformValues(TIntFunction function) { throw new UnsupportedOperationException(); }
+		@Override public void reverse() { throw new UnsupportedOperationException(); }
+		@Override public void reverse(int from, int to) { throw new UnsupportedOperationException(); }
+		@Override public void shuffle(Random rand) { throw new UnsupportedOperationException(); }
+		@Override public void sort() { throw new UnsupportedOperationException(); }
+		@Override public void sort(int fromIndex, int toIndex) { throw new UnsupportedOperationException(); }
+		@Override public void fill(int val) { throw new UnsupportedOperationException(); }
+		@Override public void fill(int fromIndex, int toIndex, int val) { throw new UnsupportedOperationException(); }
+		@Override public void readExternal(ObjectInput in) { throw new UnsupportedOperationException(); }
+	}
+}
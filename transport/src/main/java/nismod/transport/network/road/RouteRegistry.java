@@ -0,0 +1,77 @@
+package nismod.transport.network.road;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import gnu.trove.map.custom_hash.TObjectIntCustomHashMap;
+import gnu.trove.strategy.IdentityHashingStrategy;
+
+/**
+ * Registry that assigns a dense integer ID to each route instance, so that routes can be referenced from primitive arrays.
+ * Routes are registered by identity (the same route object always gets the same ID).
+ * @author Milan Lovric
+ *
+ */
+public class RouteRegistry {
+
+	public static final int NO_ROUTE = -1; //ID used for trips without a route (e.g. minor road trips)
+
+	private final TObjectIntCustomHashMap<Route> routeToID;
+	private final List<Route> routes;
+
+	/**
+	 * Constructor.
+	 */
+	public RouteRegistry() {
+
+		this.routeToID = new TObjectIntCustomHashMap<Route>(new IdentityHashingStrategy<Route>(), 16, 0.5f, NO_ROUTE);
+		this.routes = new ArrayList<Route>();
+	}
+
+	/**
+	 * Registers the route (if not already registered) and returns its ID.
+	 * @param route Route.
+	 * @return Route ID (NO_ROUTE if route is null).
+	 */
+	public int register(Route route) {
+
+		if (route == null) return NO_ROUTE;
+
+		int id = this.routeToID.get(route);
+		if (id == NO_ROUTE) {
+			id = this.routes.size();
+			this.routes.add(route);
+			this.routeToID.put(route, id);
+		}
+
+		return id;
+	}
+
+	/**
+	 * Gets the route with the given ID.
+	 * @param id Route ID.
+	 * @return Route (null for NO_ROUTE).
+	 */
+	public Route getRoute(int id) {
+
+		if (id == NO_ROUTE) return null;
+		return this.routes.get(id);
+	}
+
+	/**
+	 * @return Number of registered routes.
+	 */
+	public int size() {
+
+		return this.routes.size();
+	}
+
+	/**
+	 * Removes all the routes from the registry.
+	 */
+	public void clear() {
+
+		this.routeToID.clear();
+		this.routes.clear();
+	}
+}
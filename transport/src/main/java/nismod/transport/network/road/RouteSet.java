@@ -22,6 +22,8 @@ import nismod.transport.utility.RandomSingleton;
 
 /**
  * RouteSet is a choice set of possible routes between an origin and a destination node.
+ * Route choice with caller-owned buffers ({@link RouteChoiceScratch}) does not modify the route set or its routes,
+ * so the same route set can be used by multiple threads at the same time.
  * @author Milan Lovric
  *
  */
@@ -34,7 +36,7 @@ public class RouteSet {
 	private List<Route> choiceSet;
 	//private ArrayList<Double> probabilities;
 	private double[] probabilities;
-	private double[] pathsizes;
+	private volatile double[] pathsizes; //calculated once, also by concurrent route choice
 	
 	private static RoadNetwork roadNetwork;
 	
@@ -212,6 +214,90 @@ public class RouteSet {
 		//this.sortRoutesOnUtility();
 	}
 	
+	/**
+	 * Calculates utilities of all the routes (corrected with pathsize) into the provided buffer,
+	 * without modifying the routes or the route set.
+	 * @param vht Vehicle type.
+	 * @param et Engine type.
+	 * @param tod Time of day.
+	 * @param linkTravelTime Link travel times.
+	 * @param linkSpeed Link speeds for the same link travel times (see {@link RoadNetwork#calculateLinkSpeeds(double[])}), or null.
+	 * @param energyConsumptionParameters Base year energy consumption parameters.
+	 * @param relativeFuelEfficiency Relative fuel efficiency compared to the base year.
+	 * @param energyUnitCosts Energy unit costs.
+	 * @param congestionCharges Congestion charges.
+	 * @param params Route choice parameters.
+	 * @param utilities Buffer for utilities (at least the size of the choice set).
+	 */
+	public void calculateUtilities(VehicleType vht, EngineType et, TimeOfDay tod, double[] linkTravelTime, double[] linkSpeed, Map<VehicleType, Map<EngineType, Map<WebTAG, Double>>> energyConsumptionParameters, Map<VehicleType, Map<EngineType, Double>> relativeFuelEfficiency, Map<EnergyType, Double> energyUnitCosts, List<PricingPolicy> congestionCharges, Map<RouteChoiceParams, Double> params, double[] utilities) {
+		
+		final int size = this.choiceSet.size();
+		//pathsizes are calculated first, as they also store route lengths (which then do not need to be summed again)
+		double[] pathsizes = (size == 1) ? null : this.getOrCalculatePathsizes();
+		
+		for (int index = 0; index < size; index++)
+			utilities[index] = this.choiceSet.get(index).getUtility(vht, et, tod, linkTravelTime, linkSpeed, energyConsumptionParameters, relativeFuelEfficiency, energyUnitCosts, congestionCharges, params);
+		
+		if (size == 1) return; //pathsize correction not needed for just one route
+		
+		//correct for correlation with path-size
+		for (int index = 0; index < size; index++)
+			if (pathsizes[index] > 0) utilities[index] += Math.log(pathsizes[index]);
+	}
+	
+	/**
+	 * Calculates choice probabilities from the provided utilities using logit formula.
+	 * @param utilities Utilities of the routes (see {@link #calculateUtilities(VehicleType, EngineType, TimeOfDay, double[], double[], Map, Map, Map, List, Map, double[])}).
+	 * @param probabilities Buffer for probabilities (at least the size of the choice set).
+	 */
+	public void calculateProbabilities(double[] utilities, double[] probabilities) {
+		
+		final int size = this.choiceSet.size();
+		
+		//if just one route in the route set, set probability to 1.0
+		if (size == 1) {
+			probabilities[0] = 1.0;
+			return;
+		}
+		
+		double sum = 0.0;
+		for (int index = 0; index < size; index++) {
+			if (!this.choiceSet.get(index).getEdges().isEmpty() && Double.compare(utilities[index], 0.0d) == 0)
+				LOGGER.warn("Route with edges does not have a calculated utility! Probabilities will be wrongly calculated.");
+			else
+				sum += Math.exp(utilities[index]);
+		}
+		
+		for (int index = 0; index < size; index++)
+			probabilities[index] = Math.exp(utilities[index]) / sum;
+	}
+	
+	/**
+	 * Chooses a route using the route choice model, with utilities and probabilities calculated into caller-owned buffers
+	 * (the route set is not modified, so it is safe to call from multiple threads, each with its own buffers).
+	 * @param vht Vehicle type.
+	 * @param et Engine type.
+	 * @param tod Time of day.
+	 * @param linkTravelTime Link travel times.
+	 * @param linkSpeed Link speeds for the same link travel times (see {@link RoadNetwork#calculateLinkSpeeds(double[])}), or null.
+	 * @param energyConsumptionParameters Base year energy consumption parameters.
+	 * @param relativeFuelEfficiency Relative fuel efficiency compared to the base year.
+	 * @param energyUnitCosts Energy unit costs.
+	 * @param congestionCharges Congestion charges.
+	 * @param params Route choice parameters.
+	 * @param scratch Buffers for utilities and probabilities.
+	 * @param random Random number between 0 and 1.
+	 * @return Chosen route.
+	 */
+	public Route choose(VehicleType vht, EngineType et, TimeOfDay tod, double[] linkTravelTime, double[] linkSpeed, Map<VehicleType, Map<EngineType, Map<WebTAG, Double>>> energyConsumptionParameters, Map<VehicleType, Map<EngineType, Double>> relativeFuelEfficiency, Map<EnergyType, Double> energyUnitCosts, List<PricingPolicy> congestionCharges, Map<RouteChoiceParams, Double> params, RouteChoiceScratch scratch, double random) {
+		
+		scratch.ensureCapacity(this.choiceSet.size());
+		this.calculateUtilities(vht, et, tod, linkTravelTime, linkSpeed, energyConsumptionParameters, relativeFuelEfficiency, energyUnitCosts, congestionCharges, params, scratch.getUtilities());
+		this.calculateProbabilities(scratch.getUtilities(), scratch.getProbabilities());
+		
+		return this.choose(scratch.getProbabilities(), random);
+	}
+	
 	/**
 	 * Getter method for choice probabilities.
 	 * @return Choice probabilities.
@@ -259,12 +345,12 @@ public class RouteSet {
 	/**
 	 * Calculate path sizes (also calculates route lengths if they had not been calculated before).
 	 */
-	public void calculatePathsizes() {
+	public synchronized void calculatePathsizes() {
 		
-		this.pathsizes = new double[this.choiceSet.size()];
+		double[] pathsizes = new double[this.choiceSet.size()];
 
 		//if just one route in the route set, set pathsize to 1.0
-		if (this.choiceSet.size() == 1) this.pathsizes[0] = 1.0;
+		if (this.choiceSet.size() == 1) pathsizes[0] = 1.0;
 
 		else { //otherwise calculate pathsizes
 			for (int index = 0; index < this.choiceSet.size(); index++) {
@@ -288,9 +374,25 @@ public class RouteSet {
 						}
 					pathSize += firstTerm / secondTerm;
 				}
-				this.pathsizes[index] = pathSize;
+				pathsizes[index] = pathSize;
 			}
 		}
+		this.pathsizes = pathsizes; //published only when complete
+	}
+	
+	/**
+	 * Gets the pathsizes, calculating them first if they have not been pre-calculated.
+	 * @return Pathsizes.
+	 */
+	private double[] getOrCalculatePathsizes() {
+		
+		double[] pathsizes = this.pathsizes;
+		if (pathsizes == null)
+			synchronized (this) {
+				if (this.pathsizes == null) this.calculatePathsizes();
+				pathsizes = this.pathsizes;
+			}
+		return pathsizes;
 	}
 	
 	/**
@@ -300,15 +402,15 @@ public class RouteSet {
 		
 		if (this.choiceSet.size() == 1) return; //not needed for just one route
 		
+		//if pathsizes have not been pre-calculated, calculate here
+		double[] pathsizes = this.getOrCalculatePathsizes();
+		
 		for (int index = 0; index < this.choiceSet.size(); index++) {
 			//correct utility with pathsize
 			Route i = this.choiceSet.get(index);
 			double utility = i.getUtility();
 			
-			//if pathsizes have not been pre-calculated, calculate here
-			if (this.pathsizes == null) this.calculatePathsizes();
-			
-			double pathsize = this.pathsizes[index];
+			double pathsize = pathsizes[index];
 			if (pathsize > 0)
 				utility += Math.log(pathsize);
 			i.setUtility(utility);
@@ -375,13 +477,40 @@ public class RouteSet {
 		}
 				
 		RandomSingleton rng = RandomSingleton.getInstance();
+		
+		return this.choose(rng.nextDouble());
+	}
+	
+	/**
+	 * Chooses a route based on the probabilities and a provided random number
+	 * (e.g. drawn from a random number generator owned by an assignment thread).
+	 * @param random Random number between 0 and 1.
+	 * @return Chosen route.
+	 */
+	public Route choose(double random) {
+		
+		//probabilities must be calculated at least once
+		if (probabilities == null) {
+			LOGGER.error("Cannot choose the route before the choice probabilities are calculated!");
+			return null;
+		}
+			
+		return this.choose(this.probabilities, random);
+	}
+	
+	/**
+	 * Chooses a route based on the provided probabilities and random number.
+	 * @param probabilities Choice probabilities (at least the size of the choice set).
+	 * @param random Random number between 0 and 1.
+	 * @return Chosen route.
+	 */
+	public Route choose(double[] probabilities, double random) {
 			
 		//choose route
 		double cumulativeProbability = 0.0;
-		double random = rng.nextDouble();
 		int chosenIndex = -1;
 		for (int index = 0; index < choiceSet.size(); index++) {
-			cumulativeProbability += this.probabilities[index];
+			cumulativeProbability += probabilities[index];
 			if (Double.compare(cumulativeProbability, random) > 0) {
 				chosenIndex = index;
 				break;
@@ -7,6 +7,7 @@ import java.io.BufferedWriter;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.EOFException;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.FileReader;
@@ -14,13 +15,20 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
-import org.apache.commons.collections4.keyvalue.MultiKey;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.geotools.graph.build.line.BasicDirectedLineGraphBuilder;
@@ -29,10 +37,13 @@ import org.geotools.graph.structure.DirectedNode;
 import org.geotools.graph.structure.Node;
 import org.locationtech.jts.geom.Point;
 
+import gnu.trove.map.hash.TLongObjectHashMap;
+
 import nismod.transport.demand.FreightMatrix;
 import nismod.transport.demand.ODMatrixMultiKey;
 import nismod.transport.demand.RealODMatrixTempro;
 import nismod.transport.utility.RandomSingleton;
+import nismod.transport.utility.RandomStreams;
 import nismod.transport.zone.Zoning;
 
 /**
@@ -48,12 +59,23 @@ public class RouteSetGenerator{
 	//initial route set size
 	public static final int INITIAL_ROUTE_SET_CAPACITY = 7;
 	
-	//storage for route sets between node pairs
-	private RouteSet[][] routes;
+	//sparse storage for route sets between node pairs (keyed by origin and destination node ID packed into a long)
+	private TLongObjectHashMap<RouteSet> routes;
 	
 	private RoadNetwork roadNetwork;
 	private Properties props;
 	
+	//pool of interned edge sequences shared by all the stored routes
+	private RoutePool routePool = new RoutePool();
+	
+	//node pairs (with route and generation limits, null for defaults) collected for parallel generation, null when generating straight away
+	private Map<Long, int[]> pendingNodePairs;
+	
+	//indexed route files whose route sets are decoded only when they are needed
+	private List<IndexedRouteFile> routeFiles = new ArrayList<IndexedRouteFile>();
+	//route sets decoded from the indexed route files (kept apart from the route set storage, which is not thread-safe, until all are decoded)
+	private ConcurrentHashMap<Long, RouteSet> decodedRouteSets = new ConcurrentHashMap<Long, RouteSet>();
+	
 	/**
 	 * Constructor for the route set generator.
 	 * @param roadNetwork Road network.
@@ -64,8 +86,19 @@ public class RouteSetGenerator{
 		this.roadNetwork = roadNetwork;
 		this.props = props;
 		
-		int maxNodes = this.roadNetwork.getNodeIDtoNode().length;
-		routes = new RouteSet[maxNodes][maxNodes]; //access will be directly with node ID (without -1).
+		this.routes = new TLongObjectHashMap<RouteSet>();
+	}
+	
+	/**
+	 * Packs origin and destination node ID into a single key of the route set storage.
+	 * Keys are sorted in the same order as the node pairs (first by origin, then by destination).
+	 * @param origin Origin node ID.
+	 * @param destination Destination node ID.
+	 * @return Node pair key.
+	 */
+	public static long getNodePairKey(int origin, int destination) {
+		
+		return ((long) origin << 32) | (destination & 0xFFFFFFFFL);
 	}
 	
 	/**
@@ -88,11 +121,13 @@ public class RouteSetGenerator{
 		int origin = route.getOriginNode().getID();
 		int destination = route.getDestinationNode().getID();
 		
-		RouteSet set = this.routes[origin][destination];
+		long key = getNodePairKey(origin, destination);
+		RouteSet set = this.getStoredRouteSet(key);
 		if (set == null) {
 			set = new RouteSet(roadNetwork);
-			this.routes[origin][destination] = set;
+			this.routes.put(key, set);
 		}
+		route.intern(this.routePool);
 		set.addRoute(route);
 	}
 	
@@ -111,11 +146,13 @@ public class RouteSetGenerator{
 		int origin = route.getOriginNode().getID();
 		int destination = route.getDestinationNode().getID();
 		
-		RouteSet set = this.routes[origin][destination];
+		long key = getNodePairKey(origin, destination);
+		RouteSet set = this.getStoredRouteSet(key);
 		if (set == null) {
 			set = new RouteSet(roadNetwork);
-			this.routes[origin][destination] = set;
+			this.routes.put(key, set);
 		}
+		route.intern(this.routePool);
 		set.addRouteWithoutValidityCheck(route);
 		//set.addRouteWithoutValidityAndEndNodesCheck(route);
 		//set.addRouteWithoutAnyChecks(route);
@@ -127,20 +164,18 @@ public class RouteSetGenerator{
 	 */
 	public void removeRoutesWithEdge(int edgeID) {
 		
-		for (int i = 1; i < this.routes.length; i++)
-			for (int j = 1; j < this.routes[i].length; j++)
-				if (this.routes[i][j] != null) {
-					RouteSet rs = this.routes[i][j];
-					//iterate over all routes using iterator (to allow concurrent modification)
-					Iterator<Route> iter = rs.getChoiceSet().iterator();
-					while (iter.hasNext()) {
-						Route route = iter.next();
-						if (route.contains(edgeID)) iter.remove();
-					}
-				//rs.getChoiceSet().removeIf(route -> route.contains(edgeID)); //or alternatively, with Java 8
-				//recalculate path sizes!
-				rs.calculatePathsizes();
+		for (RouteSet rs: this.getRouteSets()) {
+			//iterate over all routes using iterator (to allow concurrent modification)
+			Iterator<Route> iter = rs.getChoiceSet().iterator();
+			while (iter.hasNext()) {
+				Route route = iter.next();
+				if (route.contains(edgeID)) iter.remove();
 			}
+			//rs.getChoiceSet().removeIf(route -> route.contains(edgeID)); //or alternatively, with Java 8
+			//recalculate path sizes!
+			rs.calculatePathsizes();
+		}
+		this.compactRoutePool(); //drop the edge sequences of the removed routes
 	}
 	
 	/**
@@ -150,22 +185,20 @@ public class RouteSetGenerator{
 	 */
 	public void removeRoutesWithEdge(int edgeID, List<Route> removedRoutes) {
 		
-		for (int i = 1; i < this.routes.length; i++)
-			for (int j = 1; j < this.routes[i].length; j++)
-				if (this.routes[i][j] != null) {
-					RouteSet rs = this.routes[i][j];
-					//iterate over all routes using iterator (to allow concurrent modification)
-					Iterator<Route> iter = rs.getChoiceSet().iterator();
-					while (iter.hasNext()) {
-						Route route = iter.next();
-						if (route.contains(edgeID)) {
-							removedRoutes.add(route);
-							iter.remove();
-						}
-					}
-				//recalculate path sizes!
-				rs.calculatePathsizes();
+		for (RouteSet rs: this.getRouteSets()) {
+			//iterate over all routes using iterator (to allow concurrent modification)
+			Iterator<Route> iter = rs.getChoiceSet().iterator();
+			while (iter.hasNext()) {
+				Route route = iter.next();
+				if (route.contains(edgeID)) {
+					removedRoutes.add(route);
+					iter.remove();
+				}
 			}
+			//recalculate path sizes!
+			rs.calculatePathsizes();
+		}
+		this.compactRoutePool(); //drop the edge sequences of the removed routes
 	}
 	
 	/**
@@ -179,8 +212,10 @@ public class RouteSetGenerator{
 				
 		RouteSet fetchedRouteSet = this.getRouteSet(origin, destination);
 		//generate only if it does not already exist
-		if (fetchedRouteSet == null)
-			generateRouteSetWithRandomLinkEliminationRestricted(origin, destination);
+		if (fetchedRouteSet == null) {
+			if (this.pendingNodePairs != null) this.pendingNodePairs.putIfAbsent(getNodePairKey(origin, destination), null);
+			else generateRouteSetWithRandomLinkEliminationRestricted(origin, destination);
+		}
 	}
 	
 	/**
@@ -267,6 +302,33 @@ public class RouteSetGenerator{
 	 * @param generationLimit Number of generation trials to get a potentially new route.
 	 */
 	public void generateRouteSetWithRandomLinkEliminationRestricted(int origin, int destination, int routeLimit, int generationLimit) {
+		
+		this.generateRouteSetWithRandomLinkEliminationRestricted(origin, destination, routeLimit, generationLimit, null);
+	}
+	
+	/**
+	 * Generates a route set between two nodes using the random link elimination method and a given random number stream.
+	 * @param origin Origin node ID.
+	 * @param destination Destination node ID.
+	 * @param routeLimit Maximum allowed number of generated routes.
+	 * @param generationLimit Number of generation trials to get a potentially new route.
+	 * @param random Random number stream of the node pair (null to use the global random number generator).
+	 */
+	public void generateRouteSetWithRandomLinkEliminationRestricted(int origin, int destination, int routeLimit, int generationLimit, SplittableRandom random) {
+
+		this.generateRouteSetWithRandomLinkEliminationRestricted(origin, destination, routeLimit, generationLimit, random, this.roadNetwork.isUsingCompactRouter());
+	}
+	
+	/**
+	 * Generates a route set between two nodes using the random link elimination method and a given random number stream.
+	 * @param origin Origin node ID.
+	 * @param destination Destination node ID.
+	 * @param routeLimit Maximum allowed number of generated routes.
+	 * @param generationLimit Number of generation trials to get a potentially new route.
+	 * @param random Random number stream of the node pair (null to use the global random number generator).
+	 * @param useCompactRouter True to find the paths with the compact graph router (which does not modify the network graph).
+	 */
+	private void generateRouteSetWithRandomLinkEliminationRestricted(int origin, int destination, int routeLimit, int generationLimit, SplittableRandom random, boolean useCompactRouter) {
 
 		RandomSingleton rng = RandomSingleton.getInstance();
 		
@@ -289,7 +351,7 @@ public class RouteSetGenerator{
 		//RouteSet rs = new RouteSet(originNode, destinationNode);
 
 		//find the fastest path from origin to destination (astar or dijkstra)
-		RoadPath fastestPath  = this.roadNetwork.getFastestPath(originNode, destinationNode, null);
+		RoadPath fastestPath  = this.roadNetwork.getFastestPath(originNode, destinationNode, null, useCompactRouter);
 		//RoadPath fastestPath  = this.roadNetwork.getFastestPathDijkstra(originNode, destinationNode, null);
 
 		if (fastestPath == null) {
@@ -322,75 +384,17 @@ public class RouteSetGenerator{
 
 			for (Object o: fastestPath.getEdges()) {
 
-				double[] linkTravelTimes = new double[this.roadNetwork.getFreeFlowTravelTime().length];
 				DirectedEdge edge = (DirectedEdge) o;
-				//System.out.printf("Blocking edge (%d)-%d->(%d) \n", edge.getInNode().getID(), edge.getID(), edge.getOutNode().getID());
-
-				//linkTravelTimes.put(edge.getID(), Double.POSITIVE_INFINITY); //blocks by setting a maximum travel time (does not work for astar)
-
-				//block the edge by removing it temporarily from the graph
-				BasicDirectedLineGraphBuilder graphBuilder = new BasicDirectedLineGraphBuilder();
-				graphBuilder.importGraph(this.roadNetwork.getNetwork());
-				int edgeID = edge.getID();
-				graphBuilder.removeEdge(edge);
-
-				//find the fastest path
-				RoadPath path = this.roadNetwork.getFastestPath(originNode, destinationNode, linkTravelTimes);
-				//RoadPath path = this.roadNetwork.getFastestPathDijkstra(originNode, destinationNode, linkTravelTimes);
-
-				//return the removed edge
-				graphBuilder.addEdge(edge);
-				edge.setID(edgeID);
-
-				if (path != null) {
-					//System.out.println("Nodes: " + path.toString());
-					//System.out.println("Path validity: " + path.isValid());
-					Route route = new Route(path, roadNetwork);
-					//System.out.println("Route: " + route.getFormattedString());
-					//rs.addRoute(route);
-					if (route.getOriginNode().equals(originNode) && route.getDestinationNode().equals(destinationNode))
-						this.addRoute(route);
-					else 
-						LOGGER.warn("Route generated with link elimination does not contain correct origin and destination nodes! Skipping this route.");
-				}
+				this.addRouteWithBlockedEdge(originNode, destinationNode, edge, useCompactRouter);
 			}
 		} else { //otherwise use the actual random link elimination method 
 
 			for (int i = 0; i < generationLimit; i++) {
 
-				int randomIndex = rng.nextInt(pathSizeInLinks);
+				int randomIndex = (random != null) ? random.nextInt(pathSizeInLinks) : rng.nextInt(pathSizeInLinks);
 				Object o = fastestPath.getEdges().get(randomIndex); //pick random edge
-				double[] linkTravelTimes = new double[this.roadNetwork.getFreeFlowTravelTime().length];
 				DirectedEdge edge = (DirectedEdge) o;
-				//System.out.printf("Blocking edge (%d)-%d->(%d) \n", edge.getInNode().getID(), edge.getID(), edge.getOutNode().getID());
-
-				//linkTravelTimes.put(edge.getID(), Double.POSITIVE_INFINITY); //blocks by setting a maximum travel time (does not work for astar)
-
-				//block the edge by removing it temporarily from the graph
-				BasicDirectedLineGraphBuilder graphBuilder = new BasicDirectedLineGraphBuilder();
-				graphBuilder.importGraph(this.roadNetwork.getNetwork());
-				int edgeID = edge.getID();
-				graphBuilder.removeEdge(edge);
-
-				//find the fastest path
-				RoadPath path = this.roadNetwork.getFastestPath(originNode, destinationNode, linkTravelTimes);
-				//RoadPath path = this.roadNetwork.getFastestPathDijkstra(originNode, destinationNode, linkTravelTimes);
-
-				//return the removed edge
-				graphBuilder.addEdge(edge);
-				edge.setID(edgeID);
-
-				if (path != null) {
-					//System.out.println("Nodes: " + path.toString());
-					//System.out.println("Path validity: " + path.isValid());
-					Route route = new Route(path, roadNetwork);
-					//System.out.println("Route: " + route.getFormattedString());
-					//rs.addRoute(route);
-					if (route.getOriginNode().equals(originNode) && route.getDestinationNode().equals(destinationNode))
-						this.addRoute(route);
-					else 
-						LOGGER.warn("Route generated with link elimination does not contain correct origin and destination nodes! Skipping this route.");
-				}
+				this.addRouteWithBlockedEdge(originNode, destinationNode, edge, useCompactRouter);
 				RouteSet rs = this.getRouteSet(origin, destination);
 				
 				//if (rs == null) ; //System.err.println("Empty routeset!");
@@ -400,6 +404,59 @@ public class RouteSetGenerator{
 		}
 	}
 	
+	/**
+	 * Finds the fastest path between two nodes with one edge blocked and adds it to the route set as a new route.
+	 * With the compact graph router, the edge is blocked only for the path query and the network graph is not modified.
+	 * Otherwise, the edge is temporarily removed from the network graph.
+	 * @param originNode Origin node.
+	 * @param destinationNode Destination node.
+	 * @param edge Edge to block.
+	 * @param useCompactRouter True to block the edge with the compact graph router.
+	 */
+	private void addRouteWithBlockedEdge(DirectedNode originNode, DirectedNode destinationNode, DirectedEdge edge, boolean useCompactRouter) {
+		
+		if (useCompactRouter) {
+			int[] edgeIDs = this.roadNetwork.getFastestPathEdges(originNode, destinationNode, null, edge.getID());
+			if (edgeIDs != null) {
+				Route route = new Route(this.roadNetwork);
+				for (int edgeID: edgeIDs) route.addEdgeWithoutValidityCheck(edgeID);
+				this.addRoute(route);
+			}
+			return;
+		}
+		
+		double[] linkTravelTimes = new double[this.roadNetwork.getFreeFlowTravelTime().length];
+		//System.out.printf("Blocking edge (%d)-%d->(%d) \n", edge.getInNode().getID(), edge.getID(), edge.getOutNode().getID());
+
+		//linkTravelTimes.put(edge.getID(), Double.POSITIVE_INFINITY); //blocks by setting a maximum travel time (does not work for astar)
+
+		//block the edge by removing it temporarily from the graph
+		BasicDirectedLineGraphBuilder graphBuilder = new BasicDirectedLineGraphBuilder();
+		graphBuilder.importGraph(this.roadNetwork.getNetwork());
+		int edgeID = edge.getID();
+		graphBuilder.removeEdge(edge);
+
+		//find the fastest path
+		RoadPath path = this.roadNetwork.getFastestPath(originNode, destinationNode, linkTravelTimes, false);
+		//RoadPath path = this.roadNetwork.getFastestPathDijkstra(originNode, destinationNode, linkTravelTimes);
+
+		//return the removed edge
+		graphBuilder.addEdge(edge);
+		edge.setID(edgeID);
+
+		if (path != null) {
+			//System.out.println("Nodes: " + path.toString());
+			//System.out.println("Path validity: " + path.isValid());
+			Route route = new Route(path, roadNetwork);
+			//System.out.println("Route: " + route.getFormattedString());
+			//rs.addRoute(route);
+			if (route.getOriginNode().equals(originNode) && route.getDestinationNode().equals(destinationNode))
+				this.addRoute(route);
+			else 
+				LOGGER.warn("Route generated with link elimination does not contain correct origin and destination nodes! Skipping this route.");
+		}
+	}
+	
 	/**
 	 * Generates routes between all combinations of nodes from two LAD zones
 	 * @param originLAD Origin LAD.
@@ -477,7 +534,8 @@ public class RouteSetGenerator{
 			else if (centroidDistance <= 100000) routeLimit = maxRouteLimit;
 			
 			LOGGER.trace("Route limit for centroidDistance = {} km is: {}", centroidDistance/1000, routeLimit);
-			generateRouteSetWithRandomLinkEliminationRestricted(originNode, destinationNode, routeLimit, generationLimit);
+			if (this.pendingNodePairs != null) this.pendingNodePairs.putIfAbsent(getNodePairKey(originNode, destinationNode), new int[] {routeLimit, generationLimit});
+			else generateRouteSetWithRandomLinkEliminationRestricted(originNode, destinationNode, routeLimit, generationLimit);
 		}
 	}
 		
@@ -532,12 +590,9 @@ public class RouteSetGenerator{
 	 */
 	public void generateRouteSetForODMatrix(ODMatrixMultiKey matrix, int topNodes) {
 		
-		for (MultiKey mk: matrix.getKeySet()) {
-				String originLAD = (String) ((MultiKey)mk).getKey(0);
-				String destinationLAD = (String) ((MultiKey)mk).getKey(1);
-				if (matrix.getFlow(originLAD, destinationLAD) != 0)
-					this.generateRouteSetZoneToZone(originLAD, destinationLAD, topNodes);
-		}
+		for (ODMatrixMultiKey.Cursor cell = matrix.cursor(); cell.next(); )
+				if (cell.getFlow() != 0)
+					this.generateRouteSetZoneToZone(cell.getOrigin(), cell.getDestination(), topNodes);
 	}
 	
 	/**
@@ -546,12 +601,9 @@ public class RouteSetGenerator{
 	 */
 	public void generateRouteSetForODMatrix(ODMatrixMultiKey matrix) {
 		
-		for (MultiKey mk: matrix.getKeySet()) {
-				String originLAD = (String) ((MultiKey)mk).getKey(0);
-				String destinationLAD = (String) ((MultiKey)mk).getKey(1);
-				if (matrix.getFlow(originLAD, destinationLAD) != 0)
-					this.generateRouteSetZoneToZone(originLAD, destinationLAD);
-		}
+		for (ODMatrixMultiKey.Cursor cell = matrix.cursor(); cell.next(); )
+				if (cell.getFlow() != 0)
+					this.generateRouteSetZoneToZone(cell.getOrigin(), cell.getDestination());
 	}
 	
 	/**
@@ -561,12 +613,9 @@ public class RouteSetGenerator{
 	 */
 	public void generateRouteSetForODMatrixTempro(ODMatrixMultiKey matrix, Zoning zoning) {
 		
-		for (MultiKey mk: matrix.getKeySet()) {
-				String originZone = (String) ((MultiKey)mk).getKey(0);
-				String destinationZone = (String) ((MultiKey)mk).getKey(1);
-				if (matrix.getFlow(originZone, destinationZone) != 0)
-					this.generateRouteSetZoneToZoneTempro(originZone, destinationZone, zoning);
-		}
+		for (ODMatrixMultiKey.Cursor cell = matrix.cursor(); cell.next(); )
+				if (cell.getFlow() != 0)
+					this.generateRouteSetZoneToZoneTempro(cell.getOrigin(), cell.getDestination(), zoning);
 	}
 	
 	
@@ -820,6 +869,198 @@ public class RouteSetGenerator{
 		}
 	}
 	
+	/**
+	 * Generates routes for the whole OD matrix in a single process, spreading node pairs over a work-stealing thread pool.
+	 * @param matrix Origin-destination matrix.
+	 * @param topNodes Number of topNodes to consider for inter-zonal routes (0 to use all nodes).
+	 * @param threads Number of threads (0 = all available processors).
+	 */
+	public void generateRouteSetForODMatrixParallel(ODMatrixMultiKey matrix, int topNodes, int threads) {
+		
+		this.pendingNodePairs = new LinkedHashMap<Long, int[]>();
+		Map<Long, int[]> nodePairs;
+		try {
+			if (topNodes > 0) this.generateRouteSetForODMatrix(matrix, 1, 1, topNodes);
+			else this.generateRouteSetForODMatrix(matrix, 1, 1);
+		} finally {
+			nodePairs = this.pendingNodePairs;
+			this.pendingNodePairs = null;
+		}
+		this.generateRouteSetsParallel(nodePairs, threads);
+	}
+	
+	/**
+	 * Generates routes for the whole Tempro OD matrix in a single process, spreading node pairs over a work-stealing thread pool.
+	 * The number of routes increases the smaller the distance between two Tempro zones.
+	 * @param matrix Origin-destination matrix.
+	 * @param zoning Tempro zoning system.
+	 * @param threads Number of threads (0 = all available processors).
+	 */
+	public void generateRouteSetForODMatrixTemproDistanceBasedParallel(RealODMatrixTempro matrix, Zoning zoning, int threads) {
+		
+		this.pendingNodePairs = new LinkedHashMap<Long, int[]>();
+		Map<Long, int[]> nodePairs;
+		try {
+			this.generateRouteSetForODMatrixTemproDistanceBased(matrix, zoning, 1, 1);
+		} finally {
+			nodePairs = this.pendingNodePairs;
+			this.pendingNodePairs = null;
+		}
+		this.generateRouteSetsParallel(nodePairs, threads);
+	}
+	
+	/**
+	 * Generates routes for the whole freight matrix in a single process, spreading node pairs over a work-stealing thread pool.
+	 * @param freightMatrix Freight matrix.
+	 * @param topNodes Number of topNodes to consider for inter-zonal routes (0 to use all nodes).
+	 * @param threads Number of threads (0 = all available processors).
+	 */
+	public void generateRouteSetForFreightMatrixParallel(FreightMatrix freightMatrix, int topNodes, int threads) {
+		
+		this.pendingNodePairs = new LinkedHashMap<Long, int[]>();
+		Map<Long, int[]> nodePairs;
+		try {
+			if (topNodes > 0) this.generateRouteSetForFreightMatrix(freightMatrix, 1, 1, topNodes);
+			else this.generateRouteSetForFreightMatrix(freightMatrix, 1, 1);
+		} finally {
+			nodePairs = this.pendingNodePairs;
+			this.pendingNodePairs = null;
+		}
+		this.generateRouteSetsParallel(nodePairs, threads);
+	}
+	
+	/**
+	 * Generates route sets for the collected node pairs in parallel and adds the new routes to the route storage.
+	 * Each node pair is generated by one task into its own route set, so workers do not share the route storage.
+	 * The task starts from a copy of the routes stored before, which count against the route limit (as in the single-threaded generation).
+	 * Each node pair also uses its own random number stream, so the routes do not depend on the number of threads.
+	 * @param nodePairs Node pair keys with route and generation limits (null for the limits from the config file).
+	 * @param threads Number of threads (0 = all available processors).
+	 */
+	private void generateRouteSetsParallel(Map<Long, int[]> nodePairs, int threads) {
+		
+		if (props == null) {
+			LOGGER.error("Route set generator does not have required parameters!");
+			return;
+		}
+		
+		final int routeLimit = Integer.parseInt(props.getProperty("ROUTE_LIMIT"));
+		final int generationLimit = Integer.parseInt(props.getProperty("GENERATION_LIMIT"));
+		
+		final int size = nodePairs.size();
+		final long[] keys = new long[size];
+		final int[][] limits = new int[size][];
+		int index = 0;
+		for (Map.Entry<Long, int[]> entry: nodePairs.entrySet()) {
+			keys[index] = entry.getKey();
+			limits[index] = (entry.getValue() != null) ? entry.getValue() : new int[] {routeLimit, generationLimit};
+			index++;
+		}
+		final RouteSet[] generatedRouteSets = new RouteSet[size];
+		
+		//routes stored before (decoded from the route files here, so the workers only read them)
+		final RouteSet[] storedRouteSets = new RouteSet[size];
+		for (int i = 0; i < size; i++) storedRouteSets[i] = this.getStoredRouteSet(keys[i]);
+		
+		if (threads <= 0) threads = Runtime.getRuntime().availableProcessors();
+		LOGGER.info("Generating route sets for {} node pairs using {} threads...", size, threads);
+		
+		final long startTime = System.nanoTime();
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			pool.invoke(new RouteSetGenerationTask(keys, limits, storedRouteSets, generatedRouteSets, RandomStreams.fromGlobalGenerator(), 0, size, new AtomicInteger(), startTime));
+		} finally {
+			pool.shutdown();
+		}
+		
+		//store generated route sets (which contain the routes stored before) in the node pair order
+		int failedPairs = 0;
+		for (int i = 0; i < size; i++) {
+			RouteSet set = generatedRouteSets[i];
+			if (set == null || set.getSize() == 0) failedPairs++;
+			else {
+				for (Route route: set.getChoiceSet()) route.intern(this.routePool);
+				this.decodedRouteSets.replace(keys[i], set); //if it was decoded from the route files
+				this.routes.put(keys[i], set);
+			}
+		}
+		
+		double seconds = (System.nanoTime() - startTime) / 1e9;
+		LOGGER.info("Generated {} route sets in {} s ({} route sets/sec). Failed node pairs: {}.", 
+				size - failedPairs, String.format("%.1f", seconds), String.format("%.1f", size / Math.max(seconds, 1e-9)), failedPairs);
+	}
+	
+	/**
+	 * Fork/join task that generates route sets for a range of node pairs (split until small enough, so idle workers can steal work).
+	 */
+	private class RouteSetGenerationTask extends RecursiveAction {
+		
+		private static final long serialVersionUID = 1L;
+		private static final int SEQUENTIAL_THRESHOLD = 8; //number of node pairs generated by a task without splitting it
+		
+		private final long[] keys;
+		private final int[][] limits;
+		private final RouteSet[] storedRouteSets;
+		private final RouteSet[] generatedRouteSets;
+		private final RandomStreams streams;
+		private final int from, to;
+		private final AtomicInteger completed;
+		private final long startTime;
+		
+		private RouteSetGenerationTask(long[] keys, int[][] limits, RouteSet[] storedRouteSets, RouteSet[] generatedRouteSets, RandomStreams streams, int from, int to, AtomicInteger completed, long startTime) {
+			
+			this.keys = keys;
+			this.limits = limits;
+			this.storedRouteSets = storedRouteSets;
+			this.generatedRouteSets = generatedRouteSets;
+			this.streams = streams;
+			this.from = from;
+			this.to = to;
+			this.completed = completed;
+			this.startTime = startTime;
+		}
+		
+		@Override
+		protected void compute() {
+			
+			if (this.to - this.from > SEQUENTIAL_THRESHOLD) {
+				int middle = (this.from + this.to) >>> 1;
+				invokeAll(new RouteSetGenerationTask(keys, limits, storedRouteSets, generatedRouteSets, streams, from, middle, completed, startTime),
+						  new RouteSetGenerationTask(keys, limits, storedRouteSets, generatedRouteSets, streams, middle, to, completed, startTime));
+				return;
+			}
+			
+			//generate into a local route storage, so the shared one is not modified concurrently
+			RouteSetGenerator generator = new RouteSetGenerator(roadNetwork, props);
+			final int progressStep = Math.max(1, keys.length / 20);
+			for (int i = this.from; i < this.to; i++) {
+				int origin = (int) (keys[i] >>> 32);
+				int destination = (int) keys[i];
+				//copy of the stored routes (shared routes are only read, so they are not interned into the local route pool)
+				if (storedRouteSets[i] != null) {
+					RouteSet set = new RouteSet(roadNetwork);
+					for (Route route: storedRouteSets[i].getChoiceSet()) set.addRouteWithoutAnyChecks(route);
+					generator.routes.put(keys[i], set);
+				}
+				try {
+					//the network graph cannot be modified by the workers, so edges are blocked by the compact router
+					generator.generateRouteSetWithRandomLinkEliminationRestricted(origin, destination, limits[i][0], limits[i][1], streams.getStream(origin, destination), true);
+					generatedRouteSets[i] = generator.getRouteSet(origin, destination);
+				} catch (Exception e) {
+					LOGGER.warn("Could not generate route set between nodes {} and {}: {}", origin, destination, e.getMessage());
+				}
+				generator.routes.clear();
+				
+				int done = completed.incrementAndGet();
+				if (done % progressStep == 0 || done == keys.length) {
+					double seconds = (System.nanoTime() - startTime) / 1e9;
+					LOGGER.info("Route set generation progress: {}/{} node pairs ({}%), {} route sets/sec.", 
+							done, keys.length, 100 * done / keys.length, String.format("%.1f", done / Math.max(seconds, 1e-9)));
+				}
+			}
+		}
+	}
+	
 	/**
 	 * Generates routes between two freight zones.
 	 * A freight zone can be either an LAD (&lt;= 1032) or a point.
@@ -973,7 +1214,133 @@ public class RouteSetGenerator{
 	 */
 	public RouteSet getRouteSet(int origin, int destination) {
 		
-		return this.routes[origin][destination];
+		return this.getStoredRouteSet(getNodePairKey(origin, destination));
+	}
+	
+	/**
+	 * Gets the stored route set, decoding its routes from the indexed route files if that has not been done yet.
+	 * Route sets can be fetched by the assignment workers while they are being decoded: decoded route sets are read
+	 * without locking and each route set is decoded only once (only the threads fetching the same route set wait for it).
+	 * @param key Node pair key.
+	 * @return Route set (null if there are no routes).
+	 */
+	private RouteSet getStoredRouteSet(long key) {
+		
+		if (this.routeFiles.isEmpty()) return this.routes.get(key);
+		
+		RouteSet set = this.decodedRouteSets.get(key);
+		if (set != null) return set;
+		if (!this.isInRouteFiles(key)) return this.routes.get(key);
+		
+		return this.decodedRouteSets.computeIfAbsent(key, this::decodeRouteSet);
+	}
+	
+	/**
+	 * Checks whether any of the indexed route files contains the route set.
+	 * @param key Node pair key.
+	 * @return True if the route set is in a route file.
+	 */
+	private boolean isInRouteFiles(long key) {
+		
+		for (IndexedRouteFile routeFile: this.routeFiles)
+			if (routeFile.indexOf(key) >= 0) return true;
+		return false;
+	}
+	
+	/**
+	 * Decodes the routes of the route set from the indexed route files and adds them to the routes stored before.
+	 * A new route set is not put into the route set storage, as other threads may be reading it.
+	 * @param key Node pair key.
+	 * @return Route set (null if there are no routes).
+	 */
+	private RouteSet decodeRouteSet(long key) {
+		
+		RouteSet set = this.routes.get(key);
+		for (IndexedRouteFile routeFile: this.routeFiles) {
+			int index = routeFile.indexOf(key);
+			if (index < 0) continue;
+			
+			for (int[] edges: routeFile.getRoutes(index)) {
+				if (edges.length == 0) continue;
+				Route route = new Route(roadNetwork);
+				for (int edgeID: edges)
+					route.addEdgeWithoutValidityCheck(edgeID);
+				route.intern(this.routePool);
+				if (set == null) set = new RouteSet(roadNetwork);
+				set.addRouteWithoutValidityCheck(route);
+			}
+		}
+		
+		return set;
+	}
+	
+	/**
+	 * Decodes all the route sets from the indexed route files (needed by the operations on all the route sets).
+	 */
+	private void decodeAllRouteSets() {
+		
+		if (this.routeFiles.isEmpty()) return;
+		
+		LOGGER.debug("Decoding all the route sets from the indexed route files...");
+		for (IndexedRouteFile routeFile: this.routeFiles)
+			for (int index = 0; index < routeFile.size(); index++)
+				this.getStoredRouteSet(routeFile.getKey(index));
+		
+		//all routes are now decoded, so they are moved into the storage and the files are no longer needed
+		for (Map.Entry<Long, RouteSet> entry: this.decodedRouteSets.entrySet())
+			this.routes.put(entry.getKey(), entry.getValue());
+		this.decodedRouteSets.clear();
+		this.routeFiles.clear();
+	}
+	
+	/**
+	 * Gets the route sets that are stored or have been decoded so far, without decoding the rest of the indexed route files.
+	 * @return Route sets.
+	 */
+	private List<RouteSet> getDecodedRouteSets() {
+		
+		List<RouteSet> sets = new ArrayList<RouteSet>(this.routes.valueCollection());
+		for (Map.Entry<Long, RouteSet> entry: this.decodedRouteSets.entrySet())
+			if (this.routes.get(entry.getKey()) != entry.getValue()) sets.add(entry.getValue());
+		return sets;
+	}
+	
+	/**
+	 * Getter method for all the stored (non-empty) route sets, in no particular order.
+	 * Route sets from the indexed route files that have not been used yet are decoded first.
+	 * @return Route sets.
+	 */
+	public Collection<RouteSet> getRouteSets() {
+		
+		this.decodeAllRouteSets();
+		return this.routes.valueCollection();
+	}
+	
+	/**
+	 * Gets all the stored route sets sorted by origin and destination node ID.
+	 * @return Sorted route sets.
+	 */
+	private List<RouteSet> getSortedRouteSets() {
+		
+		long[] keys = this.getSortedNodePairKeys();
+		List<RouteSet> sortedRouteSets = new ArrayList<RouteSet>(keys.length);
+		for (long key: keys)
+			sortedRouteSets.add(this.routes.get(key));
+		
+		return sortedRouteSets;
+	}
+	
+	/**
+	 * Gets the node pair keys of all the stored route sets, sorted by origin and destination node ID.
+	 * @return Sorted node pair keys.
+	 */
+	private long[] getSortedNodePairKeys() {
+		
+		this.decodeAllRouteSets();
+		long[] keys = this.routes.keys();
+		Arrays.sort(keys);
+		
+		return keys;
 	}
 	
 	/**
@@ -981,8 +1348,31 @@ public class RouteSetGenerator{
 	 */
 	public void clearRoutes() {
 		
-		for(int i = 0; i < routes.length; i++)
-			Arrays.fill(routes[i], null);
+		this.routes.clear();
+		this.routes.compact(); //release the memory of the hash table
+		this.routeFiles.clear();
+		this.decodedRouteSets.clear();
+		this.routePool = new RoutePool();
+	}
+	
+	/**
+	 * Drops the edge sequences that are no longer used by any stored route from the route pool
+	 * (route sets that are not decoded from the indexed route files yet have not been interned).
+	 */
+	public void compactRoutePool() {
+		
+		int sequences = this.routePool.size();
+		this.routePool = RoutePool.compact(this.getDecodedRouteSets());
+		LOGGER.debug("Route pool compacted from {} to {} unique edge sequences.", sequences, this.routePool.size());
+	}
+	
+	/**
+	 * Getter method for the pool of interned edge sequences of the stored routes.
+	 * @return Route pool.
+	 */
+	public RoutePool getRoutePool() {
+		
+		return this.routePool;
 	}
 	
 	/**
@@ -990,12 +1380,8 @@ public class RouteSetGenerator{
 	 */
 	public void printChoiceSets() {
 		
-		for (int i = 1; i < this.routes.length; i++)
-			for (int j = 1; j < this.routes[i].length; j++) {
-				if (this.routes[i][j] != null) {
-					this.routes[i][j].printChoiceSet();
-				}
-			}
+		for (RouteSet rs: this.getSortedRouteSets())
+			rs.printChoiceSet();
 	}
 	
 	/**
@@ -1005,6 +1391,8 @@ public class RouteSetGenerator{
 
 		LOGGER.info("Number of OD pairs / route sets: {}", this.getNumberOfRouteSets());
 		LOGGER.info("Total number of routes: {}", this.getNumberOfRoutes());
+		LOGGER.info("Unique edge sequences in the route pool: {} (out of {} interned routes)", this.routePool.size(), this.routePool.getInternedCount());
+		LOGGER.info("Estimated memory footprint of the route storage: {} MB", this.getEstimatedMemoryFootprint() / 1024 / 1024);
 	}
 	
 	/**
@@ -1013,8 +1401,22 @@ public class RouteSetGenerator{
 	 */
 	public String getStatistics() {
 
-		String s = this.getNumberOfRouteSets() + " route sets and " + this.getNumberOfRoutes() + " routes.";
-	
+		if (this.routeFiles.isEmpty()) {
+			String s = this.getNumberOfRouteSets() + " route sets and " + this.getNumberOfRoutes() + " routes.";
+			return s;
+		}
+		
+		//do not decode the route sets from the indexed route files just for the statistics
+		List<RouteSet> decodedSets = this.getDecodedRouteSets();
+		int totalRoutes = 0;
+		for (RouteSet rs: decodedSets)
+			totalRoutes += rs.getSize();
+		int notDecoded = 0;
+		for (IndexedRouteFile routeFile: this.routeFiles)
+			for (int index = 0; index < routeFile.size(); index++)
+				if (!this.decodedRouteSets.containsKey(routeFile.getKey(index))) notDecoded++;
+		
+		String s = decodedSets.size() + " route sets and " + totalRoutes + " routes (" + notDecoded + " route sets from indexed route files not decoded yet).";
 		return s;
 	}
 	
@@ -1024,13 +1426,8 @@ public class RouteSetGenerator{
 	 */
 	public int getNumberOfRouteSets() { 
 		
-		int totalRouteSets = 0;
-		for (int i = 1; i < this.routes.length; i++)
-			for (int j = 1; j < this.routes[i].length; j++)
-				if (this.routes[i][j] != null)
-					totalRouteSets++;
-
-		return totalRouteSets;
+		this.decodeAllRouteSets();
+		return this.routes.size();
 	}
 	
 	/**
@@ -1040,14 +1437,49 @@ public class RouteSetGenerator{
 	public int getNumberOfRoutes() { 
 	
 		int totalRoutes = 0;
-		for (int i = 1; i < this.routes.length; i++)
-			for (int j = 1; j < this.routes[i].length; j++)
-				if (this.routes[i][j] != null)
-					totalRoutes += this.routes[i][j].getSize();
+		for (RouteSet rs: this.getRouteSets())
+			totalRoutes += rs.getSize();
 			
 		return totalRoutes;
 	}
 	
+	/**
+	 * Estimates the memory footprint of the route storage (hash table, route sets and routes) in bytes.
+	 * Route sets in the indexed route files that have not been decoded yet are not included,
+	 * and the edge lists shared through the route pool are counted only once.
+	 * Assumes a 64-bit JVM with compressed object pointers (12-byte object headers, 4-byte references, 8-byte alignment).
+	 * @return Estimated memory footprint in bytes.
+	 */
+	public long getEstimatedMemoryFootprint() {
+		
+		//hash table: key array (long), value array (reference) and state array (byte)
+		long bytes = align(16 + 8L * this.routes.capacity()) + align(16 + 4L * this.routes.capacity()) + align(16 + this.routes.capacity());
+		
+		for (RouteSet rs: this.getDecodedRouteSets()) {
+			bytes += 32; //route set object
+			bytes += 24 + align(16 + 4L * rs.getSize()); //choice set list (capacity approximated with size)
+			if (rs.getProbabilities() != null) bytes += align(16 + 8L * rs.getProbabilities().length);
+			if (rs.getPathsizes() != null) bytes += align(16 + 8L * rs.getPathsizes().length);
+			for (Route route: rs.getChoiceSet()) {
+				bytes += 56; //route object
+				if (!this.routePool.isInterned(route.getPoolID(), route.getEdges())) bytes += 24 + align(16 + 4L * route.getEdges().size()); //edge list (capacity approximated with size)
+			}
+		}
+		bytes += this.routePool.getEstimatedMemoryFootprint();
+		
+		return bytes;
+	}
+	
+	/**
+	 * Aligns the object size to 8 bytes.
+	 * @param bytes Object size in bytes.
+	 * @return Aligned object size.
+	 */
+	private static long align(long bytes) {
+		
+		return (bytes + 7) & ~7L;
+	}
+	
 	/**
 	 * Getter method for the road network.
 	 * @return Road network.
@@ -1084,10 +1516,8 @@ public class RouteSetGenerator{
 		LOGGER.info("Calculating path sizes for all the route sets...");
 		
 		//iterate over all route sets
-		for (int i = 1; i < this.routes.length; i++)
-			for (int j = 1; j < this.routes[i].length; j++)
-				if (this.routes[i][j] != null)
-					this.routes[i][j].calculatePathsizes();
+		for (RouteSet rs: this.getRouteSets())
+			rs.calculatePathsizes();
 		
 		LOGGER.debug("Finished path size calculation.");
 	}
@@ -1105,11 +1535,9 @@ public class RouteSetGenerator{
 			fileWriter = new FileWriter(fileName, append);
 			bufferedWriter = new BufferedWriter(fileWriter);
 			//iterate over all route sets
-			for (int i = 1; i < this.routes.length; i++)
-				for (int j = 1; j < this.routes[i].length; j++)
-					if (this.routes[i][j] != null)
-						for (Route route: this.routes[i][j].getChoiceSet())
-							bufferedWriter.write(route.getFormattedString() + System.getProperty("line.separator"));
+			for (RouteSet rs: this.getSortedRouteSets())
+				for (Route route: rs.getChoiceSet())
+					bufferedWriter.write(route.getFormattedString() + System.getProperty("line.separator"));
 		} catch (Exception e) {
 			LOGGER.error(e);
 		} finally {
@@ -1142,14 +1570,12 @@ public class RouteSetGenerator{
 			bufferedStream = new BufferedOutputStream(outputStream);
 			dataStream = new DataOutputStream(bufferedStream);
 			//iterate over all route sets
-			for (int i = 1; i < this.routes.length; i++)
-				for (int j = 1; j < this.routes[i].length; j++)
-					if (this.routes[i][j] != null)
-						for (Route route: this.routes[i][j].getChoiceSet())	 {
-							for (int edgeID: route.getEdges().toArray())
-								dataStream.writeInt(edgeID);
-							dataStream.writeInt(0);
-						}
+			for (RouteSet rs: this.getSortedRouteSets())
+				for (Route route: rs.getChoiceSet()) {
+					for (int edgeID: route.getEdges().toArray())
+						dataStream.writeInt(edgeID);
+					dataStream.writeInt(0);
+				}
 		} catch (Exception e) {
 			LOGGER.error(e);
 		} finally {
@@ -1186,19 +1612,17 @@ public class RouteSetGenerator{
 			dataStream = new DataOutputStream(bufferedStream);
 			//iterate over all route sets
 			//iterate over all route sets
-			for (int i = 1; i < this.routes.length; i++)
-				for (int j = 1; j < this.routes[i].length; j++)
-					if (this.routes[i][j] != null)
-						for (Route route: this.routes[i][j].getChoiceSet())	 {
-							for (int edgeID: route.getEdges().toArray()) {
-								if (edgeID > 65535) {
-									LOGGER.error("Edge ID larger than 65535 cannot be stored as short. Use saveRoutesBinary method instead.");
-									return;
-								}
-							dataStream.writeShort(edgeID);
-							}
-						dataStream.writeShort(0);
+			for (RouteSet rs: this.getSortedRouteSets())
+				for (Route route: rs.getChoiceSet()) {
+					for (int edgeID: route.getEdges().toArray()) {
+						if (edgeID > 65535) {
+							LOGGER.error("Edge ID larger than 65535 cannot be stored as short. Use saveRoutesBinary method instead.");
+							return;
+						}
+						dataStream.writeShort(edgeID);
 					}
+					dataStream.writeShort(0);
+				}
 		} catch (Exception e) {
 			LOGGER.error(e);
 		} finally {
@@ -1235,14 +1659,12 @@ public class RouteSetGenerator{
 			bufferedStream = new BufferedOutputStream(gzipStream);
 			dataStream = new DataOutputStream(bufferedStream);
 			//iterate over all route sets
-			for (int i = 1; i < this.routes.length; i++)
-				for (int j = 1; j < this.routes[i].length; j++)
-					if (this.routes[i][j] != null)
-						for (Route route: this.routes[i][j].getChoiceSet())	 {
-							for (int edgeID: route.getEdges().toArray())
-								dataStream.writeInt(edgeID);
-							dataStream.writeInt(0);
-						}
+			for (RouteSet rs: this.getSortedRouteSets())
+				for (Route route: rs.getChoiceSet()) {
+					for (int edgeID: route.getEdges().toArray())
+						dataStream.writeInt(edgeID);
+					dataStream.writeInt(0);
+				}
 		} catch (Exception e) {
 			LOGGER.error(e);
 		} finally {
@@ -1260,6 +1682,103 @@ public class RouteSetGenerator{
 		}
 	}
 		
+	/**
+	 * Saves all route sets into an indexed route file, from which route sets can be decoded only when they are needed.
+	 * @param fileName File name.
+	 */
+	public void saveRoutesIndexed(String fileName) {
+		
+		LOGGER.info("Saving the routes into an indexed route file.");
+		
+		try {
+			long[] keys = this.getSortedNodePairKeys();
+			IndexedRouteFile.write(fileName, keys, this.getSortedRouteSets());
+			LOGGER.debug("Routes successfully saved into an indexed route file.");
+		} catch (IOException e) {
+			LOGGER.error(e);
+		}
+	}
+	
+	/**
+	 * Saves all route sets into a compressed indexed route file (routes are encoded with the route codec, using the dictionary
+	 * of the segments that are most frequent in the stored routes). Compression ratio and decode throughput are logged.
+	 * @param fileName File name.
+	 */
+	public void saveRoutesIndexedCompressed(String fileName) {
+		
+		LOGGER.info("Saving the routes into a compressed indexed route file.");
+		
+		try {
+			long[] keys = this.getSortedNodePairKeys();
+			List<RouteSet> routeSets = this.getSortedRouteSets();
+			
+			//the dictionary is built from a sample of routes
+			long flatBytes = 0; //size of the same routes in the flat binary file
+			int totalRoutes = 0;
+			for (RouteSet rs: routeSets)
+				for (Route route: rs.getChoiceSet()) {
+					flatBytes += 4L * (route.getEdges().size() + 1);
+					totalRoutes++;
+				}
+			int step = Math.max(1, totalRoutes / RouteCodec.DEFAULT_SAMPLE_ROUTES);
+			List<int[]> sample = new ArrayList<int[]>();
+			int counter = 0;
+			for (RouteSet rs: routeSets)
+				for (Route route: rs.getChoiceSet())
+					if (counter++ % step == 0) sample.add(route.getEdges().toArray());
+			RouteCodec codec = RouteCodec.buildDictionary(sample);
+			
+			IndexedRouteFile.write(fileName, keys, routeSets, codec);
+			
+			long compressedBytes = new File(fileName).length();
+			LOGGER.info("Compressed {} routes from {} bytes (flat binary) to {} bytes (ratio {}), using {} dictionary segments.", 
+					totalRoutes, flatBytes, compressedBytes, String.format("%.2f", (double) flatBytes / Math.max(compressedBytes, 1L)), codec.getSegments().length);
+			
+			//decode throughput
+			IndexedRouteFile routeFile = new IndexedRouteFile(fileName);
+			long decodedEdges = 0;
+			long startTime = System.nanoTime();
+			for (int index = 0; index < routeFile.size(); index++)
+				for (int[] edges: routeFile.getRoutes(index))
+					decodedEdges += edges.length;
+			double seconds = Math.max((System.nanoTime() - startTime) / 1e9, 1e-9);
+			LOGGER.info("Decoded all the routes in {} s ({} routes/sec, {} edges/sec).", 
+					String.format("%.3f", seconds), String.format("%.0f", totalRoutes / seconds), String.format("%.0f", decodedEdges / seconds));
+			
+		} catch (IOException e) {
+			LOGGER.error(e);
+		}
+	}
+	
+	/**
+	 * Reads route sets from an indexed route file. Only the index is read straight away, and the routes of
+	 * a route set are decoded (without validity check) when the route set is needed for the first time.
+	 * @param fileName File name.
+	 */
+	public void readRoutesIndexed(String fileName) {
+		
+		LOGGER.info("Reading the index of pre-generated routes from " + fileName);
+		
+		try {
+			IndexedRouteFile routeFile = new IndexedRouteFile(fileName);
+			this.routeFiles.add(routeFile);
+			LOGGER.debug("Index of {} route sets read.", routeFile.size());
+		} catch (IOException e) {
+			LOGGER.error(e);
+		}
+	}
+	
+	/**
+	 * Reads route sets from a binary file, which can be either an indexed route file (read lazily)
+	 * or a flat binary file (read without validity check).
+	 * @param fileName File name.
+	 */
+	public void readRoutesBinaryOrIndexed(String fileName) {
+		
+		if (IndexedRouteFile.isIndexedRouteFile(fileName)) this.readRoutesIndexed(fileName);
+		else this.readRoutesBinaryWithoutValidityCheck(fileName);
+	}
+		
 	/**
 	 * Reads route sets from a text file.
 	 * @param fileName File name.
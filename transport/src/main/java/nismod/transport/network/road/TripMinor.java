@@ -24,7 +24,7 @@ public class TripMinor extends Trip {
 	
 	private final static Logger LOGGER = LogManager.getLogger(TripMinor.class);
 	
-	private double length; //trip length in [km]
+	protected double length; //trip length in [km]
 	
 	public static Zoning zoning;
 
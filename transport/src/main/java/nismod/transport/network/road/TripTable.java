@@ -0,0 +1,457 @@
+package nismod.transport.network.road;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import nismod.transport.network.road.RoadNetworkAssignment.EngineType;
+import nismod.transport.network.road.RoadNetworkAssignment.TimeOfDay;
+import nismod.transport.network.road.RoadNetworkAssignment.VehicleType;
+
+/**
+ * Columnar (structure-of-arrays) store of trips, which replaces a list of trip objects.
+ * Each trip is a row with primitive columns (vehicle, engine and hour ordinals, route ID, origin and destination zone ID,
+ * multiplier and length of minor road trips), while routes are referenced through a route registry.
+ * @author Milan Lovric
+ *
+ */
+public class TripTable {
+
+	public static final byte TRIP = 0; //LAD-based or freight trip
+	public static final byte TRIP_TEMPRO = 1; //tempro-based trip
+	public static final byte TRIP_MINOR = 2; //minor road trip (no route)
+
+	private static final VehicleType[] VEHICLE_TYPES = VehicleType.values();
+	private static final EngineType[] ENGINE_TYPES = EngineType.values();
+	private static final TimeOfDay[] TIMES_OF_DAY = TimeOfDay.values();
+
+	private static final int DEFAULT_CAPACITY = 16;
+
+	private byte[] type;
+	private byte[] vehicle;
+	private byte[] engine;
+	private byte[] hour;
+	private int[] route;
+	private int[] origin;
+	private int[] destination;
+	private int[] multiplier;
+	private double[] length; //created only when the first minor road trip is added
+	private int size;
+
+	private final RouteRegistry routes;
+
+	private int modifications; //counts structural changes (invalidates the trip list view)
+	private List<Trip> tripListView;
+	private int tripListViewModifications = -1;
+
+	/**
+	 * Constructor.
+	 */
+	public TripTable() {
+
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Constructor.
+	 * @param initialCapacity Initial capacity (number of trips).
+	 */
+	public TripTable(int initialCapacity) {
+
+		int capacity = Math.max(initialCapacity, 1);
+		this.type = new byte[capacity];
+		this.vehicle = new byte[capacity];
+		this.engine = new byte[capacity];
+		this.hour = new byte[capacity];
+		this.route = new int[capacity];
+		this.origin = new int[capacity];
+		this.destination = new int[capacity];
+		this.multiplier = new int[capacity];
+		this.routes = new RouteRegistry();
+	}
+
+	/**
+	 * Adds a trip (the trip object is not kept).
+	 * @param trip Trip.
+	 */
+	public void add(Trip trip) {
+
+		byte tripType = TRIP;
+		double tripLength = 0.0;
+		if (trip instanceof TripMinor) {
+			tripType = TRIP_MINOR;
+			tripLength = ((TripMinor) trip).getLength();
+		} else if (trip instanceof TripTempro)
+			tripType = TRIP_TEMPRO;
+
+		this.add(tripType, trip.vehicle, trip.engine, trip.route, trip.hour, trip.origin, trip.destination, trip.multiplier, tripLength);
+	}
+
+	/**
+	 * Adds a trip without creating a trip object.
+	 * @param tripType Type of trip (TRIP, TRIP_TEMPRO or TRIP_MINOR).
+	 * @param vht Vehicle type.
+	 * @param et Engine type.
+	 * @param tripRoute Route (null for minor road trips).
+	 * @param tod Time of day.
+	 * @param originZoneID Origin zone ID.
+	 * @param destinationZoneID Destination zone ID.
+	 * @param tripMultiplier Multiplier.
+	 * @param tripLength Trip length in [km] (only used for minor road trips).
+	 */
+	public void add(byte tripType, VehicleType vht, EngineType et, Route tripRoute, TimeOfDay tod, int originZoneID, int destinationZoneID, int tripMultiplier, double tripLength) {
+
+		this.ensureCapacity(this.size + 1);
+
+		final int row = this.size;
+		this.type[row] = tripType;
+		this.vehicle[row] = (byte) vht.ordinal();
+		this.engine[row] = (byte) et.ordinal();
+		this.hour[row] = (byte) tod.ordinal();
+		this.route[row] = this.routes.register(tripRoute);
+		this.origin[row] = originZoneID;
+		this.destination[row] = destinationZoneID;
+		this.multiplier[row] = tripMultiplier;
+		if (tripType == TRIP_MINOR) {
+			if (this.length == null) this.length = new double[this.type.length];
+			this.length[row] = tripLength;
+		}
+
+		this.size++;
+		this.modifications++;
+	}
+
+	/**
+	 * Appends a range of trips from another table.
+	 * @param other Other trip table.
+	 * @param fromRow First row (inclusive).
+	 * @param toRow Last row (exclusive).
+	 */
+	public void addAll(TripTable other, int fromRow, int toRow) {
+
+		this.ensureCapacity(this.size + toRow - fromRow);
+		for (int row = fromRow; row < toRow; row++)
+			this.add(other.type[row], VEHICLE_TYPES[other.vehicle[row]], ENGINE_TYPES[other.engine[row]], other.getRoute(row), TIMES_OF_DAY[other.hour[row]],
+					other.origin[row], other.destination[row], other.multiplier[row], other.getMinorTripLength(row));
+	}
+
+	/**
+	 * Makes sure the table can store the given number of trips without growing.
+	 * @param minCapacity Minimum capacity.
+	 */
+	public void ensureCapacity(int minCapacity) {
+
+		final int capacity = this.type.length;
+		if (minCapacity <= capacity) return;
+
+		int newCapacity = Math.max(minCapacity, capacity + (capacity >> 1));
+		this.type = Arrays.copyOf(this.type, newCapacity);
+		this.vehicle = Arrays.copyOf(this.vehicle, newCapacity);
+		this.engine = Arrays.copyOf(this.engine, newCapacity);
+		this.hour = Arrays.copyOf(this.hour, newCapacity);
+		this.route = Arrays.copyOf(this.route, newCapacity);
+		this.origin = Arrays.copyOf(this.origin, newCapacity);
+		this.destination = Arrays.copyOf(this.destination, newCapacity);
+		this.multiplier = Arrays.copyOf(this.multiplier, newCapacity);
+		if (this.length != null) this.length = Arrays.copyOf(this.length, newCapacity);
+	}
+
+	/**
+	 * Removes all the trips (keeps the capacity).
+	 */
+	public void clear() {
+
+		this.size = 0;
+		this.length = null;
+		this.routes.clear();
+		this.modifications++;
+	}
+
+	/**
+	 * @return Number of trips.
+	 */
+	public int size() {
+
+		return this.size;
+	}
+
+	/**
+	 * @param row Row.
+	 * @return Type of trip (TRIP, TRIP_TEMPRO or TRIP_MINOR).
+	 */
+	public byte getType(int row) {
+
+		return this.type[row];
+	}
+
+	/**
+	 * @param row Row.
+	 * @return Vehicle type ordinal.
+	 */
+	public int getVehicleOrdinal(int row) {
+
+		return this.vehicle[row];
+	}
+
+	/**
+	 * @param row Row.
+	 * @return Vehicle type.
+	 */
+	public VehicleType getVehicle(int row) {
+
+		return VEHICLE_TYPES[this.vehicle[row]];
+	}
+
+	/**
+	 * @param row Row.
+	 * @return Engine type ordinal.
+	 */
+	public int getEngineOrdinal(int row) {
+
+		return this.engine[row];
+	}
+
+	/**
+	 * @param row Row.
+	 * @return Engine type.
+	 */
+	public EngineType getEngine(int row) {
+
+		return ENGINE_TYPES[this.engine[row]];
+	}
+
+	/**
+	 * @param row Row.
+	 * @return Time of day ordinal.
+	 */
+	public int getTimeOfDayOrdinal(int row) {
+
+		return this.hour[row];
+	}
+
+	/**
+	 * @param row Row.
+	 * @return Time of day.
+	 */
+	public TimeOfDay getTimeOfDay(int row) {
+
+		return TIMES_OF_DAY[this.hour[row]];
+	}
+
+	/**
+	 * @param row Row.
+	 * @return Route ID in the route registry (RouteRegistry.NO_ROUTE for minor road trips).
+	 */
+	public int getRouteID(int row) {
+
+		return this.route[row];
+	}
+
+	/**
+	 * @param row Row.
+	 * @return Route (null for minor road trips).
+	 */
+	public Route getRoute(int row) {
+
+		return this.routes.getRoute(this.route[row]);
+	}
+
+	/**
+	 * @param row Row.
+	 * @return Origin zone ID.
+	 */
+	public int getOrigin(int row) {
+
+		return this.origin[row];
+	}
+
+	/**
+	 * @param row Row.
+	 * @return Destination zone ID.
+	 */
+	public int getDestination(int row) {
+
+		return this.destination[row];
+	}
+
+	/**
+	 * Gets trip origin LAD zone ID (tempro-based and minor road trips are mapped from tempro zones to LADs).
+	 * @param row Row.
+	 * @return Origin zone LAD ID.
+	 */
+	public int getOriginLadID(int row) {
+
+		if (this.type[row] == TRIP) return this.origin[row];
+		return TripTempro.zoning.getZoneIDToLadID()[this.origin[row]];
+	}
+
+	/**
+	 * Gets trip destination LAD zone ID (tempro-based and minor road trips are mapped from tempro zones to LADs).
+	 * @param row Row.
+	 * @return Destination zone LAD ID.
+	 */
+	public int getDestinationLadID(int row) {
+
+		if (this.type[row] == TRIP) return this.destination[row];
+		return TripTempro.zoning.getZoneIDToLadID()[this.destination[row]];
+	}
+
+	/**
+	 * @param row Row.
+	 * @return Multiplier.
+	 */
+	public int getMultiplier(int row) {
+
+		return this.multiplier[row];
+	}
+
+	/**
+	 * @param row Row.
+	 * @return Length of the minor road trip in [km] (0 for other trips).
+	 */
+	public double getMinorTripLength(int row) {
+
+		return (this.type[row] == TRIP_MINOR) ? this.length[row] : 0.0;
+	}
+
+	/**
+	 * @param row Row.
+	 * @return True if the trip is made by a passenger vehicle (car or AV).
+	 */
+	public boolean isPassengerTrip(int row) {
+
+		final int vht = this.vehicle[row];
+		return vht == VehicleType.CAR.ordinal() || vht == VehicleType.CAR_AV.ordinal();
+	}
+
+	/**
+	 * @return Number of changes made to the table so far (can be used to check if values derived from the table are up to date).
+	 */
+	public int getModificationCount() {
+
+		return this.modifications;
+	}
+
+	/**
+	 * @return Route registry.
+	 */
+	public RouteRegistry getRouteRegistry() {
+
+		return this.routes;
+	}
+
+	/**
+	 * Creates a trip object for the given row.
+	 * @param row Row.
+	 * @return Trip.
+	 */
+	public Trip getTrip(int row) {
+
+		return this.fillTrip(row, null);
+	}
+
+	/**
+	 * Returns a view for scanning the table with the enhanced for loop.
+	 * To avoid allocation, the iterator reuses a single trip object for each trip type,
+	 * so the returned trips must not be kept beyond the current iteration step.
+	 * @return Iterable over (reused) trip objects.
+	 */
+	public Iterable<Trip> scan() {
+
+		return new Iterable<Trip>() {
+			@Override
+			public Iterator<Trip> iterator() {
+				return new ScanIterator();
+			}
+		};
+	}
+
+	/**
+	 * Returns the trips as a list of trip objects, for compatibility with the code that expects a trip list.
+	 * The list is created on the first call and reused until the table changes, and it cannot be modified (trips are added to the table).
+	 * @return Unmodifiable trip list.
+	 */
+	public List<Trip> asList() {
+
+		if (this.tripListView == null || this.tripListViewModifications != this.modifications) {
+			ArrayList<Trip> list = new ArrayList<Trip>(this.size);
+			for (int row = 0; row < this.size; row++) list.add(this.getTrip(row));
+			this.tripListView = Collections.unmodifiableList(list);
+			this.tripListViewModifications = this.modifications;
+		}
+
+		return this.tripListView;
+	}
+
+	/**
+	 * Fills the trip object with the values from the given row.
+	 * @param row Row.
+	 * @param reused Trip object of the right type to be filled, or null to create a new one.
+	 * @return Trip.
+	 */
+	private Trip fillTrip(int row, Trip reused) {
+
+		final VehicleType vht = VEHICLE_TYPES[this.vehicle[row]];
+		final EngineType et = ENGINE_TYPES[this.engine[row]];
+		final TimeOfDay tod = TIMES_OF_DAY[this.hour[row]];
+		final Route tripRoute = this.getRoute(row);
+
+		if (reused == null) {
+			switch (this.type[row]) {
+			case TRIP_TEMPRO:
+				return new TripTempro(vht, et, tripRoute, tod, this.origin[row], this.destination[row], TripTempro.zoning, this.multiplier[row]);
+			case TRIP_MINOR:
+				return new TripMinor(vht, et, tod, this.origin[row], this.destination[row], this.length[row], TripMinor.zoning, this.multiplier[row]);
+			default:
+				return new Trip(vht, et, tripRoute, tod, this.origin[row], this.destination[row], this.multiplier[row]);
+			}
+		}
+
+		reused.vehicle = vht;
+		reused.engine = et;
+		reused.route = tripRoute;
+		reused.hour = tod;
+		reused.origin = this.origin[row];
+		reused.destination = this.destination[row];
+		reused.multiplier = this.multiplier[row];
+		if (reused instanceof TripMinor) ((TripMinor) reused).length = this.length[row];
+
+		return reused;
+	}
+
+	/**
+	 * Iterator that reuses one trip object per trip type.
+	 */
+	private class ScanIterator implements Iterator<Trip> {
+
+		private final Trip[] reused = new Trip[3];
+		private final int expectedModifications = TripTable.this.modifications;
+		private int row = 0;
+
+		@Override
+		public boolean hasNext() {
+
+			return this.row < TripTable.this.size;
+		}
+
+		@Override
+		public Trip next() {
+
+			if (this.row >= TripTable.this.size) throw new NoSuchElementException();
+			if (this.expectedModifications != TripTable.this.modifications) throw new ConcurrentModificationException();
+
+			final int row = this.row++;
+			final byte tripType = TripTable.this.type[row];
+			if (this.reused[tripType] == null) {
+				this.reused[tripType] = TripTable.this.fillTrip(row, null);
+				return this.reused[tripType];
+			}
+
+			return TripTable.this.fillTrip(row, this.reused[tripType]);
+		}
+	}
+}
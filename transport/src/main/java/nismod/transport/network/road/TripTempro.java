@@ -180,8 +180,7 @@ public class TripTempro extends Trip {
 	@Override
 	public double getTravelTime(double[] linkTravelTime, double avgIntersectionDelay, double[] distanceFromTemproZoneToNearestNode, double averageAccessEgressSpeed, boolean flagIncludeAccessEgress) {
 		
-		this.route.calculateTravelTime(linkTravelTime, avgIntersectionDelay); //route travel time needs to be recalculated every time (as it depends on time of day).
-		Double time = this.route.getTime();
+		double time = this.route.getTravelTime(linkTravelTime, avgIntersectionDelay); //route travel time needs to be recalculated every time (as it depends on time of day).
 
 		if (flagIncludeAccessEgress) {
 			//double access = distanceFromTemproZoneToNearestNode[this.origin];
@@ -204,8 +203,7 @@ public class TripTempro extends Trip {
 		//double distance = this.getLength(averageAccessEgressMap);
 		//double cost = distance / 100 * energyConsumptionsPer100km.get(this.engine) * energyUnitCosts.get(this.engine);
 		
-		this.route.calculateCost(this.vehicle, this.engine, this.hour, linkTravelTime, energyConsumptionParameters, relativeFuelEfficiency, energyUnitCosts, congestionCharges);
-		double tripCost = this.route.getCost();
+		double tripCost = this.route.getCost(this.vehicle, this.engine, this.hour, linkTravelTime, energyConsumptionParameters, relativeFuelEfficiency, energyUnitCosts, congestionCharges);
 		
 		//add access/egress cost
 		if (flagIncludeAccessEgress) {
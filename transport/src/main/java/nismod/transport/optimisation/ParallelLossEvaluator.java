@@ -0,0 +1,166 @@
+package nismod.transport.optimisation;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import nismod.transport.network.road.RoadNetworkAssignment;
+import nismod.transport.network.road.RoadNetworkAssignment.TimeOfDay;
+import nismod.transport.network.road.Route;
+import nismod.transport.network.road.RouteSetGenerator;
+import nismod.transport.utility.ParallelTasks;
+import nismod.transport.utility.RandomSingleton;
+
+/**
+ * Evaluates loss functions of the optimisation algorithms in parallel, each on its own road network assignment
+ * (the main one and its copies, which share the read-only road network, zoning and route sets).
+ * Routes found with aStar during the evaluations are collected by each assignment and added to the shared route set generator
+ * after all the losses are evaluated (in the order of the losses), so the route sets do not change during the evaluation.
+ * Each evaluation starts from the link travel times of the main assignment and uses its own random number generator,
+ * seeded from the global one in the order of the losses, so the results are the same for any number of threads.
+ * The first loss is always evaluated on the main assignment, which keeps its results (e.g. for printing statistics).
+ * If any evaluation fails, an {@link IllegalStateException} is thrown (the assignments may be left in an incomplete state).
+ * @author Milan Lovric
+ *
+ */
+public class ParallelLossEvaluator {
+
+	private final static Logger LOGGER = LogManager.getLogger(ParallelLossEvaluator.class);
+
+	/**
+	 * Loss function evaluated on a road network assignment.
+	 */
+	public interface Loss {
+
+		/**
+		 * @param rna Road network assignment (reset by the loss function if needed).
+		 * @return Loss function value.
+		 */
+		double evaluate(RoadNetworkAssignment rna);
+	}
+
+	private final RoadNetworkAssignment rna;
+	private final RouteSetGenerator rsg; //null if the losses do not share a route set generator
+	private final BlockingQueue<RoadNetworkAssignment> copies;
+	private final int threads;
+
+	/**
+	 * Constructor for the losses that do not share a route set generator.
+	 * @param rna Road network assignment.
+	 * @param threads Number of threads.
+	 */
+	public ParallelLossEvaluator(RoadNetworkAssignment rna, int threads) {
+
+		this(rna, null, threads);
+	}
+
+	/**
+	 * Constructor.
+	 * @param rna Road network assignment.
+	 * @param rsg Route set generator shared by the losses (null if none).
+	 * @param threads Number of threads.
+	 */
+	public ParallelLossEvaluator(RoadNetworkAssignment rna, RouteSetGenerator rsg, int threads) {
+
+		this.rna = rna;
+		this.rsg = rsg;
+		this.threads = Math.max(1, threads);
+
+		//the main assignment is used by the first loss, so one thread less needs a copy
+		int numberOfCopies = Math.max(1, this.threads - 1);
+		this.copies = new ArrayBlockingQueue<RoadNetworkAssignment>(numberOfCopies);
+		for (int i = 0; i < numberOfCopies; i++) this.copies.add(rna.copy());
+		LOGGER.debug("Created {} copies of the road network assignment for the parallel loss evaluation.", numberOfCopies);
+	}
+
+	/**
+	 * Evaluates the losses.
+	 * @param losses Loss functions.
+	 * @return Loss function values (in the same order as the losses).
+	 */
+	public double[] evaluate(List<Loss> losses) {
+
+		final int size = losses.size();
+		final double[] values = new double[size];
+		if (size == 0) return values;
+
+		//seeds are drawn in the order of the losses, so they do not depend on the thread that evaluates the loss
+		RandomSingleton rng = RandomSingleton.getInstance();
+		final long[] seeds = new long[size];
+		for (int i = 0; i < size; i++) seeds[i] = rng.nextLong();
+
+		//link travel times before the evaluation (the first loss can change them on the main assignment)
+		final Map<TimeOfDay, double[]> linkTravelTimes = new EnumMap<TimeOfDay, double[]>(TimeOfDay.class);
+		for (TimeOfDay hour: TimeOfDay.values())
+			linkTravelTimes.put(hour, this.rna.getLinkTravelTimes().get(hour).clone());
+
+		//routes found with aStar by each evaluation
+		final List<List<Route>> collectedRoutes = new ArrayList<List<Route>>(Collections.nCopies(size, Collections.<Route>emptyList()));
+
+		List<Callable<Double>> tasks = new ArrayList<Callable<Double>>(size);
+		tasks.add(() -> this.evaluate(this.rna, losses.get(0), seeds[0], null, collectedRoutes, 0));
+		for (int i = 1; i < size; i++) {
+			final int index = i;
+			tasks.add(() -> {
+				RoadNetworkAssignment copy = this.copies.take();
+				try {
+					return this.evaluate(copy, losses.get(index), seeds[index], linkTravelTimes, collectedRoutes, index);
+				} finally {
+					this.copies.put(copy);
+				}
+			});
+		}
+
+		List<Double> results = ParallelTasks.invokeAll(tasks, "loss evaluation");
+		for (int i = 0; i < size; i++) values[i] = results.get(i);
+
+		if (this.rsg != null)
+			for (List<Route> routes: collectedRoutes)
+				for (Route route: routes)
+					this.rsg.addRoute(route);
+
+		return values;
+	}
+
+	/**
+	 * @return Number of threads.
+	 */
+	public int getThreads() {
+
+		return this.threads;
+	}
+
+	/**
+	 * Evaluates a loss on a road network assignment.
+	 * @param rna Road network assignment.
+	 * @param loss Loss function.
+	 * @param seed Seed of the random number generator used by the evaluation.
+	 * @param linkTravelTimes Link travel times to start from (null to keep the current ones).
+	 * @param collectedRoutes Routes found with aStar by each evaluation (filled if the losses share a route set generator).
+	 * @param index Index of the loss.
+	 * @return Loss function value.
+	 */
+	private double evaluate(RoadNetworkAssignment rna, Loss loss, long seed, Map<TimeOfDay, double[]> linkTravelTimes, List<List<Route>> collectedRoutes, int index) {
+
+		if (linkTravelTimes != null) rna.setLinkTravelTimes(linkTravelTimes);
+		if (this.rsg != null) rna.setCollectRoutes(true);
+
+		RandomSingleton.setThreadSeed(seed);
+		try {
+			double value = loss.evaluate(rna);
+			if (this.rsg != null) collectedRoutes.set(index, rna.getCollectedRoutes()); //each evaluation sets its own element
+			return value;
+		} finally {
+			RandomSingleton.clearThreadSeed();
+			if (this.rsg != null) rna.setCollectRoutes(false);
+		}
+	}
+}
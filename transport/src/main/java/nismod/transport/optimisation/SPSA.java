@@ -43,6 +43,9 @@ public class SPSA {
 	
 	private RoadNetworkAssignment rna;
 	private Properties props;
+	
+	private ParallelLossEvaluator evaluator; //null if the losses are evaluated sequentially
+	private int gradientSamples = 1; //number of deltas used for the gradient approximation in the parallel evaluation
 
 	public SPSA() {
 	}
@@ -75,6 +78,20 @@ public class SPSA {
 		this.gamma = gamma;
 	}
 		
+	/**
+	 * Makes the algorithm evaluate the losses of each iteration (for the current theta and the shifted thetas) in parallel,
+	 * on copies of the road network assignment, and average the gradient approximation over several samples of deltas.
+	 * The results are reproducible for a fixed seed, but differ from the sequential evaluation (random numbers are drawn differently).
+	 * Must be called after the initialisation.
+	 * @param threads Number of threads.
+	 * @param gradientSamples Number of samples of deltas for the gradient approximation.
+	 */
+	public void setParallelEvaluation(int threads, int gradientSamples) {
+		
+		this.evaluator = new ParallelLossEvaluator(this.rna, threads);
+		this.gradientSamples = Math.max(1, gradientSamples);
+	}
+		
 	/**
 	 * Run the algorithm.
 	 * @param maxIterations Maximum number of iterations.
@@ -84,8 +101,13 @@ public class SPSA {
 		int k = 1; //counter
 
 		do {
+			if (this.evaluator != null) {
+				this.runParallelIteration(k++);
+				continue;
+			}
+			
 			//evaluate loss function for the current theta
-			double loss = this.lossFunction(thetaEstimate);
+			double loss = this.lossFunction(this.rna, thetaEstimate);
 			//store
 			this.lossFunctionValues.add(loss);
 			
@@ -105,8 +127,8 @@ public class SPSA {
 			thetaMinus.printMatrixFormatted("Theta minus: ", 2);
 			
 			//evaluate loss function
-			double yPlus = this.lossFunction(thetaPlus);
-			double yMinus = this.lossFunction(thetaMinus);
+			double yPlus = this.lossFunction(this.rna, thetaPlus);
+			double yMinus = this.lossFunction(this.rna, thetaMinus);
 			System.out.printf("yPlus = %.5f, yMinus = %.5f %n", yPlus, yMinus);
 						
 			//approximate gradient
@@ -122,13 +144,62 @@ public class SPSA {
 		} while (k <= maxIterations);
 		
 		//evaluate loss function for the final theta
-		double loss = this.lossFunction(thetaEstimate);
+		double loss = this.lossFunction(this.rna, thetaEstimate);
 		//store
 		this.lossFunctionValues.add(loss);
 		
 		System.out.println("SPSA stopped. Maximum number of iterations reached");
 	}
 	
+	/**
+	 * Runs one iteration of the algorithm with the losses evaluated in parallel.
+	 * @param k Iteration counter.
+	 */
+	private void runParallelIteration(int k) {
+		
+		//calculate gain coefficients
+		double ak = a / Math.pow(A + k, alpha);
+		double ck = c / Math.pow(k, gamma);
+		System.out.printf("ak = %.5f, ck = %.5f %n", ak, ck);
+		
+		//loss for the current theta, followed by the losses for the shifted thetas of each sample of deltas
+		List<ParallelLossEvaluator.Loss> losses = new ArrayList<ParallelLossEvaluator.Loss>();
+		List<RealODMatrix> sampledDeltas = new ArrayList<RealODMatrix>();
+		RealODMatrix theta = this.thetaEstimate;
+		losses.add(rna -> this.lossFunction(rna, theta));
+		for (int sample = 0; sample < this.gradientSamples; sample++) {
+			this.generateDeltas(thetaEstimate.getKeySet());
+			RealODMatrix thetaPlus = this.shiftTheta(thetaEstimate, ck, deltas);
+			RealODMatrix thetaMinus = this.shiftTheta(thetaEstimate, -1 * ck, deltas);
+			losses.add(rna -> this.lossFunction(rna, thetaPlus));
+			losses.add(rna -> this.lossFunction(rna, thetaMinus));
+			sampledDeltas.add(deltas.clone());
+		}
+		
+		//evaluate loss functions
+		double[] y = this.evaluator.evaluate(losses);
+		//store
+		this.lossFunctionValues.add(y[0]);
+		
+		//approximate gradient (averaged over the samples)
+		RealODMatrix averageGradient = new RealODMatrix();
+		for (int sample = 0; sample < this.gradientSamples; sample++) {
+			this.approximateGradient(y[2 * sample + 1], y[2 * sample + 2], ck, sampledDeltas.get(sample));
+			for (MultiKey mk: gradientApproximation.getKeySet()) {
+				String origin = (String) mk.getKey(0);
+				String destination = (String) mk.getKey(1);
+				double grad = averageGradient.getFlow(origin, destination) + gradientApproximation.getFlow(origin, destination) / this.gradientSamples;
+				averageGradient.setFlow(origin, destination, grad);
+			}
+		}
+		this.gradientApproximation = averageGradient;
+		gradientApproximation.printMatrixFormatted("Gradient approximation: ", 5);
+		
+		//estimate new theta
+		this.updateThetaEstimate(thetaEstimate, ak, gradientApproximation);
+		thetaEstimate.printMatrixFormatted("New theta estimate: ", 2);
+	}
+	
 	/**
 	 * @return Loss function evaluations for all iterations.
 	 */
@@ -195,10 +266,11 @@ public class SPSA {
 		
 	/**
 	 * Calculate the loss function for a given theta (OD matrix).
+	 * @param rna Road network assignment.
 	 * @param theta OD matrix.
 	 * @return RMSN for the difference between volumes and traffic counts.
 	 */
-	private double lossFunction(RealODMatrix theta) {
+	private double lossFunction(RoadNetworkAssignment rna, RealODMatrix theta) {
 		
 		//round values
 		ODMatrixMultiKey odm = new ODMatrixMultiKey(theta);
@@ -223,7 +295,7 @@ public class SPSA {
 	 */
 	public double lossFunction() {
 		
-		return lossFunction(this.thetaEstimate);
+		return lossFunction(this.rna, this.thetaEstimate);
 	}
 	
 	/**
@@ -47,6 +47,9 @@ public class SPSA2 {
 	private RoadNetworkAssignment rna;
 	private Properties props;
 	private ODMatrixMultiKey odm;
+	
+	private ParallelLossEvaluator evaluator; //null if the losses are evaluated sequentially
+	private int gradientSamples = 1; //number of deltas used for the gradient approximation in the parallel evaluation
 
 	public SPSA2() {
 	}
@@ -85,6 +88,20 @@ public class SPSA2 {
 		this.gamma = gamma;
 	}
 		
+	/**
+	 * Makes the algorithm evaluate the losses of each iteration (for the current theta and the shifted thetas) in parallel,
+	 * on copies of the road network assignment, and average the gradient approximation over several samples of deltas.
+	 * The results are reproducible for a fixed seed, but differ from the sequential evaluation (random numbers are drawn differently).
+	 * Must be called after the initialisation.
+	 * @param threads Number of threads.
+	 * @param gradientSamples Number of samples of deltas for the gradient approximation.
+	 */
+	public void setParallelEvaluation(int threads, int gradientSamples) {
+		
+		this.evaluator = new ParallelLossEvaluator(this.rna, threads);
+		this.gradientSamples = Math.max(1, gradientSamples);
+	}
+		
 	/**
 	 * Run the algorithm.
 	 * @param maxIterations Maximum number of iterations.
@@ -93,9 +110,14 @@ public class SPSA2 {
 		
 		int k = 1; //counter
 
-		do {		
+		do {
+			if (this.evaluator != null) {
+				this.runParallelIteration(k++);
+				continue;
+			}
+			
 			//evaluate loss function for the current theta
-			double loss = this.lossFunction(thetaEstimateStart, thetaEstimateEnd);
+			double loss = this.lossFunction(this.rna, thetaEstimateStart, thetaEstimateEnd);
 			//store
 			this.lossFunctionValues.add(loss);
 			
@@ -121,8 +143,8 @@ public class SPSA2 {
 			System.out.println("Theta end minus: " + thetaEndMinus);
 						
 			//evaluate loss function
-			double yPlus = lossFunction(thetaStartPlus, thetaEndPlus);
-			double yMinus = lossFunction(thetaStartMinus, thetaEndMinus);
+			double yPlus = lossFunction(this.rna, thetaStartPlus, thetaEndPlus);
+			double yMinus = lossFunction(this.rna, thetaStartMinus, thetaEndMinus);
 			System.out.printf("yPlus = %.5f, yMinus = %.5f %n", yPlus, yMinus);
 						
 			//approximate gradient
@@ -145,13 +167,70 @@ public class SPSA2 {
 		} while (k <= maxIterations);
 		
 		//evaluate loss function for the final theta
-		double loss = this.lossFunction(this.thetaEstimateStart, this.thetaEstimateEnd);
+		double loss = this.lossFunction(this.rna, this.thetaEstimateStart, this.thetaEstimateEnd);
 		//store
 		this.lossFunctionValues.add(loss);
 		
 		System.out.println("SPSA stopped. Maximum number of iterations reached");
 	}
 	
+	/**
+	 * Runs one iteration of the algorithm with the losses evaluated in parallel.
+	 * @param k Iteration counter.
+	 */
+	private void runParallelIteration(int k) {
+		
+		//calculate gain coefficients
+		double ak = a / Math.pow(A + k, alpha);
+		double ck = c / Math.pow(k, gamma);
+		System.out.printf("ak = %.5f, ck = %.5f %n", ak, ck);
+		
+		//loss for the current theta, followed by the losses for the shifted thetas of each sample of deltas
+		List<ParallelLossEvaluator.Loss> losses = new ArrayList<ParallelLossEvaluator.Loss>();
+		List<HashMap<Integer, Integer>> sampledDeltasStart = new ArrayList<HashMap<Integer, Integer>>();
+		List<HashMap<Integer, Integer>> sampledDeltasEnd = new ArrayList<HashMap<Integer, Integer>>();
+		HashMap<Integer, Double> thetaStart = this.thetaEstimateStart;
+		HashMap<Integer, Double> thetaEnd = this.thetaEstimateEnd;
+		losses.add(rna -> this.lossFunction(rna, thetaStart, thetaEnd));
+		for (int sample = 0; sample < this.gradientSamples; sample++) {
+			this.generateDeltas();
+			HashMap<Integer, Double> thetaStartPlus = shiftTheta(this.thetaEstimateStart, ck, this.deltasStart, true);
+			HashMap<Integer, Double> thetaEndPlus = shiftTheta(this.thetaEstimateEnd, ck, this.deltasEnd, false);
+			HashMap<Integer, Double> thetaStartMinus = shiftTheta(this.thetaEstimateStart, -1 * ck, this.deltasStart, true);
+			HashMap<Integer, Double> thetaEndMinus = shiftTheta(this.thetaEstimateEnd, -1 * ck, this.deltasEnd, false);
+			losses.add(rna -> this.lossFunction(rna, thetaStartPlus, thetaEndPlus));
+			losses.add(rna -> this.lossFunction(rna, thetaStartMinus, thetaEndMinus));
+			sampledDeltasStart.add(new HashMap<Integer, Integer>(this.deltasStart));
+			sampledDeltasEnd.add(new HashMap<Integer, Integer>(this.deltasEnd));
+		}
+		
+		//evaluate loss functions
+		double[] y = this.evaluator.evaluate(losses);
+		//store
+		this.lossFunctionValues.add(y[0]);
+		
+		//approximate gradient (averaged over the samples)
+		this.gradientApproximationStart = new HashMap<Integer, Double>();
+		this.gradientApproximationEnd = new HashMap<Integer, Double>();
+		HashMap<Integer, Double> gradient = new HashMap<Integer, Double>();
+		for (int sample = 0; sample < this.gradientSamples; sample++) {
+			approximateGradient(gradient, y[2 * sample + 1], y[2 * sample + 2], ck, sampledDeltasStart.get(sample));
+			for (Integer nodeID: gradient.keySet())
+				this.gradientApproximationStart.merge(nodeID, gradient.get(nodeID) / this.gradientSamples, Double::sum);
+			approximateGradient(gradient, y[2 * sample + 1], y[2 * sample + 2], ck, sampledDeltasEnd.get(sample));
+			for (Integer nodeID: gradient.keySet())
+				this.gradientApproximationEnd.merge(nodeID, gradient.get(nodeID) / this.gradientSamples, Double::sum);
+		}
+		System.out.println("Gradient approximation start: " + this.gradientApproximationStart);
+		System.out.println("Gradient approximation end: " + this.gradientApproximationEnd);
+		
+		//estimate new theta
+		updateThetaEstimate(this.thetaEstimateStart, ak, this.gradientApproximationStart, true);
+		updateThetaEstimate(this.thetaEstimateEnd, ak, this.gradientApproximationEnd, false);
+		System.out.println("New theta estimate start: " + this.thetaEstimateStart);
+		System.out.println("New theta estimate end: " + this.thetaEstimateEnd);
+	}
+	
 	/**
 	 * @return Loss function evaluations for all iterations.
 	 */
@@ -238,11 +317,12 @@ public class SPSA2 {
 		
 	/**
 	 * Calculate the loss function for a given theta (node probabilities).
+	 * @param rna Road network assignment.
 	 * @param thetaStart Start node probabilities.
 	 * @param thetaEnd End node probabilities.
 	 * @return RMSN for the difference between volumes and traffic counts.
 	 */
-	private double lossFunction(HashMap<Integer, Double> thetaStart, HashMap<Integer, Double> thetaEnd) {
+	private double lossFunction(RoadNetworkAssignment rna, HashMap<Integer, Double> thetaStart, HashMap<Integer, Double> thetaEnd) {
 		
 		//reset as we are re-using the same road network assignment
 		rna.resetLinkVolumes();
@@ -267,7 +347,7 @@ public class SPSA2 {
 	 */
 	public double lossFunction() {
 		
-		return lossFunction(this.thetaEstimateStart, this.thetaEstimateEnd);
+		return lossFunction(this.rna, this.thetaEstimateStart, this.thetaEstimateEnd);
 	}
 	
 	/**
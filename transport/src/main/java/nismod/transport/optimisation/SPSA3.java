@@ -66,6 +66,9 @@ public class SPSA3 {
 	private RoadNetworkAssignment rna;
 	private RouteSetGenerator rsg;
 	private Properties routeChoiceParams;
+	
+	private ParallelLossEvaluator evaluator; //null if the losses are evaluated sequentially
+	private int gradientSamples = 1; //number of deltas used for the gradient approximation in the parallel evaluation
 
 	public SPSA3() {
 	}
@@ -117,6 +120,21 @@ public class SPSA3 {
 		this.gamma = gamma;
 	}
 		
+	/**
+	 * Makes the algorithm evaluate the losses of each iteration (for the current theta and the shifted thetas) in parallel,
+	 * on copies of the road network assignment, and average the gradient approximation over several samples of deltas.
+	 * The results are reproducible for a fixed seed, but differ from the sequential evaluation (random numbers are drawn differently).
+	 * Must be called after the initialisation.
+	 * @param threads Number of threads.
+	 * @param gradientSamples Number of samples of deltas for the gradient approximation.
+	 */
+	public void setParallelEvaluation(int threads, int gradientSamples) {
+		
+		//routes found with aStar are added to the shared route set generator after each parallel evaluation
+		this.evaluator = new ParallelLossEvaluator(this.rna, this.rsg, threads);
+		this.gradientSamples = Math.max(1, gradientSamples);
+	}
+		
 	/**
 	 * Run the algorithm.
 	 * @param maxIterations Maximum number of iterations.
@@ -125,9 +143,14 @@ public class SPSA3 {
 		
 		int k = 1; //counter
 
-		do {		
+		do {
+			if (this.evaluator != null) {
+				this.runParallelIteration(k++);
+				continue;
+			}
+			
 			//evaluate loss function for the current theta
-			double loss = this.lossFunction(this.thetaEstimate, this.thetaEstimateStart, this.thetaEstimateEnd);
+			double loss = this.lossFunction(this.rna, this.thetaEstimate, this.thetaEstimateStart, this.thetaEstimateEnd);
 			//store
 			this.lossFunctionValues.add(loss);
 			
@@ -160,8 +183,8 @@ public class SPSA3 {
 			//System.out.println("Theta end minus: " + thetaEndMinus);
 						
 			//evaluate loss function
-			double yPlus = lossFunction(thetaPlus, thetaStartPlus, thetaEndPlus);
-			double yMinus = lossFunction(thetaMinus, thetaStartMinus, thetaEndMinus);
+			double yPlus = lossFunction(this.rna, thetaPlus, thetaStartPlus, thetaEndPlus);
+			double yMinus = lossFunction(this.rna, thetaMinus, thetaStartMinus, thetaEndMinus);
 			//System.out.printf("yPlus = %.5f, yMinus = %.5f %n", yPlus, yMinus);
 						
 			//approximate gradient
@@ -185,13 +208,82 @@ public class SPSA3 {
 		} while (k <= maxIterations);
 		
 		//evaluate loss function for the final theta
-		double loss = this.lossFunction(this.thetaEstimate, this.thetaEstimateStart, this.thetaEstimateEnd);
+		double loss = this.lossFunction(this.rna, this.thetaEstimate, this.thetaEstimateStart, this.thetaEstimateEnd);
 		//store
 		this.lossFunctionValues.add(loss);
 		
 		System.out.println("SPSA stopped. Maximum number of iterations reached.");
 	}
 	
+	/**
+	 * Runs one iteration of the algorithm with the losses evaluated in parallel.
+	 * @param k Iteration counter.
+	 */
+	private void runParallelIteration(int k) {
+		
+		//calculate gain coefficients
+		double ak1 = a1 / Math.pow(A1 + k, alpha);
+		double ck1 = c1 / Math.pow(k, gamma);
+		double ak2 = a2 / Math.pow(A2 + k, alpha);
+		double ck2 = c2 / Math.pow(k, gamma);
+		
+		//loss for the current theta, followed by the losses for the shifted thetas of each sample of deltas
+		List<ParallelLossEvaluator.Loss> losses = new ArrayList<ParallelLossEvaluator.Loss>();
+		List<RealODMatrix> sampledDeltas = new ArrayList<RealODMatrix>();
+		List<HashMap<Integer, Integer>> sampledDeltasStart = new ArrayList<HashMap<Integer, Integer>>();
+		List<HashMap<Integer, Integer>> sampledDeltasEnd = new ArrayList<HashMap<Integer, Integer>>();
+		RealODMatrix theta = this.thetaEstimate;
+		HashMap<Integer, Double> thetaStart = this.thetaEstimateStart;
+		HashMap<Integer, Double> thetaEnd = this.thetaEstimateEnd;
+		losses.add(rna -> this.lossFunction(rna, theta, thetaStart, thetaEnd));
+		for (int sample = 0; sample < this.gradientSamples; sample++) {
+			generateDeltas(thetaEstimate.getKeySet());
+			RealODMatrix thetaPlus = this.shiftTheta(this.thetaEstimate, ck1, this.deltas);
+			RealODMatrix thetaMinus = this.shiftTheta(this.thetaEstimate, -1 * ck1, this.deltas);
+			HashMap<Integer, Double> thetaStartPlus = shiftTheta(this.thetaEstimateStart, ck2, this.deltasStart, true);
+			HashMap<Integer, Double> thetaEndPlus = shiftTheta(this.thetaEstimateEnd, ck2, this.deltasEnd, false);
+			HashMap<Integer, Double> thetaStartMinus = shiftTheta(this.thetaEstimateStart, -1 * ck2, this.deltasStart, true);
+			HashMap<Integer, Double> thetaEndMinus = shiftTheta(this.thetaEstimateEnd, -1 * ck2, this.deltasEnd, false);
+			losses.add(rna -> this.lossFunction(rna, thetaPlus, thetaStartPlus, thetaEndPlus));
+			losses.add(rna -> this.lossFunction(rna, thetaMinus, thetaStartMinus, thetaEndMinus));
+			sampledDeltas.add(this.deltas.clone());
+			sampledDeltasStart.add(new HashMap<Integer, Integer>(this.deltasStart));
+			sampledDeltasEnd.add(new HashMap<Integer, Integer>(this.deltasEnd));
+		}
+		
+		//evaluate loss functions
+		double[] y = this.evaluator.evaluate(losses);
+		//store
+		this.lossFunctionValues.add(y[0]);
+		
+		//approximate gradient (averaged over the samples)
+		RealODMatrix averageGradient = new RealODMatrix();
+		this.gradientApproximationStart = new HashMap<Integer, Double>();
+		this.gradientApproximationEnd = new HashMap<Integer, Double>();
+		HashMap<Integer, Double> gradient = new HashMap<Integer, Double>();
+		for (int sample = 0; sample < this.gradientSamples; sample++) {
+			approximateGradient(y[2 * sample + 1], y[2 * sample + 2], ck1, sampledDeltas.get(sample));
+			for (MultiKey mk: this.gradientApproximation.getKeySet()) {
+				String origin = (String) mk.getKey(0);
+				String destination = (String) mk.getKey(1);
+				double grad = averageGradient.getFlow(origin, destination) + this.gradientApproximation.getFlow(origin, destination) / this.gradientSamples;
+				averageGradient.setFlow(origin, destination, grad);
+			}
+			approximateGradient(gradient, y[2 * sample + 1], y[2 * sample + 2], ck2, sampledDeltasStart.get(sample));
+			for (Integer nodeID: gradient.keySet())
+				this.gradientApproximationStart.merge(nodeID, gradient.get(nodeID) / this.gradientSamples, Double::sum);
+			approximateGradient(gradient, y[2 * sample + 1], y[2 * sample + 2], ck2, sampledDeltasEnd.get(sample));
+			for (Integer nodeID: gradient.keySet())
+				this.gradientApproximationEnd.merge(nodeID, gradient.get(nodeID) / this.gradientSamples, Double::sum);
+		}
+		this.gradientApproximation = averageGradient;
+		
+		//estimate new theta
+		this.updateThetaEstimate(this.thetaEstimate, ak1, this.gradientApproximation);
+		updateThetaEstimate(this.thetaEstimateStart, ak2, this.gradientApproximationStart, true);
+		updateThetaEstimate(this.thetaEstimateEnd, ak2, this.gradientApproximationEnd, false);
+	}
+	
 	/**
 	 * Getter function for loss function evaluations for all iterations.
 	 * @return Loss function evaluations for all iterations.
@@ -391,11 +483,13 @@ public class SPSA3 {
 		
 	/**
 	 * Calculate the loss function for given thetas (OD matrix and node probabilities).
+	 * @param rna Road network assignment.
+	 * @param theta OD matrix.
 	 * @param thetaStart Start node probabilities.
 	 * @param thestEnd End node probabilities.
 	 * @return RMSN for the difference between volumes and traffic counts.
 	 */
-	private double lossFunction(RealODMatrix theta, HashMap<Integer, Double> thetaStart, HashMap<Integer, Double> thetaEnd) {
+	private double lossFunction(RoadNetworkAssignment rna, RealODMatrix theta, HashMap<Integer, Double> thetaStart, HashMap<Integer, Double> thetaEnd) {
 		
 		//round values
 		ODMatrixMultiKey odm = new ODMatrixMultiKey(theta);
@@ -426,7 +520,7 @@ public class SPSA3 {
 	 */
 	public double lossFunction() {
 		
-		return lossFunction(this.thetaEstimate, this.thetaEstimateStart, this.thetaEstimateEnd);
+		return lossFunction(this.rna, this.thetaEstimate, this.thetaEstimateStart, this.thetaEstimateEnd);
 	}
 	
 	/**
@@ -45,6 +45,9 @@ public class SPSA4 {
 	private Zoning zoning;
 	private RouteSetGenerator rsg;
 	private Properties props;
+	
+	private ParallelLossEvaluator evaluator; //null if the losses are evaluated sequentially
+	private int gradientSamples = 1; //number of deltas used for the gradient approximation in the parallel evaluation
 
 	public SPSA4(Properties props) {
 		this.props = props;
@@ -80,6 +83,22 @@ public class SPSA4 {
 		this.gamma = gamma;
 	}
 		
+	/**
+	 * Makes the algorithm evaluate the losses of each iteration (for the current theta and the shifted thetas) in parallel,
+	 * on copies of the road network assignment, and average the gradient approximation over several samples of deltas.
+	 * Each evaluation starts from the link travel times of the previous iteration (which are then updated by the evaluation of the current theta).
+	 * The results are reproducible for a fixed seed, but differ from the sequential evaluation (random numbers are drawn differently).
+	 * Must be called after the initialisation.
+	 * @param threads Number of threads.
+	 * @param gradientSamples Number of samples of deltas for the gradient approximation.
+	 */
+	public void setParallelEvaluation(int threads, int gradientSamples) {
+		
+		//routes found with aStar are added to the shared route set generator after each parallel evaluation
+		this.evaluator = new ParallelLossEvaluator(this.rna, this.rsg, threads);
+		this.gradientSamples = Math.max(1, gradientSamples);
+	}
+		
 	/**
 	 * Run the algorithm.
 	 * @param maxIterations Maximum number of iterations.
@@ -89,8 +108,13 @@ public class SPSA4 {
 		int k = 1; //counter
 
 		do {
+			if (this.evaluator != null) {
+				this.runParallelIteration(k++);
+				continue;
+			}
+			
 			//evaluate loss function for the current theta
-			double loss = this.lossFunction(thetaEstimate);
+			double loss = this.lossFunction(this.rna, thetaEstimate);
 
 			//store
 			this.lossFunctionValues.add(loss);
@@ -115,8 +139,8 @@ public class SPSA4 {
 			//thetaMinus.printMatrixFormatted("Theta minus: ");
 			
 			//evaluate loss function
-			double yPlus = this.lossFunction(thetaPlus);
-			double yMinus = this.lossFunction(thetaMinus);
+			double yPlus = this.lossFunction(this.rna, thetaPlus);
+			double yMinus = this.lossFunction(this.rna, thetaMinus);
 			//System.out.printf("yPlus = %.5f, yMinus = %.5f %n", yPlus, yMinus);
 						
 			//approximate gradient
@@ -133,7 +157,7 @@ public class SPSA4 {
 		} while (k <= maxIterations);
 		
 		//evaluate loss function for the final theta
-		double loss = this.lossFunction(thetaEstimate);
+		double loss = this.lossFunction(this.rna, thetaEstimate);
 		//store
 		this.lossFunctionValues.add(loss);
 		
@@ -144,6 +168,57 @@ public class SPSA4 {
 		LOGGER.info("SPSA stopped. Maximum number of iterations reached.");
 	}
 	
+	/**
+	 * Runs one iteration of the algorithm with the losses evaluated in parallel.
+	 * @param k Iteration counter.
+	 */
+	private void runParallelIteration(int k) {
+		
+		//calculate gain coefficients
+		double ak = a / Math.pow(A + k, alpha);
+		double ck = c / Math.pow(k, gamma);
+		System.out.printf("ak = %.5f, ck = %.5f %n", ak, ck);
+		
+		//loss for the current theta, followed by the losses for the shifted thetas of each sample of deltas
+		List<ParallelLossEvaluator.Loss> losses = new ArrayList<ParallelLossEvaluator.Loss>();
+		List<RealODMatrixTempro> shiftedThetas = new ArrayList<RealODMatrixTempro>();
+		RealODMatrixTempro theta = this.thetaEstimate;
+		losses.add(rna -> this.lossFunction(rna, theta));
+		for (int sample = 0; sample < this.gradientSamples; sample++) {
+			this.generateDeltas(thetaEstimate.getUnsortedOrigins(), thetaEstimate.getUnsortedDestinations());
+			RealODMatrixTempro thetaPlus = this.shiftTheta(thetaEstimate, ck, deltas);
+			RealODMatrixTempro thetaMinus = this.shiftTheta(thetaEstimate, -1 * ck, deltas);
+			losses.add(rna -> this.lossFunction(rna, thetaPlus));
+			losses.add(rna -> this.lossFunction(rna, thetaMinus));
+			shiftedThetas.add(thetaPlus);
+			shiftedThetas.add(thetaMinus);
+		}
+		
+		//evaluate loss functions (the current theta is evaluated on this.rna)
+		double[] y = this.evaluator.evaluate(losses);
+		//store
+		this.lossFunctionValues.add(y[0]);
+		
+		this.rna.printRMSNstatistic();
+		this.rna.printGEHstatistic();
+		LOGGER.debug("Iteration {} loss function = {}", k, y[0]);
+		
+		//approximate gradient (averaged over the samples)
+		RealODMatrixTempro averageGradient = new RealODMatrixTempro(zoning);
+		for (int sample = 0; sample < this.gradientSamples; sample++) {
+			this.approximateGradientActualChangeInX(y[2 * sample + 1], y[2 * sample + 2], shiftedThetas.get(2 * sample), shiftedThetas.get(2 * sample + 1));
+			for (String origin: gradientApproximation.getUnsortedOrigins())
+				for (String destination: gradientApproximation.getUnsortedDestinations()) {
+					double grad = averageGradient.getFlow(origin, destination) + gradientApproximation.getFlow(origin, destination) / this.gradientSamples;
+					averageGradient.setFlow(origin, destination, grad);
+				}
+		}
+		this.gradientApproximation = averageGradient;
+		
+		//estimate new theta
+		this.updateThetaEstimate(thetaEstimate, ak, gradientApproximation);
+	}
+	
 	/**
 	 * @return Loss function evaluations for all iterations.
 	 */
@@ -210,10 +285,11 @@ public class SPSA4 {
 		
 	/**
 	 * Calculate the loss function for a given theta (OD matrix).
+	 * @param rna Road network assignment.
 	 * @param theta OD matrix.
 	 * @return loss function based on the percentage of edges with invalid/valid GEH statistic.
 	 */
-	private double lossFunction(RealODMatrixTempro theta) {
+	private double lossFunction(RoadNetworkAssignment rna, RealODMatrixTempro theta) {
 		
 		//reset as we are re-using the same road network assignment
 		rna.resetLinkVolumes();
@@ -222,9 +298,7 @@ public class SPSA4 {
 		//assign passenger flows
 		rna.assignPassengerFlowsRouteChoiceTemproDistanceBased(theta, zoning, rsg, props); //routing version with tempro zones
 
-		rna.updateLinkVolumeInPCU();
-		rna.updateLinkVolumeInPCUPerTimeOfDay();
-		rna.updateLinkVolumePerVehicleType(); //used in RMSN calculation
+		rna.updateLinkVolumes(); //used in RMSN calculation
 		rna.updateLinkTravelTimes(0.9);
 		
 		//calculate GEH
@@ -257,7 +331,7 @@ public class SPSA4 {
 	 */
 	public double lossFunction() {
 		
-		return lossFunction(this.thetaEstimate);
+		return lossFunction(this.rna, this.thetaEstimate);
 	}
 	
 	/**
@@ -45,7 +45,6 @@ import javax.swing.plaf.ColorUIResource;
 import javax.swing.table.DefaultTableModel;
 import javax.swing.table.TableCellRenderer;
 
-import org.apache.commons.collections4.keyvalue.MultiKey;
 import org.apache.commons.imaging.ImageReadException;
 import org.apache.commons.imaging.Imaging;
 import org.geotools.brewer.color.BrewerPalette;
@@ -422,11 +421,11 @@ public class CongestionChargingDashboard extends JFrame {
 
 
 					//for each OD pair predict the change in passenger vehicle flow from the change in skim matrices
-					for (MultiKey mk: odm.getKeySet()) {
-						String originZone = (String) mk.getKey(0);
-						String destinationZone = (String) mk.getKey(1);
+					for (ODMatrixMultiKey.Cursor cell = odm.cursor(); cell.next(); ) {
+						String originZone = cell.getOrigin();
+						String destinationZone = cell.getDestination();
 
-						double oldFlow = odm.getFlow(originZone, destinationZone);
+						double oldFlow = cell.getFlow();
 
 						double oldODTravelTime = tsmBefore.getCost(originZone, destinationZone);
 						double newODTravelTime = tsm.getCost(originZone, destinationZone);
@@ -545,18 +544,18 @@ public class CongestionChargingDashboard extends JFrame {
 
 
 					//update bar chart
-		//			barDataset.addValue(rnaBefore.getTripList().size(), "No intervention", "Total Trips");
-					barDataset.addValue(rnaAfterCongestionCharging.getTripList().size(), "Congestion charging", "Total Trips");
+		//			barDataset.addValue(rnaBefore.getTripTable().size(), "No intervention", "Total Trips");
+					barDataset.addValue(rnaAfterCongestionCharging.getTripTable().size(), "Congestion charging", "Total Trips");
 
 					double sumThroughBefore = 0.0, sumOutsideBefore = 0.0;
-					for (Trip t: rnaBefore.getTripList())
+					for (Trip t: rnaBefore.getTripTable().scan())
 						if (t.isTripGoingThroughCongestionChargingZone(policyName, congestionCharges))
 							sumThroughBefore++;
 						else
 							sumOutsideBefore++;
 
 					double sumThrough = 0.0, sumOutside = 0.0;
-					for (Trip t: rnaAfterCongestionCharging.getTripList())
+					for (Trip t: rnaAfterCongestionCharging.getTripTable().scan())
 						if (t.isTripGoingThroughCongestionChargingZone(policyName, congestionCharges))
 							sumThrough++;
 						else
@@ -1151,7 +1150,7 @@ public class CongestionChargingDashboard extends JFrame {
 		rnaBefore.updateLinkVolumeInPCUPerTimeOfDay();
 
 		//update bar chart
-		barDataset.addValue(rnaBefore.getTripList().size(), "No intervention", "Total Trips");
+		barDataset.addValue(rnaBefore.getTripTable().size(), "No intervention", "Total Trips");
 		
 		
 		tsmBefore = rnaBefore.calculateTimeSkimMatrix();
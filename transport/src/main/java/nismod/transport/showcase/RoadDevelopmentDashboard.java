@@ -49,7 +49,6 @@ import javax.swing.plaf.ColorUIResource;
 import javax.swing.table.DefaultTableModel;
 import javax.swing.table.TableCellRenderer;
 
-import org.apache.commons.collections4.keyvalue.MultiKey;
 import org.apache.commons.imaging.ImageReadException;
 import org.apache.commons.imaging.Imaging;
 import org.geotools.brewer.color.BrewerPalette;
@@ -486,11 +485,11 @@ public class RoadDevelopmentDashboard extends JFrame {
 				tsm.printMatrixFormatted();
 
 				//for each OD pair predict the change in passenger vehicle flow from the change in skim matrices
-				for (MultiKey mk: odm.getKeySet()) {
-					String originZone = (String) mk.getKey(0);
-					String destinationZone = (String) mk.getKey(1);
+				for (ODMatrixMultiKey.Cursor cell = odm.cursor(); cell.next(); ) {
+					String originZone = cell.getOrigin();
+					String destinationZone = cell.getDestination();
 
-					double oldFlow = odm.getFlow(originZone, destinationZone);
+					double oldFlow = cell.getFlow();
 
 					double oldODTravelTime = tsmBefore.getCost(originZone, destinationZone);
 					double newODTravelTime = tsm.getCost(originZone, destinationZone);
@@ -513,7 +512,7 @@ public class RoadDevelopmentDashboard extends JFrame {
 				//SkimMatrix sm = rnaAfterDevelopment.calculateTimeSkimMatrix();
 
 				//update bar chart
-				//barDataset.addValue(rnaAfterDevelopment.getTripList().size(), "Road development", "Number of Trips");
+				//barDataset.addValue(rnaAfterDevelopment.getTripTable().size(), "Road development", "Number of Trips");
 				
 				double[] capacityAfter = rnaAfterDevelopment.calculateDirectionAveragedPeakLinkCapacityUtilisation();
 				HashMap<Integer, Double> capacityAfterMap = new HashMap<Integer, Double>();
@@ -601,12 +600,12 @@ public class RoadDevelopmentDashboard extends JFrame {
 
 				/*
 				//update bar chart
-				barDataset.addValue(rnaAfterDevelopment.getTripList().size(), "Road development", "Number of Trips");
+				barDataset.addValue(rnaAfterDevelopment.getTripTable().size(), "Road development", "Number of Trips");
 				//barDataset.addValue(predictedODM.getTotalFlow(), "Road expansion", "Number of Trips");
 				*/
 				
 				//update text cell with total demand
-				totalDemandAfter.setText(String.valueOf(rnaAfterDevelopment.getTripList().size()));
+				totalDemandAfter.setText(String.valueOf(rnaAfterDevelopment.getTripTable().size()));
 				
 				rd.uninstall(roadNetwork);
 
@@ -1279,7 +1278,7 @@ public class RoadDevelopmentDashboard extends JFrame {
 		rnaBefore.updateLinkVolumeInPCUPerTimeOfDay();
 
 		/*
-		barDataset.addValue(rnaBefore.getTripList().size(), "No intervention", "Number of Trips");
+		barDataset.addValue(rnaBefore.getTripTable().size(), "No intervention", "Number of Trips");
 		*/
 		
 		tsmBefore = rnaBefore.calculateTimeSkimMatrix();
@@ -1375,7 +1374,7 @@ public class RoadDevelopmentDashboard extends JFrame {
 		table_1.setModel(new DefaultTableModel(data2, labels2));	
 		
 		//update text cell with total demand
-		totalDemandBefore.setText(String.valueOf(rnaBefore.getTripList().size()));
+		totalDemandBefore.setText(String.valueOf(rnaBefore.getTripTable().size()));
 	
 	}
 	
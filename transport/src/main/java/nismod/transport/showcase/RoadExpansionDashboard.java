@@ -49,7 +49,6 @@ import javax.swing.plaf.ColorUIResource;
 import javax.swing.table.DefaultTableModel;
 import javax.swing.table.TableCellRenderer;
 
-import org.apache.commons.collections4.keyvalue.MultiKey;
 import org.apache.commons.imaging.ImageReadException;
 import org.apache.commons.imaging.Imaging;
 import org.apache.commons.lang3.tuple.Pair;
@@ -459,7 +458,7 @@ public class RoadExpansionDashboard extends JFrame {
 				rnaAfterExpansion.updateLinkTravelTimes(0.9);
 		
 				int count = 0;
-				for (Trip t: rnaAfterExpansion.getTripList()) {
+				for (Trip t: rnaAfterExpansion.getTripTable().scan()) {
 					//System.out.println(t);
 					if (t.getOriginLAD(roadNetwork.getNodeToZone()).equals("E07000086") &&
 						t.getDestinationLAD(roadNetwork.getNodeToZone()).equals("E06000045")) count++;		
@@ -483,11 +482,11 @@ public class RoadExpansionDashboard extends JFrame {
 
 
 				//for each OD pair predict the change in passenger vehicle flow from the change in skim matrices
-				for (MultiKey mk: odm.getKeySet()) {
-					String originZone = (String) mk.getKey(0);
-					String destinationZone = (String) mk.getKey(1);
+				for (ODMatrixMultiKey.Cursor cell = odm.cursor(); cell.next(); ) {
+					String originZone = cell.getOrigin();
+					String destinationZone = cell.getDestination();
 
-					double oldFlow = odm.getFlow(originZone, destinationZone);
+					double oldFlow = cell.getFlow();
 
 					double oldODTravelTime = tsmBefore.getCost(originZone, destinationZone);
 					double newODTravelTime = tsm.getCost(originZone, destinationZone);
@@ -608,12 +607,12 @@ public class RoadExpansionDashboard extends JFrame {
 
 				/*
 				//update bar chart
-				barDataset.addValue(rnaAfterExpansion.getTripList().size(), "Road expansion", "Number of Trips");
+				barDataset.addValue(rnaAfterExpansion.getTripTable().size(), "Road expansion", "Number of Trips");
 				//barDataset.addValue(predictedODM.getTotalFlow(), "Road expansion", "Number of Trips");
 				*/
 				
 				//update text cell with total demand
-				totalDemandAfter.setText(String.valueOf(rnaAfterExpansion.getTripList().size()));
+				totalDemandAfter.setText(String.valueOf(rnaAfterExpansion.getTripTable().size()));
 				
 				if (FLAG_EXPAND_MORE_LINKS == false) {
 					re.uninstall(roadNetwork);
@@ -1271,7 +1270,7 @@ public class RoadExpansionDashboard extends JFrame {
 		rnaBefore.updateLinkVolumeInPCUPerTimeOfDay();
 
 		/*
-		barDataset.addValue(rnaBefore.getTripList().size(), "No intervention", "Number of Trips");
+		barDataset.addValue(rnaBefore.getTripTable().size(), "No intervention", "Number of Trips");
 		*/
 		
 		tsmBefore = rnaBefore.calculateTimeSkimMatrix();
@@ -1368,7 +1367,7 @@ public class RoadExpansionDashboard extends JFrame {
 		table_1.setModel(new DefaultTableModel(data2, labels2));	
 		
 		//update text cell with total demand
-		totalDemandBefore.setText(String.valueOf(rnaBefore.getTripList().size()));
+		totalDemandBefore.setText(String.valueOf(rnaBefore.getTripTable().size()));
 	
 	}
 	
@@ -0,0 +1,175 @@
+package nismod.transport.utility;
+
+import java.util.function.DoubleSupplier;
+
+/**
+ * Immutable sampler from a discrete probability distribution, based on the Walker's alias method (Vose's variant).
+ * The table is built in O(n) and each sample takes O(1) time and consumes a single random number.
+ * Outcomes with zero (or negative) weight are left out of the table, so they can never be sampled.
+ * @author Milan Lovric
+ *
+ */
+public class AliasSampler {
+
+	private final int[] outcome; //outcome of each column
+	private final double[] probability; //probability of keeping the column outcome (otherwise the alias is chosen)
+	private final int[] alias; //column of the alias outcome
+	private final double[] outcomeProbability; //normalised probability of the column outcome
+
+	/**
+	 * Constructor for outcomes 0 to weights.length-1 (e.g. enum ordinals).
+	 * @param weights Weights of the outcomes (do not need to be normalised).
+	 */
+	public AliasSampler(double[] weights) {
+
+		this(null, weights);
+	}
+
+	/**
+	 * Constructor.
+	 * @param outcomes Outcomes (e.g. node IDs), or null for outcomes 0 to weights.length-1.
+	 * @param weights Weights of the outcomes (do not need to be normalised).
+	 */
+	public AliasSampler(int[] outcomes, double[] weights) {
+
+		if (outcomes != null && outcomes.length != weights.length)
+			throw new IllegalArgumentException("The number of outcomes and weights must be the same.");
+
+		//keep only the outcomes with positive weight
+		int n = 0;
+		double sum = 0.0;
+		for (int i = 0; i < weights.length; i++)
+			if (weights[i] > 0.0) {
+				n++;
+				sum += weights[i];
+			}
+		this.outcome = new int[n];
+		this.probability = new double[n];
+		this.alias = new int[n];
+		this.outcomeProbability = new double[n];
+
+		//scaled probabilities (the average column is 1.0)
+		double[] scaled = new double[n];
+		int column = 0;
+		for (int i = 0; i < weights.length; i++)
+			if (weights[i] > 0.0) {
+				this.outcome[column] = (outcomes == null) ? i : outcomes[i];
+				this.outcomeProbability[column] = weights[i] / sum;
+				scaled[column] = weights[i] * n / sum;
+				column++;
+			}
+
+		//work lists of columns that are under-full and over-full
+		int[] small = new int[n];
+		int[] large = new int[n];
+		int smallSize = 0, largeSize = 0;
+		for (int i = 0; i < n; i++)
+			if (scaled[i] < 1.0) small[smallSize++] = i;
+			else 				 large[largeSize++] = i;
+
+		//fill each under-full column with the alias of an over-full column
+		while (smallSize > 0 && largeSize > 0) {
+			int less = small[--smallSize];
+			int more = large[--largeSize];
+			this.probability[less] = scaled[less];
+			this.alias[less] = more;
+			scaled[more] = (scaled[more] + scaled[less]) - 1.0;
+			if (scaled[more] < 1.0) small[smallSize++] = more;
+			else 					large[largeSize++] = more;
+		}
+		//what is left is full up to the rounding errors
+		while (largeSize > 0) {
+			int more = large[--largeSize];
+			this.probability[more] = 1.0;
+			this.alias[more] = more;
+		}
+		while (smallSize > 0) {
+			int less = small[--smallSize];
+			this.probability[less] = 1.0;
+			this.alias[less] = less;
+		}
+	}
+
+	/**
+	 * Samples an outcome.
+	 * @param random Random number between 0 and 1.
+	 * @return Sampled outcome, or -1 if there is no outcome with positive weight.
+	 */
+	public int sample(double random) {
+
+		final int n = this.outcome.length;
+		if (n == 0) return -1;
+
+		//integer part selects the column, fractional part decides between the column outcome and its alias
+		final double x = random * n;
+		int column = (int) x;
+		if (column >= n) column = n - 1;
+		return (x - column < this.probability[column]) ? this.outcome[column] : this.outcome[this.alias[column]];
+	}
+
+	/**
+	 * Samples an outcome from the distribution without one outcome (other probabilities are implicitly rescaled).
+	 * Uses rejection sampling, so it may consume more than one random number.
+	 * @param random Generator of random numbers between 0 and 1.
+	 * @param excluded Outcome that cannot be sampled.
+	 * @return Sampled outcome, or -1 if there is no other outcome with positive weight.
+	 */
+	public int sampleExcluding(DoubleSupplier random, int excluded) {
+
+		final int n = this.outcome.length;
+		if (n == 0 || (n == 1 && this.outcome[0] == excluded)) return -1;
+
+		int sampled;
+		do {
+			sampled = this.sample(random.getAsDouble());
+		} while (sampled == excluded);
+
+		return sampled;
+	}
+
+	/**
+	 * @return Number of outcomes with positive weight.
+	 */
+	public int size() {
+
+		return this.outcome.length;
+	}
+
+	/**
+	 * @param index Index of the outcome (from 0 to size()-1).
+	 * @return Outcome.
+	 */
+	public int getOutcome(int index) {
+
+		return this.outcome[index];
+	}
+
+	/**
+	 * @param index Index of the outcome (from 0 to size()-1).
+	 * @return Normalised probability of the outcome.
+	 */
+	public double getProbability(int index) {
+
+		return this.outcomeProbability[index];
+	}
+
+	/**
+	 * Gets the normalised probabilities of all the outcomes (e.g. for multinomial sampling), without copying them.
+	 * @return Probabilities in the order of the outcome indices (the array is shared and must not be modified).
+	 */
+	public double[] getProbabilities() {
+
+		return this.outcomeProbability;
+	}
+
+	/**
+	 * @param outcome Outcome.
+	 * @return Index of the outcome, or -1 if the outcome cannot be sampled.
+	 */
+	public int indexOf(int outcome) {
+
+		for (int i = 0; i < this.outcome.length; i++)
+			if (this.outcome[i] == outcome) return i;
+		return -1;
+	}
+}
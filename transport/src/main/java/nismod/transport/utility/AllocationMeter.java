@@ -0,0 +1,48 @@
+package nismod.transport.utility;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Measures the heap memory allocated by the current thread (if supported by the JVM), e.g. for reporting
+ * the allocations of the demand prediction iterations. Allocations of other threads (such as the worker threads
+ * of a parallel assignment) are not included.
+ * @author Milan Lovric
+ *
+ */
+public final class AllocationMeter {
+
+	private static final com.sun.management.ThreadMXBean THREAD_MX_BEAN;
+
+	static {
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		com.sun.management.ThreadMXBean allocationBean = null;
+		if (bean instanceof com.sun.management.ThreadMXBean) {
+			allocationBean = (com.sun.management.ThreadMXBean) bean;
+			if (!allocationBean.isThreadAllocatedMemorySupported()) allocationBean = null;
+			else if (!allocationBean.isThreadAllocatedMemoryEnabled()) allocationBean.setThreadAllocatedMemoryEnabled(true);
+		}
+		THREAD_MX_BEAN = allocationBean;
+	}
+
+	private AllocationMeter() {
+	}
+
+	/**
+	 * @return True if the allocated memory can be measured.
+	 */
+	public static boolean isSupported() {
+
+		return THREAD_MX_BEAN != null;
+	}
+
+	/**
+	 * Gets the total number of bytes allocated by the current thread so far.
+	 * @return Allocated bytes (or -1 if not supported).
+	 */
+	public static long getAllocatedBytes() {
+
+		if (THREAD_MX_BEAN == null) return -1;
+		return THREAD_MX_BEAN.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+}
@@ -0,0 +1,86 @@
+package nismod.transport.utility;
+
+import java.util.function.DoubleSupplier;
+
+import org.apache.commons.math3.distribution.BinomialDistribution;
+
+/**
+ * Draws counts from binomial and multinomial distributions, so that a number of trials can be distributed
+ * among the outcomes in bulk, instead of sampling each trial separately.
+ * @author Milan Lovric
+ *
+ */
+public class MultinomialSampler {
+
+	private static final double INVERSION_MEAN_LIMIT = 30.0; //largest mean for which the sequential inversion is used
+
+	private MultinomialSampler() {
+	}
+
+	/**
+	 * Draws the number of successes from a binomial distribution.
+	 * @param trials Number of trials.
+	 * @param probability Probability of success.
+	 * @param random Generator of random numbers between 0 and 1.
+	 * @return Number of successes.
+	 */
+	public static int binomial(int trials, double probability, DoubleSupplier random) {
+
+		if (trials <= 0 || !(probability > 0.0)) return 0;
+		if (probability >= 1.0) return trials;
+		if (probability > 0.5) return trials - binomial(trials, 1.0 - probability, random);
+
+		if (trials * probability < INVERSION_MEAN_LIMIT) {
+			//sequential search through the probability mass function (expected number of steps is close to the mean)
+			final double q = 1.0 - probability;
+			final double s = probability / q;
+			final double a = (trials + 1) * s;
+			double r = Math.pow(q, trials);
+			double u = random.getAsDouble();
+			int x = 0;
+			while (u > r && x < trials) {
+				u -= r;
+				x++;
+				r *= (a / x - s);
+			}
+			return x;
+		}
+
+		//inverse of the cumulative distribution function
+		return new BinomialDistribution(null, trials, probability).inverseCumulativeProbability(random.getAsDouble());
+	}
+
+	/**
+	 * Draws the counts of the outcomes from a multinomial distribution (as a sequence of conditional binomial draws).
+	 * @param trials Number of trials.
+	 * @param probabilities Probabilities of the outcomes (do not need to be normalised, non-positive values are treated as zero).
+	 * @param random Generator of random numbers between 0 and 1.
+	 * @return Count for each outcome (all zeros if no outcome has positive probability).
+	 */
+	public static int[] multinomial(int trials, double[] probabilities, DoubleSupplier random) {
+
+		int[] counts = new int[probabilities.length];
+
+		double remainingProbability = 0.0;
+		int lastOutcome = -1;
+		for (int i = 0; i < probabilities.length; i++)
+			if (probabilities[i] > 0.0) {
+				remainingProbability += probabilities[i];
+				lastOutcome = i;
+			}
+
+		int remainingTrials = trials;
+		for (int i = 0; i < probabilities.length && remainingTrials > 0; i++) {
+			if (!(probabilities[i] > 0.0)) continue;
+			if (i == lastOutcome) { //all the remaining trials
+				counts[i] = remainingTrials;
+				break;
+			}
+			counts[i] = binomial(remainingTrials, probabilities[i] / remainingProbability, random);
+			remainingTrials -= counts[i];
+			remainingProbability -= probabilities[i];
+		}
+
+		return counts;
+	}
+}
@@ -0,0 +1,129 @@
+package nismod.transport.utility;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+import org.locationtech.jts.geom.Point;
+import org.locationtech.jts.index.strtree.ItemBoundable;
+import org.locationtech.jts.index.strtree.ItemDistance;
+import org.locationtech.jts.index.strtree.STRtree;
+
+/**
+ * Spatial index (STR-tree) of node locations for nearest and k-nearest node queries.
+ * Instead of scanning all the nodes for each query point, a query takes roughly logarithmic time in the number of nodes.
+ * @author Milan Lovric
+ *
+ */
+public class NearestNodeIndex {
+
+	private final int[] nodeIDs; //node ID for each position (in the order in which nodes were provided)
+	private final Point[] points; //node location for each position
+	private final STRtree tree; //items are positions in the arrays
+
+	//distance between the query point and an indexed node
+	private final ItemDistance pointDistance = new ItemDistance() {
+		@Override
+		public double distance(ItemBoundable item1, ItemBoundable item2) {
+			Point p1 = (item1.getItem() instanceof Point) ? (Point) item1.getItem() : points[(Integer) item1.getItem()];
+			Point p2 = (item2.getItem() instanceof Point) ? (Point) item2.getItem() : points[(Integer) item2.getItem()];
+			return p1.distance(p2);
+		}
+	};
+
+	/**
+	 * Constructor.
+	 * @param nodeIDs Node IDs.
+	 * @param points Node locations (in the same order as node IDs).
+	 */
+	public NearestNodeIndex(int[] nodeIDs, Point[] points) {
+
+		if (nodeIDs.length != points.length)
+			throw new IllegalArgumentException("The number of node IDs and points must be the same.");
+
+		this.nodeIDs = nodeIDs.clone();
+		this.points = points.clone();
+		this.tree = new STRtree();
+		for (int i = 0; i < points.length; i++)
+			this.tree.insert(points[i].getEnvelopeInternal(), i);
+		this.tree.build();
+	}
+
+	/**
+	 * Finds the nearest node (if several nodes are equally near, the one with the lowest ID).
+	 * @param point Query point.
+	 * @return ID of the nearest node, or null if the index is empty.
+	 */
+	public Integer getNearestNode(Point point) {
+
+		int[] nearest = this.getNearestNodes(point, 1);
+		return (nearest.length == 0) ? null : nearest[0];
+	}
+
+	/**
+	 * Finds k nearest nodes, sorted by the distance (ties are resolved by the lowest node ID).
+	 * If nodes are tied at the distance of the k-th node, more nodes are queried until all of them are compared,
+	 * so the result does not depend on the structure of the tree.
+	 * @param point Query point.
+	 * @param k Number of nodes.
+	 * @return IDs of (up to) k nearest nodes.
+	 */
+	public int[] getNearestNodes(Point point, int k) {
+
+		k = Math.min(k, this.nodeIDs.length);
+		if (k <= 0) return new int[0];
+
+		int queried = k;
+		while (true) {
+			Object[] items = this.tree.nearestNeighbour(point.getEnvelopeInternal(), point, this.pointDistance, queried);
+			final int[] positions = new int[items.length];
+			final double[] distances = new double[items.length];
+			Integer[] order = new Integer[items.length];
+			for (int i = 0; i < items.length; i++) {
+				positions[i] = (Integer) items[i];
+				distances[i] = point.distance(this.points[positions[i]]);
+				order[i] = i;
+			}
+			Arrays.sort(order, new Comparator<Integer>() {
+				@Override
+				public int compare(Integer i1, Integer i2) {
+					int result = Double.compare(distances[i1], distances[i2]);
+					return (result != 0) ? result : Integer.compare(nodeIDs[positions[i1]], nodeIDs[positions[i2]]);
+				}
+			});
+
+			//all the nodes tied with the k-th one are included if a farther node was also returned (or if all nodes were queried)
+			if (queried == this.nodeIDs.length || distances[order[order.length - 1]] > distances[order[k - 1]]) {
+				int[] nearest = new int[k];
+				for (int i = 0; i < k; i++) nearest[i] = this.nodeIDs[positions[order[i]]];
+				return nearest;
+			}
+			queried = (int) Math.min(2L * queried, this.nodeIDs.length);
+		}
+	}
+
+	/**
+	 * @param position Position of the node (from 0 to size()-1, in the order in which nodes were provided).
+	 * @return Node ID.
+	 */
+	public int getNodeID(int position) {
+
+		return this.nodeIDs[position];
+	}
+
+	/**
+	 * @param position Position of the node (from 0 to size()-1, in the order in which nodes were provided).
+	 * @return Node location.
+	 */
+	public Point getPoint(int position) {
+
+		return this.points[position];
+	}
+
+	/**
+	 * @return Number of indexed nodes.
+	 */
+	public int size() {
+
+		return this.nodeIDs.length;
+	}
+}
@@ -0,0 +1,125 @@
+package nismod.transport.utility;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Runs parallel tasks on a thread pool shared by the whole model (so the threads are reused between calls).
+ * The pool grows with the number of submitted tasks, so tasks can submit further tasks (e.g. a parallel assignment
+ * within a parallel loss evaluation) without waiting for each other. The degree of parallelism is given by the number of tasks.
+ * If any task fails or the calling thread is interrupted, the remaining tasks are cancelled and an {@link IllegalStateException}
+ * is thrown (with the interrupt status restored), as the results of the other tasks may be incomplete.
+ * @author Milan Lovric
+ *
+ */
+public final class ParallelTasks {
+
+	private final static Logger LOGGER = LogManager.getLogger(ParallelTasks.class);
+
+	/**
+	 * Calculation over a range of indices.
+	 */
+	public interface Range {
+
+		/**
+		 * @param from First index (inclusive).
+		 * @param to Last index (exclusive).
+		 */
+		void apply(int from, int to);
+	}
+
+	private static final AtomicInteger THREAD_COUNTER = new AtomicInteger();
+
+	//daemon threads, so the pool does not prevent the model from exiting
+	private static final ExecutorService POOL = Executors.newCachedThreadPool(runnable -> {
+		Thread thread = new Thread(runnable, "transport-parallel-" + THREAD_COUNTER.incrementAndGet());
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private ParallelTasks() {
+	}
+
+	/**
+	 * Runs the tasks in parallel (a single task is run in the calling thread, which throws its runtime exceptions unchanged).
+	 * @param tasks Tasks.
+	 * @param name Name of the computation (used in the error message).
+	 * @return Results of the tasks (in the same order as the tasks).
+	 */
+	public static <T> List<T> invokeAll(List<? extends Callable<T>> tasks, String name) {
+
+		List<T> results = new ArrayList<T>(tasks.size());
+		if (tasks.size() == 1) {
+			try {
+				results.add(tasks.get(0).call());
+			} catch (RuntimeException e) {
+				throw e;
+			} catch (Exception e) {
+				throw failure(name, e);
+			}
+			return results;
+		}
+
+		List<Future<T>> futures = new ArrayList<Future<T>>(tasks.size());
+		try {
+			for (Callable<T> task: tasks) futures.add(POOL.submit(task));
+			for (Future<T> future: futures) results.add(future.get()); //throws an exception if the task failed
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw failure(name, e);
+		} catch (ExecutionException e) {
+			throw failure(name, e.getCause());
+		} finally {
+			for (Future<T> future: futures) future.cancel(true); //no effect on the completed tasks
+		}
+		return results;
+	}
+
+	/**
+	 * Splits the range [0, size) into the given number of contiguous ranges and processes them in parallel.
+	 * @param size Size of the range.
+	 * @param ranges Number of ranges (threads).
+	 * @param range Calculation over a range of indices.
+	 * @param name Name of the computation (used in the error message).
+	 */
+	public static void forEachRange(int size, int ranges, Range range, String name) {
+
+		ranges = Math.max(1, Math.min(ranges, size));
+		if (ranges == 1) {
+			range.apply(0, size);
+			return;
+		}
+
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(ranges);
+		for (int r = 0; r < ranges; r++) {
+			final int from = (int) ((long) size * r / ranges);
+			final int to = (int) ((long) size * (r + 1) / ranges);
+			tasks.add(() -> {
+				range.apply(from, to);
+				return null;
+			});
+		}
+		invokeAll(tasks, name);
+	}
+
+	/**
+	 * Creates the exception thrown when a parallel computation fails.
+	 * @param name Name of the computation.
+	 * @param cause Cause of the failure.
+	 * @return Exception.
+	 */
+	private static IllegalStateException failure(String name, Throwable cause) {
+
+		LOGGER.error("Parallel {} failed.", name, cause);
+		return new IllegalStateException("Parallel " + name + " failed.", cause);
+	}
+}
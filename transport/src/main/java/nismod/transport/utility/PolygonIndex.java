@@ -0,0 +1,112 @@
+package nismod.transport.utility;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.Point;
+import org.locationtech.jts.geom.prep.PreparedGeometry;
+import org.locationtech.jts.geom.prep.PreparedGeometryFactory;
+import org.locationtech.jts.index.strtree.ItemBoundable;
+import org.locationtech.jts.index.strtree.ItemDistance;
+import org.locationtech.jts.index.strtree.STRtree;
+
+/**
+ * Spatial index (STR-tree of prepared geometries) of zone polygons for locating the zone that contains a point.
+ * Only the polygons whose envelope contains the point are tested, instead of all the polygons.
+ * @author Milan Lovric
+ *
+ * @param <T> Type of zone (e.g. zone code).
+ */
+public class PolygonIndex<T> {
+
+	private final List<T> zones; //zone of each polygon (in the order in which polygons were added)
+	private final List<PreparedGeometry> polygons;
+	private STRtree tree; //items are positions in the lists (built on the first query)
+
+	//distance between the query point and a polygon
+	private final ItemDistance polygonDistance = new ItemDistance() {
+		@Override
+		public double distance(ItemBoundable item1, ItemBoundable item2) {
+			Geometry g1 = (item1.getItem() instanceof Geometry) ? (Geometry) item1.getItem() : polygons.get((Integer) item1.getItem()).getGeometry();
+			Geometry g2 = (item2.getItem() instanceof Geometry) ? (Geometry) item2.getItem() : polygons.get((Integer) item2.getItem()).getGeometry();
+			return g1.distance(g2);
+		}
+	};
+
+	/**
+	 * Constructor.
+	 */
+	public PolygonIndex() {
+
+		this.zones = new ArrayList<T>();
+		this.polygons = new ArrayList<PreparedGeometry>();
+	}
+
+	/**
+	 * Adds a zone polygon (cannot be called after the first query).
+	 * @param polygon Polygon (or multipolygon) of the zone.
+	 * @param zone Zone.
+	 */
+	public void add(Geometry polygon, T zone) {
+
+		if (this.tree != null) throw new IllegalStateException("Polygons cannot be added after the index has been queried.");
+
+		this.zones.add(zone);
+		this.polygons.add(PreparedGeometryFactory.prepare(polygon));
+	}
+
+	/**
+	 * Finds the zone whose polygon contains the point. If more polygons contain the point,
+	 * the one that was added first is chosen (the same as when testing all polygons in order).
+	 * @param point Point.
+	 * @return Zone, or null if no polygon contains the point.
+	 */
+	public T locate(Point point) {
+
+		int first = Integer.MAX_VALUE;
+		for (Object item: this.getTree().query(point.getEnvelopeInternal())) {
+			int position = (Integer) item;
+			if (position < first && this.polygons.get(position).contains(point)) first = position;
+		}
+
+		return (first == Integer.MAX_VALUE) ? null : this.zones.get(first);
+	}
+
+	/**
+	 * Finds the zone whose polygon is the nearest to the point.
+	 * @param point Point.
+	 * @return Zone, or null if the index is empty.
+	 */
+	public T nearest(Point point) {
+
+		if (this.zones.isEmpty()) return null;
+
+		Object item = this.getTree().nearestNeighbour(point.getEnvelopeInternal(), point, this.polygonDistance);
+		return this.zones.get((Integer) item);
+	}
+
+	/**
+	 * @return Number of polygons.
+	 */
+	public int size() {
+
+		return this.zones.size();
+	}
+
+	/**
+	 * Builds the STR-tree when it is needed for the first time.
+	 * @return STR-tree.
+	 */
+	private STRtree getTree() {
+
+		if (this.tree == null) {
+			this.tree = new STRtree();
+			for (int i = 0; i < this.polygons.size(); i++)
+				this.tree.insert(this.polygons.get(i).getGeometry().getEnvelopeInternal(), i);
+			this.tree.build();
+		}
+
+		return this.tree;
+	}
+}
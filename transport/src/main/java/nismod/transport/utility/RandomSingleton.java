@@ -11,6 +11,8 @@ import org.apache.logging.log4j.Logger;
 /**
  * Creates only one instance of the random number generator that can be used throughout the whole model.
  * Simulation results can then be reproduced by using the same seed.
+ * A thread can temporarily use its own generator (see {@link #setThreadSeed(long)}), so that computations
+ * running in parallel (e.g. loss function evaluations) do not share the random number sequence.
  * @author Milan Lovric
  *
  */
@@ -19,6 +21,7 @@ public class RandomSingleton {
 	private final static Logger LOGGER = LogManager.getLogger(RandomSingleton.class);
 	
 	private static RandomSingleton instance;
+	private static final ThreadLocal<Random> threadGenerator = new ThreadLocal<Random>(); //overrides the global generator in the current thread
 	private Random generator;
 	
 	private RandomSingleton() {
@@ -43,7 +46,7 @@ public class RandomSingleton {
 	 */
 	public double nextDouble() { 
 	
-		return generator.nextDouble(); 
+		return this.getGenerator().nextDouble(); 
 	} 
 	
 	/**
@@ -53,7 +56,16 @@ public class RandomSingleton {
 	 */
 	public int nextInt(int bound) { 
 		
-		return generator.nextInt(bound); 
+		return this.getGenerator().nextInt(bound); 
+	}
+	
+	/**
+	 * Generates a pseudorandom long number.
+	 * @return Pseudorandom long.
+	 */
+	public long nextLong() { 
+		
+		return this.getGenerator().nextLong(); 
 	}
 	
 	/**
@@ -64,4 +76,30 @@ public class RandomSingleton {
 		
 		generator = new Random(seed);
 	}
+
+	/**
+	 * Makes the current thread use its own random number generator (instead of the global one).
+	 * @param seed Seed of the thread's random number generator.
+	 */
+	public static void setThreadSeed(long seed) {
+		
+		threadGenerator.set(new Random(seed));
+	}
+	
+	/**
+	 * Makes the current thread use the global random number generator again.
+	 */
+	public static void clearThreadSeed() {
+		
+		threadGenerator.remove();
+	}
+	
+	/**
+	 * @return Random number generator of the current thread (if set), otherwise the global one.
+	 */
+	private Random getGenerator() {
+		
+		Random local = threadGenerator.get();
+		return (local != null) ? local : this.generator;
+	}
 }
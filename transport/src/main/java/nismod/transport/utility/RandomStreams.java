@@ -0,0 +1,82 @@
+package nismod.transport.utility;
+
+import java.util.SplittableRandom;
+
+/**
+ * Provides independent random number streams for parallel computations.
+ * Each stream is determined only by the seed and the key of the task (e.g. origin, destination and iteration),
+ * so the results do not depend on the number of threads or on the order in which tasks are executed.
+ * @author Milan Lovric
+ *
+ */
+public class RandomStreams {
+
+	private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+	private final long seed;
+
+	/**
+	 * Constructor.
+	 * @param seed Seed from which all the streams are derived.
+	 */
+	public RandomStreams(long seed) {
+
+		this.seed = seed;
+	}
+
+	/**
+	 * Creates random streams with the seed drawn from the global random number generator,
+	 * so that the results remain reproducible after {@link RandomSingleton#setSeed(long)}.
+	 * @return Random streams.
+	 */
+	public static RandomStreams fromGlobalGenerator() {
+
+		return new RandomStreams(RandomSingleton.getInstance().nextLong());
+	}
+
+	/**
+	 * Getter method for the seed.
+	 * @return Seed from which all the streams are derived.
+	 */
+	public long getSeed() {
+
+		return this.seed;
+	}
+
+	/**
+	 * Gets the random number stream for a node pair.
+	 * @param origin Origin node ID.
+	 * @param destination Destination node ID.
+	 * @return Random number generator.
+	 */
+	public SplittableRandom getStream(int origin, int destination) {
+
+		return this.getStream(origin, destination, 0);
+	}
+
+	/**
+	 * Gets the random number stream for a node (or zone) pair in a given iteration.
+	 * The pair of IDs forms a unique 64-bit key, which is mixed with the seed and the iteration, so different pairs get different streams.
+	 * @param origin Origin node ID.
+	 * @param destination Destination node ID.
+	 * @param iteration Iteration (e.g. of the assignment loop).
+	 * @return Random number generator.
+	 */
+	public SplittableRandom getStream(int origin, int destination, int iteration) {
+
+		long key = ((long) origin << 32) | (destination & 0xFFFFFFFFL);
+		return new SplittableRandom(mix(mix(mix(this.seed + GOLDEN_GAMMA) ^ key) + iteration));
+	}
+
+	/**
+	 * Scrambles the bits of a value (finaliser of the SplitMix64 generator).
+	 * @param z Value.
+	 * @return Scrambled value.
+	 */
+	private static long mix(long z) {
+
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+}
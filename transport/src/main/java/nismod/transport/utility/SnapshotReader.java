@@ -0,0 +1,281 @@
+package nismod.transport.utility;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Reads a binary snapshot written by {@link SnapshotWriter}. The file is memory-mapped (in windows, so that
+ * snapshots larger than 2 GB can be read) and the values must be read in the same order in which they were written.
+ * @author Milan Lovric
+ *
+ */
+public class SnapshotReader implements Closeable {
+
+	private final static Logger LOGGER = LogManager.getLogger(SnapshotReader.class);
+
+	private static final int WINDOW_BYTES = 1 << 28; //size of the memory-mapped window
+
+	private final RandomAccessFile raf;
+	private final FileChannel channel;
+	private final long end; //end of the payload
+	private final int windowBytes;
+	private long windowStart; //file position of the current window
+	private MappedByteBuffer window;
+
+	private SnapshotReader(RandomAccessFile raf, long payloadLength, int windowBytes) {
+
+		this.raf = raf;
+		this.channel = raf.getChannel();
+		this.end = SnapshotWriter.HEADER_BYTES + payloadLength;
+		this.windowBytes = windowBytes;
+		this.windowStart = SnapshotWriter.HEADER_BYTES;
+	}
+
+	/**
+	 * Opens the snapshot if it exists and is valid: it has the current format version, it was
+	 * created from the inputs with the same fingerprint and its payload checksum is correct.
+	 * @param file Snapshot file.
+	 * @param fingerprint Fingerprint of the current inputs.
+	 * @return Snapshot reader, or null if the snapshot does not exist or is not valid.
+	 * @throws IOException if any.
+	 */
+	public static SnapshotReader open(File file, long fingerprint) throws IOException {
+
+		return open(file, fingerprint, WINDOW_BYTES);
+	}
+
+	/**
+	 * Opens the snapshot if it exists and is valid.
+	 * @param file Snapshot file.
+	 * @param fingerprint Fingerprint of the current inputs.
+	 * @param windowBytes Size of the memory-mapped window.
+	 * @return Snapshot reader, or null if the snapshot does not exist or is not valid.
+	 * @throws IOException if any.
+	 */
+	static SnapshotReader open(File file, long fingerprint, int windowBytes) throws IOException {
+
+		if (!file.isFile()) {
+			LOGGER.debug("Snapshot {} does not exist.", file);
+			return null;
+		}
+		if (file.length() < SnapshotWriter.HEADER_BYTES) {
+			LOGGER.warn("Snapshot {} is truncated and will be ignored.", file);
+			return null;
+		}
+
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		boolean valid = false;
+		try {
+			int magic = raf.readInt();
+			int version = raf.readInt();
+			long snapshotFingerprint = raf.readLong();
+			long payloadLength = raf.readLong();
+			long checksum = raf.readLong();
+
+			if (magic != SnapshotWriter.MAGIC) {
+				LOGGER.warn("File {} is not a snapshot and will be ignored.", file);
+				return null;
+			}
+			if (version != SnapshotWriter.FORMAT_VERSION) {
+				LOGGER.info("Snapshot {} has format version {} instead of {} and will be ignored.", file, version, SnapshotWriter.FORMAT_VERSION);
+				return null;
+			}
+			if (snapshotFingerprint != fingerprint) {
+				LOGGER.info("Snapshot {} was created from different inputs and will be ignored.", file);
+				return null;
+			}
+			if (payloadLength != file.length() - SnapshotWriter.HEADER_BYTES) {
+				LOGGER.warn("Snapshot {} has wrong length and will be ignored.", file);
+				return null;
+			}
+
+			SnapshotReader reader = new SnapshotReader(raf, payloadLength, windowBytes);
+			if (reader.calculateChecksum() != checksum) {
+				LOGGER.warn("Snapshot {} has wrong checksum and will be ignored.", file);
+				return null;
+			}
+			valid = true;
+			return reader;
+		} finally {
+			if (!valid) raf.close();
+		}
+	}
+
+	/**
+	 * Reads an int.
+	 * @return Value.
+	 * @throws IOException if any.
+	 */
+	public int readInt() throws IOException {
+
+		return this.ensure(4).getInt();
+	}
+
+	/**
+	 * Reads a long.
+	 * @return Value.
+	 * @throws IOException if any.
+	 */
+	public long readLong() throws IOException {
+
+		return this.ensure(8).getLong();
+	}
+
+	/**
+	 * Reads a double.
+	 * @return Value.
+	 * @throws IOException if any.
+	 */
+	public double readDouble() throws IOException {
+
+		return this.ensure(8).getDouble();
+	}
+
+	/**
+	 * Reads a string.
+	 * @return String (can be null).
+	 * @throws IOException if any.
+	 */
+	public String readString() throws IOException {
+
+		int length = this.readInt();
+		if (length < 0) return null;
+		byte[] bytes = new byte[length];
+		int offset = 0;
+		while (offset < length) {
+			int chunk = Math.min(length - offset, this.windowBytes);
+			this.ensure(chunk).get(bytes, offset, chunk);
+			offset += chunk;
+		}
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Reads an array of ints.
+	 * @return Array (can be null).
+	 * @throws IOException if any.
+	 */
+	public int[] readIntArray() throws IOException {
+
+		int length = this.readInt();
+		if (length < 0) return null;
+		int[] values = new int[length];
+		int offset = 0;
+		while (offset < length) {
+			int chunk = Math.min(length - offset, this.windowBytes / 4);
+			ByteBuffer buffer = this.ensure(chunk * 4);
+			buffer.asIntBuffer().get(values, offset, chunk);
+			buffer.position(buffer.position() + chunk * 4);
+			offset += chunk;
+		}
+		return values;
+	}
+
+	/**
+	 * Reads an array of doubles.
+	 * @return Array (can be null).
+	 * @throws IOException if any.
+	 */
+	public double[] readDoubleArray() throws IOException {
+
+		int length = this.readInt();
+		if (length < 0) return null;
+		double[] values = new double[length];
+		int offset = 0;
+		while (offset < length) {
+			int chunk = Math.min(length - offset, this.windowBytes / 8);
+			ByteBuffer buffer = this.ensure(chunk * 8);
+			buffer.asDoubleBuffer().get(values, offset, chunk);
+			buffer.position(buffer.position() + chunk * 8);
+			offset += chunk;
+		}
+		return values;
+	}
+
+	/**
+	 * Reads an array of strings.
+	 * @return Array (can be null).
+	 * @throws IOException if any.
+	 */
+	public String[] readStringArray() throws IOException {
+
+		int length = this.readInt();
+		if (length < 0) return null;
+		String[] values = new String[length];
+		for (int i = 0; i < length; i++) values[i] = this.readString();
+		return values;
+	}
+
+	/**
+	 * Reads a matrix of doubles.
+	 * @return Matrix (can be null).
+	 * @throws IOException if any.
+	 */
+	public double[][] readDoubleMatrix() throws IOException {
+
+		int length = this.readInt();
+		if (length < 0) return null;
+		double[][] values = new double[length][];
+		for (int i = 0; i < length; i++) values[i] = this.readDoubleArray();
+		return values;
+	}
+
+	/**
+	 * @return True if the whole payload has been read.
+	 */
+	public boolean isFullyRead() {
+
+		long position = (this.window == null) ? this.windowStart : this.windowStart + this.window.position();
+		return position == this.end;
+	}
+
+	@Override
+	public void close() throws IOException {
+
+		this.window = null;
+		this.raf.close();
+	}
+
+	/**
+	 * Makes sure that the current window contains the requested number of bytes (maps the next window if it does not).
+	 * @param bytes Number of bytes (not larger than the window).
+	 * @return Current window.
+	 * @throws IOException if the payload does not contain enough bytes.
+	 */
+	private ByteBuffer ensure(int bytes) throws IOException {
+
+		if (this.window == null || this.window.remaining() < bytes) {
+			long position = (this.window == null) ? this.windowStart : this.windowStart + this.window.position();
+			if (position + bytes > this.end) throw new IOException("Unexpected end of the snapshot.");
+			long size = Math.min((long) this.windowBytes, this.end - position);
+			this.window = this.channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+			this.windowStart = position;
+		}
+		return this.window;
+	}
+
+	/**
+	 * Calculates the checksum of the payload (window by window).
+	 * @return CRC32 checksum.
+	 * @throws IOException if any.
+	 */
+	private long calculateChecksum() throws IOException {
+
+		CRC32 crc = new CRC32();
+		for (long position = SnapshotWriter.HEADER_BYTES; position < this.end; position += this.windowBytes) {
+			long size = Math.min((long) this.windowBytes, this.end - position);
+			crc.update(this.channel.map(FileChannel.MapMode.READ_ONLY, position, size));
+		}
+		return crc.getValue();
+	}
+}
@@ -0,0 +1,228 @@
+package nismod.transport.utility;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Writes a binary snapshot of derived data (primitive values, arrays and matrices), so that it can be
+ * loaded quickly with {@link SnapshotReader} instead of being recalculated from the input files.
+ * The snapshot has a header with the format version, the fingerprint of the inputs and the checksum of the payload.
+ * The snapshot is written into a temporary file, which replaces the target file only when the snapshot is committed.
+ * @author Milan Lovric
+ *
+ */
+public class SnapshotWriter implements Closeable {
+
+	public static final int MAGIC = 0x4E54534E; //identifies snapshot files
+	public static final int FORMAT_VERSION = 1; //increase whenever the layout of any snapshot changes
+	public static final int HEADER_BYTES = 32; //magic (4), version (4), fingerprint (8), payload length (8), payload CRC32 (8)
+
+	private final File file;
+	private final File temporaryFile;
+	private final CheckedOutputStream checkedStream;
+	private final DataOutputStream out;
+	private long payloadLength;
+	private boolean committed;
+
+	/**
+	 * Constructor.
+	 * @param file Snapshot file.
+	 * @param fingerprint Fingerprint of the inputs from which the snapshot data was derived.
+	 * @throws IOException if any.
+	 */
+	public SnapshotWriter(File file, long fingerprint) throws IOException {
+
+		this.file = file;
+		File directory = file.getAbsoluteFile().getParentFile();
+		if (directory != null) directory.mkdirs();
+		this.temporaryFile = new File(file.getPath() + ".tmp");
+
+		FileOutputStream fileStream = new FileOutputStream(this.temporaryFile);
+		DataOutputStream header = new DataOutputStream(fileStream);
+		header.writeInt(MAGIC);
+		header.writeInt(FORMAT_VERSION);
+		header.writeLong(fingerprint);
+		header.writeLong(0L); //payload length (written on commit)
+		header.writeLong(0L); //payload checksum (written on commit)
+		header.flush();
+
+		this.checkedStream = new CheckedOutputStream(new BufferedOutputStream(fileStream, 1 << 16), new CRC32());
+		this.out = new DataOutputStream(this.checkedStream);
+	}
+
+	/**
+	 * Calculates the fingerprint (64-bit FNV-1a hash) of the inputs.
+	 * @param parts Inputs (their string representations are hashed).
+	 * @return Fingerprint.
+	 */
+	public static long fingerprint(Object... parts) {
+
+		long hash = 0xcbf29ce484222325L;
+		for (Object part: parts) {
+			byte[] bytes = String.valueOf(part).getBytes(StandardCharsets.UTF_8);
+			for (byte b: bytes) {
+				hash ^= (b & 0xff);
+				hash *= 0x100000001b3L;
+			}
+			hash ^= 0xff; //separator
+			hash *= 0x100000001b3L;
+		}
+		return hash;
+	}
+
+	/**
+	 * Describes the file by its path, size and last modification time (for the fingerprint of the inputs).
+	 * @param file File.
+	 * @return Description of the file.
+	 */
+	public static String describeFile(File file) {
+
+		if (file == null || !file.exists()) return "missing:" + file;
+		return file.getAbsolutePath() + ":" + file.length() + ":" + file.lastModified();
+	}
+
+	/**
+	 * Writes an int.
+	 * @param value Value.
+	 * @throws IOException if any.
+	 */
+	public void writeInt(int value) throws IOException {
+
+		this.out.writeInt(value);
+		this.payloadLength += 4;
+	}
+
+	/**
+	 * Writes a long.
+	 * @param value Value.
+	 * @throws IOException if any.
+	 */
+	public void writeLong(long value) throws IOException {
+
+		this.out.writeLong(value);
+		this.payloadLength += 8;
+	}
+
+	/**
+	 * Writes a double.
+	 * @param value Value.
+	 * @throws IOException if any.
+	 */
+	public void writeDouble(double value) throws IOException {
+
+		this.out.writeDouble(value);
+		this.payloadLength += 8;
+	}
+
+	/**
+	 * Writes a string (UTF-8).
+	 * @param value String (can be null).
+	 * @throws IOException if any.
+	 */
+	public void writeString(String value) throws IOException {
+
+		if (value == null) {
+			this.writeInt(-1);
+			return;
+		}
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		this.writeInt(bytes.length);
+		this.out.write(bytes);
+		this.payloadLength += bytes.length;
+	}
+
+	/**
+	 * Writes an array of ints.
+	 * @param values Array (can be null).
+	 * @throws IOException if any.
+	 */
+	public void writeIntArray(int[] values) throws IOException {
+
+		this.writeInt(values == null ? -1 : values.length);
+		if (values != null)
+			for (int value: values) this.writeInt(value);
+	}
+
+	/**
+	 * Writes an array of doubles.
+	 * @param values Array (can be null).
+	 * @throws IOException if any.
+	 */
+	public void writeDoubleArray(double[] values) throws IOException {
+
+		this.writeInt(values == null ? -1 : values.length);
+		if (values != null)
+			for (double value: values) this.writeDouble(value);
+	}
+
+	/**
+	 * Writes an array of strings.
+	 * @param values Array (can be null, as well as its elements).
+	 * @throws IOException if any.
+	 */
+	public void writeStringArray(String[] values) throws IOException {
+
+		this.writeInt(values == null ? -1 : values.length);
+		if (values != null)
+			for (String value: values) this.writeString(value);
+	}
+
+	/**
+	 * Writes a matrix of doubles (row by row).
+	 * @param values Matrix (can be null, as well as its rows).
+	 * @throws IOException if any.
+	 */
+	public void writeDoubleMatrix(double[][] values) throws IOException {
+
+		this.writeInt(values == null ? -1 : values.length);
+		if (values != null)
+			for (double[] row: values) this.writeDoubleArray(row);
+	}
+
+	/**
+	 * Completes the snapshot: writes the payload length and checksum into the header and replaces the target file.
+	 * @throws IOException if any.
+	 */
+	public void commit() throws IOException {
+
+		this.out.flush();
+		long checksum = this.checkedStream.getChecksum().getValue();
+		this.out.close();
+
+		try (RandomAccessFile raf = new RandomAccessFile(this.temporaryFile, "rw")) {
+			raf.seek(HEADER_BYTES - 16);
+			raf.writeLong(this.payloadLength);
+			raf.writeLong(checksum);
+		}
+
+		try {
+			Files.move(this.temporaryFile.toPath(), this.file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(this.temporaryFile.toPath(), this.file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+		this.committed = true;
+	}
+
+	/**
+	 * Closes the writer (the temporary file is deleted if the snapshot has not been committed).
+	 * @throws IOException if any.
+	 */
+	@Override
+	public void close() throws IOException {
+
+		if (this.committed) return;
+		this.out.close();
+		Files.deleteIfExists(this.temporaryFile.toPath());
+	}
+}
@@ -0,0 +1,87 @@
+package nismod.transport.zone;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of interned zone codes (e.g. LAD and TEMPro codes) used by the origin-destination and skim matrices.
+ * Each zone code is mapped to a unique integer ID (starting from 0, in the order of registration),
+ * so matrices can store their values in dense arrays and share the same zone indices.
+ * IDs are never removed and are valid for the lifetime of the application.
+ * @author Milan Lovric
+ *
+ */
+public final class ZoneCodeRegistry {
+
+	private static final ConcurrentHashMap<String, Integer> codeToID = new ConcurrentHashMap<String, Integer>();
+	private static volatile String[] idToCode = new String[1024];
+	private static volatile int size;
+
+	private ZoneCodeRegistry() {
+	}
+
+	/**
+	 * Gets the ID of a zone code, registering the code if it has not been registered yet.
+	 * @param code Zone code.
+	 * @return Zone ID.
+	 */
+	public static int getID(String code) {
+
+		Integer id = codeToID.get(code);
+		if (id != null) return id;
+		return register(code);
+	}
+
+	/**
+	 * Gets the ID of a zone code without registering it.
+	 * @param code Zone code.
+	 * @return Zone ID (or -1 if the code has not been registered).
+	 */
+	public static int lookupID(String code) {
+
+		if (code == null) return -1;
+		Integer id = codeToID.get(code);
+		if (id == null) return -1;
+		return id;
+	}
+
+	/**
+	 * Gets the zone code of an ID.
+	 * @param id Zone ID.
+	 * @return Zone code.
+	 */
+	public static String getCode(int id) {
+
+		return idToCode[id];
+	}
+
+	/**
+	 * @return Number of registered zone codes.
+	 */
+	public static int size() {
+
+		return size;
+	}
+
+	/**
+	 * Registers a zone code.
+	 * @param code Zone code.
+	 * @return Zone ID.
+	 */
+	private static synchronized int register(String code) {
+
+		if (code == null) throw new IllegalArgumentException("Zone code cannot be null.");
+
+		Integer id = codeToID.get(code);
+		if (id != null) return id; //registered by another thread
+
+		int newID = size;
+		String[] codes = idToCode;
+		if (newID == codes.length) codes = Arrays.copyOf(codes, 2 * codes.length);
+		codes[newID] = code;
+		idToCode = codes;
+		size = newID + 1;
+		codeToID.put(code, newID); //published last, so the code is available for any visible ID
+		return newID;
+	}
+}
@@ -1,10 +1,9 @@
 package nismod.transport.zone;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.URL;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -14,17 +13,24 @@ import org.apache.commons.lang3.tuple.Pair;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.geotools.data.CachingFeatureSource;
+import org.geotools.data.DataUtilities;
 import org.geotools.data.shapefile.ShapefileDataStore;
 import org.geotools.data.simple.SimpleFeatureCollection;
 import org.geotools.data.simple.SimpleFeatureIterator;
 import org.geotools.graph.structure.Node;
+import org.locationtech.jts.geom.Coordinate;
 import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.GeometryFactory;
 import org.locationtech.jts.geom.MultiPolygon;
 import org.locationtech.jts.geom.Point;
 import org.locationtech.jts.geom.Polygon;
 import org.opengis.feature.simple.SimpleFeature;
 
 import nismod.transport.network.road.RoadNetwork;
+import nismod.transport.utility.NearestNodeIndex;
+import nismod.transport.utility.PolygonIndex;
+import nismod.transport.utility.SnapshotReader;
+import nismod.transport.utility.SnapshotWriter;
 
 /**
  * For mapping Tempro zones to the nodes of the road network.
@@ -73,9 +79,13 @@ public class Zoning {
 	private String[] ladIDToCode; //maps LAD ID number to LAD ONS code
 	
 	private double accessEgressFactor;
+	
+	private NearestNodeIndex nearestNodeIndex; //spatial index of the nodes that are not blacklisted as start or end nodes
 		
 	/**
 	 * Constructor for the zoning system.
+	 * If the properties contain zoningSnapshotFile, the derived mappings and distance matrices are loaded from that snapshot
+	 * (when it was created from the same inputs), otherwise they are calculated and the snapshot is written.
 	 * @param zonesUrl Url for the zones shapefile.
 	 * @param nodesUrl Url for the nodes shapefile.
 	 * @param rn Road network.
@@ -92,35 +102,50 @@ public class Zoning {
 		
 		this.accessEgressFactor = Double.parseDouble(params.getProperty("ACCESS_EGRESS_DISTANCE_SCALING_FACTOR"));
 		
-		CachingFeatureSource cache3 = new CachingFeatureSource(nodesShapefile.getFeatureSource());
-		SimpleFeatureCollection nodesFeatureCollection = cache3.getFeatures();
-		CachingFeatureSource cache4 = new CachingFeatureSource(zonesShapefile.getFeatureSource());
-		SimpleFeatureCollection zonesFeatureCollection = cache4.getFeatures();
-		
-		//map codes and IDs
-		LOGGER.debug("Mapping Tempro zones IDs to their ONS codes...");
-		mapCodesAndIDs(zonesFeatureCollection, params);
-		
-		//map zones to nearest nodes
-		LOGGER.debug("Mapping Tempro zones to the nearest node...");
-		mapZonesToNodes(zonesFeatureCollection);
+		//build spatial index of the nodes
+		LOGGER.debug("Building the spatial index of the nodes...");
+		buildNearestNodeIndex();
 		
-		//map nodes to zones
-		LOGGER.debug("Mapping nodes to Tempro zones in which they are located...");
-		mapNodesToZones(zonesFeatureCollection);
+		String snapshotFile = params.getProperty("zoningSnapshotFile");
+		File snapshot = (snapshotFile == null || snapshotFile.trim().isEmpty()) ? null : new File(snapshotFile.trim());
+		long fingerprint = (snapshot == null) ? 0L : getInputsFingerprint(zonesUrl, nodesUrl, params);
 		
-		//map zones to all the nodes, including the distance - requires quite a bit of memory (especially storing the Pairs)
-		//the result is then truncated to contain only MAX_NEAREST_NODES
-		LOGGER.debug("Mapping Tempro zones to all the nodes, including distance...");
-		mapZonesToNodesAndDistances(zonesFeatureCollection);
-		
-		//calculating zone to all nodes distance matrix
-		LOGGER.debug("Calculating distances between Tempro zones, as well as between Tempro zones and nodes...");
-		zoneToNodeAndZoneToZoneDistanceMatrices(zonesFeatureCollection);
+		if (snapshot != null && loadSnapshot(snapshot, fingerprint)) {
+			LOGGER.debug("Loaded Tempro zone mappings and distance matrices from snapshot {}.", snapshot);
+		} else {
+			CachingFeatureSource cache4 = new CachingFeatureSource(zonesShapefile.getFeatureSource());
+			SimpleFeatureCollection zonesFeatureCollection = cache4.getFeatures();
+
+			//map codes and IDs
+			LOGGER.debug("Mapping Tempro zones IDs to their ONS codes...");
+			mapCodesAndIDs(zonesFeatureCollection, params);
+
+			//map zones to nearest nodes
+			LOGGER.debug("Mapping Tempro zones to the nearest node...");
+			mapZonesToNodes(zonesFeatureCollection);
+
+			//map nodes to zones
+			LOGGER.debug("Mapping nodes to Tempro zones in which they are located...");
+			mapNodesToZones(zonesFeatureCollection);
+
+			//map zones to all the nodes, including the distance - requires quite a bit of memory (especially storing the Pairs)
+			//the result is then truncated to contain only MAX_NEAREST_NODES
+			LOGGER.debug("Mapping Tempro zones to all the nodes, including distance...");
+			mapZonesToNodesAndDistances(zonesFeatureCollection);
+
+			//calculating zone to all nodes distance matrix
+			LOGGER.debug("Calculating distances between Tempro zones, as well as between Tempro zones and nodes...");
+			zoneToNodeAndZoneToZoneDistanceMatrices(zonesFeatureCollection);
+
+			if (snapshot != null) {
+				LOGGER.debug("Writing Tempro zone mappings and distance matrices into snapshot {}...", snapshot);
+				saveSnapshot(snapshot, fingerprint);
+			}
+		}
 				
 		//map zones to nearest nodes from LAD top nodes
 		LOGGER.debug("Mapping Tempro zones to the nearest node among the LAD top nodes...");
-		mapZonesToLADTopNodes(zonesFeatureCollection);
+		mapZonesToLADTopNodes();
 		
 		//map zones to nodes contained within zone
 		LOGGER.debug("Mapping Tempro zones to a list of nodes contained within that zone...");
@@ -226,24 +251,10 @@ public class Zoning {
 				}
 			
 				double minDistance = Double.MAX_VALUE;
-				Integer nearestNodeID = null;
-
-				Iterator nodeIter = (Iterator) this.rn.getNetwork().getNodes().iterator();
-				while (nodeIter.hasNext()) {
-
-					Node node = (Node) nodeIter.next();
-					
-					//if node is blacklisted as either start or end node, do not consider that node
-					if (rn.isBlacklistedAsStartNode(node.getID()) || rn.isBlacklistedAsEndNode(node.getID())) continue;
-					
-					SimpleFeature sfn = (SimpleFeature) node.getObject();
-					Point point = (Point) sfn.getDefaultGeometry();
-
-					double distanceToNode = centroid.distance(point) * this.accessEgressFactor;
-					if (distanceToNode < minDistance) {
-						minDistance = distanceToNode;
-						nearestNodeID = node.getID();
-					}
+				Integer nearestNodeID = this.nearestNodeIndex.getNearestNode(centroid);
+				if (nearestNodeID != null) {
+					Point point = (Point) ((SimpleFeature) this.rn.getNodeIDtoNode()[nearestNodeID].getObject()).getDefaultGeometry();
+					minDistance = centroid.distance(point) * this.accessEgressFactor;
 				}
 
 				//store nearest node IDs and distances
@@ -279,38 +290,15 @@ public class Zoning {
 								
 				Point centroid = polygon.getCentroid();
 		
-				Iterator nodeIter = (Iterator) this.rn.getNetwork().getNodes().iterator();
-				while (nodeIter.hasNext()) {
-
-					Node node = (Node) nodeIter.next();
-					
-					//if node is blacklisted as either start or end node, do not consider that node
-					if (rn.isBlacklistedAsStartNode(node.getID()) || rn.isBlacklistedAsEndNode(node.getID())) continue;
-					
-					SimpleFeature sfn = (SimpleFeature) node.getObject();
-					Point point = (Point) sfn.getDefaultGeometry();
+				//only MAX_NEAREST_NODES nearest nodes are kept (sorted by distance)
+				for (int nodeID: this.nearestNodeIndex.getNearestNodes(centroid, MAX_NEAREST_NODES)) {
+					Point point = (Point) ((SimpleFeature) this.rn.getNodeIDtoNode()[nodeID].getObject()).getDefaultGeometry();
 					double distanceToNode = centroid.distance(point) * this.accessEgressFactor;
 
-					Pair<Integer, Double> pair = Pair.of(node.getID(), distanceToNode);
+					Pair<Integer, Double> pair = Pair.of(nodeID, distanceToNode);
 					list.add(pair);
 				}
-				
-				//sort the list of nodes based on the distance
-				Comparator<Pair<Integer, Double>> c = new Comparator<Pair<Integer, Double>>() {
-				    public int compare(Pair<Integer, Double> p1, Pair<Integer, Double> p2) {
-				    	Double distance1 = p1.getValue();
-				    	Double distance2 = p2.getValue();
-				    	return distance1.compareTo(distance2); //ascending
-				    }
-				};
-				
-				Collections.sort(list, c);
-				
-				//truncate the list to keep only MAX_NEAREST_NODES
-				int k = list.size();
-				if (k > MAX_NEAREST_NODES)
-					list.subList(MAX_NEAREST_NODES, k).clear();
-				} 
+			} 
 		} finally {
 			//feature iterator is a live connection that must be closed
 			iter.close();
@@ -338,19 +326,11 @@ public class Zoning {
 				String zoneID = (String) sf.getAttribute("Zone_Code");
 				Point centroid = polygon.getCentroid();
 
-				//iterate through nodes
-				Iterator nodeIter = (Iterator) this.rn.getNetwork().getNodes().iterator();
-				while (nodeIter.hasNext()) {
-					Node node = (Node) nodeIter.next();
-
-					//if node is blacklisted as either start or end node, do not consider that node
-					if (rn.isBlacklistedAsStartNode(node.getID()) || rn.isBlacklistedAsEndNode(node.getID())) continue;
-
-					SimpleFeature sfn = (SimpleFeature) node.getObject();
-					Point point = (Point) sfn.getDefaultGeometry();
-					double distanceToNode = centroid.distance(point) * this.accessEgressFactor;
-
-					this.zoneToNodeDistanceMatrix[this.temproCodeToID.get(zoneID)][node.getID()] = distanceToNode;
+				//iterate through nodes (index already contains only the nodes that are not blacklisted)
+				double[] zoneToNodeDistances = this.zoneToNodeDistanceMatrix[this.temproCodeToID.get(zoneID)];
+				for (int position = 0; position < this.nearestNodeIndex.size(); position++) {
+					double distanceToNode = centroid.distance(this.nearestNodeIndex.getPoint(position)) * this.accessEgressFactor;
+					zoneToNodeDistances[this.nearestNodeIndex.getNodeID(position)] = distanceToNode;
 				}
 
 				//assume centroids have already been calculated
@@ -374,10 +354,9 @@ public class Zoning {
 	}
 	
 	/**
-	 * Maps zones to nearest nodes of the network.
-	 * @param zonesFeatureCollection Feature collection with the zones.
+	 * Maps zones to nearest nodes of the network (among the top nodes of each LAD).
 	 */
-	private void mapZonesToLADTopNodes(SimpleFeatureCollection zonesFeatureCollection) {
+	private void mapZonesToLADTopNodes() {
 
 		this.zoneToNearestNodeIDFromLadTopNodes = new HashMap<String, Integer>();
 		this.zoneIDToNearestNodeIDFromLadTopNodes = new int[this.temproIDToCode.length];
@@ -385,53 +364,45 @@ public class Zoning {
 		this.rn.sortGravityNodes(); //to get top nodes for each LAD
 		
 		//iterate through the zones and through the nodes
-		SimpleFeatureIterator iter = zonesFeatureCollection.features();
-		try {
-			while (iter.hasNext()) {
-				SimpleFeature sf = iter.next();
-				String zoneCode = (String) sf.getAttribute("Zone_Code");
-				int zoneID = this.temproCodeToID.get(zoneCode);
-									
-				double minDistance = Double.MAX_VALUE;
-				Integer nearestNodeID = null;
+		for (String zoneCode: this.temproCodeToID.keySet()) {
+			int zoneID = this.temproCodeToID.get(zoneCode);
+								
+			double minDistance = Double.MAX_VALUE;
+			Integer nearestNodeID = null;
 		
-				//iterate over all LADs (not only LAD to which Tempro zone belongs!) and all of their top nodes
-				for (String zoneLAD: this.ladToName.keySet()) {
+			//iterate over all LADs (not only LAD to which Tempro zone belongs!) and all of their top nodes
+			for (String zoneLAD: this.ladToName.keySet()) {
+				
+				List<Integer> nodesList = this.rn.getZoneToNodes().get(zoneLAD); //all nodes within LAD
+				int nodesToConsider = TOP_LAD_NODES<nodesList.size()?TOP_LAD_NODES:nodesList.size(); //because LAD might have less nodes than TOP_LAD_NODES
+				List<Integer> topNodesList = nodesList.subList(0, nodesToConsider); //take sublist of top nodes
+				
+				//iterate over top nodes
+				for (int topNodeID: topNodesList) {
 					
-					List<Integer> nodesList = this.rn.getZoneToNodes().get(zoneLAD); //all nodes within LAD
-					int nodesToConsider = TOP_LAD_NODES<nodesList.size()?TOP_LAD_NODES:nodesList.size(); //because LAD might have less nodes than TOP_LAD_NODES
-					List<Integer> topNodesList = nodesList.subList(0, nodesToConsider); //take sublist of top nodes
+					//if node is blacklisted as either start or end node, do not consider that node
+					if (rn.isBlacklistedAsStartNode(topNodeID) || rn.isBlacklistedAsEndNode(topNodeID)) {
+						LOGGER.trace("Skipping top node {} because it is blacklisted.", topNodeID);
+						continue;
+					}
 					
-					//iterate over top nodes
-					for (int topNodeID: topNodesList) {
-						
-						//if node is blacklisted as either start or end node, do not consider that node
-						if (rn.isBlacklistedAsStartNode(topNodeID) || rn.isBlacklistedAsEndNode(topNodeID)) {
-							LOGGER.trace("Skipping top node {} because it is blacklisted.", topNodeID);
-							continue;
-						}
-						
-						double distanceZoneToNode = this.zoneToNodeDistanceMatrix[zoneID][topNodeID];
-						if (distanceZoneToNode < minDistance) {
-							minDistance = distanceZoneToNode;
-							nearestNodeID = topNodeID;
-						}
+					double distanceZoneToNode = this.zoneToNodeDistanceMatrix[zoneID][topNodeID];
+					if (distanceZoneToNode < minDistance) {
+						minDistance = distanceZoneToNode;
+						nearestNodeID = topNodeID;
 					}
 				}
-				
-				if (nearestNodeID == null) 
-					LOGGER.error("The nearest node for Tempro zone {} is null!", zoneCode);
-				if (this.rn.isBlacklistedAsStartNode(nearestNodeID))
-					LOGGER.warn("The nearest node {} for Tempro zone {} is blacklisted as start node!", nearestNodeID, zoneCode);
-				if (this.rn.isBlacklistedAsEndNode(nearestNodeID))
-					LOGGER.warn("The nearest node {} for Tempro zone {} is blacklisted as end node!", nearestNodeID, zoneCode);
-								
-				this.zoneToNearestNodeIDFromLadTopNodes.put(zoneCode, nearestNodeID);
-				this.zoneIDToNearestNodeIDFromLadTopNodes[zoneID] = nearestNodeID;
-			} 
-		} finally {
-			//feature iterator is a live connection that must be closed
-			iter.close();
+			}
+			
+			if (nearestNodeID == null) 
+				LOGGER.error("The nearest node for Tempro zone {} is null!", zoneCode);
+			if (this.rn.isBlacklistedAsStartNode(nearestNodeID))
+				LOGGER.warn("The nearest node {} for Tempro zone {} is blacklisted as start node!", nearestNodeID, zoneCode);
+			if (this.rn.isBlacklistedAsEndNode(nearestNodeID))
+				LOGGER.warn("The nearest node {} for Tempro zone {} is blacklisted as end node!", nearestNodeID, zoneCode);
+							
+			this.zoneToNearestNodeIDFromLadTopNodes.put(zoneCode, nearestNodeID);
+			this.zoneIDToNearestNodeIDFromLadTopNodes[zoneID] = nearestNodeID;
 		}
 	}
 	
@@ -474,35 +445,235 @@ public class Zoning {
 
 		this.nodeToZoneInWhichLocated = new HashMap<Integer, String>();
 
-		//iterate through the zones and through the nodes
+		//build spatial index of the zones
+		PolygonIndex<String> zoneIndex = new PolygonIndex<String>();
 		SimpleFeatureIterator iter = zonesFeatureCollection.features();
 		try {
 			while (iter.hasNext()) {
 				SimpleFeature sf = iter.next();
-				MultiPolygon polygon = (MultiPolygon) sf.getDefaultGeometry();
-				String zoneID = (String) sf.getAttribute("Zone_Code");
-
-				Iterator nodeIter = (Iterator) this.rn.getNetwork().getNodes().iterator();
-				while (nodeIter.hasNext()) {
-
-					Node node = (Node) nodeIter.next();
-					
-					//if nodes already assigned to a zone, skip it
-					if (this.nodeToZoneInWhichLocated.containsKey(node.getID())) continue;
-					
-					SimpleFeature sfn = (SimpleFeature) node.getObject();
-					Point point = (Point) sfn.getDefaultGeometry();
-
-					//if polygon of the zone contains the node, add it to the map
-					if (polygon.contains(point)) this.nodeToZoneInWhichLocated.put(node.getID(), zoneID);
-				}
+				zoneIndex.add((MultiPolygon) sf.getDefaultGeometry(), (String) sf.getAttribute("Zone_Code"));
 			} 
 		} finally {
 			//feature iterator is a live connection that must be closed
 			iter.close();
 		}
+
+		//locate each node (if more zones contain the node, the first one is used)
+		Iterator nodeIter = (Iterator) this.rn.getNetwork().getNodes().iterator();
+		while (nodeIter.hasNext()) {
+
+			Node node = (Node) nodeIter.next();
+			SimpleFeature sfn = (SimpleFeature) node.getObject();
+			Point point = (Point) sfn.getDefaultGeometry();
+
+			//if polygon of the zone contains the node, add it to the map
+			String zoneID = zoneIndex.locate(point);
+			if (zoneID != null) this.nodeToZoneInWhichLocated.put(node.getID(), zoneID);
+		}
+	}
+	
+	/**
+	 * Builds the spatial index of the nodes that are not blacklisted as either start or end nodes.
+	 */
+	private void buildNearestNodeIndex() {
+
+		List<Integer> nodeIDs = new ArrayList<Integer>();
+		List<Point> points = new ArrayList<Point>();
+
+		Iterator nodeIter = (Iterator) this.rn.getNetwork().getNodes().iterator();
+		while (nodeIter.hasNext()) {
+
+			Node node = (Node) nodeIter.next();
+
+			//if node is blacklisted as either start or end node, do not consider that node
+			if (rn.isBlacklistedAsStartNode(node.getID()) || rn.isBlacklistedAsEndNode(node.getID())) continue;
+
+			SimpleFeature sfn = (SimpleFeature) node.getObject();
+			nodeIDs.add(node.getID());
+			points.add((Point) sfn.getDefaultGeometry());
+		}
+
+		int[] nodeIDArray = new int[nodeIDs.size()];
+		for (int i = 0; i < nodeIDArray.length; i++) nodeIDArray[i] = nodeIDs.get(i);
+		this.nearestNodeIndex = new NearestNodeIndex(nodeIDArray, points.toArray(new Point[0]));
+	}
+		
+	/**
+	 * Calculates the fingerprint of the inputs from which the zone mappings and distance matrices are derived:
+	 * zone and node files, parameters, and the locations of the nodes that are not blacklisted.
+	 * @param zonesUrl Url for the zones shapefile.
+	 * @param nodesUrl Url for the nodes shapefile.
+	 * @param params Properties file with parameters.
+	 * @return Fingerprint.
+	 */
+	private long getInputsFingerprint(URL zonesUrl, URL nodesUrl, Properties params) {
+		
+		File zonesFile = DataUtilities.urlToFile(zonesUrl);
+		File zonesAttributesFile = (zonesFile == null) ? null : new File(zonesFile.getPath().replaceFirst("\\.shp$", ".dbf"));
+		
+		long nodesHash = 17L;
+		for (int position = 0; position < this.nearestNodeIndex.size(); position++) {
+			Point point = this.nearestNodeIndex.getPoint(position);
+			nodesHash = 31L * nodesHash + this.nearestNodeIndex.getNodeID(position);
+			nodesHash = 31L * nodesHash + Double.doubleToLongBits(point.getX());
+			nodesHash = 31L * nodesHash + Double.doubleToLongBits(point.getY());
+		}
+		
+		return SnapshotWriter.fingerprint(zonesUrl, SnapshotWriter.describeFile(zonesFile), SnapshotWriter.describeFile(zonesAttributesFile),
+				nodesUrl, SnapshotWriter.describeFile(DataUtilities.urlToFile(nodesUrl)),
+				params.getProperty("MAXIMUM_TEMPRO_ZONE_ID"), params.getProperty("MAXIMUM_LAD_ZONE_ID"),
+				this.accessEgressFactor, MAX_NEAREST_NODES, this.rn.getMaximumNodeID(), nodesHash);
 	}
+	
+	/**
+	 * Writes the zone mappings and distance matrices into the snapshot (failure to write is only logged).
+	 * @param file Snapshot file.
+	 * @param fingerprint Fingerprint of the inputs.
+	 */
+	private void saveSnapshot(File file, long fingerprint) {
+		
+		int maxZones = this.temproIDToCode.length;
 		
+		try (SnapshotWriter writer = new SnapshotWriter(file, fingerprint)) {
+			
+			writer.writeStringArray(this.temproIDToCode);
+			writer.writeStringArray(this.ladIDToCode);
+			writer.writeIntArray(this.zoneIDToLadID);
+			
+			String[] ladIDToName = new String[this.ladIDToCode.length];
+			for (String ladCode: this.ladToName.keySet()) ladIDToName[this.ladCodeToID.get(ladCode)] = this.ladToName.get(ladCode);
+			writer.writeStringArray(ladIDToName);
+			
+			double[] centroidX = new double[maxZones];
+			double[] centroidY = new double[maxZones];
+			for (int zoneID = 0; zoneID < maxZones; zoneID++) {
+				Point centroid = (this.temproIDToCode[zoneID] == null) ? null : this.zoneToCentroid.get(this.temproIDToCode[zoneID]);
+				centroidX[zoneID] = (centroid == null) ? Double.NaN : centroid.getX();
+				centroidY[zoneID] = (centroid == null) ? Double.NaN : centroid.getY();
+			}
+			writer.writeDoubleArray(centroidX);
+			writer.writeDoubleArray(centroidY);
+			writer.writeDoubleMatrix(this.zoneToMinMaxDimension);
+			writer.writeIntArray(this.zoneIDToNearestNodeID);
+			writer.writeDoubleArray(this.zoneIDToNearestNodeDistance);
+			
+			int[] locatedNodes = new int[this.nodeToZoneInWhichLocated.size()];
+			int[] locatedNodesZones = new int[locatedNodes.length];
+			int i = 0;
+			for (Integer nodeID: this.nodeToZoneInWhichLocated.keySet()) {
+				locatedNodes[i] = nodeID;
+				locatedNodesZones[i++] = this.temproCodeToID.get(this.nodeToZoneInWhichLocated.get(nodeID));
+			}
+			writer.writeIntArray(locatedNodes);
+			writer.writeIntArray(locatedNodesZones);
+			
+			for (int zoneID = 0; zoneID < maxZones; zoneID++) {
+				List<Pair<Integer, Double>> list = (this.temproIDToCode[zoneID] == null) ? null : this.zoneToSortedListOfNodeAndDistancePairs.get(this.temproIDToCode[zoneID]);
+				writer.writeInt(list == null ? -1 : list.size());
+				if (list != null)
+					for (Pair<Integer, Double> pair: list) {
+						writer.writeInt(pair.getKey());
+						writer.writeDouble(pair.getValue());
+					}
+			}
+			
+			writer.writeDoubleMatrix(this.zoneToNodeDistanceMatrix);
+			writer.writeDoubleMatrix(this.zoneToZoneDistanceMatrix);
+			writer.commit();
+			
+		} catch (IOException e) {
+			LOGGER.warn("Could not write the zoning snapshot {}: {}", file, e.getMessage());
+		}
+	}
+	
+	/**
+	 * Loads the zone mappings and distance matrices from the snapshot.
+	 * @param file Snapshot file.
+	 * @param fingerprint Fingerprint of the current inputs.
+	 * @return True if the snapshot was valid and has been loaded.
+	 */
+	private boolean loadSnapshot(File file, long fingerprint) {
+		
+		try (SnapshotReader reader = SnapshotReader.open(file, fingerprint)) {
+			
+			if (reader == null) return false;
+			
+			this.temproIDToCode = reader.readStringArray();
+			this.ladIDToCode = reader.readStringArray();
+			this.zoneIDToLadID = reader.readIntArray();
+			String[] ladIDToName = reader.readStringArray();
+			double[] centroidX = reader.readDoubleArray();
+			double[] centroidY = reader.readDoubleArray();
+			this.zoneToMinMaxDimension = reader.readDoubleMatrix();
+			this.zoneIDToNearestNodeID = reader.readIntArray();
+			this.zoneIDToNearestNodeDistance = reader.readDoubleArray();
+			int[] locatedNodes = reader.readIntArray();
+			int[] locatedNodesZones = reader.readIntArray();
+			
+			int maxZones = this.temproIDToCode.length;
+			this.temproCodeToID = new HashMap<String, Integer>();
+			this.zoneToLAD = new HashMap<String, String>();
+			this.zoneToCentroid = new HashMap<String, Point>();
+			this.zoneToNearestNodeID = new HashMap<String, Integer>();
+			this.zoneToNearestNodeDistance = new HashMap<String, Double>();
+			this.zoneToSortedListOfNodeAndDistancePairs = new HashMap<String, List<Pair<Integer, Double>>>();
+			GeometryFactory geometryFactory = new GeometryFactory();
+			
+			for (int zoneID = 0; zoneID < maxZones; zoneID++) {
+				String zoneCode = this.temproIDToCode[zoneID];
+				int listSize = reader.readInt();
+				if (zoneCode == null) continue;
+				
+				this.temproCodeToID.put(zoneCode, zoneID);
+				this.zoneToLAD.put(zoneCode, this.ladIDToCode[this.zoneIDToLadID[zoneID]]);
+				this.zoneToCentroid.put(zoneCode, geometryFactory.createPoint(new Coordinate(centroidX[zoneID], centroidY[zoneID])));
+				this.zoneToNearestNodeID.put(zoneCode, this.zoneIDToNearestNodeID[zoneID]);
+				this.zoneToNearestNodeDistance.put(zoneCode, this.zoneIDToNearestNodeDistance[zoneID]);
+				
+				List<Pair<Integer, Double>> list = new ArrayList<Pair<Integer, Double>>(Math.max(listSize, 0));
+				for (int i = 0; i < listSize; i++) {
+					int nodeID = reader.readInt();
+					list.add(Pair.of(nodeID, reader.readDouble()));
+				}
+				this.zoneToSortedListOfNodeAndDistancePairs.put(zoneCode, list);
+			}
+			
+			this.ladCodeToID = new HashMap<String, Integer>();
+			this.ladToName = new HashMap<String, String>();
+			for (int ladID = 0; ladID < this.ladIDToCode.length; ladID++) {
+				if (this.ladIDToCode[ladID] == null) continue;
+				this.ladCodeToID.put(this.ladIDToCode[ladID], ladID);
+				if (ladIDToName[ladID] != null) this.ladToName.put(this.ladIDToCode[ladID], ladIDToName[ladID]);
+			}
+			
+			this.nodeToZoneInWhichLocated = new HashMap<Integer, String>();
+			for (int i = 0; i < locatedNodes.length; i++)
+				this.nodeToZoneInWhichLocated.put(locatedNodes[i], this.temproIDToCode[locatedNodesZones[i]]);
+			
+			this.zoneToNodeDistanceMatrix = reader.readDoubleMatrix();
+			this.zoneToZoneDistanceMatrix = reader.readDoubleMatrix();
+			
+			if (!reader.isFullyRead()) {
+				LOGGER.warn("Zoning snapshot {} has unexpected content and will be ignored.", file);
+				return false;
+			}
+			return true;
+			
+		} catch (IOException e) {
+			LOGGER.warn("Could not read the zoning snapshot {}: {}", file, e.getMessage());
+			return false;
+		}
+	}
+	
+	/**
+	 * Getter for the spatial index of the nodes that are not blacklisted as start or end nodes (for k-nearest node queries).
+	 * @return Nearest node index.
+	 */
+	public NearestNodeIndex getNearestNodeIndex() {
+		
+		return this.nearestNodeIndex;
+	}
+	
 	/**
 	 * Getter for Tempro zone ONS code to ID.
 	 * @return Tempro zone code to Tempro zone ID map.
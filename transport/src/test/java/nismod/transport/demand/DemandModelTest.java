@@ -3,6 +3,7 @@
  */
 package nismod.transport.demand;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertTrue;
 
 import java.io.File;
@@ -34,6 +35,7 @@ import nismod.transport.network.road.RouteSetGenerator;
 import nismod.transport.utility.ConfigReader;
 import nismod.transport.utility.InputFileReader;
 import nismod.transport.utility.PropertiesReader;
+import nismod.transport.utility.RandomSingleton;
 import nismod.transport.zone.Zoning;
 
 /**
@@ -451,4 +453,82 @@ public class DemandModelTest {
 		rdm.saveRailStationDemand(2015, "./temp/railDemand2015.csv");
 		rdm.saveRailStationDemand(2025, "./temp/railDemand2025.csv");
 	}
+	
+	@Test
+	public void testWarmStartReassignment() throws IOException {
+		
+		final double EPSILON = 1e-9;
+		
+		//reusing the assignment in the prediction iterations should not change the results
+		RoadNetworkAssignment rnaNew = predictWithReassignment(false);
+		RoadNetworkAssignment rnaReused = predictWithReassignment(true);
+		
+		assertArrayEquals("Link volumes are the same with a reused assignment", rnaNew.getLinkVolumeInPCU(), rnaReused.getLinkVolumeInPCU(), EPSILON);
+		for (TimeOfDay hour: TimeOfDay.values())
+			assertArrayEquals("Link travel times are the same with a reused assignment", rnaNew.getLinkTravelTimes().get(hour), rnaReused.getLinkTravelTimes().get(hour), EPSILON);
+	}
+	
+	/**
+	 * Predicts 2016 highway demand from 2015 with two prediction iterations.
+	 * @param flagWarmStartReassignment Whether to reuse the same assignment in all prediction iterations.
+	 * @return Road network assignment of the predicted year.
+	 * @throws IOException if any.
+	 */
+	private RoadNetworkAssignment predictWithReassignment(boolean flagWarmStartReassignment) throws IOException {
+		
+		final String configFile = "./src/test/config/testConfig.properties";
+		Properties props = ConfigReader.getProperties(configFile);
+		props.setProperty("PREDICTION_ITERATIONS", "2");
+		props.setProperty("FLAG_WARM_START_REASSIGNMENT", Boolean.toString(flagWarmStartReassignment));
+		
+		final String areaCodeFileName = props.getProperty("areaCodeFileName");
+		final String areaCodeNearestNodeFile = props.getProperty("areaCodeNearestNodeFile");
+		final String workplaceZoneFileName = props.getProperty("workplaceZoneFileName");
+		final String workplaceZoneNearestNodeFile = props.getProperty("workplaceZoneNearestNodeFile");
+		final String freightZoneToLADfile = props.getProperty("freightZoneToLADfile");
+		final String freightZoneNearestNodeFile = props.getProperty("freightZoneNearestNodeFile");
+
+		final URL zonesUrl = new URL(props.getProperty("zonesUrl"));
+		final URL networkUrl = new URL(props.getProperty("networkUrl"));
+		final URL networkUrlFixedEdgeIDs = new URL(props.getProperty("networkUrlFixedEdgeIDs"));
+		final URL nodesUrl = new URL(props.getProperty("nodesUrl"));
+		final URL AADFurl = new URL(props.getProperty("AADFurl"));
+
+		//create a road network
+		RoadNetwork roadNetwork = new RoadNetwork(zonesUrl, networkUrl, nodesUrl, AADFurl, areaCodeFileName, areaCodeNearestNodeFile, workplaceZoneFileName, workplaceZoneNearestNodeFile, freightZoneToLADfile, freightZoneNearestNodeFile, props);
+		roadNetwork.replaceNetworkEdgeIDs(networkUrlFixedEdgeIDs);
+		
+		final String energyUnitCostsFile = props.getProperty("energyUnitCostsFile");
+		final String unitCO2EmissionsFile = props.getProperty("unitCO2EmissionsFile");
+		final String engineTypeFractionsFile = props.getProperty("engineTypeFractionsFile");
+		final String AVFractionsFile = props.getProperty("autonomousVehiclesFile");
+
+		final String baseYearODMatrixFile = props.getProperty("baseYearODMatrixFile");
+		final String freightMatrixFile = props.getProperty("baseYearFreightMatrixFile");
+		final String populationFile = props.getProperty("populationFile");
+		final String GVAFile = props.getProperty("GVAFile");
+		final String elasticitiesFile = props.getProperty("elasticitiesFile");
+		final String elasticitiesFreightFile = props.getProperty("elasticitiesFreightFile");
+
+		final String passengerRoutesFile = props.getProperty("passengerRoutesFile");
+		final String freightRoutesFile = props.getProperty("freightRoutesFile");
+		
+		//read routes (a new route set, as the assignment may add routes to it)
+		RouteSetGenerator rsg = new RouteSetGenerator(roadNetwork, props);
+		rsg.readRoutesBinaryWithoutValidityCheck(passengerRoutesFile);
+		rsg.readRoutesBinaryWithoutValidityCheck(freightRoutesFile);
+		rsg.generateSingleNodeRoutes();
+		rsg.calculateAllPathsizes();
+		
+		final URL temproZonesUrl = new URL(props.getProperty("temproZonesUrl"));
+		Zoning zoning = new Zoning(temproZonesUrl, nodesUrl, roadNetwork, props);
+		
+		DemandModel dm = new DemandModel(roadNetwork, baseYearODMatrixFile, freightMatrixFile, populationFile, GVAFile, elasticitiesFile, elasticitiesFreightFile, energyUnitCostsFile, unitCO2EmissionsFile, engineTypeFractionsFile, AVFractionsFile, null, rsg, zoning, props);
+		
+		//both runs use the same random numbers
+		RandomSingleton.getInstance().setSeed(1234);
+		dm.predictHighwayDemand(2016, 2015);
+		
+		return dm.getRoadNetworkAssignment(2016);
+	}
 }
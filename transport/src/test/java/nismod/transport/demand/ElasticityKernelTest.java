@@ -0,0 +1,95 @@
+package nismod.transport.demand;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.SplittableRandom;
+
+import org.junit.Test;
+
+public class ElasticityKernelTest {
+
+	@Test
+	public void test() {
+
+		final int cells = 3 * ElasticityKernel.MIN_CELLS_PER_THREAD;
+		final int zones = 1200; //freight zones above 1032 are not LADs
+		final int maxLADZone = 1032;
+		SplittableRandom random = new SplittableRandom(1234);
+
+		double[] oldPopulation = new double[zones];
+		double[] newPopulation = new double[zones];
+		double[] oldGVA = new double[zones];
+		double[] newGVA = new double[zones];
+		for (int zone = 0; zone < zones; zone++) {
+			oldPopulation[zone] = 10000 + 100000 * random.nextDouble();
+			newPopulation[zone] = oldPopulation[zone] * (0.9 + 0.2 * random.nextDouble());
+			oldGVA[zone] = 1000 + 10000 * random.nextDouble();
+			newGVA[zone] = oldGVA[zone] * (0.9 + 0.2 * random.nextDouble());
+		}
+
+		int[] flows = new int[cells];
+		int[] origins = new int[cells];
+		int[] destinations = new int[cells];
+		int[] vehicleTypes = new int[cells];
+		double[] oldTimes = new double[cells];
+		double[] newTimes = new double[cells];
+		double[] oldCosts = new double[cells];
+		double[] newCosts = new double[cells];
+		for (int cell = 0; cell < cells; cell++) {
+			flows[cell] = 1 + random.nextInt(1000);
+			origins[cell] = random.nextInt(zones);
+			destinations[cell] = random.nextInt(zones);
+			vehicleTypes[cell] = 1 + random.nextInt(3);
+			oldTimes[cell] = random.nextInt(20) == 0 ? 0.0 : 10 + 100 * random.nextDouble(); //some undefined values
+			newTimes[cell] = random.nextInt(20) == 0 ? 0.0 : 10 + 100 * random.nextDouble();
+			oldCosts[cell] = random.nextInt(20) == 0 ? 0.0 : 1 + 10 * random.nextDouble();
+			newCosts[cell] = random.nextInt(20) == 0 ? 0.0 : 1 + 10 * random.nextDouble();
+		}
+		double[] tripRateFactors = {1.0, 1.01, 1.02, 1.03};
+
+		ElasticityKernel sequential = new ElasticityKernel(1);
+		ElasticityKernel parallel = new ElasticityKernel(4);
+		assertEquals("Number of threads", 4, parallel.getThreads());
+
+		//first stage (passenger)
+		int[] passengerFlows = parallel.predictPassengerFlows(flows, origins, destinations, oldPopulation, newPopulation, oldGVA, newGVA, 1.05, 0.6, 0.3);
+		assertArrayEquals("Parallel and sequential passenger flows", sequential.predictPassengerFlows(flows, origins, destinations, oldPopulation, newPopulation, oldGVA, newGVA, 1.05, 0.6, 0.3), passengerFlows);
+		for (int cell = 0; cell < cells; cell++) {
+			int o = origins[cell], d = destinations[cell];
+			double expected = flows[cell] * 1.05 * Math.pow((newPopulation[o] + newPopulation[d]) / (oldPopulation[o] + oldPopulation[d]), 0.6) *
+					Math.pow((newGVA[o] + newGVA[d]) / (oldGVA[o] + oldGVA[d]), 0.3);
+			assertEquals("Passenger flow", (int) Math.round(expected), passengerFlows[cell]);
+		}
+
+		//first stage (freight)
+		int[] freightFlows = parallel.predictFreightFlows(flows, origins, destinations, vehicleTypes, maxLADZone, oldPopulation, newPopulation, oldGVA, newGVA, tripRateFactors, 0.6, 0.3);
+		assertArrayEquals("Parallel and sequential freight flows", sequential.predictFreightFlows(flows, origins, destinations, vehicleTypes, maxLADZone, oldPopulation, newPopulation, oldGVA, newGVA, tripRateFactors, 0.6, 0.3), freightFlows);
+		for (int cell = 0; cell < cells; cell++) {
+			int o = origins[cell], d = destinations[cell];
+			double expected = flows[cell];
+			double tripRate = tripRateFactors[vehicleTypes[cell]];
+			if (o <= maxLADZone && d > maxLADZone)
+				expected = expected * tripRate * Math.pow(newPopulation[o] / oldPopulation[o], 0.6) * Math.pow(newGVA[o] / oldGVA[o], 0.3);
+			else if (d <= maxLADZone && o > maxLADZone)
+				expected = expected * tripRate * Math.pow(newPopulation[d] / oldPopulation[d], 0.6) * Math.pow(newGVA[d] / oldGVA[d], 0.3);
+			else if (o <= maxLADZone && d <= maxLADZone)
+				expected = expected * tripRate * Math.pow((newPopulation[o] + newPopulation[d]) / (oldPopulation[o] + oldPopulation[d]), 0.6) *
+						Math.pow((newGVA[o] + newGVA[d]) / (oldGVA[o] + oldGVA[d]), 0.3);
+			assertEquals("Freight flow", (int) Math.round(expected), freightFlows[cell]);
+		}
+
+		//second stage (undefined skim values do not affect the prediction)
+		int[] sequentialFlows = flows.clone();
+		sequential.predictFromSkims(sequentialFlows, oldTimes, newTimes, oldCosts, newCosts, -0.4, -0.2);
+		int[] parallelFlows = flows.clone();
+		parallel.predictFromSkims(parallelFlows, oldTimes, newTimes, oldCosts, newCosts, -0.4, -0.2);
+		assertArrayEquals("Parallel and sequential flows from skims", sequentialFlows, parallelFlows);
+		for (int cell = 0; cell < cells; cell++) {
+			double timeRatio = (oldTimes[cell] == 0.0 || newTimes[cell] == 0.0) ? 1.0 : newTimes[cell] / oldTimes[cell];
+			double costRatio = (oldCosts[cell] == 0.0 || newCosts[cell] == 0.0) ? 1.0 : newCosts[cell] / oldCosts[cell];
+			double expected = flows[cell] * Math.pow(timeRatio, -0.4) * Math.pow(costRatio, -0.2);
+			assertEquals("Flow from skims", (int) Math.round(expected), parallelFlows[cell]);
+		}
+	}
+}
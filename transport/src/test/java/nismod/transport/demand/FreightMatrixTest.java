@@ -4,12 +4,15 @@
 package nismod.transport.demand;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.List;
 
+import org.apache.commons.collections4.keyvalue.MultiKey;
 import org.apache.commons.imaging.ImageWriteException;
 import org.junit.Test;
 
@@ -100,6 +103,18 @@ public class FreightMatrixTest {
 	
 		assertTrue("All matrix elements are correct", condition);
 		
+		//zero flows are removed from the matrix
+		assertEquals("Number of non-zero flows", 8, freightMatrix.getKeySet().size());
+		assertFalse("Zero flow is not in the key set", freightMatrix.getKeySet().contains(new MultiKey<Integer>(2, 1, 3)));
+		assertEquals("Vehicle types with non-zero flows remain", Arrays.asList(1, 2, 3), freightMatrix.getVehicleTypes());
+		freightMatrix.setFlow(2, 1, 1, 0);
+		freightMatrix.setFlow(2, 1, 2, 0);
+		assertEquals("Origin with only zero flows is removed", Arrays.asList(1), freightMatrix.getSortedOrigins());
+		assertEquals("Number of non-zero flows", 6, freightMatrix.getKeySet().size());
+		freightMatrix.setFlow(2, 1, 1, 250);
+		freightMatrix.setFlow(2, 1, 2, 150);
+		assertEquals("Origin is added back with a non-zero flow", Arrays.asList(1, 2), freightMatrix.getSortedOrigins());
+		
 		FreightMatrix freightMatrix2 = new FreightMatrix("./src/test/resources/testdata/csvfiles/freightMatrix.csv");
 			
 //		System.out.println(freightMatrix2.getKeySet());
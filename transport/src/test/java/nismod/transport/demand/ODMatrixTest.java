@@ -4,6 +4,7 @@
 package nismod.transport.demand;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import java.io.File;
@@ -11,11 +12,13 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Properties;
 import java.util.Set;
 
+import org.apache.commons.collections4.keyvalue.MultiKey;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
@@ -102,6 +105,20 @@ public class ODMatrixTest {
 		
 		assertEquals("An element of the cloned matrix is correct", 987, copy.getFlow("4",  "4"));
 		
+		//zero flows are removed from the matrix
+		assertEquals("Number of non-zero flows", 15, passengerODMatrix.getKeySet().size());
+		assertFalse("Zero flow is not in the key set", passengerODMatrix.getKeySet().contains(new MultiKey<String>("4", "4")));
+		passengerODMatrix.setFlow("4", "1", 0);
+		passengerODMatrix.setFlow("4", "2", 0);
+		passengerODMatrix.setFlow("4", "3", 0);
+		assertEquals("Origin with only zero flows is removed", Arrays.asList("1", "2", "3"), passengerODMatrix.getSortedOrigins());
+		assertEquals("Destinations with non-zero flows remain", Arrays.asList("1", "2", "3", "4"), passengerODMatrix.getSortedDestinations());
+		assertEquals("Number of non-zero flows", 12, passengerODMatrix.getKeySet().size());
+		passengerODMatrix.setFlow("4", "1", 456);
+		assertEquals("Origin is added back with a non-zero flow", Arrays.asList("1", "2", "3", "4"), passengerODMatrix.getSortedOrigins());
+		passengerODMatrix.setFlow("4", "2", 567);
+		passengerODMatrix.setFlow("4", "3", 678);
+		
 		System.out.println("Origins: " + passengerODMatrix.getSortedOrigins());
 		System.out.println("Destinations: " + passengerODMatrix.getSortedDestinations());
 		System.out.println("Trip starts: " + passengerODMatrix.calculateTripStarts());
@@ -3,12 +3,20 @@
  */
 package nismod.transport.demand;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.TreeSet;
 
 import org.apache.commons.imaging.ImageWriteException;
 import org.jfree.data.category.DefaultCategoryDataset;
@@ -16,7 +24,10 @@ import org.junit.Test;
 
 import nismod.transport.network.road.RoadNetwork;
 import nismod.transport.network.road.RoadNetworkAssignment;
+import nismod.transport.network.road.RoadNetworkAssignment.VehicleType;
+import nismod.transport.network.road.Route;
 import nismod.transport.network.road.RouteSetGenerator;
+import nismod.transport.network.road.TripTable;
 import nismod.transport.utility.ConfigReader;
 import nismod.transport.utility.InputFileReader;
 import nismod.transport.visualisation.LineVisualiser;
@@ -315,9 +326,72 @@ public class RebalancedODMatrixTest {
 		
 		rodm.iterate(2);
 		System.out.println("RMSN values: " + rodm.getRMSNvalues());
+		assertTrue("Matrix after the first iteration is saved", new File(file, "ODMafterIteration0.csv").exists());
+		assertTrue("Matrix after the last iteration is saved", new File(file, "ODMafterIteration1.csv").exists());
 		
 		//round values
 		ODMatrixMultiKey odm = new ODMatrixMultiKey(rodm);
 		odm.printMatrixFormatted("Rounded values:");
+		
+		//sum link scaling factors over the routes trip by trip
+		TripTable trips = rna.getTripTable();
+		double[][] linkFactors = new double[VehicleType.values().length][];
+		linkFactors[VehicleType.CAR.ordinal()] = ScalingFactorAccumulator.calculateLinkFactors(rna.getLinkVolumePerVehicleType().get(VehicleType.CAR), rna.getAADFCarTrafficCounts());
+		double[] carFactors = linkFactors[VehicleType.CAR.ordinal()];
+		
+		Map<Integer, String> nodeToZone = roadNetwork.getNodeToZone();
+		List<String> zones = new ArrayList<String>(new TreeSet<String>(nodeToZone.values()));
+		Map<String, Integer> zoneToIndex = new HashMap<String, Integer>();
+		for (String zone: zones) zoneToIndex.put(zone, zoneToIndex.size());
+		final int numberOfZones = zones.size();
+		
+		Map<Integer, double[]> expectedSums = new HashMap<Integer, double[]>(); //factor sum and count of each OD pair
+		for (int row = 0; row < trips.size(); row++) {
+			if (trips.getVehicleOrdinal(row) != VehicleType.CAR.ordinal()) continue;
+			Route route = trips.getRoute(row);
+			if (route == null) continue;
+			Integer origin = zoneToIndex.get(nodeToZone.get(route.getOriginNode().getID()));
+			Integer destination = zoneToIndex.get(nodeToZone.get(route.getDestinationNode().getID()));
+			if (origin == null || destination == null) continue;
+			double[] sums = expectedSums.computeIfAbsent(origin * numberOfZones + destination, k -> new double[2]);
+			int multiplier = trips.getMultiplier(row);
+			for (int edgeID: route.getEdges().toArray())
+				if (!Double.isNaN(carFactors[edgeID])) {
+					sums[0] += carFactors[edgeID] * multiplier;
+					sums[1] += multiplier;
+				}
+		}
+		assertFalse("There are trips with routes", expectedSums.isEmpty());
+		
+		//the parallel accumulation gives the same scaling factors for any number of threads
+		RealODMatrix scalingFactors = rodm.getScalingFactors();
+		for (int threads: new int[] {1, 4}) {
+			ScalingFactorAccumulator accumulator = new ScalingFactorAccumulator();
+			accumulator.accumulate(trips, linkFactors, row -> {
+				Route route = trips.getRoute(row);
+				Integer origin = zoneToIndex.get(nodeToZone.get(route.getOriginNode().getID()));
+				Integer destination = zoneToIndex.get(nodeToZone.get(route.getDestinationNode().getID()));
+				if (origin == null || destination == null) return -1;
+				return origin * numberOfZones + destination;
+			}, threads, 1);
+			
+			assertEquals("Number of OD pairs with trips (" + threads + " threads)", expectedSums.size(), accumulator.getODIndices().length);
+			for (Map.Entry<Integer, double[]> entry: expectedSums.entrySet()) {
+				double[] sums = entry.getValue();
+				double expected = (sums[1] == 0.0) ? 1.0 : sums[0] / sums[1];
+				assertEquals("Scaling factor (" + threads + " threads)", expected, accumulator.getScalingFactor(entry.getKey()), 1e-9);
+				String originZone = zones.get(entry.getKey() / numberOfZones);
+				String destinationZone = zones.get(entry.getKey() % numberOfZones);
+				assertEquals("Scaling factor of the rebalanced matrix", expected, scalingFactors.getFlow(originZone, destinationZone), 1e-9);
+			}
+		}
+		
+		//only the matrix after the last iteration is saved
+		props.setProperty("FLAG_SAVE_ESTIMATION_ITERATIONS", "false");
+		new File(file, "ODMafterIteration0.csv").delete();
+		new File(file, "ODMafterIteration1.csv").delete();
+		rodm.iterate(2);
+		assertFalse("Matrix after the first iteration is not saved", new File(file, "ODMafterIteration0.csv").exists());
+		assertTrue("Matrix after the last iteration is saved", new File(file, "ODMafterIteration1.csv").exists());
 	}
 }
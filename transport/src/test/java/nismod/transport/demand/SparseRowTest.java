@@ -0,0 +1,55 @@
+/**
+ *
+ */
+package nismod.transport.demand;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Tests for the SparseRow class
+ * @author Milan Lovric
+ *
+ */
+public class SparseRowTest {
+
+	@Test
+	public void test() {
+
+		final double EPSILON = 1e-12;
+
+		SparseRow row = new SparseRow();
+		assertEquals("Empty row", 0, row.size());
+		assertEquals("Cell that is not stored", 0.0, row.get(5), EPSILON);
+		assertEquals("First cell of an empty row", 0, row.indexAfter(-1));
+
+		//cells are kept sorted by column (and the arrays grow as needed)
+		assertTrue("New cell", row.put(7000, 1.0));
+		assertTrue("New cell", row.put(3, 2.0));
+		for (int column = 100; column < 110; column++) assertTrue("New cell", row.put(column, column));
+		assertFalse("Existing cell", row.put(3, 3.0));
+		assertEquals("Number of cells", 12, row.size());
+		assertEquals("First column", 3, row.getColumn(0));
+		assertEquals("Last column", 7000, row.getColumn(row.size() - 1));
+		assertEquals("Changed value", 3.0, row.get(3), EPSILON);
+		assertEquals("Value at the position", 105.0, row.getValue(row.indexOf(105)), EPSILON);
+		assertTrue("Stored cell", row.contains(7000));
+		assertFalse("Cell that is not stored", row.contains(50));
+
+		//the next cell can be found after a column that is no longer stored
+		assertEquals("Next cell after a stored column", row.indexOf(101), row.indexAfter(100));
+		assertTrue("Removed cell", row.remove(100));
+		assertFalse("Cell that is not stored", row.remove(100));
+		assertEquals("Next cell after a removed column", row.indexOf(101), row.indexAfter(100));
+		assertEquals("Next cell after the last column", row.size(), row.indexAfter(7000));
+		assertEquals("Number of cells", 11, row.size());
+		assertEquals("Removed cell", 0.0, row.get(100), EPSILON);
+
+		//integer flows are represented exactly
+		row.put(50, Integer.MAX_VALUE);
+		assertEquals("Integer flow", Integer.MAX_VALUE, (int) row.get(50));
+	}
+}
@@ -0,0 +1,77 @@
+/**
+ * 
+ */
+package nismod.transport.demand;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import nismod.transport.zone.ZoneCodeRegistry;
+
+/**
+ * Tests for the ZoneAxis class
+ * @author Milan Lovric
+ *
+ */
+public class ZoneAxisTest {
+
+	@Test
+	public void test() {
+
+		ZoneAxis axis = new ZoneAxis();
+		assertEquals("Unknown key is not on the axis", -1, axis.indexOf(7));
+		assertEquals("Negative key is not on the axis", -1, axis.indexOf(-1));
+
+		//keys are given local indices in the order in which they were added (and the arrays grow as needed)
+		assertEquals("Local index of the first key", 0, axis.add(3000));
+		assertEquals("Local index of the second key", 1, axis.add(7));
+		assertEquals("Existing key keeps its local index", 0, axis.add(3000));
+		for (int key = 100; key < 140; key++) axis.add(key);
+		assertEquals("Number of local indices", 42, axis.size());
+		assertEquals("Local index after growth", 41, axis.indexOf(139));
+		assertEquals("Key of the local index", 139, axis.getKey(41));
+		assertEquals("Key of the local index", 3000, axis.getKey(0));
+
+		//only zones with non-empty cells are listed
+		assertTrue("No zones without non-empty cells", axis.getKeys().isEmpty());
+		axis.increment(axis.indexOf(3000));
+		axis.increment(axis.indexOf(7));
+		axis.increment(axis.indexOf(7));
+		axis.increment(axis.indexOf(120));
+		assertTrue("Zone with a non-empty cell is used", axis.isUsed(axis.indexOf(7)));
+		assertFalse("Zone without non-empty cells is not used", axis.isUsed(axis.indexOf(100)));
+		assertEquals("Keys in the order in which they were added", Arrays.asList(3000, 7, 120), axis.getKeys());
+		assertEquals("Sorted keys", Arrays.asList(7, 120, 3000), axis.getSortedKeys());
+
+		//the sorted keys are cached until the set of used zones changes
+		List<Integer> sortedKeys = axis.getSortedKeys();
+		sortedKeys.clear(); //the returned list can be modified by the caller
+		assertEquals("Cached sorted keys are not modified by the caller", Arrays.asList(7, 120, 3000), axis.getSortedKeys());
+		axis.decrement(axis.indexOf(7));
+		assertEquals("Zone with a remaining non-empty cell is still listed", Arrays.asList(7, 120, 3000), axis.getSortedKeys());
+		axis.decrement(axis.indexOf(7));
+		assertFalse("Zone with no non-empty cells is not used", axis.isUsed(axis.indexOf(7)));
+		assertEquals("Zone with no non-empty cells is not listed", Arrays.asList(120, 3000), axis.getSortedKeys());
+		assertEquals("Zone keeps its local index", 1, axis.indexOf(7));
+		axis.increment(axis.indexOf(100));
+		assertEquals("Newly used zone is listed", Arrays.asList(100, 120, 3000), axis.getSortedKeys());
+
+		//zone codes
+		ZoneAxis codeAxis = new ZoneAxis();
+		codeAxis.increment(codeAxis.add(ZoneCodeRegistry.getID("E07000091")));
+		codeAxis.increment(codeAxis.add(ZoneCodeRegistry.getID("E06000045")));
+		codeAxis.add(ZoneCodeRegistry.getID("E07000086"));
+		assertEquals("Codes in the order in which they were added", Arrays.asList("E07000091", "E06000045"), codeAxis.getCodes());
+		assertEquals("Sorted codes", Arrays.asList("E06000045", "E07000091"), codeAxis.getSortedCodes());
+		codeAxis.increment(codeAxis.indexOf(ZoneCodeRegistry.getID("E07000086")));
+		assertEquals("Sorted codes are updated", Arrays.asList("E06000045", "E07000086", "E07000091"), codeAxis.getSortedCodes());
+		codeAxis.decrement(codeAxis.indexOf(ZoneCodeRegistry.getID("E06000045")));
+		assertEquals("Sorted codes are updated", Arrays.asList("E07000086", "E07000091"), codeAxis.getSortedCodes());
+	}
+}
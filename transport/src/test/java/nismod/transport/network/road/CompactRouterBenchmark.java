@@ -0,0 +1,136 @@
+package nismod.transport.network.road;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.geotools.graph.structure.DirectedNode;
+import org.geotools.graph.structure.Node;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import nismod.transport.utility.ConfigReader;
+
+/**
+ * JMH benchmark of the fastest path queries on the test road network: GeoTools path finders against the compact (CSR) graph router,
+ * for A* and Dijkstra's algorithm, over a fixed sample of node pairs with congested link travel times.
+ * Run with: mvn test-compile, then the main method of this class with the test classpath.
+ * @author Milan Lovric
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class CompactRouterBenchmark {
+
+	@Param({"1000"})
+	public int pairs;
+
+	private RoadNetwork roadNetwork;
+	private DirectedNode[] origins;
+	private DirectedNode[] destinations;
+	private double[] linkTravelTime;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+
+		final String configFile = "./src/test/config/testConfig.properties";
+		Properties props = ConfigReader.getProperties(configFile);
+
+		final String areaCodeFileName = props.getProperty("areaCodeFileName");
+		final String areaCodeNearestNodeFile = props.getProperty("areaCodeNearestNodeFile");
+		final String workplaceZoneFileName = props.getProperty("workplaceZoneFileName");
+		final String workplaceZoneNearestNodeFile = props.getProperty("workplaceZoneNearestNodeFile");
+		final String freightZoneToLADfile = props.getProperty("freightZoneToLADfile");
+		final String freightZoneNearestNodeFile = props.getProperty("freightZoneNearestNodeFile");
+
+		final URL zonesUrl = new URL(props.getProperty("zonesUrl"));
+		final URL networkUrl = new URL(props.getProperty("networkUrl"));
+		final URL networkUrlFixedEdgeIDs = new URL(props.getProperty("networkUrlFixedEdgeIDs"));
+		final URL nodesUrl = new URL(props.getProperty("nodesUrl"));
+		final URL AADFurl = new URL(props.getProperty("AADFurl"));
+
+		this.roadNetwork = new RoadNetwork(zonesUrl, networkUrl, nodesUrl, AADFurl, areaCodeFileName, areaCodeNearestNodeFile, workplaceZoneFileName, workplaceZoneNearestNodeFile, freightZoneToLADfile, freightZoneNearestNodeFile, props);
+		this.roadNetwork.replaceNetworkEdgeIDs(networkUrlFixedEdgeIDs);
+		this.roadNetwork.getCompactGraph(); //build the compact graph outside of the measurement
+
+		//congested travel times (every third link twice as slow as in free flow)
+		double[] freeFlowTravelTime = this.roadNetwork.getFreeFlowTravelTime();
+		this.linkTravelTime = new double[this.roadNetwork.maximumEdgeID];
+		for (int edgeID = 0; edgeID < this.roadNetwork.maximumEdgeID; edgeID++)
+			this.linkTravelTime[edgeID] = (edgeID % 3 == 0) ? 2.0 * freeFlowTravelTime[edgeID] : freeFlowTravelTime[edgeID];
+
+		List<DirectedNode> nodes = new ArrayList<DirectedNode>();
+		for (Node node: this.roadNetwork.getNodeIDtoNode())
+			if (node != null) nodes.add((DirectedNode) node);
+
+		//the same random node pairs for all benchmarks
+		SplittableRandom random = new SplittableRandom(1234);
+		this.origins = new DirectedNode[this.pairs];
+		this.destinations = new DirectedNode[this.pairs];
+		for (int pair = 0; pair < this.pairs; pair++) {
+			this.origins[pair] = nodes.get(random.nextInt(nodes.size()));
+			this.destinations[pair] = nodes.get(random.nextInt(nodes.size()));
+		}
+	}
+
+	@Benchmark
+	public void geoToolsAStar(Blackhole blackhole) {
+
+		this.roadNetwork.setUseCompactRouter(false);
+		for (int pair = 0; pair < this.pairs; pair++)
+			blackhole.consume(this.roadNetwork.getFastestPath(this.origins[pair], this.destinations[pair], this.linkTravelTime));
+	}
+
+	@Benchmark
+	public void compactAStar(Blackhole blackhole) {
+
+		this.roadNetwork.setUseCompactRouter(true);
+		for (int pair = 0; pair < this.pairs; pair++)
+			blackhole.consume(this.roadNetwork.getFastestPath(this.origins[pair], this.destinations[pair], this.linkTravelTime));
+	}
+
+	@Benchmark
+	public void geoToolsDijkstra(Blackhole blackhole) {
+
+		this.roadNetwork.setUseCompactRouter(false);
+		for (int pair = 0; pair < this.pairs; pair++)
+			blackhole.consume(this.roadNetwork.getFastestPathDijkstra(this.origins[pair], this.destinations[pair], this.linkTravelTime));
+	}
+
+	@Benchmark
+	public void compactDijkstra(Blackhole blackhole) {
+
+		this.roadNetwork.setUseCompactRouter(true);
+		for (int pair = 0; pair < this.pairs; pair++)
+			blackhole.consume(this.roadNetwork.getFastestPathDijkstra(this.origins[pair], this.destinations[pair], this.linkTravelTime));
+	}
+
+	public static void main(String[] args) throws RunnerException {
+
+		Options options = new OptionsBuilder().include(CompactRouterBenchmark.class.getSimpleName()).build();
+		new Runner(options).run();
+	}
+}
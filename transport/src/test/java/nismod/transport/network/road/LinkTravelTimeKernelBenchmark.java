@@ -0,0 +1,156 @@
+package nismod.transport.network.road;
+
+import java.util.EnumMap;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import gnu.trove.list.array.TIntArrayList;
+import nismod.transport.network.road.RoadNetwork.EdgeType;
+import nismod.transport.network.road.RoadNetworkAssignment.TimeOfDay;
+
+/**
+ * JMH benchmark of the link travel time update on a synthetic network: the per-edge loop over hourly maps
+ * (with the edge type branch inside the loop over hours) against the link travel time kernel, single-threaded and parallel.
+ * Run with: mvn test-compile, then the main method of this class with the test classpath.
+ * @author Milan Lovric
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class LinkTravelTimeKernelBenchmark {
+
+	@Param({"20000", "200000"})
+	public int edges;
+
+	private int[] edgeIDs;
+	private EdgeType[] edgesType;
+	private int[] numberOfLanes;
+	private double[] edgeLengths;
+	private double[] freeFlowTravelTime;
+	private EnumMap<TimeOfDay, double[]> linkVolumesPerTimeOfDay;
+	private EnumMap<TimeOfDay, double[]> linkTravelTimePerTimeOfDay;
+	private double[][] volumes;
+	private double[][] times;
+	private LinkTravelTimeKernel kernel;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+
+		SplittableRandom random = new SplittableRandom(1234);
+		int maximumEdgeID = this.edges + 1;
+		this.edgeIDs = new int[this.edges];
+		this.edgesType = new EdgeType[maximumEdgeID];
+		this.numberOfLanes = new int[maximumEdgeID];
+		this.edgeLengths = new double[maximumEdgeID];
+		this.freeFlowTravelTime = new double[maximumEdgeID];
+		TIntArrayList motorwayEdges = new TIntArrayList();
+		TIntArrayList aRoadEdges = new TIntArrayList();
+		TIntArrayList ferryEdges = new TIntArrayList();
+		for (int i = 0; i < this.edges; i++) {
+			int edgeID = i + 1;
+			this.edgeIDs[i] = edgeID;
+			this.edgesType[edgeID] = random.nextInt(100) == 0 ? EdgeType.FERRY : random.nextInt(3) == 0 ? EdgeType.MOTORWAY : EdgeType.AROAD;
+			this.numberOfLanes[edgeID] = 1 + random.nextInt(4);
+			this.edgeLengths[edgeID] = 0.1 + 5.0 * random.nextDouble();
+			this.freeFlowTravelTime[edgeID] = this.edgeLengths[edgeID] / 100.0 * 60;
+			if (this.edgesType[edgeID] == EdgeType.MOTORWAY) motorwayEdges.add(edgeID);
+			else if (this.edgesType[edgeID] == EdgeType.AROAD) aRoadEdges.add(edgeID);
+			else ferryEdges.add(edgeID);
+		}
+		this.kernel = new LinkTravelTimeKernel(motorwayEdges.toArray(), aRoadEdges.toArray(), ferryEdges.toArray());
+
+		//both layouts share the same hourly arrays
+		this.linkVolumesPerTimeOfDay = new EnumMap<TimeOfDay, double[]>(TimeOfDay.class);
+		this.linkTravelTimePerTimeOfDay = new EnumMap<TimeOfDay, double[]>(TimeOfDay.class);
+		this.volumes = new double[TimeOfDay.values().length][];
+		this.times = new double[TimeOfDay.values().length][];
+		for (TimeOfDay hour: TimeOfDay.values()) {
+			double[] hourlyVolumes = new double[maximumEdgeID];
+			double[] hourlyTimes = new double[maximumEdgeID];
+			for (int edgeID: this.edgeIDs) {
+				hourlyVolumes[edgeID] = 6000.0 * random.nextDouble();
+				hourlyTimes[edgeID] = this.freeFlowTravelTime[edgeID];
+			}
+			this.linkVolumesPerTimeOfDay.put(hour, hourlyVolumes);
+			this.linkTravelTimePerTimeOfDay.put(hour, hourlyTimes);
+			this.volumes[hour.ordinal()] = hourlyVolumes;
+			this.times[hour.ordinal()] = hourlyTimes;
+		}
+	}
+
+	@Benchmark
+	public double[][] perEdgeLoop() {
+
+		for (int edgeID: this.edgeIDs) {
+			EdgeType edgeType = this.edgesType[edgeID];
+			double roadLength = this.edgeLengths[edgeID];
+			for (TimeOfDay hour: TimeOfDay.values()) {
+				double linkVolumeInPCU = this.linkVolumesPerTimeOfDay.get(hour)[edgeID];
+				double congestedTravelTime;
+				if (edgeType == EdgeType.MOTORWAY) {
+					double flow = linkVolumeInPCU / this.numberOfLanes[edgeID];
+					double speed = 0.0;
+					if (flow < 1398) speed = ((69.96 - 71.95) / 1398 * flow + 71.95) * 1.609344;
+					else if (flow < 2330) speed = ((34.55 - 69.96) / (2330 - 1398) * (flow - 1398) + 69.96) * 1.609344;
+					else speed = roadLength / (roadLength / 34.55 + 0.5 * (flow / 2330 - 1.0));
+					congestedTravelTime = roadLength / speed * 60;
+				} else if (edgeType == EdgeType.AROAD) {
+					double flow = linkVolumeInPCU / this.numberOfLanes[edgeID];
+					double speed = 0.0;
+					if (flow < 1251) speed = ((50.14 - 56.05) / 1251 * flow + 56.05) * 1.609344;
+					else if (flow < 1740) speed = ((27.22 - 50.14) / (1740 - 1251) * (flow - 1251) + 50.14) * 1.609344;
+					else speed = roadLength / (roadLength / 27.22 + 0.15 * (flow / 1740 - 1.0));
+					congestedTravelTime = roadLength / speed * 60;
+				} else
+					congestedTravelTime = this.freeFlowTravelTime[edgeID];
+
+				double[] hourlyTimes = this.linkTravelTimePerTimeOfDay.get(hour);
+				double oldLinkTravelTime = hourlyTimes[edgeID];
+				if (oldLinkTravelTime == 0.0) oldLinkTravelTime = this.freeFlowTravelTime[edgeID];
+				hourlyTimes[edgeID] = 0.5 * congestedTravelTime + (1 - 0.5) * oldLinkTravelTime;
+			}
+		}
+		return this.times;
+	}
+
+	@Benchmark
+	public double[][] kernel() {
+
+		this.kernel.update(this.volumes, this.times, this.numberOfLanes, this.edgeLengths, this.freeFlowTravelTime, 0.5, 1);
+		return this.times;
+	}
+
+	@Benchmark
+	public double[][] parallelKernel() {
+
+		this.kernel.update(this.volumes, this.times, this.numberOfLanes, this.edgeLengths, this.freeFlowTravelTime, 0.5, Runtime.getRuntime().availableProcessors());
+		return this.times;
+	}
+
+	public static void main(String[] args) throws RunnerException {
+
+		Options options = new OptionsBuilder().include(LinkTravelTimeKernelBenchmark.class.getSimpleName()).build();
+		new Runner(options).run();
+	}
+}
@@ -0,0 +1,123 @@
+package nismod.transport.network.road;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.SplittableRandom;
+
+import org.junit.Test;
+
+import gnu.trove.list.array.TIntArrayList;
+
+public class LinkTravelTimeKernelTest {
+
+	private static final int MOTORWAY = 0;
+	private static final int AROAD = 1;
+	private static final int FERRY = 2;
+
+	@Test
+	public void test() {
+
+		final int hours = 24;
+		final int maximumEdgeID = 2 * LinkTravelTimeKernel.MIN_EDGES_PER_PARALLEL_UPDATE + 1; //edge IDs start from 1
+		SplittableRandom random = new SplittableRandom(1234);
+
+		//synthetic network with all three edge types, interleaved edge IDs and some missing edges
+		int[] edgeTypes = new int[maximumEdgeID];
+		int[] numberOfLanes = new int[maximumEdgeID];
+		double[] edgeLengths = new double[maximumEdgeID];
+		double[] freeFlowTravelTime = new double[maximumEdgeID];
+		TIntArrayList motorwayEdges = new TIntArrayList();
+		TIntArrayList aRoadEdges = new TIntArrayList();
+		TIntArrayList ferryEdges = new TIntArrayList();
+		TIntArrayList allEdges = new TIntArrayList();
+		for (int edgeID = maximumEdgeID - 1; edgeID > 0; edgeID--) { //descending, so the kernel has to sort them
+			if (random.nextInt(20) == 0) continue; //not in the graph
+			edgeTypes[edgeID] = random.nextInt(10) == 0 ? FERRY : random.nextInt(3) == 0 ? MOTORWAY : AROAD;
+			numberOfLanes[edgeID] = 1 + random.nextInt(4);
+			edgeLengths[edgeID] = 0.1 + 5.0 * random.nextDouble();
+			freeFlowTravelTime[edgeID] = edgeLengths[edgeID] / 100.0 * 60;
+			if (edgeTypes[edgeID] == MOTORWAY) motorwayEdges.add(edgeID);
+			else if (edgeTypes[edgeID] == AROAD) aRoadEdges.add(edgeID);
+			else ferryEdges.add(edgeID);
+			allEdges.add(edgeID);
+		}
+
+		//volumes in all the regions of the speed-flow curves, and some edges without old travel times
+		double[][] volumes = new double[hours][maximumEdgeID];
+		double[][] times = new double[hours][maximumEdgeID];
+		for (int hour = 0; hour < hours; hour++)
+			for (int i = 0; i < allEdges.size(); i++) {
+				int edgeID = allEdges.get(i);
+				volumes[hour][edgeID] = 12000.0 * random.nextDouble();
+				times[hour][edgeID] = random.nextInt(10) == 0 ? 0.0 : freeFlowTravelTime[edgeID] * (1.0 + random.nextDouble());
+			}
+
+		LinkTravelTimeKernel kernel = new LinkTravelTimeKernel(motorwayEdges.toArray(), aRoadEdges.toArray(), ferryEdges.toArray());
+		assertEquals("Number of motorway edges", motorwayEdges.size(), kernel.getMotorwayCount());
+		assertEquals("Number of A-road edges", aRoadEdges.size(), kernel.getARoadCount());
+		assertEquals("Number of other edges", ferryEdges.size(), kernel.getOtherCount());
+
+		final double weight = 0.7;
+		double[][] expectedTimes = copy(times);
+		update(allEdges, edgeTypes, volumes, expectedTimes, numberOfLanes, edgeLengths, freeFlowTravelTime, weight);
+
+		//single-threaded and parallel kernel give exactly the same travel times as the per-edge loop
+		for (int threads: new int[] {1, 4}) {
+			double[][] kernelTimes = copy(times);
+			kernel.update(volumes, kernelTimes, numberOfLanes, edgeLengths, freeFlowTravelTime, weight, threads);
+			for (int hour = 0; hour < hours; hour++)
+				assertArrayEquals("Link travel times with " + threads + " threads", expectedTimes[hour], kernelTimes[hour], 0.0);
+		}
+
+		//one hour can be updated on its own
+		double[] hourlyTimes = times[7].clone();
+		kernel.updateHour(volumes[7], hourlyTimes, numberOfLanes, edgeLengths, freeFlowTravelTime, weight);
+		assertArrayEquals("Hourly link travel times", expectedTimes[7], hourlyTimes, 0.0);
+
+		//ferry travel time is fixed
+		int ferryEdgeID = ferryEdges.get(0);
+		double[][] fixedTimes = copy(times);
+		kernel.update(volumes, fixedTimes, numberOfLanes, edgeLengths, freeFlowTravelTime, 1.0, 1);
+		assertEquals("Ferry travel time", freeFlowTravelTime[ferryEdgeID], fixedTimes[0][ferryEdgeID], 0.0);
+	}
+
+	/**
+	 * Per-edge loop with the edge type branch inside the loop over hours (as before the kernel).
+	 */
+	private static void update(TIntArrayList edges, int[] edgeTypes, double[][] volumes, double[][] times, int[] numberOfLanes, double[] edgeLengths, double[] freeFlowTravelTime, double weight) {
+
+		for (int i = 0; i < edges.size(); i++) {
+			int edgeID = edges.get(i);
+			double roadLength = edgeLengths[edgeID];
+			for (int hour = 0; hour < times.length; hour++) {
+				double congestedTravelTime;
+				double flow = volumes[hour][edgeID] / numberOfLanes[edgeID];
+				double speed = 0.0;
+				if (edgeTypes[edgeID] == MOTORWAY) {
+					if (flow < 1398) speed = ((69.96 - 71.95) / 1398 * flow + 71.95) * 1.609344;
+					else if (flow < 2330) speed = ((34.55 - 69.96) / (2330 - 1398) * (flow - 1398) + 69.96) * 1.609344;
+					else speed = roadLength / (roadLength / 34.55 + 0.5 * (flow / 2330 - 1.0));
+					congestedTravelTime = roadLength / speed * 60;
+				} else if (edgeTypes[edgeID] == AROAD) {
+					if (flow < 1251) speed = ((50.14 - 56.05) / 1251 * flow + 56.05) * 1.609344;
+					else if (flow < 1740) speed = ((27.22 - 50.14) / (1740 - 1251) * (flow - 1251) + 50.14) * 1.609344;
+					else speed = roadLength / (roadLength / 27.22 + 0.15 * (flow / 1740 - 1.0));
+					congestedTravelTime = roadLength / speed * 60;
+				} else
+					congestedTravelTime = freeFlowTravelTime[edgeID];
+
+				double oldLinkTravelTime = times[hour][edgeID];
+				if (oldLinkTravelTime == 0.0) oldLinkTravelTime = freeFlowTravelTime[edgeID];
+				times[hour][edgeID] = weight * congestedTravelTime + (1 - weight) * oldLinkTravelTime;
+			}
+		}
+	}
+
+	private static double[][] copy(double[][] matrix) {
+
+		double[][] copy = new double[matrix.length][];
+		for (int i = 0; i < matrix.length; i++) copy[i] = matrix[i].clone();
+		return copy;
+	}
+}
@@ -0,0 +1,162 @@
+package nismod.transport.network.road;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import nismod.transport.demand.ODMatrixMultiKey;
+import nismod.transport.utility.ConfigReader;
+import nismod.transport.utility.InputFileReader;
+import nismod.transport.utility.RandomSingleton;
+import nismod.transport.zone.Zoning;
+
+/**
+ * JMH benchmark of the link volume accumulation from the trip table: separate passes for daily, hourly and vehicle type volumes
+ * against the fused single pass, single-threaded and parallel. The trip table of the aggregate assignment on the mini test network
+ * is replicated to the given number of trips.
+ * Run with: mvn test-compile, then the main method of this class with the test classpath.
+ * @author Milan Lovric
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class LinkVolumeBenchmark {
+
+	@Param({"200000"})
+	public int trips;
+
+	@Param({"4"})
+	public int threads;
+
+	private RoadNetworkAssignment rna;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+
+		final String configFile = "./src/test/config/miniTestConfig.properties";
+		Properties props = ConfigReader.getProperties(configFile);
+		props.setProperty("FLAG_AGGREGATE_ASSIGNMENT", "true");
+
+		final String areaCodeFileName = props.getProperty("areaCodeFileName");
+		final String areaCodeNearestNodeFile = props.getProperty("areaCodeNearestNodeFile");
+		final String workplaceZoneFileName = props.getProperty("workplaceZoneFileName");
+		final String workplaceZoneNearestNodeFile = props.getProperty("workplaceZoneNearestNodeFile");
+		final String freightZoneToLADfile = props.getProperty("freightZoneToLADfile");
+		final String freightZoneNearestNodeFile = props.getProperty("freightZoneNearestNodeFile");
+
+		final URL zonesUrl = new URL(props.getProperty("zonesUrl"));
+		final URL networkUrl = new URL(props.getProperty("networkUrl"));
+		final URL networkUrlFixedEdgeIDs = new URL(props.getProperty("networkUrlFixedEdgeIDs"));
+		final URL nodesUrl = new URL(props.getProperty("nodesUrl"));
+		final URL AADFurl = new URL(props.getProperty("AADFurl"));
+		final URL temproZonesUrl = new URL(props.getProperty("temproZonesUrl"));
+
+		RoadNetwork roadNetwork = new RoadNetwork(zonesUrl, networkUrl, nodesUrl, AADFurl, areaCodeFileName, areaCodeNearestNodeFile, workplaceZoneFileName, workplaceZoneNearestNodeFile, freightZoneToLADfile, freightZoneNearestNodeFile, props);
+		roadNetwork.replaceNetworkEdgeIDs(networkUrlFixedEdgeIDs);
+		Zoning zoning = new Zoning(temproZonesUrl, nodesUrl, roadNetwork, props);
+
+		final String energyUnitCostsFile = props.getProperty("energyUnitCostsFile");
+		final String unitCO2EmissionsFile = props.getProperty("unitCO2EmissionsFile");
+		final String engineTypeFractionsFile = props.getProperty("engineTypeFractionsFile");
+		final String AVFractionsFile = props.getProperty("autonomousVehiclesFile");
+		final String vehicleTypeToPCUFile = props.getProperty("vehicleTypeToPCUFile");
+		final String timeOfDayDistributionFile = props.getProperty("timeOfDayDistributionFile");
+		final String timeOfDayDistributionFreightFile = props.getProperty("timeOfDayDistributionFreightFile");
+		final String baseFuelConsumptionRatesFile = props.getProperty("baseFuelConsumptionRatesFile");
+		final String relativeFuelEfficiencyFile = props.getProperty("relativeFuelEfficiencyFile");
+		final int BASE_YEAR = Integer.parseInt(props.getProperty("baseYear"));
+
+		this.rna = new RoadNetworkAssignment(roadNetwork,
+											zoning,
+											InputFileReader.readEnergyUnitCostsFile(energyUnitCostsFile).get(BASE_YEAR),
+											InputFileReader.readUnitCO2EmissionFile(unitCO2EmissionsFile).get(BASE_YEAR),
+											InputFileReader.readEngineTypeFractionsFile(engineTypeFractionsFile).get(BASE_YEAR),
+											InputFileReader.readAVFractionsFile(AVFractionsFile).get(BASE_YEAR),
+											InputFileReader.readVehicleTypeToPCUFile(vehicleTypeToPCUFile),
+											InputFileReader.readEnergyConsumptionParamsFile(baseFuelConsumptionRatesFile),
+											InputFileReader.readRelativeFuelEfficiencyFile(relativeFuelEfficiencyFile).get(BASE_YEAR),
+											InputFileReader.readTimeOfDayDistributionFile(timeOfDayDistributionFile).get(BASE_YEAR),
+											InputFileReader.readTimeOfDayDistributionFreightFile(timeOfDayDistributionFreightFile).get(BASE_YEAR),
+											null,
+											null,
+											null,
+											null,
+											props);
+
+		ODMatrixMultiKey odm = new ODMatrixMultiKey(props.getProperty("baseYearODMatrixFile"));
+		Properties params = new Properties();
+		params.setProperty("ROUTE_LIMIT", "5");
+		params.setProperty("GENERATION_LIMIT", "10");
+		RouteSetGenerator rsg = new RouteSetGenerator(roadNetwork, params);
+		rsg.generateRouteSetForODMatrix(odm);
+		rsg.calculateAllPathsizes();
+		params.setProperty("TIME", "-1.5");
+		params.setProperty("LENGTH", "-1.5");
+		params.setProperty("COST", "-3.6");
+		params.setProperty("INTERSECTIONS", "-0.1");
+		params.setProperty("AVERAGE_INTERSECTION_DELAY", "0.8");
+
+		RandomSingleton.getInstance().setSeed(1234);
+		this.rna.assignPassengerFlowsRouteChoice(odm, rsg, params);
+
+		//replicate the trip table to the benchmarked size
+		TripTable tripTable = this.rna.getTripTable();
+		TripTable copy = new TripTable();
+		copy.addAll(tripTable, 0, tripTable.size());
+		while (tripTable.size() < this.trips) tripTable.addAll(copy, 0, Math.min(copy.size(), this.trips - tripTable.size()));
+	}
+
+	@Benchmark
+	public void separatePasses(Blackhole blackhole) {
+
+		this.rna.updateLinkVolumeInPCU();
+		this.rna.updateLinkVolumeInPCUPerTimeOfDay();
+		this.rna.updateLinkVolumePerVehicleType();
+		blackhole.consume(this.rna.getLinkVolumeInPCU());
+		blackhole.consume(this.rna.getLinkVolumeInPCUPerTimeOfDay());
+		blackhole.consume(this.rna.getLinkVolumePerVehicleType());
+	}
+
+	@Benchmark
+	public void fusedPass(Blackhole blackhole) {
+
+		this.rna.updateLinkVolumes(1);
+		blackhole.consume(this.rna.getLinkVolumeInPCU());
+	}
+
+	@Benchmark
+	public void fusedPassParallel(Blackhole blackhole) {
+
+		this.rna.updateLinkVolumes(this.threads);
+		blackhole.consume(this.rna.getLinkVolumeInPCU());
+	}
+
+	public static void main(String[] args) throws RunnerException {
+
+		Options options = new OptionsBuilder().include(LinkVolumeBenchmark.class.getSimpleName()).build();
+		new Runner(options).run();
+	}
+}
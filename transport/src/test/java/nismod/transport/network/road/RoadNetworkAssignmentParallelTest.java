@@ -0,0 +1,324 @@
+package nismod.transport.network.road;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+import org.apache.commons.collections4.keyvalue.MultiKey;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import nismod.transport.demand.ODMatrixMultiKey;
+import nismod.transport.network.road.RoadNetworkAssignment.TimeOfDay;
+import nismod.transport.network.road.RoadNetworkAssignment.VehicleType;
+import nismod.transport.utility.ConfigReader;
+import nismod.transport.utility.InputFileReader;
+import nismod.transport.utility.RandomSingleton;
+import nismod.transport.zone.Zoning;
+
+/**
+ * Tests that the multi-threaded and aggregate passenger assignments give the same results as the single-threaded ones.
+ * The mini test network, zoning, OD matrix and route set are created once and shared by all the tests.
+ * @author Milan Lovric
+ *
+ */
+public class RoadNetworkAssignmentParallelTest {
+
+	private static final double PRECISION = 1e-6;
+
+	private static Properties props;
+	private static RoadNetwork roadNetwork;
+	private static Zoning zoning;
+	private static ODMatrixMultiKey odm;
+	private static RouteSetGenerator rsg;
+	private static Properties params;
+
+	@BeforeClass
+	public static void initialise() throws IOException {
+
+		final String configFile = "./src/test/config/miniTestConfig.properties";
+		props = ConfigReader.getProperties(configFile);
+
+		final String areaCodeFileName = props.getProperty("areaCodeFileName");
+		final String areaCodeNearestNodeFile = props.getProperty("areaCodeNearestNodeFile");
+		final String workplaceZoneFileName = props.getProperty("workplaceZoneFileName");
+		final String workplaceZoneNearestNodeFile = props.getProperty("workplaceZoneNearestNodeFile");
+		final String freightZoneToLADfile = props.getProperty("freightZoneToLADfile");
+		final String freightZoneNearestNodeFile = props.getProperty("freightZoneNearestNodeFile");
+
+		final URL zonesUrl = new URL(props.getProperty("zonesUrl"));
+		final URL networkUrl = new URL(props.getProperty("networkUrl"));
+		final URL networkUrlFixedEdgeIDs = new URL(props.getProperty("networkUrlFixedEdgeIDs"));
+		final URL nodesUrl = new URL(props.getProperty("nodesUrl"));
+		final URL AADFurl = new URL(props.getProperty("AADFurl"));
+
+		final String baseYearODMatrixFile = props.getProperty("baseYearODMatrixFile");
+
+		//create a road network
+		roadNetwork = new RoadNetwork(zonesUrl, networkUrl, nodesUrl, AADFurl, areaCodeFileName, areaCodeNearestNodeFile, workplaceZoneFileName, workplaceZoneNearestNodeFile, freightZoneToLADfile, freightZoneNearestNodeFile, props);
+		roadNetwork.replaceNetworkEdgeIDs(networkUrlFixedEdgeIDs);
+
+		final URL temproZonesUrl = new URL(props.getProperty("temproZonesUrl"));
+		zoning = new Zoning(temproZonesUrl, nodesUrl, roadNetwork, props);
+
+		odm = new ODMatrixMultiKey(baseYearODMatrixFile);
+
+		//set route generation parameters
+		params = new Properties();
+		params.setProperty("ROUTE_LIMIT", "5");
+		params.setProperty("GENERATION_LIMIT", "10");
+		rsg = new RouteSetGenerator(roadNetwork, params);
+		rsg.generateRouteSetForODMatrix(odm);
+		rsg.calculateAllPathsizes();
+
+		//set route choice parameters
+		params.setProperty("TIME", "-1.5");
+		params.setProperty("LENGTH", "-1.5");
+		params.setProperty("COST", "-3.6");
+		params.setProperty("INTERSECTIONS", "-0.1");
+		params.setProperty("AVERAGE_INTERSECTION_DELAY", "0.8");
+	}
+
+	/**
+	 * Creates a road network assignment on the shared network and zoning.
+	 * @param threads Number of assignment threads.
+	 * @param aggregate Whether to use the aggregate assignment.
+	 * @return Road network assignment.
+	 * @throws IOException if any.
+	 */
+	private static RoadNetworkAssignment createAssignment(int threads, boolean aggregate) throws IOException {
+
+		Properties assignmentProps = new Properties();
+		assignmentProps.putAll(props);
+		assignmentProps.setProperty("ASSIGNMENT_THREADS", String.valueOf(threads));
+		assignmentProps.setProperty("FLAG_AGGREGATE_ASSIGNMENT", String.valueOf(aggregate));
+
+		final String energyUnitCostsFile = props.getProperty("energyUnitCostsFile");
+		final String unitCO2EmissionsFile = props.getProperty("unitCO2EmissionsFile");
+		final String engineTypeFractionsFile = props.getProperty("engineTypeFractionsFile");
+		final String AVFractionsFile = props.getProperty("autonomousVehiclesFile");
+		final String vehicleTypeToPCUFile = props.getProperty("vehicleTypeToPCUFile");
+		final String timeOfDayDistributionFile = props.getProperty("timeOfDayDistributionFile");
+		final String timeOfDayDistributionFreightFile = props.getProperty("timeOfDayDistributionFreightFile");
+		final String baseFuelConsumptionRatesFile = props.getProperty("baseFuelConsumptionRatesFile");
+		final String relativeFuelEfficiencyFile = props.getProperty("relativeFuelEfficiencyFile");
+		final int BASE_YEAR = Integer.parseInt(props.getProperty("baseYear"));
+
+		return new RoadNetworkAssignment(roadNetwork,
+										zoning,
+										InputFileReader.readEnergyUnitCostsFile(energyUnitCostsFile).get(BASE_YEAR),
+										InputFileReader.readUnitCO2EmissionFile(unitCO2EmissionsFile).get(BASE_YEAR),
+										InputFileReader.readEngineTypeFractionsFile(engineTypeFractionsFile).get(BASE_YEAR),
+										InputFileReader.readAVFractionsFile(AVFractionsFile).get(BASE_YEAR),
+										InputFileReader.readVehicleTypeToPCUFile(vehicleTypeToPCUFile),
+										InputFileReader.readEnergyConsumptionParamsFile(baseFuelConsumptionRatesFile),
+										InputFileReader.readRelativeFuelEfficiencyFile(relativeFuelEfficiencyFile).get(BASE_YEAR),
+										InputFileReader.readTimeOfDayDistributionFile(timeOfDayDistributionFile).get(BASE_YEAR),
+										InputFileReader.readTimeOfDayDistributionFreightFile(timeOfDayDistributionFreightFile).get(BASE_YEAR),
+										null,
+										null,
+										null,
+										null,
+										assignmentProps);
+	}
+
+	/**
+	 * Creates a road network assignment and assigns the shared OD matrix with route choice, using a fixed seed.
+	 * @param threads Number of assignment threads.
+	 * @param aggregate Whether to use the aggregate assignment.
+	 * @return Road network assignment.
+	 * @throws IOException if any.
+	 */
+	private static RoadNetworkAssignment assign(int threads, boolean aggregate) throws IOException {
+
+		RoadNetworkAssignment rna = createAssignment(threads, aggregate);
+		RandomSingleton.getInstance().setSeed(1234);
+		rna.assignPassengerFlowsRouteChoice(odm, rsg, params);
+		rna.updateLinkVolumes(1); //single pass keeps the same summation order for any number of assignment threads
+		return rna;
+	}
+
+	/**
+	 * Checks that two trip tables contain the same trips in the same order.
+	 * @param expected Expected trip table.
+	 * @param actual Actual trip table.
+	 */
+	private static void assertSameTrips(TripTable expected, TripTable actual) {
+
+		assertEquals("The number of trips is the same", expected.size(), actual.size());
+		for (int row = 0; row < expected.size(); row++) {
+			assertEquals("Trip type is the same", expected.getType(row), actual.getType(row));
+			assertEquals("Vehicle is the same", expected.getVehicle(row), actual.getVehicle(row));
+			assertEquals("Engine is the same", expected.getEngine(row), actual.getEngine(row));
+			assertEquals("Time of day is the same", expected.getTimeOfDay(row), actual.getTimeOfDay(row));
+			assertEquals("Route is the same", expected.getRoute(row), actual.getRoute(row));
+			assertEquals("Origin is the same", expected.getOrigin(row), actual.getOrigin(row));
+			assertEquals("Destination is the same", expected.getDestination(row), actual.getDestination(row));
+			assertEquals("Multiplier is the same", expected.getMultiplier(row), actual.getMultiplier(row));
+		}
+	}
+
+	/**
+	 * Checks that the sum of trip multipliers for each OD pair equals the flow.
+	 * @param tripTable Trip table.
+	 */
+	private static void assertTripsMatchFlows(TripTable tripTable) {
+
+		for (MultiKey mk: odm.getKeySet()) {
+			String originZone = (String) mk.getKey(0);
+			String destinationZone = (String) mk.getKey(1);
+			int counter = 0;
+			for (Trip trip: tripTable.scan()) {
+				String originLAD = trip.getOriginLAD(roadNetwork.getNodeToZone());
+				String destinationLAD = trip.getDestinationLAD(roadNetwork.getNodeToZone());
+				if (originZone.equals(originLAD) && destinationZone.equals(destinationLAD)) counter += trip.getMultiplier();
+			}
+			assertEquals("The number of trips equals the flow", odm.getFlow(originZone, destinationZone), counter);
+		}
+	}
+
+	@Test
+	public void parallelAssignmentMatchesFlows() throws IOException {
+
+		RoadNetworkAssignment rna = assign(4, false);
+		assertEquals("Number of assignment threads is read from the config", 4, rna.assignmentThreads);
+		assertTripsMatchFlows(rna.getTripTable());
+
+		//merged link volumes should be equal to link volumes calculated from the merged trip list
+		double[] volumes = rna.getLinkVolumeInPCU();
+		double[] volumesFromTrips = rna.calculateLinkVolumeInPCU(rna.getTripList());
+		for (int edgeID = 1; edgeID < volumes.length; edgeID++)
+			assertEquals("Merged link volume is correct", volumesFromTrips[edgeID], volumes[edgeID], PRECISION);
+	}
+
+	@Test
+	public void parallelAssignmentIsReproducible() throws IOException {
+
+		RoadNetworkAssignment rna = assign(4, false);
+		TripTable tripTable = new TripTable();
+		tripTable.addAll(rna.getTripTable(), 0, rna.getTripTable().size());
+		double[] volumes = rna.getLinkVolumeInPCU().clone();
+
+		//the same seed and number of threads should give the same trips
+		rna.resetLinkVolumes();
+		rna.resetTripList();
+		RandomSingleton.getInstance().setSeed(1234);
+		rna.assignPassengerFlowsRouteChoice(odm, rsg, params);
+		rna.updateLinkVolumes(1);
+
+		assertSameTrips(tripTable, rna.getTripTable());
+		for (int edgeID = 1; edgeID < volumes.length; edgeID++)
+			assertEquals("Link volume is the same", volumes[edgeID], rna.getLinkVolumeInPCU()[edgeID], PRECISION);
+	}
+
+	@Test
+	public void parallelAssignmentDoesNotDependOnThreads() throws IOException {
+
+		//the same seed with a different number of threads should give the same trips
+		RoadNetworkAssignment rna4 = assign(4, false);
+		RoadNetworkAssignment rna2 = assign(2, false);
+
+		assertSameTrips(rna4.getTripTable(), rna2.getTripTable());
+		for (int edgeID = 1; edgeID < rna4.getLinkVolumeInPCU().length; edgeID++)
+			assertEquals("Link volume is identical", rna4.getLinkVolumeInPCU()[edgeID], rna2.getLinkVolumeInPCU()[edgeID], 0.0);
+	}
+
+	@Test
+	public void aggregateAssignmentMatchesFlows() throws IOException {
+
+		RoadNetworkAssignment rna = assign(1, true);
+		assertTrue("Aggregate assignment flag is read from the config", rna.flagAggregateAssignment);
+		TripTable tripTable = rna.getTripTable();
+		assertTrue("Aggregate assignment stores fewer trips", tripTable.size() < assign(4, false).getTripTable().size());
+
+		//the sum of multipliers for a given OD equals the flow
+		assertTripsMatchFlows(tripTable);
+
+		//each trip record is a distinct combination of hour, vehicle, engine and route for an OD pair
+		Set<String> combinations = new HashSet<String>();
+		for (Trip trip: tripTable.scan())
+			assertTrue("Trip combination is distinct", combinations.add(trip.getOriginLAD(roadNetwork.getNodeToZone()) + trip.getDestinationLAD(roadNetwork.getNodeToZone())
+																			+ trip.getTimeOfDay() + trip.getVehicle() + trip.getEngine() + trip.getRoute().getFormattedString()));
+	}
+
+	@Test
+	public void aggregateAssignmentDoesNotDependOnThreads() throws IOException {
+
+		RoadNetworkAssignment rna1 = assign(1, true);
+		RoadNetworkAssignment rna4 = assign(4, true);
+
+		assertSameTrips(rna1.getTripTable(), rna4.getTripTable());
+		for (int edgeID = 1; edgeID < rna1.getLinkVolumeInPCU().length; edgeID++)
+			assertEquals("Aggregate link volume is identical", rna1.getLinkVolumeInPCU()[edgeID], rna4.getLinkVolumeInPCU()[edgeID], 0.0);
+	}
+
+	@Test
+	public void tripListViewMatchesTripTable() throws IOException {
+
+		RoadNetworkAssignment rna = assign(1, true);
+		TripTable tripTable = rna.getTripTable();
+		List<Trip> tripList = rna.getTripList();
+		assertEquals("Trip list view has all the trips from the table", tripTable.size(), tripList.size());
+		assertTrue("Trip list view is reused while the table does not change", tripList == rna.getTripList());
+
+		int row = 0;
+		for (Trip trip: tripTable.scan()) {
+			Trip listTrip = tripList.get(row);
+			assertEquals("Vehicle is the same", listTrip.getVehicle(), trip.getVehicle());
+			assertEquals("Engine is the same", listTrip.getEngine(), trip.getEngine());
+			assertEquals("Time of day is the same", listTrip.getTimeOfDay(), trip.getTimeOfDay());
+			assertTrue("Route is the same", listTrip.getRoute() == trip.getRoute());
+			assertEquals("Multiplier is the same", listTrip.getMultiplier(), tripTable.getMultiplier(row));
+			row++;
+		}
+
+		double[] volumesFromTable = rna.calculateLinkVolumeInPCU(tripTable);
+		double[] volumesFromTrips = rna.calculateLinkVolumeInPCU(tripList);
+		for (int edgeID = 1; edgeID < volumesFromTable.length; edgeID++)
+			assertEquals("Link volume from the trip table is the same", volumesFromTrips[edgeID], volumesFromTable[edgeID], 0.0);
+	}
+
+	@Test
+	public void fusedLinkVolumesMatchSeparatePasses() throws IOException {
+
+		RoadNetworkAssignment rna = assign(1, true);
+
+		//replicate the trip table so that the accumulation is split between threads
+		TripTable tripTable = rna.getTripTable();
+		TripTable copy = new TripTable();
+		copy.addAll(tripTable, 0, tripTable.size());
+		while (tripTable.size() < 50000) tripTable.addAll(copy, 0, copy.size());
+
+		rna.updateLinkVolumeInPCU();
+		rna.updateLinkVolumeInPCUPerTimeOfDay();
+		rna.updateLinkVolumePerVehicleType();
+		double[] volumesSeparate = rna.getLinkVolumeInPCU();
+		Map<TimeOfDay, double[]> hourlyVolumesSeparate = rna.getLinkVolumeInPCUPerTimeOfDay();
+		Map<VehicleType, int[]> vehicleVolumesSeparate = rna.getLinkVolumePerVehicleType();
+
+		rna.updateLinkVolumes(1);
+		for (int edgeID = 1; edgeID < volumesSeparate.length; edgeID++) {
+			assertEquals("Fused link volume is identical", volumesSeparate[edgeID], rna.getLinkVolumeInPCU()[edgeID], 0.0);
+			for (TimeOfDay hour: TimeOfDay.values())
+				assertEquals("Fused hourly link volume is identical", hourlyVolumesSeparate.get(hour)[edgeID], rna.getLinkVolumeInPCUPerTimeOfDay().get(hour)[edgeID], 0.0);
+			for (VehicleType vht: VehicleType.values())
+				assertEquals("Fused vehicle link volume is identical", vehicleVolumesSeparate.get(vht)[edgeID], rna.getLinkVolumePerVehicleType().get(vht)[edgeID]);
+		}
+
+		rna.updateLinkVolumes(4);
+		for (int edgeID = 1; edgeID < volumesSeparate.length; edgeID++) {
+			assertEquals("Parallel link volume is correct", volumesSeparate[edgeID], rna.getLinkVolumeInPCU()[edgeID], PRECISION);
+			for (TimeOfDay hour: TimeOfDay.values())
+				assertEquals("Parallel hourly link volume is correct", hourlyVolumesSeparate.get(hour)[edgeID], rna.getLinkVolumeInPCUPerTimeOfDay().get(hour)[edgeID], PRECISION);
+			for (VehicleType vht: VehicleType.values())
+				assertEquals("Parallel vehicle link volume is identical", vehicleVolumesSeparate.get(vht)[edgeID], rna.getLinkVolumePerVehicleType().get(vht)[edgeID]);
+		}
+	}
+}
@@ -39,8 +39,10 @@ import nismod.transport.network.road.RoadNetworkAssignment.EnergyType;
 import nismod.transport.network.road.RoadNetworkAssignment.EngineType;
 import nismod.transport.network.road.RoadNetworkAssignment.TimeOfDay;
 import nismod.transport.network.road.RoadNetworkAssignment.VehicleType;
+import nismod.transport.utility.AliasSampler;
 import nismod.transport.utility.ConfigReader;
 import nismod.transport.utility.InputFileReader;
+import nismod.transport.utility.RandomSingleton;
 import nismod.transport.zone.Zoning;
 
 /**
@@ -268,7 +270,7 @@ public class RoadNetworkAssignmentTest {
 		
 		//do some trip list processing
 		timeNow = System.currentTimeMillis();
-		ArrayList<Trip> tripList = rna.getTripList();
+		List<Trip> tripList = rna.getTripList();
 		int count = 0;
 		for (Trip t: tripList) 
 			if (t.getEngine() == EngineType.ICE_PETROL) count++;
@@ -610,6 +612,7 @@ public class RoadNetworkAssignmentTest {
 		}
 		
 		rna.loadLinkTravelTimes(2015, "./temp/miniTestLinkTravelTimes.csv");
+		assertEquals("Route choice cache is invalidated by the loaded link travel times", 0, rna.getRouteChoiceCache().size());
 		linkTravelTimes = rna.getLinkTravelTimes();
 		for (TimeOfDay hour: loadedLinkTravelTimes.keySet()) {
 			double[] linkTimes = linkTravelTimes.get(hour);
@@ -722,7 +725,7 @@ public class RoadNetworkAssignmentTest {
 		assertEquals("Vehicle kilometres with access and egress are correct", vehicleKilometresWithAccessEgress, rna.calculateZonalVehicleKilometresPerVehicleTypeFromTripList(true).get("E06000045").get(VehicleType.CAR), PRECISION);
 		
 		System.out.println("Trip list: ");
-		ArrayList<Trip> tripList = rna.getTripList();
+		List<Trip> tripList = rna.getTripList();
 		Frequency freq = new Frequency();
 		for (Trip trip: tripList) {
 			System.out.println(trip.toString());
@@ -850,8 +853,117 @@ public class RoadNetworkAssignmentTest {
 		rna.resetTripList();
 		rna.assignPassengerFlowsRouteChoiceTempro(temproODM2, zoning, rsg, params);
 		rna.calculateDistanceSkimMatrixTempro().printMatrixFormatted();
+		
+		//iterated assignment with the method of successive averages
+		props.setProperty("FLAG_ASSIGNMENT_MSA", "true");
+		props.setProperty("ASSIGNMENT_CONVERGENCE_TOLERANCE", "0.0");
+		rna.assignFlowsAndUpdateLinkTravelTimesIterated(odm, new FreightMatrix(), null, props, 1.0, 3);
+		List<Double> linkTimeChanges = rna.getLinkTimeChanges();
+		List<Double> relativeGaps = rna.getRelativeGaps();
+		assertEquals("All iterations are run without tolerance", 3, linkTimeChanges.size());
+		assertEquals("Relative gap is calculated in each iteration", 3, relativeGaps.size());
+		for (double linkTimeChange: linkTimeChanges)
+			assertTrue("Relative link travel time change is not negative", linkTimeChange >= 0.0);
+		for (double relativeGap: relativeGaps)
+			assertTrue("Chosen routes are not faster than the fastest paths", relativeGap >= -PRECISION);
+		assertEquals("Relative gap is calculated for the current link travel times", relativeGaps.get(2), rna.calculateRelativeGap(), PRECISION);
+		
+		//stops as soon as the tolerance is met
+		props.setProperty("ASSIGNMENT_CONVERGENCE_TOLERANCE", "1.0E6");
+		rna.assignFlowsAndUpdateLinkTravelTimesIterated(odm, new FreightMatrix(), null, props, 1.0, 3);
+		assertEquals("Assignment stops when converged", 1, rna.getRelativeGaps().size());
+		assertEquals("Secondary measure is kept for the same iterations", 1, rna.getLinkTimeChanges().size());
 	}
 	
+	@Test
+	public void miniTestTopNodeSamplers() throws IOException {
+
+		final String configFile = "./src/test/config/miniTestConfig.properties";
+		Properties props = ConfigReader.getProperties(configFile);
+		
+		final String areaCodeFileName = props.getProperty("areaCodeFileName");
+		final String areaCodeNearestNodeFile = props.getProperty("areaCodeNearestNodeFile");
+		final String workplaceZoneFileName = props.getProperty("workplaceZoneFileName");
+		final String workplaceZoneNearestNodeFile = props.getProperty("workplaceZoneNearestNodeFile");
+		final String freightZoneToLADfile = props.getProperty("freightZoneToLADfile");
+		final String freightZoneNearestNodeFile = props.getProperty("freightZoneNearestNodeFile");
+
+		final URL zonesUrl = new URL(props.getProperty("zonesUrl"));
+		final URL networkUrl = new URL(props.getProperty("networkUrl"));
+		final URL networkUrlFixedEdgeIDs = new URL(props.getProperty("networkUrlFixedEdgeIDs"));
+		final URL nodesUrl = new URL(props.getProperty("nodesUrl"));
+		final URL AADFurl = new URL(props.getProperty("AADFurl"));
+
+		//create a road network
+		RoadNetwork roadNetwork = new RoadNetwork(zonesUrl, networkUrl, nodesUrl, AADFurl, areaCodeFileName, areaCodeNearestNodeFile, workplaceZoneFileName, workplaceZoneNearestNodeFile, freightZoneToLADfile, freightZoneNearestNodeFile, props);
+		roadNetwork.replaceNetworkEdgeIDs(networkUrlFixedEdgeIDs);
+		
+		final URL temproZonesUrl = new URL(props.getProperty("temproZonesUrl"));
+		Zoning zoning = new Zoning(temproZonesUrl, nodesUrl, roadNetwork, props);
+		
+		final String energyUnitCostsFile = props.getProperty("energyUnitCostsFile");
+		final String unitCO2EmissionsFile = props.getProperty("unitCO2EmissionsFile");
+		final String engineTypeFractionsFile = props.getProperty("engineTypeFractionsFile");
+		final String AVFractionsFile = props.getProperty("autonomousVehiclesFile");
+		final String vehicleTypeToPCUFile = props.getProperty("vehicleTypeToPCUFile");
+		final String timeOfDayDistributionFile = props.getProperty("timeOfDayDistributionFile");
+		final String timeOfDayDistributionFreightFile = props.getProperty("timeOfDayDistributionFreightFile");
+		final String baseFuelConsumptionRatesFile = props.getProperty("baseFuelConsumptionRatesFile");
+		final String relativeFuelEfficiencyFile = props.getProperty("relativeFuelEfficiencyFile");
+		final int BASE_YEAR = Integer.parseInt(props.getProperty("baseYear"));
+		final int INTERZONAL_TOP_NODES = Integer.parseInt(props.getProperty("INTERZONAL_TOP_NODES"));
+	
+		//create a road network assignment
+		RoadNetworkAssignment rna = new RoadNetworkAssignment(roadNetwork, 
+															zoning,
+															InputFileReader.readEnergyUnitCostsFile(energyUnitCostsFile).get(BASE_YEAR),
+															InputFileReader.readUnitCO2EmissionFile(unitCO2EmissionsFile).get(BASE_YEAR),
+															InputFileReader.readEngineTypeFractionsFile(engineTypeFractionsFile).get(BASE_YEAR),
+															InputFileReader.readAVFractionsFile(AVFractionsFile).get(BASE_YEAR),
+															InputFileReader.readVehicleTypeToPCUFile(vehicleTypeToPCUFile),
+															InputFileReader.readEnergyConsumptionParamsFile(baseFuelConsumptionRatesFile),
+															InputFileReader.readRelativeFuelEfficiencyFile(relativeFuelEfficiencyFile).get(BASE_YEAR),
+															InputFileReader.readTimeOfDayDistributionFile(timeOfDayDistributionFile).get(BASE_YEAR),
+															InputFileReader.readTimeOfDayDistributionFreightFile(timeOfDayDistributionFreightFile).get(BASE_YEAR),
+															null,
+															null,
+															null,
+															null,
+															props);
+		
+		//set a zero probability to the start node with the largest gravitating population in each zone
+		int[] gravitatingPopulation = roadNetwork.getNodeToGravitatingPopulation();
+		HashMap<Integer, Double> startNodeProbabilities = new HashMap<Integer, Double>(rna.getStartNodeProbabilities());
+		HashMap<String, Integer> zeroNodes = new HashMap<String, Integer>();
+		for (String zone: roadNetwork.getZoneToNodes().keySet()) {
+			Integer topNode = null;
+			for (Integer node: roadNetwork.getZoneToNodes().get(zone))
+				if (startNodeProbabilities.get(node) != null && (topNode == null || gravitatingPopulation[node] > gravitatingPopulation[topNode])) topNode = node;
+			if (topNode == null) continue;
+			startNodeProbabilities.put(topNode, 0.0);
+			zeroNodes.put(zone, topNode);
+		}
+		rna.setStartNodeProbabilities(startNodeProbabilities);
+		
+		for (String zone: zeroNodes.keySet()) {
+			
+			//nodes with positive probability sorted by the gravitating population
+			List<Integer> expectedNodes = new ArrayList<Integer>();
+			for (Integer node: roadNetwork.getZoneToNodes().get(zone))
+				if (!roadNetwork.isBlacklistedAsStartNode(node) && startNodeProbabilities.get(node) != null && startNodeProbabilities.get(node) > 0.0) expectedNodes.add(node);
+			expectedNodes.sort((n1, n2) -> Integer.compare(gravitatingPopulation[n2], gravitatingPopulation[n1]));
+			if (expectedNodes.size() > INTERZONAL_TOP_NODES) expectedNodes = expectedNodes.subList(0, INTERZONAL_TOP_NODES);
+			
+			//the zero-probability node does not take a top node place
+			AliasSampler sampler = rna.getStartTopNodeSamplers().get(zone);
+			assertEquals("Number of top nodes in zone " + zone + " is correct", expectedNodes.size(), sampler.size());
+			for (int i = 0; i < sampler.size(); i++) {
+				assertTrue("Zero-probability node is not among the top nodes", sampler.getOutcome(i) != zeroNodes.get(zone));
+				assertEquals("Top node is correct", expectedNodes.get(i).intValue(), sampler.getOutcome(i));
+			}
+		}
+	}
+
 	@Test
 	public void test() throws IOException {
 
@@ -1314,7 +1426,7 @@ public class RoadNetworkAssignmentTest {
 		System.out.println("\n\n*** Testing trip list ***");
 		
 		System.out.println("Trip list: ");
-		ArrayList<Trip> tripList = rna.getTripList();
+		List<Trip> tripList = rna.getTripList();
 		Frequency freq = new Frequency();
 		for (Trip trip: tripList) {
 			//System.out.println(trip.toString());
@@ -1619,7 +1731,7 @@ public class RoadNetworkAssignmentTest {
 		System.out.println("\n\n*** Testing trip list ***");
 		
 		System.out.println("Trip list: ");
-		ArrayList<Trip> tripList = rna.getTripList();
+		List<Trip> tripList = rna.getTripList();
 		Frequency freq = new Frequency();
 		for (Trip trip: tripList) {
 			//System.out.println(trip.toString());
@@ -3,6 +3,7 @@
  */
 package nismod.transport.network.road;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
@@ -166,6 +167,18 @@ public class RoadNetworkTest {
 		roadNetwork.replaceNetworkEdgeIDs(networkUrlFixedEdgeIDs);
 		DirectedGraph rn = roadNetwork.getNetwork();
 
+		//TEST SORTING OF ZONE NODES
+		HashMap<String, List<Integer>> zoneToNodes = roadNetwork.getZoneToNodes();
+		HashMap<String, List<Integer>> copyOfZoneToNodes = new HashMap<String, List<Integer>>();
+		for (String zone: zoneToNodes.keySet()) copyOfZoneToNodes.put(zone, new ArrayList<Integer>(zoneToNodes.get(zone)));
+		roadNetwork.sortGravityNodesFreight();
+		assertEquals("Previous zone node lists are not modified by sorting", copyOfZoneToNodes, zoneToNodes);
+		int[] nodeToWorkplacePopulation = roadNetwork.getNodeToGravitatingWorkplacePopulation();
+		for (List<Integer> nodes: roadNetwork.getZoneToNodes().values())
+			for (int i = 1; i < nodes.size(); i++)
+				assertTrue("Zone nodes are sorted by workplace population", nodeToWorkplacePopulation[nodes.get(i - 1)] >= nodeToWorkplacePopulation[nodes.get(i)]);
+		roadNetwork.sortGravityNodes();
+
 		//TEST NODE AND EDGE CREATION
 		System.out.println("\n\n*** Testing node and edge creation ***");
 
@@ -729,6 +742,138 @@ public class RoadNetworkTest {
 		assertEquals("The list of edges in the shortest path is correct", Arrays.toString(expectedEdgeList), path.getEdges().toString());
 	}
 
+	@Test
+	public void miniTestSnapshot() throws IOException {
+
+		final String configFile = "./src/test/config/miniTestConfig.properties";
+		Properties props = ConfigReader.getProperties(configFile);
+		
+		final String areaCodeFileName = props.getProperty("areaCodeFileName");
+		final String areaCodeNearestNodeFile = props.getProperty("areaCodeNearestNodeFile");
+		final String workplaceZoneFileName = props.getProperty("workplaceZoneFileName");
+		final String workplaceZoneNearestNodeFile = props.getProperty("workplaceZoneNearestNodeFile");
+		final String freightZoneToLADfile = props.getProperty("freightZoneToLADfile");
+		final String freightZoneNearestNodeFile = props.getProperty("freightZoneNearestNodeFile");
+
+		final URL zonesUrl = new URL(props.getProperty("zonesUrl"));
+		final URL networkUrl = new URL(props.getProperty("networkUrl"));
+		final URL networkUrlFixedEdgeIDs = new URL(props.getProperty("networkUrlFixedEdgeIDs"));
+		final URL nodesUrl = new URL(props.getProperty("nodesUrl"));
+		final URL AADFurl = new URL(props.getProperty("AADFurl"));
+		
+		//road network with the arrays loaded from the snapshot should be the same as the calculated one
+		RoadNetwork calculatedNetwork = new RoadNetwork(zonesUrl, networkUrl, nodesUrl, AADFurl, areaCodeFileName, areaCodeNearestNodeFile, workplaceZoneFileName, workplaceZoneNearestNodeFile, freightZoneToLADfile, freightZoneNearestNodeFile, props);
+		
+		Properties snapshotProps = new Properties();
+		snapshotProps.putAll(props);
+		snapshotProps.setProperty("roadNetworkSnapshotFile", "./output/test/miniRoadNetworkSnapshot.bin");
+		
+		//each stage of the network building has its own snapshot file
+		File snapshot = new File(snapshotProps.getProperty("roadNetworkSnapshotFile"));
+		File networkSnapshot = new File(snapshot.getParentFile(), "miniRoadNetworkSnapshot-network.bin");
+		File edgeIDsSnapshot = new File(snapshot.getParentFile(), "miniRoadNetworkSnapshot-edgeIDs.bin");
+		networkSnapshot.delete();
+		edgeIDsSnapshot.delete();
+		RoadNetwork writtenNetwork = new RoadNetwork(zonesUrl, networkUrl, nodesUrl, AADFurl, areaCodeFileName, areaCodeNearestNodeFile, workplaceZoneFileName, workplaceZoneNearestNodeFile, freightZoneToLADfile, freightZoneNearestNodeFile, snapshotProps);
+		assertTrue("Network snapshot is written", networkSnapshot.exists());
+		writtenNetwork.replaceNetworkEdgeIDs(networkUrlFixedEdgeIDs);
+		assertTrue("Edge IDs snapshot is written", edgeIDsSnapshot.exists());
+		
+		RoadNetwork loadedNetwork = new RoadNetwork(zonesUrl, networkUrl, nodesUrl, AADFurl, areaCodeFileName, areaCodeNearestNodeFile, workplaceZoneFileName, workplaceZoneNearestNodeFile, freightZoneToLADfile, freightZoneNearestNodeFile, snapshotProps);
+		assertEquals(calculatedNetwork.getNodeToZone(), loadedNetwork.getNodeToZone());
+		assertEquals(calculatedNetwork.getZoneToNodes(), loadedNetwork.getZoneToNodes());
+		assertTrue(Arrays.equals(calculatedNetwork.getStartNodeBlacklist(), loadedNetwork.getStartNodeBlacklist()));
+		assertTrue(Arrays.equals(calculatedNetwork.getEndNodeBlacklist(), loadedNetwork.getEndNodeBlacklist()));
+		assertArrayEquals(calculatedNetwork.getNodeToGravitatingPopulation(), loadedNetwork.getNodeToGravitatingPopulation());
+		assertArrayEquals(calculatedNetwork.getNodeToGravitatingWorkplacePopulation(), loadedNetwork.getNodeToGravitatingWorkplacePopulation());
+		assertArrayEquals(calculatedNetwork.getNodeToAverageAccessEgressDistance(), loadedNetwork.getNodeToAverageAccessEgressDistance(), 0.0);
+		assertArrayEquals(calculatedNetwork.getNodeToAverageAccessEgressDistanceFreight(), loadedNetwork.getNodeToAverageAccessEgressDistanceFreight(), 0.0);
+		assertEdgeArraysEqual(calculatedNetwork, loadedNetwork);
+		
+		calculatedNetwork.replaceNetworkEdgeIDs(networkUrlFixedEdgeIDs);
+		loadedNetwork.replaceNetworkEdgeIDs(networkUrlFixedEdgeIDs);
+		assertEdgeArraysEqual(calculatedNetwork, loadedNetwork);
+		
+		calculatedNetwork.makeEdgesAdmissible();
+		loadedNetwork.makeEdgesAdmissible();
+		assertArrayEquals(calculatedNetwork.getEdgeLengths(), loadedNetwork.getEdgeLengths(), 0.0);
+	}
+	
+	private static void assertEdgeArraysEqual(RoadNetwork expected, RoadNetwork actual) {
+		
+		assertEquals(expected.getEdgeToZone(), actual.getEdgeToZone());
+		assertArrayEquals(expected.getEdgesType(), actual.getEdgesType());
+		assertArrayEquals(expected.getIsEdgeUrban(), actual.getIsEdgeUrban());
+		assertArrayEquals(expected.getNumberOfLanes(), actual.getNumberOfLanes());
+		assertArrayEquals(expected.getEdgeLengths(), actual.getEdgeLengths(), 0.0);
+		assertArrayEquals(expected.getFreeFlowTravelTime(), actual.getFreeFlowTravelTime(), 0.0);
+	}
+
+	@Test
+	public void compactRouterTest() throws IOException {
+
+		final String configFile = "./src/test/config/testConfig.properties";
+		Properties props = ConfigReader.getProperties(configFile);
+		
+		final String areaCodeFileName = props.getProperty("areaCodeFileName");
+		final String areaCodeNearestNodeFile = props.getProperty("areaCodeNearestNodeFile");
+		final String workplaceZoneFileName = props.getProperty("workplaceZoneFileName");
+		final String workplaceZoneNearestNodeFile = props.getProperty("workplaceZoneNearestNodeFile");
+		final String freightZoneToLADfile = props.getProperty("freightZoneToLADfile");
+		final String freightZoneNearestNodeFile = props.getProperty("freightZoneNearestNodeFile");
+
+		final URL zonesUrl = new URL(props.getProperty("zonesUrl"));
+		final URL networkUrl = new URL(props.getProperty("networkUrl"));
+		final URL networkUrlFixedEdgeIDs = new URL(props.getProperty("networkUrlFixedEdgeIDs"));
+		final URL nodesUrl = new URL(props.getProperty("nodesUrl"));
+		final URL AADFurl = new URL(props.getProperty("AADFurl"));
+
+		//create a road network
+		RoadNetwork roadNetwork = new RoadNetwork(zonesUrl, networkUrl, nodesUrl, AADFurl, areaCodeFileName, areaCodeNearestNodeFile, workplaceZoneFileName, workplaceZoneNearestNodeFile, freightZoneToLADfile, freightZoneNearestNodeFile, props);
+		roadNetwork.replaceNetworkEdgeIDs(networkUrlFixedEdgeIDs);
+		
+		CompactRoadGraph graph = roadNetwork.getCompactGraph();
+		assertEquals("Number of graph edges is correct", roadNetwork.getNetwork().getEdges().size(), graph.getNumberOfGraphEdges());
+		
+		//congested travel times (every third link twice as slow as in free flow)
+		double[] linkTravelTime = new double[roadNetwork.maximumEdgeID];
+		double[] freeFlowTravelTime = roadNetwork.getFreeFlowTravelTime();
+		for (int edgeID = 0; edgeID < roadNetwork.maximumEdgeID; edgeID++)
+			if (edgeID % 3 == 0) linkTravelTime[edgeID] = 2.0 * freeFlowTravelTime[edgeID];
+		
+		List<DirectedNode> nodes = new ArrayList<DirectedNode>();
+		for (Node node: roadNetwork.getNodeIDtoNode())
+			if (node != null) nodes.add((DirectedNode) node);
+		
+		//compare the paths of both routers for all node pairs (timings are measured by CompactRouterBenchmark)
+		for (DirectedNode from: nodes)
+			for (DirectedNode to: nodes) {
+				if (from == to) continue;
+				for (double[] travelTime: new double[][] {null, linkTravelTime}) {
+
+					roadNetwork.setUseCompactRouter(false);
+					RoadPath path = roadNetwork.getFastestPath(from, to, travelTime);
+					RoadPath pathDijkstra = roadNetwork.getFastestPathDijkstra(from, to, travelTime);
+
+					roadNetwork.setUseCompactRouter(true);
+					RoadPath compactPath = roadNetwork.getFastestPath(from, to, travelTime);
+					RoadPath compactPathDijkstra = roadNetwork.getFastestPathDijkstra(from, to, travelTime);
+
+					if (path == null) assertNull("Compact router does not find a path either", compactPath);
+					else assertEquals("Astar edge sequence is the same", path.getEdges(), compactPath.getEdges());
+					if (pathDijkstra == null) assertNull("Compact router does not find a path either", compactPathDijkstra);
+					else assertEquals("Dijkstra edge sequence is the same", pathDijkstra.getEdges(), compactPathDijkstra.getEdges());
+				}
+			}
+		
+		//the graph is rebuilt after the network changes
+		DirectedEdge edge = (DirectedEdge) roadNetwork.getNetwork().getEdges().iterator().next();
+		roadNetwork.removeRoadLink(edge);
+		assertEquals("Compact graph is rebuilt", roadNetwork.getNetwork().getEdges().size(), roadNetwork.getCompactGraph().getNumberOfGraphEdges());
+		roadNetwork.addRoadLink(edge);
+		assertEquals("Compact graph is rebuilt", roadNetwork.getNetwork().getEdges().size(), roadNetwork.getCompactGraph().getNumberOfGraphEdges());
+	}
+	
 	@Test
 	public void test() throws IOException {
 
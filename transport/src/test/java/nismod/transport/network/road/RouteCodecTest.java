@@ -0,0 +1,62 @@
+package nismod.transport.network.road;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import org.junit.Test;
+
+public class RouteCodecTest {
+
+	@Test
+	public void test() {
+
+		//routes that share a common sub-path, plus routes with large and negative edge ID differences
+		int[] common = new int[] {501, 502, 503, 510, 511, 512, 520, 521, 530, 531};
+		SplittableRandom random = new SplittableRandom(1234);
+		List<int[]> routes = new ArrayList<int[]>();
+		for (int r = 0; r < 100; r++) {
+			int prefix = random.nextInt(5);
+			int suffix = random.nextInt(5);
+			int[] route = new int[prefix + common.length + suffix];
+			for (int i = 0; i < prefix; i++) route[i] = 1 + random.nextInt(100000);
+			System.arraycopy(common, 0, route, prefix, common.length);
+			for (int i = 0; i < suffix; i++) route[prefix + common.length + i] = 1 + random.nextInt(100000);
+			routes.add(route);
+		}
+		routes.add(new int[] {Integer.MAX_VALUE, 1, Integer.MAX_VALUE});
+		routes.add(new int[0]);
+
+		RouteCodec codec = RouteCodec.buildDictionary(routes);
+		assertTrue("Common sub-path is in the dictionary", codec.getSegments().length > 0);
+		RouteCodec plainCodec = new RouteCodec(RouteCodec.DEFAULT_SEGMENT_LENGTH, new int[0][]);
+
+		int flatBytes = 0, encodedBytes = 0, plainBytes = 0;
+		for (int[] route: routes) {
+			ByteBuffer buffer = ByteBuffer.allocate(RouteCodec.maxEncodedBytes(route.length));
+			codec.encode(route, buffer);
+			assertEquals("Encoded size is calculated correctly", codec.encodedBytes(route), buffer.position());
+			encodedBytes += buffer.position();
+			buffer.flip();
+			assertArrayEquals("Route is decoded correctly", route, codec.decode(buffer));
+			assertEquals("Whole route is decoded", 0, buffer.remaining());
+
+			buffer.clear();
+			plainCodec.encode(route, buffer);
+			plainBytes += buffer.position();
+			buffer.flip();
+			assertArrayEquals("Route is decoded correctly without dictionary", route, plainCodec.decode(buffer));
+
+			flatBytes += 4 * (route.length + 1);
+		}
+
+		System.out.printf("Flat: %d bytes, deltas: %d bytes, deltas with dictionary: %d bytes%n", flatBytes, plainBytes, encodedBytes);
+		assertTrue("Delta encoding is smaller than flat encoding", plainBytes < flatBytes);
+		assertTrue("Dictionary makes encoding smaller", encodedBytes < plainBytes);
+	}
+}
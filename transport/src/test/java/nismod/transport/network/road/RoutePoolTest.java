@@ -0,0 +1,86 @@
+package nismod.transport.network.road;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import gnu.trove.list.array.TIntArrayList;
+
+public class RoutePoolTest {
+
+	@Test
+	public void test() {
+
+		RoutePool pool = new RoutePool();
+
+		TIntArrayList edges1 = new TIntArrayList(new int[] {1, 2, 3});
+		TIntArrayList edges2 = new TIntArrayList(new int[] {1, 2, 3});
+		TIntArrayList edges3 = new TIntArrayList(new int[] {3, 2, 1});
+
+		int id1 = pool.intern(edges1);
+		int id2 = pool.intern(edges2);
+		int id3 = pool.intern(edges3);
+		assertEquals("Identical sequences get the same ID", id1, id2);
+		assertTrue("Different sequences get different IDs", id1 != id3);
+		assertEquals("Number of unique sequences", 2, pool.size());
+		assertEquals("Number of interned sequences", 3, pool.getInternedCount());
+
+		TIntArrayList pooled = pool.getEdges(id1);
+		assertEquals("Pooled sequence has the same edges", edges1, pooled);
+		assertNotSame("Pooled sequence is a copy", edges1, pooled);
+		assertTrue("Shared edge list is interned", pool.isInterned(id1, pooled));
+		assertFalse("Original edge list is not interned", pool.isInterned(id1, edges1));
+		assertFalse("Invalid ID is not interned", pool.isInterned(-1, pooled));
+
+		//many sequences (the hash table is resized)
+		for (int i = 0; i < 10000; i++) pool.intern(new TIntArrayList(new int[] {i, i + 1}));
+		for (int i = 0; i < 10000; i++) pool.intern(new TIntArrayList(new int[] {i, i + 1}));
+		assertEquals("Number of unique sequences", 10002, pool.size());
+		assertSame("Sequence is still found after resizing", pooled, pool.getEdges(pool.intern(new TIntArrayList(new int[] {1, 2, 3}))));
+
+		//shared edge lists cannot be modified
+		try {
+			pooled.add(4);
+			fail("Shared edge list was modified");
+		} catch (UnsupportedOperationException e) {}
+		try {
+			pooled.reverse();
+			fail("Shared edge list was modified");
+		} catch (UnsupportedOperationException e) {}
+		assertEquals("Shared edge list is not modified", edges1, pooled);
+	}
+
+	@Test
+	public void testCompact() {
+
+		RoutePool pool = new RoutePool();
+
+		Route route1 = new Route(null);
+		route1.addEdgeWithoutValidityCheck(1);
+		route1.addEdgeWithoutValidityCheck(2);
+		Route route2 = new Route(null);
+		route2.addEdgeWithoutValidityCheck(3);
+		route1.intern(pool);
+		route2.intern(pool);
+		pool.intern(new TIntArrayList(new int[] {4, 5})); //sequence of a removed route
+		assertEquals("Number of unique sequences", 3, pool.size());
+
+		RouteSet routeSet = new RouteSet(null);
+		routeSet.getChoiceSet().add(route1);
+		routeSet.getChoiceSet().add(route2);
+		TIntArrayList edges1 = route1.getEdges();
+
+		RoutePool compacted = RoutePool.compact(Arrays.asList(routeSet));
+		assertEquals("Unused sequence is dropped", 2, compacted.size());
+		assertSame("Shared edge list is reused", edges1, route1.getEdges());
+		assertTrue("Route is interned in the compacted pool", compacted.isInterned(route1.getPoolID(), route1.getEdges()));
+		assertTrue("Route is interned in the compacted pool", compacted.isInterned(route2.getPoolID(), route2.getEdges()));
+	}
+}
@@ -1,6 +1,7 @@
 package nismod.transport.network.road;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
@@ -11,7 +12,9 @@ import java.io.InputStream;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 
 import org.geotools.graph.structure.DirectedEdge;
@@ -25,6 +28,7 @@ import nismod.transport.demand.ODMatrixMultiKey;
 import nismod.transport.demand.RealODMatrixTempro;
 import nismod.transport.utility.ConfigReader;
 import nismod.transport.utility.InputFileReader;
+import nismod.transport.utility.RandomSingleton;
 import nismod.transport.zone.Zoning;
 
 public class RouteSetGeneratorTest {
@@ -226,6 +230,17 @@ public class RouteSetGeneratorTest {
 		routes.printStatistics();
 		int totalRouteSets = routes.getNumberOfRouteSets();
 		int totalRoutes = routes.getNumberOfRoutes();
+		
+		//only non-empty route sets are stored
+		assertEquals("The number of stored route sets is correct", totalRouteSets, routes.getRouteSets().size());
+		int routesInStoredSets = 0;
+		for (RouteSet rs: routes.getRouteSets()) {
+			assertTrue("Stored route set is not empty", rs.getSize() > 0);
+			assertEquals("Route set is stored under its node pair", rs, routes.getRouteSet(rs.getOriginNode().getID(), rs.getDestinationNode().getID()));
+			routesInStoredSets += rs.getSize();
+		}
+		assertEquals("The number of routes in stored route sets is correct", totalRoutes, routesInStoredSets);
+		assertTrue("Memory footprint is estimated", routes.getEstimatedMemoryFootprint() > 0);
 
 		//generate first slice
 		routes.clearRoutes();
@@ -348,6 +363,14 @@ public class RouteSetGeneratorTest {
 		rsg.readRoutesBinaryWithoutValidityCheck(passengerRoutesFile);
 		rsg.printStatistics();
 		
+		//each route is interned only once, and reading the same routes again does not add new edge sequences
+		int numberOfRoutes = rsg.getNumberOfRoutes();
+		assertEquals("Each route has a unique edge sequence in the pool", numberOfRoutes, rsg.getRoutePool().size());
+		rsg.readRoutesBinaryWithoutValidityCheck(passengerRoutesFile);
+		assertEquals("Duplicate routes are not added", numberOfRoutes, rsg.getNumberOfRoutes());
+		assertEquals("Duplicate edge sequences are not added to the pool", numberOfRoutes, rsg.getRoutePool().size());
+		assertEquals("All the read routes have been interned", 2L * numberOfRoutes, rsg.getRoutePool().getInternedCount());
+		
 		rsg.saveRoutesBinaryGZIPped("./temp/passengerRoutes.dat.gz", false);
 		
 		rsg2.clearRoutes();
@@ -360,6 +383,46 @@ public class RouteSetGeneratorTest {
 		nr2 = rsg2.getNumberOfRoutes();
 		assertEquals("Number of route sets is the same", ns1, ns2);
 		assertEquals("Number of route is the same", nr1, nr2);
+		
+		//indexed route file with lazy decoding of route sets
+		rsg.saveRoutesIndexed("./temp/passengerRoutes.idx");
+		assertTrue("Indexed route file is recognised", IndexedRouteFile.isIndexedRouteFile("./temp/passengerRoutes.idx"));
+		assertFalse("Flat binary route file is not recognised as indexed", IndexedRouteFile.isIndexedRouteFile(passengerRoutesFile));
+		
+		rsg2.clearRoutes();
+		rsg2.readRoutesBinaryOrIndexed("./temp/passengerRoutes.idx");
+		System.out.println(rsg2.getStatistics());
+		
+		Route firstRoute = rsg.getRouteSets().iterator().next().getChoiceSet().get(0);
+		int origin = firstRoute.getOriginNode().getID();
+		int destination = firstRoute.getDestinationNode().getID();
+		RouteSet lazyRouteSet = rsg2.getRouteSet(origin, destination);
+		RouteSet routeSet = rsg.getRouteSet(origin, destination);
+		assertEquals("Decoded route set has the same number of routes", routeSet.getSize(), lazyRouteSet.getSize());
+		for (int i = 0; i < routeSet.getSize(); i++)
+			assertEquals("Decoded route has the same edges", routeSet.getChoiceSet().get(i).getEdges(), lazyRouteSet.getChoiceSet().get(i).getEdges());
+		assertTrue("Route set is decoded only once", lazyRouteSet == rsg2.getRouteSet(origin, destination));
+		
+		ns2 = rsg2.getNumberOfRouteSets();
+		nr2 = rsg2.getNumberOfRoutes();
+		assertEquals("Number of route sets is the same", ns1, ns2);
+		assertEquals("Number of route is the same", nr1, nr2);
+		
+		//compressed indexed route file
+		rsg.saveRoutesIndexedCompressed("./temp/passengerRoutesCompressed.idx");
+		assertTrue("Compressed file is smaller", new File("./temp/passengerRoutesCompressed.idx").length() < new File("./temp/passengerRoutes.idx").length());
+		
+		rsg2.clearRoutes();
+		rsg2.readRoutesBinaryOrIndexed("./temp/passengerRoutesCompressed.idx");
+		lazyRouteSet = rsg2.getRouteSet(origin, destination);
+		assertEquals("Decoded route set has the same number of routes", routeSet.getSize(), lazyRouteSet.getSize());
+		for (int i = 0; i < routeSet.getSize(); i++)
+			assertEquals("Decoded route has the same edges", routeSet.getChoiceSet().get(i).getEdges(), lazyRouteSet.getChoiceSet().get(i).getEdges());
+		
+		ns2 = rsg2.getNumberOfRouteSets();
+		nr2 = rsg2.getNumberOfRoutes();
+		assertEquals("Number of route sets is the same", ns1, ns2);
+		assertEquals("Number of route is the same", nr1, nr2);
 	}
 
 	@Test
@@ -442,6 +505,128 @@ public class RouteSetGeneratorTest {
 		assertTrue("Choice set should be empty", rsg.getRouteSet(31, 82).getChoiceSet().isEmpty());
 	}
 	
+	@Test
+	public void miniTestEdgeBlocking() throws IOException {
+
+		final String configFile = "./src/test/config/miniTestConfig.properties";
+		Properties props = ConfigReader.getProperties(configFile);
+			
+		final String areaCodeFileName = props.getProperty("areaCodeFileName");
+		final String areaCodeNearestNodeFile = props.getProperty("areaCodeNearestNodeFile");
+		final String workplaceZoneFileName = props.getProperty("workplaceZoneFileName");
+		final String workplaceZoneNearestNodeFile = props.getProperty("workplaceZoneNearestNodeFile");
+		final String freightZoneToLADfile = props.getProperty("freightZoneToLADfile");
+		final String freightZoneNearestNodeFile = props.getProperty("freightZoneNearestNodeFile");
+
+		final URL zonesUrl = new URL(props.getProperty("zonesUrl"));
+		final URL networkUrl = new URL(props.getProperty("networkUrl"));
+		final URL networkUrlFixedEdgeIDs = new URL(props.getProperty("networkUrlFixedEdgeIDs"));
+		final URL nodesUrl = new URL(props.getProperty("nodesUrl"));
+		final URL AADFurl = new URL(props.getProperty("AADFurl"));
+
+		//create a road network
+		RoadNetwork roadNetwork = new RoadNetwork(zonesUrl, networkUrl, nodesUrl, AADFurl, areaCodeFileName, areaCodeNearestNodeFile, workplaceZoneFileName, workplaceZoneNearestNodeFile, freightZoneToLADfile, freightZoneNearestNodeFile, props);
+		roadNetwork.replaceNetworkEdgeIDs(networkUrlFixedEdgeIDs);
+		roadNetwork.makeEdgesAdmissible();
+
+		Properties params = new Properties();
+		params.setProperty("ROUTE_LIMIT", "5");
+		params.setProperty("GENERATION_LIMIT", "10");
+		params.setProperty("INITIAL_OUTER_CAPACITY", "23");
+		params.setProperty("INITIAL_INNER_CAPACITY", "23");
+		
+		List<Integer> nodeIDs = new ArrayList<Integer>();
+		for (int nodeID = 0; nodeID < roadNetwork.getNodeIDtoNode().length; nodeID++)
+			if (roadNetwork.getNodeIDtoNode()[nodeID] != null) nodeIDs.add(nodeID);
+		
+		//generate routes by removing blocked edges from the graph
+		roadNetwork.setUseCompactRouter(false);
+		RouteSetGenerator rsg = new RouteSetGenerator(roadNetwork, params);
+		RandomSingleton.getInstance().setSeed(1234);
+		for (int origin: nodeIDs)
+			for (int destination: nodeIDs)
+				rsg.generateRouteSetWithRandomLinkEliminationRestricted(origin, destination);
+		
+		//generate routes by blocking edges only in the path queries
+		roadNetwork.setUseCompactRouter(true);
+		CompactRoadGraph graph = roadNetwork.getCompactGraph();
+		int numberOfEdges = roadNetwork.getNetwork().getEdges().size();
+		RouteSetGenerator rsg2 = new RouteSetGenerator(roadNetwork, params);
+		RandomSingleton.getInstance().setSeed(1234);
+		for (int origin: nodeIDs)
+			for (int destination: nodeIDs)
+				rsg2.generateRouteSetWithRandomLinkEliminationRestricted(origin, destination);
+		
+		assertEquals("Network graph has not been modified", numberOfEdges, roadNetwork.getNetwork().getEdges().size());
+		assertTrue("Compact graph has not been rebuilt", graph == roadNetwork.getCompactGraph());
+		assertEquals("Number of route sets is the same", rsg.getNumberOfRouteSets(), rsg2.getNumberOfRouteSets());
+		assertEquals("Number of routes is the same", rsg.getNumberOfRoutes(), rsg2.getNumberOfRoutes());
+		for (int origin: nodeIDs)
+			for (int destination: nodeIDs) {
+				RouteSet rs = rsg.getRouteSet(origin, destination);
+				RouteSet rs2 = rsg2.getRouteSet(origin, destination);
+				if (rs == null) {
+					assertNull("Route set is missing in both", rs2);
+					continue;
+				}
+				assertEquals("Route set size is the same", rs.getSize(), rs2.getSize());
+				for (int i = 0; i < rs.getSize(); i++)
+					assertEquals("Route edges are the same", rs.getChoiceSet().get(i).getEdges(), rs2.getChoiceSet().get(i).getEdges());
+			}
+		
+		//generate routes for the OD matrix sequentially and in parallel
+		ODMatrixMultiKey odm = new ODMatrixMultiKey(props.getProperty("baseYearODMatrixFile"));
+		RouteSetGenerator rsg3 = new RouteSetGenerator(roadNetwork, params);
+		rsg3.generateRouteSetForODMatrix(odm);
+		RouteSetGenerator rsg4 = new RouteSetGenerator(roadNetwork, params);
+		RandomSingleton.getInstance().setSeed(1234);
+		rsg4.generateRouteSetForODMatrixParallel(odm, 0, 4);
+		rsg4.printStatistics();
+		
+		//the same seed with a different number of threads gives the same routes
+		RouteSetGenerator rsg5 = new RouteSetGenerator(roadNetwork, params);
+		RandomSingleton.getInstance().setSeed(1234);
+		rsg5.generateRouteSetForODMatrixParallel(odm, 0, 1);
+		assertEquals("Number of routes is the same", rsg4.getNumberOfRoutes(), rsg5.getNumberOfRoutes());
+		for (RouteSet rs: rsg4.getRouteSets()) {
+			RouteSet rs5 = rsg5.getRouteSet(rs.getOriginNode().getID(), rs.getDestinationNode().getID());
+			assertEquals("Route set size is the same", rs.getSize(), rs5.getSize());
+			for (int i = 0; i < rs.getSize(); i++)
+				assertEquals("Route edges are the same", rs.getChoiceSet().get(i).getEdges(), rs5.getChoiceSet().get(i).getEdges());
+		}
+		
+		assertEquals("Number of route sets is the same", rsg3.getNumberOfRouteSets(), rsg4.getNumberOfRouteSets());
+		for (RouteSet rs: rsg3.getRouteSets()) {
+			int origin = rs.getOriginNode().getID();
+			int destination = rs.getDestinationNode().getID();
+			RouteSet rs4 = rsg4.getRouteSet(origin, destination);
+			assertTrue("Route set has been generated in parallel", rs4 != null && rs4.getSize() > 0);
+			assertTrue("Route limit is respected", rs4.getSize() <= 5);
+		}
+		
+		//routes stored before the parallel generation are kept and the generated routes are added to them
+		RouteSetGenerator rsg6 = new RouteSetGenerator(roadNetwork, params);
+		Map<RouteSet, Route> preloadedRoutes = new HashMap<RouteSet, Route>();
+		for (RouteSet rs: rsg4.getRouteSets()) {
+			RouteSet preloaded = rsg.getRouteSet(rs.getOriginNode().getID(), rs.getDestinationNode().getID());
+			if (preloaded == null) continue;
+			Route route = preloaded.getChoiceSet().get(preloaded.getSize() - 1);
+			rsg6.addRoute(route);
+			preloadedRoutes.put(rs, route);
+		}
+		RandomSingleton.getInstance().setSeed(1234);
+		rsg6.generateRouteSetForODMatrixParallel(odm, 0, 4);
+		for (Map.Entry<RouteSet, Route> entry: preloadedRoutes.entrySet()) {
+			RouteSet rs4 = entry.getKey();
+			RouteSet rs6 = rsg6.getRouteSet(rs4.getOriginNode().getID(), rs4.getDestinationNode().getID());
+			assertTrue("Preloaded route is kept", rs6.getChoiceSet().contains(entry.getValue()));
+			for (Route route: rs6.getChoiceSet())
+				assertTrue("Other routes are generated", route.equals(entry.getValue()) || rs4.getChoiceSet().contains(route));
+			//the preloaded route counts against the route limit
+			assertTrue("Route limit is respected", rs6.getSize() <= Math.max(5, rs4.getSize() + 1));
+		}
+	}
+	
 	@Test
 	public void testFreight() throws IOException {
 
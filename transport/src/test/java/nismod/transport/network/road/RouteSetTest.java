@@ -170,6 +170,34 @@ public class RouteSetTest {
 		System.out.printf("The sum of probabilites is: %.12f.%n", probabilitySum);
 		assertEquals("The sum of probabilities is 1.0", 1.0, probabilitySum, EPSILON);
 		
+		//route choice with caller-owned buffers gives the same utilities and probabilities without modifying the routes
+		RouteChoiceScratch scratch = new RouteChoiceScratch(1);
+		double storedUtility = r2.getUtility();
+		r2.setUtility(0.0);
+		rs.calculateUtilities(VehicleType.CAR, EngineType.PHEV_PETROL, TimeOfDay.EIGHTAM, roadNetwork.getFreeFlowTravelTime(), null, energyConsumptionParameters, relativeFuelEfficiency, energyUnitCosts, null, params, new double[rs.getSize()]);
+		assertEquals("Route utility is not modified", 0.0, r2.getUtility(), 0.0);
+		r2.setUtility(storedUtility);
+		Route chosen = rs.choose(VehicleType.CAR, EngineType.PHEV_PETROL, TimeOfDay.EIGHTAM, roadNetwork.getFreeFlowTravelTime(), roadNetwork.calculateLinkSpeeds(roadNetwork.getFreeFlowTravelTime()), energyConsumptionParameters, relativeFuelEfficiency, energyUnitCosts, null, params, scratch, 0.5);
+		assertEquals("The same route is chosen", rs.choose(0.5), chosen);
+		for (int i = 0; i < rs.getSize(); i++) {
+			assertEquals("Utilities are the same", rs.getUtilities().get(i), scratch.getUtilities()[i], 1e-12);
+			assertEquals("Probabilities are the same", rs.getProbabilities()[i], scratch.getProbabilities()[i], 1e-12);
+		}
+		
+		//cached cumulative probabilities give the same choices
+		RouteChoiceCache cache = new RouteChoiceCache();
+		for (double random = 0.0; random < 1.0; random += 0.01) {
+			Route cachedChoice = cache.choose(rs, VehicleType.CAR, EngineType.PHEV_PETROL, TimeOfDay.EIGHTAM, roadNetwork.getFreeFlowTravelTime(), null, energyConsumptionParameters, relativeFuelEfficiency, energyUnitCosts, null, params, scratch, random);
+			assertEquals("The same route is chosen with the cache", rs.choose(random), cachedChoice);
+		}
+		assertEquals("Probabilities are calculated once", 1, cache.getMisses());
+		cache.choose(rs, VehicleType.CAR, EngineType.PHEV_PETROL, TimeOfDay.NINEAM, roadNetwork.getFreeFlowTravelTime(), null, energyConsumptionParameters, relativeFuelEfficiency, energyUnitCosts, null, params, scratch, 0.5);
+		assertEquals("Probabilities are calculated for another hour", 2, cache.getMisses());
+		cache.invalidate();
+		assertEquals("Cache is empty after invalidation", 0, cache.size());
+		assertEquals("No route is chosen above cumulative probability", -1, RouteChoiceCache.search(new double[] {0.3, 0.3, 0.9}, 0.95));
+		assertEquals("Zero-probability route is skipped", 2, RouteChoiceCache.search(new double[] {0.3, 0.3, 1.0}, 0.3));
+		
 		rs.printUtilities();
 		rs.printProbabilities();
 
@@ -7,6 +7,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.List;
@@ -386,5 +387,17 @@ public class RouteTest {
 		r6.calculateCost(VehicleType.RIGID, EngineType.ICE_DIESEL, TimeOfDay.EIGHTAM, roadNetwork.getFreeFlowTravelTime(), baseFuelConsumptionRates, yearToRelativeFuelEfficiencies.get(2016), yearToEnergyUnitCosts.get(2016), congestionCharges);	
 		System.out.println("Route cost: " + r6.getCost());
 		assertEquals("Route costs are correct", 51.637266665257705, r6.getCost(), EPSILON); //Southampton city toll not applied more than once, only additional fuel cost.
+		
+		//the same cost with pre-calculated link speeds and with the cached policy crossings
+		double[] linkSpeed = roadNetwork.calculateLinkSpeeds(roadNetwork.getFreeFlowTravelTime());
+		double cachedCost = r6.getCost(VehicleType.RIGID, EngineType.ICE_DIESEL, TimeOfDay.EIGHTAM, roadNetwork.getFreeFlowTravelTime(), linkSpeed, baseFuelConsumptionRates, yearToRelativeFuelEfficiencies.get(2016), yearToEnergyUnitCosts.get(2016), congestionCharges);
+		assertEquals("Route costs are correct", 51.637266665257705, cachedCost, EPSILON);
+		
+		//the same cost with the policies in a different order (cached policy crossings are indexed by the position in the list)
+		List<PricingPolicy> reversedCharges = new ArrayList<PricingPolicy>(congestionCharges);
+		Collections.reverse(reversedCharges);
+		cachedCost = r6.getCost(VehicleType.RIGID, EngineType.ICE_DIESEL, TimeOfDay.EIGHTAM, roadNetwork.getFreeFlowTravelTime(), linkSpeed, baseFuelConsumptionRates, yearToRelativeFuelEfficiencies.get(2016), yearToEnergyUnitCosts.get(2016), reversedCharges);
+		assertEquals("Route costs are correct", 51.637266665257705, cachedCost, EPSILON);
+		assertEquals("Number of intersections", 6, r6.getNumberOfIntersections());
 	}
 }
@@ -1,15 +1,20 @@
 package nismod.transport.optimisation;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
 import java.io.File;
 import java.io.IOException;
 import java.net.URL;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Properties;
 
 import org.jfree.data.category.DefaultCategoryDataset;
+import org.junit.Test;
 
 import nismod.transport.demand.ODMatrixMultiKey;
 import nismod.transport.demand.RealODMatrix;
@@ -20,6 +25,7 @@ import nismod.transport.network.road.RouteSetGenerator;
 import nismod.transport.network.road.RoadNetworkAssignment.VehicleType;
 import nismod.transport.utility.ConfigReader;
 import nismod.transport.utility.InputFileReader;
+import nismod.transport.utility.RandomSingleton;
 import nismod.transport.visualisation.LineVisualiser;
 import nismod.transport.visualisation.NetworkVisualiser;
 import nismod.transport.zone.Zoning;
@@ -320,4 +326,149 @@ public class SPSATest {
 		line.setSize(600, 400);
 		line.setVisible(true);
 	}
+	
+	@Test
+	public void miniTestParallelEvaluation() throws IOException {
+		
+		final String configFile = "./src/test/config/miniTestConfig.properties";
+		Properties props = ConfigReader.getProperties(configFile);
+		//route choice assignments (SPSA3, SPSA4) find missing routes with aStar, which extends the shared route sets
+		props.setProperty("FLAG_ASTAR_IF_EMPTY_ROUTE_SET", "true");
+		
+		final String areaCodeFileName = props.getProperty("areaCodeFileName");
+		final String areaCodeNearestNodeFile = props.getProperty("areaCodeNearestNodeFile");
+		final String workplaceZoneFileName = props.getProperty("workplaceZoneFileName");
+		final String workplaceZoneNearestNodeFile = props.getProperty("workplaceZoneNearestNodeFile");
+		final String freightZoneToLADfile = props.getProperty("freightZoneToLADfile");
+		final String freightZoneNearestNodeFile = props.getProperty("freightZoneNearestNodeFile");
+
+		final URL zonesUrl = new URL(props.getProperty("zonesUrl"));
+		final URL networkUrl = new URL(props.getProperty("networkUrl"));
+		final URL networkUrlFixedEdgeIDs = new URL(props.getProperty("networkUrlFixedEdgeIDs"));
+		final URL nodesUrl = new URL(props.getProperty("nodesUrl"));
+		final URL AADFurl = new URL(props.getProperty("AADFurl"));
+
+		final String baseYearODMatrixFile = props.getProperty("baseYearODMatrixFile");
+
+		//create a road network
+		RoadNetwork roadNetwork = new RoadNetwork(zonesUrl, networkUrl, nodesUrl, AADFurl, areaCodeFileName, areaCodeNearestNodeFile, workplaceZoneFileName, workplaceZoneNearestNodeFile, freightZoneToLADfile, freightZoneNearestNodeFile, props);
+		roadNetwork.replaceNetworkEdgeIDs(networkUrlFixedEdgeIDs);
+		
+		final URL temproZonesUrl = new URL(props.getProperty("temproZonesUrl"));
+		Zoning zoning = new Zoning(temproZonesUrl, nodesUrl, roadNetwork, props);
+		
+		final String energyUnitCostsFile = props.getProperty("energyUnitCostsFile");
+		final String unitCO2EmissionsFile = props.getProperty("unitCO2EmissionsFile");
+		final String engineTypeFractionsFile = props.getProperty("engineTypeFractionsFile");
+		final String AVFractionsFile = props.getProperty("autonomousVehiclesFile");
+		final String vehicleTypeToPCUFile = props.getProperty("vehicleTypeToPCUFile");
+		final String timeOfDayDistributionFile = props.getProperty("timeOfDayDistributionFile");
+		final String timeOfDayDistributionFreightFile = props.getProperty("timeOfDayDistributionFreightFile");
+		final String baseFuelConsumptionRatesFile = props.getProperty("baseFuelConsumptionRatesFile");
+		final String relativeFuelEfficiencyFile = props.getProperty("relativeFuelEfficiencyFile");
+		final int BASE_YEAR = Integer.parseInt(props.getProperty("baseYear"));
+	
+		//create a road network assignment
+		RoadNetworkAssignment rna = new RoadNetworkAssignment(roadNetwork,
+															zoning,
+															InputFileReader.readEnergyUnitCostsFile(energyUnitCostsFile).get(BASE_YEAR),
+															InputFileReader.readUnitCO2EmissionFile(unitCO2EmissionsFile).get(BASE_YEAR),
+															InputFileReader.readEngineTypeFractionsFile(engineTypeFractionsFile).get(BASE_YEAR),
+															InputFileReader.readAVFractionsFile(AVFractionsFile).get(BASE_YEAR),
+															InputFileReader.readVehicleTypeToPCUFile(vehicleTypeToPCUFile),
+															InputFileReader.readEnergyConsumptionParamsFile(baseFuelConsumptionRatesFile),
+															InputFileReader.readRelativeFuelEfficiencyFile(relativeFuelEfficiencyFile).get(BASE_YEAR),
+															InputFileReader.readTimeOfDayDistributionFile(timeOfDayDistributionFile).get(BASE_YEAR),
+															InputFileReader.readTimeOfDayDistributionFreightFile(timeOfDayDistributionFreightFile).get(BASE_YEAR),
+															null,
+															null,
+															null,
+															null,
+															props);
+		
+		RealODMatrix odm = new RealODMatrix(baseYearODMatrixFile);
+		
+		double a = 10000;
+		double A = 0.0;
+		double c = 50;
+		double alpha = 0.602;
+		double gamma = 0.101;
+		
+		//the same seed gives the same results for any number of threads
+		RandomSingleton.getInstance().setSeed(1234);
+		SPSA optimiser = new SPSA();
+		optimiser.initialise(rna, props, odm, a, A, c, alpha, gamma);
+		optimiser.setParallelEvaluation(1, 2);
+		optimiser.runSPSA(3);
+		
+		RandomSingleton.getInstance().setSeed(1234);
+		SPSA parallelOptimiser = new SPSA();
+		parallelOptimiser.initialise(rna.copy(), props, odm, a, A, c, alpha, gamma);
+		parallelOptimiser.setParallelEvaluation(4, 2);
+		parallelOptimiser.runSPSA(3);
+		
+		List<Double> lossEvals = optimiser.getLossFunctionEvaluations();
+		List<Double> parallelLossEvals = parallelOptimiser.getLossFunctionEvaluations();
+		assertEquals("Number of loss function evaluations", lossEvals.size(), parallelLossEvals.size());
+		for (int i = 0; i < lossEvals.size(); i++)
+			assertEquals("Loss function evaluation " + i, lossEvals.get(i), parallelLossEvals.get(i), 1e-9);
+		assertEquals("Absolute difference of the estimated OD matrices", 0.0, optimiser.getThetaEstimate().getAbsoluteDifference(parallelOptimiser.getThetaEstimate()), 1e-9);
+		
+		//route choice with the shared route sets extended by aStar (each optimiser starts from its own empty route sets)
+		Properties params = new Properties();
+		params.setProperty("TIME", "-1.5");
+		params.setProperty("LENGTH", "-1.0");
+		params.setProperty("COST", "-3.6");
+		params.setProperty("INTERSECTIONS", "-0.1");
+		params.setProperty("AVERAGE_INTERSECTION_DELAY", "0.8");
+		
+		RouteSetGenerator rsg3 = new RouteSetGenerator(roadNetwork, props);
+		RandomSingleton.getInstance().setSeed(1234);
+		SPSA3 optimiser3 = new SPSA3();
+		optimiser3.initialise(rna.copy(), rsg3, params, odm, new HashMap<Integer, Double>(rna.getStartNodeProbabilities()), new HashMap<Integer, Double>(rna.getEndNodeProbabilities()), a, A, c, 0.0001, A, 0.01, alpha, gamma);
+		optimiser3.setParallelEvaluation(1, 2);
+		optimiser3.runSPSA(3);
+		
+		RouteSetGenerator parallelRsg3 = new RouteSetGenerator(roadNetwork, props);
+		RandomSingleton.getInstance().setSeed(1234);
+		SPSA3 parallelOptimiser3 = new SPSA3();
+		parallelOptimiser3.initialise(rna.copy(), parallelRsg3, params, odm, new HashMap<Integer, Double>(rna.getStartNodeProbabilities()), new HashMap<Integer, Double>(rna.getEndNodeProbabilities()), a, A, c, 0.0001, A, 0.01, alpha, gamma);
+		parallelOptimiser3.setParallelEvaluation(4, 2);
+		parallelOptimiser3.runSPSA(3);
+		
+		lossEvals = optimiser3.getLossFunctionEvaluations();
+		parallelLossEvals = parallelOptimiser3.getLossFunctionEvaluations();
+		assertEquals("Number of SPSA3 loss function evaluations", lossEvals.size(), parallelLossEvals.size());
+		for (int i = 0; i < lossEvals.size(); i++)
+			assertEquals("SPSA3 loss function evaluation " + i, lossEvals.get(i), parallelLossEvals.get(i), 1e-9);
+		assertEquals("Absolute difference of the SPSA3 estimated OD matrices", 0.0, optimiser3.getThetaEstimate().getAbsoluteDifference(parallelOptimiser3.getThetaEstimate()), 1e-9);
+		assertTrue("Routes found with aStar are added to the route sets", rsg3.getNumberOfRoutes() > 0);
+		assertEquals("Number of SPSA3 routes", rsg3.getNumberOfRoutes(), parallelRsg3.getNumberOfRoutes());
+		
+		final String temproODMatrixFile = props.getProperty("temproODMatrixFile");
+		
+		RouteSetGenerator rsg4 = new RouteSetGenerator(roadNetwork, props);
+		rsg4.generateSingleNodeRoutes();
+		RandomSingleton.getInstance().setSeed(1234);
+		SPSA4 optimiser4 = new SPSA4(props);
+		optimiser4.initialise(rna.copy(), zoning, rsg4, new RealODMatrixTempro(temproODMatrixFile, zoning), 1000, A, c, alpha, gamma);
+		optimiser4.setParallelEvaluation(1, 2);
+		optimiser4.runSPSA(3);
+		
+		RouteSetGenerator parallelRsg4 = new RouteSetGenerator(roadNetwork, props);
+		parallelRsg4.generateSingleNodeRoutes();
+		RandomSingleton.getInstance().setSeed(1234);
+		SPSA4 parallelOptimiser4 = new SPSA4(props);
+		parallelOptimiser4.initialise(rna.copy(), zoning, parallelRsg4, new RealODMatrixTempro(temproODMatrixFile, zoning), 1000, A, c, alpha, gamma);
+		parallelOptimiser4.setParallelEvaluation(4, 2);
+		parallelOptimiser4.runSPSA(3);
+		
+		lossEvals = optimiser4.getLossFunctionEvaluations();
+		parallelLossEvals = parallelOptimiser4.getLossFunctionEvaluations();
+		assertEquals("Number of SPSA4 loss function evaluations", lossEvals.size(), parallelLossEvals.size());
+		for (int i = 0; i < lossEvals.size(); i++)
+			assertEquals("SPSA4 loss function evaluation " + i, lossEvals.get(i), parallelLossEvals.get(i), 1e-9);
+		assertEquals("Absolute difference of the SPSA4 estimated OD matrices", 0.0, optimiser4.getThetaEstimate().getAbsoluteDifference(parallelOptimiser4.getThetaEstimate()), 1e-9);
+		assertEquals("Number of SPSA4 routes", rsg4.getNumberOfRoutes(), parallelRsg4.getNumberOfRoutes());
+	}
 }
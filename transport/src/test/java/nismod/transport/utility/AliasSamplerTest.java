@@ -0,0 +1,50 @@
+package nismod.transport.utility;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class AliasSamplerTest {
+
+	@Test
+	public void test() {
+
+		final double EPSILON = 0.005; //tolerance for the sampled frequencies
+		final int SAMPLES = 1000000;
+
+		int[] nodes = new int[] {7, 3, 11, 5};
+		double[] weights = new double[] {0.1, 0.0, 0.6, 0.3};
+		AliasSampler sampler = new AliasSampler(nodes, weights);
+		assertEquals("Outcomes with zero weight are not in the table", 3, sampler.size());
+		assertEquals("Probabilities are normalised", 0.6, sampler.getProbabilities()[sampler.indexOf(11)], 1e-12);
+		assertEquals("Outcome with zero weight has no index", -1, sampler.indexOf(3));
+
+		Random random = new Random(1234);
+		int[] counts = new int[12];
+		for (int i = 0; i < SAMPLES; i++) counts[sampler.sample(random.nextDouble())]++;
+
+		assertEquals("Outcome with zero weight is never sampled", 0, counts[3]);
+		for (int i = 0; i < nodes.length; i++)
+			assertEquals("Sampled frequency is correct", weights[i], (double) counts[nodes[i]] / SAMPLES, EPSILON);
+
+		//exclude one outcome, other probabilities should be rescaled
+		counts = new int[12];
+		for (int i = 0; i < SAMPLES; i++) {
+			int node = sampler.sampleExcluding(random::nextDouble, 11);
+			assertNotEquals("Excluded outcome is never sampled", 11, node);
+			counts[node]++;
+		}
+		assertEquals("Rescaled frequency is correct", 0.1 / 0.4, (double) counts[7] / SAMPLES, EPSILON);
+		assertEquals("Rescaled frequency is correct", 0.3 / 0.4, (double) counts[5] / SAMPLES, EPSILON);
+
+		//outcomes are ordinals if not provided
+		AliasSampler ordinalSampler = new AliasSampler(new double[] {0.0, 2.0, 0.0});
+		assertEquals("The only outcome with positive weight is sampled", 1, ordinalSampler.sample(0.0));
+		assertEquals("The only outcome with positive weight is sampled", 1, ordinalSampler.sample(0.999999));
+		assertEquals("No other outcome to sample", -1, ordinalSampler.sampleExcluding(random::nextDouble, 1));
+		assertEquals("No outcome to sample", -1, new AliasSampler(new double[] {0.0, 0.0}).sample(0.5));
+	}
+}
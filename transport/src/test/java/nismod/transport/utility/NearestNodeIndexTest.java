@@ -0,0 +1,75 @@
+package nismod.transport.utility;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+
+import org.junit.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.Point;
+
+public class NearestNodeIndexTest {
+
+	@Test
+	public void test() {
+
+		final int NODES = 2000;
+		final int K = 5;
+
+		GeometryFactory factory = new GeometryFactory();
+		Random random = new Random(1234);
+
+		int[] nodeIDs = new int[NODES];
+		Point[] points = new Point[NODES];
+		for (int i = 0; i < NODES; i++) {
+			nodeIDs[i] = 10 + 3 * i;
+			points[i] = factory.createPoint(new Coordinate(random.nextDouble() * 100000, random.nextDouble() * 100000));
+		}
+		NearestNodeIndex index = new NearestNodeIndex(nodeIDs, points);
+		assertEquals("All nodes are indexed", NODES, index.size());
+
+		//compare with the scan of all the nodes
+		for (int q = 0; q < 200; q++) {
+			final Point query = factory.createPoint(new Coordinate(random.nextDouble() * 100000, random.nextDouble() * 100000));
+
+			Integer[] positions = new Integer[NODES];
+			for (int i = 0; i < NODES; i++) positions[i] = i;
+			Arrays.sort(positions, new Comparator<Integer>() {
+				@Override
+				public int compare(Integer p1, Integer p2) {
+					return Double.compare(query.distance(points[p1]), query.distance(points[p2]));
+				}
+			});
+			int[] expected = new int[K];
+			for (int i = 0; i < K; i++) expected[i] = nodeIDs[positions[i]];
+
+			assertArrayEquals("K nearest nodes are the same as from the full scan", expected, index.getNearestNodes(query, K));
+			assertEquals("Nearest node is the same as from the full scan", expected[0], (int) index.getNearestNode(query));
+		}
+
+		assertEquals("Cannot return more nodes than indexed", NODES, index.getNearestNodes(points[0], NODES + 10).length);
+		assertNull("No nearest node in an empty index", new NearestNodeIndex(new int[0], new Point[0]).getNearestNode(points[0]));
+	}
+
+	@Test
+	public void testTies() {
+
+		GeometryFactory factory = new GeometryFactory();
+
+		//four nodes at the same distance from the origin (with IDs not in the order of positions) and one farther node
+		int[] nodeIDs = {40, 7, 25, 12, 3};
+		Point[] points = {factory.createPoint(new Coordinate(1, 0)), factory.createPoint(new Coordinate(0, 1)), factory.createPoint(new Coordinate(-1, 0)),
+							factory.createPoint(new Coordinate(0, -1)), factory.createPoint(new Coordinate(5, 5))};
+		NearestNodeIndex index = new NearestNodeIndex(nodeIDs, points);
+		Point origin = factory.createPoint(new Coordinate(0, 0));
+
+		assertEquals("Nearest node is the tied node with the lowest ID", 7, (int) index.getNearestNode(origin));
+		assertArrayEquals("Tied nearest nodes are sorted by ID", new int[] {7, 12}, index.getNearestNodes(origin, 2));
+		assertArrayEquals("Farther node comes after the tied nodes", new int[] {7, 12, 25, 40, 3}, index.getNearestNodes(origin, 5));
+	}
+}
@@ -0,0 +1,61 @@
+package nismod.transport.utility;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import org.junit.Test;
+
+public class ParallelTasksTest {
+
+	@Test
+	public void test() {
+
+		//each index is processed exactly once, for any number of ranges
+		for (int ranges = 1; ranges <= 8; ranges++) {
+			final int[] counts = new int[1001];
+			ParallelTasks.forEachRange(counts.length, ranges, (from, to) -> {
+				for (int i = from; i < to; i++) counts[i]++;
+			}, "test");
+			for (int i = 0; i < counts.length; i++) assertEquals("Index is processed once", 1, counts[i]);
+		}
+
+		//results are in the order of the tasks, also when tasks run their own parallel tasks
+		List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+		for (int t = 0; t < 4; t++) {
+			final int task = t;
+			tasks.add(() -> {
+				final int[] sums = new int[4];
+				ParallelTasks.forEachRange(sums.length, sums.length, (from, to) -> {
+					for (int i = from; i < to; i++) sums[i] = task * 10 + i;
+				}, "nested test");
+				return sums[0] + sums[1] + sums[2] + sums[3];
+			});
+		}
+		List<Integer> results = ParallelTasks.invokeAll(tasks, "test");
+		for (int t = 0; t < 4; t++) assertEquals("Result is in the order of the tasks", t * 40 + 6, results.get(t).intValue());
+
+		//a failed task fails the whole computation
+		try {
+			ParallelTasks.forEachRange(100, 4, (from, to) -> {
+				if (from == 0) throw new ArithmeticException("failed range");
+			}, "test");
+			fail("Exception expected");
+		} catch (IllegalStateException e) {
+			assertTrue("Cause is the failure of the task", e.getCause() instanceof ArithmeticException);
+		}
+
+		//an interrupted computation restores the interrupt status
+		Thread.currentThread().interrupt();
+		try {
+			ParallelTasks.forEachRange(100, 4, (from, to) -> {}, "test");
+			fail("Exception expected");
+		} catch (IllegalStateException e) {
+			assertTrue("Interrupt status is restored", Thread.interrupted()); //also clears it
+		}
+	}
+}
@@ -0,0 +1,34 @@
+package nismod.transport.utility;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.Point;
+
+public class PolygonIndexTest {
+
+	@Test
+	public void test() {
+
+		GeometryFactory factory = new GeometryFactory();
+
+		//a grid of 10 x 10 square zones, plus an overlapping zone added last (the zone added first should be chosen)
+		PolygonIndex<String> index = new PolygonIndex<String>();
+		for (int i = 0; i < 10; i++)
+			for (int j = 0; j < 10; j++)
+				index.add(factory.toGeometry(new Envelope(i * 10, i * 10 + 10, j * 10, j * 10 + 10)), "Z" + i + "_" + j);
+		index.add(factory.toGeometry(new Envelope(20, 40, 60, 80)), "OVERLAP");
+		assertEquals("All polygons are indexed", 101, index.size());
+
+		Point point = factory.createPoint(new Coordinate(35, 72));
+		assertEquals("Point is located in the right zone", "Z3_7", index.locate(point));
+
+		point = factory.createPoint(new Coordinate(150, 55));
+		assertNull("Point outside all polygons is not located", index.locate(point));
+		assertEquals("The nearest zone is found", "Z9_5", index.nearest(point));
+	}
+}
@@ -0,0 +1,76 @@
+package nismod.transport.utility;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.junit.Test;
+
+public class SnapshotReaderTest {
+
+	@Test
+	public void test() throws IOException {
+
+		File file = new File("./output/test/snapshot.bin");
+		long fingerprint = SnapshotWriter.fingerprint("input", 1, 2.0);
+
+		int[] ints = new int[1000];
+		double[] doubles = new double[1000];
+		for (int i = 0; i < ints.length; i++) {
+			ints[i] = i * 7 - 500;
+			doubles[i] = i / 3.0;
+		}
+		double[][] matrix = new double[][] {{1.0, 2.0}, null, {3.0}};
+		String[] strings = new String[] {"E02000001", null, "Ł"};
+
+		try (SnapshotWriter writer = new SnapshotWriter(file, fingerprint)) {
+			writer.writeInt(42);
+			writer.writeDouble(Math.PI);
+			writer.writeIntArray(ints);
+			writer.writeDoubleArray(doubles);
+			writer.writeIntArray(null);
+			writer.writeDoubleMatrix(matrix);
+			writer.writeStringArray(strings);
+			writer.writeLong(Long.MIN_VALUE);
+			writer.commit();
+		}
+
+		//small window, so that values are read across several mapped windows
+		try (SnapshotReader reader = SnapshotReader.open(file, fingerprint, 100)) {
+			assertNotNull("Valid snapshot is opened", reader);
+			assertEquals(42, reader.readInt());
+			assertEquals(Math.PI, reader.readDouble(), 0.0);
+			assertArrayEquals(ints, reader.readIntArray());
+			assertArrayEquals(doubles, reader.readDoubleArray(), 0.0);
+			assertNull(reader.readIntArray());
+			double[][] matrix2 = reader.readDoubleMatrix();
+			assertEquals(3, matrix2.length);
+			assertArrayEquals(matrix[0], matrix2[0], 0.0);
+			assertNull(matrix2[1]);
+			assertArrayEquals(matrix[2], matrix2[2], 0.0);
+			assertArrayEquals(strings, reader.readStringArray());
+			assertEquals(Long.MIN_VALUE, reader.readLong());
+			assertTrue("Whole payload is read", reader.isFullyRead());
+		}
+
+		assertNull("Snapshot from different inputs is ignored", SnapshotReader.open(file, SnapshotWriter.fingerprint("input", 1, 3.0)));
+
+		//corrupt one byte of the payload
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.seek(SnapshotWriter.HEADER_BYTES + 10);
+			int b = raf.read();
+			raf.seek(SnapshotWriter.HEADER_BYTES + 10);
+			raf.write(b ^ 0xff);
+		}
+		assertNull("Corrupted snapshot is ignored", SnapshotReader.open(file, fingerprint));
+
+		assertNull("Missing snapshot is ignored", SnapshotReader.open(new File("./output/test/missing.bin"), fingerprint));
+		file.delete();
+	}
+}
@@ -1,7 +1,9 @@
 package nismod.transport.zone;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 import java.io.FileWriter;
@@ -376,5 +378,38 @@ public class ZoningTest {
 		
 		System.out.println(zoning.getLadCodeToIDMap());
 		System.out.println(Arrays.toString(zoning.getLadIDToCodeMap()));
+		
+		//zoning loaded from the snapshot should be the same as the calculated one
+		Zoning calculatedZoning = new Zoning(temproZonesUrl, nodesUrl, roadNetwork, props);
+		
+		Properties snapshotProps = new Properties();
+		snapshotProps.putAll(props);
+		snapshotProps.setProperty("zoningSnapshotFile", "./output/test/miniZoningSnapshot.bin");
+		File snapshot = new File(snapshotProps.getProperty("zoningSnapshotFile"));
+		snapshot.delete();
+		new Zoning(temproZonesUrl, nodesUrl, roadNetwork, snapshotProps); //calculates and writes the snapshot
+		assertTrue("Snapshot is written", snapshot.exists());
+		Zoning loadedZoning = new Zoning(temproZonesUrl, nodesUrl, roadNetwork, snapshotProps); //loads the snapshot
+		
+		assertArrayEquals(calculatedZoning.getTemproIDToCodeMap(), loadedZoning.getTemproIDToCodeMap());
+		assertArrayEquals(calculatedZoning.getLadIDToCodeMap(), loadedZoning.getLadIDToCodeMap());
+		assertArrayEquals(calculatedZoning.getZoneIDToLadID(), loadedZoning.getZoneIDToLadID());
+		assertArrayEquals(calculatedZoning.getZoneIDToNearestNodeIDMap(), loadedZoning.getZoneIDToNearestNodeIDMap());
+		assertArrayEquals(calculatedZoning.getZoneIDToNearestNodeDistanceMap(), loadedZoning.getZoneIDToNearestNodeDistanceMap(), 0.0);
+		assertArrayEquals(calculatedZoning.getZoneIDToNearestNodeIDFromLADTopNodesMap(), loadedZoning.getZoneIDToNearestNodeIDFromLADTopNodesMap());
+		assertEquals(calculatedZoning.getTemproCodeToIDMap(), loadedZoning.getTemproCodeToIDMap());
+		assertEquals(calculatedZoning.getLadCodeToIDMap(), loadedZoning.getLadCodeToIDMap());
+		assertEquals(calculatedZoning.getLADToName(), loadedZoning.getLADToName());
+		assertEquals(calculatedZoning.getZoneToLADMap(), loadedZoning.getZoneToLADMap());
+		assertEquals(calculatedZoning.getNodeToZoneMap(), loadedZoning.getNodeToZoneMap());
+		assertEquals(calculatedZoning.getZoneToSortedListOfNodeAndDistancePairs(), loadedZoning.getZoneToSortedListOfNodeAndDistancePairs());
+		assertEquals(calculatedZoning.getZoneToNearestNodeIDFromLADTopNodesMap(), loadedZoning.getZoneToNearestNodeIDFromLADTopNodesMap());
+		for (String zoneCode: calculatedZoning.getZoneToCentroid().keySet())
+			assertTrue("Centroid is the same", calculatedZoning.getZoneToCentroid().get(zoneCode).equalsExact(loadedZoning.getZoneToCentroid().get(zoneCode)));
+		for (int i = 0; i < calculatedZoning.getZoneToNodeDistanceMatrix().length; i++) {
+			assertArrayEquals(calculatedZoning.getZoneToNodeDistanceMatrix()[i], loadedZoning.getZoneToNodeDistanceMatrix()[i], 0.0);
+			assertArrayEquals(calculatedZoning.getZoneToZoneDistanceMatrix()[i], loadedZoning.getZoneToZoneDistanceMatrix()[i], 0.0);
+			assertArrayEquals(calculatedZoning.getZoneToMinMaxDimension()[i], loadedZoning.getZoneToMinMaxDimension()[i], 0.0);
+		}
 	}
 }